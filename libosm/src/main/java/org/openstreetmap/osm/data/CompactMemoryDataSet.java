@@ -0,0 +1,1661 @@
+/**
+ * CompactMemoryDataSet.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openstreetmap.osm.ConfigurationSection;
+import org.openstreetmap.osm.Tags;
+import org.openstreetmap.osm.data.coordinates.Bounds;
+import org.openstreetmap.osm.data.coordinates.LatLon;
+import org.openstreetmap.osm.data.osmbin.v1_0.ExtendedWay;
+import org.openstreetmap.osm.data.searching.NameHelper;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Relation;
+import org.openstreetmap.osmosis.core.domain.v0_6.RelationMember;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.osmosis.core.util.FixedPrecisionCoordinateConvertor;
+
+/**
+ * Project: libosm<br/>
+ * CompactMemoryDataSet.java<br/>
+ *<br/><br/>
+ * <b>An in-memory {@link IDataSet} that keeps nodes and ways in primitive arrays
+ * instead of one object per entity.</b><br/>
+ * Nodes are stored as parallel arrays of ID, version, timestamp and
+ * fixed-point latitude and longitude. The node-IDs of ways are
+ * stored in a single long[] and found by an offset. Tag-keys and -values
+ * are interned and stored as pairs of int-IDs.
+ * The ways of a node are found by a compressed (CSR) reverse-index
+ * that is built on the first query. Ways added later are kept in a small
+ * overlay per node until there are too many of them or the ways
+ * have to grow, then the index is built again on the next query.<br/>
+ * Entities are appended and never changed in place, so all
+ * reads are lock-free. Writers are synchronized on this data set.
+ * A replaced or removed entity leaves a dead slot behind that is
+ * dropped when the arrays have to grow.<br/>
+ * Nodes and ways are created on every read, the user and
+ * changeset of an entity are not stored. Relations are few and are kept
+ * as objects, like in {@link MemoryDataSet}.
+ */
+public class CompactMemoryDataSet implements IDataSet, IStampedDataSet {
+
+    /**
+     * The initial number of nodes and ways we have room for.
+     */
+    private static final int INITIALCAPACITY = 1024;
+
+    /**
+     * Tag-offset of an entity without tags.
+     */
+    private static final int NOTAGS = -1;
+
+    /**
+     * The reverse-index of the ways is rebuilt once more than this many ways
+     * (or 1/{@link #ADDEDWAYSRATIO} of the ways it was built for)
+     * have been added since it was built.
+     */
+    private static final int MINADDEDWAYS = 1024;
+
+    /**
+     * @see #MINADDEDWAYS
+     */
+    private static final int ADDEDWAYSRATIO = 8;
+
+    /**
+     * Number of milliseconds in a second.
+     */
+    private static final long MILLIS = 1000L;
+
+    /**
+     * Mask to read an int as unsigned.
+     */
+    private static final long UNSIGNEDINT = 0xFFFFFFFFL;
+
+    /**
+     * Index of the minimum latitude in a fixed-point bounding-box.
+     */
+    private static final int MINLAT = 0;
+
+    /**
+     * Index of the minimum longitude in a fixed-point bounding-box.
+     */
+    private static final int MINLON = 1;
+
+    /**
+     * Index of the maximum latitude in a fixed-point bounding-box.
+     */
+    private static final int MAXLAT = 2;
+
+    /**
+     * Index of the maximum longitude in a fixed-point bounding-box.
+     */
+    private static final int MAXLON = 3;
+
+    /**
+     * All nodes.
+     * Replaced by a larger copy when full.
+     */
+    private volatile NodeTable myNodes = new NodeTable(INITIALCAPACITY);
+
+    /**
+     * All ways.
+     * Replaced by a larger copy when full.
+     */
+    private volatile WayTable myWays = new WayTable(INITIALCAPACITY);
+
+    /**
+     * The ways of each node for {@link #myWays}.
+     * null if it has to be rebuilt.
+     */
+    private volatile WaysByNode myWaysByNode;
+
+    /**
+     * The interned strings of all tag-keys and -values.
+     */
+    private final StringTable myStrings = new StringTable();
+
+    /**
+     * All relations in the DataSet.
+     */
+    private Map<Long, Relation> relationByID = Collections.synchronizedMap(new HashMap<Long, Relation>());
+
+    /**
+     * All relations in the DataSet indexed by way-id.
+     */
+    private Map<Long, List<Relation>> relationsByWayID = Collections.synchronizedMap(new HashMap<Long, List<Relation>>());
+
+    /**
+     * The Helper-Functions for Way.
+     */
+    private WayHelper myWayHelper = new WayHelper(this);
+
+    /**
+     * The Helper-Functions for Node.
+     */
+    private NodeHelper myNodeHelper = new NodeHelper(this);
+
+    /**
+     * Incremented by the writers whenever a node, way or relation is added or removed.
+     * @see #getModificationStamp()
+     */
+    private final AtomicLong myModificationStamp = new AtomicLong();
+
+    /**
+     * {@inheritDoc}.
+     * @see org.openstreetmap.osm.data.IStampedDataSet#getModificationStamp()
+     */
+    public long getModificationStamp() {
+        return myModificationStamp.get();
+    }
+
+    /**
+     * {@inheritDoc}.
+     * @see org.openstreetmap.osm.data.IDataSet#addNode(org.openstreetmap.osmosis.core.domain.v0_6.Node)
+     */
+    public synchronized void addNode(final Node w) {
+        if (w == null) {
+            throw new IllegalArgumentException("null node given");
+        }
+        NodeTable nodes = this.myNodes;
+        int timestamp = toTimestamp(w.getTimestamp());
+        int oldSlot = nodes.getSlot(w.getId());
+        if (oldSlot >= 0 && !nodes.isNewer(oldSlot, timestamp)) {
+            return;
+        }
+        if (nodes.isFull()) {
+            nodes = new NodeTable(nodes);
+            this.myNodes = nodes;
+        }
+        int slot = nodes.append(w.getId(), w.getVersion(), timestamp, myStrings.intern(w.getTags()));
+        nodes.myLatitudes[slot] = FixedPrecisionCoordinateConvertor.convertToFixed(w.getLatitude());
+        nodes.myLongitudes[slot] = FixedPrecisionCoordinateConvertor.convertToFixed(w.getLongitude());
+        nodes.publish(slot);
+        myModificationStamp.incrementAndGet();
+    }
+
+    /**
+     * @param w node be null (ignored then)
+     */
+    public synchronized void removeNode(final Node w) {
+        if (w != null && this.myNodes.remove(w.getId())) {
+            myModificationStamp.incrementAndGet();
+        }
+    }
+
+    /**
+     * {@inheritDoc}.
+     * @see org.openstreetmap.osm.data.IDataSet#containsNode(org.openstreetmap.osmosis.core.domain.v0_6.Node)
+     */
+    public boolean containsNode(final Node w) {
+        return this.myNodes.getSlot(w.getId()) >= 0;
+    }
+
+    /**
+     * {@inheritDoc}.
+     * @see org.openstreetmap.osm.data.IDataSet#getNodeByID(long)
+     */
+    public Node getNodeByID(final long aNodeID) {
+        NodeTable nodes = this.myNodes;
+        int slot = nodes.getSlot(aNodeID);
+        if (slot < 0) {
+            return null;
+        }
+        return toNode(nodes, slot);
+    }
+
+    /**
+     * @return all nodes we know (be carefull, can be MANY)
+     * @param boundingBox visit only what is or intersects this boundingBox.
+     */
+    public Iterator<Node> getNodes(final Bounds boundingBox) {
+        final NodeTable nodes = this.myNodes;
+        if (boundingBox == null || boundingBox == Bounds.WORLD) {
+            return new SlotIterator<Node>(nodes.getCount()) {
+                @Override
+                protected boolean accept(final int aSlot) {
+                    return nodes.isLive(aSlot);
+                }
+                @Override
+                protected Node get(final int aSlot) {
+                    return toNode(nodes, aSlot);
+                }
+            };
+        }
+        final int[] box = toFixed(boundingBox);
+        return new SlotIterator<Node>(nodes.getCount()) {
+            @Override
+            protected boolean accept(final int aSlot) {
+                return nodes.isLive(aSlot) && nodes.isInside(aSlot, box);
+            }
+            @Override
+            protected Node get(final int aSlot) {
+                return toNode(nodes, aSlot);
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}.
+     * @see org.openstreetmap.osm.data.IDataSet#addWay(org.openstreetmap.osmosis.core.domain.v0_6.Way)
+     */
+    public synchronized void addWay(final Way w) {
+        if (w == null) {
+            throw new IllegalArgumentException("null way given");
+        }
+        WayTable ways = this.myWays;
+        int timestamp = toTimestamp(w.getTimestamp());
+        int oldSlot = ways.getSlot(w.getId());
+        if (oldSlot >= 0 && !ways.isNewer(oldSlot, timestamp)) {
+            return;
+        }
+        if (ways.isFull()) {
+            ways = new WayTable(ways);
+            this.myWays = ways;
+        }
+        int slot = ways.append(w.getId(), w.getVersion(), timestamp, myStrings.intern(w.getTags()));
+        ways.appendWayNodes(slot, w.getWayNodes());
+        ways.publish(slot);
+        myModificationStamp.incrementAndGet();
+        // a replaced way is skipped by it's dead slot
+        WaysByNode waysByNode = this.myWaysByNode;
+        if (waysByNode != null && (waysByNode.myWays != ways || !waysByNode.add(slot))) {
+            this.myWaysByNode = null;
+        }
+    }
+
+    /**
+     * @param w may be null (ignored then)
+     */
+    public synchronized void removeWay(final Way w) {
+        // the reverse-index skips the dead slot
+        if (w != null && this.myWays.remove(w.getId())) {
+            myModificationStamp.incrementAndGet();
+        }
+    }
+
+    /**
+     * {@inheritDoc}.
+     * @see org.openstreetmap.osm.data.IDataSet#containsWay(org.openstreetmap.osmosis.core.domain.v0_6.Way)
+     */
+    public boolean containsWay(final Way w) {
+        return this.myWays.getSlot(w.getId()) >= 0;
+    }
+
+    /**
+     * {@inheritDoc}.
+     * @see org.openstreetmap.osm.data.IDataSet#getWaysByID(long)
+     */
+    public Way getWaysByID(final long aWayID) {
+        WayTable ways = this.myWays;
+        int slot = ways.getSlot(aWayID);
+        if (slot < 0) {
+            return null;
+        }
+        return toWay(ways, slot);
+    }
+
+    /**
+     * @return all ways we know (be carefull, can be MANY)
+     * @param boundingBox visit only what is or intersects this boundingBox.
+     */
+    public Iterator<Way> getWays(final Bounds boundingBox) {
+        if (boundingBox == null || boundingBox == Bounds.WORLD) {
+            final WayTable ways = this.myWays;
+            return new SlotIterator<Way>(ways.getCount()) {
+                @Override
+                protected boolean accept(final int aSlot) {
+                    return ways.isLive(aSlot);
+                }
+                @Override
+                protected Way get(final int aSlot) {
+                    return toWay(ways, aSlot);
+                }
+            };
+        }
+
+        // all ways with at least one node in the bounds
+        final WaysByNode waysByNode = getWaysByNode();
+        final NodeTable nodes = this.myNodes;
+        final int[] box = toFixed(boundingBox);
+        BitSet found = new BitSet();
+        int count = nodes.getCount();
+        for (int slot = 0; slot < count; slot++) {
+            if (!nodes.isLive(slot) || !nodes.isInside(slot, box)) {
+                continue;
+            }
+            int dense = waysByNode.myNodeIndex.get(nodes.myIDs[slot]);
+            if (dense >= 0) {
+                for (int i = waysByNode.myFirstWay[dense]; i < waysByNode.myFirstWay[dense + 1]; i++) {
+                    found.set(waysByNode.myWaySlots[i]);
+                }
+            }
+            int[] added = waysByNode.getAddedWays(nodes.myIDs[slot]);
+            if (added != null) {
+                for (int waySlot : added) {
+                    found.set(waySlot);
+                }
+            }
+        }
+        final int[] waySlots = toArray(found);
+        return new SlotIterator<Way>(waySlots.length) {
+            @Override
+            protected boolean accept(final int anIndex) {
+                return waysByNode.myWays.isLive(waySlots[anIndex]);
+            }
+            @Override
+            protected Way get(final int anIndex) {
+                return toWay(waysByNode.myWays, waySlots[anIndex]);
+            }
+        };
+    }
+
+    /**
+     * Return all ways in this dataset that contain
+     * this node.
+     * @param nodeID the node to look for
+     * @return an iterator over the list
+     */
+    public Iterator<Way> getWaysForNode(final long nodeID) {
+        WaysByNode waysByNode = getWaysByNode();
+        ArrayList<Way> retval = new ArrayList<Way>();
+        int dense = waysByNode.myNodeIndex.get(nodeID);
+        if (dense >= 0) {
+            for (int i = waysByNode.myFirstWay[dense]; i < waysByNode.myFirstWay[dense + 1]; i++) {
+                int slot = waysByNode.myWaySlots[i];
+                if (waysByNode.myWays.isLive(slot)) {
+                    retval.add(toWay(waysByNode.myWays, slot));
+                }
+            }
+        }
+        int[] added = waysByNode.getAddedWays(nodeID);
+        if (added != null) {
+            for (int slot : added) {
+                if (waysByNode.myWays.isLive(slot)) {
+                    retval.add(toWay(waysByNode.myWays, slot));
+                }
+            }
+        }
+        return retval.iterator();
+    }
+
+    /**
+     * @return the reverse-index of {@link #myWays}, built if it is out of date
+     */
+    private WaysByNode getWaysByNode() {
+        WaysByNode waysByNode = this.myWaysByNode;
+        if (waysByNode != null) {
+            return waysByNode;
+        }
+        synchronized (this) {
+            if (this.myWaysByNode == null) {
+                this.myWaysByNode = new WaysByNode(this.myWays);
+            }
+            return this.myWaysByNode;
+        }
+    }
+
+    /**
+     * {@inheritDoc}.
+     * @see org.openstreetmap.osm.data.IDataSet#addRelation(org.openstreetmap.osmosis.core.domain.v0_6.Relation)
+     */
+    public void addRelation(final Relation r) {
+        if (r == null) {
+            throw new IllegalArgumentException("null relation given");
+        }
+
+//      check if the relation is newer first
+        Relation oldRelation = getRelationByID(r.getId());
+        if (oldRelation != null) {
+            if (r.getTimestamp() == null || oldRelation.getTimestamp() == null || !oldRelation.getTimestamp().after(r.getTimestamp())) {
+                removeRelation(oldRelation);
+            } else {
+                return;
+            }
+        }
+
+        Relation temp = this.relationByID.put(r.getId(), r);
+        assert temp == null;
+        myModificationStamp.incrementAndGet();
+        for (RelationMember member : r.getMembers()) {
+            if (member.getMemberType() == EntityType.Way) {
+                List<Relation> list = this.relationsByWayID.get(member.getMemberId());
+                if (list == null) {
+                    list = new LinkedList<Relation>();
+                    this.relationsByWayID.put(member.getMemberId(), list);
+                }
+                list.add(r);
+            }
+        }
+    }
+
+    /**
+     * Does only remove the relation and not relations
+     * that contain this one, nor ways
+     * in the relaiton.
+     * @param r may be null (ignored then)
+     */
+    public void removeRelation(final Relation r) {
+        if (r == null) {
+            return;
+        }
+        if (this.relationByID.remove(r.getId()) != null) {
+            myModificationStamp.incrementAndGet();
+        }
+        for (RelationMember member : r.getMembers()) {
+            if (member.getMemberType() == EntityType.Way) {
+                List<Relation> list = this.relationsByWayID.get(member.getMemberId());
+                if (list != null) {
+                    list.remove(r);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}.
+     * @see org.openstreetmap.osm.data.IDataSet#containsRelation(org.openstreetmap.osmosis.core.domain.v0_6.Relation)
+     */
+    public boolean containsRelation(final Relation r) {
+        return relationByID.containsKey(r.getId());
+    }
+
+    /**
+     * {@inheritDoc}.
+     * @see org.openstreetmap.osm.data.IDataSet#getRelationByID(long)
+     */
+    public Relation getRelationByID(final long aRelationID) {
+        return this.relationByID.get(aRelationID);
+    }
+
+    /**
+     * @return all relation we know (be carefull, can be MANY)
+     * @param boundingBox ignored
+     */
+    public Iterator<Relation> getRelations(final Bounds boundingBox) {
+        synchronized (this.relationByID) {
+            return new ArrayList<Relation>(this.relationByID.values()).iterator();
+        }
+    }
+
+    /**
+     * @param lookFor the way-name to look for (ignores cases but does not check for alternative spellings)
+     * @param boundingbox return only what is in the bounding-box
+     * @return all known ways with that name
+     */
+    public Iterator<Way> getWaysByName(final String lookFor, final Bounds boundingbox) {
+        String lookForRegEx = NameHelper.buildNameSearchRegexp(lookFor);
+        WayTable ways = this.myWays;
+        NodeTable nodes = this.myNodes;
+        int[] box = null;
+        if (boundingbox != null) {
+            box = toFixed(boundingbox);
+        }
+        LinkedList<Way> retval = new LinkedList<Way>();
+        int count = ways.getCount();
+        for (int slot = 0; slot < count; slot++) {
+            if (!ways.isLive(slot)) {
+                continue;
+            }
+            String name = getTag(ways, slot, Tags.TAG_NAME);  // e.g. "XYZSteet"
+            if (!(name != null && NameHelper.normalizeName(name).matches(lookForRegEx))
+                && !hasName(ways, slot, lookFor)) {
+                continue;
+            }
+            if (box != null && !isInside(ways, slot, nodes, box)) {
+                continue;
+            }
+            retval.add(toWay(ways, slot));
+        }
+        return retval.iterator();
+    }
+
+    /**
+     * @param lookFor the node-name to look for (ignores cases but does not check for alternative spellings)
+     * @return all known nodes with that name
+     */
+    public Iterator<Node> getNodesByName(final String lookFor) {
+        NodeTable nodes = this.myNodes;
+        LinkedList<Node> retval = new LinkedList<Node>();
+        int count = nodes.getCount();
+        for (int slot = 0; slot < count; slot++) {
+            if (!nodes.isLive(slot)) {
+                continue;
+            }
+            String name = getTag(nodes, slot, Tags.TAG_NAME);  // e.g. "XYZSteet"
+            if ((name != null && name.equalsIgnoreCase(lookFor)) || hasName(nodes, slot, lookFor)) {
+                retval.add(toNode(nodes, slot));
+            }
+        }
+        return retval.iterator();
+    }
+
+    /**
+     * @param aTable the nodes or ways
+     * @param aSlot the entity
+     * @param lookFor the ref to look for
+     * @return true if the ref, nat_ref or int_ref of the entity is lookFor, ignoring case
+     */
+    private boolean hasName(final EntityTable aTable, final int aSlot, final String lookFor) {
+        String name = getTag(aTable, aSlot, Tags.TAG_REF); // e.g. "A81"
+        if (name != null && name.equalsIgnoreCase(lookFor)) {
+            return true;
+        }
+        name = getTag(aTable, aSlot, Tags.TAG_NAT_REF); // e.g. "B31a"
+        if (name != null && name.equalsIgnoreCase(lookFor)) {
+            return true;
+        }
+        name = getTag(aTable, aSlot, Tags.TAG_INT_REF); //e.g. "E312"
+        return name != null && name.equalsIgnoreCase(lookFor);
+    }
+
+    /**
+     * @param aWays the ways
+     * @param aSlot the way
+     * @param aNodes the nodes
+     * @param aBox the bounds as from {@link #toFixed(Bounds)}
+     * @return true if at least one node of the way is inside the bounds
+     */
+    private static boolean isInside(final WayTable aWays, final int aSlot, final NodeTable aNodes, final int[] aBox) {
+        long[] wayNodes = aWays.myWayNodes;
+        int offset = aWays.myWayNodeOffsets[aSlot];
+        int count = (int) wayNodes[offset];
+        for (int i = 1; i <= count; i++) {
+            int nodeSlot = aNodes.getSlot(wayNodes[offset + i]);
+            if (nodeSlot >= 0 && aNodes.isInside(nodeSlot, aBox)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param aKey a key to look for
+     * @param aValue (may be null) a value for the give key to look for
+     * @return all ways containing the given key (with the given value is specified)
+     */
+    public Iterator<Way> getWaysByTag(final String aKey, final String aValue) {
+        final WayTable ways = this.myWays;
+        final int keyID = myStrings.getID(aKey);
+        final int valueID = myStrings.getID(aValue);
+        if (keyID < 0 || (aValue != null && valueID < 0)) {
+            return (new LinkedList<Way>()).iterator();
+        }
+        return new SlotIterator<Way>(ways.getCount()) {
+            @Override
+            protected boolean accept(final int aSlot) {
+                return ways.isLive(aSlot) && ways.hasTag(aSlot, keyID, valueID);
+            }
+            @Override
+            protected Way get(final int aSlot) {
+                return toWay(ways, aSlot);
+            }
+        };
+    }
+
+    /**
+     * @param aKey a key to look for
+     * @param aValue (may be null) a value for the give key to look for
+     * @return all nodes containing the given key (with the given value is specified)
+     */
+    public Iterator<Node> getNodesByTag(final String aKey, final String aValue) {
+        final NodeTable nodes = this.myNodes;
+        final int keyID = myStrings.getID(aKey);
+        final int valueID = myStrings.getID(aValue);
+        if (keyID < 0 || (aValue != null && valueID < 0)) {
+            return (new LinkedList<Node>()).iterator();
+        }
+        return new SlotIterator<Node>(nodes.getCount()) {
+            @Override
+            protected boolean accept(final int aSlot) {
+                return nodes.isLive(aSlot) && nodes.hasTag(aSlot, keyID, valueID);
+            }
+            @Override
+            protected Node get(final int aSlot) {
+                return toNode(nodes, aSlot);
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}.
+     * @param aLastGPSPos
+     * @param aSelector
+     * @return the node with the minimum distance to the given LatLon.
+     */
+    public Node getNearestNode(final LatLon aLastGPSPos, final Selector aSelector) {
+        NodeTable nodes = this.myNodes;
+        double minDist = Double.MAX_VALUE;
+        Node minDistNode = null;
+        int count = nodes.getCount();
+        for (int slot = 0; slot < count; slot++) {
+            if (!nodes.isLive(slot)) {
+                continue;
+            }
+            double dist = LatLon.distance(
+                    FixedPrecisionCoordinateConvertor.convertToDouble(nodes.myLatitudes[slot]),
+                    FixedPrecisionCoordinateConvertor.convertToDouble(nodes.myLongitudes[slot]),
+                    aLastGPSPos.lat(), aLastGPSPos.lon());
+            if (dist >= minDist) {
+                continue;
+            }
+            Node node = toNode(nodes, slot);
+            if (aSelector != null && !aSelector.isAllowed(this, node)) {
+                continue;
+            }
+            minDist = dist;
+            minDistNode = node;
+        }
+        return minDistNode;
+    }
+
+    /**
+     * @return the number of nodes in the map.
+     */
+    public int getNodesCount() {
+        return myNodes.getLiveCount();
+    }
+
+    /**
+     * @return the number of ways in the map.
+     */
+    public int getWaysCount() {
+        return myWays.getLiveCount();
+    }
+
+    /**
+     * @return the number of relations in the map.
+     */
+    public int getRelationsCount() {
+        return relationByID.size();
+    }
+
+    /**
+     * @return the nodeHelper
+     */
+    public NodeHelper getNodeHelper() {
+        return myNodeHelper;
+    }
+
+    /**
+     * @return the wayHelper
+     */
+    public WayHelper getWayHelper() {
+        return myWayHelper;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void shutdown() {
+        this.myNodes = new NodeTable(INITIALCAPACITY);
+        this.myWays = new WayTable(INITIALCAPACITY);
+        this.myWaysByNode = null;
+        this.relationByID.clear();
+        this.relationsByWayID.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ConfigurationSection getSettings() {
+        return null;
+    }
+
+    /**
+     * @param aNodes the nodes
+     * @param aSlot the node to create
+     * @return a new Node with the values stored in the slot
+     */
+    private Node toNode(final NodeTable aNodes, final int aSlot) {
+        Node node = new Node(aNodes.myIDs[aSlot], aNodes.myVersions[aSlot], toDate(aNodes.myTimestamps[aSlot]), null, 0,
+                FixedPrecisionCoordinateConvertor.convertToDouble(aNodes.myLatitudes[aSlot]),
+                FixedPrecisionCoordinateConvertor.convertToDouble(aNodes.myLongitudes[aSlot]));
+        readTags(aNodes, aSlot, node.getTags());
+        return node;
+    }
+
+    /**
+     * @param aWays the ways
+     * @param aSlot the way to create
+     * @return a new ExtendedWay with the values stored in the slot and the relations it is in
+     */
+    private ExtendedWay toWay(final WayTable aWays, final int aSlot) {
+        long wayID = aWays.myIDs[aSlot];
+        ExtendedWay eWay = new ExtendedWay(wayID, aWays.myVersions[aSlot]);
+        readTags(aWays, aSlot, eWay.getTags());
+        long[] wayNodes = aWays.myWayNodes;
+        int offset = aWays.myWayNodeOffsets[aSlot];
+        int count = (int) wayNodes[offset];
+        List<WayNode> target = eWay.getWayNodes();
+        for (int i = 1; i <= count; i++) {
+            target.add(new WayNode(wayNodes[offset + i]));
+        }
+        List<Relation> list = this.relationsByWayID.get(wayID);
+        if (list != null) {
+            synchronized (this.relationsByWayID) {
+                for (Relation relation : list) {
+                    eWay.getReferencedRelationIDs().add(relation.getId());
+                }
+            }
+        }
+        return eWay;
+    }
+
+    /**
+     * @param aTable the nodes or ways
+     * @param aSlot the entity
+     * @param aTarget where to add the tags of the entity
+     */
+    private void readTags(final EntityTable aTable, final int aSlot, final Collection<Tag> aTarget) {
+        int offset = aTable.myTagOffsets[aSlot];
+        if (offset == NOTAGS) {
+            return;
+        }
+        int[] tags = aTable.myTags;
+        int count = tags[offset];
+        for (int i = 0; i < count; i++) {
+            aTarget.add(new Tag(myStrings.get(tags[offset + 1 + 2 * i]), myStrings.get(tags[offset + 2 + 2 * i])));
+        }
+    }
+
+    /**
+     * @param aTable the nodes or ways
+     * @param aSlot the entity
+     * @param aKey the tag to look for
+     * @return the value of the tag or null
+     */
+    private String getTag(final EntityTable aTable, final int aSlot, final String aKey) {
+        int keyID = myStrings.getID(aKey);
+        int offset = aTable.myTagOffsets[aSlot];
+        if (keyID < 0 || offset == NOTAGS) {
+            return null;
+        }
+        int[] tags = aTable.myTags;
+        int count = tags[offset];
+        for (int i = 0; i < count; i++) {
+            if (tags[offset + 1 + 2 * i] == keyID) {
+                return myStrings.get(tags[offset + 2 + 2 * i]);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param aDate may be null
+     * @return the date in seconds since 1970 as an unsigned int, 0 for null
+     */
+    private static int toTimestamp(final Date aDate) {
+        if (aDate == null) {
+            return 0;
+        }
+        return (int) (aDate.getTime() / MILLIS);
+    }
+
+    /**
+     * @param aTimestamp see {@link #toTimestamp(Date)}
+     * @return the date or null
+     */
+    private static Date toDate(final int aTimestamp) {
+        if (aTimestamp == 0) {
+            return null;
+        }
+        return new Date((aTimestamp & UNSIGNEDINT) * MILLIS);
+    }
+
+    /**
+     * @param aBounds the bounds
+     * @return minLat, minLon, maxLat, maxLon in fixed-point
+     */
+    private static int[] toFixed(final Bounds aBounds) {
+        return new int[] {
+                FixedPrecisionCoordinateConvertor.convertToFixed(aBounds.getMin().lat()),
+                FixedPrecisionCoordinateConvertor.convertToFixed(aBounds.getMin().lon()),
+                FixedPrecisionCoordinateConvertor.convertToFixed(aBounds.getMax().lat()),
+                FixedPrecisionCoordinateConvertor.convertToFixed(aBounds.getMax().lon())
+        };
+    }
+
+    /**
+     * @param aBits some bits
+     * @return the indices of all set bits in ascending order
+     */
+    private static int[] toArray(final BitSet aBits) {
+        int[] retval = new int[aBits.cardinality()];
+        int i = 0;
+        for (int bit = aBits.nextSetBit(0); bit >= 0; bit = aBits.nextSetBit(bit + 1)) {
+            retval[i++] = bit;
+        }
+        return retval;
+    }
+
+    /**
+     * Iterates over the slots 0..n-1 and creates an
+     * entity for every accepted slot when it is reached.
+     * @param <T> the type of entities
+     */
+    private abstract static class SlotIterator<T> implements Iterator<T> {
+
+        /**
+         * The number of slots.
+         */
+        private final int myEnd;
+
+        /**
+         * The next slot to check.
+         */
+        private int mySlot;
+
+        /**
+         * True if {@link #mySlot} has been accepted.
+         */
+        private boolean myFound;
+
+        /**
+         * @param anEnd the number of slots
+         */
+        public SlotIterator(final int anEnd) {
+            this.myEnd = anEnd;
+        }
+
+        /**
+         * @param aSlot a slot
+         * @return true if the slot shall be returned
+         */
+        protected abstract boolean accept(final int aSlot);
+
+        /**
+         * @param aSlot an accepted slot
+         * @return the entity of the slot
+         */
+        protected abstract T get(final int aSlot);
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext() {
+            while (!myFound && mySlot < myEnd) {
+                if (accept(mySlot)) {
+                    myFound = true;
+                } else {
+                    mySlot++;
+                }
+            }
+            return myFound;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            myFound = false;
+            return get(mySlot++);
+        }
+
+        /**
+         * Not supported.
+         */
+        public void remove() {
+            throw new UnsupportedOperationException("read-only iterator");
+        }
+    }
+
+    /**
+     * All strings used as tag-key or -value
+     * numbered in the order they have been seen first.
+     */
+    private static final class StringTable {
+
+        /**
+         * The ID of each string.
+         */
+        private final Map<String, Integer> myIDs = new ConcurrentHashMap<String, Integer>();
+
+        /**
+         * The string of each ID.
+         * Only appended to, replaced by a larger copy when full.
+         */
+        private volatile String[] myStrings = new String[INITIALCAPACITY];
+
+        /**
+         * The number of strings.
+         */
+        private int myCount;
+
+        /**
+         * @param aString may be null
+         * @return the ID of the string or -1
+         */
+        public int getID(final String aString) {
+            if (aString == null) {
+                return -1;
+            }
+            Integer id = myIDs.get(aString);
+            if (id == null) {
+                return -1;
+            }
+            return id.intValue();
+        }
+
+        /**
+         * @param anID see {@link #getID(String)}
+         * @return the string
+         */
+        public String get(final int anID) {
+            return myStrings[anID];
+        }
+
+        /**
+         * Must be called while holding the lock of the data set.
+         * @param aString the string
+         * @return the ID of the string, new if it is not known yet
+         */
+        public int intern(final String aString) {
+            String string = aString;
+            if (string == null) {
+                string = "";
+            }
+            Integer id = myIDs.get(string);
+            if (id != null) {
+                return id.intValue();
+            }
+            String[] strings = this.myStrings;
+            if (myCount == strings.length) {
+                String[] grown = new String[strings.length * 2];
+                System.arraycopy(strings, 0, grown, 0, myCount);
+                strings = grown;
+                this.myStrings = grown;
+            }
+            strings[myCount] = string;
+            myIDs.put(string, myCount);
+            return myCount++;
+        }
+
+        /**
+         * Must be called while holding the lock of the data set.
+         * @param aTags the tags of an entity
+         * @return the count followed by the key- and value-ID of each tag or null if there are no tags
+         */
+        public int[] intern(final Collection<Tag> aTags) {
+            if (aTags == null || aTags.isEmpty()) {
+                return null;
+            }
+            int[] retval = new int[1 + 2 * aTags.size()];
+            int i = 0;
+            retval[i++] = aTags.size();
+            for (Tag tag : aTags) {
+                retval[i++] = intern(tag.getKey());
+                retval[i++] = intern(tag.getValue());
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * A map of long to int-values &gt;= 0 by open addressing that can be read
+     * by any number of threads while one thread writes to it.
+     * It never grows, the capacity must be at least the number of keys
+     * ever put.
+     */
+    private static final class LongIntIndex {
+
+        /**
+         * Value of a bucket that was never used.
+         */
+        private static final int EMPTY = 0;
+
+        /**
+         * Value of a bucket whose key was removed.
+         */
+        private static final int REMOVED = -1;
+
+        /**
+         * Multiplier for Fibonacci-hashing.
+         */
+        private static final long GOLDENRATIO = 0x9E3779B97F4A7C15L;
+
+        /**
+         * The key of each bucket.
+         */
+        private final AtomicLongArray myKeys;
+
+        /**
+         * The value+1 of each bucket, {@link #EMPTY} or {@link #REMOVED}.
+         * Set after the key.
+         */
+        private final AtomicIntegerArray myValues;
+
+        /**
+         * Number of bits to shift the hash to get a bucket.
+         */
+        private final int myShift;
+
+        /**
+         * @param aMaxKeys the number of keys we have room for
+         */
+        public LongIntIndex(final int aMaxKeys) {
+            int buckets = Integer.highestOneBit(Math.max(2, aMaxKeys) * 2 - 1) * 2;
+            this.myKeys = new AtomicLongArray(buckets);
+            this.myValues = new AtomicIntegerArray(buckets);
+            this.myShift = Long.SIZE - Integer.numberOfTrailingZeros(buckets);
+        }
+
+        /**
+         * @param aKey a key
+         * @return the first bucket to look in
+         */
+        private int hash(final long aKey) {
+            return (int) ((aKey * GOLDENRATIO) >>> myShift);
+        }
+
+        /**
+         * @param aKey a key
+         * @return the bucket with this key or the empty bucket where it belongs
+         */
+        private int find(final long aKey) {
+            int mask = myValues.length() - 1;
+            int bucket = hash(aKey);
+            while (myValues.get(bucket) != EMPTY && myKeys.get(bucket) != aKey) {
+                bucket = (bucket + 1) & mask;
+            }
+            return bucket;
+        }
+
+        /**
+         * @param aKey a key
+         * @return the value or -1
+         */
+        public int get(final long aKey) {
+            return myValues.get(find(aKey)) - 1;
+        }
+
+        /**
+         * Only one thread may write at a time.
+         * @param aKey a key
+         * @param aValue the new value, &gt;= 0
+         */
+        public void put(final long aKey, final int aValue) {
+            int bucket = find(aKey);
+            myKeys.set(bucket, aKey);
+            myValues.set(bucket, aValue + 1);
+        }
+
+        /**
+         * Only one thread may write at a time.
+         * @param aKey a key
+         * @return true if the key was present
+         */
+        public boolean remove(final long aKey) {
+            int bucket = find(aKey);
+            if (myValues.get(bucket) <= EMPTY) {
+                return false;
+            }
+            myValues.set(bucket, REMOVED);
+            return true;
+        }
+    }
+
+    /**
+     * The arrays common to nodes and ways.
+     * A slot is only written before it is published,
+     * after that it is only marked as removed.
+     */
+    private abstract static class EntityTable {
+
+        /**
+         * The ID of each slot.
+         */
+        protected final long[] myIDs;
+
+        /**
+         * The version of each slot.
+         */
+        protected final int[] myVersions;
+
+        /**
+         * The timestamp of each slot, see {@link CompactMemoryDataSet#toTimestamp(Date)}.
+         */
+        protected final int[] myTimestamps;
+
+        /**
+         * The offset of the tags of each slot in {@link #myTags} or {@link CompactMemoryDataSet#NOTAGS}.
+         */
+        protected final int[] myTagOffsets;
+
+        /**
+         * True for slots that have been removed or replaced.
+         */
+        private final boolean[] myRemoved;
+
+        /**
+         * The slot of each ID.
+         */
+        private final LongIntIndex myIndex;
+
+        /**
+         * For each entity with tags the count followed by the
+         * key- and value-ID of each tag.
+         * Replaced by a larger copy when full.
+         */
+        protected volatile int[] myTags;
+
+        /**
+         * The used length of {@link #myTags}.
+         */
+        private int myTagsLength;
+
+        /**
+         * The number of published slots.
+         */
+        private volatile int myCount;
+
+        /**
+         * The number of published slots that have not been removed.
+         */
+        private volatile int myLiveCount;
+
+        /**
+         * @param aCapacity the number of slots
+         */
+        protected EntityTable(final int aCapacity) {
+            this.myIDs = new long[aCapacity];
+            this.myVersions = new int[aCapacity];
+            this.myTimestamps = new int[aCapacity];
+            this.myTagOffsets = new int[aCapacity];
+            this.myRemoved = new boolean[aCapacity];
+            this.myIndex = new LongIntIndex(aCapacity);
+            this.myTags = new int[aCapacity];
+        }
+
+        /**
+         * @return the number of published slots
+         */
+        public int getCount() {
+            return myCount;
+        }
+
+        /**
+         * @return the number of entities
+         */
+        public int getLiveCount() {
+            return myLiveCount;
+        }
+
+        /**
+         * @return true if there is no slot left to append to
+         */
+        public boolean isFull() {
+            return myCount == myIDs.length;
+        }
+
+        /**
+         * @param aSlot a published slot
+         * @return false if the entity was removed or replaced
+         */
+        public boolean isLive(final int aSlot) {
+            return !myRemoved[aSlot];
+        }
+
+        /**
+         * @param anID the ID of an entity
+         * @return the slot of the entity or -1
+         */
+        public int getSlot(final long anID) {
+            return myIndex.get(anID);
+        }
+
+        /**
+         * @param aSlot a published slot
+         * @param aTimestamp the timestamp of a new version of the entity
+         * @return true if the new version is not older than the one in the slot
+         */
+        public boolean isNewer(final int aSlot, final int aTimestamp) {
+            int old = myTimestamps[aSlot];
+            return aTimestamp == 0 || old == 0 || (old & UNSIGNEDINT) <= (aTimestamp & UNSIGNEDINT);
+        }
+
+        /**
+         * @param aSlot a published slot
+         * @param aKeyID the key to look for
+         * @param aValueID the value to look for or -1 for any value
+         * @return true if the entity has the tag
+         */
+        public boolean hasTag(final int aSlot, final int aKeyID, final int aValueID) {
+            int offset = myTagOffsets[aSlot];
+            if (offset == NOTAGS) {
+                return false;
+            }
+            int[] tags = myTags;
+            int count = tags[offset];
+            for (int i = 0; i < count; i++) {
+                if (tags[offset + 1 + 2 * i] == aKeyID) {
+                    return aValueID < 0 || tags[offset + 2 + 2 * i] == aValueID;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Write the next slot without publishing it.
+         * @param anID the ID
+         * @param aVersion the version
+         * @param aTimestamp the timestamp
+         * @param aTags the tags as from {@link StringTable#intern(Collection)} or null
+         * @return the slot
+         */
+        public int append(final long anID, final int aVersion, final int aTimestamp, final int[] aTags) {
+            int slot = myCount;
+            myIDs[slot] = anID;
+            myVersions[slot] = aVersion;
+            myTimestamps[slot] = aTimestamp;
+            if (aTags == null) {
+                myTagOffsets[slot] = NOTAGS;
+            } else {
+                int[] tags = myTags;
+                if (myTagsLength + aTags.length > tags.length) {
+                    int[] grown = new int[Math.max(tags.length * 2, myTagsLength + aTags.length)];
+                    System.arraycopy(tags, 0, grown, 0, myTagsLength);
+                    tags = grown;
+                    myTags = grown;
+                }
+                System.arraycopy(aTags, 0, tags, myTagsLength, aTags.length);
+                myTagOffsets[slot] = myTagsLength;
+                myTagsLength += aTags.length;
+            }
+            return slot;
+        }
+
+        /**
+         * Copy the common values of a live slot of a smaller table into the next slot.
+         * @param aSource the smaller table
+         * @param aSlot the slot in aSource
+         * @return the new slot, not published yet
+         */
+        protected int append(final EntityTable aSource, final int aSlot) {
+            int[] tags = null;
+            int offset = aSource.myTagOffsets[aSlot];
+            if (offset != NOTAGS) {
+                int[] sourceTags = aSource.myTags;
+                tags = new int[1 + 2 * sourceTags[offset]];
+                System.arraycopy(sourceTags, offset, tags, 0, tags.length);
+            }
+            return append(aSource.myIDs[aSlot], aSource.myVersions[aSlot], aSource.myTimestamps[aSlot], tags);
+        }
+
+        /**
+         * Make the last appended slot visible to readers.
+         * A slot with the same ID is marked as removed.
+         * @param aSlot the slot returned by append
+         */
+        public void publish(final int aSlot) {
+            int oldSlot = myIndex.get(myIDs[aSlot]);
+            myCount = aSlot + 1;
+            myIndex.put(myIDs[aSlot], aSlot);
+            if (oldSlot >= 0) {
+                myRemoved[oldSlot] = true;
+            } else {
+                myLiveCount++;
+            }
+        }
+
+        /**
+         * @param anID the ID of the entity to remove
+         * @return true if it was present
+         */
+        public boolean remove(final long anID) {
+            int slot = myIndex.get(anID);
+            if (slot < 0) {
+                return false;
+            }
+            myIndex.remove(anID);
+            myRemoved[slot] = true;
+            myLiveCount--;
+            return true;
+        }
+
+        /**
+         * @param aSource the smaller table
+         * @return the capacity for a copy of aSource with room to grow
+         */
+        protected static int getGrownCapacity(final EntityTable aSource) {
+            return Math.max(INITIALCAPACITY, aSource.getLiveCount() * 2);
+        }
+    }
+
+    /**
+     * The nodes of a {@link CompactMemoryDataSet}.
+     */
+    private static final class NodeTable extends EntityTable {
+
+        /**
+         * The fixed-point latitude of each slot.
+         */
+        private final int[] myLatitudes;
+
+        /**
+         * The fixed-point longitude of each slot.
+         */
+        private final int[] myLongitudes;
+
+        /**
+         * @param aCapacity the number of slots
+         */
+        public NodeTable(final int aCapacity) {
+            super(aCapacity);
+            this.myLatitudes = new int[aCapacity];
+            this.myLongitudes = new int[aCapacity];
+        }
+
+        /**
+         * Create a larger copy of the live slots.
+         * @param aSource the full table
+         */
+        public NodeTable(final NodeTable aSource) {
+            this(getGrownCapacity(aSource));
+            int count = aSource.getCount();
+            for (int i = 0; i < count; i++) {
+                if (aSource.isLive(i)) {
+                    int slot = append(aSource, i);
+                    myLatitudes[slot] = aSource.myLatitudes[i];
+                    myLongitudes[slot] = aSource.myLongitudes[i];
+                    publish(slot);
+                }
+            }
+        }
+
+        /**
+         * @param aSlot a published slot
+         * @param aBox the bounds as from {@link CompactMemoryDataSet#toFixed(Bounds)}
+         * @return true if the node is inside the bounds
+         */
+        public boolean isInside(final int aSlot, final int[] aBox) {
+            int lat = myLatitudes[aSlot];
+            int lon = myLongitudes[aSlot];
+            return lat >= aBox[MINLAT] && lon >= aBox[MINLON] && lat <= aBox[MAXLAT] && lon <= aBox[MAXLON];
+        }
+    }
+
+    /**
+     * The ways of a {@link CompactMemoryDataSet}.
+     */
+    private static final class WayTable extends EntityTable {
+
+        /**
+         * The offset of the node-count of each slot in {@link #myWayNodes}.
+         */
+        private final int[] myWayNodeOffsets;
+
+        /**
+         * For each way the count followed by the IDs of the nodes.
+         * Replaced by a larger copy when full.
+         */
+        private volatile long[] myWayNodes;
+
+        /**
+         * The used length of {@link #myWayNodes}.
+         */
+        private int myWayNodesLength;
+
+        /**
+         * @param aCapacity the number of slots
+         */
+        public WayTable(final int aCapacity) {
+            super(aCapacity);
+            this.myWayNodeOffsets = new int[aCapacity];
+            this.myWayNodes = new long[aCapacity];
+        }
+
+        /**
+         * Create a larger copy of the live slots.
+         * @param aSource the full table
+         */
+        public WayTable(final WayTable aSource) {
+            this(getGrownCapacity(aSource));
+            int count = aSource.getCount();
+            for (int i = 0; i < count; i++) {
+                if (aSource.isLive(i)) {
+                    int slot = append(aSource, i);
+                    long[] wayNodes = aSource.myWayNodes;
+                    int offset = aSource.myWayNodeOffsets[i];
+                    appendWayNodes(slot, wayNodes, offset, 1 + (int) wayNodes[offset]);
+                    publish(slot);
+                }
+            }
+        }
+
+        /**
+         * @param aSlot the unpublished slot
+         * @param aWayNodes the nodes of the way
+         */
+        public void appendWayNodes(final int aSlot, final List<WayNode> aWayNodes) {
+            long[] wayNodes = new long[1 + aWayNodes.size()];
+            int i = 0;
+            wayNodes[i++] = aWayNodes.size();
+            for (WayNode wayNode : aWayNodes) {
+                wayNodes[i++] = wayNode.getNodeId();
+            }
+            appendWayNodes(aSlot, wayNodes, 0, wayNodes.length);
+        }
+
+        /**
+         * @param aSlot the unpublished slot
+         * @param aWayNodes the count followed by the node-IDs
+         * @param anOffset where the count is in aWayNodes
+         * @param aLength 1 + the count
+         */
+        private void appendWayNodes(final int aSlot, final long[] aWayNodes, final int anOffset, final int aLength) {
+            long[] wayNodes = myWayNodes;
+            if (myWayNodesLength + aLength > wayNodes.length) {
+                long[] grown = new long[Math.max(wayNodes.length * 2, myWayNodesLength + aLength)];
+                System.arraycopy(wayNodes, 0, grown, 0, myWayNodesLength);
+                wayNodes = grown;
+                myWayNodes = grown;
+            }
+            System.arraycopy(aWayNodes, anOffset, wayNodes, myWayNodesLength, aLength);
+            myWayNodeOffsets[aSlot] = myWayNodesLength;
+            myWayNodesLength += aLength;
+        }
+    }
+
+    /**
+     * The slots of the ways of each node in compressed sparse row layout.
+     * Immutable once built, except for the overlay of ways added later.
+     */
+    private static final class WaysByNode {
+
+        /**
+         * The ways this index was built for.
+         */
+        private final WayTable myWays;
+
+        /**
+         * The row of each node-ID.
+         */
+        private final LongIntIndex myNodeIndex;
+
+        /**
+         * The ways of row i are myWaySlots[myFirstWay[i]]..myWaySlots[myFirstWay[i + 1] - 1].
+         */
+        private final int[] myFirstWay;
+
+        /**
+         * The way-slots of all rows.
+         */
+        private final int[] myWaySlots;
+
+        /**
+         * The number of slots in {@link #myWays} when this index was built.
+         */
+        private final int myBuiltCount;
+
+        /**
+         * The slots of the ways added after this index was built by node-ID.
+         * The arrays are replaced, never changed, so readers need no lock.
+         */
+        private final Map<Long, int[]> myAddedWays = new ConcurrentHashMap<Long, int[]>();
+
+        /**
+         * The number of ways in {@link #myAddedWays}.
+         */
+        private int myAddedCount;
+
+        /**
+         * Build the index by counting sort.
+         * @param aWays the ways to index
+         */
+        public WaysByNode(final WayTable aWays) {
+            this.myWays = aWays;
+            long[] wayNodes = aWays.myWayNodes;
+            int count = aWays.getCount();
+            this.myBuiltCount = count;
+            int references = 0;
+            for (int slot = 0; slot < count; slot++) {
+                if (aWays.isLive(slot)) {
+                    references += (int) wayNodes[aWays.myWayNodeOffsets[slot]];
+                }
+            }
+
+            // number the nodes and count their ways
+            this.myNodeIndex = new LongIntIndex(references);
+            int[] wayCounts = new int[references];
+            // a way like a roundabout may contain a node more than once
+            int[] lastWay = new int[references];
+            int rows = 0;
+            for (int slot = 0; slot < count; slot++) {
+                if (!aWays.isLive(slot)) {
+                    continue;
+                }
+                int offset = aWays.myWayNodeOffsets[slot];
+                int nodeCount = (int) wayNodes[offset];
+                for (int i = 1; i <= nodeCount; i++) {
+                    int row = myNodeIndex.get(wayNodes[offset + i]);
+                    if (row < 0) {
+                        row = rows++;
+                        myNodeIndex.put(wayNodes[offset + i], row);
+                    }
+                    if (lastWay[row] != slot + 1) {
+                        lastWay[row] = slot + 1;
+                        wayCounts[row]++;
+                    }
+                }
+            }
+
+            // prefix-sums
+            this.myFirstWay = new int[rows + 1];
+            for (int row = 0; row < rows; row++) {
+                myFirstWay[row + 1] = myFirstWay[row] + wayCounts[row];
+            }
+
+            // fill
+            this.myWaySlots = new int[myFirstWay[rows]];
+            int[] next = new int[rows];
+            System.arraycopy(myFirstWay, 0, next, 0, rows);
+            Arrays.fill(lastWay, 0);
+            for (int slot = 0; slot < count; slot++) {
+                if (!aWays.isLive(slot)) {
+                    continue;
+                }
+                int offset = aWays.myWayNodeOffsets[slot];
+                int nodeCount = (int) wayNodes[offset];
+                for (int i = 1; i <= nodeCount; i++) {
+                    int row = myNodeIndex.get(wayNodes[offset + i]);
+                    if (lastWay[row] != slot + 1) {
+                        lastWay[row] = slot + 1;
+                        myWaySlots[next[row]++] = slot;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add a way published in {@link #myWays} after this index was built.
+         * Writers must be synchronized on the data set.
+         * @param aSlot the slot of the way
+         * @return false if too many ways have been added and this index has to be rebuilt
+         */
+        public boolean add(final int aSlot) {
+            if (myAddedCount >= Math.max(MINADDEDWAYS, myBuiltCount / ADDEDWAYSRATIO)) {
+                return false;
+            }
+            long[] wayNodes = myWays.myWayNodes;
+            int offset = myWays.myWayNodeOffsets[aSlot];
+            int nodeCount = (int) wayNodes[offset];
+            for (int i = 1; i <= nodeCount; i++) {
+                Long nodeID = wayNodes[offset + i];
+                int[] slots = myAddedWays.get(nodeID);
+                if (slots == null) {
+                    slots = new int[] {aSlot};
+                } else if (slots[slots.length - 1] == aSlot) {
+                    // a way like a roundabout may contain a node more than once
+                    continue;
+                } else {
+                    slots = Arrays.copyOf(slots, slots.length + 1);
+                    slots[slots.length - 1] = aSlot;
+                }
+                myAddedWays.put(nodeID, slots);
+            }
+            myAddedCount++;
+            return true;
+        }
+
+        /**
+         * @param aNodeID the node to look for
+         * @return the slots of the ways with this node added after this index was built or null
+         */
+        public int[] getAddedWays(final long aNodeID) {
+            return myAddedWays.get(aNodeID);
+        }
+    }
+}
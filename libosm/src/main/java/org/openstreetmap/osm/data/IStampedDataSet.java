@@ -0,0 +1,51 @@
+/**
+ * IStampedDataSet.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data;
+
+/**
+ * Project: libosm<br/>
+ * IStampedDataSet.java<br/>
+ *<br/><br/>
+ * <b>An {@link IDataSet} that can tell if it was modified.</b><br/>
+ * Users that keep data derived from the map (e.g. a routing-graph)
+ * remember the stamp it was derived at and derive it again
+ * once the stamp is different.
+ */
+public interface IStampedDataSet extends IDataSet {
+
+    /**
+     * The stamp changes whenever a node, way or relation
+     * is added, replaced or removed. It never changes back
+     * to a value it had before.
+     * @return the current modification-stamp
+     */
+    long getModificationStamp();
+}
@@ -28,7 +28,6 @@
 package org.openstreetmap.osm.data;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -37,6 +36,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 //import java.util.logging.Logger;
 
 import org.openstreetmap.osm.ConfigurationSection;
@@ -72,7 +72,7 @@ import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
  * @author imi
  * @author <a href="mailto:Marcus@Wolschon.biz">Marcus Wolschon</a>
  */
-public class MemoryDataSet implements IDataSet {
+public class MemoryDataSet implements IDataSet, IStampedDataSet {
 
     /**
      * my logger for debug and error-output.
@@ -115,6 +115,11 @@ public class MemoryDataSet implements IDataSet {
      */
     private Map<Long, List<Way>> waysByNodeID = Collections.synchronizedMap(new HashMap<Long, List<Way>>());
 
+    /**
+     * All nodes in the DataSet indexed by location.
+     */
+    private NodeGrid nodesByLocation = new NodeGrid();
+
     /**
      * The Helper-Functions for Segment.
      */
@@ -125,6 +130,20 @@ public class MemoryDataSet implements IDataSet {
      */
     private NodeHelper myNodeHelper = new NodeHelper(this);
 
+    /**
+     * Incremented whenever a node, way or relation is added or removed.
+     * @see #getModificationStamp()
+     */
+    private final AtomicLong myModificationStamp = new AtomicLong();
+
+    /**
+     * {@inheritDoc}.
+     * @see org.openstreetmap.osm.data.IStampedDataSet#getModificationStamp()
+     */
+    public long getModificationStamp() {
+        return myModificationStamp.get();
+    }
+
 
 
 //    /**
@@ -144,14 +163,21 @@ public class MemoryDataSet implements IDataSet {
      * @param boundingBox visit only what is or intersects this boundingBox.
      */
     public Iterator<Way> getWays(final Bounds boundingBox) {
+        Bounds bounds = boundingBox;
+        if (bounds == null) {
+            bounds = Bounds.WORLD;
+        }
+        // all ways with at least one node in the bounds
         LinkedList<Way> retval = new LinkedList<Way>();
-        for (Way way : waysByID.values()) {
-            for (WayNode wayNode : way.getWayNodes()) {
-                Node node = getNodeByID(wayNode.getNodeId());
-                if (node != null
-                 && boundingBox.contains(node.getLatitude(), node.getLongitude())) {
+        Set<Long> found = new HashSet<Long>();
+        for (Node node : this.nodesByLocation.get(bounds)) {
+            List<Way> list = this.waysByNodeID.get(node.getId());
+            if (list == null) {
+                continue;
+            }
+            for (Way way : list) {
+                if (found.add(way.getId())) {
                     retval.add(way);
-                    break;
                 }
             }
         }
@@ -168,7 +194,8 @@ public class MemoryDataSet implements IDataSet {
         }
 
 //      check if the way is newer first
-        Way oldWay = getWaysByID(w.getId());
+        // (not getWaysByID(), the copy it returns has the current time as timestamp)
+        Way oldWay = this.waysByID.get(w.getId());
         if (oldWay != null) {
             if (w.getTimestamp() == null || oldWay.getTimestamp() == null || !oldWay.getTimestamp().after(w.getTimestamp())) {
                 removeWay(oldWay);
@@ -178,6 +205,7 @@ public class MemoryDataSet implements IDataSet {
         }
 
         Way temp = this.waysByID.put(w.getId(), w);
+        myModificationStamp.incrementAndGet();
 
 //      add by segments
         for (WayNode nodeRef : w.getWayNodes()) {
@@ -196,14 +224,19 @@ public class MemoryDataSet implements IDataSet {
      * @param w may be null (ignored then)
      */
     public void removeWay(final Way w) {
-        this.waysByID.remove(w.getId());
+        // w may be a copy, e.g. an ExtendedWay from getWaysByID
+        Way old = this.waysByID.remove(w.getId());
+        if (old == null) {
+            return;
+        }
+        myModificationStamp.incrementAndGet();
 
 //      remove by segments
-        for (WayNode nodeRef : w.getWayNodes()) {
+        for (WayNode nodeRef : old.getWayNodes()) {
 
             List<Way> list = this.waysByNodeID.get(nodeRef.getNodeId());
             if (list != null) {
-                list.remove(w);
+                list.remove(old);
             }
         }
     }
@@ -245,6 +278,7 @@ public class MemoryDataSet implements IDataSet {
 
         Relation temp = this.relationByID.put(r.getId(), r);
         assert temp == null;
+        myModificationStamp.incrementAndGet();
         for (RelationMember member : r.getMembers()) {
          if (member.getMemberType() == EntityType.Way) {
              List<Relation> list = this.relationsByWayID.get(member.getMemberId());
@@ -264,7 +298,9 @@ public class MemoryDataSet implements IDataSet {
      * @param r may be null (ignored then)
      */
     public void removeRelation(final Relation r) {
-        this.relationByID.remove(r.getId());
+        if (this.relationByID.remove(r.getId()) != null) {
+            myModificationStamp.incrementAndGet();
+        }
 //        for (Relation parentRelation : relationByID.values()) {
 //            List<RelationMember> memberList = parentRelation.getMemberList();
 //            for (RelationMember member : memberList) {
@@ -419,13 +455,7 @@ public class MemoryDataSet implements IDataSet {
         if (boundingBox == null || boundingBox == Bounds.WORLD)
             return this.nodesByID.values().iterator();
 
-        Collection<Node> allNodes = this.nodesByID.values();
-        List<Node> retval = new LinkedList<Node>();
-        for (Node node : allNodes) {
-            if (boundingBox.contains(node.getLatitude(), node.getLongitude()))
-                retval.add(node);
-        }
-        return retval.iterator();
+        return this.nodesByLocation.get(boundingBox).iterator();
     }
 
     /**
@@ -449,13 +479,19 @@ public class MemoryDataSet implements IDataSet {
 
         Node temp = this.nodesByID.put(w.getId(), w);
         assert temp == null;
+        myModificationStamp.incrementAndGet();
+        this.nodesByLocation.add(w);
     }
 
     /**
      * @param w node be null (ignored then)
      */
     public void removeNode(final Node w) {
-        this.nodesByID.remove(w.getId());
+        Node old = this.nodesByID.remove(w.getId());
+        if (old != null) {
+            myModificationStamp.incrementAndGet();
+            this.nodesByLocation.remove(old);
+        }
     }
 
     /**
@@ -564,22 +600,21 @@ public class MemoryDataSet implements IDataSet {
      * @return the node with the minimum distance to the given LatLon.
      */
     public Node getNearestNode(final LatLon aLastGPSPos, final Selector aSelector) {
-
-        double minDist = Double.MAX_VALUE;
-        Node minDistNode = null;
-        for (Node node : nodesByID.values()) {
-            if (aSelector != null && !aSelector.isAllowed(this, node))
-                continue;
-            LatLon pos = new LatLon(node.getLatitude(), node.getLongitude());
-            double dist = pos.distance(aLastGPSPos);
-
-            if (dist < minDist) {
-                minDist = dist;
-                minDistNode = node;
-            }
+        List<Node> nearest = getNearestNodes(aLastGPSPos, 1, aSelector);
+        if (nearest.isEmpty()) {
+            return null;
         }
+        return nearest.get(0);
+    }
 
-        return minDistNode;
+    /**
+     * @param aLastGPSPos the location to look for
+     * @param aCount the maximum number of nodes to return
+     * @param aSelector may be null
+     * @return the aCount nodes with the minimum distance to the given LatLon, nearest first.
+     */
+    public List<Node> getNearestNodes(final LatLon aLastGPSPos, final int aCount, final Selector aSelector) {
+        return this.nodesByLocation.getNearest(this, aLastGPSPos.lat(), aLastGPSPos.lon(), aCount, aSelector);
     }
 
     /**
@@ -631,6 +666,7 @@ public class MemoryDataSet implements IDataSet {
         this.relationByID.clear();
         this.waysByID.clear();
         this.waysByNodeID.clear();
+        this.nodesByLocation.clear();
     }
 
     /**
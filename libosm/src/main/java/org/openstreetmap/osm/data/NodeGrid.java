@@ -0,0 +1,421 @@
+/**
+ * NodeGrid.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.openstreetmap.osm.data.coordinates.Bounds;
+import org.openstreetmap.osm.data.coordinates.LatLon;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+
+/**
+ * Project: libosm<br/>
+ * NodeGrid.java<br/>
+ *<br/><br/>
+ * <b>Uniform grid over the locations of the nodes of a {@link MemoryDataSet}.</b><br/>
+ * Every node is kept in the list of the cell of {@link #CELLSIZE}
+ * degrees it is located in. Only the cells that contain nodes
+ * exist. The grid is updated whenever a node is added or removed
+ * (nodes must not be moved while they are in the grid).
+ * All methods are synchronized.
+ */
+class NodeGrid {
+
+    /**
+     * The size of a cell in degrees of latitude and longitude.
+     */
+    static final double CELLSIZE = 0.01d;
+
+    /**
+     * The nodes in each cell by {@link #getCellKey(int, int)}.
+     */
+    private final Map<Long, List<Node>> myCells = new HashMap<Long, List<Node>>();
+
+    /**
+     * The number of nodes in the grid.
+     */
+    private int mySize;
+
+    /**
+     * The smallest latitude-index of a cell ever used.
+     */
+    private int myMinLatCell = Integer.MAX_VALUE;
+
+    /**
+     * The largest latitude-index of a cell ever used.
+     */
+    private int myMaxLatCell = Integer.MIN_VALUE;
+
+    /**
+     * The smallest longitude-index of a cell ever used.
+     */
+    private int myMinLonCell = Integer.MAX_VALUE;
+
+    /**
+     * The largest longitude-index of a cell ever used.
+     */
+    private int myMaxLonCell = Integer.MIN_VALUE;
+
+    /**
+     * @param aNode the node to add
+     */
+    public synchronized void add(final Node aNode) {
+        int latCell = getCell(aNode.getLatitude());
+        int lonCell = getCell(aNode.getLongitude());
+        Long key = getCellKey(latCell, lonCell);
+        List<Node> cell = myCells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<Node>(2);
+            myCells.put(key, cell);
+        }
+        cell.add(aNode);
+        mySize++;
+        myMinLatCell = Math.min(myMinLatCell, latCell);
+        myMaxLatCell = Math.max(myMaxLatCell, latCell);
+        myMinLonCell = Math.min(myMinLonCell, lonCell);
+        myMaxLonCell = Math.max(myMaxLonCell, lonCell);
+    }
+
+    /**
+     * @param aNode the node to remove (the same object that was added)
+     */
+    public synchronized void remove(final Node aNode) {
+        Long key = getCellKey(getCell(aNode.getLatitude()), getCell(aNode.getLongitude()));
+        List<Node> cell = myCells.get(key);
+        if (cell == null) {
+            return;
+        }
+        for (int i = 0; i < cell.size(); i++) {
+            if (cell.get(i) == aNode) {
+                cell.remove(i);
+                mySize--;
+                break;
+            }
+        }
+        if (cell.isEmpty()) {
+            myCells.remove(key);
+        }
+    }
+
+    /**
+     * Remove all nodes.
+     */
+    public synchronized void clear() {
+        myCells.clear();
+        mySize = 0;
+        myMinLatCell = Integer.MAX_VALUE;
+        myMaxLatCell = Integer.MIN_VALUE;
+        myMinLonCell = Integer.MAX_VALUE;
+        myMaxLonCell = Integer.MIN_VALUE;
+    }
+
+    /**
+     * @param aBoundingBox the area to look in
+     * @return all nodes in the given bounds
+     */
+    public synchronized List<Node> get(final Bounds aBoundingBox) {
+        List<Node> retval = new LinkedList<Node>();
+        int minLatCell = Math.max(myMinLatCell, getCell(aBoundingBox.getMin().lat()));
+        int maxLatCell = Math.min(myMaxLatCell, getCell(aBoundingBox.getMax().lat()));
+        int minLonCell = Math.max(myMinLonCell, getCell(aBoundingBox.getMin().lon()));
+        int maxLonCell = Math.min(myMaxLonCell, getCell(aBoundingBox.getMax().lon()));
+        if (minLatCell > maxLatCell || minLonCell > maxLonCell) {
+            return retval;
+        }
+        long cellCount = (maxLatCell - minLatCell + 1L) * (maxLonCell - minLonCell + 1L);
+        if (cellCount > myCells.size()) {
+            // fewer cells exist than the bounds cover
+            for (Map.Entry<Long, List<Node>> entry : myCells.entrySet()) {
+                int latCell = getLatCell(entry.getKey());
+                int lonCell = getLonCell(entry.getKey());
+                if (latCell >= minLatCell && latCell <= maxLatCell
+                    && lonCell >= minLonCell && lonCell <= maxLonCell) {
+                    addContained(entry.getValue(), aBoundingBox, retval);
+                }
+            }
+            return retval;
+        }
+        for (int latCell = minLatCell; latCell <= maxLatCell; latCell++) {
+            for (int lonCell = minLonCell; lonCell <= maxLonCell; lonCell++) {
+                List<Node> cell = myCells.get(getCellKey(latCell, lonCell));
+                if (cell != null) {
+                    addContained(cell, aBoundingBox, retval);
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Best-first search for the nodes nearest to a location.
+     * The cells are searched in rings of growing size around the
+     * location until no cell of the next ring can be nearer than the
+     * nodes found. If the rings grow larger than the grid is
+     * full, the remaining cells are scanned instead.
+     * @param aMap the map to give to the selector
+     * @param aLatitude the location to look for
+     * @param aLongitude the location to look for
+     * @param aCount the maximum number of nodes to return
+     * @param aSelector may be null
+     * @return the nearest allowed nodes, nearest first
+     */
+    public synchronized List<Node> getNearest(final IDataSet aMap,
+                                              final double aLatitude,
+                                              final double aLongitude,
+                                              final int aCount,
+                                              final Selector aSelector) {
+        if (aCount < 1 || mySize == 0) {
+            return new LinkedList<Node>();
+        }
+        final int centerLat = getCell(aLatitude);
+        final int centerLon = getCell(aLongitude);
+        final int maxRing = Math.max(Math.max(Math.abs(centerLat - myMinLatCell), Math.abs(myMaxLatCell - centerLat)),
+                                     Math.max(Math.abs(centerLon - myMinLonCell), Math.abs(myMaxLonCell - centerLon)));
+        Nearest nearest = new Nearest(aMap, aLatitude, aLongitude, aCount, aSelector);
+        long cellsVisited = 0;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (nearest.isFull() && ring > 0) {
+                // no node in this ring is nearer than (ring - 1) cells
+                double reach = (ring - 1) * CELLSIZE;
+                if (reach * reach > nearest.getMaxDistance()) {
+                    break;
+                }
+            }
+            if (cellsVisited > myCells.size()) {
+                // the nodes are far away, scan all cells not visited yet
+                for (Map.Entry<Long, List<Node>> entry : myCells.entrySet()) {
+                    int latDist = Math.abs(getLatCell(entry.getKey()) - centerLat);
+                    int lonDist = Math.abs(getLonCell(entry.getKey()) - centerLon);
+                    if (Math.max(latDist, lonDist) >= ring) {
+                        nearest.addAll(entry.getValue());
+                    }
+                }
+                break;
+            }
+            for (int latCell = centerLat - ring; latCell <= centerLat + ring; latCell++) {
+                boolean edgeRow = latCell == centerLat - ring || latCell == centerLat + ring;
+                int step = 2 * ring;
+                if (edgeRow || ring == 0) {
+                    step = 1;
+                }
+                for (int lonCell = centerLon - ring; lonCell <= centerLon + ring; lonCell += step) {
+                    cellsVisited++;
+                    List<Node> cell = myCells.get(getCellKey(latCell, lonCell));
+                    if (cell != null) {
+                        nearest.addAll(cell);
+                    }
+                }
+            }
+        }
+        return nearest.getNodes();
+    }
+
+    /**
+     * The nodes nearest to a location found so far.
+     */
+    private static final class Nearest {
+
+        /**
+         * The map to give to the selector.
+         */
+        private final IDataSet myMap;
+
+        /**
+         * The location to look for.
+         */
+        private final double myLatitude;
+
+        /**
+         * The location to look for.
+         */
+        private final double myLongitude;
+
+        /**
+         * The maximum number of nodes to keep.
+         */
+        private final int myCount;
+
+        /**
+         * May be null.
+         */
+        private final Selector mySelector;
+
+        /**
+         * The nodes found with the farthest one at the head.
+         */
+        private final PriorityQueue<NodeDistance> myNodes;
+
+        /**
+         * @param aMap the map to give to the selector
+         * @param aLatitude the location to look for
+         * @param aLongitude the location to look for
+         * @param aCount the maximum number of nodes to keep
+         * @param aSelector may be null
+         */
+        private Nearest(final IDataSet aMap, final double aLatitude, final double aLongitude,
+                        final int aCount, final Selector aSelector) {
+            this.myMap = aMap;
+            this.myLatitude = aLatitude;
+            this.myLongitude = aLongitude;
+            this.myCount = aCount;
+            this.mySelector = aSelector;
+            this.myNodes = new PriorityQueue<NodeDistance>(aCount, new Comparator<NodeDistance>() {
+                public int compare(final NodeDistance aA, final NodeDistance aB) {
+                    return Double.compare(aB.myDistance, aA.myDistance);
+                }
+            });
+        }
+
+        /**
+         * Look at the nodes of a cell.
+         * The selector is only asked for nodes near enough to be kept.
+         * @param aCell the nodes to look at
+         */
+        private void addAll(final List<Node> aCell) {
+            for (Node node : aCell) {
+                double dist = LatLon.distance(myLatitude, myLongitude, node.getLatitude(), node.getLongitude());
+                if (isFull() && dist >= getMaxDistance()) {
+                    continue;
+                }
+                if (mySelector != null && !mySelector.isAllowed(myMap, node)) {
+                    continue;
+                }
+                if (isFull()) {
+                    myNodes.poll();
+                }
+                myNodes.add(new NodeDistance(node, dist));
+            }
+        }
+
+        /**
+         * @return true if we have found as many nodes as asked for
+         */
+        private boolean isFull() {
+            return myNodes.size() >= myCount;
+        }
+
+        /**
+         * @return the squared distance of the farthest node kept
+         */
+        private double getMaxDistance() {
+            return myNodes.peek().myDistance;
+        }
+
+        /**
+         * @return the nodes kept, nearest first
+         */
+        private List<Node> getNodes() {
+            LinkedList<Node> retval = new LinkedList<Node>();
+            while (!myNodes.isEmpty()) {
+                retval.addFirst(myNodes.poll().myNode);
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * A node and it's squared distance to the location looked for.
+     */
+    private static final class NodeDistance {
+
+        /**
+         * The node.
+         */
+        private final Node myNode;
+
+        /**
+         * The squared distance.
+         */
+        private final double myDistance;
+
+        /**
+         * @param aNode the node
+         * @param aDistance the squared distance
+         */
+        private NodeDistance(final Node aNode, final double aDistance) {
+            this.myNode = aNode;
+            this.myDistance = aDistance;
+        }
+    }
+
+    /**
+     * @param aCell the nodes of a cell
+     * @param aBoundingBox the area to look in
+     * @param aResult where to add the nodes in the area
+     */
+    private static void addContained(final List<Node> aCell, final Bounds aBoundingBox, final List<Node> aResult) {
+        for (Node node : aCell) {
+            if (aBoundingBox.contains(node.getLatitude(), node.getLongitude())) {
+                aResult.add(node);
+            }
+        }
+    }
+
+    /**
+     * @param aDegrees a latitude or longitude
+     * @return the index of the cell containing it
+     */
+    private static int getCell(final double aDegrees) {
+        return (int) Math.floor(aDegrees / CELLSIZE);
+    }
+
+    /**
+     * @param aLatCell the latitude-index of the cell
+     * @param aLonCell the longitude-index of the cell
+     * @return the key of the cell in {@link #myCells}
+     */
+    private static Long getCellKey(final int aLatCell, final int aLonCell) {
+        return (((long) aLatCell) << Integer.SIZE) | (aLonCell & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param aCellKey the key of a cell in {@link #myCells}
+     * @return the latitude-index of the cell
+     */
+    private static int getLatCell(final long aCellKey) {
+        return (int) (aCellKey >> Integer.SIZE);
+    }
+
+    /**
+     * @param aCellKey the key of a cell in {@link #myCells}
+     * @return the longitude-index of the cell
+     */
+    private static int getLonCell(final long aCellKey) {
+        return (int) aCellKey;
+    }
+}
@@ -46,6 +46,7 @@ import java.io.OutputStreamWriter;
 import org.openstreetmap.osm.ConfigurationSection;
 import org.openstreetmap.osm.data.coordinates.Bounds;
 import org.openstreetmap.osm.data.coordinates.LatLon;
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
 import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinDataSetV10;
 
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
@@ -92,14 +93,42 @@ public class OsmBinDataSet implements IDataSet {
      */
     private IDataSet myImplementation;
 
+    /**
+     * If true the data is opened read-only.
+     * @see #OsmBinDataSet(File, boolean)
+     */
+    private final boolean myReadOnly;
+
     /**
      * The given directory and the expected files
      * in it are created if they do not exist.
      * @param aDataDirectory the directory with our data.
      */
     public OsmBinDataSet(final File aDataDirectory) {
+        this(aDataDirectory, false);
+    }
+
+    /**
+     * If aReadOnly is true the data is opened read-only right away.
+     * Any number of threads may then read concurrently and
+     * all methods that modify the data throw an {@link IllegalStateException}.
+     * @param aDataDirectory the directory with our data.
+     * @param aReadOnly open the data read-only
+     */
+    public OsmBinDataSet(final File aDataDirectory, final boolean aReadOnly) {
         super();
+        this.myReadOnly = aReadOnly;
         setDataDirectory(aDataDirectory);
+        if (aReadOnly) {
+            getImplementation();
+        }
+    }
+
+    /**
+     * @return true if the data is opened read-only
+     */
+    public boolean isReadOnly() {
+        return myReadOnly;
     }
 
 
@@ -392,11 +421,13 @@ public class OsmBinDataSet implements IDataSet {
                 if (!(new File(getDataDirectory(), "nodes.obm")).exists()) {
                     // if we start with an empty directory,
                     // use the newest version of the format
-                    myProperties.setProperty("osmbin.version", "v1.1");
-                    try {
-                        myProperties.store(new OutputStreamWriter(new FileOutputStream(propFile), "UTF-8"), "");
-                    } catch (IOException e) {
-                        LOG.log(Level.SEVERE, "Cannot write osmbin.properties. Assuming defaults", e);
+                    myProperties.setProperty("osmbin.version", OsmBinFormat.V1_2.getName());
+                    if (!isReadOnly()) {
+                        try {
+                            myProperties.store(new OutputStreamWriter(new FileOutputStream(propFile), "UTF-8"), "");
+                        } catch (IOException e) {
+                            LOG.log(Level.SEVERE, "Cannot write osmbin.properties. Assuming defaults", e);
+                        }
                     }
                 }
             }
@@ -414,10 +445,18 @@ public class OsmBinDataSet implements IDataSet {
         }
         Properties properties = getProperties();
         String version = properties.getProperty("osmbin.version", "0.9");
-        if (version.equalsIgnoreCase("1.1")
-            || version.equalsIgnoreCase("v1.1")
-            || version.equalsIgnoreCase("1.1")) {
-            this.myImplementation = new OsmBinDataSetV10(getDataDirectory());
+        OsmBinFormat format = OsmBinFormat.forName(version);
+        if (format != null) {
+            if (isReadOnly()) {
+                try {
+                    this.myImplementation = new OsmBinDataSetV10(getDataDirectory(), format, true);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot open osmbin-directory "
+                            + getDataDirectory().getAbsolutePath() + " read-only", e);
+                }
+            } else {
+                this.myImplementation = new OsmBinDataSetV10(getDataDirectory(), format);
+            }
         } else {
             throw new IllegalArgumentException("Unsupported version of the OsmBin file-format '"
                     + version + "'");
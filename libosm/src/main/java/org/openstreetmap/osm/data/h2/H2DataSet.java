@@ -30,25 +30,35 @@
  */
 package org.openstreetmap.osm.data.h2;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -84,7 +94,11 @@ import org.openstreetmap.osmosis.core.util.FixedPrecisionCoordinateConvertor;
  * H2DataSet.java<br/>
  * created: 17.04.2009 <br/>
  *<br/><br/>
- * This is an experimental way to store your map in a H2 database.
+ * This is an experimental way to store your map in a H2 database.<br/>
+ * Since schema-version 2 the tags of all entities are stored in a binary
+ * tagdata-column (see {@link #encodeTags(Connection, Collection)}) and in the
+ * table entitytags that is indexed for {@link #getNodesByTag(String, String)}
+ * and {@link #getWaysByTag(String, String)}.
  * @author <a href="mailto:Marcus@Wolschon.biz">Marcus Wolschon</a>
  */
 public class H2DataSet implements IDataSet, IHintableDataSet {
@@ -113,6 +127,54 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
      */
     static final float DEFAULT_CACHE_LOAD_FACTOR = 0.75f;
 
+    /**
+     * Default for the number of rows written per transaction during imports.
+     * Can be changed with the setting "import.batchSize".
+     * @see #hintImportStarting()
+     */
+    private static final int DEFAULTIMPORTBATCHSIZE = 5000;
+
+    /**
+     * Number of milliseconds in a second.
+     */
+    private static final double MILLIS = 1000d;
+
+    /**
+     * We allow 2 open connections per processor but at least this many.
+     * Can be changed with the setting "database.maxConnections".
+     * @see #getConnection()
+     */
+    private static final int MINMAXCONNECTIONS = 4;
+
+    /**
+     * Seconds to wait in {@link #getConnection()} for another
+     * thread to return a connection before giving up.
+     */
+    private static final int CONNECTIONTIMEOUT = 60;
+
+    /**
+     * The encoding of tag-values in the tagdata-column.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The lower 7 bits of a byte hold the payload of a variable-length integer.
+     * @see #writeVarInt(ByteArrayOutputStream, int)
+     */
+    private static final int VARINTBITS = 7;
+
+    /**
+     * The highest bit of a byte of a variable-length integer
+     * is set if more bytes follow.
+     * @see #writeVarInt(ByteArrayOutputStream, int)
+     */
+    private static final int VARINTMORE = 0x80;
+
+    /**
+     * The statement to add a row to the table entitytags.
+     */
+    private static final String ADDTAGSQL = "MERGE INTO entitytags (entitytype, entityid, keyid, tagvalue) VALUES (?,?,?,?)";
+
 
     /**
      * Cache for nodes to avoid loading them repeatedly.
@@ -137,6 +199,21 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
                 }
             });
 
+    /**
+     * The keys of all tags by their ID in the table tagkeys
+     * as far as we know them. The IDs are allocated by the database,
+     * so other processes using the same database can add keys.
+     * A new array is assigned after every new key so reading
+     * threads see the complete array without locking.
+     * @see #getTagKeyID(Connection, String)
+     */
+    private volatile String[] myTagKeys = new String[DEFAULT_CACHE_INITIAL_CAPACITY];
+
+    /**
+     * The IDs of the keys in {@link #myTagKeys}.
+     */
+    private final Map<String, Integer> myTagKeyIDs = new ConcurrentHashMap<String, Integer>();
+
     /**
      * did we load the driver already?
      * @see #loadDatabaseDriver()
@@ -158,7 +235,63 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
      * During imports we return Nodes instead
      * of ExtendedNodes in {@link #getNodeByID(long)}.
      */
-    private boolean myHintImporting = false;
+    private volatile boolean myHintImporting = false;
+
+    /**
+     * During imports all nodes, ways and relations are added
+     * to the batches of this connection and committed together.
+     * null if we are not importing.
+     * @see #hintImportStarting()
+     */
+    private volatile IConnection myImportConnection;
+
+    /**
+     * The auto-commit -mode of {@link #myImportConnection} before the import.
+     */
+    private boolean myImportAutoCommit;
+
+    /**
+     * Maximum number of rows in a batch of {@link #myImportConnection}.
+     */
+    private int myImportBatchSize = DEFAULTIMPORTBATCHSIZE;
+
+    /**
+     * The statements of {@link #myImportConnection} with batched rows
+     * in the order they have first been used.
+     * (Deleting the nodes of a way must come before adding them.)
+     */
+    private final Set<PreparedStatement> myBatchedStatements = new LinkedHashSet<PreparedStatement>();
+
+    /**
+     * Number of rows in the batches of {@link #myBatchedStatements}.
+     */
+    private int myBatchedRowCount;
+
+    /**
+     * The type of the entities in the current batch.
+     */
+    private EntityType myBatchedEntityType;
+
+    /**
+     * The IDs of the entities in the current batch.
+     */
+    private final Set<Long> myBatchedIDs = new HashSet<Long>();
+
+    /**
+     * Number of nodes, ways and relations (by {@link EntityType#ordinal()})
+     * added during the current import.
+     */
+    private final long[] myImportedCounts = new long[EntityType.values().length];
+
+    /**
+     * Number of batches committed during the current import.
+     */
+    private long myImportedBatchCount;
+
+    /**
+     * System-time when the current import started.
+     */
+    private long myImportStartTime;
 
     /**
      * @return the databaseURL
@@ -193,8 +326,8 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
 
     /**
      * This class is not thread-safe.
-     * It should not be used by more then 2 threads at a time.
-     *
+     * {@link H2DataSet#getConnection()} hands every instance
+     * and its prepared statements to one thread at a time.
      */
     private class MyConnection implements IConnection {
 
@@ -301,6 +434,14 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
                     myDeleteRelationStmt.close();
                     myDeleteRelationStmt = null;
                 }
+                if (myDeleteTagsStmt != null) {
+                    myDeleteTagsStmt.close();
+                    myDeleteTagsStmt = null;
+                }
+                if (myAddTagStmt != null) {
+                    myAddTagStmt.close();
+                    myAddTagStmt = null;
+                }
             } catch (SQLException e) {
                 LOG.log(Level.WARNING, "Exception while closing prepared statements", e);
             }
@@ -366,15 +507,25 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
         private PreparedStatement mygetGetWayByTagStmt;
 
         /**
-         * the prepared statement used by {@link H2DataSet#getWaysByTag(String, String)}.
+         * the prepared statement used by {@link H2DataSet#getNodesByTag(String, String)}.
          */
         private PreparedStatement mygetGetNodesByTagStmt;
 
         /**
-         * the prepared statement used by {@link H2DataSet#getWaysByTag(String, String)}.
+         * the prepared statement to find relations by a tag.
          */
         private PreparedStatement mygetGetRelByTagStmt;
 
+        /**
+         * the prepared statement to delete the rows of an entity from the table entitytags.
+         */
+        private PreparedStatement myDeleteTagsStmt;
+
+        /**
+         * the prepared statement to add a row to the table entitytags.
+         */
+        private PreparedStatement myAddTagStmt;
+
         /**
          * the prepared statement used by {@link H2DataSet#getWaysByID(long)}.
          */
@@ -441,7 +592,7 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
          */
         public PreparedStatement getAddNodeStmt() throws SQLException {
             if (myAddNodeStmt == null) {
-                myAddNodeStmt = myConnection.prepareStatement("MERGE INTO nodes (nodeid, version, lat, lon, location, tags) VALUES (?,?,?,?,?,?)");
+                myAddNodeStmt = myConnection.prepareStatement("MERGE INTO nodes (nodeid, version, lat, lon, location, tagdata) VALUES (?,?,?,?,?,?)");
             }
             return myAddNodeStmt;
         }
@@ -463,7 +614,7 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
          */
         public PreparedStatement getAddWayStmt() throws SQLException {
             if (myAddWayStmt == null) {
-                myAddWayStmt = myConnection.prepareStatement("MERGE INTO ways  (wayid, version, tags) VALUES (?,?,?)");
+                myAddWayStmt = myConnection.prepareStatement("MERGE INTO ways  (wayid, version, tagdata) VALUES (?,?,?)");
             }
             return myAddWayStmt;
         }
@@ -529,11 +680,9 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
          */
         public PreparedStatement getGetNodeByAreaStmt() throws SQLException {
             if (myGetNodeByAreaStmt == null) {
-                String sql = MultiDimension.getInstance().generatePreparedQuery("nodes", "location", new String[0]) + " TRUE";
-                //                String sql = "select * FROM nodes WHERE lat < ? AND lat > ? AND lon < ? AND lon > ? ";
-                myGetNodeByAreaStmt = myConnection.prepareStatement(sql);
+                myGetNodeByAreaStmt = myConnection.prepareStatement("select * from nodes where (location between ? and ?)"
+                        + " and (lat BETWEEN ? AND ?) AND (lon BETWEEN ? AND ?) ");
             }
-            myGetNodeByAreaStmt.clearWarnings();
             return myGetNodeByAreaStmt;
         }
 
@@ -576,7 +725,7 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
          */
         public PreparedStatement getAddRelationStmt() throws SQLException {
             if (myAddRelationStmt == null) {
-                myAddRelationStmt = myConnection.prepareStatement("MERGE INTO relations  (relid, version, tags) VALUES (?,?,?)");
+                myAddRelationStmt = myConnection.prepareStatement("MERGE INTO relations  (relid, version, tagdata) VALUES (?,?,?)");
             }
             return myAddRelationStmt;
         }
@@ -653,7 +802,8 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
          */
         public PreparedStatement getGetWayByTagStmt() throws SQLException {
             if (mygetGetWayByTagStmt == null) {
-                mygetGetWayByTagStmt = myConnection.prepareStatement("SELECT wayid FROM ways WHERE tags like ?");
+                mygetGetWayByTagStmt = myConnection.prepareStatement("SELECT w.* FROM entitytags t INNER JOIN ways w ON w.wayid = t.entityid"
+                        + " WHERE t.entitytype = " + EntityType.Way.ordinal() + " AND t.keyid = ? AND (t.tagvalue = ? OR ?)");
             }
             return mygetGetWayByTagStmt;
         }
@@ -664,7 +814,8 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
          */
         public PreparedStatement getGetNodesByTagStmt() throws SQLException {
             if (mygetGetNodesByTagStmt == null) {
-                mygetGetNodesByTagStmt = myConnection.prepareStatement("SELECT nodeid FROM nodes WHERE tags like ?");
+                mygetGetNodesByTagStmt = myConnection.prepareStatement("SELECT n.* FROM entitytags t INNER JOIN nodes n ON n.nodeid = t.entityid"
+                        + " WHERE t.entitytype = " + EntityType.Node.ordinal() + " AND t.keyid = ? AND (t.tagvalue = ? OR ?)");
             }
             return mygetGetNodesByTagStmt;
         }
@@ -675,27 +826,64 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
          */
         public PreparedStatement getGetRelByTagStmt() throws SQLException {
             if (mygetGetRelByTagStmt == null) {
-                mygetGetRelByTagStmt = myConnection.prepareStatement("SELECT relid FROM relations WHERE tags like ?");
+                mygetGetRelByTagStmt = myConnection.prepareStatement("SELECT r.* FROM entitytags t INNER JOIN relations r ON r.relid = t.entityid"
+                        + " WHERE t.entitytype = " + EntityType.Relation.ordinal() + " AND t.keyid = ? AND (t.tagvalue = ? OR ?)");
             }
             return mygetGetRelByTagStmt;
         }
+
+        /**
+         * @return the prepared statement used by {@link H2DataSet#writeTagIndex(IConnection, EntityType, long, Collection)}
+         * to delete the tags of an entity
+         * @throws SQLException if the prepared statement cannot be created.
+         */
+        public PreparedStatement getDeleteTagsStmt() throws SQLException {
+            if (myDeleteTagsStmt == null) {
+                myDeleteTagsStmt = myConnection.prepareStatement("DELETE FROM entitytags WHERE entitytype = ? AND entityid = ?");
+            }
+            return myDeleteTagsStmt;
+        }
+
+        /**
+         * @return the prepared statement used by {@link H2DataSet#writeTagIndex(IConnection, EntityType, long, Collection)}
+         * to add a tag of an entity
+         * @throws SQLException if the prepared statement cannot be created.
+         */
+        public PreparedStatement getAddTagStmt() throws SQLException {
+            if (myAddTagStmt == null) {
+                myAddTagStmt = myConnection.prepareStatement(ADDTAGSQL);
+            }
+            return myAddTagStmt;
+        }
     }
 
     /**
+     * The idle connections.
      * Do not use this queue directly but use
      * #getConnection() and #returnConnection() instead.
      */
-    private Queue<IConnection> myConnection = new LinkedBlockingQueue<IConnection>();
+    private final BlockingQueue<IConnection> myConnection = new LinkedBlockingQueue<IConnection>();
+
+    /**
+     * Maximum number of connections handed out by {@link #getConnection()} at the same time.
+     */
+    private final int myMaxConnections = Math.max(1, Settings.getInstance().getInteger("database.maxConnections",
+            Math.max(MINMAXCONNECTIONS, 2 * Runtime.getRuntime().availableProcessors())));
+
+    /**
+     * One permit for every connection {@link #getConnection()} may still hand out.
+     */
+    private final Semaphore myConnectionPermits = new Semaphore(myMaxConnections, true);
 
     /**
      * counter used for debugging.
      */
-    private int myTotalConnectionsCount;
+    private final AtomicInteger myTotalConnectionsCount = new AtomicInteger();
 
     /**
      * counter used for debugging.
      */
-    private int totalClosedConnections;
+    private final AtomicInteger totalClosedConnections = new AtomicInteger();
 
     /**
      * Store the map in the directory denoted by the config-property "map.dir".
@@ -743,24 +931,53 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
      * Give a hint that we are to start
      * inserting/updating lots of data
      * without giving hints about the
-     * aproximate number of imported items.
+     * aproximate number of imported items.<br/>
+     * Until {@link #hintImportEnded()} all added entities are
+     * written in batches of "import.batchSize" rows with one transaction
+     * per batch and the secondary indexes are dropped.
+     * Reads do not see the entities of the batch that is not yet committed.
      */
     public void hintImportStarting() {
+        if (myImportConnection != null) {
+            return;
+        }
+        IConnection connection = null;
         try {
-            IConnection connection = getConnection();
+            connection = getConnection();
             Statement stmt = connection.getConnection().createStatement();
             try {
                 this.myHintImporting = true;
-                //stmt.execute("SET CACHE_SIZE 65536");
-                stmt.execute("SET LOCK_MODE 0");
-                stmt.execute("SET LOG 0");
-                stmt.execute("SET UNDO_LOG 0");
-                stmt.execute("SET CACHE_SIZE 393216"); //384MB cache instead of 16MB
+                setImportMode(stmt, true);
+                dropSecondaryIndexes(stmt);
             } finally {
                 stmt.close();
             }
+            myImportAutoCommit = connection.getConnection().getAutoCommit();
+            connection.getConnection().setAutoCommit(false);
+            myImportBatchSize = Math.max(1, Settings.getInstance().getInteger("import.batchSize", DEFAULTIMPORTBATCHSIZE));
+            Arrays.fill(myImportedCounts, 0);
+            myImportedBatchCount = 0;
+            myImportStartTime = System.currentTimeMillis();
+            myImportConnection = connection;
         } catch (SQLException e) {
             LOG.log(Level.SEVERE, "Cannot disable transaction log for import", e);
+            this.myHintImporting = false;
+            if (connection != null) {
+                // undo what we did so far and give the connection back
+                try {
+                    Statement stmt = connection.getConnection().createStatement();
+                    try {
+                        createSecondaryIndexes(stmt);
+                        setImportMode(stmt, false);
+                    } finally {
+                        stmt.close();
+                    }
+                } catch (SQLException x) {
+                    LOG.log(Level.SEVERE, "Cannot re-enable transaction log and indexes after a failed import-start", x);
+                } finally {
+                    returnConnection(connection);
+                }
+            }
         }
     }
 
@@ -768,65 +985,269 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
      * @se {@link #hintImportStarting()}
      */
     public void hintImportEnded() {
+        this.myHintImporting = false;
+        IConnection connection = myImportConnection;
+        if (connection == null) {
+            return;
+        }
+        flushImportBatch();
+        myImportConnection = null;
+        long importTime = System.currentTimeMillis() - myImportStartTime;
+        long indexStartTime = System.currentTimeMillis();
         try {
-            IConnection connection = getConnection();
+            connection.getConnection().setAutoCommit(myImportAutoCommit);
             Statement stmt = connection.getConnection().createStatement();
             try {
-                this.myHintImporting = true;
-                stmt.execute("SET CACHE_SIZE 16384");
-                stmt.execute("SET LOCK_MODE 3");
-                stmt.execute("SET LOG 0");
-                stmt.execute("SET UNDO_LOG 0");
+                createSecondaryIndexes(stmt);
+                setImportMode(stmt, false);
             } finally {
                 stmt.close();
             }
         } catch (SQLException e) {
-            LOG.log(Level.SEVERE, "Cannot re-enable transaction log for import", e);
+            LOG.log(Level.SEVERE, "Cannot re-enable transaction log and indexes after import", e);
+        } finally {
+            returnConnection(connection);
+        }
+        long indexTime = System.currentTimeMillis() - indexStartTime;
+        long count = myImportedCounts[EntityType.Node.ordinal()]
+                   + myImportedCounts[EntityType.Way.ordinal()]
+                   + myImportedCounts[EntityType.Relation.ordinal()];
+        LOG.info("Imported " + myImportedCounts[EntityType.Node.ordinal()] + " nodes, "
+                + myImportedCounts[EntityType.Way.ordinal()] + " ways and "
+                + myImportedCounts[EntityType.Relation.ordinal()] + " relations in "
+                + myImportedBatchCount + " batches of up to " + myImportBatchSize + " rows in "
+                + importTime + "ms = " + (int) (count * MILLIS / Math.max(1, importTime)) + " entities/s, "
+                + "creating the indexes took " + indexTime + "ms");
+    }
+
+    /**
+     * Switch database-settings that speed up imports.
+     * @param aStatement a statement of the import-connection
+     * @param anImporting true at the start of an import, false at the end
+     * @throws SQLException if the settings cannot be changed
+     */
+    protected void setImportMode(final Statement aStatement, final boolean anImporting) throws SQLException {
+        if (anImporting) {
+            //aStatement.execute("SET CACHE_SIZE 65536");
+            aStatement.execute("SET LOCK_MODE 0");
+            aStatement.execute("SET LOG 0");
+            aStatement.execute("SET UNDO_LOG 0");
+            aStatement.execute("SET CACHE_SIZE 393216"); //384MB cache instead of 16MB
+        } else {
+            aStatement.execute("SET CACHE_SIZE 16384");
+            aStatement.execute("SET LOCK_MODE 3");
+            aStatement.execute("SET LOG 0");
+            aStatement.execute("SET UNDO_LOG 0");
         }
     }
 
+    /**
+     * Drop the indexes that are not needed while importing,
+     * they are faster to build once after the import.
+     * @param aStatement a statement of the import-connection
+     * @throws SQLException if the indexes cannot be dropped
+     * @see #createSecondaryIndexes(Statement)
+     */
+    protected void dropSecondaryIndexes(final Statement aStatement) throws SQLException {
+        aStatement.executeUpdate("DROP INDEX IF EXISTS nodesLocation;");
+        aStatement.executeUpdate("DROP INDEX IF EXISTS nodeways;");
+        aStatement.executeUpdate("DROP INDEX IF EXISTS memberrels;");
+        aStatement.executeUpdate("DROP INDEX IF EXISTS tagvalues;");
+    }
+
+    /**
+     * Create the indexes on the location of nodes, on the ways and relations
+     * an entity is a member of and on the values of tags if they do not exist.
+     * @param aStatement a statement to execute the DDL with
+     * @throws SQLException if the indexes cannot be created
+     * @see #dropSecondaryIndexes(Statement)
+     */
+    protected void createSecondaryIndexes(final Statement aStatement) throws SQLException {
+        aStatement.executeUpdate("CREATE INDEX IF NOT EXISTS nodesLocation ON nodes (location);");
+        aStatement.executeUpdate("CREATE INDEX IF NOT EXISTS nodeways ON waynodes (nodeid);");
+        aStatement.executeUpdate("CREATE INDEX IF NOT EXISTS memberrels ON relmembers (entityid, entitytype);");
+        aStatement.executeUpdate("CREATE INDEX IF NOT EXISTS tagvalues ON entitytags (keyid, tagvalue);");
+    }
+
+    /**
+     * @param aType the type of the entity to write
+     * @param anID the ID of the entity to write
+     * @return the connection to write with, {@link #myImportConnection} during imports
+     * @throws SQLException if we cannot provide a connection
+     * @see #releaseWriteConnection(IConnection)
+     */
+    private IConnection getWriteConnection(final EntityType aType, final long anID) throws SQLException {
+        IConnection importConnection = myImportConnection;
+        if (importConnection == null) {
+            return getConnection();
+        }
+        // a second version of an entity in the same batch
+        // would have its members deleted and merged out of order
+        if (aType != myBatchedEntityType || !myBatchedIDs.add(anID)) {
+            flushImportBatch();
+            myBatchedEntityType = aType;
+            myBatchedIDs.add(anID);
+        }
+        return importConnection;
+    }
+
+    /**
+     * Execute the statement or, during imports, add it to the batch.
+     * @param aConnection the connection from {@link #getWriteConnection(EntityType, long)}
+     * @param aStatement a statement of this connection with all parameters set
+     * @throws SQLException if the statement cannot be executed
+     */
+    private void executeWrite(final IConnection aConnection, final PreparedStatement aStatement) throws SQLException {
+        if (aConnection != myImportConnection) {
+            aStatement.execute();
+            return;
+        }
+        aStatement.addBatch();
+        myBatchedStatements.add(aStatement);
+        myBatchedRowCount++;
+    }
 
     /**
-     * If no database connection is open, a new connection is opened. The
-     * database connection is then returned.<br/>
+     * Commit the written entity or, during imports, commit the batch if it is full.
+     * @param aConnection the connection from {@link #getWriteConnection(EntityType, long)}
+     * @param aType the type of the entity written
+     * @throws SQLException if we cannot commit
+     */
+    private void commitWrite(final IConnection aConnection, final EntityType aType) throws SQLException {
+        if (aConnection != myImportConnection) {
+            aConnection.getConnection().commit();
+            return;
+        }
+        myImportedCounts[aType.ordinal()]++;
+        if (myBatchedRowCount >= myImportBatchSize) {
+            flushImportBatch();
+        }
+    }
+
+    /**
+     * @param aConnection the connection from {@link #getWriteConnection(EntityType, long)}
+     */
+    private void releaseWriteConnection(final IConnection aConnection) {
+        if (aConnection != myImportConnection) {
+            returnConnection(aConnection);
+        }
+    }
+
+    /**
+     * Execute and commit all batched statements of {@link #myImportConnection}.
+     * If this fails the batch is rolled back and lost.
+     */
+    private void flushImportBatch() {
+        IConnection importConnection = myImportConnection;
+        myBatchedIDs.clear();
+        if (importConnection == null || myBatchedStatements.isEmpty()) {
+            return;
+        }
+        try {
+            for (PreparedStatement stmt : myBatchedStatements) {
+                stmt.executeBatch();
+            }
+            importConnection.getConnection().commit();
+            myImportedBatchCount++;
+        } catch (SQLException e) {
+            LOG.log(Level.SEVERE, "Cannot write a batch of " + myBatchedRowCount + " rows during import, it is lost", e);
+            try {
+                importConnection.getConnection().rollback();
+                for (PreparedStatement stmt : myBatchedStatements) {
+                    stmt.clearBatch();
+                }
+            } catch (SQLException e2) {
+                LOG.log(Level.SEVERE, "Cannot roll back the lost batch", e2);
+            }
+        } finally {
+            myBatchedStatements.clear();
+            myBatchedRowCount = 0;
+        }
+    }
+
+
+    /**
+     * Take an idle connection from the pool or open a new one.
+     * At most "database.maxConnections" connections are handed out
+     * at the same time, further callers wait until one is returned.<br/>
      * <b>When you are done with it, use {@link #returnConnection(IConnection)}.</b>
      * @return The database connection.
      * @throws SQLException if we cannot provide a connection
      * @see #returnConnection(IConnection)
      */
     protected IConnection getConnection() throws SQLException {
+        try {
+            if (!myConnectionPermits.tryAcquire(CONNECTIONTIMEOUT, TimeUnit.SECONDS)) {
+                throw new SQLException("All " + myMaxConnections + " database-connections are in use for "
+                        + CONNECTIONTIMEOUT + " seconds. DB=" + myDatabaseURL);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database-connection");
+        }
+        boolean success = false;
+        try {
+            IConnection connection = myConnection.poll();
+            while (connection != null && connection.isClosed()) {
+                connection.close();
+                totalClosedConnections.incrementAndGet();
+                connection = myConnection.poll();
+            }
+            if (connection == null) {
+                LOG.log(Level.INFO, "Opening new connection."
+                        + " (#connections so far: " + myTotalConnectionsCount + ", #closed=" + totalClosedConnections
+                        + ", max=" + myMaxConnections + ") DB=" + myDatabaseURL);
+                connection = openConnection();
+                myTotalConnectionsCount.incrementAndGet();
+            }
+            success = true;
+            return connection;
+        } finally {
+            if (!success) {
+                myConnectionPermits.release();
+            }
+        }
+    }
+
+    /**
+     * Open a new connection for {@link #getConnection()}.
+     * @return the new connection
+     * @throws SQLException if we cannot open a connection
+     */
+    protected IConnection openConnection() throws SQLException {
+        return new MyConnection(getConnectionPool().getConnection());
+    }
+
+    /**
+     * Create the connection-pool and check the schema
+     * of the database when called for the first time.
+     * @return the pool to open connections from
+     */
+    private synchronized JdbcConnectionPool getConnectionPool() {
         if (myConnectionPool == null) {
 
             loadDatabaseDriver();
 
             try {
-                myConnectionPool = JdbcConnectionPool.create(getDatabaseURL(), getDatabaseUser(), getDatabasePassword());
-                Connection connection = myConnectionPool.getConnection();
+                JdbcConnectionPool pool = JdbcConnectionPool.create(getDatabaseURL(), getDatabaseUser(), getDatabasePassword());
+                Connection connection = pool.getConnection();
                 if (connection == null) {
                     throw new SQLException("could not get database-connection from pool!");
                 }
-                checkSchema(connection);
-                myConnectionPool.setMaxConnections(Short.MAX_VALUE);
+                try {
+                    checkSchema(connection);
+                } finally {
+                    connection.close();
+                }
+                pool.setMaxConnections(myMaxConnections);
+                myConnectionPool = pool;
 
             } catch (SQLException e) {
                 throw new OsmosisRuntimeException(
                         "Unable to establish a database connection to '" + myDatabaseURL + "'.", e);
             }
         }
-        IConnection connection = myConnection.poll();
-        if (connection == null || connection.isClosed()) {
-            try {
-                LOG.log(Level.INFO, "Opening new connection. " + (connection == null?"because pool is empty" : "because pooled-connection is closed")
-                        + " (#connections so far: " + myTotalConnectionsCount + ", #closed=" + totalClosedConnections + ") DB=" + myDatabaseURL/*, new Exception("DEBUG")*/);
-                myTotalConnectionsCount++;
-                connection = new MyConnection(myConnectionPool.getConnection());
-            } catch (NullPointerException e) {
-                //connection = new MyConnection(myConnectionPool.getConnection());
-                myConnectionPool = null;
-                return getConnection();
-            }
-        }
-        return connection;
+        return myConnectionPool;
     }
 
     /**
@@ -835,10 +1256,18 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
      * @see #getConnection()
      */
     protected void returnConnection(final IConnection aConnection) {
-        if (!myConnection.offer(aConnection)) {
-            LOG.info("Closing connection. as the pool is full");
+        try {
+            if (aConnection.isClosed() || !myConnection.offer(aConnection)) {
+                LOG.info("Closing connection. as it is closed or the pool is full");
+                aConnection.close();
+                totalClosedConnections.incrementAndGet();
+            }
+        } catch (SQLException e) {
+            LOG.log(Level.WARNING, "Cannot check the returned connection, closing it", e);
             aConnection.close();
-            totalClosedConnections++;
+            totalClosedConnections.incrementAndGet();
+        } finally {
+            myConnectionPermits.release();
         }
     }
 
@@ -858,9 +1287,8 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
                         + "lat INT ,"
                         + "lon INT ,"
                         + "location BIGINT ,"
-                        + "tags LONGVARCHAR(32767)"
+                        + "tagdata VARBINARY"
                         + ");");
-                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS nodesLocation ON nodes (location);");
                 stmt.executeUpdate("CREATE CACHED TABLE  IF NOT EXISTS waynodes ("
                         + "wayid BIGINT NOT NULL,"
                         + "nodeid BIGINT NOT NULL,"
@@ -868,16 +1296,15 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
                         + "PRIMARY KEY (wayid, index)"
                         + ");");
                 //                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS waynodes ON waynodes (wayid);"); //TODO: maybe remove this index
-                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS nodeways ON waynodes (nodeid);");
                 stmt.executeUpdate("CREATE CACHED TABLE  IF NOT EXISTS ways ("
                         + "wayid BIGINT PRIMARY KEY,"
                         + "version INT,"
-                        + "tags LONGVARCHAR(32767)"
+                        + "tagdata VARBINARY"
                         + ");");
                 stmt.executeUpdate("CREATE CACHED TABLE  IF NOT EXISTS relations ("
                         + "relid BIGINT PRIMARY KEY,"
                         + "version INT,"
-                        + "tags LONGVARCHAR(32767)"
+                        + "tagdata VARBINARY"
                         + ");");
                 stmt.executeUpdate("CREATE CACHED TABLE  IF NOT EXISTS relmembers ("
                         + "relid BIGINT NOT NULL,"
@@ -888,7 +1315,22 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
                         + "PRIMARY KEY (relid, index)"
                         + ");");
                 //                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS relmembers ON relmembers (relid);");
-                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS memberrels ON relmembers (entityid, entitytype);");
+                stmt.executeUpdate("CREATE CACHED TABLE  IF NOT EXISTS tagkeys ("
+                        + "keyid INT AUTO_INCREMENT PRIMARY KEY,"
+                        + "tagkey VARCHAR NOT NULL UNIQUE"
+                        + ");");
+                stmt.executeUpdate("CREATE CACHED TABLE  IF NOT EXISTS entitytags ("
+                        + "entitytype SMALLINT NOT NULL,"
+                        + "entityid BIGINT NOT NULL,"
+                        + "keyid INT NOT NULL,"
+                        + "tagvalue VARCHAR,"
+                        + "PRIMARY KEY (entitytype, entityid, keyid)"
+                        + ");");
+                loadTagKeys(aConnection);
+                migrateTags(aConnection, "nodes", "nodeid", EntityType.Node);
+                migrateTags(aConnection, "ways", "wayid", EntityType.Way);
+                migrateTags(aConnection, "relations", "relid", EntityType.Relation);
+                createSecondaryIndexes(stmt);
 
             } finally {
                 stmt.close();
@@ -898,6 +1340,225 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
         }
     }
 
+    /**
+     * Load the table tagkeys into {@link #myTagKeys} and {@link #myTagKeyIDs}.
+     * Keys are never removed, so known keys stay valid while loading.
+     * @param aConnection the connection to read with
+     * @throws SQLException if the keys cannot be read
+     */
+    private void loadTagKeys(final Connection aConnection) throws SQLException {
+        synchronized (myTagKeyIDs) {
+            Statement stmt = aConnection.createStatement();
+            try {
+                ResultSet rs = stmt.executeQuery("SELECT keyid, tagkey FROM tagkeys");
+                try {
+                    while (rs.next()) {
+                        putTagKey(rs.getInt(1), rs.getString(2));
+                    }
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                stmt.close();
+            }
+        }
+    }
+
+    /**
+     * Add a key to {@link #myTagKeys} and {@link #myTagKeyIDs}.
+     * Only called while holding the lock on {@link #myTagKeyIDs}.
+     * @param aKeyID the ID of the key in the table tagkeys
+     * @param aKey the key
+     */
+    private void putTagKey(final int aKeyID, final String aKey) {
+        String[] keys = myTagKeys;
+        if (aKeyID >= keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(keys.length * 2, aKeyID + 1));
+        }
+        keys[aKeyID] = aKey;
+        myTagKeyIDs.put(aKey, aKeyID);
+        myTagKeys = keys;
+    }
+
+    /**
+     * Look up the ID of a key in the table tagkeys and remember it.
+     * @param aConnection the connection to read with
+     * @param aKey the key of a tag
+     * @return the ID of the key or null if the key is unknown
+     * @throws SQLException if the key cannot be read
+     */
+    private Integer findTagKeyID(final Connection aConnection, final String aKey) throws SQLException {
+        PreparedStatement stmt = aConnection.prepareStatement("SELECT keyid FROM tagkeys WHERE tagkey = ?");
+        try {
+            stmt.setString(1, aKey);
+            ResultSet rs = stmt.executeQuery();
+            try {
+                if (!rs.next()) {
+                    return null;
+                }
+                int keyID = rs.getInt(1);
+                synchronized (myTagKeyIDs) {
+                    putTagKey(keyID, aKey);
+                }
+                return keyID;
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Get the ID of the key of a tag. Unknown keys are
+     * added to the table tagkeys and committed at once.
+     * The database allocates the ID, so another process using
+     * the same database (AUTO_SERVER) can add keys as well.
+     * @param aConnection the connection to add unknown keys with
+     * @param aKey the key of a tag
+     * @return the ID of the key
+     * @throws SQLException if the key cannot be added
+     */
+    private int getTagKeyID(final Connection aConnection, final String aKey) throws SQLException {
+        Integer keyID = myTagKeyIDs.get(aKey);
+        if (keyID != null) {
+            return keyID;
+        }
+        synchronized (myTagKeyIDs) {
+            keyID = myTagKeyIDs.get(aKey);
+            if (keyID != null) {
+                return keyID;
+            }
+            // another process may have added it
+            keyID = findTagKeyID(aConnection, aKey);
+            if (keyID != null) {
+                return keyID;
+            }
+            PreparedStatement stmt = aConnection.prepareStatement("INSERT INTO tagkeys (tagkey) VALUES (?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            try {
+                stmt.setString(1, aKey);
+                stmt.executeUpdate();
+                ResultSet rs = stmt.getGeneratedKeys();
+                try {
+                    if (rs.next()) {
+                        keyID = rs.getInt(1);
+                    }
+                } finally {
+                    rs.close();
+                }
+            } catch (SQLException e) {
+                // another process added the same key at the same time
+                keyID = findTagKeyID(aConnection, aKey);
+                if (keyID == null) {
+                    throw e;
+                }
+                return keyID;
+            } finally {
+                stmt.close();
+            }
+            // keys must not get lost with a rolled back batch
+            if (!aConnection.getAutoCommit()) {
+                aConnection.commit();
+            }
+            if (keyID == null) {
+                keyID = findTagKeyID(aConnection, aKey);
+                if (keyID == null) {
+                    throw new SQLException("The database returned no ID for the new tag-key '" + aKey + "'");
+                }
+                return keyID;
+            }
+            putTagKey(keyID, aKey);
+            return keyID;
+        }
+    }
+
+    /**
+     * Convert a table of schema-version 1 with a tags-column
+     * to the tagdata-column and the table entitytags.<br/>
+     * This can be interrupted and is continued by the next call.
+     * @param aConnection the connection to convert with
+     * @param aTable nodes, ways or relations
+     * @param anIDColumn the primary key of the table
+     * @param aType the type of the entities in the table
+     * @throws SQLException if the table cannot be converted
+     */
+    private void migrateTags(final Connection aConnection, final String aTable,
+            final String anIDColumn, final EntityType aType) throws SQLException {
+        DatabaseMetaData metaData = aConnection.getMetaData();
+        ResultSet columns = metaData.getColumns(null, null, aTable.toUpperCase(), "TAGS");
+        try {
+            if (!columns.next()) {
+                return;
+            }
+        } finally {
+            columns.close();
+        }
+        LOG.info("Converting the tags of the table " + aTable + " to schema-version 2");
+        long start = System.currentTimeMillis();
+        boolean autoCommit = aConnection.getAutoCommit();
+        Statement stmt = aConnection.createStatement();
+        PreparedStatement selectStmt = null;
+        PreparedStatement updateStmt = null;
+        PreparedStatement addTagStmt = null;
+        try {
+            stmt.executeUpdate("ALTER TABLE " + aTable + " ADD COLUMN IF NOT EXISTS tagdata VARBINARY;");
+            aConnection.setAutoCommit(false);
+            selectStmt = aConnection.prepareStatement("SELECT " + anIDColumn + ", tags FROM " + aTable
+                    + " WHERE " + anIDColumn + " > ? ORDER BY " + anIDColumn + " LIMIT " + myImportBatchSize);
+            updateStmt = aConnection.prepareStatement("UPDATE " + aTable + " SET tagdata = ? WHERE " + anIDColumn + " = ?");
+            addTagStmt = aConnection.prepareStatement(ADDTAGSQL);
+            long lastID = Long.MIN_VALUE;
+            long count = 0;
+            boolean more = true;
+            while (more) {
+                more = false;
+                selectStmt.setLong(1, lastID);
+                ResultSet rs = selectStmt.executeQuery();
+                try {
+                    while (rs.next()) {
+                        more = true;
+                        lastID = rs.getLong(1);
+                        String attrs = rs.getString(2);
+                        Collection<Tag> tags = deserializeTags(attrs == null ? "" : attrs);
+                        updateStmt.setBytes(1, encodeTags(aConnection, tags));
+                        updateStmt.setLong(2, lastID);
+                        updateStmt.addBatch();
+                        for (Tag tag : tags) {
+                            addTagStmt.setShort(1, (short) aType.ordinal());
+                            addTagStmt.setLong(2, lastID);
+                            addTagStmt.setInt(3, getTagKeyID(aConnection, tag.getKey()));
+                            addTagStmt.setString(4, tag.getValue());
+                            addTagStmt.addBatch();
+                        }
+                        count++;
+                    }
+                } finally {
+                    rs.close();
+                }
+                updateStmt.executeBatch();
+                addTagStmt.executeBatch();
+                aConnection.commit();
+            }
+            stmt.executeUpdate("ALTER TABLE " + aTable + " DROP COLUMN tags;");
+            aConnection.commit();
+            LOG.info("Converted the tags of " + count + " rows of the table " + aTable
+                    + " in " + (System.currentTimeMillis() - start) + "ms");
+        } finally {
+            if (selectStmt != null) {
+                selectStmt.close();
+            }
+            if (updateStmt != null) {
+                updateStmt.close();
+            }
+            if (addTagStmt != null) {
+                addTagStmt.close();
+            }
+            stmt.close();
+            aConnection.setAutoCommit(autoCommit);
+        }
+    }
+
     /**
      * Utility method for ensuring that the database driver is registered.
      */
@@ -927,37 +1588,15 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
     public void addNode(final Node aN) {
         try {
             myNodeCache.put(aN.getId(), aN);
-            int i = 1;
-            IConnection con = getConnection();
+            IConnection con = getWriteConnection(EntityType.Node, aN.getId());
             try {
                 PreparedStatement addNodeStmt = con.getAddNodeStmt();
-                addNodeStmt.setLong(i++, aN.getId());
-                addNodeStmt.setInt(i++, aN.getVersion());
-                final int lat = FixedPrecisionCoordinateConvertor.convertToFixed(aN.getLatitude());
-                addNodeStmt.setInt(i++, lat);
-                final int lon = FixedPrecisionCoordinateConvertor.convertToFixed(aN.getLongitude());
-                addNodeStmt.setInt(i++, lon);
-                
-                /* We normalize the node's lat and lon values for the z-curve
-                 * index. We do this for lat and lon seperately so that the
-                 * index can work more efficiently.
-                 */
-                final int fixedMinLat = FixedPrecisionCoordinateConvertor.convertToFixed(-Projection.MAX_LAT);
-                final int fixedMinLon = FixedPrecisionCoordinateConvertor.convertToFixed(-Projection.MAX_LON);
-                final int fixedMaxLat = FixedPrecisionCoordinateConvertor.convertToFixed(Projection.MAX_LAT);
-                final int fixedMaxLon = FixedPrecisionCoordinateConvertor.convertToFixed(Projection.MAX_LON);
-
-                final int latNormalized = MultiDimension.getInstance().normalize(2, lat, fixedMinLat, fixedMaxLat);
-                final int lonNormalized = MultiDimension.getInstance().normalize(2, lon, fixedMinLon, fixedMaxLon);
-                
-                final long location = MultiDimension.getInstance().interleave(new int[]{latNormalized, lonNormalized}); 
-
-                addNodeStmt.setLong(i++, location);
-                addNodeStmt.setString(i++, serializeTags(aN.getTags()));
-                addNodeStmt.execute();
-                con.getConnection().commit();
+                setAddNodeParameters(addNodeStmt, aN);
+                executeWrite(con, addNodeStmt);
+                writeTagIndex(con, EntityType.Node, aN.getId(), aN.getTags());
+                commitWrite(con, EntityType.Node);
             } finally {
-                returnConnection(con);
+                releaseWriteConnection(con);
             }
         } catch (Exception e) {
             LOG.log(Level.SEVERE, "Cannot add node #" + aN.getId()
@@ -966,7 +1605,41 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
     }
 
     /**
-     * Helper-method to serialize a list of Tags into a single CLOB.
+     * Set the parameters of {@link IConnection#getAddNodeStmt()}.
+     * @param anAddNodeStmt the statement
+     * @param aN the node to add
+     * @throws SQLException if a parameter cannot be set
+     */
+    protected void setAddNodeParameters(final PreparedStatement anAddNodeStmt, final Node aN) throws SQLException {
+        int i = 1;
+        anAddNodeStmt.setLong(i++, aN.getId());
+        anAddNodeStmt.setInt(i++, aN.getVersion());
+        final int lat = FixedPrecisionCoordinateConvertor.convertToFixed(aN.getLatitude());
+        anAddNodeStmt.setInt(i++, lat);
+        final int lon = FixedPrecisionCoordinateConvertor.convertToFixed(aN.getLongitude());
+        anAddNodeStmt.setInt(i++, lon);
+
+        /* We normalize the node's lat and lon values for the z-curve
+         * index. We do this for lat and lon seperately so that the
+         * index can work more efficiently.
+         */
+        final int fixedMinLat = FixedPrecisionCoordinateConvertor.convertToFixed(-Projection.MAX_LAT);
+        final int fixedMinLon = FixedPrecisionCoordinateConvertor.convertToFixed(-Projection.MAX_LON);
+        final int fixedMaxLat = FixedPrecisionCoordinateConvertor.convertToFixed(Projection.MAX_LAT);
+        final int fixedMaxLon = FixedPrecisionCoordinateConvertor.convertToFixed(Projection.MAX_LON);
+
+        final int latNormalized = MultiDimension.getInstance().normalize(2, lat, fixedMinLat, fixedMaxLat);
+        final int lonNormalized = MultiDimension.getInstance().normalize(2, lon, fixedMinLon, fixedMaxLon);
+
+        final long location = MultiDimension.getInstance().interleave(new int[]{latNormalized, lonNormalized});
+
+        anAddNodeStmt.setLong(i++, location);
+        setTagsParameter(anAddNodeStmt, i++, aN.getTags());
+    }
+
+    /**
+     * Helper-method to serialize a list of Tags into a single CLOB
+     * as in the tags-column of schema-version 1.
      * @param aTags the tags to serialize
      * @return the serialized tags
      */
@@ -1000,23 +1673,204 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
         return retval;
     }
 
+    /**
+     * Encode tags for the tagdata-column.<br/>
+     * The format is the number of tags followed by the ID of the key,
+     * the length of the UTF-8 -encoded value and the value for each tag.
+     * All numbers are variable-length integers.
+     * @param aConnection the connection to add unknown keys with
+     * @param aTags the tags to encode
+     * @return the encoded tags
+     * @throws SQLException if an unknown key cannot be added
+     * @see #decodeTags(Connection, byte[])
+     */
+    protected byte[] encodeTags(final Connection aConnection, final Collection<Tag> aTags) throws SQLException {
+        ByteArrayOutputStream retval = new ByteArrayOutputStream();
+        writeVarInt(retval, aTags.size());
+        for (Tag tag : aTags) {
+            writeVarInt(retval, getTagKeyID(aConnection, tag.getKey()));
+            byte[] value = tag.getValue().getBytes(UTF8);
+            writeVarInt(retval, value.length);
+            retval.write(value, 0, value.length);
+        }
+        return retval.toByteArray();
+    }
+
+    /**
+     * Decode tags from the tagdata-column.
+     * @param aConnection the connection to reload the keys with
+     *        if one was added by another process
+     * @param aTagData the encoded tags (may be null)
+     * @return the decoded tags
+     * @throws SQLException if the keys cannot be reloaded or a key is unknown
+     * @see #encodeTags(Connection, Collection)
+     */
+    protected Collection<Tag> decodeTags(final Connection aConnection, final byte[] aTagData) throws SQLException {
+        if (aTagData == null) {
+            return new ArrayList<Tag>(0);
+        }
+        String[] keys = myTagKeys;
+        ByteBuffer buffer = ByteBuffer.wrap(aTagData);
+        int count = readVarInt(buffer);
+        Collection<Tag> retval = new ArrayList<Tag>(count);
+        for (int i = 0; i < count; i++) {
+            int keyID = readVarInt(buffer);
+            if (keyID >= keys.length || keys[keyID] == null) {
+                loadTagKeys(aConnection);
+                keys = myTagKeys;
+                if (keyID >= keys.length || keys[keyID] == null) {
+                    throw new SQLException("unknown tag-key with the ID " + keyID);
+                }
+            }
+            String key = keys[keyID];
+            int length = readVarInt(buffer);
+            retval.add(new Tag(key, new String(aTagData, buffer.position(), length, UTF8)));
+            buffer.position(buffer.position() + length);
+        }
+        return retval;
+    }
+
+    /**
+     * Write a non-negative variable-length integer.
+     * @param anOut where to write to
+     * @param aValue the value to write
+     */
+    private static void writeVarInt(final ByteArrayOutputStream anOut, final int aValue) {
+        int value = aValue;
+        while ((value & ~(VARINTMORE - 1)) != 0) {
+            anOut.write((value & (VARINTMORE - 1)) | VARINTMORE);
+            value >>>= VARINTBITS;
+        }
+        anOut.write(value);
+    }
+
+    /**
+     * Read a variable-length integer written by {@link #writeVarInt(ByteArrayOutputStream, int)}.
+     * @param aBuffer where to read from
+     * @return the value read
+     */
+    private static int readVarInt(final ByteBuffer aBuffer) {
+        int retval = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = aBuffer.get();
+            retval |= (b & (VARINTMORE - 1)) << shift;
+            shift += VARINTBITS;
+        } while ((b & VARINTMORE) != 0);
+        return retval;
+    }
+
+    /**
+     * Set the tags of an entity as a parameter of an add-statement.
+     * @param aStatement the add-statement
+     * @param anIndex the index of the parameter
+     * @param aTags the tags of the entity
+     * @throws SQLException if the parameter cannot be set
+     */
+    protected void setTagsParameter(final PreparedStatement aStatement, final int anIndex,
+            final Collection<Tag> aTags) throws SQLException {
+        aStatement.setBytes(anIndex, encodeTags(aStatement.getConnection(), aTags));
+    }
+
+    /**
+     * @param aResultSet a result-set on a row of nodes
+     * @return the latitude of the node in the current row
+     * @throws SQLException if the latitude cannot be read
+     */
+    protected double getLatitude(final ResultSet aResultSet) throws SQLException {
+        return FixedPrecisionCoordinateConvertor.convertToDouble(aResultSet.getInt("lat"));
+    }
+
+    /**
+     * @param aResultSet a result-set on a row of nodes
+     * @return the longitude of the node in the current row
+     * @throws SQLException if the longitude cannot be read
+     */
+    protected double getLongitude(final ResultSet aResultSet) throws SQLException {
+        return FixedPrecisionCoordinateConvertor.convertToDouble(aResultSet.getInt("lon"));
+    }
+
+    /**
+     * @param aResultSet a result-set on a row of nodes, ways or relations
+     * @return the tags of the entity in the current row
+     * @throws SQLException if the tags cannot be read
+     */
+    protected Collection<Tag> getTags(final ResultSet aResultSet) throws SQLException {
+        return decodeTags(aResultSet.getStatement().getConnection(), aResultSet.getBytes("tagdata"));
+    }
+
+    /**
+     * Replace the rows of an entity in the table entitytags.
+     * During imports the rows are added to the batch.
+     * @param aConnection the connection from {@link #getWriteConnection(EntityType, long)} or {@link #getConnection()}
+     * @param aType the type of the entity
+     * @param anID the ID of the entity
+     * @param aTags the tags of the entity, empty to remove it
+     * @throws SQLException if the rows cannot be written
+     */
+    protected void writeTagIndex(final IConnection aConnection, final EntityType aType,
+            final long anID, final Collection<Tag> aTags) throws SQLException {
+        MyConnection connection = (MyConnection) aConnection;
+        PreparedStatement deleteTagsStmt = connection.getDeleteTagsStmt();
+        deleteTagsStmt.setShort(1, (short) aType.ordinal());
+        deleteTagsStmt.setLong(2, anID);
+        executeWrite(aConnection, deleteTagsStmt);
+        if (aTags.isEmpty()) {
+            return;
+        }
+        PreparedStatement addTagStmt = connection.getAddTagStmt();
+        for (Tag tag : aTags) {
+            addTagStmt.setShort(1, (short) aType.ordinal());
+            addTagStmt.setLong(2, anID);
+            addTagStmt.setInt(3, getTagKeyID(connection.getConnection(), tag.getKey()));
+            addTagStmt.setString(4, tag.getValue());
+            executeWrite(aConnection, addTagStmt);
+        }
+    }
+
+    /**
+     * Set the parameters of the by-tag -statements of {@link IConnection}.
+     * @param aStatement the statement
+     * @param aKey the key to look for
+     * @param aValue the value to look for or null for any value
+     * @return false if no entity can have this tag
+     * @throws SQLException if the parameters cannot be set
+     */
+    protected boolean setByTagParameters(final PreparedStatement aStatement,
+            final String aKey, final String aValue) throws SQLException {
+        Integer keyID = myTagKeyIDs.get(aKey);
+        if (keyID == null) {
+            // another process may have added it
+            keyID = findTagKeyID(aStatement.getConnection(), aKey);
+            if (keyID == null) {
+                return false;
+            }
+        }
+        aStatement.setInt(1, keyID);
+        aStatement.setString(2, aValue);
+        aStatement.setBoolean(3, aValue == null);
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
     public void addRelation(final Relation aR) {
         try {
-            IConnection connection = getConnection();
+            IConnection connection = getWriteConnection(EntityType.Relation, aR.getId());
             try {
                 PreparedStatement addRelStmt = connection.getAddRelationStmt();
                 int i = 1;
                 addRelStmt.setLong(i++, aR.getId());
                 addRelStmt.setInt(i++, aR.getVersion());
-                addRelStmt.setString(i++, serializeTags(aR.getTags()));
-                addRelStmt.execute();
+                setTagsParameter(addRelStmt, i++, aR.getTags());
+                executeWrite(connection, addRelStmt);
+                writeTagIndex(connection, EntityType.Relation, aR.getId(), aR.getTags());
 
                 PreparedStatement deleteRelationMemberStmt = connection.getDeleteRelationMemberStmt();
                 deleteRelationMemberStmt.setLong(1, aR.getId());
-                deleteRelationMemberStmt.execute();
+                executeWrite(connection, deleteRelationMemberStmt);
 
                 PreparedStatement addRelationMemberStmt = connection.getAddRelationMemberStmt();
                 List<RelationMember> members = aR.getMembers();
@@ -1028,11 +1882,11 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
                     addRelationMemberStmt.setShort(i++, (short) member.getMemberType().ordinal());
                     addRelationMemberStmt.setInt(i++, index++);
                     addRelationMemberStmt.setString(i++, member.getMemberRole());
-                    addRelationMemberStmt.execute();
+                    executeWrite(connection, addRelationMemberStmt);
                 }
-                connection.getConnection().commit();
+                commitWrite(connection, EntityType.Relation);
             } finally {
-                returnConnection(connection);
+                releaseWriteConnection(connection);
             }
         } catch (SQLException e) {
             LOG.log(Level.SEVERE, "Cannot add relation", e);
@@ -1045,18 +1899,19 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
      */
     public void addWay(final Way aW) {
         try {
-            IConnection connection = getConnection();
+            IConnection connection = getWriteConnection(EntityType.Way, aW.getId());
             try {
                 PreparedStatement addWayStmt = connection.getAddWayStmt();
                 int i = 1;
                 addWayStmt.setLong(i++, aW.getId());
                 addWayStmt.setInt(i++, aW.getVersion());
-                addWayStmt.setString(i++, serializeTags(aW.getTags()));
-                addWayStmt.execute();
+                setTagsParameter(addWayStmt, i++, aW.getTags());
+                executeWrite(connection, addWayStmt);
+                writeTagIndex(connection, EntityType.Way, aW.getId(), aW.getTags());
 
                 PreparedStatement deleteWaysNodesStmt = connection.getDeleteWaysNodesStmt();
                 deleteWaysNodesStmt.setLong(1, aW.getId());
-                deleteWaysNodesStmt.execute();
+                executeWrite(connection, deleteWaysNodesStmt);
 
                 PreparedStatement addWayNodeStmt = connection.getAddWayNodeStmt();
                 List<WayNode> wayNodes = aW.getWayNodes();
@@ -1066,15 +1921,15 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
                     addWayNodeStmt.setLong(i++, aW.getId());
                     addWayNodeStmt.setLong(i++, wayNode.getNodeId());
                     addWayNodeStmt.setInt(i++, index++);
-                    addWayNodeStmt.execute();
+                    executeWrite(connection, addWayNodeStmt);
                     Node cached = myNodeCache.get(wayNode.getNodeId());
                     if (cached != null && cached instanceof ExtendedNode) {
                         ((ExtendedNode) cached).addReferencedWay(aW.getId());
                     }
                 }
-                connection.getConnection().commit();
+                commitWrite(connection, EntityType.Way);
             } finally {
-                returnConnection(connection);
+                releaseWriteConnection(connection);
             }
         } catch (SQLException e) {
             LOG.log(Level.SEVERE, "Cannot add way", e);
@@ -1241,15 +2096,19 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
         }
         try {
             IConnection connection = getConnection();
-            PreparedStatement getNodeByIDStmt = connection.getGetNodeByIDStmt();
-            getNodeByIDStmt.setLong(1, aNodeID);
-            // During imports we return Nodes instead
-            // of ExtendedNodes in {@link #getNodeByID(long)}.
-
-            if (isImporting()) {
-                return getSimpleNodeFromQuery(connection, getNodeByIDStmt);
-            } else {
-                return getNodeFromQuery(connection, getNodeByIDStmt);
+            try {
+                PreparedStatement getNodeByIDStmt = connection.getGetNodeByIDStmt();
+                getNodeByIDStmt.setLong(1, aNodeID);
+                // During imports we return Nodes instead
+                // of ExtendedNodes in {@link #getNodeByID(long)}.
+
+                if (isImporting()) {
+                    return getSimpleNodeFromQuery(getNodeByIDStmt);
+                } else {
+                    return getNodeFromQuery(connection, getNodeByIDStmt);
+                }
+            } finally {
+                returnConnection(connection);
             }
         } catch (Exception e) {
             LOG.log(Level.SEVERE, "Cannot get node by ID", e);
@@ -1259,115 +2118,103 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
 
     /**
      * This method only returns an extendedNode if one is in the cache.
-     * @param connection the connection to use ({@link #returnConnection(IConnection)} is called automaticaly)
      * @param aStatement a prepared-statement to execute
      * @return the ExtendedNode of the first way returned or null
      * @throws SQLException may happen
      */
-    private Node getSimpleNodeFromQuery(final IConnection connection,
-            final PreparedStatement aStatement) throws SQLException {
+    private Node getSimpleNodeFromQuery(final PreparedStatement aStatement) throws SQLException {
+        ResultSet rs = aStatement.executeQuery();
         try {
-            ResultSet rs = aStatement.executeQuery();
-            try {
-                while (rs.next()) {
-                    double lat = FixedPrecisionCoordinateConvertor.convertToDouble(rs.getInt("lat"));
-                    double lon = FixedPrecisionCoordinateConvertor.convertToDouble(rs.getInt("lon"));
-                    long nodeID = rs.getLong("nodeid");
-                    Node cached = myNodeCache.get(nodeID);
-                    if (cached != null) {
-                        return cached;
-                    }
-                    Node node = new Node(nodeID,
-                            rs.getInt("version"),
-                            new Date(),
-                            OsmUser.NONE,
-                            0,
-                            lat,
-                            lon);
-                    String attrs = rs.getString("tags");
-                    node.getTags().addAll(deserializeTags(attrs));
-                    rs.close();
-
-                    myNodeCache.put(node.getId(), node);
-                    return node;
+            while (rs.next()) {
+                double lat = getLatitude(rs);
+                double lon = getLongitude(rs);
+                long nodeID = rs.getLong("nodeid");
+                Node cached = myNodeCache.get(nodeID);
+                if (cached != null) {
+                    return cached;
                 }
-            } finally {
+                Node node = new Node(nodeID,
+                        rs.getInt("version"),
+                        new Date(),
+                        OsmUser.NONE,
+                        0,
+                        lat,
+                        lon);
+                node.getTags().addAll(getTags(rs));
                 rs.close();
+
+                myNodeCache.put(node.getId(), node);
+                return node;
             }
         } finally {
-            returnConnection(connection);
+            rs.close();
         }
         return null;
     }
 
     /**
-     * @param connection the connection to use ({@link #returnConnection(IConnection)} is called automaticaly)
+     * @param connection the connection to use (the caller returns it)
      * @param aStatement a prepared-statement to execute
      * @return the ExtendedNode of the first way returned or null
      * @throws SQLException may happen
      */
     private Node getNodeFromQuery(final IConnection connection,
             final PreparedStatement aStatement) throws SQLException {
+        ResultSet rs = aStatement.executeQuery();
         try {
-            ResultSet rs = aStatement.executeQuery();
-            try {
-                while (rs.next()) {
-                    double lat = FixedPrecisionCoordinateConvertor.convertToDouble(rs.getInt("lat"));
-                    double lon = FixedPrecisionCoordinateConvertor.convertToDouble(rs.getInt("lon"));
-                    long nodeID = rs.getLong("nodeid");
-                    Node cached = myNodeCache.get(nodeID);
-                    if (cached != null) {
-                        return cached;
-                    }
-                    ExtendedNode node = new ExtendedNode(nodeID,
-                            rs.getInt("version"),
-                            0,
-                            lat,
-                            lon);
-                    String attrs = rs.getString("tags");
-                    node.getTags().addAll(deserializeTags(attrs));
-                    rs.close();
+            while (rs.next()) {
+                double lat = getLatitude(rs);
+                double lon = getLongitude(rs);
+                long nodeID = rs.getLong("nodeid");
+                Node cached = myNodeCache.get(nodeID);
+                if (cached != null) {
+                    return cached;
+                }
+                ExtendedNode node = new ExtendedNode(nodeID,
+                        rs.getInt("version"),
+                        0,
+                        lat,
+                        lon);
+                node.getTags().addAll(getTags(rs));
+                rs.close();
 
-                    PreparedStatement getWaysForNodeStmt = connection.getGetWaysForNodeStmt();
-                    getWaysForNodeStmt.clearParameters();
-                    getWaysForNodeStmt.setLong(1, nodeID);
-                    ResultSet rs2 = getWaysForNodeStmt.executeQuery();
-                    try {
-                        while (rs2.next()) {
-                            //                            node.addReferencedWay(rs2.getLong("wayid"));
-                            node.addReferencedWay(rs2.getLong(1));
-                        }
-                    } finally {
-                        rs2.close();
+                PreparedStatement getWaysForNodeStmt = connection.getGetWaysForNodeStmt();
+                getWaysForNodeStmt.clearParameters();
+                getWaysForNodeStmt.setLong(1, nodeID);
+                ResultSet rs2 = getWaysForNodeStmt.executeQuery();
+                try {
+                    while (rs2.next()) {
+                        //                            node.addReferencedWay(rs2.getLong("wayid"));
+                        node.addReferencedWay(rs2.getLong(1));
                     }
+                } finally {
+                    rs2.close();
+                }
 
-                    PreparedStatement getRelationsForNodeStmt = connection.getGetRelationsForNodeStmt();
-                    getRelationsForNodeStmt.clearParameters();
-                    getRelationsForNodeStmt.setLong(1, nodeID);
-                    rs2 = getRelationsForNodeStmt.executeQuery();
-                    try {
-                        while (rs2.next()) {
-                            //node.addReferencedRelation(rs2.getLong("relid"));
-                            node.addReferencedRelation(rs2.getLong(1));
-                        }
-                    } finally {
-                        rs2.close();
+                PreparedStatement getRelationsForNodeStmt = connection.getGetRelationsForNodeStmt();
+                getRelationsForNodeStmt.clearParameters();
+                getRelationsForNodeStmt.setLong(1, nodeID);
+                rs2 = getRelationsForNodeStmt.executeQuery();
+                try {
+                    while (rs2.next()) {
+                        //node.addReferencedRelation(rs2.getLong("relid"));
+                        node.addReferencedRelation(rs2.getLong(1));
                     }
-
-                    myNodeCache.put(node.getId(), node);
-                    return node;
+                } finally {
+                    rs2.close();
                 }
-            } finally {
-                rs.close();
+
+                myNodeCache.put(node.getId(), node);
+                return node;
             }
         } finally {
-            returnConnection(connection);
+            rs.close();
         }
         return null;
     }
 
     /**
-     * @param connection the connection to use ({@link #returnConnection(IConnection)} is called automatically)
+     * @param connection the connection to use (the caller returns it)
      * @param aStatement a prepared-statement to execute
      * @return all ExtendedNodes, never null
      * @throws SQLException may happen
@@ -1375,57 +2222,51 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
     private List<Node> getNodesFromQuery(final IConnection connection,
             final PreparedStatement aStatement) throws SQLException {
         List<Node> retval = new LinkedList<Node>();
+        ResultSet rs = aStatement.executeQuery();
         try {
-            ResultSet rs = aStatement.executeQuery();
-            try {
-                while (rs.next()) {
-                    double lat = FixedPrecisionCoordinateConvertor.convertToDouble(rs.getInt("lat"));
-                    double lon = FixedPrecisionCoordinateConvertor.convertToDouble(rs.getInt("lon"));
-                    final long nodeID = rs.getLong("nodeid");
-                    Node cached = myNodeCache.get(nodeID);
-                    if (cached != null) {
-                        retval.add(cached);
-                        continue;
-                    }
-                    ExtendedNode node = new ExtendedNode(nodeID,
-                            rs.getInt("version"),
-                            0,
-                            lat,
-                            lon);
-                    String attrs = rs.getString("tags");
-                    node.getTags().addAll(deserializeTags(attrs));
-                    rs.close();
-
-                    PreparedStatement getWaysForNodeStmt = connection.getGetWaysForNodeStmt();
-                    getWaysForNodeStmt.setLong(1, node.getId());
-                    ResultSet rs2 = getWaysForNodeStmt.executeQuery();
-                    try {
-                        while (rs2.next()) {
-                            node.addReferencedWay(rs2.getLong("wayid"));
-                        }
-                    } finally {
-                        rs2.close();
+            while (rs.next()) {
+                double lat = getLatitude(rs);
+                double lon = getLongitude(rs);
+                final long nodeID = rs.getLong("nodeid");
+                Node cached = myNodeCache.get(nodeID);
+                if (cached != null) {
+                    retval.add(cached);
+                    continue;
+                }
+                ExtendedNode node = new ExtendedNode(nodeID,
+                        rs.getInt("version"),
+                        0,
+                        lat,
+                        lon);
+                node.getTags().addAll(getTags(rs));
+
+                PreparedStatement getWaysForNodeStmt = connection.getGetWaysForNodeStmt();
+                getWaysForNodeStmt.setLong(1, node.getId());
+                ResultSet rs2 = getWaysForNodeStmt.executeQuery();
+                try {
+                    while (rs2.next()) {
+                        node.addReferencedWay(rs2.getLong("wayid"));
                     }
+                } finally {
+                    rs2.close();
+                }
 
-                    PreparedStatement getRelationsForNodeStmt = connection.getGetRelationsForNodeStmt();
-                    getRelationsForNodeStmt.setLong(1, node.getId());
-                    rs2 = getRelationsForNodeStmt.executeQuery();
-                    try {
-                        while (rs2.next()) {
-                            node.addReferencedRelation(rs2.getLong("relid"));
-                        }
-                    } finally {
-                        rs2.close();
+                PreparedStatement getRelationsForNodeStmt = connection.getGetRelationsForNodeStmt();
+                getRelationsForNodeStmt.setLong(1, node.getId());
+                rs2 = getRelationsForNodeStmt.executeQuery();
+                try {
+                    while (rs2.next()) {
+                        node.addReferencedRelation(rs2.getLong("relid"));
                     }
-
-                    myNodeCache.put(node.getId(), node);
-                    retval.add(node);
+                } finally {
+                    rs2.close();
                 }
-            } finally {
-                rs.close();
+
+                myNodeCache.put(node.getId(), node);
+                retval.add(node);
             }
         } finally {
-            returnConnection(connection);
+            rs.close();
         }
         return retval;
     }
@@ -1459,60 +2300,51 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
                 final long locationMin = MultiDimension.getInstance().interleave(new int[]{minLatNormalized, minLonNormalized});
                 final long locationMax = MultiDimension.getInstance().interleave(new int[]{maxLatNormalized, maxLonNormalized});
                 
-                PreparedStatement pstmt = null;
+                PreparedStatement pstmt = connection.getGetNodeByAreaStmt();
+                pstmt.setLong(1, locationMin);
+                pstmt.setLong(2, locationMax);
+                pstmt.setInt(3, boxMinLat);
+                pstmt.setInt(4, boxMaxLat);
+                pstmt.setInt(5, boxMinLon);
+                pstmt.setInt(6, boxMaxLon);
+                ResultSet rs = pstmt.executeQuery();
                 try {
-                    String sql = "select * from nodes where (location between ? and ?) and (lat BETWEEN ? AND ?) AND (lon BETWEEN ? AND ?) ";
-                    pstmt = connection.getConnection().prepareStatement(sql);
-                    pstmt.setLong(1, locationMin);
-                    pstmt.setLong(2, locationMax);
-                    pstmt.setInt(3, boxMinLat);
-                    pstmt.setInt(4, boxMaxLat);
-                    pstmt.setInt(5, boxMinLon);
-                    pstmt.setInt(6, boxMaxLon);
-                    ResultSet rs = pstmt.executeQuery();
-                    try {
-                        while (rs.next()) {
-                            double lat = FixedPrecisionCoordinateConvertor.convertToDouble(rs.getInt("lat"));
-                            double lon = FixedPrecisionCoordinateConvertor.convertToDouble(rs.getInt("lon"));
-                            ExtendedNode node = new ExtendedNode(rs.getLong("nodeid"),
-                                    rs.getInt("version"),
-                                    0,
-                                    lat,
-                                    lon);
-                            String attrs = rs.getString("tags");
-                            node.getTags().addAll(deserializeTags(attrs));
-                            retval.add(node);
-
-                            PreparedStatement getWaysForNodeStmt = connection.getGetWaysForNodeStmt();
-                            getWaysForNodeStmt.setLong(1, node.getId());
-                            ResultSet rs2 = getWaysForNodeStmt.executeQuery();
-                            try {
-                                while (rs2.next()) {
-                                    node.addReferencedWay(rs2.getLong("wayid"));
-                                }
-                            } finally {
-                                rs2.close();
+                    while (rs.next()) {
+                        double lat = getLatitude(rs);
+                        double lon = getLongitude(rs);
+                        ExtendedNode node = new ExtendedNode(rs.getLong("nodeid"),
+                                rs.getInt("version"),
+                                0,
+                                lat,
+                                lon);
+                        node.getTags().addAll(getTags(rs));
+                        retval.add(node);
+
+                        PreparedStatement getWaysForNodeStmt = connection.getGetWaysForNodeStmt();
+                        getWaysForNodeStmt.setLong(1, node.getId());
+                        ResultSet rs2 = getWaysForNodeStmt.executeQuery();
+                        try {
+                            while (rs2.next()) {
+                                node.addReferencedWay(rs2.getLong("wayid"));
                             }
+                        } finally {
+                            rs2.close();
+                        }
 
-                            PreparedStatement getRelationsForNodeStmt = connection.getGetRelationsForNodeStmt();
-                            getRelationsForNodeStmt.setLong(1, node.getId());
-                            rs2 = getRelationsForNodeStmt.executeQuery();
-                            try {
-                                while (rs2.next()) {
-                                    node.addReferencedRelation(rs2.getLong("relid"));
-                                }
-                            } finally {
-                                rs2.close();
+                        PreparedStatement getRelationsForNodeStmt = connection.getGetRelationsForNodeStmt();
+                        getRelationsForNodeStmt.setLong(1, node.getId());
+                        rs2 = getRelationsForNodeStmt.executeQuery();
+                        try {
+                            while (rs2.next()) {
+                                node.addReferencedRelation(rs2.getLong("relid"));
                             }
-                            myNodeCache.put(node.getId(), node);
+                        } finally {
+                            rs2.close();
                         }
-                    } finally {
-                        rs.close();
+                        myNodeCache.put(node.getId(), node);
                     }
                 } finally {
-                    if(pstmt!=null){
-                        pstmt.close();
-                    }
+                    rs.close();
                 }
             } finally {
                 returnConnection(connection);
@@ -1539,9 +2371,15 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
     public Iterator<Node> getNodesByTag(final String aKey, final String aValue) {
         try {
             IConnection connection = getConnection();
-            PreparedStatement getNodesByTagStmt = connection.getGetNodesByTagStmt();
-            getNodesByTagStmt.setString(1, "%" + aKey + "==" + aValue + "##%");
-            return getNodesFromQuery(connection, getNodesByTagStmt).iterator();
+            try {
+                PreparedStatement getNodesByTagStmt = connection.getGetNodesByTagStmt();
+                if (!setByTagParameters(getNodesByTagStmt, aKey, aValue)) {
+                    return new LinkedList<Node>().iterator();
+                }
+                return getNodesFromQuery(connection, getNodesByTagStmt).iterator();
+            } finally {
+                returnConnection(connection);
+            }
         } catch (Exception e) {
             LOG.log(Level.SEVERE, "Cannot get way by id", e);
         }
@@ -1564,7 +2402,7 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
                     }
 
                     Relation rel = new Relation(rs.getLong("relid"), rs.getInt("version"), new Date(), OsmUser.NONE, 0);
-                    rel.getTags().addAll(deserializeTags(rs.getString("tags")));
+                    rel.getTags().addAll(getTags(rs));
                     PreparedStatement getMembersForRelation = connection.getGetMembersForRelation();
                     getMembersForRelation.setLong(1, aRelationID);
                     ResultSet rs2 = getMembersForRelation.executeQuery();
@@ -1639,9 +2477,13 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
     public Way getWaysByID(final long aWayID) {
         try {
             IConnection connection = getConnection();
-            PreparedStatement getWayByIDStmt = connection.getGetWayByIDStmt();
-            getWayByIDStmt.setLong(1, aWayID);
-            return getWayFromQuery(connection, getWayByIDStmt);
+            try {
+                PreparedStatement getWayByIDStmt = connection.getGetWayByIDStmt();
+                getWayByIDStmt.setLong(1, aWayID);
+                return getWayFromQuery(connection, getWayByIDStmt);
+            } finally {
+                returnConnection(connection);
+            }
         } catch (Exception e) {
             LOG.log(Level.SEVERE, "Cannot get way by id", e);
         }
@@ -1649,55 +2491,51 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
     }
 
     /**
-     * @param connection the connection to use ({@link #returnConnection(IConnection)} is called automaticaly)
+     * @param connection the connection to use (the caller returns it)
      * @param aStatement a prepared-statement to execute
      * @return the ExtendedWay of the first way returned or null
      * @throws SQLException may happen
      */
     private Way getWayFromQuery(final IConnection connection,
             final PreparedStatement aStatement) throws SQLException {
+        ResultSet rs = aStatement.executeQuery();
         try {
-            ResultSet rs = aStatement.executeQuery();
-            try {
-                if (!rs.next()) {
-                    return null;
-                }
+            if (!rs.next()) {
+                return null;
+            }
 
-                ExtendedWay way = new ExtendedWay(rs.getLong("wayid"), rs.getInt("version"));
-                way.getTags().addAll(deserializeTags(rs.getString("tags")));
+            ExtendedWay way = new ExtendedWay(rs.getLong("wayid"), rs.getInt("version"));
+            way.getTags().addAll(getTags(rs));
 
-                PreparedStatement getNodesForWayStmt = connection.getGetNodesForWayStmt();
-                getNodesForWayStmt.setLong(1, way.getId());
-                ResultSet rs2 = getNodesForWayStmt.executeQuery();
-                try {
-                    while (rs2.next()) {
-                        way.getWayNodes().add(new WayNode(rs2.getLong("nodeid")));
-                    }
-                } finally {
-                    rs2.close();
+            PreparedStatement getNodesForWayStmt = connection.getGetNodesForWayStmt();
+            getNodesForWayStmt.setLong(1, way.getId());
+            ResultSet rs2 = getNodesForWayStmt.executeQuery();
+            try {
+                while (rs2.next()) {
+                    way.getWayNodes().add(new WayNode(rs2.getLong("nodeid")));
                 }
+            } finally {
+                rs2.close();
+            }
 
-                PreparedStatement getRelationsForWayStmt = connection.getGetRelationsForWayStmt();
-                getRelationsForWayStmt.setLong(1, way.getId());
-                rs2 = getRelationsForWayStmt.executeQuery();
-                try {
-                    while (rs2.next()) {
-                        way.addReferencedRelation(rs2.getLong("relid"));
-                    }
-                } finally {
-                    rs2.close();
+            PreparedStatement getRelationsForWayStmt = connection.getGetRelationsForWayStmt();
+            getRelationsForWayStmt.setLong(1, way.getId());
+            rs2 = getRelationsForWayStmt.executeQuery();
+            try {
+                while (rs2.next()) {
+                    way.addReferencedRelation(rs2.getLong("relid"));
                 }
-                return way;
             } finally {
-                rs.close();
+                rs2.close();
             }
+            return way;
         } finally {
-            returnConnection(connection);
+            rs.close();
         }
     }
 
     /**
-     * @param connection the connection to use ({@link #returnConnection(IConnection)} is called automaticaly)
+     * @param connection the connection to use (the caller returns it)
      * @param aStatement a prepared-statement to execute
      * @return all ExtendedWays, never null
      * @throws SQLException may happen
@@ -1705,42 +2543,38 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
     private List<Way> getWaysFromQuery(final IConnection connection,
             final PreparedStatement aStatement) throws SQLException {
         List<Way> retval = new LinkedList<Way>();
+        ResultSet rs = aStatement.executeQuery();
         try {
-            ResultSet rs = aStatement.executeQuery();
-            try {
-                while (rs.next()) {
+            while (rs.next()) {
 
-                    ExtendedWay way = new ExtendedWay(rs.getLong("wayid"), rs.getInt("version"));
-                    way.getTags().addAll(deserializeTags(rs.getString("tags")));
+                ExtendedWay way = new ExtendedWay(rs.getLong("wayid"), rs.getInt("version"));
+                way.getTags().addAll(getTags(rs));
 
-                    PreparedStatement getNodesForWayStmt = connection.getGetNodesForWayStmt();
-                    getNodesForWayStmt.setLong(1, way.getId());
-                    ResultSet rs2 = getNodesForWayStmt.executeQuery();
-                    try {
-                        while (rs2.next()) {
-                            way.getWayNodes().add(new WayNode(rs2.getLong("nodeid")));
-                        }
-                    } finally {
-                        rs2.close();
+                PreparedStatement getNodesForWayStmt = connection.getGetNodesForWayStmt();
+                getNodesForWayStmt.setLong(1, way.getId());
+                ResultSet rs2 = getNodesForWayStmt.executeQuery();
+                try {
+                    while (rs2.next()) {
+                        way.getWayNodes().add(new WayNode(rs2.getLong("nodeid")));
                     }
+                } finally {
+                    rs2.close();
+                }
 
-                    PreparedStatement getRelationsForWayStmt = connection.getGetRelationsForWayStmt();
-                    getRelationsForWayStmt.setLong(1, way.getId());
-                    rs2 = getRelationsForWayStmt.executeQuery();
-                    try {
-                        while (rs2.next()) {
-                            way.addReferencedRelation(rs2.getLong("relid"));
-                        }
-                    } finally {
-                        rs2.close();
+                PreparedStatement getRelationsForWayStmt = connection.getGetRelationsForWayStmt();
+                getRelationsForWayStmt.setLong(1, way.getId());
+                rs2 = getRelationsForWayStmt.executeQuery();
+                try {
+                    while (rs2.next()) {
+                        way.addReferencedRelation(rs2.getLong("relid"));
                     }
-                    retval.add(way);
+                } finally {
+                    rs2.close();
                 }
-            } finally {
-                rs.close();
+                retval.add(way);
             }
         } finally {
-            returnConnection(connection);
+            rs.close();
         }
         return retval;
     }
@@ -1758,9 +2592,15 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
     public Iterator<Way> getWaysByTag(final String aKey, final String aValue) {
         try {
             IConnection connection = getConnection();
-            PreparedStatement getWayByTagStmt = connection.getGetWayByTagStmt();
-            getWayByTagStmt.setString(1, "%" + aKey + "==" + aValue + "##%");
-            return getWaysFromQuery(connection, getWayByTagStmt).iterator();
+            try {
+                PreparedStatement getWayByTagStmt = connection.getGetWayByTagStmt();
+                if (!setByTagParameters(getWayByTagStmt, aKey, aValue)) {
+                    return new LinkedList<Way>().iterator();
+                }
+                return getWaysFromQuery(connection, getWayByTagStmt).iterator();
+            } finally {
+                returnConnection(connection);
+            }
         } catch (Exception e) {
             LOG.log(Level.SEVERE, "Cannot get way by id", e);
         }
@@ -1812,11 +2652,13 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
     public void removeNode(final Node aW) {
         try {
             myNodeCache.remove(aW.getId());
+            flushImportBatch();
             IConnection connection = getConnection();
             try {
                 PreparedStatement deleteNodeStmt = connection.getDeleteNodeStmt();
                 deleteNodeStmt.setLong(1, aW.getId());
                 deleteNodeStmt.execute();
+                writeTagIndex(connection, EntityType.Node, aW.getId(), Collections.<Tag>emptyList());
             } finally {
                 returnConnection(connection);
             }
@@ -1830,6 +2672,7 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
      */
     public void removeRelation(final Relation aR) {
         try {
+            flushImportBatch();
             IConnection connection = getConnection();
             try {
                 PreparedStatement deleteRelationStmt = connection.getDeleteRelationStmt();
@@ -1838,6 +2681,7 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
                 PreparedStatement deleteRelationMemberStmt = connection.getDeleteRelationMemberStmt();
                 deleteRelationMemberStmt.setLong(1, aR.getId());
                 deleteRelationMemberStmt.execute();
+                writeTagIndex(connection, EntityType.Relation, aR.getId(), Collections.<Tag>emptyList());
             } finally {
                 returnConnection(connection);
             }
@@ -1851,11 +2695,13 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
      */
     public void removeWay(final Way aW) {
         try {
+            flushImportBatch();
             IConnection connection = getConnection();
             try {
                 PreparedStatement deleteWayStmt = connection.getDeleteWayStmt();
                 deleteWayStmt.setLong(1, aW.getId());
                 deleteWayStmt.execute();
+                writeTagIndex(connection, EntityType.Way, aW.getId(), Collections.<Tag>emptyList());
             } finally {
                 returnConnection(connection);
             }
@@ -1868,6 +2714,7 @@ public class H2DataSet implements IDataSet, IHintableDataSet {
      * {@inheritDoc}
      */
     public void shutdown() {
+        hintImportEnded();
         while (!myConnection.isEmpty()) {
             IConnection poll = myConnection.poll();
             if (poll == null) {
@@ -36,11 +36,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,6 +54,7 @@ import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.core.domain.v0_6.OsmUser;
 import org.openstreetmap.osmosis.core.domain.v0_6.Relation;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
 
 import com.mysql.jdbc.Connection;
@@ -120,17 +120,14 @@ public class MysqlDataSet2 extends H2DataSet {
 
 
     /**
-     * Do not use this queue directly but use
-     * #getConnection() and #returnConnection() instead.
+     * Did {@link #openConnection()} check the schema already?
      */
-    private Queue<IConnection> myConnection = new LinkedBlockingQueue<IConnection>();
-
     private boolean myIsInitialized = false;
 
     /**
      * This class is not thread-safe.
-     * It should not be used by more then 2 threads at a time.
-     *
+     * {@link H2DataSet#getConnection()} hands every instance
+     * and its prepared statements to one thread at a time.
      */
     public class MyMysqlConnection implements IConnection {
 
@@ -590,7 +587,7 @@ public class MysqlDataSet2 extends H2DataSet {
          */
         public PreparedStatement getGetWayByTagStmt() throws SQLException {
             if (mygetGetWayByTagStmt == null) {
-                mygetGetWayByTagStmt = myConnection.prepareStatement("SELECT wayid FROM ways WHERE tags like ?");
+                mygetGetWayByTagStmt = myConnection.prepareStatement("SELECT * FROM ways WHERE tags like ? OR tags like ?");
             }
             return mygetGetWayByTagStmt;
         }
@@ -601,7 +598,8 @@ public class MysqlDataSet2 extends H2DataSet {
          */
         public PreparedStatement getGetNodesByTagStmt() throws SQLException {
             if (mygetGetNodesByTagStmt == null) {
-                mygetGetNodesByTagStmt = myConnection.prepareStatement("SELECT nodeid FROM nodes WHERE tags like ?");
+                mygetGetNodesByTagStmt = myConnection.prepareStatement("SELECT nodeid, version, Y(pt) AS lat, X(pt) AS lon, tags FROM nodes"
+                        + " WHERE tags like ? OR tags like ?");
             }
             return mygetGetNodesByTagStmt;
         }
@@ -612,7 +610,7 @@ public class MysqlDataSet2 extends H2DataSet {
          */
         public PreparedStatement getGetRelByTagStmt() throws SQLException {
             if (mygetGetRelByTagStmt == null) {
-                mygetGetRelByTagStmt = myConnection.prepareStatement("SELECT relid FROM relations WHERE tags like ?");
+                mygetGetRelByTagStmt = myConnection.prepareStatement("SELECT * FROM relations WHERE tags like ? OR tags like ?");
             }
             return mygetGetRelByTagStmt;
         }
@@ -620,54 +618,37 @@ public class MysqlDataSet2 extends H2DataSet {
 
 
     /**
-     * If no database connection is open, a new connection is opened. The
-     * database connection is then returned.<br/>
-     * <b>When you are done with it, use {@link #returnConnection(IConnection)}.</b>
-     * @return The database connection.
-     * @throws SQLException if we cannot provide a connection
-     * @see #returnConnection(IConnection)
+     * Open a new connection for {@link #getConnection()}
+     * and check the schema of the database when called for the first time.
+     * @return the new connection
+     * @throws SQLException if we cannot open a connection
      */
-    protected IConnection getConnection() throws SQLException {
-        IConnection connection = myConnection.poll();
-        if (connection == null || connection.isClosed()) {
-            try {
-                if (!myIsInitialized) {
-                    myIsInitialized = true;
-                    loadDatabaseDriver();
+    @Override
+    protected IConnection openConnection() throws SQLException {
+        synchronized (this) {
+            if (!myIsInitialized) {
+                loadDatabaseDriver();
 
+                try {
+                    java.sql.Connection con = DriverManager.getConnection(getDatabaseURL(), getDatabaseUser(), getDatabasePassword());
                     try {
-                        java.sql.Connection con = DriverManager.getConnection(getDatabaseURL(), getDatabaseUser(), getDatabasePassword());
                         con.setAutoCommit(false);
                         checkSchema(con);
-
-                    } catch (SQLException e) {
-                        throw new OsmosisRuntimeException(
-                                "Unable to establish a database connection to '" + getDatabaseURL() + "'.", e);
+                    } finally {
+                        con.close();
                     }
-                }
 
-                LOG.log(Level.INFO, "Opening new connection.  DB=" + getDatabaseURL(), new Exception("DEBUG"));
-                java.sql.Connection con = DriverManager.getConnection(getDatabaseURL(), getDatabaseUser(), getDatabasePassword());
-                con.setAutoCommit(false);
-                connection = new MyMysqlConnection(con);
-            } catch (NullPointerException e) {
-                //connection = new MyConnection(myConnectionPool.getConnection());
-                return getConnection();
+                } catch (SQLException e) {
+                    throw new OsmosisRuntimeException(
+                            "Unable to establish a database connection to '" + getDatabaseURL() + "'.", e);
+                }
+                myIsInitialized = true;
             }
         }
-        return connection;
-    }
 
-    /**
-     * Return a used connection to the pool.
-     * @param aConnection the connection to return
-     * @see #getConnection()
-     */
-    protected void returnConnection(final IConnection aConnection) {
-        if (!myConnection.offer(aConnection)) {
-            LOG.info("Closing connection. as the pool is full");
-            aConnection.close();
-        }
+        java.sql.Connection con = DriverManager.getConnection(getDatabaseURL(), getDatabaseUser(), getDatabasePassword());
+        con.setAutoCommit(false);
+        return new MyMysqlConnection(con);
     }
 
 
@@ -755,32 +736,140 @@ public class MysqlDataSet2 extends H2DataSet {
      * {@inheritDoc}
      */
     @Override
-    public void addNode(final Node aN) {
-        try {
-            myNodeCache.put(aN.getId(), aN);
-            int i = 1;
-            IConnection con = getConnection();
-            try {
-                PreparedStatement addNodeStmt = con.getAddNodeStmt();
-                addNodeStmt.setLong(i++, aN.getId());
-                addNodeStmt.setInt(i++, aN.getVersion());
-//                final int lat = FixedPrecisionCoordinateConvertor.convertToFixed(aN.getLatitude());
-//                addNodeStmt.setInt(i++, lat);
-//                final int lon = FixedPrecisionCoordinateConvertor.convertToFixed(aN.getLongitude());
-//                addNodeStmt.setInt(i++, lon);
-
-                addNodeStmt.setString(i++, serializeTags(aN.getTags()));
-                addNodeStmt.setDouble(i++, aN.getLongitude());
-                addNodeStmt.setDouble(i++, aN.getLatitude());
-                addNodeStmt.execute();
-                con.getConnection().commit();
-            } finally {
-                returnConnection(con);
+    protected void setAddNodeParameters(final PreparedStatement anAddNodeStmt, final Node aN) throws SQLException {
+        int i = 1;
+        anAddNodeStmt.setLong(i++, aN.getId());
+        anAddNodeStmt.setInt(i++, aN.getVersion());
+//        final int lat = FixedPrecisionCoordinateConvertor.convertToFixed(aN.getLatitude());
+//        anAddNodeStmt.setInt(i++, lat);
+//        final int lon = FixedPrecisionCoordinateConvertor.convertToFixed(aN.getLongitude());
+//        anAddNodeStmt.setInt(i++, lon);
+        anAddNodeStmt.setString(i++, serializeTags(aN.getTags()));
+        anAddNodeStmt.setDouble(i++, aN.getLongitude());
+        anAddNodeStmt.setDouble(i++, aN.getLatitude());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setImportMode(final Statement aStatement, final boolean anImporting) throws SQLException {
+        if (anImporting) {
+            aStatement.execute("SET unique_checks = 0");
+        } else {
+            aStatement.execute("SET unique_checks = 1");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * MyISAM defers the non-unique indexes and rebuilds them by sorting.
+     */
+    @Override
+    protected void dropSecondaryIndexes(final Statement aStatement) throws SQLException {
+        aStatement.executeUpdate("ALTER TABLE nodes DISABLE KEYS;");
+        aStatement.executeUpdate("ALTER TABLE waynodes DISABLE KEYS;");
+        aStatement.executeUpdate("ALTER TABLE relmembers DISABLE KEYS;");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void createSecondaryIndexes(final Statement aStatement) throws SQLException {
+        aStatement.executeUpdate("ALTER TABLE nodes ENABLE KEYS;");
+        aStatement.executeUpdate("ALTER TABLE waynodes ENABLE KEYS;");
+        aStatement.executeUpdate("ALTER TABLE relmembers ENABLE KEYS;");
+    }
+
+    /**
+     * We still store the tags serialized in the tags-column.
+     * {@inheritDoc}
+     * @see #serializeTags(Collection)
+     */
+    @Override
+    protected void setTagsParameter(final PreparedStatement aStatement, final int anIndex,
+            final Collection<Tag> aTags) throws SQLException {
+        aStatement.setString(anIndex, serializeTags(aTags));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Collection<Tag> getTags(final ResultSet aResultSet) throws SQLException {
+        return deserializeTags(aResultSet.getString("tags"));
+    }
+
+    /**
+     * We have no table entitytags and search the tags-column instead.
+     * {@inheritDoc}
+     */
+    @Override
+    protected void writeTagIndex(final IConnection aConnection, final EntityType aType,
+            final long anID, final Collection<Tag> aTags) {
+        // nothing to do
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean setByTagParameters(final PreparedStatement aStatement,
+            final String aKey, final String aValue) throws SQLException {
+        // the tags-column is "key==value##key==value##..." so a tag
+        // starts either at the beginning or right after a "##"
+        String pattern = escapeLike(aKey) + "==";
+        if (aValue == null) {
+            pattern += "%";
+        } else {
+            pattern += escapeLike(aValue) + "##%";
+        }
+        aStatement.setString(1, pattern);
+        aStatement.setString(2, "%##" + pattern);
+        return true;
+    }
+
+    /**
+     * Escape the wildcards of a LIKE-pattern using
+     * the default escape-character of MySQL.
+     * @param aString the literal text to match
+     * @return the text with "\\", "%" and "_" escaped
+     */
+    private static String escapeLike(final String aString) {
+        StringBuilder retval = new StringBuilder(aString.length());
+        for (int i = 0; i < aString.length(); i++) {
+            char c = aString.charAt(i);
+            if (c == '\\' || c == '%' || c == '_') {
+                retval.append('\\');
             }
-        } catch (Exception e) {
-            LOG.log(Level.SEVERE, "Cannot add node #" + aN.getId()
-                    + " at " + aN.getLatitude() + "/" + aN.getLongitude(), e);
+            retval.append(c);
         }
+        return retval.toString();
+    }
+
+    /**
+     * The nodes-table stores the location as a POINT
+     * that is selected as "Y(pt) AS lat".
+     * @param aResultSet a result-set on a row of nodes
+     * @return the latitude of the node in the current row
+     * @throws SQLException if the latitude cannot be read
+     */
+    @Override
+    protected double getLatitude(final ResultSet aResultSet) throws SQLException {
+        return aResultSet.getDouble("lat");
+    }
+
+    /**
+     * The nodes-table stores the location as a POINT
+     * that is selected as "X(pt) AS lon".
+     * @param aResultSet a result-set on a row of nodes
+     * @return the longitude of the node in the current row
+     * @throws SQLException if the longitude cannot be read
+     */
+    @Override
+    protected double getLongitude(final ResultSet aResultSet) throws SQLException {
+        return aResultSet.getDouble("lon");
     }
 
     /**
@@ -863,13 +952,11 @@ public class MysqlDataSet2 extends H2DataSet {
 
     /**
      * This method only returns an extendedNode if one is in the cache.
-     * @param connection the connection to use ({@link #returnConnection(IConnection)} is called automatically)
      * @param aStatement a prepared-statement to execute
      * @return the ExtendedNode of the first way returned or null
      * @throws SQLException may happen
      */
-    private Node getSimpleNodeFromQuery(final IConnection connection,
-            final PreparedStatement aStatement) throws SQLException {
+    private Node getSimpleNodeFromQuery(final PreparedStatement aStatement) throws SQLException {
         ResultSet rs = null;
         try {
             rs = aStatement.executeQuery();
@@ -896,7 +983,6 @@ public class MysqlDataSet2 extends H2DataSet {
             if (rs != null && !rs.isClosed()) {
                 rs.close();
             }
-            returnConnection(connection);
         }
         return null;
     }
@@ -913,15 +999,19 @@ public class MysqlDataSet2 extends H2DataSet {
         }
         try {
             IConnection connection = getConnection();
-            PreparedStatement getNodeByIDStmt = connection.getGetNodeByIDStmt();
-            getNodeByIDStmt.setLong(1, aNodeID);
-            // During imports we return Nodes instead
-            // of ExtendedNodes in {@link #getNodeByID(long)}.
-
-            if (isImporting()) {
-                return getSimpleNodeFromQuery(connection, getNodeByIDStmt);
-            } else {
-                return getNodeFromQuery(connection, getNodeByIDStmt);
+            try {
+                PreparedStatement getNodeByIDStmt = connection.getGetNodeByIDStmt();
+                getNodeByIDStmt.setLong(1, aNodeID);
+                // During imports we return Nodes instead
+                // of ExtendedNodes in {@link #getNodeByID(long)}.
+
+                if (isImporting()) {
+                    return getSimpleNodeFromQuery(getNodeByIDStmt);
+                } else {
+                    return getNodeFromQuery(connection, getNodeByIDStmt);
+                }
+            } finally {
+                returnConnection(connection);
             }
         } catch (Exception e) {
             LOG.log(Level.SEVERE, "Cannot get node by ID", e);
@@ -930,65 +1020,61 @@ public class MysqlDataSet2 extends H2DataSet {
     }
 
     /**
-     * @param connection the connection to use ({@link #returnConnection(IConnection)} is called automaticaly)
+     * @param connection the connection to use (the caller returns it)
      * @param aStatement a prepared-statement to execute
      * @return the ExtendedNode of the first way returned or null
      * @throws SQLException may happen
      */
     private Node getNodeFromQuery(final IConnection connection,
             final PreparedStatement aStatement) throws SQLException {
+        ResultSet rs = aStatement.executeQuery();
         try {
-            ResultSet rs = aStatement.executeQuery();
-            try {
-                while (rs.next()) {
-                    long nodeID = rs.getLong(1);
-                    Node cached = myNodeCache.get(nodeID);
-                    if (cached != null) {
-                        return cached;
-                    }
-                    ExtendedNode node = new ExtendedNode(nodeID,
-                            rs.getInt(2),
-                            0,
-                            rs.getDouble(3),
-                            rs.getDouble(4));
-                    String attrs = rs.getString(5);
-                    node.getTags().addAll(deserializeTags(attrs));
-                    rs.close();
+            while (rs.next()) {
+                long nodeID = rs.getLong(1);
+                Node cached = myNodeCache.get(nodeID);
+                if (cached != null) {
+                    return cached;
+                }
+                ExtendedNode node = new ExtendedNode(nodeID,
+                        rs.getInt(2),
+                        0,
+                        rs.getDouble(3),
+                        rs.getDouble(4));
+                String attrs = rs.getString(5);
+                node.getTags().addAll(deserializeTags(attrs));
+                rs.close();
 
-                    PreparedStatement getWaysForNodeStmt = connection.getGetWaysForNodeStmt();
-                    getWaysForNodeStmt.clearParameters();
-                    getWaysForNodeStmt.setLong(1, nodeID);
-                    ResultSet rs2 = getWaysForNodeStmt.executeQuery();
-                    try {
-                        while (rs2.next()) {
-                            //                            node.addReferencedWay(rs2.getLong("wayid"));
-                            node.addReferencedWay(rs2.getLong(1));
-                        }
-                    } finally {
-                        rs2.close();
+                PreparedStatement getWaysForNodeStmt = connection.getGetWaysForNodeStmt();
+                getWaysForNodeStmt.clearParameters();
+                getWaysForNodeStmt.setLong(1, nodeID);
+                ResultSet rs2 = getWaysForNodeStmt.executeQuery();
+                try {
+                    while (rs2.next()) {
+                        //                            node.addReferencedWay(rs2.getLong("wayid"));
+                        node.addReferencedWay(rs2.getLong(1));
                     }
+                } finally {
+                    rs2.close();
+                }
 
-                    PreparedStatement getRelationsForNodeStmt = connection.getGetRelationsForNodeStmt();
-                    getRelationsForNodeStmt.clearParameters();
-                    getRelationsForNodeStmt.setLong(1, nodeID);
-                    rs2 = getRelationsForNodeStmt.executeQuery();
-                    try {
-                        while (rs2.next()) {
-                            //node.addReferencedRelation(rs2.getLong("relid"));
-                            node.addReferencedRelation(rs2.getLong(1));
-                        }
-                    } finally {
-                        rs2.close();
+                PreparedStatement getRelationsForNodeStmt = connection.getGetRelationsForNodeStmt();
+                getRelationsForNodeStmt.clearParameters();
+                getRelationsForNodeStmt.setLong(1, nodeID);
+                rs2 = getRelationsForNodeStmt.executeQuery();
+                try {
+                    while (rs2.next()) {
+                        //node.addReferencedRelation(rs2.getLong("relid"));
+                        node.addReferencedRelation(rs2.getLong(1));
                     }
-
-                    myNodeCache.put(node.getId(), node);
-                    return node;
+                } finally {
+                    rs2.close();
                 }
-            } finally {
-                rs.close();
+
+                myNodeCache.put(node.getId(), node);
+                return node;
             }
         } finally {
-            returnConnection(connection);
+            rs.close();
         }
         return null;
     }
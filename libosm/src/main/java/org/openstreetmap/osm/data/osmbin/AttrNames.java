@@ -69,6 +69,17 @@ public class AttrNames {
      * The filename of the attrnames.txt -file.
      */
     private File myFileName;
+    /**
+     * If true, new attribute-names are not saved
+     * right away but by {@link #close()}.
+     * @see #setDeferSaving(boolean)
+     */
+    private boolean myDeferSaving = false;
+    /**
+     * True if we have new attribute-names
+     * that are not yet saved.
+     */
+    private boolean myUnsaved = false;
     /**
      * @see #appendToFile(String).
      */
@@ -164,12 +175,31 @@ public class AttrNames {
      * @throws IOException if we cannot close the writer
      */
     public void close() throws IOException {
+        setDeferSaving(false);
 //        if (myAppendWriter != null) {
 //            myAppendWriter.close();
 //            myAppendWriter = null;
 //        }
     }
 
+    /**
+     * While bulk-loading many new attribute-names are created.
+     * Saving the complete file for each of them
+     * takes longer then the import itself, so it
+     * can be deferred to {@link #close()}.
+     * @param aDeferSaving true to only save new attribute-names when we are closed
+     * @throws IOException if we cannot save new attribute-names
+     */
+    public void setDeferSaving(final boolean aDeferSaving) throws IOException {
+        synchronized (this.myAttrNames) {
+            this.myDeferSaving = aDeferSaving;
+            if (!aDeferSaving && myUnsaved) {
+                saveFile();
+                myUnsaved = false;
+            }
+        }
+    }
+
     /**
      * @param key the key to look up
      * @return the attribute-name for that key
@@ -234,7 +264,11 @@ public class AttrNames {
             }
             this.myAttrNames.add(cleanedAttrName);
             //this leaves empty lines in the file appendToFile(anAttrName);
-            saveFile();
+            if (myDeferSaving) {
+                myUnsaved = true;
+            } else {
+                saveFile();
+            }
             return  (short) (Short.MIN_VALUE + 1 + this.myAttrNames.size());
         }
     }
@@ -0,0 +1,367 @@
+/**
+ * DenseIDIndexFile.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Project: libosm<br/>
+ * DenseIDIndexFile.java<br/>
+ *<br/><br/>
+ * <b>This is the *.didx-file. An index by ID that stores the record-number
+ * of every ID in a slot of 4 bytes.</b><br/>
+ * OSM-IDs are dense and almost monotonic, so instead of walking down the
+ * tree of an {@link IDIndexFile} a lookup is a single read from a
+ * memory-mapped segment of the file.<br/>
+ * The file is a sequence of blocks. Every block starts with the number+1
+ * of the segment of IDs it holds, followed by the slots of that segment.
+ * Blocks are only appended for segments that contain IDs, so ranges of
+ * IDs that do not exist use no disk-space on any file-system.
+ * When opening the file the headers of all blocks are read into a
+ * directory in memory that maps segment-numbers to the mapped blocks.<br/>
+ * A slot contains the record-number+1. 0 denotes an empty slot.
+ * @see IDIndexFile
+ */
+public class DenseIDIndexFile implements IIDIndexFile {
+
+    /**
+     * Automatically created logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(DenseIDIndexFile.class
+            .getName());
+
+    /**
+     * Number of bytes per slot.
+     */
+    private static final int SLOTSIZE = 4;
+
+    /**
+     * A segment of the file mapped at once holds 2^SEGMENTBITS slots.
+     */
+    private static final int SEGMENTBITS = 20;
+
+    /**
+     * Number of slots in a segment.
+     */
+    private static final int SEGMENTSLOTS = 1 << SEGMENTBITS;
+
+    /**
+     * Number of bytes in a segment.
+     */
+    private static final long SEGMENTSIZE = (long) SEGMENTSLOTS * SLOTSIZE;
+
+    /**
+     * Number of bytes of the segment-number in front of every block.
+     */
+    private static final int BLOCKHEADERSIZE = 8;
+
+    /**
+     * Number of bytes in a block.
+     */
+    private static final long BLOCKSIZE = BLOCKHEADERSIZE + SEGMENTSIZE;
+
+    /**
+     * The directory is a tree of 2 levels.
+     * A page of the lower level holds 2^DIRECTORYBITS segments.
+     */
+    private static final int DIRECTORYBITS = 16;
+
+    /**
+     * Number of segments in a page of the directory.
+     */
+    private static final int DIRECTORYPAGESLOTS = 1 << DIRECTORYBITS;
+
+    /**
+     * All segment-numbers are smaller then this.
+     */
+    private static final long MAXSEGMENTS = Integer.MAX_VALUE;
+
+    /**
+     * The file we store our index in.
+     */
+    private final File myFileName;
+
+    /**
+     * The open file.
+     */
+    private RandomAccessFile myFile;
+
+    /**
+     * The number of blocks in {@link #myFile}.
+     */
+    private long myBlockCount;
+
+    /**
+     * The memory-mapped segments by segment-number
+     * (ID &gt;&gt; {@link #SEGMENTBITS}).
+     * The pages are created on demand, lookups never lock.
+     */
+    private final AtomicReferenceArray<AtomicReferenceArray<MappedByteBuffer>> myDirectory
+        = new AtomicReferenceArray<AtomicReferenceArray<MappedByteBuffer>>((int) (MAXSEGMENTS >>> DIRECTORYBITS) + 1);
+
+    /**
+     * If true all segments are mapped read-only when opening.
+     */
+    private final boolean myReadOnly;
+
+    /**
+     * @param aFileName the filename of the *.didx -file
+     * @throws IOException if we cannot open or create the file.
+     */
+    public DenseIDIndexFile(final File aFileName) throws IOException {
+        this(aFileName, false);
+    }
+
+    /**
+     * @param aFileName the filename of the *.didx -file
+     * @param aReadOnly open the file read-only. A missing file is treated as empty.
+     * @throws IOException if we cannot open or create the file.
+     */
+    public DenseIDIndexFile(final File aFileName, final boolean aReadOnly) throws IOException {
+        this.myFileName = aFileName;
+        this.myReadOnly = aReadOnly;
+        if (!aReadOnly) {
+            this.myFile = new RandomAccessFile(aFileName, "rw");
+            readDirectory(FileChannel.MapMode.READ_WRITE);
+        } else if (aFileName.exists()) {
+            this.myFile = new RandomAccessFile(aFileName, "r");
+            readDirectory(FileChannel.MapMode.READ_ONLY);
+        }
+    }
+
+    /**
+     * Read the headers of all blocks and map them.
+     * @param aMode how to map the blocks
+     * @throws IOException if we cannot read or map the file
+     */
+    private void readDirectory(final FileChannel.MapMode aMode) throws IOException {
+        // a block that was not completely written when we crashed is overwritten later
+        long blockCount = myFile.length() / BLOCKSIZE;
+        for (long block = 0; block < blockCount; block++) {
+            myFile.seek(block * BLOCKSIZE);
+            long segmentNr = myFile.readLong() - 1;
+            if (segmentNr < 0 || segmentNr >= MAXSEGMENTS) {
+                LOG.warning("ignoring block " + block + " of index-file " + myFileName.getName()
+                        + " with the invalid segment-number " + segmentNr);
+                continue;
+            }
+            setSegment(segmentNr, myFile.getChannel().map(aMode,
+                    block * BLOCKSIZE + BLOCKHEADERSIZE, SEGMENTSIZE));
+        }
+        myBlockCount = blockCount;
+    }
+
+    /**
+     * @return the file we store our index in
+     */
+    public File getFileName() {
+        return myFileName;
+    }
+
+    /**
+     * Just an overridden ToString to return this classe's name
+     * and hashCode.
+     * @return className and hashCode
+     */
+    public String toString() {
+        return "DenseIDIndexFile" + hashCode();
+    }
+
+    /**
+     * @param aSegmentNr the number of a segment
+     * @return the mapped segment or null
+     */
+    private MappedByteBuffer lookupSegment(final long aSegmentNr) {
+        AtomicReferenceArray<MappedByteBuffer> page = myDirectory.get((int) (aSegmentNr >>> DIRECTORYBITS));
+        if (page == null) {
+            return null;
+        }
+        return page.get((int) (aSegmentNr & (DIRECTORYPAGESLOTS - 1)));
+    }
+
+    /**
+     * Enter a mapped segment into the directory.
+     * Only called while constructing or holding the lock on this.
+     * @param aSegmentNr the number of the segment
+     * @param aSegment the mapped segment
+     */
+    private void setSegment(final long aSegmentNr, final MappedByteBuffer aSegment) {
+        int pageNr = (int) (aSegmentNr >>> DIRECTORYBITS);
+        AtomicReferenceArray<MappedByteBuffer> page = myDirectory.get(pageNr);
+        if (page == null) {
+            page = new AtomicReferenceArray<MappedByteBuffer>(DIRECTORYPAGESLOTS);
+            myDirectory.set(pageNr, page);
+        }
+        page.set((int) (aSegmentNr & (DIRECTORYPAGESLOTS - 1)), aSegment);
+    }
+
+    /**
+     * Get the mapped segment containing the given ID.
+     * @param anID the ID to look for
+     * @param aCreate append a block if the segment does not exist yet
+     * @return the segment or null
+     * @throws IOException if we cannot grow or map the file
+     */
+    private MappedByteBuffer getSegment(final long anID, final boolean aCreate) throws IOException {
+        long segmentNr = anID >>> SEGMENTBITS;
+        if (segmentNr >= MAXSEGMENTS) {
+            return null;
+        }
+        MappedByteBuffer segment = lookupSegment(segmentNr);
+        if (segment != null || !aCreate || myReadOnly) {
+            return segment;
+        }
+        synchronized (this) {
+            if (myFile == null) {
+                throw new IllegalStateException("index-file " + myFileName.getName() + " is already closed");
+            }
+            segment = lookupSegment(segmentNr);
+            if (segment != null) {
+                return segment;
+            }
+            long start = myBlockCount * BLOCKSIZE;
+            myFile.setLength(start + BLOCKSIZE);
+            segment = myFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                    start + BLOCKHEADERSIZE, SEGMENTSIZE);
+            // the header last, so an incomplete block is never used
+            myFile.seek(start);
+            myFile.writeLong(segmentNr + 1);
+            myBlockCount++;
+            setSegment(segmentNr, segment);
+            return segment;
+        }
+    }
+
+    /**
+     * Add the given entity-ID to record-number -mapping to this index.
+     * @param id the ID of the entity
+     * @param recordNr the record-number where the entity with this ID is stored
+     * @throws IOException if we cannot grow the file
+     */
+    public void put(final long id, final long recordNr) throws IOException {
+        checkWritable();
+        if (id < 0) {
+            throw new IllegalArgumentException("we cannot store a negative key.");
+        }
+        if ((id >>> SEGMENTBITS) >= MAXSEGMENTS) {
+            throw new IllegalArgumentException("we cannot store a key this big.");
+        }
+        if (recordNr < 0 || recordNr >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("we cannot store a value thig big.");
+        }
+        getSegment(id, true).putInt((int) (id & (SEGMENTSLOTS - 1)) * SLOTSIZE, (int) recordNr + 1);
+    }
+
+    /**
+     * Remove the given entity from this index.
+     * @param id the ID of the entity
+     * @throws IOException if we cannot read or write
+     */
+    public void remove(final long id) throws IOException {
+        checkWritable();
+        if (id < 0) {
+            return;
+        }
+        MappedByteBuffer segment = getSegment(id, false);
+        if (segment != null) {
+            segment.putInt((int) (id & (SEGMENTSLOTS - 1)) * SLOTSIZE, 0);
+        }
+    }
+
+    /**
+     * Look up a record-number in this index.
+     * @param id the ID of the entity
+     * @return the record-number where the entity with this ID is stored or -1
+     * @throws IOException if we cannot read the record
+     */
+    public long get(final long id) throws IOException {
+        if (id < 0) {
+            return -1;
+        }
+        MappedByteBuffer segment = getSegment(id, false);
+        if (segment == null) {
+            return -1;
+        }
+        return segment.getInt((int) (id & (SEGMENTSLOTS - 1)) * SLOTSIZE) - 1L;
+    }
+
+    /**
+     * @return true if this index was opened read-only.
+     */
+    public boolean isReadOnly() {
+        return myReadOnly;
+    }
+
+    /**
+     * @throws IllegalStateException if this index is read-only
+     */
+    private void checkWritable() {
+        if (myReadOnly) {
+            throw new IllegalStateException("index-file " + myFileName.getName() + " is opened read-only");
+        }
+    }
+
+    /**
+     * Release all ressources.
+     * @throws IOException if we cannot write
+     */
+    public synchronized void close() throws IOException {
+        if (myFile == null) {
+            return;
+        }
+        for (int pageNr = 0; pageNr < myDirectory.length(); pageNr++) {
+            AtomicReferenceArray<MappedByteBuffer> page = myDirectory.getAndSet(pageNr, null);
+            if (page == null || myReadOnly) {
+                continue;
+            }
+            for (int i = 0; i < page.length(); i++) {
+                MappedByteBuffer segment = page.get(i);
+                if (segment == null) {
+                    continue;
+                }
+                try {
+                    segment.force();
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "Cannot flush index-file " + myFileName.getName(), e);
+                }
+            }
+        }
+        myFile.close();
+        myFile = null;
+    }
+}
@@ -35,7 +35,6 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.ClosedChannelException;
@@ -43,6 +42,7 @@ import java.nio.channels.FileChannel;
 
 //automatically created logger for debug and error -output
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -67,9 +67,16 @@ import java.beans.PropertyChangeSupport;
 public abstract class FixedRecordFile {
 
     /**
-     * We map at most this many bytes into memory.
+     * We map the file in segments of at most this many bytes.
+     * (A single mapping cannot be larger then Integer.MAX_VALUE.)
      */
-    private static final int MAXSIZE = Integer.MAX_VALUE;
+    private static final int MAXSEGMENTSIZE = 1 << 30;
+
+    /**
+     * Records given to {@link #appendRecords(ByteBuffer)} are collected
+     * in a buffer of about this many bytes before they are written.
+     */
+    private static final int APPENDBUFFERSIZE = 1 << 20;
 
     /**
      * Automatically created logger for debug and error-output.
@@ -79,17 +86,12 @@ public abstract class FixedRecordFile {
 
     /**
      * The memory-mapped content of our file.
-     * @see #memoryMapped
+     * Segment i contains the records
+     * i*{@link #getRecordsPerSegment()} ... (i+1)*{@link #getRecordsPerSegment()}-1.
+     * A segment is null if it could not be mapped.
+     * Records in such segments are accessed using conventional IO.
      */
-    private MappedByteBuffer memoryMapped;
-
-    /**
-     * {@link #memoryMapped} need not map the
-     * whole file. So this value tells us
-     * what position in the file the first
-     * byte of the mapping has.
-     */
-    private long memoryMappedFirstByte = 0;
+    private volatile MappedByteBuffer[] memoryMapped = new MappedByteBuffer[0];
 
     /**
      * The default initial capacity - MUST be a power of two.
@@ -165,31 +167,118 @@ public abstract class FixedRecordFile {
      */
     private File myFileName;
 
+    /**
+     * If true the file is mapped read-only and never written.
+     * Reads then use no shared caches and no locks.
+     */
+    private boolean myReadOnly;
+
+    /**
+     * Records given to {@link #appendRecords(ByteBuffer)}
+     * that are not yet written to the file.
+     */
+    private ByteBuffer myAppendBuffer;
+
+    /**
+     * True if records have been appended to the file
+     * that are not yet memory-mapped.
+     * @see #flushAppendedRecords()
+     */
+    private boolean myAppendedUnmapped;
+
     /**
      * @param aFileName the file to use
      * @throws IOException if we cannot memory-map the file
      */
     public FixedRecordFile(final File aFileName) throws IOException {
-        if (!aFileName.exists()) {
-            if (!aFileName.createNewFile()) {
-                throw new IOException("file '" + aFileName.getAbsolutePath() + "' could not be created.");
+        this(aFileName, true);
+    }
+
+    /**
+     * @param aFileName the file to use
+     * @param anOpen false if the subclass needs to initialize fields used by
+     *        {@link #getRecordLength()} first and calls {@link #open()} itself
+     * @throws IOException if we cannot memory-map the file
+     */
+    protected FixedRecordFile(final File aFileName, final boolean anOpen) throws IOException {
+        this(aFileName, anOpen, false);
+    }
+
+    /**
+     * @param aFileName the file to use
+     * @param anOpen false if the subclass needs to initialize fields used by
+     *        {@link #getRecordLength()} first and calls {@link #open()} itself
+     * @param aReadOnly open the file read-only. A missing file is treated as empty.
+     * @throws IOException if we cannot memory-map the file
+     */
+    protected FixedRecordFile(final File aFileName, final boolean anOpen, final boolean aReadOnly) throws IOException {
+        setFileName(aFileName);
+        this.myReadOnly = aReadOnly;
+        if (anOpen) {
+            open();
+        }
+    }
+
+    /**
+     * Create the file if needed and memory-map it.
+     * Called by the constructor unless told otherwise.
+     * @throws IOException if we cannot create the file
+     */
+    protected void open() throws IOException {
+        File fileName = getFileName();
+        if (isReadOnly()) {
+            if (fileName.exists()) {
+                setRecordCount(fileName.length() / getRecordLength());
+                myFileChannel = new RandomAccessFile(fileName, "r").getChannel();
+                mapSegments(0);
             }
+            return;
         }
-        setFileName(aFileName);
-        long recordCnt = aFileName.length() / getRecordLength();
-        if (recordCnt > Integer.MAX_VALUE) {
-            throw new IllegalStateException("recordcount too large to be represented as an integer");
+        if (!fileName.exists()) {
+            if (!fileName.createNewFile()) {
+                throw new IOException("file '" + fileName.getAbsolutePath() + "' could not be created.");
+            }
         }
-        setRecordCount((int) recordCnt);
-        //myFileChannel = new RandomAccessFile(aFileName, "rws").getChannel();
-        myFileChannel = new RandomAccessFile(aFileName, "rw").getChannel();
-        try {
-            this.memoryMapped = myFileChannel.map(FileChannel.MapMode.READ_WRITE, 0, aFileName.length());
-        } catch (Exception e) {
-            LOG.log(Level.INFO, "Memory-maping the file failed in "
-                       + getClass().getName()
-                       + " - using conventional io instead");
+        setRecordCount(fileName.length() / getRecordLength());
+        //myFileChannel = new RandomAccessFile(fileName, "rws").getChannel();
+        myFileChannel = new RandomAccessFile(fileName, "rw").getChannel();
+        mapSegments(0);
+    }
+
+    /**
+     * @return the number of records in a memory-mapped segment of the file
+     */
+    protected int getRecordsPerSegment() {
+        return Math.max(1, MAXSEGMENTSIZE / getRecordLength());
+    }
+
+    /**
+     * (Re-)map all segments starting with the given one
+     * up to the current end of the file.
+     * @param aFirstSegment the first segment to map
+     */
+    private synchronized void mapSegments(final int aFirstSegment) {
+        FileChannel.MapMode mode = FileChannel.MapMode.READ_WRITE;
+        if (isReadOnly()) {
+            mode = FileChannel.MapMode.READ_ONLY;
+        }
+        long segmentSize = (long) getRecordsPerSegment() * getRecordLength();
+        long fileSize = getRecordCount() * getRecordLength();
+        int segmentCount = (int) ((fileSize + segmentSize - 1) / segmentSize);
+        MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+        System.arraycopy(this.memoryMapped, 0, segments, 0, Math.min(aFirstSegment, Math.min(segmentCount, this.memoryMapped.length)));
+        for (int i = aFirstSegment; i < segmentCount; i++) {
+            long start = i * segmentSize;
+            try {
+                segments[i] = myFileChannel.map(mode, start, Math.min(segmentSize, fileSize - start));
+            } catch (Exception e) {
+                LOG.log(Level.INFO, "Memory-maping the file failed in "
+                        + getClass().getName() + " at byte " + start
+                        + " - using conventional io instead");
+                segments[i] = null;
+            }
         }
+        this.memoryMapped = segments;
     }
 
     /**
@@ -212,6 +301,9 @@ public abstract class FixedRecordFile {
      * @throws IOException if we cannot read
      */
     public ByteBuffer getRecordForReading(final long aRecordNumber) throws IOException {
+        if (isReadOnly()) {
+            return getRecordReadOnly(aRecordNumber);
+        }
 
         ByteBuffer cached = this.myRecordBufferCache.get(aRecordNumber);
 //        if (cached  != null) {
@@ -271,6 +363,58 @@ public abstract class FixedRecordFile {
         record.rewind();
         return record;
     }
+
+    /**
+     * {@link #getRecordForReading(long)} for read-only files.
+     * This is safe to be called by any number of threads
+     * concurrently without locking.
+     * @param aRecordNumber the number of the record to select
+     * @return a ByteBuffer positioned at that record.
+     * @throws IOException if we cannot read
+     */
+    private ByteBuffer getRecordReadOnly(final long aRecordNumber) throws IOException {
+        if (aRecordNumber < 0 || aRecordNumber >= getRecordCount()) {
+            throw new IllegalArgumentException("record " + aRecordNumber
+                    + " is not in 0.." + getRecordCount());
+        }
+        int recordsPerSegment = getRecordsPerSegment();
+        MappedByteBuffer segment = this.memoryMapped[(int) (aRecordNumber / recordsPerSegment)];
+        if (segment != null) {
+            // we duplicate, so that position in the returned records are independend
+            ByteBuffer retval = segment.duplicate();
+            retval.position((int) (aRecordNumber % recordsPerSegment) * getRecordLength());
+            return retval;
+        }
+        // this segment could not be mapped, use a positional read
+        // that does not move the shared position of the channel
+        ByteBuffer record = ByteBuffer.allocate(getRecordLength());
+        long position = aRecordNumber * getRecordLength();
+        while (record.hasRemaining()) {
+            int readNow = this.myFileChannel.read(record, position + record.position());
+            if (readNow < 0) {
+                throw new EOFException("record " + aRecordNumber + " seems to be beyong the end of the file");
+            }
+        }
+        record.rewind();
+        return record;
+    }
+
+    /**
+     * @return true if this file was opened read-only.
+     */
+    public boolean isReadOnly() {
+        return myReadOnly;
+    }
+
+    /**
+     * @throws IllegalStateException if this file is read-only
+     */
+    private void checkWritable() {
+        if (isReadOnly()) {
+            throw new IllegalStateException("file '" + getFileName().getName() + "' is opened read-only");
+        }
+    }
+
     /**
      * Position us at the record with the given number.
      * The returned record may be memory-mapped or
@@ -281,18 +425,23 @@ public abstract class FixedRecordFile {
      * @return a ByteBuffer positioned at that record.
      */
     public ByteBuffer getRecordForWriting(final long aRecordNumber) {
+        checkWritable();
         if (aRecordNumber < 0) {
             throw new IllegalArgumentException("aRecordNumber < 0");
         }
         if (aRecordNumber > getRecordCount()) {
             throw new IllegalArgumentException("aRecordNumber > getRecordCount()");
         }
-        long pos = aRecordNumber * (long) getRecordLength();
+        long segmentNr = aRecordNumber / getRecordsPerSegment();
+        int pos = (int) (aRecordNumber % getRecordsPerSegment()) * getRecordLength();
+        MappedByteBuffer[] segments = this.memoryMapped;
+        MappedByteBuffer segment = null;
+        if (segmentNr < segments.length) {
+            segment = segments[(int) segmentNr];
+        }
 
-        if (this.memoryMapped == null
-                || pos > Integer.MAX_VALUE
-                || pos < memoryMappedFirstByte
-                || pos + getRecordLength() > this.memoryMapped.limit()) {
+        if (segment == null
+                || pos + getRecordLength() > segment.limit()) {
             // memory-mapping failed, allocate a conventional buffer
             // (the queue is thread-safe)
             ByteBuffer cached = this.myRecordBufferCache.get(aRecordNumber);
@@ -324,8 +473,8 @@ public abstract class FixedRecordFile {
             return cached;
         }
      // we duplicate, so that position in the returned records are independend
-        ByteBuffer retval = this.memoryMapped.duplicate();
-        retval.position((int) (pos - memoryMappedFirstByte));
+        ByteBuffer retval = segment.duplicate();
+        retval.position(pos);
         return retval;
     }
     /**
@@ -351,6 +500,7 @@ public abstract class FixedRecordFile {
          * @throws IOException if we cannot write the record
          */
         public void writeRecord(final ByteBuffer aRecordBuffer, final long recordNr, final boolean sync) throws IOException {
+            checkWritable();
             if (aRecordBuffer instanceof MappedByteBuffer) {
                 //we need not do anything due to memory-mapping
                 return;
@@ -512,7 +662,7 @@ public abstract class FixedRecordFile {
         if (aRecordBuffer == null) {
             return;
         }
-        if (aRecordBuffer instanceof MappedByteBuffer) {
+        if (aRecordBuffer instanceof MappedByteBuffer || isReadOnly()) {
             return;
         }
     }
@@ -608,7 +758,11 @@ public abstract class FixedRecordFile {
      */
     @Deprecated
     protected ByteBuffer getMemoryMapping() {
-        return this.memoryMapped;
+        MappedByteBuffer[] segments = this.memoryMapped;
+        if (segments.length == 0) {
+            return null;
+        }
+        return segments[0];
     }
 
     /**
@@ -623,15 +777,51 @@ public abstract class FixedRecordFile {
 //                LOG.severe("cannot interrupt AsyncWriteThread");
 //            }
 //        }
-        if (this.memoryMapped != null) {
-            this.memoryMapped = null;
+        if (this.myAppendBuffer != null && this.myAppendBuffer.position() > 0) {
+            writeAppendBuffer();
         }
+        this.memoryMapped = new MappedByteBuffer[0];
         if (this.myFileChannel != null) {
             this.myFileChannel.close();
             this.myFileChannel = null;
         }
     }
 
+    /**
+     * Get the memory-mapped segment a record is stored in
+     * without duplicating it. The returned buffer is shared,
+     * so only the absolute get-methods may be used on it,
+     * starting at {@link #getOffsetInSegment(long)}.
+     * Nothing needs to be released afterwards.
+     * @param aRecordNumber the number of the record
+     * @return the segment or null if this record is not memory-mapped
+     * @see #getRecordForReading(long)
+     */
+    public ByteBuffer getMappedSegment(final long aRecordNumber) {
+        if (aRecordNumber < 0) {
+            return null;
+        }
+        MappedByteBuffer[] segments = this.memoryMapped;
+        long segmentNr = aRecordNumber / getRecordsPerSegment();
+        if (segmentNr >= segments.length) {
+            return null;
+        }
+        MappedByteBuffer segment = segments[(int) segmentNr];
+        if (segment == null
+                || getOffsetInSegment(aRecordNumber) + getRecordLength() > segment.limit()) {
+            return null;
+        }
+        return segment;
+    }
+
+    /**
+     * @param aRecordNumber the number of the record
+     * @return the byte-index of the record in it's {@link #getMappedSegment(long)}
+     */
+    public int getOffsetInSegment(final long aRecordNumber) {
+        return (int) (aRecordNumber % getRecordsPerSegment()) * getRecordLength();
+    }
+
     /**
      * @return the recordCount
      */
@@ -651,72 +841,32 @@ public abstract class FixedRecordFile {
      * @return the number of records we grew
      */
     public long growFile(final long aPreferedCount, final long aMinimumCount) throws IOException {
+        checkWritable();
+        flushAppendedRecords();
         if (this.myFileChannel == null) {
             this.myFileChannel = new RandomAccessFile(getFileName(), "rw").getChannel();
         }
-        // this works much better with -XX:MaxDirectMemorySize=512M
-        WeakReference<MappedByteBuffer> isGarbageCollected = new WeakReference<MappedByteBuffer>(this.memoryMapped);
-        this.memoryMapped = null;
-        long start = System.currentTimeMillis();
-        System.gc();
-        System.runFinalization();
-        int i = 2 * 2;
-        LOG.info("Growing File - forced Garbage collection done after " + (System.currentTimeMillis() - start) + "ms...");
-        while (isGarbageCollected.get() != null) {
-            LOG.info("Growing File - memory-mapping not yet garbage-collected");
-            System.gc();
-            System.runFinalization();
-            Thread.yield();
-            try {
-                final int milliseconds = 1000;
-                Thread.sleep(milliseconds);
-            } catch (InterruptedException e) {
-                LOG.info("sleep interrupted while waiting for finalization");
-            }
-            i--;
-            if (i == 0) {
-                LOG.info("Growing File - memory-mapping not yet garbage-collected - GOING ON ANYWAY");
-                break;
-            }
-        }
-        isGarbageCollected = null;
-        LOG.info("Growing File - old memory collected, mapping new memory...");
+        // only the last, partial segment and the new ones need to be mapped
+        int firstSegment = (int) (getRecordCount() / getRecordsPerSegment());
+        long oldRecordCount = getRecordCount();
+        setRecordCount(oldRecordCount + aPreferedCount);
         try {
-            // if memory-mapping the complete file failed the last time,
-            // do not try again
-            if (this.memoryMapped != null || this.memoryMappedFirstByte != 0) {
-                try {
-                    this.memoryMapped = this.myFileChannel.map(FileChannel.MapMode.READ_WRITE, 0, (getRecordCount() + aPreferedCount) * getRecordLength());
-                    this.memoryMappedFirstByte = 0;
-                    setRecordCount(getRecordCount() + (long) aPreferedCount);
-                    return aPreferedCount;
-                } catch (IOException e) {
-                    LOG.log(Level.INFO, "could not map "
-                            + (((long) getRecordCount() + (long) aPreferedCount)
-                                    * getRecordLength())
-                                    + " bytes into memory - "
-                                    + "trying to map only a part of the file");
-                } catch (IllegalArgumentException e) {
-                    LOG.log(Level.INFO, "could not map "
-                            + (((long) getRecordCount() + (long) aPreferedCount)
-                                    * getRecordLength())
-                                    + " bytes into memory - "
-                                    + "trying to map only a part of the file");
-                }
+            myFileChannel.position(getRecordCount() * (long) getRecordLength() - 1);
+            myFileChannel.write(ByteBuffer.allocate(1));
+            mapSegments(firstSegment);
+            MappedByteBuffer[] segments = this.memoryMapped;
+            if (segments.length > 0 && segments[segments.length - 1] != null) {
+                return aPreferedCount;
             }
-            this.memoryMapped = null;
-            this.memoryMappedFirstByte = getRecordCount() * getRecordLength();
-            this.memoryMapped = this.myFileChannel.map(FileChannel.MapMode.READ_WRITE, this.memoryMappedFirstByte, aPreferedCount * getRecordLength());
-            setRecordCount(getRecordCount() + (long) aPreferedCount);
-            return aPreferedCount;
         } catch (Exception x) {
-            //if Memory-Mapping fails, make this.memoryMap=null and return. convention-IO -code will do the growing
-            this.memoryMapped = null;
+            //if Memory-Mapping fails, continue with conventional IO
             LOG.log(Level.WARNING, "could not map "
-                    + (((long) getRecordCount() + (long) aPreferedCount)
-                            * getRecordLength())
-                            + " bytes into memory - continuing with conventional IO");
+                    + (getRecordCount() * getRecordLength())
+                    + " bytes into memory - continuing with conventional IO");
         }
+        setRecordCount(oldRecordCount);
+        myFileChannel.truncate(oldRecordCount * getRecordLength());
+        mapSegments(firstSegment);
 
         //////////////////////////////////////////////////////////
         // memory mapping failed. The conventional IO-code
@@ -726,6 +876,115 @@ public abstract class FixedRecordFile {
         setRecordCount(getRecordCount() + aMinimumCount);
         return aMinimumCount;
     }
+
+    /**
+     * Shorten the file to the given number of records.
+     * Buffers for records beyond the new end that are still
+     * in use by the caller must not be used any more.
+     * @param aRecordCount the number of records to keep
+     * @throws IOException if we cannot truncate the file
+     */
+    protected synchronized void truncate(final long aRecordCount) throws IOException {
+        checkWritable();
+        flushAppendedRecords();
+        if (aRecordCount >= getRecordCount()) {
+            return;
+        }
+        synchronized (this.myRecordBufferCache) {
+            Iterator<Map.Entry<Long, ByteBuffer>> cached = this.myRecordBufferCache.entrySet().iterator();
+            while (cached.hasNext()) {
+                Map.Entry<Long, ByteBuffer> entry = cached.next();
+                if (entry.getKey() >= aRecordCount) {
+                    cached.remove();
+                    myEmptyBuffers.add(entry.getValue());
+                }
+            }
+        }
+        setRecordCount(aRecordCount);
+        // only the new last segment needs to be mapped again
+        mapSegments((int) (aRecordCount / getRecordsPerSegment()));
+        if (this.myFileChannel != null) {
+            this.myFileChannel.truncate(aRecordCount * getRecordLength());
+        }
+    }
+    /**
+     * Append complete records at the end of the file.<br/>
+     * This is meant for bulk-loading. The records are collected
+     * and written sequentially in large blocks instead of growing
+     * and memory-mapping the file for every record.
+     * Appended records cannot be read before {@link #flushAppendedRecords()}
+     * has been called.
+     * @param aRecords one or more records from position to limit
+     * @return the number of the first of the appended records
+     * @throws IOException if we cannot write
+     */
+    public synchronized long appendRecords(final ByteBuffer aRecords) throws IOException {
+        checkWritable();
+        if (aRecords.remaining() % getRecordLength() != 0) {
+            throw new IllegalArgumentException("Can only append complete records of "
+                    + getRecordLength() + " bytes but got " + aRecords.remaining() + " bytes");
+        }
+        if (this.myAppendBuffer == null) {
+            this.myAppendBuffer = ByteBuffer.allocateDirect(Math.max(1, APPENDBUFFERSIZE / getRecordLength()) * getRecordLength());
+        }
+        long firstRecord = getRecordCount() + this.myAppendBuffer.position() / getRecordLength();
+        if (aRecords.remaining() > this.myAppendBuffer.remaining()) {
+            writeAppendBuffer();
+        }
+        if (aRecords.remaining() > this.myAppendBuffer.remaining()) {
+            // larger then the buffer, write it directly
+            writeAppended(aRecords);
+        } else {
+            this.myAppendBuffer.put(aRecords);
+        }
+        return firstRecord;
+    }
+
+    /**
+     * Write all records given to {@link #appendRecords(ByteBuffer)}
+     * and memory-map them.
+     * @throws IOException if we cannot write
+     */
+    public synchronized void flushAppendedRecords() throws IOException {
+        if (this.myAppendBuffer != null && this.myAppendBuffer.position() > 0) {
+            writeAppendBuffer();
+        }
+        if (this.myAppendedUnmapped) {
+            this.myAppendedUnmapped = false;
+            mapSegments(this.memoryMapped.length == 0 ? 0 : this.memoryMapped.length - 1);
+        }
+    }
+
+    /**
+     * Write the content of {@link #myAppendBuffer} at the end of the file.
+     * @throws IOException if we cannot write
+     */
+    private void writeAppendBuffer() throws IOException {
+        this.myAppendBuffer.flip();
+        writeAppended(this.myAppendBuffer);
+        this.myAppendBuffer.clear();
+    }
+
+    /**
+     * Write complete records at the end of the file.
+     * They are not memory-mapped yet, as mapping the last segment again
+     * for every block written would be expensive.
+     * @param aRecords the records from position to limit
+     * @throws IOException if we cannot write
+     */
+    private void writeAppended(final ByteBuffer aRecords) throws IOException {
+        if (this.myFileChannel == null) {
+            this.myFileChannel = new RandomAccessFile(getFileName(), "rw").getChannel();
+        }
+        long count = aRecords.remaining() / getRecordLength();
+        long position = getRecordCount() * getRecordLength();
+        while (aRecords.hasRemaining()) {
+            position += this.myFileChannel.write(aRecords, position);
+        }
+        setRecordCount(getRecordCount() + count);
+        this.myAppendedUnmapped = true;
+    }
+
     /**
      * @param aRecordCount the recordCount to set
      */
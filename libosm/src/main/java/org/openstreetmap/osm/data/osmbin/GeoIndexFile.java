@@ -67,6 +67,15 @@ public class GeoIndexFile extends FixedRecordFile implements IGeoIndexFile {
         super(aFileName);
     }
 
+    /**
+     * @param aFileName the filename of the *.id2 -file
+     * @param aReadOnly open the file read-only
+     * @throws IOException if we cannot open or create the file.
+     */
+    public GeoIndexFile(final File aFileName, final boolean aReadOnly) throws IOException {
+        super(aFileName, true, aReadOnly);
+    }
+
     /**
      * Automatically created logger for debug and error-output.
      */
@@ -487,36 +496,58 @@ public class GeoIndexFile extends FixedRecordFile implements IGeoIndexFile {
      * @see NodesFile
      */
     public Set<Long> get(final long aMinLatitude, final long aMinLongitude, final long aMaxLatitude, final long aMaxLongitude) throws IOException {
-        Set<Long> retval = get(true, new HashSet<Long>(), 0, aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude);
+        final Set<Long> retval = new HashSet<Long>();
+        visit(aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude, new IRecordNumberVisitor() {
+            public boolean visit(final long aRecordNumber) {
+                retval.add(aRecordNumber);
+                return true;
+            }
+        });
         LOG.log(Level.FINER, "GeoIndex returning " + retval.size() + " elements for bounding-box");
         return retval;
     }
 
+    /**
+     * Look up record-numbers in this index without collecting them.
+     * @param aMinLatitude the minimum (inclusive) latitude to index by encoded as a long integer
+     * @param aMinLongitude the minimum (inclusive) longitude to index by encoded as a long integer
+     * @param aMaxLatitude the maximum (inclusive) latitude to index by encoded as a long integer
+     * @param aMaxLongitude the maximum (inclusive) longitude to index by encoded as a long integer
+     * @param aVisitor called with every record-number in nodes.obm where an entity with these coordinates is stored
+     * @throws IOException if we cannot read from the file
+     * @see FixedPrecisionCoordinateConvertor
+     * @see NodesFile
+     */
+    public void visit(final long aMinLatitude, final long aMinLongitude, final long aMaxLatitude, final long aMaxLongitude,
+                      final IRecordNumberVisitor aVisitor) throws IOException {
+        visit(true, 0, aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude, aVisitor);
+    }
+
     /**
      * Look up a record-number in this index.
      * @param aMinLatitude the minimum (inclusive) latitude to index by encoded as a long integer
      * @param aMinLongitude the minimum (inclusive) longitude to index by encoded as a long integer
      * @param aMaxLatitude the maximum (inclusive) latitude to index by encoded as a long integer
      * @param aMaxLongitude the maximum (inclusive) longitude to index by encoded as a long integer
-     * @param retval nodes collected to far in recursion
+     * @param aVisitor called with the record-numbers found
      * @param currentRecordNumber the node  to analyse
      * @param evenDepth true if we are at the root-node (depth 0) or another even depth
-     * @return the record-numbers in nodes.obm where the entities with these coordinates are stored or an empty set
+     * @return false if the visitor asked to stop
      * @throws IOException if we cannot read from the file
      * @see FixedPrecisionCoordinateConvertor
      * @see NodesFile
      */
-    protected Set<Long> get(final boolean evenDepth,
-                            final Set<Long> retval,
+    protected boolean visit(final boolean evenDepth,
                             final long currentRecordNumber,
                             final long aMinLatitude,
                             final long aMinLongitude,
                             final long aMaxLatitude,
-                            final long aMaxLongitude) throws IOException {
+                            final long aMaxLongitude,
+                            final IRecordNumberVisitor aVisitor) throws IOException {
 
         if (currentRecordNumber  >= getRecordCount()
             || currentRecordNumber == Integer.MIN_VALUE) {
-            return retval;
+            return true;
         }
         ByteBuffer mem = getRecordForReading(currentRecordNumber);
         //int start = mem.position();
@@ -544,35 +575,41 @@ public class GeoIndexFile extends FixedRecordFile implements IGeoIndexFile {
 
             if (currentLat == Long.MIN_VALUE && currentLon == Long.MIN_VALUE) {
                 // empty record
-                return retval;
+                return true;
             }
 
             // add the current id?
             if (currentLat <= aMaxLatitude && currentLat >= aMinLatitude) {
                 if (currentLon <= aMaxLongitude && currentLon >= aMinLongitude) {
                     if (value != Integer.MIN_VALUE) {
-                        retval.add(value);
+                        if (!aVisitor.visit(value)) {
+                            return false;
+                        }
                     }
                 }
             }
             // recurse left and right?
             if (evenDepth) {
                 // recurse left ?
-                if (aMaxLatitude > currentLat) {
-                    get(!evenDepth, retval, leftChild, aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude);
+                if (aMaxLatitude > currentLat
+                    && !visit(!evenDepth, leftChild, aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude, aVisitor)) {
+                    return false;
                 }
                 // recurse right ?
-                if (aMinLatitude < currentLat) {
-                    get(!evenDepth, retval, rightChild, aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude);
+                if (aMinLatitude < currentLat
+                    && !visit(!evenDepth, rightChild, aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude, aVisitor)) {
+                    return false;
                 }
             } else {
              // recurse left ?
-                if (aMaxLongitude > currentLon) {
-                    get(!evenDepth, retval, leftChild, aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude);
+                if (aMaxLongitude > currentLon
+                    && !visit(!evenDepth, leftChild, aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude, aVisitor)) {
+                    return false;
                 }
                 // recurse right ?
-                if (aMinLongitude < currentLon) {
-                    get(!evenDepth, retval, rightChild, aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude);
+                if (aMinLongitude < currentLon
+                    && !visit(!evenDepth, rightChild, aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude, aVisitor)) {
+                    return false;
                 }
             }
             // recurse right?
@@ -581,7 +618,7 @@ public class GeoIndexFile extends FixedRecordFile implements IGeoIndexFile {
                 releaseRecord(mem);
             }
         }
-        return retval;
+        return true;
     }
    
 }
@@ -135,7 +135,16 @@ public class IDIndexFile extends FixedRecordFile implements IIDIndexFile {
      * @throws IOException if we cannot open or create the file.
      */
     public IDIndexFile(final File aFileName) throws IOException {
-        super(aFileName);
+        this(aFileName, false);
+    }
+
+    /**
+     * @param aFileName the filename of the *.idx -file
+     * @param aReadOnly open the file read-only and do not use the shared cache
+     * @throws IOException if we cannot open or create the file.
+     */
+    public IDIndexFile(final File aFileName, final boolean aReadOnly) throws IOException {
+        super(aFileName, true, aReadOnly);
         this.myLastRecordWritten = getRecordCount();
     }
 
@@ -340,7 +349,7 @@ public class IDIndexFile extends FixedRecordFile implements IIDIndexFile {
             throw new IllegalArgumentException("we cannot store a value thig big.");
         }
         if (id >= Integer.MAX_VALUE) {
-            throw new IllegalArgumentException("we cannot store a key thig big.");
+            throw new IllegalArgumentException("we cannot store a key thig big. Use a DenseIDIndexFile.");
         }
         this.myCache.put(id, value);
         final int bytesPerInt = 4;
@@ -506,9 +515,11 @@ public class IDIndexFile extends FixedRecordFile implements IIDIndexFile {
         final int bytesPerInt = 4;
         long recordNumber = 0; //ROOT
         long remainingID = id;
-        Long cached = this.myCache.get(id);
-        if (cached != null) {
-            return cached.longValue();
+        if (!isReadOnly()) {
+            Long cached = this.myCache.get(id);
+            if (cached != null) {
+                return cached.longValue();
+            }
         }
         for (int depth = 0; depth < TREEDEPTH; depth++) {
             if (recordNumber >= getRecordCount()) {
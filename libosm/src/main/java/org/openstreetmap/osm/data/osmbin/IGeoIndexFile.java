@@ -52,6 +52,20 @@ public interface IGeoIndexFile {
      */
     Set<Long> get(final long aMinLatitude, final long aMinLongitude, final long aMaxLatitude, final long aMaxLongitude) throws IOException;
 
+    /**
+     * Look up record-numbers in this index without collecting them.
+     * @param aMinLatitude the minimum (inclusive) latitude to index by encoded as a long integer
+     * @param aMinLongitude the minimum (inclusive) longitude to index by encoded as a long integer
+     * @param aMaxLatitude the maximum (inclusive) latitude to index by encoded as a long integer
+     * @param aMaxLongitude the maximum (inclusive) longitude to index by encoded as a long integer
+     * @param aVisitor called with every record-number in nodes.obm where an entity with these coordinates is stored
+     * @throws IOException if we cannot read from the file
+     * @see FixedPrecisionCoordinateConvertor
+     * @see NodesFile
+     */
+    void visit(final long aMinLatitude, final long aMinLongitude, final long aMaxLatitude, final long aMaxLongitude,
+               final IRecordNumberVisitor aVisitor) throws IOException;
+
     /**
      * Release all ressources.
      * @throws IOException if we cannot write
@@ -0,0 +1,24 @@
+package org.openstreetmap.osm.data.osmbin;
+
+import java.io.IOException;
+
+/**
+ * (c) 2008 by <a href="http://Wolschon.biz>Wolschon Softwaredesign und Beratung</a>.<br/>
+ * Project: libosm<br/>
+ * IRecordNumberVisitor.java<br/>
+ *<br/><br/>
+ * <b>Callback to stream the record-numbers found by an index.</b><br/>
+ * Unlike a returned Set&lt;Long&gt; no record-number is boxed and
+ * the caller can stop the lookup early.
+ * @see IGeoIndexFile#visit(long, long, long, long, IRecordNumberVisitor)
+ */
+public interface IRecordNumberVisitor {
+
+    /**
+     * Called once for every record-number found.
+     * @param aRecordNumber the record-number in the indexed .obm -file
+     * @return false to stop the lookup
+     * @throws IOException if the visitor cannot read the record
+     */
+    boolean visit(final long aRecordNumber) throws IOException;
+}
@@ -0,0 +1,515 @@
+/**
+ * LongTupleSorter.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+/**
+ * Project: libosm<br/>
+ * LongTupleSorter.java<br/>
+ *<br/><br/>
+ * <b>An external merge-sort for tuples of longs like (nodeID, wayID).</b><br/>
+ * Tuples are collected in memory. Whenever the buffer is full it is
+ * sorted and written into a temporary run-file. {@link #sort()} merges
+ * all runs and returns the distinct tuples in ascending order (compared
+ * by the first, then the second,... value).
+ * This is used to bulk-load data without random access to the
+ * files of the entities referenced.
+ */
+public class LongTupleSorter {
+
+    /**
+     * Automatically created logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(LongTupleSorter.class
+            .getName());
+
+    /**
+     * Size of the buffers used to read and write run-files.
+     */
+    private static final int IOBUFFERSIZE = 64 * 1024;
+
+    /**
+     * The in-memory buffer starts with this many tuples
+     * and grows up to the maximum given.
+     */
+    private static final int INITIALTUPLES = 1024;
+
+    /**
+     * The directory to create run-files in.
+     */
+    private final File myTempDirectory;
+
+    /**
+     * Prefix for the names of our run-files.
+     */
+    private final String myName;
+
+    /**
+     * Number of longs in a tuple.
+     */
+    private final int myTupleSize;
+
+    /**
+     * The tuples not yet written into a run.
+     * Tuple i is stored at i*{@link #myTupleSize}.
+     */
+    private long[] myBuffer;
+
+    /**
+     * Number of tuples in {@link #myBuffer}.
+     */
+    private int myCount;
+
+    /**
+     * Maximum number of tuples in {@link #myBuffer}.
+     */
+    private final int myMaxTuplesInMemory;
+
+    /**
+     * Sorted runs written so far.
+     */
+    private final List<File> myRuns = new ArrayList<File>();
+
+    /**
+     * @param aTempDirectory the directory to create run-files in
+     * @param aName prefix for the names of run-files
+     * @param aTupleSize number of longs in a tuple
+     * @param aMaxTuplesInMemory number of tuples to sort in memory before writing a run
+     */
+    public LongTupleSorter(final File aTempDirectory, final String aName,
+                           final int aTupleSize, final int aMaxTuplesInMemory) {
+        if (aTupleSize < 1) {
+            throw new IllegalArgumentException("tuples must have at least 1 value");
+        }
+        this.myTempDirectory = aTempDirectory;
+        this.myName = aName;
+        this.myTupleSize = aTupleSize;
+        this.myMaxTuplesInMemory = Math.max(1, aMaxTuplesInMemory);
+        this.myBuffer = new long[Math.min(INITIALTUPLES, myMaxTuplesInMemory) * aTupleSize];
+    }
+
+    /**
+     * Just an overridden ToString to return this classe's name
+     * and hashCode.
+     * @return className and hashCode
+     */
+    public String toString() {
+        return "LongTupleSorter@" + hashCode();
+    }
+
+    /**
+     * Add a tuple.
+     * @param aTuple the values (the array is copied)
+     * @throws IOException if we cannot write a run
+     */
+    public void add(final long[] aTuple) throws IOException {
+        if (this.myBuffer == null) {
+            throw new IllegalStateException("cannot add tuples after sort() was called");
+        }
+        if (aTuple.length != myTupleSize) {
+            throw new IllegalArgumentException("tuple of " + aTuple.length
+                    + " values given but expected " + myTupleSize);
+        }
+        if ((myCount + 1) * myTupleSize > myBuffer.length) {
+            if (myCount < myMaxTuplesInMemory) {
+                int tuples = (int) Math.min((long) myCount * 2, myMaxTuplesInMemory);
+                myBuffer = Arrays.copyOf(myBuffer, tuples * myTupleSize);
+            } else {
+                writeRun();
+            }
+        }
+        System.arraycopy(aTuple, 0, myBuffer, myCount * myTupleSize, myTupleSize);
+        myCount++;
+    }
+
+    /**
+     * Sort all tuples given to {@link #add(long[])}.
+     * No more tuples can be added afterwards.
+     * @return the distinct tuples in ascending order
+     * @throws IOException if we cannot read or write the runs
+     */
+    public Reader sort() throws IOException {
+        if (this.myBuffer == null) {
+            throw new IllegalStateException("sort() can only be called once");
+        }
+        List<TupleSource> sources = new ArrayList<TupleSource>(myRuns.size() + 1);
+        if (myRuns.isEmpty()) {
+            // everything fits into memory
+            sortBuffer();
+            sources.add(new MemorySource(myBuffer, myCount));
+        } else {
+            if (myCount > 0) {
+                writeRun();
+            }
+            LOG.fine(myName + ": merging " + myRuns.size() + " runs");
+            for (File run : myRuns) {
+                sources.add(new RunSource(run));
+            }
+        }
+        this.myBuffer = null;
+        return new Reader(sources);
+    }
+
+    /**
+     * Delete all temporary files without sorting.
+     */
+    public void close() {
+        for (File run : myRuns) {
+            run.delete();
+        }
+        myRuns.clear();
+        this.myBuffer = null;
+    }
+
+    /**
+     * Sort the tuples in memory and write them into a new run-file.
+     * @throws IOException if we cannot write
+     */
+    private void writeRun() throws IOException {
+        sortBuffer();
+        File run = File.createTempFile(myName, ".run", myTempDirectory);
+        run.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), IOBUFFERSIZE));
+        try {
+            int length = myCount * myTupleSize;
+            for (int i = 0; i < length; i++) {
+                out.writeLong(myBuffer[i]);
+            }
+        } finally {
+            out.close();
+        }
+        myRuns.add(run);
+        myCount = 0;
+    }
+
+    /**
+     * Heap-sort the tuples in {@link #myBuffer} in place.
+     */
+    private void sortBuffer() {
+        for (int i = myCount / 2 - 1; i >= 0; i--) {
+            siftDown(i, myCount);
+        }
+        for (int end = myCount - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    /**
+     * Restore the heap-property below the given tuple.
+     * @param aRoot the tuple to move down
+     * @param anEnd the number of tuples in the heap
+     */
+    private void siftDown(final int aRoot, final int anEnd) {
+        int root = aRoot;
+        while (2 * root + 1 < anEnd) {
+            int child = 2 * root + 1;
+            if (child + 1 < anEnd && compare(child, child + 1) < 0) {
+                child++;
+            }
+            if (compare(root, child) >= 0) {
+                return;
+            }
+            swap(root, child);
+            root = child;
+        }
+    }
+
+    /**
+     * @param aFirst index of a tuple in {@link #myBuffer}
+     * @param aSecond index of a tuple in {@link #myBuffer}
+     * @return &lt;0, 0 or &gt;0 like {@link Comparator#compare(Object, Object)}
+     */
+    private int compare(final int aFirst, final int aSecond) {
+        int first = aFirst * myTupleSize;
+        int second = aSecond * myTupleSize;
+        for (int i = 0; i < myTupleSize; i++) {
+            long a = myBuffer[first + i];
+            long b = myBuffer[second + i];
+            if (a != b) {
+                return a < b ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param aFirst index of a tuple in {@link #myBuffer}
+     * @param aSecond index of a tuple in {@link #myBuffer}
+     */
+    private void swap(final int aFirst, final int aSecond) {
+        int first = aFirst * myTupleSize;
+        int second = aSecond * myTupleSize;
+        for (int i = 0; i < myTupleSize; i++) {
+            long temp = myBuffer[first + i];
+            myBuffer[first + i] = myBuffer[second + i];
+            myBuffer[second + i] = temp;
+        }
+    }
+
+    /**
+     * A sorted sequence of tuples.
+     */
+    private interface TupleSource {
+
+        /**
+         * @param aTuple the array to store the next tuple in
+         * @return false if there are no more tuples
+         * @throws IOException if we cannot read
+         */
+        boolean next(long[] aTuple) throws IOException;
+
+        /**
+         * Release all resources.
+         */
+        void close();
+    }
+
+    /**
+     * The tuples of the in-memory buffer after sorting.
+     */
+    private final class MemorySource implements TupleSource {
+
+        /**
+         * The sorted tuples.
+         */
+        private final long[] myTuples;
+
+        /**
+         * The number of tuples.
+         */
+        private final int myTupleCount;
+
+        /**
+         * The next tuple to return.
+         */
+        private int myNext = 0;
+
+        /**
+         * @param aTuples the sorted tuples
+         * @param aCount the number of tuples
+         */
+        private MemorySource(final long[] aTuples, final int aCount) {
+            this.myTuples = aTuples;
+            this.myTupleCount = aCount;
+        }
+
+        @Override
+        public boolean next(final long[] aTuple) {
+            if (myNext >= myTupleCount) {
+                return false;
+            }
+            System.arraycopy(myTuples, myNext * myTupleSize, aTuple, 0, myTupleSize);
+            myNext++;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            myNext = myTupleCount;
+        }
+    }
+
+    /**
+     * The tuples of a run-file.
+     */
+    private final class RunSource implements TupleSource {
+
+        /**
+         * The run-file.
+         */
+        private final File myRun;
+
+        /**
+         * The stream to read from.
+         */
+        private final DataInputStream myIn;
+
+        /**
+         * @param aRun the run-file
+         * @throws IOException if we cannot open the file
+         */
+        private RunSource(final File aRun) throws IOException {
+            this.myRun = aRun;
+            this.myIn = new DataInputStream(new BufferedInputStream(new FileInputStream(aRun), IOBUFFERSIZE));
+        }
+
+        @Override
+        public boolean next(final long[] aTuple) throws IOException {
+            try {
+                aTuple[0] = myIn.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            for (int i = 1; i < myTupleSize; i++) {
+                aTuple[i] = myIn.readLong();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                myIn.close();
+            } catch (IOException e) {
+                LOG.fine("cannot close run-file " + myRun.getName());
+            }
+            myRun.delete();
+        }
+    }
+
+    /**
+     * The current tuple of a {@link TupleSource} while merging.
+     */
+    private static final class Head {
+
+        /**
+         * The current tuple.
+         */
+        private final long[] myTuple;
+
+        /**
+         * Where the tuple came from.
+         */
+        private final TupleSource mySource;
+
+        /**
+         * @param aTupleSize number of longs in a tuple
+         * @param aSource where the tuples come from
+         */
+        private Head(final int aTupleSize, final TupleSource aSource) {
+            this.myTuple = new long[aTupleSize];
+            this.mySource = aSource;
+        }
+    }
+
+    /**
+     * Compares the current tuples of 2 {@link Head}s.
+     */
+    private static final Comparator<Head> HEADCOMPARATOR = new Comparator<Head>() {
+        @Override
+        public int compare(final Head aFirst, final Head aSecond) {
+            for (int i = 0; i < aFirst.myTuple.length; i++) {
+                long a = aFirst.myTuple[i];
+                long b = aSecond.myTuple[i];
+                if (a != b) {
+                    return a < b ? -1 : 1;
+                }
+            }
+            return 0;
+        }
+    };
+
+    /**
+     * Returns the distinct tuples of all runs in ascending order.
+     */
+    public final class Reader {
+
+        /**
+         * The sources that still have tuples, ordered by their current tuple.
+         */
+        private final PriorityQueue<Head> myHeads;
+
+        /**
+         * All sources to close.
+         */
+        private final List<TupleSource> mySources;
+
+        /**
+         * The last tuple returned to skip duplicates.
+         */
+        private long[] myLast;
+
+        /**
+         * @param aSources the sorted sources to merge
+         * @throws IOException if we cannot read
+         */
+        private Reader(final List<TupleSource> aSources) throws IOException {
+            this.mySources = aSources;
+            this.myHeads = new PriorityQueue<Head>(Math.max(1, aSources.size()), HEADCOMPARATOR);
+            for (TupleSource source : aSources) {
+                Head head = new Head(myTupleSize, source);
+                if (source.next(head.myTuple)) {
+                    myHeads.add(head);
+                }
+            }
+        }
+
+        /**
+         * @param aTuple the array to store the next tuple in
+         * @return false if there are no more tuples
+         * @throws IOException if we cannot read
+         */
+        public boolean next(final long[] aTuple) throws IOException {
+            while (!myHeads.isEmpty()) {
+                Head head = myHeads.poll();
+                System.arraycopy(head.myTuple, 0, aTuple, 0, myTupleSize);
+                if (head.mySource.next(head.myTuple)) {
+                    myHeads.add(head);
+                }
+                if (myLast == null) {
+                    myLast = new long[myTupleSize];
+                } else if (Arrays.equals(myLast, aTuple)) {
+                    continue;
+                }
+                System.arraycopy(aTuple, 0, myLast, 0, myTupleSize);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Close and delete all run-files.
+         */
+        public void close() {
+            myHeads.clear();
+            for (TupleSource source : mySources) {
+                source.close();
+            }
+            myRuns.clear();
+        }
+    }
+}
@@ -3,9 +3,11 @@ package org.openstreetmap.osm.data.osmbin;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10BulkWriterFactory;
 import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10DatasetReaderFactory;
 import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10ReaderFactory;
 import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10ReindexerFactory;
+import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10ReordererFactory;
 import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10WriterFactory;
 
 
@@ -32,6 +34,10 @@ public class OSMBinPlugin implements PluginLoader {
         map.put("write-osmbin", new OsmBinV10WriterFactory());
         map.put("writeosmbin-0.6", new OsmBinV10WriterFactory());
         map.put("writeosmbin", new OsmBinV10WriterFactory());
+        map.put("bulkwrite-osmbin-0.6", new OsmBinV10BulkWriterFactory());
+        map.put("bulkwrite-osmbin", new OsmBinV10BulkWriterFactory());
+        map.put("bulkwriteosmbin-0.6", new OsmBinV10BulkWriterFactory());
+        map.put("bulkwriteosmbin", new OsmBinV10BulkWriterFactory());
         map.put("read-osmbin-0.6", new OsmBinV10ReaderFactory());
         map.put("readosmbin-0.6", new OsmBinV10ReaderFactory());
         map.put("read-osmbin", new OsmBinV10ReaderFactory());
@@ -40,6 +46,10 @@ public class OSMBinPlugin implements PluginLoader {
         map.put("reindex-osmbin", new OsmBinV10ReindexerFactory());
         map.put("reindexosmbin-0.6", new OsmBinV10ReindexerFactory());
         map.put("reindexosmbin", new OsmBinV10ReindexerFactory());
+        map.put("reorder-osmbin-0.6", new OsmBinV10ReordererFactory());
+        map.put("reorder-osmbin", new OsmBinV10ReordererFactory());
+        map.put("reorderosmbin-0.6", new OsmBinV10ReordererFactory());
+        map.put("reorderosmbin", new OsmBinV10ReordererFactory());
         map.put("dataset-osmbin-0.6", new OsmBinV10DatasetReaderFactory());
         map.put("dataset-osmbin", new OsmBinV10DatasetReaderFactory());
         map.put("datasetosmbin-0.6", new OsmBinV10DatasetReaderFactory());
@@ -0,0 +1,172 @@
+/**
+ * OsmBinFormat.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Project: libosm<br/>
+ * OsmBinFormat.java<br/>
+ *<br/><br/>
+ * <b>The versions of the record-layout of the *.obm -files.</b><br/>
+ * The version of a directory is stored as "osmbin.version" in its osmbin.properties.
+ * The versions differ in the size of the IDs of elements and of the references
+ * to other elements at the start of every record.<br/>
+ * The {@link IDIndexFile} only holds IDs below 2^31, so the indice by ID
+ * of formats with 64 bit IDs are always {@link DenseIDIndexFile}s.
+ */
+public enum OsmBinFormat {
+
+    /**
+     * The original format with 32 bit IDs.
+     */
+    V1_1("v1.1", 4),
+
+    /**
+     * The format with 64 bit IDs.
+     * Its indice by ID are always {@link DenseIDIndexFile}s.
+     */
+    V1_2("v1.2", 8);
+
+    /**
+     * The ID returned by {@link #readID(ByteBuffer)} for an unused record or reference-slot.
+     */
+    public static final long EMPTYID = Long.MIN_VALUE;
+
+    /**
+     * The value of "osmbin.version".
+     */
+    private final String myName;
+
+    /**
+     * The number of bytes of an ID.
+     */
+    private final int myIDLength;
+
+    /**
+     * @param aName the value of "osmbin.version"
+     * @param anIDLength the number of bytes of an ID
+     */
+    private OsmBinFormat(final String aName, final int anIDLength) {
+        this.myName = aName;
+        this.myIDLength = anIDLength;
+    }
+
+    /**
+     * @return the value of "osmbin.version"
+     */
+    public String getName() {
+        return myName;
+    }
+
+    /**
+     * @return the number of bytes of an ID or a reference to an element
+     */
+    public int getIDLength() {
+        return myIDLength;
+    }
+
+    /**
+     * @return true if the indice by ID must be {@link DenseIDIndexFile}s
+     *         because an {@link IDIndexFile} cannot hold all IDs of this format
+     */
+    public boolean isDenseIDIndexRequired() {
+        return myIDLength > 4;
+    }
+
+    /**
+     * @param aName the value of "osmbin.version" (with or without the leading "v")
+     * @return the format or null if this version is unknown
+     */
+    public static OsmBinFormat forName(final String aName) {
+        for (OsmBinFormat format : values()) {
+            if (format.getName().equalsIgnoreCase(aName)
+                    || format.getName().substring(1).equalsIgnoreCase(aName)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read an ID at the current position.
+     * @param aBuffer the buffer to read from
+     * @return the ID or {@link #EMPTYID}
+     */
+    public long readID(final ByteBuffer aBuffer) {
+        if (myIDLength == 4) {
+            int id = aBuffer.getInt();
+            if (id == Integer.MIN_VALUE) {
+                return EMPTYID;
+            }
+            return id;
+        }
+        return aBuffer.getLong();
+    }
+
+    /**
+     * Read an ID at the given index without moving the position.
+     * @param aBuffer the buffer to read from
+     * @param anIndex the byte-index of the ID in the buffer
+     * @return the ID or {@link #EMPTYID}
+     */
+    public long readID(final ByteBuffer aBuffer, final int anIndex) {
+        if (myIDLength == 4) {
+            int id = aBuffer.getInt(anIndex);
+            if (id == Integer.MIN_VALUE) {
+                return EMPTYID;
+            }
+            return id;
+        }
+        return aBuffer.getLong(anIndex);
+    }
+
+    /**
+     * Write an ID at the current position.
+     * @param aBuffer the buffer to write to
+     * @param anID the ID or {@link #EMPTYID}
+     */
+    public void writeID(final ByteBuffer aBuffer, final long anID) {
+        if (myIDLength == 4) {
+            if (anID == EMPTYID) {
+                aBuffer.putInt(Integer.MIN_VALUE);
+                return;
+            }
+            if (anID >= Integer.MAX_VALUE || anID <= Integer.MIN_VALUE) {
+                throw new IllegalStateException("ID " + anID + " too large to be represented as an integer"
+                        + " in osmbin " + myName + ". Please convert the data to " + V1_2.getName());
+            }
+            aBuffer.putInt((int) anID);
+            return;
+        }
+        aBuffer.putLong(anID);
+    }
+}
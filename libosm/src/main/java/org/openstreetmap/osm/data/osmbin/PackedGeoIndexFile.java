@@ -0,0 +1,1168 @@
+/**
+ * PackedGeoIndexFile.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Project: libosm<br/>
+ * PackedGeoIndexFile.java<br/>
+ *<br/><br/>
+ * <b>This is the nodes.pid2-file. A read-mostly alternative to the nodes.id2-file
+ * ({@link GeoIndexFile}).</b><br/>
+ * It is a packed R-tree that is bulk-built by a {@link Builder} after sorting
+ * all nodes along a Hilbert-curve. Thus the tree is balanced regardless
+ * of the order the nodes were imported in and nodes close to each other
+ * are stored in the same pages of the file.<br/>
+ * The leafs may also be bounding-boxes. This is used for the
+ * ways.pid2 -file that maps the bounding-boxes of ways to their IDs.<br/>
+ * Layout (all records are {@link #getRecordLength()} bytes):
+ * <ul>
+ *  <li>record 0: the header (magic number, fanout, flags, the number of leafs
+ *      of the secondary tree and the number of leafs)</li>
+ *  <li>the leafs: one per node with lat=minLat=maxLat, lon=minLon=maxLon and the record-number in nodes.obm
+ *      (or one per way with it's bounding-box and ID)</li>
+ *  <li>the levels of inner tree-nodes up to the root.
+ *      Each covers {@link #FANOUT} consecutive entries of the level below.
+ *      Their positions are calculated from the number of leafs.</li>
+ *  <li>the secondary tree: nodes added after building the tree, packed the same way.</li>
+ *  <li>the overflow-area: nodes added after packing the secondary tree. It is scanned linearly.</li>
+ * </ul>
+ * Removed nodes are marked by the record-number {@link Long#MIN_VALUE}.<br/>
+ * Before the overflow-area grows beyond {@link #getOverflowLimit()} records
+ * it is packed into the secondary tree together with the leafs
+ * of the secondary tree, dropping removed nodes. Once the secondary tree,
+ * the overflow-area and the nodes removed from the tree amount to
+ * 1/{@link #MAINTREERATIO} of the tree, everything is packed into
+ * a new tree instead.
+ * @see IGeoIndexFile
+ */
+public class PackedGeoIndexFile extends FixedRecordFile implements IGeoIndexFile {
+
+    /**
+     * Automatically created logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(PackedGeoIndexFile.class
+            .getName());
+
+    /**
+     * The number of children of an inner tree-node.
+     * 64 entries are 1.5kb. Thus a tree-node touches at most 2 pages.
+     */
+    public static final int FANOUT = 64;
+
+    /**
+     * The first int in the header.
+     */
+    private static final int MAGIC = 0x50474958;
+
+    /**
+     * Flag in the header. The index is not up to date.
+     * @see #isStale()
+     */
+    private static final int FLAGSTALE = 1;
+
+    /**
+     * The offset of the record-number in a record (after 4 ints).
+     */
+    private static final int VALUEOFFSET = 16;
+
+    /**
+     * The number of longs in a tuple given to the {@link LongTupleSorter}.
+     * (hilbert-value, node-record-number, minLat, minLon, maxLat, maxLon)
+     */
+    private static final int TUPLESIZE = 6;
+
+    /**
+     * The index of the minimum latitude in a tuple.
+     * The other coordinates follow.
+     * @see #TUPLESIZE
+     */
+    private static final int TUPLEMINLAT = 2;
+
+    /**
+     * If we need to grow the overflow-area,
+     * create this may spare records.
+     */
+    private static final int GROWEXCESSRECORDS = 4096;
+
+    /**
+     * The overflow-area is packed into the secondary tree
+     * instead of growing beyond this many records.
+     * @see #getOverflowLimit()
+     */
+    private static final int OVERFLOWLIMIT = 4096;
+
+    /**
+     * A large secondary tree may have an overflow-area of up to
+     * 1/SECONDARYOVERFLOWRATIO of it's leafs before it is packed again.
+     * @see #getOverflowLimit()
+     */
+    private static final int SECONDARYOVERFLOWRATIO = 16;
+
+    /**
+     * If the secondary tree, the overflow-area and the leafs removed
+     * from the tree exceed 1/MAINTREERATIO of the leafs, the whole
+     * index is packed into the tree again.
+     */
+    private static final int MAINTREERATIO = 4;
+
+    /**
+     * The number of entries to sort in memory when packing.
+     */
+    private static final int PACKTUPLESINMEMORY = 1 << 20;
+
+    /**
+     * The number of leafs in the packed tree.
+     */
+    private long myLeafCount;
+
+    /**
+     * The number of children of an inner tree-node
+     * as given in the header.
+     */
+    private int myFanout = FANOUT;
+
+    /**
+     * The flags in the header.
+     * @see #FLAGSTALE
+     */
+    private int myFlags;
+
+    /**
+     * The number of leafs in the secondary tree.
+     */
+    private long mySecondaryLeafCount;
+
+    /**
+     * The number of leafs removed from the tree
+     * since this file was opened.
+     */
+    private long myRemovedCount;
+
+    /**
+     * Incremented when packing the index starts and when it ends,
+     * so {@link Cursor}s in progress can detect it.
+     */
+    private volatile int myPackCount;
+
+    /**
+     * The levels of the tree built by the {@link Builder}.
+     */
+    private PackedTree myTree = new PackedTree(1, 0, FANOUT);
+
+    /**
+     * The levels of the tree the overflow-area is packed into.
+     */
+    private PackedTree mySecondaryTree = new PackedTree(1, 0, FANOUT);
+
+    /**
+     * The first record of the overflow-area.
+     */
+    private long myOverflowStart = 1;
+
+    /**
+     * Cache the index to the first record in the
+     * overflow-area that may be free.
+     */
+    private long myFirstFreeRecordIndex = 1;
+
+    /**
+     * @param aFileName the filename of the *.pid2 -file
+     * @throws IOException if we cannot open or create the file.
+     */
+    public PackedGeoIndexFile(final File aFileName) throws IOException {
+        this(aFileName, false);
+    }
+
+    /**
+     * @param aFileName the filename of the *.pid2 -file
+     * @param aReadOnly open the file read-only
+     * @throws IOException if we cannot open or create the file.
+     */
+    public PackedGeoIndexFile(final File aFileName, final boolean aReadOnly) throws IOException {
+        super(aFileName, true, aReadOnly);
+        readHeader();
+    }
+
+    /**
+     * Just an overridden ToString to return this classe's name
+     * and hashCode.
+     * @return className and hashCode
+     */
+    public String toString() {
+        return "PackedGeoIndexFile" + hashCode();
+    }
+
+    /**
+     * ${@inheritDoc}.
+     */
+    @Override
+    public int getRecordLength() {
+        final int bytesPerInt = 4;
+        final int bytesPerLong = 8;
+        return 0
+            + 2 * 2 * bytesPerInt // minLat+minLon+maxLat+maxLon
+            + bytesPerLong;       // nodeRecordNumber or first child
+    }
+
+    /**
+     * @return the number of leafs in the packed tree (including removed ones)
+     */
+    public long getLeafCount() {
+        return myLeafCount;
+    }
+
+    /**
+     * @return the number of leafs in the secondary tree (including removed ones)
+     */
+    public long getSecondaryLeafCount() {
+        return mySecondaryLeafCount;
+    }
+
+    /**
+     * @return the number of records in the overflow-area (including free ones)
+     * @see #getOverflowLimit()
+     */
+    public long getOverflowCount() {
+        return getRecordCount() - myOverflowStart;
+    }
+
+    /**
+     * @return the overflow-area is packed instead of growing beyond this many records
+     */
+    public long getOverflowLimit() {
+        return Math.max(OVERFLOWLIMIT, mySecondaryLeafCount / SECONDARYOVERFLOWRATIO);
+    }
+
+    /**
+     * @return true if this index has been marked as not up to date.
+     * It will be up to date again after it has been rebuilt.
+     */
+    public boolean isStale() {
+        return (myFlags & FLAGSTALE) != 0;
+    }
+
+    /**
+     * Mark this index as not up to date. E.g. if it could not be
+     * updated after the indexed data has been changed.
+     * @throws IOException if we cannot write the header
+     */
+    public void setStale() throws IOException {
+        myFlags |= FLAGSTALE;
+        if (getRecordCount() == 0) {
+            growFile(1, 1);
+        }
+        writeHeader();
+    }
+
+    /**
+     * Read the header and calculate the location of
+     * all levels of the tree.
+     * @throws IOException if the file is no packed index
+     */
+    private void readHeader() throws IOException {
+        myLeafCount = 0;
+        mySecondaryLeafCount = 0;
+        myFanout = FANOUT;
+        myFlags = 0;
+        if (getRecordCount() > 0) {
+            ByteBuffer mem = getRecordForReading(0);
+            try {
+                int magic = mem.getInt();
+                if (magic != MAGIC) {
+                    throw new IOException("File " + getFileName().getAbsolutePath()
+                            + " is not a packed 2D-index");
+                }
+                myFanout = mem.getInt();
+                myFlags = mem.getInt();
+                mySecondaryLeafCount = mem.getInt();
+                myLeafCount = mem.getLong();
+            } finally {
+                releaseRecord(mem);
+            }
+        }
+        calculateLevels();
+        myFirstFreeRecordIndex = myOverflowStart;
+    }
+
+    /**
+     * Write the header into record 0.
+     * @throws IOException if we cannot write
+     */
+    private void writeHeader() throws IOException {
+        ByteBuffer mem = getRecordForReading(0);
+        int start = mem.position();
+        mem.putInt(MAGIC);
+        mem.putInt(myFanout);
+        mem.putInt(myFlags);
+        mem.putInt((int) mySecondaryLeafCount);
+        mem.putLong(myLeafCount);
+        mem.position(start);
+        writeRecord(mem, 0);
+    }
+
+    /**
+     * Calculate {@link #myTree}, {@link #mySecondaryTree}
+     * and {@link #myOverflowStart} from {@link #myLeafCount}
+     * and {@link #mySecondaryLeafCount}.
+     */
+    private void calculateLevels() {
+        myTree = new PackedTree(1, myLeafCount, myFanout);
+        mySecondaryTree = new PackedTree(myTree.getEnd(), mySecondaryLeafCount, myFanout);
+        myOverflowStart = mySecondaryTree.getEnd();
+    }
+
+    /**
+     * The location of the levels of a packed tree in this file.
+     * Level 0 are the leafs, the last level is the root.
+     */
+    private static final class PackedTree {
+
+        /**
+         * The first record of the leafs.
+         */
+        private final long myStart;
+
+        /**
+         * The first record of each level.
+         */
+        private final long[] myLevelStart;
+
+        /**
+         * The number of entries in each level.
+         * @see #myLevelStart
+         */
+        private final long[] myLevelSize;
+
+        /**
+         * The first record after the root.
+         */
+        private final long myEnd;
+
+        /**
+         * @param aStart the first record of the leafs
+         * @param aLeafCount the number of leafs
+         * @param aFanout the number of children of an inner tree-node
+         */
+        private PackedTree(final long aStart, final long aLeafCount, final int aFanout) {
+            List<long[]> levels = new ArrayList<long[]>();
+            long start = aStart;
+            long size = aLeafCount;
+            while (size > 0) {
+                levels.add(new long[] {start, size});
+                start += size;
+                if (size == 1) {
+                    break;
+                }
+                size = (size + aFanout - 1) / aFanout;
+            }
+            this.myStart = aStart;
+            this.myLevelStart = new long[levels.size()];
+            this.myLevelSize = new long[levels.size()];
+            for (int i = 0; i < levels.size(); i++) {
+                this.myLevelStart[i] = levels.get(i)[0];
+                this.myLevelSize[i] = levels.get(i)[1];
+            }
+            this.myEnd = start;
+        }
+
+        /**
+         * @return the first record of the leafs
+         */
+        public long getStart() {
+            return myStart;
+        }
+
+        /**
+         * @return the first record after the root
+         */
+        public long getEnd() {
+            return myEnd;
+        }
+
+        /**
+         * @return the number of levels (0 for an empty tree)
+         */
+        public int getLevelCount() {
+            return myLevelStart.length;
+        }
+
+        /**
+         * @param aLevel 0 for the leafs
+         * @return the first record of the level
+         */
+        public long getLevelStart(final int aLevel) {
+            return myLevelStart[aLevel];
+        }
+
+        /**
+         * @param aLevel 0 for the leafs
+         * @return the number of entries in the level
+         */
+        public long getLevelSize(final int aLevel) {
+            return myLevelSize[aLevel];
+        }
+    }
+
+    /**
+     * Add the given entity-ID to record-number -mapping to this index.
+     * Entries are added to the overflow-area.
+     * @param aNodeRecordIndex the record-number in nodex.obm of the node
+     * @param aLatitude the latitude to index by encoded as a long integer
+     * @param aLongitude the longitude to index by encoded as a long integer
+     * @throws IOException if we cannot grow the file
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public void put(final long aNodeRecordIndex, final long aLatitude, final long aLongitude) throws IOException {
+        put(aNodeRecordIndex, aLatitude, aLongitude, aLatitude, aLongitude);
+    }
+
+    /**
+     * Add the given bounding-box to this index.
+     * Entries are added to the overflow-area.
+     * @param aValue the record-number or ID to store
+     * @param aMinLatitude the minimum latitude encoded as a long integer
+     * @param aMinLongitude the minimum longitude encoded as a long integer
+     * @param aMaxLatitude the maximum latitude encoded as a long integer
+     * @param aMaxLongitude the maximum longitude encoded as a long integer
+     * @throws IOException if we cannot grow the file
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public void put(final long aValue, final long aMinLatitude, final long aMinLongitude,
+                    final long aMaxLatitude, final long aMaxLongitude) throws IOException {
+        if (getRecordCount() == 0) {
+            // create the header of an empty tree
+            growFile(1, 1);
+            writeHeader();
+        }
+        long record = findFreeRecord();
+        ByteBuffer mem = getRecordForReading(record);
+        int start = mem.position();
+        mem.putInt((int) aMinLatitude);
+        mem.putInt((int) aMinLongitude);
+        mem.putInt((int) aMaxLatitude);
+        mem.putInt((int) aMaxLongitude);
+        mem.putLong(aValue);
+        mem.position(start);
+        writeRecord(mem, record);
+    }
+
+    /**
+     * Find a free record in the overflow-area
+     * and grow the file if there is none.
+     * A full overflow-area is packed first.
+     * @return the index of the free record
+     * @throws IOException if we cannot grow the file
+     */
+    private long findFreeRecord() throws IOException {
+        long recordCount = getRecordCount();
+        for (long i = Math.max(myFirstFreeRecordIndex, myOverflowStart); i < recordCount; i++) {
+            if (readValue(i) == Long.MIN_VALUE) {
+                myFirstFreeRecordIndex = i;
+                return i;
+            }
+        }
+        if (recordCount - myOverflowStart >= getOverflowLimit()) {
+            pack();
+            recordCount = getRecordCount();
+        }
+        growFile(GROWEXCESSRECORDS, 1);
+        long newRecordCount = getRecordCount();
+        for (long i = recordCount; i < newRecordCount; i++) {
+            invalidateRecord(i);
+        }
+        myFirstFreeRecordIndex = recordCount;
+        return recordCount;
+    }
+
+    /**
+     * Declare the record with the given index free for reuse.
+     * @param anIndex the index to overwrite.
+     * @throws IOException if we cannot write the record
+     */
+    private void invalidateRecord(final long anIndex) throws IOException {
+        ByteBuffer mem = getRecordForReading(anIndex);
+        int start = mem.position();
+        mem.position(start + VALUEOFFSET);
+        mem.putLong(Long.MIN_VALUE);
+        mem.position(start);
+        writeRecord(mem, anIndex, false);
+    }
+
+    /**
+     * Pack the overflow-area into the secondary tree, dropping removed entries.
+     * If the secondary tree has grown too large compared to the tree,
+     * everything is packed into a new tree instead.
+     * {@link Cursor}s in progress cannot continue afterwards.
+     * @throws IOException if we cannot read or write
+     */
+    private void pack() throws IOException {
+        myPackCount++;
+        long overflowCount = getOverflowCount();
+        boolean packAll = (mySecondaryLeafCount + overflowCount + myRemovedCount) * MAINTREERATIO > myLeafCount
+                          || mySecondaryLeafCount + overflowCount > Integer.MAX_VALUE;
+        File file = getFileName().getAbsoluteFile();
+        LongTupleSorter sorter = new LongTupleSorter(file.getParentFile(), file.getName() + ".pack",
+                TUPLESIZE, PACKTUPLESINMEMORY);
+        try {
+            long[] tuple = new long[TUPLESIZE];
+            if (packAll) {
+                addLeafs(sorter, tuple, myTree.getStart(), myLeafCount);
+            }
+            addLeafs(sorter, tuple, mySecondaryTree.getStart(), mySecondaryLeafCount);
+            addLeafs(sorter, tuple, myOverflowStart, overflowCount);
+            LongTupleSorter.Reader leafs = sorter.sort();
+            // if we do not get to write the header again the index has to be rebuilt
+            int flags = myFlags;
+            setStale();
+            try {
+                if (packAll) {
+                    truncate(myTree.getStart());
+                    myLeafCount = appendTree(leafs);
+                    mySecondaryLeafCount = 0;
+                    myRemovedCount = 0;
+                } else {
+                    truncate(mySecondaryTree.getStart());
+                    mySecondaryLeafCount = appendTree(leafs);
+                }
+            } finally {
+                leafs.close();
+            }
+            myFlags = flags;
+        } finally {
+            sorter.close();
+        }
+        calculateLevels();
+        writeHeader();
+        myFirstFreeRecordIndex = myOverflowStart;
+        myPackCount++;
+        LOG.fine("Packed 2D-index " + getFileName().getName() + " has "
+                + myLeafCount + " leafs and " + mySecondaryLeafCount + " in the secondary tree");
+    }
+
+    /**
+     * Add the entries in use of a range of leafs or overflow-records
+     * to a sorter.
+     * @param aSorter where to add the entries as (hilbert-value, value, minLat, minLon, maxLat, maxLon)
+     * @param aTuple reused for every entry
+     * @param aStart the first record
+     * @param aCount the number of records
+     * @throws IOException if we cannot read or write
+     */
+    private void addLeafs(final LongTupleSorter aSorter, final long[] aTuple,
+                          final long aStart, final long aCount) throws IOException {
+        for (long record = aStart; record < aStart + aCount; record++) {
+            ByteBuffer mem = getRecordForReading(record);
+            try {
+                long minLat = mem.getInt();
+                long minLon = mem.getInt();
+                long maxLat = mem.getInt();
+                long maxLon = mem.getInt();
+                long value = mem.getLong();
+                if (value != Long.MIN_VALUE) {
+                    setTuple(aTuple, value, minLat, minLon, maxLat, maxLon);
+                    aSorter.add(aTuple);
+                }
+            } finally {
+                releaseRecord(mem);
+            }
+        }
+    }
+
+    /**
+     * @param aRecordNumber the record to read
+     * @return the node-record-number (or first child) stored in it
+     * @throws IOException if we cannot read
+     */
+    private long readValue(final long aRecordNumber) throws IOException {
+        ByteBuffer mem = getRecordForReading(aRecordNumber);
+        try {
+            mem.position(mem.position() + VALUEOFFSET);
+            return mem.getLong();
+        } finally {
+            releaseRecord(mem);
+        }
+    }
+
+    /**
+     * Remove the given entity from this index.
+     * @param aNodeRecordIndex the record-number in nodex.obm of the node
+     * @param aLatitude the latitude to index by encoded as a long integer
+     * @param aLongitude the longitude to index by encoded as a long integer
+     * @throws IOException if we cannot write or seek in the file.
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public void remove(final long aNodeRecordIndex, final long aLatitude, final long aLongitude) throws IOException {
+        remove(aNodeRecordIndex, aLatitude, aLongitude, aLatitude, aLongitude);
+    }
+
+    /**
+     * Remove the given bounding-box from this index.
+     * @param aValue the record-number or ID stored
+     * @param aMinLatitude the minimum latitude encoded as a long integer
+     * @param aMinLongitude the minimum longitude encoded as a long integer
+     * @param aMaxLatitude the maximum latitude encoded as a long integer
+     * @param aMaxLongitude the maximum longitude encoded as a long integer
+     * @throws IOException if we cannot write or seek in the file.
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public void remove(final long aValue, final long aMinLatitude, final long aMinLongitude,
+                       final long aMaxLatitude, final long aMaxLongitude) throws IOException {
+        Cursor cursor = query(aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude);
+        for (long value = cursor.next(); value != Long.MIN_VALUE; value = cursor.next()) {
+            if (value == aValue) {
+                long found = cursor.getEntryRecord();
+                invalidateRecord(found);
+                if (found < myTree.getEnd()) {
+                    myRemovedCount++;
+                }
+                if (found >= myOverflowStart && found < myFirstFreeRecordIndex) {
+                    myFirstFreeRecordIndex = found;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Look up a record-number in this index.
+     * @param aMinLatitude the minimum (inclusive) latitude to index by encoded as a long integer
+     * @param aMinLongitude the minimum (inclusive) longitude to index by encoded as a long integer
+     * @param aMaxLatitude the maximum (inclusive) latitude to index by encoded as a long integer
+     * @param aMaxLongitude the maximum (inclusive) longitude to index by encoded as a long integer
+     * @return the record-numbers in nodes.obm where the entities with these coordinates are stored or an empty set
+     * @throws IOException if we cannot read from the file
+     * @see FixedPrecisionCoordinateConvertor
+     * @see NodesFile
+     */
+    public Set<Long> get(final long aMinLatitude, final long aMinLongitude, final long aMaxLatitude, final long aMaxLongitude) throws IOException {
+        final Set<Long> retval = new HashSet<Long>();
+        visit(aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude, new IRecordNumberVisitor() {
+            public boolean visit(final long aRecordNumber) {
+                retval.add(aRecordNumber);
+                return true;
+            }
+        });
+        LOG.log(Level.FINER, "PackedGeoIndex returning " + retval.size() + " elements for bounding-box");
+        return retval;
+    }
+
+    /**
+     * Look up record-numbers in this index without collecting them.
+     * @param aMinLatitude the minimum (inclusive) latitude to index by encoded as a long integer
+     * @param aMinLongitude the minimum (inclusive) longitude to index by encoded as a long integer
+     * @param aMaxLatitude the maximum (inclusive) latitude to index by encoded as a long integer
+     * @param aMaxLongitude the maximum (inclusive) longitude to index by encoded as a long integer
+     * @param aVisitor called with every record-number in nodes.obm where an entity with these coordinates is stored
+     * @throws IOException if we cannot read from the file
+     * @see FixedPrecisionCoordinateConvertor
+     * @see NodesFile
+     */
+    public void visit(final long aMinLatitude, final long aMinLongitude, final long aMaxLatitude, final long aMaxLongitude,
+                      final IRecordNumberVisitor aVisitor) throws IOException {
+        Cursor cursor = query(aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude);
+        for (long value = cursor.next(); value != Long.MIN_VALUE; value = cursor.next()) {
+            if (!aVisitor.visit(value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start a lookup that returns the values found one by one.
+     * Nothing is read before {@link Cursor#next()} is called,
+     * so the caller can process each value right away and stop early.
+     * @param aMinLatitude the minimum (inclusive) latitude to index by encoded as a long integer
+     * @param aMinLongitude the minimum (inclusive) longitude to index by encoded as a long integer
+     * @param aMaxLatitude the maximum (inclusive) latitude to index by encoded as a long integer
+     * @param aMaxLongitude the maximum (inclusive) longitude to index by encoded as a long integer
+     * @return the cursor over the values found
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public Cursor query(final long aMinLatitude, final long aMinLongitude, final long aMaxLatitude, final long aMaxLongitude) {
+        return new Cursor(aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude);
+    }
+
+    /**
+     * A lookup in progress. The packed tree and the secondary tree
+     * are walked depth-first with one position per level instead
+     * of recursion, then the overflow-area is scanned.
+     * The index must not be changed while a lookup is in progress.
+     * @see PackedGeoIndexFile#query(long, long, long, long)
+     */
+    public final class Cursor {
+
+        /**
+         * The minimum (inclusive) latitude.
+         */
+        private final long myMinLatitude;
+
+        /**
+         * The minimum (inclusive) longitude.
+         */
+        private final long myMinLongitude;
+
+        /**
+         * The maximum (inclusive) latitude.
+         */
+        private final long myMaxLatitude;
+
+        /**
+         * The maximum (inclusive) longitude.
+         */
+        private final long myMaxLongitude;
+
+        /**
+         * The trees to walk.
+         */
+        private final PackedTree[] myTrees = new PackedTree[] {myTree, mySecondaryTree};
+
+        /**
+         * The tree we are walking. myTrees.length once all trees are done.
+         */
+        private int myTreeIndex = -1;
+
+        /**
+         * {@link PackedGeoIndexFile#myPackCount} when this lookup started.
+         */
+        private final int myStartPackCount = myPackCount;
+
+        /**
+         * For each level the index of the next entry to look at.
+         */
+        private final long[] myNextEntry;
+
+        /**
+         * For each level the end of the entries below the current
+         * tree-node of the level above.
+         */
+        private final long[] myEndEntry;
+
+        /**
+         * The level we are walking. The number of levels of
+         * the tree once the tree is done.
+         */
+        private int myLevel;
+
+        /**
+         * The next record to look at in the overflow-area.
+         */
+        private long myNextOverflowRecord;
+
+        /**
+         * The record in this file of the last entry returned.
+         */
+        private long myEntryRecord = -1;
+
+        /**
+         * @param aMinLatitude the minimum (inclusive) latitude
+         * @param aMinLongitude the minimum (inclusive) longitude
+         * @param aMaxLatitude the maximum (inclusive) latitude
+         * @param aMaxLongitude the maximum (inclusive) longitude
+         */
+        private Cursor(final long aMinLatitude, final long aMinLongitude, final long aMaxLatitude, final long aMaxLongitude) {
+            this.myMinLatitude = aMinLatitude;
+            this.myMinLongitude = aMinLongitude;
+            this.myMaxLatitude = aMaxLatitude;
+            this.myMaxLongitude = aMaxLongitude;
+            int levels = 0;
+            for (PackedTree tree : myTrees) {
+                levels = Math.max(levels, tree.getLevelCount());
+            }
+            this.myNextEntry = new long[levels];
+            this.myEndEntry = new long[levels];
+            startNextTree();
+            this.myNextOverflowRecord = myOverflowStart;
+        }
+
+        /**
+         * Start walking the next tree at it's root.
+         */
+        private void startNextTree() {
+            myTreeIndex++;
+            myLevel = 0;
+            if (myTreeIndex < myTrees.length) {
+                int levels = myTrees[myTreeIndex].getLevelCount();
+                if (levels > 0) {
+                    myLevel = levels - 1;
+                    myNextEntry[myLevel] = 0;
+                    myEndEntry[myLevel] = 1;
+                }
+            }
+        }
+
+        /**
+         * @return the next record-number (or ID) found or {@link Long#MIN_VALUE} if there are no more
+         * @throws IOException if we cannot read from the file
+         * @throws ConcurrentModificationException if the index has been packed
+         *         since this lookup started. Start a new one then.
+         */
+        public long next() throws IOException {
+            checkNotPacked();
+            long value;
+            try {
+                value = findNext();
+            } catch (RuntimeException e) {
+                // e.g. a record beyond the end of a file packed while we read it
+                checkNotPacked();
+                throw e;
+            }
+            // the value may have been read while the index was packed
+            checkNotPacked();
+            return value;
+        }
+
+        /**
+         * @throws ConcurrentModificationException if the index has been packed since this lookup started
+         */
+        private void checkNotPacked() {
+            if (myStartPackCount != myPackCount) {
+                throw new ConcurrentModificationException("the packed 2D-index "
+                        + getFileName().getName() + " has been packed during the lookup");
+            }
+        }
+
+        /**
+         * @return the next record-number (or ID) found or {@link Long#MIN_VALUE} if there are no more
+         * @throws IOException if we cannot read from the file
+         */
+        private long findNext() throws IOException {
+            while (myTreeIndex < myTrees.length) {
+                PackedTree tree = myTrees[myTreeIndex];
+                if (myLevel >= tree.getLevelCount()) {
+                    startNextTree();
+                    continue;
+                }
+                if (myNextEntry[myLevel] >= myEndEntry[myLevel]) {
+                    // all children done, go up
+                    myLevel++;
+                    continue;
+                }
+                long index = myNextEntry[myLevel]++;
+                long record = tree.getLevelStart(myLevel) + index;
+                long value = readIfInside(record);
+                if (value == Long.MIN_VALUE) {
+                    continue;
+                }
+                if (myLevel == 0) {
+                    myEntryRecord = record;
+                    return value;
+                }
+                // go down to the children of this tree-node
+                myLevel--;
+                myNextEntry[myLevel] = index * myFanout;
+                myEndEntry[myLevel] = Math.min(myNextEntry[myLevel] + myFanout, tree.getLevelSize(myLevel));
+            }
+            long recordCount = getRecordCount();
+            while (myNextOverflowRecord < recordCount) {
+                long record = myNextOverflowRecord++;
+                long value = readIfInside(record);
+                if (value != Long.MIN_VALUE) {
+                    myEntryRecord = record;
+                    return value;
+                }
+            }
+            return Long.MIN_VALUE;
+        }
+
+        /**
+         * @return the record in this file of the entry last returned by {@link #next()}
+         */
+        private long getEntryRecord() {
+            return myEntryRecord;
+        }
+
+        /**
+         * @param aRecord a leaf, tree-node or overflow-record
+         * @return the value stored in it or {@link Long#MIN_VALUE} if it
+         *         is not in use or outside of the bounds we look for
+         * @throws IOException if we cannot read from the file
+         */
+        private long readIfInside(final long aRecord) throws IOException {
+            ByteBuffer mem = getRecordForReading(aRecord);
+            try {
+                int minLat = mem.getInt();
+                int minLon = mem.getInt();
+                int maxLat = mem.getInt();
+                int maxLon = mem.getInt();
+                if (maxLat < myMinLatitude || minLat > myMaxLatitude
+                    || maxLon < myMinLongitude || minLon > myMaxLongitude) {
+                    return Long.MIN_VALUE;
+                }
+                return mem.getLong();
+            } finally {
+                releaseRecord(mem);
+            }
+        }
+    }
+
+    /**
+     * Write the packed tree into this empty file.
+     * @param aLeafs the leafs as (hilbert-value, node-record-number, minLat, minLon, maxLat, maxLon) in hilbert-order
+     * @throws IOException if we cannot read or write
+     */
+    private void bulkLoad(final LongTupleSorter.Reader aLeafs) throws IOException {
+        // the header is written again when the number of leafs is known
+        ByteBuffer entry = ByteBuffer.allocate(getRecordLength());
+        entry.putInt(MAGIC);
+        entry.putInt(myFanout);
+        entry.putInt(0);
+        entry.putInt(0);
+        entry.putLong(0);
+        entry.flip();
+        appendRecords(entry);
+        myLeafCount = appendTree(aLeafs);
+        mySecondaryLeafCount = 0;
+        calculateLevels();
+        writeHeader();
+        myFirstFreeRecordIndex = myOverflowStart;
+        LOG.info("Packed 2D-index " + getFileName().getName() + " built with "
+                + myLeafCount + " leafs in " + myTree.getLevelCount() + " levels");
+    }
+
+    /**
+     * Write a packed tree at the end of this file.
+     * @param aLeafs the leafs as (hilbert-value, node-record-number, minLat, minLon, maxLat, maxLon) in hilbert-order
+     * @return the number of leafs written
+     * @throws IOException if we cannot read or write
+     */
+    private long appendTree(final LongTupleSorter.Reader aLeafs) throws IOException {
+        flushAppendedRecords();
+        long start = getRecordCount();
+        ByteBuffer entry = ByteBuffer.allocate(getRecordLength());
+
+        // the leafs
+        long count = 0;
+        long[] tuple = new long[TUPLESIZE];
+        while (aLeafs.next(tuple)) {
+            entry.clear();
+            for (int i = TUPLEMINLAT; i < TUPLESIZE; i++) {
+                entry.putInt((int) tuple[i]);
+            }
+            entry.putLong(tuple[1]);
+            entry.flip();
+            appendRecords(entry);
+            count++;
+        }
+        flushAppendedRecords();
+        PackedTree tree = new PackedTree(start, count, myFanout);
+
+        // the inner tree-nodes, level by level
+        for (int level = 1; level < tree.getLevelCount(); level++) {
+            for (long i = 0; i < tree.getLevelSize(level); i++) {
+                long firstChild = i * myFanout;
+                long endChild = Math.min(firstChild + myFanout, tree.getLevelSize(level - 1));
+                int minLat = Integer.MAX_VALUE;
+                int minLon = Integer.MAX_VALUE;
+                int maxLat = Integer.MIN_VALUE;
+                int maxLon = Integer.MIN_VALUE;
+                for (long child = firstChild; child < endChild; child++) {
+                    ByteBuffer mem = getRecordForReading(tree.getLevelStart(level - 1) + child);
+                    try {
+                        minLat = Math.min(minLat, mem.getInt());
+                        minLon = Math.min(minLon, mem.getInt());
+                        maxLat = Math.max(maxLat, mem.getInt());
+                        maxLon = Math.max(maxLon, mem.getInt());
+                    } finally {
+                        releaseRecord(mem);
+                    }
+                }
+                entry.clear();
+                entry.putInt(minLat);
+                entry.putInt(minLon);
+                entry.putInt(maxLat);
+                entry.putInt(maxLon);
+                entry.putLong(tree.getLevelStart(level - 1) + firstChild);
+                entry.flip();
+                appendRecords(entry);
+            }
+            flushAppendedRecords();
+        }
+        return count;
+    }
+
+    /**
+     * Fill a tuple to sort an entry by the Hilbert-value of it's center.
+     * @param aTuple the tuple to fill (hilbert-value, value, minLat, minLon, maxLat, maxLon)
+     * @param aValue the record-number or ID to store
+     * @param aMinLatitude the minimum latitude encoded as a long integer
+     * @param aMinLongitude the minimum longitude encoded as a long integer
+     * @param aMaxLatitude the maximum latitude encoded as a long integer
+     * @param aMaxLongitude the maximum longitude encoded as a long integer
+     */
+    private static void setTuple(final long[] aTuple, final long aValue, final long aMinLatitude, final long aMinLongitude,
+                                 final long aMaxLatitude, final long aMaxLongitude) {
+        int i = 0;
+        aTuple[i++] = getHilbertValue((aMinLatitude + aMaxLatitude) / 2, (aMinLongitude + aMaxLongitude) / 2);
+        aTuple[i++] = aValue;
+        aTuple[i++] = aMinLatitude;
+        aTuple[i++] = aMinLongitude;
+        aTuple[i++] = aMaxLatitude;
+        aTuple[i++] = aMaxLongitude;
+    }
+
+    /**
+     * Calculate the position of a coordinate on a Hilbert-curve.
+     * Sorting by this value keeps nodes that are close to each other
+     * close together.
+     * @param aLatitude the latitude encoded as an integer
+     * @param aLongitude the longitude encoded as an integer
+     * @return the distance along the curve (a positive number)
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public static long getHilbertValue(final long aLatitude, final long aLongitude) {
+        final int bits = 31;
+        final long side = 1L << bits;
+        // map the signed integers to 0..2^31-1
+        long x = (aLongitude - Integer.MIN_VALUE) >>> 1;
+        long y = (aLatitude - Integer.MIN_VALUE) >>> 1;
+        long d = 0;
+        for (long s = side >>> 1; s > 0; s >>>= 1) {
+            long rx = 0;
+            if ((x & s) != 0) {
+                rx = 1;
+            }
+            long ry = 0;
+            if ((y & s) != 0) {
+                ry = 1;
+            }
+            d += s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = side - 1 - x;
+                    y = side - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Collects the nodes and builds a {@link PackedGeoIndexFile}.
+     * The nodes are sorted by an external merge-sort, so there
+     * is no need to keep them in memory.
+     */
+    public static class Builder {
+
+        /**
+         * The file to build.
+         */
+        private final File myFileName;
+
+        /**
+         * Sorts the nodes in hilbert-order.
+         */
+        private final LongTupleSorter mySorter;
+
+        /**
+         * Reused for every node added.
+         */
+        private final long[] myTuple = new long[TUPLESIZE];
+
+        /**
+         * @param aFileName the *.pid2 -file to create. An existing file is replaced.
+         * @param aTempDirectory where to store temporary files while sorting
+         * @param aMaxTuplesInMemory the number of nodes to sort in memory
+         */
+        public Builder(final File aFileName, final File aTempDirectory, final int aMaxTuplesInMemory) {
+            this.myFileName = aFileName;
+            this.mySorter = new LongTupleSorter(aTempDirectory, aFileName.getName(), myTuple.length, aMaxTuplesInMemory);
+        }
+
+        /**
+         * Add a node to the index to build.
+         * @param aNodeRecordIndex the record-number in nodex.obm of the node
+         * @param aLatitude the latitude to index by encoded as a long integer
+         * @param aLongitude the longitude to index by encoded as a long integer
+         * @throws IOException if we cannot write a temporary file
+         */
+        public void add(final long aNodeRecordIndex, final long aLatitude, final long aLongitude) throws IOException {
+            add(aNodeRecordIndex, aLatitude, aLongitude, aLatitude, aLongitude);
+        }
+
+        /**
+         * Add a bounding-box to the index to build.
+         * It is sorted by it's center.
+         * @param aValue the record-number or ID to store
+         * @param aMinLatitude the minimum latitude encoded as a long integer
+         * @param aMinLongitude the minimum longitude encoded as a long integer
+         * @param aMaxLatitude the maximum latitude encoded as a long integer
+         * @param aMaxLongitude the maximum longitude encoded as a long integer
+         * @throws IOException if we cannot write a temporary file
+         */
+        public void add(final long aValue, final long aMinLatitude, final long aMinLongitude,
+                        final long aMaxLatitude, final long aMaxLongitude) throws IOException {
+            setTuple(myTuple, aValue, aMinLatitude, aMinLongitude, aMaxLatitude, aMaxLongitude);
+            mySorter.add(myTuple);
+        }
+
+        /**
+         * Sort all nodes added and write the file.
+         * @return the new index, opened for reading and writing
+         * @throws IOException if we cannot write the file
+         */
+        public PackedGeoIndexFile build() throws IOException {
+            if (myFileName.exists() && !myFileName.delete()) {
+                throw new IOException("Cannot delete " + myFileName.getAbsolutePath());
+            }
+            PackedGeoIndexFile index = new PackedGeoIndexFile(myFileName);
+            LongTupleSorter.Reader leafs = mySorter.sort();
+            try {
+                index.bulkLoad(leafs);
+            } finally {
+                leafs.close();
+                mySorter.close();
+            }
+            return index;
+        }
+
+        /**
+         * Release all temporary files.
+         */
+        public void close() {
+            mySorter.close();
+        }
+    }
+}
@@ -0,0 +1,656 @@
+/**
+ * TagIndexFile.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.logging.Logger;
+
+/**
+ * Project: libosm<br/>
+ * TagIndexFile.java<br/>
+ *<br/><br/>
+ * <b>This is the nodes.tix and ways.tix -file. An inverted index from tags
+ * to the IDs of the entities that have them.</b><br/>
+ * Every tag is indexed by 2 terms: one for the key and the value and one
+ * for the key alone (see {@link #getTerm(short, String)}).
+ * Different values may have the same term, thus the caller has to check
+ * the tags of the entities found.<br/>
+ * Layout (all records are {@link #getRecordLength()} bytes):
+ * <ul>
+ *  <li>record 0: the header (magic number, flags, the number of records and terms used)</li>
+ *  <li>blocks of postings: the next block of the same term, the number of IDs
+ *      and up to {@link #IDSPERBLOCK} IDs</li>
+ * </ul>
+ * The *.tix.terms -file is a hash-table of (term, first block)
+ * that doubles in size whenever it is half full.<br/>
+ * The {@link Builder} writes the postings of each term into consecutive
+ * blocks in ascending order. IDs added later go into the first block of
+ * their term. IDs are never removed, so the IDs found may include
+ * entities that no longer have the tag or no longer exist and the
+ * same ID may be found twice. Running the
+ * {@link org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10Reindexer}
+ * builds the index again.
+ */
+public class TagIndexFile extends FixedRecordFile {
+
+    /**
+     * Automatically created logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(TagIndexFile.class
+            .getName());
+
+    /**
+     * The first int in the header.
+     */
+    private static final int MAGIC = 0x54495846;
+
+    /**
+     * Flag in the header. The index is not up to date.
+     * @see #isStale()
+     */
+    private static final int FLAGSTALE = 1;
+
+    /**
+     * The number of IDs in a block of postings.
+     */
+    public static final int IDSPERBLOCK = 14;
+
+    /**
+     * The size of a long in bytes.
+     */
+    private static final int BYTESPERLONG = 8;
+
+    /**
+     * The offset of the flags in the header (after the magic number).
+     */
+    private static final int FLAGSOFFSET = 4;
+
+    /**
+     * The offset of the number of records used in the header.
+     */
+    private static final int USEDOFFSET = 8;
+
+    /**
+     * The offset of the number of terms in the header.
+     */
+    private static final int TERMCOUNTOFFSET = 16;
+
+    /**
+     * The offset of the number of IDs in a block (after the next block).
+     */
+    private static final int COUNTOFFSET = 8;
+
+    /**
+     * The offset of the first ID in a block (after the next block, the count and an unused int).
+     */
+    private static final int IDSOFFSET = 16;
+
+    /**
+     * If we need to grow the file, create this may spare blocks.
+     */
+    private static final int GROWBLOCKS = 1024;
+
+    /**
+     * The initial size of the hash-table of terms.
+     * (Must be a power of two.)
+     */
+    private static final int INITIALTERMCAPACITY = 1024;
+
+    /**
+     * Appended to the name of this file for the hash-table of terms.
+     */
+    private static final String TERMSSUFFIX = ".terms";
+
+    /**
+     * The bits of the term that hold the key.
+     * @see #getTerm(short, String)
+     */
+    private static final int KEYSHIFT = 33;
+
+    /**
+     * The bit of the term that marks a term for the key alone.
+     * @see #getTerm(short, String)
+     */
+    private static final long KEYONLY = 1L << 32;
+
+    /**
+     * The hash-table of terms to their first block.
+     */
+    private TermTable myTerms;
+
+    /**
+     * The flags in the header.
+     * @see #FLAGSTALE
+     */
+    private int myFlags;
+
+    /**
+     * The number of records used, including the header.
+     * The next block is created here.
+     */
+    private long myUsedRecords = 1;
+
+    /**
+     * The number of terms in {@link #myTerms}.
+     */
+    private long myTermCount;
+
+    /**
+     * @param aFileName the filename of the *.tix -file
+     * @param aReadOnly open the file read-only. A missing file is treated as empty.
+     * @throws IOException if we cannot open or create the file.
+     */
+    public TagIndexFile(final File aFileName, final boolean aReadOnly) throws IOException {
+        super(aFileName, true, aReadOnly);
+        myTerms = new TermTable(getTermsFile(aFileName), aReadOnly);
+        readHeader();
+    }
+
+    /**
+     * Just an overridden ToString to return this classe's name
+     * and hashCode.
+     * @return className and hashCode
+     */
+    public String toString() {
+        return "TagIndexFile" + hashCode();
+    }
+
+    /**
+     * ${@inheritDoc}.
+     */
+    @Override
+    public int getRecordLength() {
+        return IDSOFFSET + IDSPERBLOCK * BYTESPERLONG;
+    }
+
+    /**
+     * @param aFileName the *.tix -file
+     * @return the file with the hash-table of terms that belongs to it
+     */
+    public static File getTermsFile(final File aFileName) {
+        return new File(aFileName.getParentFile(), aFileName.getName() + TERMSSUFFIX);
+    }
+
+    /**
+     * Delete a closed index.
+     * @param aFileName the *.tix -file
+     */
+    public static void delete(final File aFileName) {
+        aFileName.delete();
+        getTermsFile(aFileName).delete();
+    }
+
+    /**
+     * Rename a closed index. An existing index of the new name is replaced.
+     * @param aFileName the *.tix -file
+     * @param aNewFileName the new name of the *.tix -file
+     * @return true if both files could be renamed
+     */
+    public static boolean rename(final File aFileName, final File aNewFileName) {
+        delete(aNewFileName);
+        return aFileName.renameTo(aNewFileName)
+            && getTermsFile(aFileName).renameTo(getTermsFile(aNewFileName));
+    }
+
+    /**
+     * The term of a tag is the key from {@link AttrNames}, a bit that is
+     * set for the key alone and the {@link String#hashCode()} of the value.
+     * @param aKey the key of the tag as given by {@link AttrNames#getKey(String)}
+     * @param aValue the value of the tag or null for the key alone
+     * @return the term to look up
+     */
+    public static long getTerm(final short aKey, final String aValue) {
+        final long keyMask = 0xFFFF;
+        final long hashMask = 0xFFFFFFFFL;
+        long term = (aKey & keyMask) << KEYSHIFT;
+        if (aValue == null) {
+            return term | KEYONLY;
+        }
+        return term | (aValue.hashCode() & hashMask);
+    }
+
+    /**
+     * @return the number of terms in this index
+     */
+    public long getTermCount() {
+        return myTermCount;
+    }
+
+    /**
+     * @return true if this index has been marked as not up to date.
+     * It will be up to date again after it has been rebuilt.
+     */
+    public boolean isStale() {
+        return (myFlags & FLAGSTALE) != 0;
+    }
+
+    /**
+     * Mark this index as not up to date. E.g. if it could not be
+     * updated after the indexed data has been changed.
+     * @throws IOException if we cannot write the header
+     */
+    public void setStale() throws IOException {
+        myFlags |= FLAGSTALE;
+        writeHeader();
+    }
+
+    /**
+     * Read the header.
+     * @throws IOException if the file is no tag-index
+     */
+    private void readHeader() throws IOException {
+        myFlags = 0;
+        myUsedRecords = 1;
+        myTermCount = 0;
+        if (getRecordCount() > 0) {
+            ByteBuffer mem = getRecordForReading(0);
+            try {
+                int start = mem.position();
+                if (mem.getInt(start) != MAGIC) {
+                    throw new IOException("File " + getFileName().getAbsolutePath()
+                            + " is not a tag-index");
+                }
+                myFlags = mem.getInt(start + FLAGSOFFSET);
+                myUsedRecords = mem.getLong(start + USEDOFFSET);
+                myTermCount = mem.getLong(start + TERMCOUNTOFFSET);
+            } finally {
+                releaseRecord(mem);
+            }
+        }
+    }
+
+    /**
+     * Write the header into record 0.
+     * @throws IOException if we cannot write
+     */
+    private void writeHeader() throws IOException {
+        if (getRecordCount() == 0) {
+            growFile(GROWBLOCKS, 1);
+        }
+        ByteBuffer mem = getRecordForReading(0);
+        int start = mem.position();
+        mem.putInt(start, MAGIC);
+        mem.putInt(start + FLAGSOFFSET, myFlags);
+        mem.putLong(start + USEDOFFSET, myUsedRecords);
+        mem.putLong(start + TERMCOUNTOFFSET, myTermCount);
+        writeRecord(mem, 0);
+    }
+
+    /**
+     * Add the ID of an entity to the postings of a term.
+     * @param aTerm the term as given by {@link #getTerm(short, String)}
+     * @param anID the ID of the entity that has the tag
+     * @throws IOException if we cannot grow the file
+     */
+    public void put(final long aTerm, final long anID) throws IOException {
+        long head = myTerms.get(aTerm);
+        if (head != 0) {
+            ByteBuffer mem = getRecordForReading(head);
+            int start = mem.position();
+            int count = mem.getInt(start + COUNTOFFSET);
+            if (count < IDSPERBLOCK) {
+                mem.putLong(start + IDSOFFSET + count * BYTESPERLONG, anID);
+                mem.putInt(start + COUNTOFFSET, count + 1);
+                writeRecord(mem, head);
+                return;
+            }
+            releaseRecord(mem);
+        }
+
+        // the first block is full, start a new one in front of it
+        if (getRecordCount() == 0) {
+            writeHeader();
+        }
+        if (myUsedRecords >= getRecordCount()) {
+            growFile(GROWBLOCKS, 1);
+        }
+        long block = myUsedRecords++;
+        ByteBuffer mem = getRecordForReading(block);
+        int start = mem.position();
+        mem.putLong(start, head);
+        mem.putInt(start + COUNTOFFSET, 1);
+        mem.putLong(start + IDSOFFSET, anID);
+        writeRecord(mem, block);
+        setFirstBlock(aTerm, block, head == 0);
+        writeHeader();
+    }
+
+    /**
+     * Store the first block of a term in the hash-table of terms
+     * and grow it if it is half full.
+     * @param aTerm the term
+     * @param aBlock the first block of it's postings
+     * @param aNewTerm true if the term is not in the hash-table yet
+     * @throws IOException if we cannot write the hash-table
+     */
+    private void setFirstBlock(final long aTerm, final long aBlock, final boolean aNewTerm) throws IOException {
+        if (aNewTerm && 2 * (myTermCount + 1) > myTerms.getRecordCount()) {
+            long capacity = Math.max(INITIALTERMCAPACITY, 2 * myTerms.getRecordCount());
+            File termsFile = myTerms.getFileName();
+            File grownFile = new File(termsFile.getParentFile(), termsFile.getName() + ".grow");
+            grownFile.delete();
+            TermTable grown = new TermTable(grownFile, false);
+            grown.growFile(capacity, capacity);
+            for (long i = 0; i < myTerms.getRecordCount(); i++) {
+                ByteBuffer mem = myTerms.getRecordForReading(i);
+                try {
+                    long first = mem.getLong(mem.position() + BYTESPERLONG);
+                    if (first != 0) {
+                        grown.put(mem.getLong(mem.position()), first);
+                    }
+                } finally {
+                    myTerms.releaseRecord(mem);
+                }
+            }
+            myTerms.close();
+            grown.close();
+            if (!termsFile.delete() || !grownFile.renameTo(termsFile)) {
+                throw new IOException("Cannot replace " + termsFile.getAbsolutePath()
+                        + " by " + grownFile.getName());
+            }
+            myTerms = new TermTable(termsFile, false);
+            LOG.fine("hash-table of terms of " + getFileName().getName() + " grown to " + capacity);
+        }
+        myTerms.put(aTerm, aBlock);
+        if (aNewTerm) {
+            myTermCount++;
+        }
+    }
+
+    /**
+     * Visit the IDs of all entities that may have a tag.
+     * @param aTerm the term as given by {@link #getTerm(short, String)}
+     * @param aVisitor called with every ID found
+     * @throws IOException if we cannot read
+     */
+    public void visit(final long aTerm, final IRecordNumberVisitor aVisitor) throws IOException {
+        long block = myTerms.get(aTerm);
+        long[] ids = new long[IDSPERBLOCK];
+        while (block != 0) {
+            int count;
+            ByteBuffer mem = getRecordForReading(block);
+            try {
+                int start = mem.position();
+                block = mem.getLong(start);
+                count = mem.getInt(start + COUNTOFFSET);
+                for (int i = 0; i < count; i++) {
+                    ids[i] = mem.getLong(start + IDSOFFSET + i * BYTESPERLONG);
+                }
+            } finally {
+                releaseRecord(mem);
+            }
+            for (int i = 0; i < count; i++) {
+                if (!aVisitor.visit(ids[i])) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * ${@inheritDoc}.
+     */
+    @Override
+    public void close() throws IOException {
+        super.close();
+        myTerms.close();
+    }
+
+    /**
+     * Write the postings into this empty file.
+     * @param aPostings the postings as (term, ID) in ascending order
+     * @throws IOException if we cannot read or write
+     */
+    private void bulkLoad(final LongTupleSorter.Reader aPostings) throws IOException {
+        // the header is written again when the number of blocks is known
+        ByteBuffer block = ByteBuffer.allocate(getRecordLength());
+        appendRecords(block);
+        block.clear();
+
+        long blockNr = 1;
+        long term = 0;
+        int count = 0;
+        long[] tuple = new long[2];
+        while (aPostings.next(tuple)) {
+            if (count > 0 && (tuple[0] != term || count == IDSPERBLOCK)) {
+                // the next block of the same term follows this one
+                long next = 0;
+                if (tuple[0] == term) {
+                    next = blockNr + 1;
+                }
+                appendBlock(block, next, count);
+                blockNr++;
+                count = 0;
+            }
+            if (count == 0 && tuple[0] != term) {
+                term = tuple[0];
+                setFirstBlock(term, blockNr, true);
+            }
+            block.putLong(IDSOFFSET + count * BYTESPERLONG, tuple[1]);
+            count++;
+        }
+        if (count > 0) {
+            appendBlock(block, 0, count);
+            blockNr++;
+        }
+        flushAppendedRecords();
+        myUsedRecords = blockNr;
+        writeHeader();
+        LOG.info("Tag-index " + getFileName().getName() + " built with "
+                + myTermCount + " terms in " + (blockNr - 1) + " blocks");
+    }
+
+    /**
+     * Append a block of postings during {@link #bulkLoad(LongTupleSorter.Reader)}.
+     * @param aBlock the block with the IDs already filled in
+     * @param aNext the next block of the same term or 0
+     * @param aCount the number of IDs in the block
+     * @throws IOException if we cannot write
+     */
+    private void appendBlock(final ByteBuffer aBlock, final long aNext, final int aCount) throws IOException {
+        aBlock.putLong(0, aNext);
+        aBlock.putInt(COUNTOFFSET, aCount);
+        aBlock.position(0);
+        aBlock.limit(getRecordLength());
+        appendRecords(aBlock);
+        aBlock.clear();
+        for (int i = 0; i < getRecordLength(); i++) {
+            aBlock.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * The *.tix.terms -file. A hash-table with linear probing
+     * of (term, first block of postings). Free entries have the
+     * first block 0 (the header of the {@link TagIndexFile}).
+     * The number of records is the capacity, a power of two.
+     */
+    private static final class TermTable extends FixedRecordFile {
+
+        /**
+         * @param aFileName the filename of the *.tix.terms -file
+         * @param aReadOnly open the file read-only. A missing file is treated as empty.
+         * @throws IOException if we cannot open or create the file.
+         */
+        private TermTable(final File aFileName, final boolean aReadOnly) throws IOException {
+            super(aFileName, true, aReadOnly);
+        }
+
+        /**
+         * ${@inheritDoc}.
+         */
+        @Override
+        public int getRecordLength() {
+            return 2 * BYTESPERLONG;
+        }
+
+        /**
+         * @param aTerm a term
+         * @return the entry to start looking for it
+         */
+        private long getBucket(final long aTerm) {
+            // Fibonacci-hashing. The capacity is a power of two,
+            // we use the upper bits as the lower ones only depend
+            // on the lower bits of the term.
+            final long goldenRatio = 0x9E3779B97F4A7C15L;
+            final int bitsPerLong = 64;
+            return (aTerm * goldenRatio) >>> (bitsPerLong - Long.numberOfTrailingZeros(getRecordCount()));
+        }
+
+        /**
+         * @param aTerm the term to look up
+         * @return the first block of the postings or 0
+         * @throws IOException if we cannot read
+         */
+        private long get(final long aTerm) throws IOException {
+            long capacity = getRecordCount();
+            if (capacity == 0) {
+                return 0;
+            }
+            for (long i = getBucket(aTerm); true; i = (i + 1) & (capacity - 1)) {
+                ByteBuffer mem = getRecordForReading(i);
+                try {
+                    long first = mem.getLong(mem.position() + BYTESPERLONG);
+                    if (first == 0) {
+                        return 0;
+                    }
+                    if (mem.getLong(mem.position()) == aTerm) {
+                        return first;
+                    }
+                } finally {
+                    releaseRecord(mem);
+                }
+            }
+        }
+
+        /**
+         * Add or replace a term. There must be a free entry.
+         * @param aTerm the term to store
+         * @param aFirstBlock the first block of the postings
+         * @throws IOException if we cannot write
+         */
+        private void put(final long aTerm, final long aFirstBlock) throws IOException {
+            long capacity = getRecordCount();
+            for (long i = getBucket(aTerm); true; i = (i + 1) & (capacity - 1)) {
+                ByteBuffer mem = getRecordForReading(i);
+                int start = mem.position();
+                long first = mem.getLong(start + BYTESPERLONG);
+                if (first == 0 || mem.getLong(start) == aTerm) {
+                    mem.putLong(start, aTerm);
+                    mem.putLong(start + BYTESPERLONG, aFirstBlock);
+                    writeRecord(mem, i);
+                    return;
+                }
+                releaseRecord(mem);
+            }
+        }
+    }
+
+    /**
+     * Collects the tags and builds a {@link TagIndexFile}.
+     * The postings are sorted by an external merge-sort, so there
+     * is no need to keep them in memory.
+     */
+    public static class Builder {
+
+        /**
+         * The file to build.
+         */
+        private final File myFileName;
+
+        /**
+         * Sorts the postings by term and ID.
+         */
+        private final LongTupleSorter mySorter;
+
+        /**
+         * Reused for every posting added.
+         */
+        private final long[] myTuple = new long[2];
+
+        /**
+         * @param aFileName the *.tix -file to create. An existing file is replaced.
+         * @param aTempDirectory where to store temporary files while sorting
+         * @param aMaxTuplesInMemory the number of postings to sort in memory
+         */
+        public Builder(final File aFileName, final File aTempDirectory, final int aMaxTuplesInMemory) {
+            this.myFileName = aFileName;
+            this.mySorter = new LongTupleSorter(aTempDirectory, aFileName.getName(), myTuple.length, aMaxTuplesInMemory);
+        }
+
+        /**
+         * Add a tag of an entity. The tag is indexed
+         * by it's value and by it's key alone.
+         * @param anID the ID of the entity
+         * @param aKey the key of the tag as given by {@link AttrNames#getKey(String)}
+         * @param aValue the value of the tag
+         * @throws IOException if we cannot write a temporary file
+         */
+        public void add(final long anID, final short aKey, final String aValue) throws IOException {
+            myTuple[0] = getTerm(aKey, aValue);
+            myTuple[1] = anID;
+            mySorter.add(myTuple);
+            myTuple[0] = getTerm(aKey, null);
+            myTuple[1] = anID;
+            mySorter.add(myTuple);
+        }
+
+        /**
+         * Sort all postings added and write the file.
+         * @return the new index, opened for reading and writing
+         * @throws IOException if we cannot write the file
+         */
+        public TagIndexFile build() throws IOException {
+            delete(myFileName);
+            if (myFileName.exists()) {
+                throw new IOException("Cannot delete " + myFileName.getAbsolutePath());
+            }
+            TagIndexFile index = new TagIndexFile(myFileName, false);
+            LongTupleSorter.Reader postings = mySorter.sort();
+            try {
+                index.bulkLoad(postings);
+            } finally {
+                postings.close();
+                mySorter.close();
+            }
+            return index;
+        }
+
+        /**
+         * Release all temporary files.
+         */
+        public void close() {
+            mySorter.close();
+        }
+    }
+}
@@ -3,8 +3,10 @@ package org.openstreetmap.osm.data.osmbin;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10BulkWriterFactory;
 import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10DatasetReaderFactory;
 import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10ReindexerFactory;
+import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10ReordererFactory;
 import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinV10WriterFactory;
 
 
@@ -17,7 +19,9 @@ public class WriteOSMBinPlugin implements PluginLoader {
     public Map<String, TaskManagerFactory> loadTaskFactories() {
         HashMap<String, TaskManagerFactory> map = new HashMap<String, TaskManagerFactory>();
         map.put("write-osmbin-0.6", new OsmBinV10WriterFactory());
+        map.put("bulkwrite-osmbin-0.6", new OsmBinV10BulkWriterFactory());
         map.put("dataset-osmbin-0.6", new OsmBinV10DatasetReaderFactory());
         map.put("reindex-osmbin-0.6", new OsmBinV10ReindexerFactory());
+        map.put("reorder-osmbin-0.6", new OsmBinV10ReordererFactory());
         return map;
     }}
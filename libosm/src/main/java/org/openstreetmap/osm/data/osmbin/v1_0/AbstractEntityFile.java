@@ -47,6 +47,7 @@ import org.openstreetmap.osm.data.osmbin.AttrNames;
 import org.openstreetmap.osm.data.osmbin.FixedRecordFile;
 import org.openstreetmap.osm.data.osmbin.IDIndexFile;
 import org.openstreetmap.osm.data.osmbin.IIDIndexFile;
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
 
 import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 
@@ -58,8 +59,9 @@ import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
  *<br/>
  * <b>This is the *.obm-file as described in
  * <a href="http://wiki.openstreetmap.org/index.php?title=User:MarcusWolschon/osmbin_draft#version_1.0">here</a></b><br/>
- * We assume that all record start with the element-id (long) stored as int
- * and that Integer.MIN_VALUE denoted an unused record.<br/>
+ * We assume that all record start with the element-id stored as int (v1.1)
+ * or long (v1.2) as given by the {@link OsmBinFormat}
+ * and that {@link OsmBinFormat#EMPTYID} denoted an unused record.<br/>
  * We also allow reading and writing attributes of entities. For this we first
  * parse the taglist of the {@link Entity#getTagList()} and split
  * values for tags that are too long for a fixed size slot into
@@ -92,7 +94,7 @@ public abstract class AbstractEntityFile extends FixedRecordFile {
      * attribute-record. All occurrences of this character
      * are removed upon reading.
      */
-    private static final char ILLEGALCHAR = 0;
+    static final char ILLEGALCHAR = 0;
 
     /**
      * The file containing an index by node-ID.
@@ -124,17 +126,56 @@ public abstract class AbstractEntityFile extends FixedRecordFile {
      */
     protected int myGrowExcessRecordsCount = DEFAULTGROWEXCESSCOUNT;
 
+    /**
+     * The record-layout of this file.
+     */
+    private OsmBinFormat myFormat;
+
+    /**
+     * @param aFileName the filename of the *.obm -file.
+     * @param anAttrNamesFile The file attribute-names are stored in.
+     * @param anIndex The file containing an index by node-ID.
+     * @throws IOException if we cannot open the file
+     */
+    protected AbstractEntityFile(final File aFileName,
+            final IIDIndexFile anIndex,
+            final AttrNames anAttrNamesFile)
+            throws IOException {
+        this(aFileName, OsmBinFormat.V1_1, anIndex, anAttrNamesFile);
+    }
+
     /**
      * @param aFileName the filename of the *.obm -file.
+     * @param aFormat the record-layout of the file
      * @param anAttrNamesFile The file attribute-names are stored in.
      * @param anIndex The file containing an index by node-ID.
      * @throws IOException if we cannot open the file
      */
     protected AbstractEntityFile(final File aFileName,
+            final OsmBinFormat aFormat,
             final IIDIndexFile anIndex,
             final AttrNames anAttrNamesFile)
             throws IOException {
-        super(aFileName);
+        this(aFileName, aFormat, false, anIndex, anAttrNamesFile);
+    }
+
+    /**
+     * @param aFileName the filename of the *.obm -file.
+     * @param aFormat the record-layout of the file
+     * @param aReadOnly open the file read-only
+     * @param anAttrNamesFile The file attribute-names are stored in.
+     * @param anIndex The file containing an index by node-ID.
+     * @throws IOException if we cannot open the file
+     */
+    protected AbstractEntityFile(final File aFileName,
+            final OsmBinFormat aFormat,
+            final boolean aReadOnly,
+            final IIDIndexFile anIndex,
+            final AttrNames anAttrNamesFile)
+            throws IOException {
+        super(aFileName, false, aReadOnly);
+        this.myFormat = aFormat;
+        open();
         setAttrNamesFile(anAttrNamesFile);
         setIndex(anIndex);
         this.myLastRecordWritten = getRecordCount();
@@ -159,7 +200,7 @@ public abstract class AbstractEntityFile extends FixedRecordFile {
             public boolean hasNext() {
                 long current = myCurrentRecord;
                 long id = myCurrentElementID;
-                if (next() > 0) {
+                if (next() >= 0) {
                     myCurrentRecord = current;
                     myCurrentElementID = id;
                     return true;
@@ -174,8 +215,8 @@ public abstract class AbstractEntityFile extends FixedRecordFile {
                     ByteBuffer record = null;
                     try {
                         record = getRecordForReading(current);
-                        int id = record.getInt();
-                        if (id != myCurrentElementID && id != Integer.MIN_VALUE) {
+                        long id = readID(record);
+                        if (id != myCurrentElementID && id != OsmBinFormat.EMPTYID) {
                             myCurrentElementID = id;
                             myCurrentRecord = current;
                             return current;
@@ -242,10 +283,10 @@ public abstract class AbstractEntityFile extends FixedRecordFile {
             }
 
             // check if this record is indeed free
-            int currentID;
+            long currentID;
             try {
                 ByteBuffer mem = getRecordForReading(i);
-                currentID = mem.getInt();
+                currentID = readID(mem);
                 releaseRecord(mem);
             } catch (IllegalStateException e) {
                 if (e.getCause() != null && e.getCause() instanceof EOFException) {
@@ -257,7 +298,7 @@ public abstract class AbstractEntityFile extends FixedRecordFile {
                     throw e;
                 }
             }
-            if (currentID == Integer.MIN_VALUE) {
+            if (currentID == OsmBinFormat.EMPTYID) {
              // cache the info where the first free record is
                 myUsedRecordIndex.clear(i);
 
@@ -295,7 +336,7 @@ public abstract class AbstractEntityFile extends FixedRecordFile {
     private void invalidateRecord(final long anIndex) throws IOException {
         ByteBuffer mem = getRecordForWriting(anIndex);
         int start = mem.position();
-        mem.putInt(Integer.MIN_VALUE);
+        writeID(mem, OsmBinFormat.EMPTYID);
         mem.position(start);
         writeRecord(mem, anIndex, false);
 
@@ -315,11 +356,11 @@ public abstract class AbstractEntityFile extends FixedRecordFile {
             //this is  a safe version of invalidateRecord that first checks to not invalidate unexpected records
             ByteBuffer mem = getRecordForReading(aRecordNumber);
             int start = mem.position();
-            int safetyTest = mem.getInt();
+            long safetyTest = readID(mem);
             mem.position(start);
             releaseRecord(mem);
             mem = null;
-            if (safetyTest != Integer.MIN_VALUE && safetyTest != aNodeID) {
+            if (safetyTest != OsmBinFormat.EMPTYID && safetyTest != aNodeID) {
                 throw new IllegalArgumentException("Major internal error! "
                         + "NOT invalidating record "
                         + aRecordNumber + " that is still in use by element "
@@ -449,17 +490,16 @@ public abstract class AbstractEntityFile extends FixedRecordFile {
         if (firstRecordNr < 0) {
             return 0; // illegal record
         }
-        int elementID = (int) anElementID;
         ByteBuffer mem = null;
         for (long i = firstRecordNr; i < getRecordCount(); i++) {
-            int nextElementID;
+            long nextElementID;
             try {
                 mem = getRecordForReading(i);
-                nextElementID = mem.getInt();
+                nextElementID = readID(mem);
             } finally {
                 releaseRecord(mem);
             }
-            if (nextElementID != elementID) {
+            if (nextElementID != anElementID) {
                 return (int) (i - firstRecordNr);
             }
         }
@@ -480,7 +520,7 @@ public abstract class AbstractEntityFile extends FixedRecordFile {
                 LOG.severe("Index contains a record-number beyond the end of the file for"
                         + " elementID=" + anElementID + " recordNumber in index="
                         + recordNr + " record count=" + getRecordCount());
-                getIndex().remove(anElementID);
+                repairIndex(anElementID, -1);
                 LOG.finest(getFileName() + " - findRecordForElement " + anElementID + " - not found");
                 return -1;
             }
@@ -507,27 +547,71 @@ public abstract class AbstractEntityFile extends FixedRecordFile {
     throws IOException {
         for (long i = 0; i < getRecordCount(); i++) {
             ByteBuffer mem = getRecordForReading(i);
-            long currentNodeID = mem.getInt();
+            long currentNodeID = readID(mem);
             releaseRecord(mem);
             if (currentNodeID == anElementID) {
                 LOG.log(Level.SEVERE, "Repairing broken index by updating existing element "
                         + anElementID + " to recordNumber " + i + " in *.obm");
-                getIndex().put(anElementID, i);
+                repairIndex(anElementID, i);
                 return i;
             }
         }
         LOG.log(Level.SEVERE, "Repairing broken index by removing non-existing element "
                 + anElementID + " from index.");
-        getIndex().remove(anElementID);
+        repairIndex(anElementID, -1);
         return -1; // not found
     }
 
+    /**
+     * Correct the index after we noticed that it is broken.
+     * The index of a read-only file is left as it is,
+     * it can be rebuilt with {@link OsmBinV10Reindexer}.
+     * @param anElementID the element to correct the index for
+     * @param aRecordNr the first record of the element or -1 if we do not have it
+     * @throws IOException if we cannot write the index
+     */
+    protected void repairIndex(final long anElementID, final long aRecordNr) throws IOException {
+        if (isReadOnly()) {
+            return;
+        }
+        if (aRecordNr < 0) {
+            getIndex().remove(anElementID);
+        } else {
+            getIndex().put(anElementID, aRecordNr);
+        }
+    }
+
     /**
      * @param  record a buffer containing the record's content
      * @return true if the currently selected record is free for reuse.
      */
     public boolean isRecordUnused(final ByteBuffer record) {
-        return record.getInt() == Integer.MIN_VALUE;
+        return readID(record) == OsmBinFormat.EMPTYID;
+    }
+
+    /**
+     * @return the record-layout of this file
+     */
+    public OsmBinFormat getFormat() {
+        return myFormat;
+    }
+
+    /**
+     * Read an element-ID or a reference to an element.
+     * @param mem the buffer to read from, positioned at the ID
+     * @return the ID or {@link OsmBinFormat#EMPTYID}
+     */
+    protected long readID(final ByteBuffer mem) {
+        return myFormat.readID(mem);
+    }
+
+    /**
+     * Write an element-ID or a reference to an element.
+     * @param mem the buffer to write to, positioned at the ID
+     * @param anID the ID or {@link OsmBinFormat#EMPTYID}
+     */
+    protected void writeID(final ByteBuffer mem, final long anID) {
+        myFormat.writeID(mem, anID);
     }
 
     /**
@@ -0,0 +1,463 @@
+/**
+ * AbstractRecordView.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin.v1_0;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+
+/**
+ * Project: libosm<br/>
+ * AbstractRecordView.java<br/>
+ *<br/><br/>
+ * <b>Read-only view of the consecutive records an entity
+ * is stored in.</b><br/>
+ * {@link #moveTo(long)} only reads the ID and version of the records.
+ * All other values are read on demand as primitives from the memory-mapped
+ * segments of the file (using absolute get-methods), thus
+ * nothing is allocated per entity read. The same view is meant to be
+ * moved from record to record. A view is not thread-safe, use one per thread.
+ * @see NodeRecordView
+ * @see WayRecordView
+ */
+public abstract class AbstractRecordView {
+
+    /**
+     * The key of an attribute-slot that is not used.
+     */
+    private static final short EMPTYKEY = Short.MIN_VALUE;
+
+    /**
+     * The key of an attribute-slot that continues the value
+     * of the previous slot.
+     */
+    private static final short CONTINUATIONKEY = Short.MIN_VALUE + 1;
+
+    /**
+     * The number of bytes of the key of an attribute-slot.
+     */
+    private static final int BYTESPERKEY = 2;
+
+    /**
+     * The number of bytes of a character of an attribute-slot.
+     */
+    private static final int BYTESPERCHAR = 2;
+
+    /**
+     * The file we read.
+     */
+    private final AbstractEntityFile myFile;
+
+    /**
+     * The number of bytes of an ID.
+     */
+    private final int myIDLength;
+
+    /**
+     * The byte-index of the first attribute-slot in a record.
+     */
+    private final int myAttrOffset;
+
+    /**
+     * The number of attribute-slots per record.
+     */
+    private final int myAttrCountPerRecord;
+
+    /**
+     * The number of characters of the value in an attribute-slot.
+     */
+    private final int myAttrCharCount;
+
+    /**
+     * The first record of the current entity.
+     */
+    private long myFirstRecord = -1;
+
+    /**
+     * The number of consecutive records of the current entity.
+     */
+    private int myRecordCount;
+
+    /**
+     * The ID of the current entity.
+     */
+    private long myID = OsmBinFormat.EMPTYID;
+
+    /**
+     * The version of the current entity.
+     */
+    private int myVersion;
+
+    /**
+     * The record last read by conventional IO because
+     * it is not memory-mapped.
+     */
+    private long myUnmappedRecord = -1;
+
+    /**
+     * The content of {@link #myUnmappedRecord}.
+     */
+    private ByteBuffer myUnmappedBuffer;
+
+    /**
+     * The byte-index of the record given to the last
+     * call of {@link #getBuffer(int)} in the returned buffer.
+     */
+    private int myOffset;
+
+    /**
+     * @param aFile the file to read
+     * @param anAttrOffset the byte-index of the first attribute-slot in a record (after the ID)
+     * @param anAttrCountPerRecord the number of attribute-slots per record
+     * @param anAttrCharCount the number of characters of the value in an attribute-slot
+     */
+    protected AbstractRecordView(final AbstractEntityFile aFile,
+            final int anAttrOffset,
+            final int anAttrCountPerRecord,
+            final int anAttrCharCount) {
+        this.myFile = aFile;
+        this.myIDLength = aFile.getFormat().getIDLength();
+        this.myAttrOffset = myIDLength + anAttrOffset;
+        this.myAttrCountPerRecord = anAttrCountPerRecord;
+        this.myAttrCharCount = anAttrCharCount;
+    }
+
+    /**
+     * Move this view to the entity stored in the given record.
+     * @param aRecordNumber the first of the records the entity is stored in
+     * @return false if the record does not exist or is not in use
+     * @throws IOException if we cannot read the record
+     */
+    public boolean moveTo(final long aRecordNumber) throws IOException {
+        this.myFirstRecord = aRecordNumber;
+        this.myRecordCount = 0;
+        this.myUnmappedRecord = -1;
+        this.myID = OsmBinFormat.EMPTYID;
+        long fileRecordCount = myFile.getRecordCount();
+        if (aRecordNumber < 0 || aRecordNumber >= fileRecordCount) {
+            return false;
+        }
+        this.myID = getID(0, 0);
+        if (myID == OsmBinFormat.EMPTYID) {
+            return false;
+        }
+        this.myVersion = getInt(0, myIDLength);
+        this.myRecordCount = 1;
+        // the entity continues in the following records with the same ID and version
+        while (myFirstRecord + myRecordCount < fileRecordCount
+               && getID(myRecordCount, 0) == myID
+               && getInt(myRecordCount, myIDLength) == myVersion) {
+            myRecordCount++;
+        }
+        return true;
+    }
+
+    /**
+     * @return the first of the records the current entity is stored in
+     */
+    public long getRecordNumber() {
+        return myFirstRecord;
+    }
+
+    /**
+     * @return the number of consecutive records the current entity is stored in
+     */
+    public int getRecordCount() {
+        return myRecordCount;
+    }
+
+    /**
+     * @return the ID of the current entity or {@link OsmBinFormat#EMPTYID}
+     */
+    public long getID() {
+        return myID;
+    }
+
+    /**
+     * @return the version of the current entity
+     */
+    public int getVersion() {
+        return myVersion;
+    }
+
+    /**
+     * @param aKeyID the key as given by {@link org.openstreetmap.osm.data.osmbin.AttrNames#getKey(String)}
+     * @return true if the current entity has a tag with this key
+     * @throws IOException if we cannot read the record
+     */
+    public boolean hasTag(final short aKeyID) throws IOException {
+        return findTag(aKeyID) >= 0;
+    }
+
+    /**
+     * @param aKeyID the key as given by {@link org.openstreetmap.osm.data.osmbin.AttrNames#getKey(String)}
+     * @return the value of the tag with this key or null
+     * @throws IOException if we cannot read the record
+     */
+    public String getTag(final short aKeyID) throws IOException {
+        int slot = findTag(aKeyID);
+        if (slot < 0) {
+            return null;
+        }
+        StringBuilder value = new StringBuilder();
+        int slotCount = getTagSlotCount();
+        do {
+            for (int c = 0; c < myAttrCharCount; c++) {
+                char ch = getTagSlotChar(slot, c);
+                if (ch != AbstractEntityFile.ILLEGALCHAR) {
+                    value.append(ch);
+                }
+            }
+            slot++;
+        } while (slot < slotCount && getTagSlotKey(slot) == CONTINUATIONKEY);
+        return value.toString();
+    }
+
+    /**
+     * Compare the value of a tag without creating a String.
+     * @param aKeyID the key as given by {@link org.openstreetmap.osm.data.osmbin.AttrNames#getKey(String)}
+     * @param aValue the value to compare with
+     * @return true if the current entity has a tag with this key and value
+     * @throws IOException if we cannot read the record
+     */
+    public boolean isTag(final short aKeyID, final String aValue) throws IOException {
+        int slot = findTag(aKeyID);
+        if (slot < 0) {
+            return false;
+        }
+        int index = 0;
+        int slotCount = getTagSlotCount();
+        do {
+            for (int c = 0; c < myAttrCharCount; c++) {
+                char ch = getTagSlotChar(slot, c);
+                if (ch != AbstractEntityFile.ILLEGALCHAR) {
+                    if (index >= aValue.length() || aValue.charAt(index) != ch) {
+                        return false;
+                    }
+                    index++;
+                }
+            }
+            slot++;
+        } while (slot < slotCount && getTagSlotKey(slot) == CONTINUATIONKEY);
+        return index == aValue.length();
+    }
+
+    /**
+     * Decode all tags of the current entity.
+     * @param aTagList the list to add the tags to
+     * @throws IOException if we cannot read the record
+     */
+    public void readTags(final List<Tag> aTagList) throws IOException {
+        int slotCount = getTagSlotCount();
+        char[] chars = new char[myAttrCharCount];
+        for (int slot = 0; slot < slotCount; slot++) {
+            short key = getTagSlotKey(slot);
+            if (key == EMPTYKEY) {
+                continue;
+            }
+            int length = 0;
+            for (int c = 0; c < myAttrCharCount; c++) {
+                char ch = getTagSlotChar(slot, c);
+                if (ch != AbstractEntityFile.ILLEGALCHAR) {
+                    chars[length++] = ch;
+                }
+            }
+            String value = new String(chars, 0, length);
+            if (key == CONTINUATIONKEY) {
+                // this is the continuation of the last tag
+                if (aTagList.size() == 0) {
+                    throw new IllegalStateException("First tag of an entity cannot be a continuation!");
+                }
+                Tag oldTag = aTagList.remove(aTagList.size() - 1);
+                aTagList.add(new Tag(oldTag.getKey(), oldTag.getValue() + value));
+                continue;
+            }
+            String tagKey = myFile.getAttrNamesFile().getAttributeName(key);
+            if (tagKey != null) {
+                aTagList.add(new Tag(tagKey, value));
+            }
+        }
+    }
+
+    /**
+     * @param aKeyID the key to look for
+     * @return the first attribute-slot with this key or -1
+     * @throws IOException if we cannot read the record
+     */
+    private int findTag(final short aKeyID) throws IOException {
+        if (aKeyID == EMPTYKEY || aKeyID == CONTINUATIONKEY) {
+            return -1;
+        }
+        int slotCount = getTagSlotCount();
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (getTagSlotKey(slot) == aKeyID) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of attribute-slots of the current entity
+     */
+    private int getTagSlotCount() {
+        return myRecordCount * myAttrCountPerRecord;
+    }
+
+    /**
+     * @param aSlot the attribute-slot
+     * @return the key stored in it
+     * @throws IOException if we cannot read the record
+     */
+    private short getTagSlotKey(final int aSlot) throws IOException {
+        ByteBuffer buffer = getBuffer(aSlot / myAttrCountPerRecord);
+        return buffer.getShort(myOffset + getTagSlotOffset(aSlot));
+    }
+
+    /**
+     * @param aSlot the attribute-slot
+     * @param aChar the index of the character
+     * @return the character of the value stored in it
+     * @throws IOException if we cannot read the record
+     */
+    private char getTagSlotChar(final int aSlot, final int aChar) throws IOException {
+        ByteBuffer buffer = getBuffer(aSlot / myAttrCountPerRecord);
+        return buffer.getChar(myOffset + getTagSlotOffset(aSlot) + BYTESPERKEY + aChar * BYTESPERCHAR);
+    }
+
+    /**
+     * @param aSlot the attribute-slot
+     * @return the byte-index of the slot in it's record
+     */
+    private int getTagSlotOffset(final int aSlot) {
+        return myAttrOffset + (aSlot % myAttrCountPerRecord) * (BYTESPERKEY + BYTESPERCHAR * myAttrCharCount);
+    }
+
+    /**
+     * @param aRecordIndex the record of the current entity (0 for the first one)
+     * @param anOffset the byte-index in the record
+     * @return the int stored there
+     * @throws IOException if we cannot read the record
+     */
+    protected int getInt(final int aRecordIndex, final int anOffset) throws IOException {
+        ByteBuffer buffer = getBuffer(aRecordIndex);
+        return buffer.getInt(myOffset + anOffset);
+    }
+
+    /**
+     * @param aRecordIndex the record of the current entity (0 for the first one)
+     * @param anOffset the byte-index in the record
+     * @return the ID stored there or {@link OsmBinFormat#EMPTYID}
+     * @throws IOException if we cannot read the record
+     */
+    protected long getID(final int aRecordIndex, final int anOffset) throws IOException {
+        ByteBuffer buffer = getBuffer(aRecordIndex);
+        return myFile.getFormat().readID(buffer, myOffset + anOffset);
+    }
+
+    /**
+     * Count the IDs used in a list of ID-slots
+     * spread across the records of the current entity.
+     * @param anOffset the byte-index of the first ID-slot in a record (after the ID)
+     * @param aCountPerRecord the number of ID-slots per record
+     * @return the number of slots not containing {@link OsmBinFormat#EMPTYID}
+     * @throws IOException if we cannot read the record
+     */
+    protected int countIDs(final int anOffset, final int aCountPerRecord) throws IOException {
+        int count = 0;
+        for (int r = 0; r < myRecordCount; r++) {
+            for (int i = 0; i < aCountPerRecord; i++) {
+                if (getID(r, myIDLength + anOffset + i * myIDLength) != OsmBinFormat.EMPTYID) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get an ID from a list of ID-slots spread across the records
+     * of the current entity. The IDs are written in order, so
+     * unused slots are only at the end.
+     * @param anIndex the index into the list
+     * @param anOffset the byte-index of the first ID-slot in a record (after the ID)
+     * @param aCountPerRecord the number of ID-slots per record
+     * @return the ID
+     * @throws IOException if we cannot read the record
+     */
+    protected long getID(final int anIndex, final int anOffset, final int aCountPerRecord) throws IOException {
+        if (anIndex < 0 || anIndex >= myRecordCount * aCountPerRecord) {
+            throw new IndexOutOfBoundsException("index " + anIndex + " of entity " + myID);
+        }
+        return getID(anIndex / aCountPerRecord, myIDLength + anOffset + (anIndex % aCountPerRecord) * myIDLength);
+    }
+
+    /**
+     * @return the number of bytes of an ID
+     */
+    protected int getIDLength() {
+        return myIDLength;
+    }
+
+    /**
+     * Get the buffer holding a record of the current entity
+     * and set {@link #myOffset} to the start of the record in it.
+     * @param aRecordIndex the record of the current entity (0 for the first one)
+     * @return the buffer to use absolute get-methods on
+     * @throws IOException if we cannot read the record
+     */
+    private ByteBuffer getBuffer(final int aRecordIndex) throws IOException {
+        long record = myFirstRecord + aRecordIndex;
+        ByteBuffer segment = myFile.getMappedSegment(record);
+        if (segment != null) {
+            myOffset = myFile.getOffsetInSegment(record);
+            return segment;
+        }
+        if (record != myUnmappedRecord) {
+            if (myUnmappedBuffer == null) {
+                myUnmappedBuffer = ByteBuffer.allocate(myFile.getRecordLength());
+            }
+            ByteBuffer buffer = myFile.getRecordForReading(record);
+            ByteBuffer source = buffer.duplicate();
+            source.limit(source.position() + myFile.getRecordLength());
+            myUnmappedBuffer.clear();
+            myUnmappedBuffer.put(source);
+            myFile.releaseRecord(buffer);
+            myUnmappedRecord = record;
+        }
+        myOffset = 0;
+        return myUnmappedBuffer;
+    }
+}
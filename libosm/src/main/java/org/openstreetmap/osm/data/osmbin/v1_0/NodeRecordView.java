@@ -0,0 +1,151 @@
+/**
+ * NodeRecordView.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin.v1_0;
+
+import java.io.IOException;
+
+import org.openstreetmap.osmosis.core.util.FixedPrecisionCoordinateConvertor;
+
+/**
+ * Project: libosm<br/>
+ * NodeRecordView.java<br/>
+ *<br/><br/>
+ * <b>Read-only view of a node in the nodes.obm -file.</b><br/>
+ * Meant for code that only needs the location, the referencing
+ * ways or a few tags of many nodes and would otherwise create
+ * a complete {@link ExtendedNode} for each of them.
+ * @see NodesFile#readNode(long, long)
+ */
+public class NodeRecordView extends AbstractRecordView {
+
+    /**
+     * The byte-index (after the ID) of the latitude in a record.
+     */
+    private static final int LATOFFSET = 4;
+
+    /**
+     * The byte-index (after the ID) of the longitude in a record.
+     */
+    private static final int LONOFFSET = 8;
+
+    /**
+     * The byte-index (after the ID) of the attribute-slots in a record.
+     */
+    private static final int ATTROFFSET = 12;
+
+    /**
+     * The byte-index (after the ID) of the way-IDs in a record.
+     */
+    private final int myWaysOffset;
+
+    /**
+     * The byte-index (after the ID) of the relation-IDs in a record.
+     */
+    private final int myRelationsOffset;
+
+    /**
+     * @param aFile the file to read
+     */
+    public NodeRecordView(final NodesFile aFile) {
+        super(aFile, ATTROFFSET, NodesFile.ATTRCOUNTPERRECORD, NodesFile.NUMTAGVALCHARS);
+        final int bytesPerAttr = 2 + 2 * NodesFile.NUMTAGVALCHARS;
+        this.myWaysOffset = ATTROFFSET + NodesFile.ATTRCOUNTPERRECORD * bytesPerAttr;
+        this.myRelationsOffset = myWaysOffset + NodesFile.WAYREFCOUNTPERRECORD * getIDLength();
+    }
+
+    /**
+     * @return the latitude encoded as an integer
+     * @throws IOException if we cannot read the record
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public int getLatitudeFixed() throws IOException {
+        return getInt(0, getIDLength() + LATOFFSET);
+    }
+
+    /**
+     * @return the longitude encoded as an integer
+     * @throws IOException if we cannot read the record
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public int getLongitudeFixed() throws IOException {
+        return getInt(0, getIDLength() + LONOFFSET);
+    }
+
+    /**
+     * @return the latitude
+     * @throws IOException if we cannot read the record
+     */
+    public double getLatitude() throws IOException {
+        return FixedPrecisionCoordinateConvertor.convertToDouble(getLatitudeFixed());
+    }
+
+    /**
+     * @return the longitude
+     * @throws IOException if we cannot read the record
+     */
+    public double getLongitude() throws IOException {
+        return FixedPrecisionCoordinateConvertor.convertToDouble(getLongitudeFixed());
+    }
+
+    /**
+     * @return the number of ways this node is part of
+     * @throws IOException if we cannot read the record
+     */
+    public int getWayCount() throws IOException {
+        return countIDs(myWaysOffset, NodesFile.WAYREFCOUNTPERRECORD);
+    }
+
+    /**
+     * @param anIndex 0..{@link #getWayCount()}-1
+     * @return the ID of a way this node is part of
+     * @throws IOException if we cannot read the record
+     */
+    public long getWayID(final int anIndex) throws IOException {
+        return getID(anIndex, myWaysOffset, NodesFile.WAYREFCOUNTPERRECORD);
+    }
+
+    /**
+     * @return the number of relations this node is a member of
+     * @throws IOException if we cannot read the record
+     */
+    public int getRelationCount() throws IOException {
+        return countIDs(myRelationsOffset, NodesFile.RELATIONREFCOUNTPERRECORD);
+    }
+
+    /**
+     * @param anIndex 0..{@link #getRelationCount()}-1
+     * @return the ID of a relation this node is a member of
+     * @throws IOException if we cannot read the record
+     */
+    public long getRelationID(final int anIndex) throws IOException {
+        return getID(anIndex, myRelationsOffset, NodesFile.RELATIONREFCOUNTPERRECORD);
+    }
+}
@@ -53,6 +53,7 @@ import org.openstreetmap.osm.data.osmbin.AttrNames;
 import org.openstreetmap.osm.data.osmbin.IDIndexFile;
 import org.openstreetmap.osm.data.osmbin.IGeoIndexFile;
 import org.openstreetmap.osm.data.osmbin.IIDIndexFile;
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
 
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
@@ -78,7 +79,7 @@ public class NodesFile extends AbstractEntityFile {
      * written inline into a record. Longer values
      * are stored externally.
      */
-    private static final int NUMTAGVALCHARS = 16;
+    static final int NUMTAGVALCHARS = 16;
 
     /**
      * This many slots to store a single
@@ -86,7 +87,7 @@ public class NodesFile extends AbstractEntityFile {
      * If more are required, additional records
      * are used to store the node.
      */
-    private static final int ATTRCOUNTPERRECORD = 1;
+    static final int ATTRCOUNTPERRECORD = 1;
 
     /**
      * This many slots to store a single
@@ -94,14 +95,14 @@ public class NodesFile extends AbstractEntityFile {
      * If more are required, additional records
      * are used to store the node.
      */
-    private static final int WAYREFCOUNTPERRECORD = 3;
+    static final int WAYREFCOUNTPERRECORD = 3;
     /**
      * This many slots to store a single
      * relation-reference in a single record.
      * If more are required, additional records
      * are used to store the node.
      */
-    private static final int RELATIONREFCOUNTPERRECORD = 1;
+    static final int RELATIONREFCOUNTPERRECORD = 1;
 
     /**
      * The file containing an index by node-location.
@@ -155,7 +156,26 @@ public class NodesFile extends AbstractEntityFile {
                      final AttrNames anAttrNamesFile,
                      final IIDIndexFile anIndex,
                      final IGeoIndexFile a2DIndex) throws IOException {
-        super(aFileName, anIndex, anAttrNamesFile);
+        this(aFileName, OsmBinFormat.V1_1, false, anAttrNamesFile, anIndex, a2DIndex);
+    }
+
+    /**
+     * @param aFileName the filename of the nodes.obm -file.
+     * @param aFormat the record-layout of the file
+     * @param aReadOnly open the file read-only. Nodes are then not cached
+     *        and can be read by any number of threads concurrently.
+     * @param anAttrNamesFile The file attribute-names are stored in.
+     * @param anIndex The file containing an index by node-ID.
+     * @param a2DIndex The file containing an index by node-location (may be null).
+     * @throws IOException if we cannot open or create the file.
+     */
+    public NodesFile(final File aFileName,
+                     final OsmBinFormat aFormat,
+                     final boolean aReadOnly,
+                     final AttrNames anAttrNamesFile,
+                     final IIDIndexFile anIndex,
+                     final IGeoIndexFile a2DIndex) throws IOException {
+        super(aFileName, aFormat, aReadOnly, anIndex, anAttrNamesFile);
         set2DIndex(a2DIndex);
         super.myGrowExcessRecordsCount = GROWEXCESSRECORDS;
     }
@@ -377,23 +397,25 @@ public class NodesFile extends AbstractEntityFile {
      */
     @Override
     public int getRecordLength() {
-        return getNodeRecordLength();
+        return getNodeRecordLength(getFormat());
     }
 
     /**
+     * @param aFormat the record-layout of the file
      * @return the length of a record in bytes.
      * @see FixedRecordFile
      */
-    protected static int getNodeRecordLength() {
+    protected static int getNodeRecordLength(final OsmBinFormat aFormat) {
         final int bytesPerShort = 2;
         final int bytesPerInt = 4;
         final int bytesPerChar = 2;
-        return bytesPerInt //  ID
+        final int bytesPerID = aFormat.getIDLength();
+        return bytesPerID //  ID
         + bytesPerInt // version
         + bytesPerInt + bytesPerInt // lat + lon
         + ATTRCOUNTPERRECORD * (bytesPerShort + bytesPerChar * NUMTAGVALCHARS)
-        + (WAYREFCOUNTPERRECORD * bytesPerInt)
-        + (RELATIONREFCOUNTPERRECORD * bytesPerInt);
+        + (WAYREFCOUNTPERRECORD * bytesPerID)
+        + (RELATIONREFCOUNTPERRECORD * bytesPerID);
     }
 
     /**
@@ -450,9 +472,6 @@ public class NodesFile extends AbstractEntityFile {
                     FixedPrecisionCoordinateConvertor.convertToFixed(aNode.getLatitude()),
                     FixedPrecisionCoordinateConvertor.convertToFixed(aNode.getLongitude()));
             recordNr = findFreeRecords(required);
-            if (recordNr > Integer.MAX_VALUE) {
-                throw new IllegalStateException("record-number does no longer fit into an integer.");
-            }
             getIndex().put(aNode.getId(), recordNr);
 
             get2DIndex().put(recordNr,
@@ -485,9 +504,6 @@ public class NodesFile extends AbstractEntityFile {
                    FixedPrecisionCoordinateConvertor.convertToFixed(aNode.getLatitude()),
                    FixedPrecisionCoordinateConvertor.convertToFixed(aNode.getLongitude()));
            recordNr = findFreeRecords(required);
-           if (recordNr > Integer.MAX_VALUE) {
-               throw new IllegalStateException("record-number does no longer fit into an integer.");
-           }
            getIndex().put(aNode.getId(), recordNr);
 
            get2DIndex().put(recordNr,
@@ -546,9 +562,6 @@ public class NodesFile extends AbstractEntityFile {
             final int counter,
             final long aRecordNumber,
             final List<Object> tagList) throws IOException  {
-        if (aNode.getId() > Integer.MAX_VALUE) {
-            throw new IllegalStateException("nodeID too large to be represented as an integer");
-        }
         //ByteBuffer mem = null;
         //assert (mem = getRecordForReading(aRecordNumber)) != null;
         ByteBuffer mem = getRecordForReading(aRecordNumber);
@@ -556,9 +569,9 @@ public class NodesFile extends AbstractEntityFile {
             int start = mem.position();
             // assertions are enabled, do safety-checks to not overwrite
             // a record already used by another node
-            int safetyTest = mem.getInt();
+            long safetyTest = readID(mem);
             mem.position(start);
-            if (safetyTest != Integer.MIN_VALUE && safetyTest != aNode.getId()) {
+            if (safetyTest != OsmBinFormat.EMPTYID && safetyTest != aNode.getId()) {
                 releaseRecord(mem);
                 mem = null;
                 throw new RecordInUseException(aRecordNumber, "Major internal error! "
@@ -575,8 +588,28 @@ public class NodesFile extends AbstractEntityFile {
         int start = mem.position();
         //^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^
         //LOG.finest(getFileName() + " - node " + aNode.getId() + " - part " + counter + " writing to record " + aRecordNumber + " (mem.positiion()=" + mem.position() + ")");
+        encodeNodeRecord(mem, aNode, wayIDs, relIDs, counter, tagList);
+        mem.position(start);
+        writeRecord(mem, aRecordNumber);
+    }
+
+    /**
+     * Write a single record of the given node into a buffer.
+     * @param mem the buffer to write to. Positioned at the start of the record
+     *        and afterwards at the end of it.
+     * @param aNode the node to write
+     * @param wayIDs the IDs of all ways containing this node
+     * @param relIDs the IDs of all relations containing this node
+     * @param counter this many records have been written already
+     * @param tagList tag-list as prepared for writing by {@link AbstractEntityFile}
+     * @throws IOException  if an attribute-key cannot be created
+     */
+    private void encodeNodeRecord(final ByteBuffer mem, final Node aNode,
+            final List<Long> wayIDs, final List<Long> relIDs,
+            final int counter,
+            final List<Object> tagList) throws IOException  {
         assert (mem.position() % getRecordLength() == 0) : "We are not at a valid  start-location for a record";
-        mem.putInt((int) aNode.getId());
+        writeID(mem, aNode.getId());
         mem.putInt(aNode.getVersion());
         mem.putInt(FixedPrecisionCoordinateConvertor.convertToFixed(aNode.getLatitude()));
         mem.putInt(FixedPrecisionCoordinateConvertor.convertToFixed(aNode.getLongitude()));
@@ -592,31 +625,50 @@ public class NodesFile extends AbstractEntityFile {
         }
         // write 4 ways
         for (int w = 0; w < WAYREFCOUNTPERRECORD; w++) {
-            long wayID = Integer.MIN_VALUE;
+            long wayID = OsmBinFormat.EMPTYID;
             int indexIntoWaylist = w + (WAYREFCOUNTPERRECORD * counter);
             if (wayIDs.size() > indexIntoWaylist) {
                 wayID = wayIDs.get(indexIntoWaylist);
             }
-            if (wayID > Integer.MAX_VALUE) {
-                throw new IllegalStateException("wayID too large to be represented as an integer");
-            }
-            mem.putInt((int) wayID);
+            writeID(mem, wayID);
         }
      // write 1 relation
         for (int r = 0; r < RELATIONREFCOUNTPERRECORD; r++) {
-            long relID = Integer.MIN_VALUE;
+            long relID = OsmBinFormat.EMPTYID;
             int indexIntoRellist = r + (RELATIONREFCOUNTPERRECORD * counter);
             if (relIDs.size() > indexIntoRellist) {
                 relID = relIDs.get(indexIntoRellist);
             }
-            if (relID > Integer.MAX_VALUE) {
-                throw new IllegalStateException("relID too large to be represented as an integer");
-            }
-            mem.putInt((int) relID);
+            writeID(mem, relID);
         }
         assert (mem.position() % getRecordLength() == 0) : "We are not at a valid  end-location for a record";
-        mem.position(start);
-        writeRecord(mem, aRecordNumber);
+    }
+
+    /**
+     * Append the given node at the end of the file
+     * without looking for free records or an older
+     * version of the node.<br/>
+     * This is meant for bulk-loading a new file.
+     * The index and the 2D-index are NOT updated.
+     * They are to be rebuilt afterwards by the {@link OsmBinV10Reindexer}.
+     * @param aNode the node to store
+     * @return the first of the records this node is stored in
+     * @throws IOException if we cannot write
+     * @see #flushAppendedRecords()
+     */
+    public long appendNode(final ExtendedNode aNode) throws IOException {
+        List<Object> preparedTagList = super.prepareTagList(aNode.getTags(), NUMTAGVALCHARS);
+        int required = Math.max(getRequiredRecordCount(aNode), preparedTagList.size() / ATTRCOUNTPERRECORD);
+        List<Long> wayIDsOrdered = new ArrayList<Long>(aNode.getReferencedWayIDs());
+        List<Long> relIDsOrdered = new ArrayList<Long>(aNode.getReferencedRelationIDs());
+        ByteBuffer records = ByteBuffer.allocate(required * getRecordLength());
+        for (int i = 0; i < required; i++) {
+            encodeNodeRecord(records, aNode, wayIDsOrdered, relIDsOrdered, i, preparedTagList);
+        }
+        records.flip();
+        long recordNr = appendRecords(records);
+        myLastRecordWritten = Math.max(myLastRecordWritten, recordNr + required - 1);
+        return recordNr;
     }
 
     /**
@@ -633,7 +685,7 @@ public class NodesFile extends AbstractEntityFile {
 
                 public Node next() {
                     try {
-                        myLastNode = readNode(Integer.MIN_VALUE, myNodeIDs.next());
+                        myLastNode = readNode(Long.MIN_VALUE, myNodeIDs.next());
                         return myLastNode;
                     } catch (UnsupportedEncodingException e) {
                         throw new IllegalStateException("UnsupportedEncodingException while fetchine next node", e);
@@ -660,7 +712,7 @@ public class NodesFile extends AbstractEntityFile {
      * @throws IOException if we cannot read an external attribute
      */
     public ExtendedNode readNode(final long aNodeID) throws IOException {
-        ExtendedNode cached = this.myNodeCache.get(aNodeID);
+        ExtendedNode cached = getCachedNode(aNodeID);
         if (cached != null) {
             return cached;
         }
@@ -685,7 +737,7 @@ public class NodesFile extends AbstractEntityFile {
      * @throws UnsupportedEncodingException if UTF-8 is not supported
      */
     public ExtendedNode readNode(final long aNodeID, final long aRecordNr) throws UnsupportedEncodingException, IOException {
-        ExtendedNode cached = this.myNodeCache.get(aNodeID);
+        ExtendedNode cached = getCachedNode(aNodeID);
         if (cached != null) {
             return cached;
         }
@@ -694,15 +746,17 @@ public class NodesFile extends AbstractEntityFile {
             return null;
         }
         ByteBuffer mem = getRecordForReading(recordNr);
-        long id = mem.getInt();
+        long id = readID(mem);
         if (aNodeID != Long.MIN_VALUE && id != aNodeID) {
             // our index is broken, scan the file and index
             // the correct location.
-            if (id == Integer.MIN_VALUE) {
+            if (id == OsmBinFormat.EMPTYID) {
                 LOG.log(Level.SEVERE, "broken nodex.idx -file."
                         + " Record " + recordNr + " for node "
                         + aNodeID + " is marked as free.");
-                myUsedRecordIndex.clear((int) recordNr);
+                if (!isReadOnly()) {
+                    myUsedRecordIndex.clear((int) recordNr);
+                }
             } else {
                 LOG.log(Level.SEVERE, "broken nodex.idx -file."
                         + " Record " + recordNr + " for node "
@@ -715,11 +769,11 @@ public class NodesFile extends AbstractEntityFile {
                 if (recordNr < 0) {
                     LOG.log(Level.SEVERE, "given node "
                             + aNodeID + " does not exist in this file.");
-                    getIndex().remove(aNodeID);
+                    repairIndex(aNodeID, -1);
                     return null;
                 }
                 mem = getRecordForReading(recordNr);
-                id = mem.getInt();
+                id = readID(mem);
                 if (id != aNodeID) {
                     releaseRecord(mem);
                     throw new IllegalStateException("Internal error!"
@@ -727,77 +781,50 @@ public class NodesFile extends AbstractEntityFile {
                             + recordNr + " that does NOT contain the node "
                             + aNodeID + " that it scanned for.");
                 }
-                getIndex().put(aNodeID, recordNr);
+                repairIndex(aNodeID, recordNr);
             }
         }
-        //LOG.finest(getFileName() + " - node " + aNodeID + " reading from record " + recordNr + " (mem.positiion()=" + mem.position() + ")");
-        int version = mem.getInt();
-        int latI = mem.getInt();
-        double lat = FixedPrecisionCoordinateConvertor.convertToDouble(latI);
-        int lonI = mem.getInt();
-        double lon = FixedPrecisionCoordinateConvertor.convertToDouble(lonI);
-        Collection<Integer> referencingWayIDs = new LinkedList<Integer>();
-        Collection<Integer> referencingRelIDs = new LinkedList<Integer>();
-
-        //  read attributes
-        int recordCount = 0;
-        LinkedList<Tag> tagList = new LinkedList<Tag>();
-        while (true) {
-            // read attributes of current record
-            for (int a = 0; a < ATTRCOUNTPERRECORD; a++) {
-                Tag tag = null;
-                tag = readAttribute(mem, NUMTAGVALCHARS, tagList);
-                if (tag != null) {
-                    tagList.add(tag);
-                }
-            }
-
-            // read way-IDs
-            for (int a = 0; a < WAYREFCOUNTPERRECORD; a++) {
-                int wayID = mem.getInt();
-                if (wayID != Integer.MIN_VALUE) {
-                    referencingWayIDs.add(wayID);
-                }
-            }
-
-            // read relation-IDs
-            for (int a = 0; a < RELATIONREFCOUNTPERRECORD; a++) {
-                int relID = mem.getInt();
-                if (relID != Integer.MIN_VALUE) {
-                    referencingRelIDs.add(relID);
-                }
-            }
-            // check if the next record is for the same node
-            recordNr++;
-            if (recordNr >= getRecordCount()) {
-                break;
-            }
-            releaseRecord(mem);
-            recordCount++;
-            mem = getRecordForReading(recordNr);
-            int temp = mem.getInt();
-            if (temp != id) {
-                break;
-            }
-            temp = mem.getInt(); // skip version
-            if (temp != version) {
-                break;
-            }
-            //LOG.finest(getFileName() + " - node " + aNodeID + " - part " + recordCount + " reading from record " + recordNr + " (mem.positiion()=" + mem.position() + ")");
-            mem.getInt(); // skip lat
-            mem.getInt(); // skip lon
+        releaseRecord(mem);
+        NodeRecordView view = new NodeRecordView(this);
+        if (!view.moveTo(recordNr)) {
+            return null;
         }
+        return readNode(view);
+    }
 
-        ExtendedNode retval = new ExtendedNode(id, version, 0, lat, lon, tagList);
-        for (Integer referencingWayID : referencingWayIDs) {
-            retval.addReferencedWay(referencingWayID);
+    /**
+     * Create a node from the records a view is at.
+     * @param aView the view moved to the node
+     * @return the node
+     * @throws IOException if we cannot read the records
+     */
+    private ExtendedNode readNode(final NodeRecordView aView) throws IOException {
+        LinkedList<Tag> tagList = new LinkedList<Tag>();
+        aView.readTags(tagList);
+        ExtendedNode retval = new ExtendedNode(aView.getID(), aView.getVersion(), 0,
+                aView.getLatitude(), aView.getLongitude(), tagList);
+        int wayCount = aView.getWayCount();
+        for (int i = 0; i < wayCount; i++) {
+            retval.addReferencedWay(aView.getWayID(i));
         }
-        for (Integer referencingRelID : referencingRelIDs) {
-            retval.addReferencedRelation(referencingRelID);
+        int relationCount = aView.getRelationCount();
+        for (int i = 0; i < relationCount; i++) {
+            retval.addReferencedRelation(aView.getRelationID(i));
         }
         return retval;
     }
 
+    /**
+     * @param aNodeID the node to look for
+     * @return the node from {@link #myNodeCache} or null (always null for read-only files)
+     */
+    private ExtendedNode getCachedNode(final long aNodeID) {
+        if (isReadOnly()) {
+            return null;
+        }
+        return this.myNodeCache.get(aNodeID);
+    }
+
     /**
      * @return my Index by location (may be null)
      */
@@ -33,11 +33,16 @@ package org.openstreetmap.osm.data.osmbin.v1_0;
 
 //automatically created logger for debug and error -output
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -49,6 +54,7 @@ import java.io.File;
 import java.io.IOException;
 
 import org.openstreetmap.osm.ConfigurationSection;
+import org.openstreetmap.osm.Settings;
 import org.openstreetmap.osm.Tags;
 import org.openstreetmap.osm.data.IDataSet;
 import org.openstreetmap.osm.data.Selector;
@@ -57,18 +63,25 @@ import org.openstreetmap.osm.data.coordinates.Bounds;
 import org.openstreetmap.osm.data.coordinates.LatLon;
 import org.openstreetmap.osm.data.osmbin.AttrNames;
 import org.openstreetmap.osm.data.osmbin.GeoIndexFile;
+import org.openstreetmap.osm.data.osmbin.DenseIDIndexFile;
 import org.openstreetmap.osm.data.osmbin.IDIndexFile;
 import org.openstreetmap.osm.data.osmbin.IGeoIndexFile;
 import org.openstreetmap.osm.data.osmbin.IIDIndexFile;
+import org.openstreetmap.osm.data.osmbin.IRecordNumberVisitor;
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
+import org.openstreetmap.osm.data.osmbin.PackedGeoIndexFile;
+import org.openstreetmap.osm.data.osmbin.TagIndexFile;
 import org.openstreetmap.osm.data.osmbin.v1_0.NodesFile;
 import org.openstreetmap.osm.data.osmbin.v1_0.RelationsFile;
 import org.openstreetmap.osm.data.osmbin.v1_0.WaysFile;
 import org.openstreetmap.osm.data.searching.NameHelper;
 
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
 import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.core.domain.v0_6.Relation;
 import org.openstreetmap.osmosis.core.domain.v0_6.RelationMember;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
 import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
 import org.openstreetmap.osmosis.core.util.FixedPrecisionCoordinateConvertor;
@@ -100,6 +113,24 @@ public class OsmBinDataSetV10 implements IDataSet {
      */
     private static final double SEARCHSTARTRADIUS = 0.0001d;
 
+    /**
+     * Setting to create new indice by ID as {@link DenseIDIndexFile}
+     * instead of {@link IDIndexFile}.
+     */
+    public static final String SETTINGS_DENSEIDINDEX = "osmbin.denseIDIndex";
+
+    /**
+     * Setting to let the {@link OsmBinV10Reindexer} build the 2D-index of nodes
+     * as a {@link PackedGeoIndexFile} instead of a {@link GeoIndexFile}.
+     */
+    public static final String SETTINGS_PACKEDGEOINDEX = "osmbin.packedGeoIndex";
+
+    /**
+     * Setting to create a {@link TagIndexFile} for nodes and ways
+     * in new maps and in the {@link OsmBinV10Reindexer}.
+     */
+    public static final String SETTINGS_TAGINDEX = "osmbin.tagIndex";
+
     /**
      * The directory where we expect the files as described in
      * <a href="http://wiki.openstreetmap.org/index.php/User:MarcusWolschon%5Cosmbin_draft">here</a>
@@ -107,18 +138,30 @@ public class OsmBinDataSetV10 implements IDataSet {
      */
     private File myDataDirectory;
 
+    /**
+     * The record-layout of the *.obm -files.
+     */
+    private final OsmBinFormat myFormat;
+
+    /**
+     * If true all files are opened read-only when we are created
+     * and all methods that read may be called by any number of
+     * threads concurrently.
+     */
+    private final boolean myReadOnly;
+
     /**
      * The nodes.obm -file.
      */
     private NodesFile nodesFile;
 
     /**
-     * The nodes.idx -file.
+     * The nodes.idx or nodes.didx -file.
      */
     private IIDIndexFile nodesIndex;
 
     /**
-     * The nodes.id2 -file.
+     * The nodes.id2 or nodes.pid2 -file.
      */
     private IGeoIndexFile nodes2DIndex;
 
@@ -128,9 +171,42 @@ public class OsmBinDataSetV10 implements IDataSet {
     private WaysFile waysFile;
 
     /**
-     * The ways.idx -file.
+     * The ways.idx or ways.didx -file.
      */
-    private IDIndexFile waysIndex;
+    private IIDIndexFile waysIndex;
+
+    /**
+     * The ways.pid2 -file. Maps the bounding-boxes of ways to their IDs.
+     * @see #getWaysBoundsIndex()
+     */
+    private PackedGeoIndexFile waysBoundsIndex;
+
+    /**
+     * True if we tried to open {@link #waysBoundsIndex} already.
+     */
+    private boolean waysBoundsIndexOpened;
+
+    /**
+     * The nodes.tix -file.
+     * @see #getNodesTagIndex()
+     */
+    private TagIndexFile nodesTagIndex;
+
+    /**
+     * True if we tried to open {@link #nodesTagIndex} already.
+     */
+    private boolean nodesTagIndexOpened;
+
+    /**
+     * The ways.tix -file.
+     * @see #getWaysTagIndex()
+     */
+    private TagIndexFile waysTagIndex;
+
+    /**
+     * True if we tried to open {@link #waysTagIndex} already.
+     */
+    private boolean waysTagIndexOpened;
 
     /**
      * The relations.obm -file.
@@ -138,9 +214,9 @@ public class OsmBinDataSetV10 implements IDataSet {
     private RelationsFile relationsFile;
 
     /**
-     * The relations.idx -file.
+     * The relations.idx or relations.didx -file.
      */
-    private IDIndexFile relationsIndex;
+    private IIDIndexFile relationsIndex;
 
     /**
      * The attrnames.txt -file.
@@ -153,8 +229,68 @@ public class OsmBinDataSetV10 implements IDataSet {
      * @param aDataDirectory the directory with our data.
      */
     public OsmBinDataSetV10(final File aDataDirectory) {
+        this(aDataDirectory, OsmBinFormat.V1_1);
+    }
+
+    /**
+     * The given directory and the expected files
+     * in it are created if they do not exist.
+     * @param aDataDirectory the directory with our data.
+     * @param aFormat the record-layout of the *.obm -files
+     */
+    public OsmBinDataSetV10(final File aDataDirectory, final OsmBinFormat aFormat) {
+        super();
+        this.myFormat = aFormat;
+        this.myReadOnly = false;
+        setDataDirectory(aDataDirectory);
+    }
+
+    /**
+     * In read-only mode all files are memory-mapped read-only
+     * right away and no caches are used, so any number of threads
+     * may read concurrently without locking.
+     * Methods that modify the data throw an {@link IllegalStateException}.
+     * @param aDataDirectory the directory with our data.
+     * @param aFormat the record-layout of the *.obm -files
+     * @param aReadOnly open all files read-only
+     * @throws IOException if we cannot open the files
+     */
+    public OsmBinDataSetV10(final File aDataDirectory, final OsmBinFormat aFormat,
+                            final boolean aReadOnly) throws IOException {
         super();
+        this.myFormat = aFormat;
+        this.myReadOnly = aReadOnly;
         setDataDirectory(aDataDirectory);
+        if (aReadOnly) {
+            getNodesFile();
+            getWaysFile();
+            getWaysBoundsIndex();
+            getRelationsFile();
+        }
+    }
+
+    /**
+     * @return true if all files are opened read-only
+     */
+    public boolean isReadOnly() {
+        return myReadOnly;
+    }
+
+    /**
+     * @throws IllegalStateException if we are read-only
+     */
+    private void checkWritable() {
+        if (isReadOnly()) {
+            throw new IllegalStateException("osmbin-directory "
+                    + getDataDirectory().getAbsolutePath() + " is opened read-only");
+        }
+    }
+
+    /**
+     * @return the record-layout of the *.obm -files
+     */
+    public OsmBinFormat getFormat() {
+        return myFormat;
     }
 
 
@@ -163,13 +299,17 @@ public class OsmBinDataSetV10 implements IDataSet {
      * @param aWay the way to add
      */
     public void addWay(final Way aWay) {
+        checkWritable();
         try {
             WaysFile ways = getWaysFile();
             ExtendedWay way = null;
+            ExtendedWay existingWay = null;
             if (aWay instanceof ExtendedWay) {
                 way = (ExtendedWay) aWay;
+                if (getWaysBoundsIndex() != null || getWaysTagIndex() != null) {
+                    existingWay = ways.readWay(aWay.getId());
+                }
             } else {
-                ExtendedWay existingWay = null;
                 try {
                     existingWay = ways.readWay(aWay.getId());
                     if (existingWay != null && existingWay.getVersion() > aWay.getVersion()) {
@@ -191,8 +331,8 @@ public class OsmBinDataSetV10 implements IDataSet {
             NodesFile nodes = getNodesFile();
             double minLat = Double.MAX_VALUE;
             double minLon = Double.MAX_VALUE;
-            double maxLat = Double.MIN_VALUE;
-            double maxLon = Double.MIN_VALUE;
+            double maxLat = -Double.MAX_VALUE;
+            double maxLon = -Double.MAX_VALUE;
             List<WayNode> wayNodes = way.getWayNodes();
             for (WayNode wayNode : wayNodes) {
                 long nodeRecordNumber = nodes.findRecordForNode(wayNode.getNodeId());
@@ -222,6 +362,8 @@ public class OsmBinDataSetV10 implements IDataSet {
             way.setMinLongitude(minLon);
             way.setMaxLongitude(maxLon);
             ways.writeWay(way);
+            updateWaysBoundsIndex(existingWay, way);
+            updateTagIndex(getWaysTagIndex(), existingWay, way);
         } catch (IOException e) {
             LOG.log(Level.SEVERE, "[IOException] Problem in "
                        + getClass().getName(),
@@ -238,6 +380,7 @@ public class OsmBinDataSetV10 implements IDataSet {
      */
     @Override
     public void addRelation(final Relation aRelation) {
+        checkWritable();
         try {
             RelationsFile relations = getRelationsFile();
             WaysFile ways = getWaysFile();
@@ -307,14 +450,18 @@ public class OsmBinDataSetV10 implements IDataSet {
      * @param aNode the way to add
      */
     public void addNode(final Node aNode) {
+        checkWritable();
         try {
             ExtendedNode node = null;
             NodesFile nodes = getNodesFile();
             long recordNR = nodes.findRecordForNode(aNode.getId());
+            ExtendedNode existingNode = null;
             if (aNode instanceof ExtendedNode) {
                 node = (ExtendedNode) aNode;
+                if (getNodesTagIndex() != null || getWaysBoundsIndex() != null) {
+                    existingNode = nodes.readNode(aNode.getId(), recordNR);
+                }
             } else {
-                ExtendedNode existingNode = null;
                 try {
                     existingNode = nodes.readNode(aNode.getId(), recordNR);
                     if (existingNode != null && existingNode.getVersion() > aNode.getVersion()) {
@@ -335,6 +482,14 @@ public class OsmBinDataSetV10 implements IDataSet {
                 }
             }
             nodes.writeNode(node, recordNR);
+            updateTagIndex(getNodesTagIndex(), existingNode, node);
+            if (existingNode != null
+                && (existingNode.getLatitude() != node.getLatitude()
+                    || existingNode.getLongitude() != node.getLongitude())) {
+                for (Long wayID : node.getReferencedWayIDs()) {
+                    updateWayBounds(wayID, node);
+                }
+            }
         } catch (Exception e) {
             LOG.log(Level.SEVERE, "[Exception] Problem in "
                        + getClass().getName(),
@@ -434,10 +589,16 @@ public class OsmBinDataSetV10 implements IDataSet {
      * @param aWay may be null (ignored then)
      */
     public void removeWay(final Way aWay) {
+        checkWritable();
         try {
             WaysFile ways = getWaysFile();
             NodesFile nodes = getNodesFile();
+            ExtendedWay existingWay = null;
+            if (getWaysBoundsIndex() != null) {
+                existingWay = ways.readWay(aWay.getId());
+            }
             ways.removeWay(aWay);
+            updateWaysBoundsIndex(existingWay, null);
             for (WayNode wayNode : aWay.getWayNodes()) {
                 long recordNr = nodes.findRecordForNode(wayNode.getNodeId());
                 ExtendedNode node = nodes.readNode(wayNode.getNodeId(), recordNr);
@@ -459,6 +620,7 @@ public class OsmBinDataSetV10 implements IDataSet {
      * @param w node be null (ignored then)
      */
     public void removeNode(final Node w) {
+        checkWritable();
         try {
             NodesFile nodes = getNodesFile();
             Iterator<Way> waysForNode = getWaysForNode(w.getId());
@@ -685,6 +847,41 @@ public class OsmBinDataSetV10 implements IDataSet {
             }
             this.relationsIndex = null;
         }
+        if (this.nodes2DIndex != null) {
+            try {
+                this.nodes2DIndex.close();
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "Cannot close nodes-2Dindex", e);
+            }
+            this.nodes2DIndex = null;
+        }
+        if (this.waysBoundsIndex != null) {
+            try {
+                this.waysBoundsIndex.close();
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "Cannot close ways-bounds-index", e);
+            }
+            this.waysBoundsIndex = null;
+        }
+        this.waysBoundsIndexOpened = false;
+        if (this.nodesTagIndex != null) {
+            try {
+                this.nodesTagIndex.close();
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "Cannot close nodes.tix", e);
+            }
+            this.nodesTagIndex = null;
+        }
+        this.nodesTagIndexOpened = false;
+        if (this.waysTagIndex != null) {
+            try {
+                this.waysTagIndex.close();
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "Cannot close ways.tix", e);
+            }
+            this.waysTagIndex = null;
+        }
+        this.waysTagIndexOpened = false;
         PropertyChangeSupport propertyChangeFirer = getPropertyChangeSupport();
         if (propertyChangeFirer != null) {
             propertyChangeFirer.firePropertyChange("aDataDirectory", old,
@@ -711,7 +908,9 @@ public class OsmBinDataSetV10 implements IDataSet {
      */
     protected NodesFile getNodesFile() throws IOException {
         if (this.nodesFile == null) {
-            this.nodesFile = new NodesFile(new File(getDataDirectory(), "nodes.obm"), getAttrNamesFile(), getNodesIndex(),  getNodes2DIndex());
+            // the tag-index needs to know if nodes.obm is new
+            getNodesTagIndex();
+            this.nodesFile = new NodesFile(new File(getDataDirectory(), "nodes.obm"), getFormat(), isReadOnly(), getAttrNamesFile(), getNodesIndex(),  getNodes2DIndex());
         }
         return this.nodesFile;
     }
@@ -719,24 +918,102 @@ public class OsmBinDataSetV10 implements IDataSet {
 
 
 
+    /**
+     * Open the index by ID of an .obm -file.<br/>
+     * An existing NAME.didx -file is used as a {@link DenseIDIndexFile},
+     * else an existing NAME.idx -file as an {@link IDIndexFile}.
+     * New indice are created as {@link DenseIDIndexFile} unless
+     * {@link #SETTINGS_DENSEIDINDEX} is false.
+     * The format is assumed to be {@link OsmBinFormat#V1_1}.
+     * @param aDirectory the directory with the osmbin-data
+     * @param aName "nodes", "ways" or "relations"
+     * @return the index
+     * @throws IOException if we cannot open or create the file
+     */
+    static IIDIndexFile openIDIndex(final File aDirectory, final String aName) throws IOException {
+        return openIDIndex(aDirectory, aName, OsmBinFormat.V1_1, false);
+    }
+
+    /**
+     * Open the index by ID of an .obm -file as in {@link #openIDIndex(File, String)}.
+     * New indice of formats that {@link OsmBinFormat#isDenseIDIndexRequired()}
+     * are always created as {@link DenseIDIndexFile}.
+     * @param aDirectory the directory with the osmbin-data
+     * @param aName "nodes", "ways" or "relations"
+     * @param aFormat the format of the osmbin-data
+     * @param aReadOnly open the index read-only. A missing index is treated as empty.
+     * @return the index
+     * @throws IOException if we cannot open or create the file
+     */
+    static IIDIndexFile openIDIndex(final File aDirectory, final String aName,
+                                    final OsmBinFormat aFormat,
+                                    final boolean aReadOnly) throws IOException {
+        File dense = new File(aDirectory, aName + ".didx");
+        File tree = new File(aDirectory, aName + ".idx");
+        if (dense.exists() || (!tree.exists()
+                && (aReadOnly || aFormat.isDenseIDIndexRequired() || isDenseIDIndexEnabled()))) {
+            return new DenseIDIndexFile(dense, aReadOnly);
+        }
+        if (aFormat.isDenseIDIndexRequired() && !aReadOnly) {
+            LOG.warning("The index " + tree.getName() + " in " + aDirectory.getAbsolutePath()
+                    + " cannot store IDs above " + Integer.MAX_VALUE
+                    + ". Run the OsmBinV10Reindexer to replace it with " + dense.getName() + ".");
+        }
+        return new IDIndexFile(tree, aReadOnly);
+    }
+
+    /**
+     * @return true if new indice by ID shall be {@link DenseIDIndexFile}s.
+     *         Ignored for formats that {@link OsmBinFormat#isDenseIDIndexRequired()}.
+     * @see #SETTINGS_DENSEIDINDEX
+     */
+    static boolean isDenseIDIndexEnabled() {
+        return Settings.getInstance().getBoolean(SETTINGS_DENSEIDINDEX, true);
+    }
+
     /**
      * @return the nodes-index by ID.
      * @throws IOException if we cannot create the file (if needed to).
      */
     protected IIDIndexFile getNodesIndex() throws IOException {
         if (this.nodesIndex == null) {
-            this.nodesIndex = new IDIndexFile(new File(getDataDirectory(), "nodes.idx"));
+            this.nodesIndex = openIDIndex(getDataDirectory(), "nodes", getFormat(), isReadOnly());
         }
         return this.nodesIndex;
     }
 
     /**
-     * @return the nodes-index by ID.
+     * @return true if the {@link OsmBinV10Reindexer} shall build a {@link PackedGeoIndexFile}.
+     * @see #SETTINGS_PACKEDGEOINDEX
+     */
+    static boolean isPackedGeoIndexEnabled() {
+        return Settings.getInstance().getBoolean(SETTINGS_PACKEDGEOINDEX, true);
+    }
+
+    /**
+     * Open the 2D-index of nodes.<br/>
+     * An existing nodes.pid2 -file is used as a {@link PackedGeoIndexFile},
+     * else nodes.id2 as a {@link GeoIndexFile}.
+     * @param aDirectory the directory with the osmbin-data
+     * @param aReadOnly open the index read-only. A missing index is treated as empty.
+     * @return the index
+     * @throws IOException if we cannot open or create the file
+     */
+    static IGeoIndexFile openGeoIndex(final File aDirectory, final boolean aReadOnly) throws IOException {
+        File packed = new File(aDirectory, "nodes.pid2");
+        if (packed.exists()) {
+            return new PackedGeoIndexFile(packed, aReadOnly);
+        }
+        return new GeoIndexFile(new File(aDirectory, "nodes.id2"), aReadOnly);
+    }
+
+    /**
+     * @return the nodes-index by location.
      * @throws IOException if we cannot create the file (if needed to).
      */
     protected IGeoIndexFile getNodes2DIndex() throws IOException {
         if (this.nodes2DIndex == null) {
-            this.nodes2DIndex = new GeoIndexFile(new File(getDataDirectory(), "nodes.id2"));
+            this.nodes2DIndex = openGeoIndex(getDataDirectory(), isReadOnly());
         }
         return this.nodes2DIndex;
     }
@@ -748,7 +1025,10 @@ public class OsmBinDataSetV10 implements IDataSet {
      */
     protected WaysFile getWaysFile() throws IOException {
         if (this.waysFile == null) {
-            this.waysFile = new WaysFile(new File(getDataDirectory(), "ways.obm"), getAttrNamesFile(), getWaysIndex());
+            // the index of the bounding-boxes and the tag-index need to know if ways.obm is new
+            getWaysBoundsIndex();
+            getWaysTagIndex();
+            this.waysFile = new WaysFile(new File(getDataDirectory(), "ways.obm"), getFormat(), isReadOnly(), getAttrNamesFile(), getWaysIndex());
         }
         return this.waysFile;
     }
@@ -760,13 +1040,301 @@ public class OsmBinDataSetV10 implements IDataSet {
      * @return the ways-index by ID.
      * @throws IOException if we cannot create the file (if needed to).
      */
-    protected IDIndexFile getWaysIndex() throws IOException {
+    protected IIDIndexFile getWaysIndex() throws IOException {
         if (this.waysIndex == null) {
-            this.waysIndex = new IDIndexFile(new File(getDataDirectory(), "ways.idx"));
+            this.waysIndex = openIDIndex(getDataDirectory(), "ways", getFormat(), isReadOnly());
         }
         return this.waysIndex;
     }
 
+    /**
+     * The index of the bounding-boxes of ways is created for new maps
+     * and kept up to date by {@link #addWay(Way)}, {@link #removeWay(Way)}
+     * and {@link #addNode(Node)} if a node of a way moves.
+     * For existing maps it is created by the {@link OsmBinV10Reindexer}.
+     * @return the index of the bounding-boxes of ways (ways.pid2)
+     *         or null if there is none or it is not up to date
+     * @throws IOException if we cannot open the file
+     */
+    protected PackedGeoIndexFile getWaysBoundsIndex() throws IOException {
+        if (!this.waysBoundsIndexOpened) {
+            this.waysBoundsIndexOpened = true;
+            File file = new File(getDataDirectory(), "ways.pid2");
+            if (file.exists()
+                || (!isReadOnly() && new File(getDataDirectory(), "ways.obm").length() == 0)) {
+                this.waysBoundsIndex = new PackedGeoIndexFile(file, isReadOnly());
+            } else {
+                LOG.info("There is no index of the bounding-boxes of ways in "
+                        + getDataDirectory().getAbsolutePath()
+                        + ". Run the OsmBinV10Reindexer to create it.");
+            }
+        }
+        if (this.waysBoundsIndex != null && this.waysBoundsIndex.isStale()) {
+            return null;
+        }
+        return this.waysBoundsIndex;
+    }
+
+    /**
+     * Recalculate the stored bounding-box of a way after one of its nodes moved.
+     * @param aWayID the way to update
+     * @param aMovedNode the node with its new location (already written)
+     * @throws IOException if we cannot read or write the way
+     */
+    private void updateWayBounds(final long aWayID, final ExtendedNode aMovedNode) throws IOException {
+        WaysFile ways = getWaysFile();
+        ExtendedWay way = ways.readWay(aWayID);
+        if (way == null) {
+            return;
+        }
+        int[] oldBounds = getFixedBounds(way);
+        NodesFile nodes = getNodesFile();
+        double minLat = Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE;
+        for (WayNode wayNode : way.getWayNodes()) {
+            Node node = aMovedNode;
+            if (wayNode.getNodeId() != aMovedNode.getId()) {
+                long nodeRecordNumber = nodes.findRecordForNode(wayNode.getNodeId());
+                if (nodeRecordNumber < 0) {
+                    continue; // we don't have this node in our db
+                }
+                node = nodes.readNode(wayNode.getNodeId(), nodeRecordNumber);
+                if (node == null) {
+                    continue;
+                }
+            }
+            minLat = Math.min(minLat, node.getLatitude());
+            maxLat = Math.max(maxLat, node.getLatitude());
+            minLon = Math.min(minLon, node.getLongitude());
+            maxLon = Math.max(maxLon, node.getLongitude());
+        }
+        way.setMinLatitude(minLat);
+        way.setMaxLatitude(maxLat);
+        way.setMinLongitude(minLon);
+        way.setMaxLongitude(maxLon);
+        int[] newBounds = getFixedBounds(way);
+        if (Arrays.equals(oldBounds, newBounds)) {
+            return;
+        }
+        ways.writeWay(way);
+        updateWaysBoundsIndex(aWayID, oldBounds, newBounds);
+    }
+
+    /**
+     * Replace the bounding-box of a way in the index of the bounding-boxes of ways.
+     * If this fails the index is marked as not up to date.
+     * @param anOldWay the way as stored before (may be null)
+     * @param aNewWay the way as stored now (null if it was removed)
+     */
+    private void updateWaysBoundsIndex(final ExtendedWay anOldWay, final ExtendedWay aNewWay) {
+        long wayID = 0;
+        if (anOldWay != null) {
+            wayID = anOldWay.getId();
+        } else if (aNewWay != null) {
+            wayID = aNewWay.getId();
+        }
+        updateWaysBoundsIndex(wayID, getFixedBounds(anOldWay), getFixedBounds(aNewWay));
+    }
+
+    /**
+     * Replace the bounding-box of a way in the index of the bounding-boxes of ways.
+     * If this fails the index is marked as not up to date.
+     * @param aWayID the way
+     * @param anOldBounds the bounding-box as indexed before (may be null)
+     * @param aNewBounds the bounding-box to index now (null if the way was removed)
+     * @see #getFixedBounds(ExtendedWay)
+     */
+    private void updateWaysBoundsIndex(final long aWayID, final int[] anOldBounds, final int[] aNewBounds) {
+        if (Arrays.equals(anOldBounds, aNewBounds)) {
+            return;
+        }
+        PackedGeoIndexFile index = null;
+        try {
+            index = getWaysBoundsIndex();
+            if (index == null) {
+                return;
+            }
+            if (anOldBounds != null) {
+                index.remove(aWayID, anOldBounds[0], anOldBounds[1], anOldBounds[2], anOldBounds[2 + 1]);
+            }
+            if (aNewBounds != null) {
+                index.put(aWayID, aNewBounds[0], aNewBounds[1], aNewBounds[2], aNewBounds[2 + 1]);
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Cannot update the index of the bounding-boxes of ways. "
+                    + "It will not be used until the OsmBinV10Reindexer has been run.", e);
+            if (index != null) {
+                try {
+                    index.setStale();
+                } catch (IOException e1) {
+                    LOG.log(Level.SEVERE, "Cannot mark the index of the bounding-boxes of ways as stale.", e1);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param aWay a way (may be null)
+     * @return minLat, minLon, maxLat, maxLon as fixed precision integers
+     *         or null if the way has no bounding-box
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    private static int[] getFixedBounds(final ExtendedWay aWay) {
+        if (aWay == null
+            || aWay.getMinLatitude() > aWay.getMaxLatitude()
+            || aWay.getMinLongitude() > aWay.getMaxLongitude()) {
+            return null;
+        }
+        return new int[] {
+                FixedPrecisionCoordinateConvertor.convertToFixed(aWay.getMinLatitude()),
+                FixedPrecisionCoordinateConvertor.convertToFixed(aWay.getMinLongitude()),
+                FixedPrecisionCoordinateConvertor.convertToFixed(aWay.getMaxLatitude()),
+                FixedPrecisionCoordinateConvertor.convertToFixed(aWay.getMaxLongitude())};
+    }
+
+    /**
+     * @return true if new maps and the {@link OsmBinV10Reindexer} shall create {@link TagIndexFile}s.
+     * @see #SETTINGS_TAGINDEX
+     */
+    static boolean isTagIndexEnabled() {
+        return Settings.getInstance().getBoolean(SETTINGS_TAGINDEX, true);
+    }
+
+    /**
+     * @return the tag-index of nodes (nodes.tix) or null if there is none or it is not up to date
+     * @throws IOException if we cannot open the file
+     * @see #openTagIndex(String)
+     */
+    protected TagIndexFile getNodesTagIndex() throws IOException {
+        if (!this.nodesTagIndexOpened) {
+            this.nodesTagIndexOpened = true;
+            this.nodesTagIndex = openTagIndex("nodes");
+        }
+        if (this.nodesTagIndex != null && this.nodesTagIndex.isStale()) {
+            return null;
+        }
+        return this.nodesTagIndex;
+    }
+
+    /**
+     * @return the tag-index of ways (ways.tix) or null if there is none or it is not up to date
+     * @throws IOException if we cannot open the file
+     * @see #openTagIndex(String)
+     */
+    protected TagIndexFile getWaysTagIndex() throws IOException {
+        if (!this.waysTagIndexOpened) {
+            this.waysTagIndexOpened = true;
+            this.waysTagIndex = openTagIndex("ways");
+        }
+        if (this.waysTagIndex != null && this.waysTagIndex.isStale()) {
+            return null;
+        }
+        return this.waysTagIndex;
+    }
+
+    /**
+     * A tag-index is created for new maps and kept up to date by
+     * {@link #addNode(Node)} and {@link #addWay(Way)}.
+     * For existing maps it is created by the {@link OsmBinV10Reindexer}.
+     * @param aName "nodes" or "ways"
+     * @return the tag-index or null if there is none
+     * @throws IOException if we cannot open the file
+     */
+    private TagIndexFile openTagIndex(final String aName) throws IOException {
+        File file = new File(getDataDirectory(), aName + ".tix");
+        if (file.exists()
+            || (!isReadOnly() && isTagIndexEnabled()
+                && new File(getDataDirectory(), aName + ".obm").length() == 0)) {
+            return new TagIndexFile(file, isReadOnly());
+        }
+        LOG.info("There is no tag-index of " + aName + " in "
+                + getDataDirectory().getAbsolutePath()
+                + ". Run the OsmBinV10Reindexer to create it.");
+        return null;
+    }
+
+    /**
+     * Add the tags an entity did not have before to a tag-index.
+     * Tags it no longer has are left in the index and filtered
+     * when looking them up.
+     * If this fails the index is marked as not up to date.
+     * @param anIndex the tag-index (may be null)
+     * @param anOldEntity the entity as stored before (may be null)
+     * @param aNewEntity the entity as stored now
+     */
+    private void updateTagIndex(final TagIndexFile anIndex, final Entity anOldEntity, final Entity aNewEntity) {
+        if (anIndex == null) {
+            return;
+        }
+        try {
+            Set<Long> oldTerms = new HashSet<Long>();
+            if (anOldEntity != null) {
+                oldTerms = getTerms(anOldEntity);
+            }
+            for (Long term : getTerms(aNewEntity)) {
+                if (!oldTerms.contains(term)) {
+                    anIndex.put(term, aNewEntity.getId());
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Cannot update the tag-index " + anIndex.getFileName().getName()
+                    + ". It will not be used until the OsmBinV10Reindexer has been run.", e);
+            try {
+                anIndex.setStale();
+            } catch (IOException e1) {
+                LOG.log(Level.SEVERE, "Cannot mark the tag-index as stale.", e1);
+            }
+        }
+    }
+
+    /**
+     * @param anEntity a node or way
+     * @return the terms of all it's tags in a {@link TagIndexFile}
+     * @throws IOException if we cannot read attrnames.txt
+     */
+    private Set<Long> getTerms(final Entity anEntity) throws IOException {
+        Set<Long> retval = new HashSet<Long>();
+        for (Tag tag : anEntity.getTags()) {
+            short key = getAttrNamesFile().getKey(tag.getKey());
+            if (key != Short.MIN_VALUE) {
+                retval.add(TagIndexFile.getTerm(key, tag.getValue()));
+                retval.add(TagIndexFile.getTerm(key, null));
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Look up a tag in a tag-index.
+     * @param anIndex the tag-index
+     * @param aKey the key of the tag
+     * @param aValue the value of the tag or null for any value
+     * @param aVisitor called with the IDs of all entities that may have the tag
+     * @throws IOException if we cannot read the index
+     */
+    private void visitTagIndex(final TagIndexFile anIndex, final String aKey, final String aValue,
+                               final IRecordNumberVisitor aVisitor) throws IOException {
+        short key = getAttrNamesFile().getKey(aKey);
+        if (key == Short.MIN_VALUE) {
+            // no entity has a tag with this key
+            return;
+        }
+        anIndex.visit(TagIndexFile.getTerm(key, aValue), aVisitor);
+    }
+
+    /**
+     * @param anEntity the entity found in a tag-index
+     * @param aKey the key of the tag
+     * @param aValue the value of the tag or null for any value
+     * @return true if the entity really has the tag
+     */
+    private static boolean hasTag(final Entity anEntity, final String aKey, final String aValue) {
+        String value = WayHelper.getTag(anEntity, aKey);
+        return value != null && (aValue == null || value.equals(aValue));
+    }
+
     /**
      * @return Returns the relationsFile.
      * @throws IOException if we cannot create the file (if needed to).
@@ -774,7 +1342,7 @@ public class OsmBinDataSetV10 implements IDataSet {
      */
     protected RelationsFile getRelationsFile() throws IOException {
         if (this.relationsFile == null) {
-            this.relationsFile = new RelationsFile(new File(getDataDirectory(), "relations.obm"), getAttrNamesFile(), getRelationsIndex());
+            this.relationsFile = new RelationsFile(new File(getDataDirectory(), "relations.obm"), getFormat(), isReadOnly(), getAttrNamesFile(), getRelationsIndex());
         }
         return this.relationsFile;
     }
@@ -786,9 +1354,9 @@ public class OsmBinDataSetV10 implements IDataSet {
      * @return the relations-index by ID.
      * @throws IOException if we cannot create the file (if needed to).
      */
-    protected IDIndexFile getRelationsIndex() throws IOException {
+    protected IIDIndexFile getRelationsIndex() throws IOException {
         if (this.relationsIndex == null) {
-            this.relationsIndex = new IDIndexFile(new File(getDataDirectory(), "relations.idx"));
+            this.relationsIndex = openIDIndex(getDataDirectory(), "relations", getFormat(), isReadOnly());
         }
         return this.relationsIndex;
     }
@@ -824,27 +1392,7 @@ public class OsmBinDataSetV10 implements IDataSet {
                     FixedPrecisionCoordinateConvertor.convertToFixed(aLastGPSPos.lon() - radius),
                     FixedPrecisionCoordinateConvertor.convertToFixed(aLastGPSPos.lat() + radius),
                     FixedPrecisionCoordinateConvertor.convertToFixed(aLastGPSPos.lon() + radius));
-            double minDist = Double.MAX_VALUE;
-            Node minDistNode = null;
-            for (Long nodeRecord : nodes) {
-                if (nodeRecord == null || nodeRecord.longValue() == Long.MIN_VALUE) {
-                    continue;
-                }
-                Node node = getNodesFile().readNode(Long.MIN_VALUE, nodeRecord);
-                if (aSelector != null && !aSelector.isAllowed(this, node))
-                    continue;
-                if (node == null) {
-                    LOG.severe("node with record-number " + nodeRecord + " returned byy 2D-index does not exist");
-                    continue;
-                }
-                LatLon pos = new LatLon(node.getLatitude(), node.getLongitude());
-                double dist = pos.distance(aLastGPSPos);
-
-                if (dist < minDist) {
-                    minDist = dist;
-                    minDistNode = node;
-                }
-            }
+            Node minDistNode = getNearestNode(nodes, aLastGPSPos, aSelector);
             if (minDistNode != null) {
                 return minDistNode;
             }
@@ -854,25 +1402,7 @@ public class OsmBinDataSetV10 implements IDataSet {
                         FixedPrecisionCoordinateConvertor.convertToFixed(aLastGPSPos.lon() - radius),
                         FixedPrecisionCoordinateConvertor.convertToFixed(aLastGPSPos.lat() + radius),
                         FixedPrecisionCoordinateConvertor.convertToFixed(aLastGPSPos.lon() + radius));
-                for (Long nodeRecord : nodes) {
-                    if (nodeRecord == null || nodeRecord.longValue() == Long.MIN_VALUE) {
-                        continue;
-                    }
-                    Node node = getNodesFile().readNode(Long.MIN_VALUE, nodeRecord);
-                    if (aSelector != null && !aSelector.isAllowed(this, node))
-                        continue;
-                    if (node == null) {
-                        LOG.severe("node with record-number " + nodeRecord + " returned byy 2D-index does not exist");
-                        continue;
-                    }
-                    LatLon pos = new LatLon(node.getLatitude(), node.getLongitude());
-                    double dist = pos.distance(aLastGPSPos);
-
-                    if (dist < minDist) {
-                        minDist = dist;
-                        minDistNode = node;
-                    }
-                }
+                minDistNode = getNearestNode(nodes, aLastGPSPos, aSelector);
                 if (minDistNode != null) {
                     return minDistNode;
                 }
@@ -883,6 +1413,47 @@ public class OsmBinDataSetV10 implements IDataSet {
         return null;
     }
 
+    /**
+     * Find the nearest of the given nodes.
+     * The location of each node is read via a {@link NodeRecordView}.
+     * Only nodes nearer than the best one so far are read
+     * completely to ask the selector.
+     * @param aNodeRecords the record-numbers of the nodes to look at
+     * @param aLastGPSPos the location to look for
+     * @param aSelector may be null
+     * @return the nearest allowed node or null
+     * @throws IOException if we cannot read the nodes
+     */
+    private Node getNearestNode(final Set<Long> aNodeRecords, final LatLon aLastGPSPos, final Selector aSelector) throws IOException {
+        NodesFile nodesFile = getNodesFile();
+        NodeRecordView view = new NodeRecordView(nodesFile);
+        double minDist = Double.MAX_VALUE;
+        Node minDistNode = null;
+        for (Long nodeRecord : aNodeRecords) {
+            if (nodeRecord == null || nodeRecord.longValue() == Long.MIN_VALUE) {
+                continue;
+            }
+            if (!view.moveTo(nodeRecord)) {
+                LOG.severe("node with record-number " + nodeRecord + " returned byy 2D-index does not exist");
+                continue;
+            }
+            double dist = LatLon.distance(view.getLatitude(), view.getLongitude(),
+                    aLastGPSPos.lat(), aLastGPSPos.lon());
+            if (dist >= minDist) {
+                continue;
+            }
+            Node node = nodesFile.readNode(Long.MIN_VALUE, nodeRecord);
+            if (node == null) {
+                continue;
+            }
+            if (aSelector != null && !aSelector.isAllowed(this, node)) {
+                continue;
+            }
+            minDist = dist;
+            minDistNode = node;
+        }
+        return minDistNode;
+    }
 
     /**
      * {@inheritDoc}
@@ -902,26 +1473,33 @@ public class OsmBinDataSetV10 implements IDataSet {
                 LOG.log(Level.SEVERE, "Geo-indexing not implemented yet, getNodes(bounds) returns null");
                 return new LinkedList<Node>().iterator();
             }
-            Set<Long> nodeRecords = geoIndex.get(FixedPrecisionCoordinateConvertor.convertToFixed(bounds.getMin().lat()),
-                    FixedPrecisionCoordinateConvertor.convertToFixed(bounds.getMin().lon()),
-                    FixedPrecisionCoordinateConvertor.convertToFixed(bounds.getMax().lat()),
-                    FixedPrecisionCoordinateConvertor.convertToFixed(bounds.getMax().lon()));
-            Map<Long, Node> retval = new HashMap<Long, Node>();
-            NodesFile nodes = getNodesFile();
-            for (Long nodeRecord : nodeRecords) {
-                if (nodeRecord == null || nodeRecord.longValue() == Long.MIN_VALUE) {
-                    continue;
-                }
-                Node node = nodes.readNode(Long.MIN_VALUE, nodeRecord.longValue());
-                if (node != null) {
-                    if (node.getId() == Integer.MIN_VALUE) {
-                        LOG.severe("bounding-box-query to nodes-file returned a now-empty node-record");
-                    } else {
-                        retval.put(node.getId(), node);
+            final NodesFile nodes = getNodesFile();
+            final RecordNumberSource records = query(geoIndex, bounds);
+            return new LazyIterator<Node>() {
+                /**
+                 * The node-records already returned.
+                 */
+                private final BitSet mySeen = new BitSet();
+
+                @Override
+                protected Node fetchNext() throws IOException {
+                    for (long record = records.nextRecordNumber(); record != Long.MIN_VALUE;
+                         record = records.nextRecordNumber()) {
+                        if (!isFirstVisit(mySeen, record)) {
+                            continue;
+                        }
+                        Node node = nodes.readNode(Long.MIN_VALUE, record);
+                        if (node != null) {
+                            if (node.getId() == Integer.MIN_VALUE) {
+                                LOG.severe("bounding-box-query to nodes-file returned a now-empty node-record");
+                            } else {
+                                return node;
+                            }
+                        }
                     }
+                    return null;
                 }
-            }
-            return retval.values().iterator();
+            };
         } catch (IOException e) {
             LOG.log(Level.SEVERE, "Cannot get nodes by geographic bounds.", e);
             return new LinkedList<Node>().iterator();
@@ -943,6 +1521,28 @@ public class OsmBinDataSetV10 implements IDataSet {
      */
     @Override
     public Iterator<Node> getNodesByTag(final String aKey, final String aValue) {
+        try {
+            TagIndexFile index = getNodesTagIndex();
+            if (index != null) {
+                final NodesFile nodes = getNodesFile();
+                final Map<Long, Node> found = new LinkedHashMap<Long, Node>();
+                visitTagIndex(index, aKey, aValue, new IRecordNumberVisitor() {
+                    public boolean visit(final long aNodeID) throws IOException {
+                        if (!found.containsKey(aNodeID)) {
+                            Node node = nodes.readNode(aNodeID);
+                            if (node != null && hasTag(node, aKey, aValue)) {
+                                found.put(aNodeID, node);
+                            }
+                        }
+                        return true;
+                    }
+                });
+                return found.values().iterator();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Cannot get nodes by the tag-index. "
+                    + "Scanning all nodes instead.", e);
+        }
         LinkedList<Node> retval = new LinkedList<Node>();
         Iterator<Node> nodes = this.getNodes(Bounds.WORLD);
         while (nodes.hasNext()) {
@@ -1027,57 +1627,298 @@ public class OsmBinDataSetV10 implements IDataSet {
             LOG.log(Level.SEVERE, "Cannot get all ways", e);
             return new LinkedList<Way>().iterator();
         }
-        Iterator<Node> nodes = getNodes(bounds);
-        Map<Long, Way> retval = new HashMap<Long, Way>();
-        int nodesCount = 0;
-        int nodesWithWithWaysCount = 0;
-        while (nodes.hasNext()) {
-            Node node = nodes.next();
-            nodesCount++;
-            try {
-                if (node instanceof ExtendedNode) {
-                    ExtendedNode nodeX = (ExtendedNode) node;
-                    Set<Long> ways = nodeX.getReferencedWayIDs();
-                    for (Long wayID : ways) {
-                        Way way = getWaysByID(wayID);
-                        if (way == null) {
-                            LOG.severe("ExtendedNode " + node.getId()
-                                    + " is referenced by a way "
+        try {
+            PackedGeoIndexFile waysIndex = getWaysBoundsIndex();
+            if (waysIndex != null) {
+                return getWaysByBoundsIndex(waysIndex, bounds);
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Cannot get ways by the index of their bounding-boxes. "
+                    + "Getting them by their nodes instead.", e);
+        }
+        final Iterator<Node> nodes = getNodes(bounds);
+        return new LazyIterator<Way>() {
+            /**
+             * The way-records already returned.
+             */
+            private final BitSet mySeen = new BitSet();
+
+            /**
+             * The ways of the current node not yet looked at.
+             */
+            private final LinkedList<Long> myWayIDs = new LinkedList<Long>();
+
+            @Override
+            protected Way fetchNext() throws IOException {
+                WaysFile ways = getWaysFile();
+                while (true) {
+                    while (!myWayIDs.isEmpty()) {
+                        long wayID = myWayIDs.removeFirst();
+                        long record = ways.findRecordForWay(wayID);
+                        if (record < 0) {
+                            LOG.severe("a node in bounds is referenced by a way "
                                     + wayID + " that does not exist ");
-                        } else {
-                            retval.put(way.getId(), way);
+                        } else if (isFirstVisit(mySeen, record)) {
+                            ExtendedWay way = ways.readWay(wayID, record);
+                            if (way != null) {
+                                return way;
+                            }
                         }
                     }
-                } else {
-                    Iterator<Way> ways = getWaysForNode(node.getId());
-                    while (ways.hasNext()) {
-                        nodesWithWithWaysCount++;
-                        Way way = ways.next();
-                        retval.put(way.getId(), way);
+                    if (!nodes.hasNext()) {
+                        return null;
+                    }
+                    Node node = nodes.next();
+                    if (node instanceof ExtendedNode) {
+                        myWayIDs.addAll(((ExtendedNode) node).getReferencedWayIDs());
+                    } else {
+                        Iterator<Way> nodeWays = getWaysForNode(node.getId());
+                        while (nodeWays.hasNext()) {
+                            myWayIDs.add(nodeWays.next().getId());
+                        }
                     }
                 }
-            } catch (Exception e) {
-                LOG.log(Level.SEVERE, "[Exception] Cannot load way for node",
-                        e);
-            } catch (OutOfMemoryError e) {
-                LOG.log(Level.SEVERE, "[Exception] Cannot load way for node",
-                        e);
             }
+        };
+    }
+
+
+    /**
+     * Get all ways whose bounding-box intersects the given bounds.
+     * @param aWaysIndex the index of the bounding-boxes of ways
+     * @param aBounds the bounds to look in
+     * @return the ways found
+     * @throws IOException if we cannot read the index or a way
+     */
+    private Iterator<Way> getWaysByBoundsIndex(final PackedGeoIndexFile aWaysIndex, final Bounds aBounds) throws IOException {
+        final WaysFile ways = getWaysFile();
+        final RecordNumberSource wayIDs = query(aWaysIndex, aBounds);
+        return new LazyIterator<Way>() {
+            /**
+             * The way-records already returned.
+             */
+            private final BitSet mySeen = new BitSet();
+
+            @Override
+            protected Way fetchNext() throws IOException {
+                for (long wayID = wayIDs.nextRecordNumber(); wayID != Long.MIN_VALUE;
+                     wayID = wayIDs.nextRecordNumber()) {
+                    long record = ways.findRecordForWay(wayID);
+                    if (record < 0) {
+                        LOG.severe("index of the bounding-boxes of ways contains a way "
+                                + wayID + " that does not exist");
+                    } else if (isFirstVisit(mySeen, record)) {
+                        ExtendedWay way = ways.readWay(wayID, record);
+                        if (way != null) {
+                            return way;
+                        }
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Start a bounding-box -query to the given index.
+     * The packed index is walked lazily, the older kd-tree
+     * can only be visited, so its record-numbers are
+     * collected first (as primitive longs, not objects).<br/>
+     * If the packed index is packed by a put() while it is walked,
+     * the query is started again. Thus record-numbers may be
+     * returned more than once and callers must skip those
+     * they have already seen.
+     * @param anIndex the index to query
+     * @param aBounds the bounds to look in
+     * @return the record-numbers (or IDs) found
+     * @throws IOException if we cannot read the index
+     */
+    private static RecordNumberSource query(final IGeoIndexFile anIndex, final Bounds aBounds) throws IOException {
+        final long minLat = FixedPrecisionCoordinateConvertor.convertToFixed(aBounds.getMin().lat());
+        final long minLon = FixedPrecisionCoordinateConvertor.convertToFixed(aBounds.getMin().lon());
+        final long maxLat = FixedPrecisionCoordinateConvertor.convertToFixed(aBounds.getMax().lat());
+        final long maxLon = FixedPrecisionCoordinateConvertor.convertToFixed(aBounds.getMax().lon());
+        if (anIndex instanceof PackedGeoIndexFile) {
+            final PackedGeoIndexFile packed = (PackedGeoIndexFile) anIndex;
+            return new RecordNumberSource() {
+                /**
+                 * The lookup in progress.
+                 */
+                private PackedGeoIndexFile.Cursor myCursor = packed.query(minLat, minLon, maxLat, maxLon);
+
+                public long nextRecordNumber() throws IOException {
+                    while (true) {
+                        try {
+                            return myCursor.next();
+                        } catch (ConcurrentModificationException e) {
+                            LOG.fine("The 2D-index " + packed.getFileName().getName()
+                                    + " has been packed during a query, starting it again.");
+                            myCursor = packed.query(minLat, minLon, maxLat, maxLon);
+                        }
+                    }
+                }
+            };
         }
-        if (LOG.isLoggable(Level.FINE)) {
-            LOG.fine("getWays(Bounds) returns " + retval.values().size() + " ways from "
-                    + nodesCount + " nodes (" + nodesWithWithWaysCount + " had ways) in bounds");
+        RecordNumberList retval = new RecordNumberList();
+        anIndex.visit(minLat, minLon, maxLat, maxLon, retval);
+        return retval;
+    }
+
+    /**
+     * Mark a record as returned.
+     * @param aSeen the records returned so far
+     * @param aRecordNumber the record to return next
+     * @return false if it has already been returned
+     */
+    private static boolean isFirstVisit(final BitSet aSeen, final long aRecordNumber) {
+        if (aRecordNumber > Integer.MAX_VALUE) {
+            // beyond what a BitSet can address, don't filter
+            return true;
+        }
+        int index = (int) aRecordNumber;
+        if (aSeen.get(index)) {
+            return false;
         }
-        return retval.values().iterator();
+        aSeen.set(index);
+        return true;
     }
 
+    /**
+     * Record-numbers (or IDs) returned one by one by an index.
+     * The same record-number may be returned more than once.
+     * @see #query(IGeoIndexFile, Bounds)
+     */
+    private interface RecordNumberSource {
+
+        /**
+         * @return the next record-number or {@link Long#MIN_VALUE} if there are no more
+         * @throws IOException if we cannot read the index
+         */
+        long nextRecordNumber() throws IOException;
+    }
+
+    /**
+     * Growable list of the record-numbers visited in an index
+     * that cannot be queried lazily.
+     */
+    private static final class RecordNumberList implements IRecordNumberVisitor, RecordNumberSource {
+
+        /**
+         * The record-numbers visited.
+         */
+        private long[] myRecords = new long[64];
+
+        /**
+         * The number of record-numbers in {@link #myRecords}.
+         */
+        private int mySize;
+
+        /**
+         * The next record-number to return.
+         */
+        private int myNext;
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean visit(final long aRecordNumber) {
+            if (aRecordNumber == Long.MIN_VALUE) {
+                return true;
+            }
+            if (mySize == myRecords.length) {
+                myRecords = Arrays.copyOf(myRecords, mySize * 2);
+            }
+            myRecords[mySize++] = aRecordNumber;
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public long nextRecordNumber() {
+            if (myNext >= mySize) {
+                return Long.MIN_VALUE;
+            }
+            return myRecords[myNext++];
+        }
+    }
+
+    /**
+     * Iterator that reads the next element only
+     * when it is asked for. Thus callers can start
+     * using the first results at once and stop early.<br/>
+     * The bounding-box -queries behind these iterators start
+     * again if the packed 2D-index is packed by a concurrent change,
+     * every element is still returned only once as the subclasses
+     * skip the records they have already returned.
+     * An IOException ends the iteration early.
+     * @param <T> the type of element
+     */
+    private abstract static class LazyIterator<T> implements Iterator<T> {
+
+        /**
+         * The element to return next or null if not yet fetched.
+         */
+        private T myNext;
+
+        /**
+         * True after {@link #fetchNext()} returned null.
+         */
+        private boolean myDone;
+
+        /**
+         * @return the next element or null if there are no more
+         * @throws IOException if we cannot read the element
+         */
+        protected abstract T fetchNext() throws IOException;
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext() {
+            if (myNext == null && !myDone) {
+                try {
+                    myNext = fetchNext();
+                } catch (IOException e) {
+                    LOG.log(Level.SEVERE, "Cannot read the next element, ending the iteration early.", e);
+                }
+                myDone = myNext == null;
+            }
+            return myNext != null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T retval = myNext;
+            myNext = null;
+            return retval;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove() {
+            throw new UnsupportedOperationException("remove is not supported");
+        }
+    }
 
     /**
      * {@inheritDoc}
      */
     @Override
     public Iterator<Way> getWaysByName(final String aLookFor, final Bounds aBoundingBox) {
-        Iterator<Way> ways = getWays(aBoundingBox);
+        Iterator<Way> ways = null;
+        if (aBoundingBox == null || aBoundingBox.equals(Bounds.WORLD)) {
+            ways = getWaysWithNameTags();
+        }
+        if (ways == null) {
+            ways = getWays(aBoundingBox);
+        }
         String lookForRegEx = null;
         LinkedList<Way> retval = new LinkedList<Way>();
         while (ways.hasNext()) {
@@ -1110,11 +1951,68 @@ public class OsmBinDataSetV10 implements IDataSet {
     }
 
 
+    /**
+     * Use the tag-index to get all ways that have any of the tags
+     * compared by {@link #getWaysByName(String, Bounds)}.
+     * @return the ways or null if there is no tag-index
+     */
+    private Iterator<Way> getWaysWithNameTags() {
+        try {
+            TagIndexFile index = getWaysTagIndex();
+            if (index == null) {
+                return null;
+            }
+            final WaysFile ways = getWaysFile();
+            final Map<Long, Way> found = new LinkedHashMap<Long, Way>();
+            IRecordNumberVisitor visitor = new IRecordNumberVisitor() {
+                public boolean visit(final long aWayID) throws IOException {
+                    if (!found.containsKey(aWayID)) {
+                        Way way = ways.readWay(aWayID);
+                        if (way != null) {
+                            found.put(aWayID, way);
+                        }
+                    }
+                    return true;
+                }
+            };
+            for (String key : new String[] {Tags.TAG_NAME, Tags.TAG_REF, Tags.TAG_NAT_REF, Tags.TAG_INT_REF}) {
+                visitTagIndex(index, key, null, visitor);
+            }
+            return found.values().iterator();
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Cannot get named ways by the tag-index. "
+                    + "Scanning all ways instead.", e);
+            return null;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public Iterator<Way> getWaysByTag(final String aKey, final String aValue) {
+        try {
+            TagIndexFile index = getWaysTagIndex();
+            if (index != null) {
+                final WaysFile ways = getWaysFile();
+                final Map<Long, Way> found = new LinkedHashMap<Long, Way>();
+                visitTagIndex(index, aKey, aValue, new IRecordNumberVisitor() {
+                    public boolean visit(final long aWayID) throws IOException {
+                        if (!found.containsKey(aWayID)) {
+                            Way way = ways.readWay(aWayID);
+                            if (way != null && hasTag(way, aKey, aValue)) {
+                                found.put(aWayID, way);
+                            }
+                        }
+                        return true;
+                    }
+                });
+                return found.values().iterator();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Cannot get ways by the tag-index. "
+                    + "Scanning all ways instead.", e);
+        }
         LinkedList<Way> retval = new LinkedList<Way>();
         Iterator<Way> ways = this.getWays(Bounds.WORLD);
         while (ways.hasNext()) {
@@ -1136,6 +2034,7 @@ public class OsmBinDataSetV10 implements IDataSet {
      */
     @Override
     public void removeRelation(final Relation aRelation) {
+        checkWritable();
         try {
             RelationsFile relations = getRelationsFile();
             relations.removeRelation(aRelation);
@@ -1236,6 +2135,33 @@ public class OsmBinDataSetV10 implements IDataSet {
             }
             this.nodes2DIndex = null;
         }
+        if (this.waysBoundsIndex != null) {
+            try {
+                this.waysBoundsIndex.close();
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "Cannot close ways-bounds-index", e);
+            }
+            this.waysBoundsIndex = null;
+        }
+        this.waysBoundsIndexOpened = false;
+        if (this.nodesTagIndex != null) {
+            try {
+                this.nodesTagIndex.close();
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "Cannot close nodes.tix", e);
+            }
+            this.nodesTagIndex = null;
+        }
+        this.nodesTagIndexOpened = false;
+        if (this.waysTagIndex != null) {
+            try {
+                this.waysTagIndex.close();
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "Cannot close ways.tix", e);
+            }
+            this.waysTagIndex = null;
+        }
+        this.waysTagIndexOpened = false;
         if (this.attrNamesFile != null) {
             try {
                 this.attrNamesFile.close();
@@ -0,0 +1,568 @@
+package org.openstreetmap.osm.data.osmbin.v1_0;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.osmbin.AttrNames;
+import org.openstreetmap.osm.data.osmbin.LongTupleSorter;
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
+import org.openstreetmap.osmosis.core.container.v0_6.EntityContainer;
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Relation;
+import org.openstreetmap.osmosis.core.domain.v0_6.RelationMember;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.osmosis.core.task.v0_6.Sink;
+import org.openstreetmap.osmosis.core.util.FixedPrecisionCoordinateConvertor;
+
+/**
+ * Project: libosm<br/>
+ * OsmBinV10BulkWriter.java<br/>
+ * created: 17.10.2026<br/>
+ *<br/><br/>
+ * <b>Osmosis-task to import a complete map into a new, empty
+ * directory in OSMBin-v1.2 -format.</b><br/>
+ * The {@link OsmBinV10Writer} adds one entity after the other to an
+ * {@link OsmBinDataSetV10}. For every way this reads and rewrites all of
+ * it's nodes to store the back-references and updates the indice, so
+ * nearly all writes are random.<br/>
+ * This task instead expects the input sorted by type and ID
+ * (as written by osmosis --sort) and works in sequential passes:
+ * <ol>
+ *  <li>nodes and ways are spooled into temporary files. The back-references
+ *      node-&gt;way, node-&gt;relation and way-&gt;relation are collected
+ *      in {@link LongTupleSorter}s. Relations need no back-references
+ *      and are appended to relations.obm right away.</li>
+ *  <li>the sorted back-references are merged with the spooled nodes
+ *      and nodes.obm is written sequentially. The location of every
+ *      node is collected per way.</li>
+ *  <li>the sorted locations and back-references are merged with the
+ *      spooled ways and ways.obm is written sequentially.</li>
+ *  <li>all indice are built by the {@link OsmBinV10Reindexer} in one
+ *      sequential pass over every file.</li>
+ * </ol>
+ */
+public class OsmBinV10BulkWriter implements Sink {
+
+    /**
+     * Automatically created logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(OsmBinV10BulkWriter.class
+            .getName());
+
+    /**
+     * Log the progress every this many elements.
+     */
+    private static final int LOGINTERVAL = 1000000;
+
+    /**
+     * Default for the number of back-references to
+     * sort in memory before a temporary run-file is written.
+     */
+    public static final int DEFAULTTUPLESINMEMORY = 1 << 22;
+
+    /**
+     * Size of the buffers used to read and write the spool-files.
+     */
+    private static final int IOBUFFERSIZE = 256 * 1024;
+
+    /**
+     * The directory to create the osmbin-database in.
+     */
+    private final File myDirectory;
+
+    /**
+     * The record-layout to write.
+     */
+    private final OsmBinFormat myFormat = OsmBinFormat.V1_2;
+
+    /**
+     * Number of back-references to sort in memory
+     * before a temporary run-file is written.
+     */
+    private final int myTuplesInMemory;
+
+    /**
+     * The attribute-names of all entities.
+     */
+    private AttrNames myAttrNames;
+
+    /**
+     * The relations are appended here as they come in.
+     */
+    private RelationsFile myRelationsFile;
+
+    /**
+     * Temporary file all nodes are spooled into.
+     */
+    private final File myNodeSpoolFile;
+
+    /**
+     * Temporary file all ways are spooled into.
+     */
+    private final File myWaySpoolFile;
+
+    /**
+     * @see #myNodeSpoolFile
+     */
+    private DataOutputStream myNodeSpool;
+
+    /**
+     * @see #myWaySpoolFile
+     */
+    private DataOutputStream myWaySpool;
+
+    /**
+     * Tuples (nodeID, wayID) for every node of every way.
+     */
+    private LongTupleSorter myNodeWays;
+
+    /**
+     * Tuples (nodeID, relationID) for every node-member of a relation.
+     */
+    private LongTupleSorter myNodeRelations;
+
+    /**
+     * Tuples (wayID, relationID) for every way-member of a relation.
+     */
+    private LongTupleSorter myWayRelations;
+
+    /**
+     * Tuple reused while adding back-references.
+     */
+    private final long[] myTuple = new long[2];
+
+    /**
+     * The type of the last entity processed.
+     * Used to check that the input is sorted.
+     */
+    private EntityType myLastType = EntityType.Node;
+
+    /**
+     * The ID of the last entity processed.
+     * Used to check that the input is sorted.
+     */
+    private long myLastID = Long.MIN_VALUE;
+
+    /**
+     * Number of nodes spooled.
+     */
+    private long myNodeCount;
+
+    /**
+     * Number of ways spooled.
+     */
+    private long myWayCount;
+
+    /**
+     * Number of relations written.
+     */
+    private long myRelationCount;
+
+    /**
+     * @param aDir the directory to create the osmbin-database in
+     */
+    public OsmBinV10BulkWriter(final File aDir) {
+        this(aDir, DEFAULTTUPLESINMEMORY);
+    }
+
+    /**
+     * @param aDir the directory to create the osmbin-database in
+     * @param aTuplesInMemory number of back-references to sort in memory
+     *        before a temporary run-file is written
+     */
+    public OsmBinV10BulkWriter(final File aDir, final int aTuplesInMemory) {
+        if (!aDir.exists()) {
+            if (!aDir.mkdirs()) {
+                throw new IllegalArgumentException("Cannot create directory "
+                        + aDir.getAbsolutePath());
+            }
+        }
+
+        if (!aDir.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory "
+                    + aDir.getAbsolutePath());
+        }
+        if (new File(aDir, "nodes.obm").exists()) {
+            throw new IllegalArgumentException("Directory "
+                    + aDir.getAbsolutePath() + " already contains a map. "
+                    + "Bulk-loading only works into an empty directory.");
+        }
+        this.myDirectory = aDir;
+        this.myTuplesInMemory = aTuplesInMemory;
+        this.myNodeSpoolFile = new File(aDir, "nodes.bulkimport.tmp");
+        this.myWaySpoolFile = new File(aDir, "ways.bulkimport.tmp");
+    }
+
+    /**
+     * Create all files.
+     * @throws IOException if we cannot create them
+     */
+    private void open() throws IOException {
+        if (myAttrNames != null) {
+            return;
+        }
+        myAttrNames = new AttrNames(new File(myDirectory, "attrnames.txt"));
+        myAttrNames.setDeferSaving(true);
+        myRelationsFile = new RelationsFile(new File(myDirectory, "relations.obm"),
+                myFormat, false, myAttrNames, null);
+        myNodeSpool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myNodeSpoolFile), IOBUFFERSIZE));
+        myWaySpool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myWaySpoolFile), IOBUFFERSIZE));
+        myNodeWays = new LongTupleSorter(myDirectory, "nodeways", 2, myTuplesInMemory);
+        myNodeRelations = new LongTupleSorter(myDirectory, "noderelations", 2, myTuplesInMemory);
+        myWayRelations = new LongTupleSorter(myDirectory, "wayrelations", 2, myTuplesInMemory);
+    }
+
+    @Override
+    public void initialize(final Map<String, Object> aMetaData) {
+        // nothing to do
+    }
+
+    @Override
+    public void process(final EntityContainer aContainer) {
+        Entity entity = aContainer.getEntity();
+        try {
+            if (entity instanceof Node) {
+                checkOrder(EntityType.Node, entity.getId());
+                spoolNode((Node) entity);
+            } else if (entity instanceof Way) {
+                checkOrder(EntityType.Way, entity.getId());
+                spoolWay((Way) entity);
+            } else if (entity instanceof Relation) {
+                checkOrder(EntityType.Relation, entity.getId());
+                addRelation((Relation) entity);
+            }
+        } catch (IOException e) {
+            IllegalStateException weDontWork = new IllegalStateException("Cannot bulk-load "
+                    + entity.getType() + " " + entity.getId());
+            weDontWork.initCause(e);
+            throw weDontWork;
+        }
+    }
+
+    /**
+     * Make sure the input is sorted by type and ID.
+     * @param aType the type of the current entity
+     * @param anID the ID of the current entity
+     */
+    private void checkOrder(final EntityType aType, final long anID) {
+        if (aType.ordinal() < myLastType.ordinal()
+                || (aType == myLastType && anID <= myLastID)) {
+            throw new IllegalStateException("Bulk-loading osmbin requires the input to be sorted"
+                    + " by type and ID but got " + aType + " " + anID + " after "
+                    + myLastType + " " + myLastID + ". Please use --sort.");
+        }
+        myLastType = aType;
+        myLastID = anID;
+    }
+
+    /**
+     * @param aNode the node to write into {@link #myNodeSpool}
+     * @throws IOException if we cannot write
+     */
+    private void spoolNode(final Node aNode) throws IOException {
+        open();
+        myNodeSpool.writeLong(aNode.getId());
+        myNodeSpool.writeInt(aNode.getVersion());
+        myNodeSpool.writeLong(aNode.getChangesetId());
+        myNodeSpool.writeDouble(aNode.getLatitude());
+        myNodeSpool.writeDouble(aNode.getLongitude());
+        writeTags(myNodeSpool, aNode.getTags());
+        logProgress("spooled", "nodes", ++myNodeCount);
+    }
+
+    /**
+     * @param aWay the way to write into {@link #myWaySpool}
+     * @throws IOException if we cannot write
+     */
+    private void spoolWay(final Way aWay) throws IOException {
+        open();
+        List<WayNode> wayNodes = aWay.getWayNodes();
+        myWaySpool.writeLong(aWay.getId());
+        myWaySpool.writeInt(aWay.getVersion());
+        writeTags(myWaySpool, aWay.getTags());
+        myWaySpool.writeInt(wayNodes.size());
+        myTuple[1] = aWay.getId();
+        for (WayNode wayNode : wayNodes) {
+            myWaySpool.writeLong(wayNode.getNodeId());
+            myTuple[0] = wayNode.getNodeId();
+            myNodeWays.add(myTuple);
+        }
+        logProgress("spooled", "ways", ++myWayCount);
+    }
+
+    /**
+     * Remember the back-references of the relation and write it.
+     * @param aRelation the relation to write
+     * @throws IOException if we cannot write
+     */
+    private void addRelation(final Relation aRelation) throws IOException {
+        open();
+        myTuple[1] = aRelation.getId();
+        for (RelationMember member : aRelation.getMembers()) {
+            myTuple[0] = member.getMemberId();
+            if (member.getMemberType() == EntityType.Node) {
+                myNodeRelations.add(myTuple);
+            } else if (member.getMemberType() == EntityType.Way) {
+                myWayRelations.add(myTuple);
+            }
+        }
+        myRelationsFile.appendRelation(aRelation);
+        logProgress("wrote", "relations", ++myRelationCount);
+    }
+
+    /**
+     * Write nodes.obm and ways.obm, then build all indice.
+     */
+    @Override
+    public void complete() {
+        try {
+            open();
+            myNodeSpool.close();
+            myWaySpool.close();
+            myRelationsFile.close();
+
+            LongTupleSorter wayLocations = new LongTupleSorter(myDirectory, "waylocations", 3, myTuplesInMemory);
+            writeNodes(wayLocations);
+            writeWays(wayLocations);
+            myAttrNames.close();
+            writeProperties();
+            deleteSpoolFiles();
+
+            LOG.info("building indice");
+            new OsmBinV10Reindexer(myDirectory).run();
+            LOG.info("bulk-loaded " + myNodeCount + " nodes, " + myWayCount + " ways and "
+                    + myRelationCount + " relations into " + myDirectory.getAbsolutePath());
+        } catch (IOException e) {
+            IllegalStateException weDontWork = new IllegalStateException("Cannot bulk-load into "
+                    + myDirectory.getAbsolutePath());
+            weDontWork.initCause(e);
+            throw weDontWork;
+        }
+    }
+
+    /**
+     * Merge the spooled nodes with their sorted back-references
+     * and write them to nodes.obm.
+     * @param aWayLocations gets a tuple (wayID, latitude, longitude) for every node of a way
+     * @throws IOException if we cannot read or write
+     */
+    private void writeNodes(final LongTupleSorter aWayLocations) throws IOException {
+        LOG.info("sorting back-references of " + myNodeCount + " nodes");
+        LongTupleSorter.Reader nodeWays = myNodeWays.sort();
+        LongTupleSorter.Reader nodeRelations = myNodeRelations.sort();
+        NodesFile nodes = new NodesFile(new File(myDirectory, "nodes.obm"),
+                myFormat, false, myAttrNames, null, null);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myNodeSpoolFile), IOBUFFERSIZE));
+        try {
+            long[] wayRef = new long[2];
+            long[] relationRef = new long[2];
+            long[] location = new long[3];
+            boolean hasWayRef = nodeWays.next(wayRef);
+            boolean hasRelationRef = nodeRelations.next(relationRef);
+            for (long i = 1; i <= myNodeCount; i++) {
+                long id = in.readLong();
+                int version = in.readInt();
+                long changeset = in.readLong();
+                double lat = in.readDouble();
+                double lon = in.readDouble();
+                ExtendedNode node = new ExtendedNode(id, version, changeset, lat, lon, readTags(in));
+                location[1] = FixedPrecisionCoordinateConvertor.convertToFixed(lat);
+                location[2] = FixedPrecisionCoordinateConvertor.convertToFixed(lon);
+
+                // skip references to nodes we do not have
+                while (hasWayRef && wayRef[0] < id) {
+                    hasWayRef = nodeWays.next(wayRef);
+                }
+                while (hasWayRef && wayRef[0] == id) {
+                    node.addReferencedWay(wayRef[1]);
+                    location[0] = wayRef[1];
+                    aWayLocations.add(location);
+                    hasWayRef = nodeWays.next(wayRef);
+                }
+                while (hasRelationRef && relationRef[0] < id) {
+                    hasRelationRef = nodeRelations.next(relationRef);
+                }
+                while (hasRelationRef && relationRef[0] == id) {
+                    node.addReferencedRelation(relationRef[1]);
+                    hasRelationRef = nodeRelations.next(relationRef);
+                }
+                nodes.appendNode(node);
+                logProgress("wrote", "nodes", i);
+            }
+        } finally {
+            in.close();
+            nodeWays.close();
+            nodeRelations.close();
+            nodes.close();
+        }
+    }
+
+    /**
+     * Merge the spooled ways with the locations of their nodes
+     * and their sorted back-references and write them to ways.obm.
+     * @param aWayLocations a tuple (wayID, latitude, longitude) for every node of a way
+     * @throws IOException if we cannot read or write
+     */
+    private void writeWays(final LongTupleSorter aWayLocations) throws IOException {
+        LOG.info("sorting locations and back-references of " + myWayCount + " ways");
+        LongTupleSorter.Reader locations = aWayLocations.sort();
+        LongTupleSorter.Reader wayRelations = myWayRelations.sort();
+        WaysFile ways = new WaysFile(new File(myDirectory, "ways.obm"),
+                myFormat, false, myAttrNames, null);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myWaySpoolFile), IOBUFFERSIZE));
+        try {
+            long[] location = new long[3];
+            long[] relationRef = new long[2];
+            boolean hasLocation = locations.next(location);
+            boolean hasRelationRef = wayRelations.next(relationRef);
+            for (long i = 1; i <= myWayCount; i++) {
+                long id = in.readLong();
+                int version = in.readInt();
+                List<Tag> tags = readTags(in);
+                int nodeCount = in.readInt();
+                List<WayNode> wayNodes = new ArrayList<WayNode>(nodeCount);
+                for (int n = 0; n < nodeCount; n++) {
+                    wayNodes.add(new WayNode(in.readLong()));
+                }
+                ExtendedWay way = new ExtendedWay(id, version, tags, wayNodes);
+
+                // we have no locations for ways without any of their nodes
+                // and get no references to relations that do not exist
+                while (hasLocation && location[0] < id) {
+                    hasLocation = locations.next(location);
+                }
+                if (hasLocation && location[0] == id) {
+                    long minLat = location[1];
+                    long maxLat = location[1];
+                    long minLon = location[2];
+                    long maxLon = location[2];
+                    while (hasLocation && location[0] == id) {
+                        minLat = Math.min(minLat, location[1]);
+                        maxLat = Math.max(maxLat, location[1]);
+                        minLon = Math.min(minLon, location[2]);
+                        maxLon = Math.max(maxLon, location[2]);
+                        hasLocation = locations.next(location);
+                    }
+                    way.setMinLatitude(FixedPrecisionCoordinateConvertor.convertToDouble((int) minLat));
+                    way.setMaxLatitude(FixedPrecisionCoordinateConvertor.convertToDouble((int) maxLat));
+                    way.setMinLongitude(FixedPrecisionCoordinateConvertor.convertToDouble((int) minLon));
+                    way.setMaxLongitude(FixedPrecisionCoordinateConvertor.convertToDouble((int) maxLon));
+                }
+                while (hasRelationRef && relationRef[0] < id) {
+                    hasRelationRef = wayRelations.next(relationRef);
+                }
+                while (hasRelationRef && relationRef[0] == id) {
+                    way.addReferencedRelation(relationRef[1]);
+                    hasRelationRef = wayRelations.next(relationRef);
+                }
+                ways.appendWay(way);
+                logProgress("wrote", "ways", i);
+            }
+        } finally {
+            in.close();
+            locations.close();
+            wayRelations.close();
+            ways.close();
+        }
+    }
+
+    /**
+     * @param anOut where to write
+     * @param aTags the tags to write
+     * @throws IOException if we cannot write
+     */
+    private static void writeTags(final DataOutputStream anOut, final Collection<Tag> aTags) throws IOException {
+        anOut.writeInt(aTags.size());
+        for (Tag tag : aTags) {
+            anOut.writeUTF(tag.getKey());
+            anOut.writeUTF(tag.getValue());
+        }
+    }
+
+    /**
+     * @param anIn where to read from
+     * @return the tags written by {@link #writeTags(DataOutputStream, Collection)}
+     * @throws IOException if we cannot read
+     */
+    private static List<Tag> readTags(final DataInputStream anIn) throws IOException {
+        int count = anIn.readInt();
+        List<Tag> tags = new ArrayList<Tag>(count);
+        for (int i = 0; i < count; i++) {
+            tags.add(new Tag(anIn.readUTF(), anIn.readUTF()));
+        }
+        return tags;
+    }
+
+    /**
+     * Mark the directory as format v1.2.
+     * @throws IOException if we cannot write osmbin.properties
+     */
+    private void writeProperties() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("osmbin.version", myFormat.getName());
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(myDirectory, "osmbin.properties")), "UTF-8");
+        try {
+            properties.store(out, "");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param anAction "spooled" or "wrote"
+     * @param aType "nodes", "ways" or "relations"
+     * @param aCount the number of elements processed so far
+     */
+    private void logProgress(final String anAction, final String aType, final long aCount) {
+        if (aCount % LOGINTERVAL == 0) {
+            LOG.info(anAction + " " + aCount + " " + aType);
+        }
+    }
+
+    /**
+     * Delete the temporary files with the spooled nodes and ways.
+     */
+    private void deleteSpoolFiles() {
+        myNodeSpoolFile.delete();
+        myWaySpoolFile.delete();
+    }
+
+    @Override
+    public void release() {
+        if (myNodeSpool == null) {
+            return;
+        }
+        try {
+            myNodeSpool.close();
+            myWaySpool.close();
+            myRelationsFile.close();
+            myAttrNames.close();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Cannot close files after bulk-loading", e);
+        }
+        myNodeWays.close();
+        myNodeRelations.close();
+        myWayRelations.close();
+        deleteSpoolFiles();
+        myNodeSpool = null;
+    }
+}
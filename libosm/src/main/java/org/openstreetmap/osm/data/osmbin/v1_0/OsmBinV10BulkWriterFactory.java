@@ -0,0 +1,60 @@
+package org.openstreetmap.osm.data.osmbin.v1_0;
+
+import java.io.File;
+
+import org.openstreetmap.osmosis.core.pipeline.common.TaskConfiguration;
+import org.openstreetmap.osmosis.core.pipeline.common.TaskManager;
+import org.openstreetmap.osmosis.core.pipeline.common.TaskManagerFactory;
+import org.openstreetmap.osmosis.core.pipeline.v0_6.SinkManager;
+
+/**
+ * Project: libosm<br/>
+ * OsmBinV10BulkWriterFactory.java<br/>
+ * created: 17.10.2026<br/>
+ *<br/><br/>
+ * <b>This is the factory for {@link OsmBinV10BulkWriter}. An Osmosis-task to
+ * import a complete, sorted map into a new directory in OsmBin-format.</b><br/>
+ */
+public class OsmBinV10BulkWriterFactory extends TaskManagerFactory  {
+
+    /**
+     * Argument for the directory to import into.
+     */
+    private static final String ARG_DIR_NAME = "dir";
+
+    /**
+     * Default for {@link #ARG_DIR_NAME}.
+     */
+    private static final String DEFAULT_DIR_NAME = "osmbin";
+
+    /**
+     * Argument for the number of back-references to sort in memory.
+     */
+    private static final String ARG_TUPLES_IN_MEMORY = "tuplesInMemory";
+
+    /**
+     * {@inheritDoc}
+     */
+    protected TaskManager createTaskManagerImpl(final TaskConfiguration taskConfig) {
+        String fileName;
+        File dir;
+        OsmBinV10BulkWriter task;
+
+        // Get the task arguments.
+        fileName = getStringArgument(
+            taskConfig,
+            ARG_DIR_NAME,
+            getDefaultStringArgument(taskConfig, DEFAULT_DIR_NAME)
+        );
+        int tuplesInMemory = getIntegerArgument(taskConfig, ARG_TUPLES_IN_MEMORY,
+                OsmBinV10BulkWriter.DEFAULTTUPLESINMEMORY);
+
+        // Create a file object from the file name provided.
+        dir = new File(fileName);
+
+        // Build the task object.
+        task = new OsmBinV10BulkWriter(dir, tuplesInMemory);
+
+        return new SinkManager(taskConfig.getId(), task, taskConfig.getPipeArgs());
+    }
+}
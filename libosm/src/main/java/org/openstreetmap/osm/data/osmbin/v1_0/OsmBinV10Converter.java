@@ -0,0 +1,181 @@
+package org.openstreetmap.osm.data.osmbin.v1_0;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
+import org.openstreetmap.osmosis.core.task.common.RunnableTask;
+
+/**
+ * Project: libosm<br/>
+ * OsmBinV10Converter.java<br/>
+ * created: 17.10.2026<br/>
+ *<br/><br/>
+ * <b>This is an Osmosis-task to copy a map in OsmBin-format v1.1 (32 bit IDs)
+ * into a new directory in OsmBin-format v1.2 (64 bit IDs).</b><br/>
+ * The source-directory is only read. The nodes, ways and relations are
+ * read in the order they are stored and written into the target-directory
+ * in this order, rebuilding all indice there.
+ */
+public class OsmBinV10Converter implements RunnableTask {
+
+    /**
+     * Automatically created logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(OsmBinV10Converter.class
+            .getName());
+
+    /**
+     * Log the progress every this many elements.
+     */
+    private static final int LOGINTERVAL = 100000;
+
+    /**
+     * The directory with the map to convert.
+     */
+    private final File mySourceDirectory;
+
+    /**
+     * The directory to write the converted map into.
+     */
+    private final File myTargetDirectory;
+
+    /**
+     * @param aSourceDir the directory with the osmbin-database in format v1.1
+     * @param aTargetDir the directory to create the osmbin-database in format v1.2 in
+     */
+    public OsmBinV10Converter(final File aSourceDir, final File aTargetDir) {
+        if (!aSourceDir.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory "
+                    + aSourceDir.getAbsolutePath());
+        }
+        if (new File(aTargetDir, "nodes.obm").exists()) {
+            throw new IllegalArgumentException("Directory "
+                    + aTargetDir.getAbsolutePath() + " already contains a map. ");
+        }
+        this.mySourceDirectory = aSourceDir;
+        this.myTargetDirectory = aTargetDir;
+    }
+
+    /**
+     * @param args the directory with the osmbin-data and the directory to convert it into
+     */
+    public static void main(final String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: OsmBinV10Converter <directory with osmbin-data> <new directory>");
+            return;
+        }
+        OsmBinV10Converter worker = new OsmBinV10Converter(new File(args[0]), new File(args[1]));
+        worker.run();
+    }
+
+    /**
+     * Copy all nodes, then all ways, then all relations.
+     */
+    @Override
+    public void run() {
+        if (!myTargetDirectory.exists() && !myTargetDirectory.mkdirs()) {
+            throw new IllegalStateException("Cannot create directory "
+                    + myTargetDirectory.getAbsolutePath());
+        }
+        OsmBinDataSetV10 source = new OsmBinDataSetV10(mySourceDirectory, OsmBinFormat.V1_1);
+        OsmBinDataSetV10 target = new OsmBinDataSetV10(myTargetDirectory, OsmBinFormat.V1_2);
+        try {
+            writeProperties();
+
+            NodesFile nodes = source.getNodesFile();
+            long count = 0;
+            for (long recordNr = nextElement(nodes, -1); recordNr >= 0; recordNr = nextElement(nodes, recordNr)) {
+                target.addNode(nodes.readNode(Long.MIN_VALUE, recordNr));
+                logProgress("nodes", ++count);
+            }
+
+            WaysFile ways = source.getWaysFile();
+            count = 0;
+            for (long recordNr = nextElement(ways, -1); recordNr >= 0; recordNr = nextElement(ways, recordNr)) {
+                target.addWay(ways.readWay(readElementID(ways, recordNr), recordNr));
+                logProgress("ways", ++count);
+            }
+
+            RelationsFile relations = source.getRelationsFile();
+            count = 0;
+            for (long recordNr = nextElement(relations, -1); recordNr >= 0; recordNr = nextElement(relations, recordNr)) {
+                target.addRelation(relations.readRelation(recordNr, readElementID(relations, recordNr)));
+                logProgress("relations", ++count);
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Cannot convert " + mySourceDirectory.getAbsolutePath(), e);
+        } finally {
+            source.shutdown();
+            target.shutdown();
+        }
+    }
+
+    /**
+     * Mark the target-directory as format v1.2.
+     * @throws IOException if we cannot write osmbin.properties
+     */
+    private void writeProperties() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("osmbin.version", OsmBinFormat.V1_2.getName());
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(myTargetDirectory, "osmbin.properties")), "UTF-8");
+        try {
+            properties.store(out, "");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param aType "nodes", "ways" or "relations"
+     * @param aCount the number of elements converted so far
+     */
+    private void logProgress(final String aType, final long aCount) {
+        if (aCount % LOGINTERVAL == 0) {
+            LOG.info("converted " + aCount + " " + aType);
+        }
+    }
+
+    /**
+     * @param aFile the file to scan
+     * @param aRecordNr the record to start reading at
+     * @return the id of the element stored there or {@link OsmBinFormat#EMPTYID}
+     * @throws IOException if we cannot read
+     */
+    private static long readElementID(final AbstractEntityFile aFile, final long aRecordNr) throws IOException {
+        ByteBuffer mem = aFile.getRecordForReading(aRecordNr);
+        try {
+            return aFile.readID(mem);
+        } finally {
+            aFile.releaseRecord(mem);
+        }
+    }
+
+    /**
+     * Find the first record of the next element.
+     * @param aFile the file to scan
+     * @param aRecordNr the first record of the last element or -1 to start at the beginning
+     * @return the first record of the next element or -1
+     * @throws IOException if we cannot read
+     */
+    private static long nextElement(final AbstractEntityFile aFile, final long aRecordNr) throws IOException {
+        long lastID = OsmBinFormat.EMPTYID;
+        if (aRecordNr >= 0) {
+            lastID = readElementID(aFile, aRecordNr);
+        }
+        for (long recordNr = aRecordNr + 1; recordNr < aFile.getRecordCount(); recordNr++) {
+            long id = readElementID(aFile, recordNr);
+            if (id != lastID && id != OsmBinFormat.EMPTYID) {
+                return recordNr;
+            }
+        }
+        return -1;
+    }
+}
@@ -5,12 +5,22 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Properties;
 
+import org.openstreetmap.osm.data.osmbin.AttrNames;
+import org.openstreetmap.osm.data.osmbin.DenseIDIndexFile;
 import org.openstreetmap.osm.data.osmbin.GeoIndexFile;
 import org.openstreetmap.osm.data.osmbin.IDIndexFile;
+import org.openstreetmap.osm.data.osmbin.IIDIndexFile;
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
+import org.openstreetmap.osm.data.osmbin.PackedGeoIndexFile;
+import org.openstreetmap.osm.data.osmbin.TagIndexFile;
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.core.task.common.RunnableTask;
-import org.openstreetmap.osmosis.core.util.FixedPrecisionCoordinateConvertor;
 
 /**
  * (c) 2008 by <a href="http://Wolschon.biz>Wolschon Softwaredesign und Beratung</a>.<br/>
@@ -28,6 +38,38 @@ public class OsmBinV10Reindexer  implements RunnableTask  {
      */
     private final File myDirectory;
 
+    /**
+     * Build {@link DenseIDIndexFile}s instead of {@link IDIndexFile}s.
+     */
+    private boolean myDenseIndex = true;
+
+    /**
+     * Build a {@link PackedGeoIndexFile} instead of a {@link GeoIndexFile}.
+     */
+    private boolean myPackedGeoIndex = true;
+
+    /**
+     * Build {@link TagIndexFile}s for nodes and ways.
+     */
+    private boolean myTagIndex = true;
+
+    /**
+     * The number of nodes to sort in memory while building
+     * a {@link PackedGeoIndexFile}.
+     */
+    private static final int GEOINDEXTUPLESINMEMORY = 1 << 21;
+
+    /**
+     * The number of tags to sort in memory while building
+     * a {@link TagIndexFile}.
+     */
+    private static final int TAGINDEXTUPLESINMEMORY = 1 << 21;
+
+    /**
+     * The record-layout of the *.obm -files as given in osmbin.properties.
+     */
+    private OsmBinFormat myFormat = OsmBinFormat.V1_1;
+
     /**
      * @param aDir the directory with the osmbin-database
      */
@@ -59,140 +101,349 @@ public class OsmBinV10Reindexer  implements RunnableTask  {
 
     /**
      * Read nodes.obm, ways.obm and relations.obm in {@link #myDirectory}
-     * and rebuild nodes.idx, ways.idx and relations.idx .
+     * and rebuild nodes.idx, ways.idx and relations.idx
+     * (or nodes.didx, ways.didx and relations.didx if
+     * {@link OsmBinDataSetV10#SETTINGS_DENSEIDINDEX} is set
+     * or the format {@link OsmBinFormat#isDenseIDIndexRequired()})
+     * and the 2D-index of nodes nodes.pid2 (or nodes.id2 if
+     * {@link OsmBinDataSetV10#SETTINGS_PACKEDGEOINDEX} is not set)
+     * and the index of the bounding-boxes of ways ways.pid2
+     * and the tag-indice nodes.tix and ways.tix (unless
+     * {@link OsmBinDataSetV10#SETTINGS_TAGINDEX} is false).
      */
     @Override
     public void run() {
         try {
-            File tempFile0 = new File(myDirectory, "nodes.tempreindexing.idx");
-            if (tempFile0.exists()) {
-                tempFile0.delete();
-            }
-            File tempFile0d = new File(myDirectory, "nodes.tempreindexing.id2");
-            if (tempFile0d.exists()) {
-                tempFile0d.delete();
-            }
-            File tempFile1 = new File(myDirectory, "ways.tempreindexing.idx");
-            if (tempFile1.exists()) {
-                tempFile1.delete();
-            }
-            File tempFile2 = new File(myDirectory, "relations.tempreindexing.idx");
-            if (tempFile2.exists()) {
-                tempFile2.delete();
-            }
+            myFormat = readFormat(myDirectory);
+            myDenseIndex = myFormat.isDenseIDIndexRequired() || OsmBinDataSetV10.isDenseIDIndexEnabled();
+            myPackedGeoIndex = OsmBinDataSetV10.isPackedGeoIndexEnabled();
+            myTagIndex = OsmBinDataSetV10.isTagIndexEnabled();
             reindexNodes(new File(myDirectory, "nodes.obm"),
-                    NodesFile.getNodeRecordLength(),
-                    new IDIndexFile(tempFile0),
-                    new GeoIndexFile(tempFile0d),
-                    new File(myDirectory, "nodes.idx"),
-                    new File(myDirectory, "nodes.id2"));
-            reindex(new File(myDirectory, "ways.obm"),
-                    WaysFile.getWayRecordLength(),
-                    new IDIndexFile(tempFile1),
-                    new File(myDirectory, "ways.idx"));
+                    NodesFile.getNodeRecordLength(myFormat),
+                    "nodes");
+            reindexWays(new File(myDirectory, "ways.obm"),
+                    WaysFile.getWayRecordLength(myFormat),
+                    "ways");
             reindex(new File(myDirectory, "relations.obm"),
-                    RelationsFile.getRelationRecordLength(),
-                    new IDIndexFile(tempFile2),
-                    new File(myDirectory, "relations.idx"));
+                    RelationsFile.getRelationRecordLength(myFormat),
+                    "relations");
+            reindexTags();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Reindex a single .obm -file. (Only the default 1D-index. Not the 2D-index of nodes.)
+     * @param aDirectory the directory with the osmbin-database
+     * @return the format given as "osmbin.version" in osmbin.properties
+     * @throws IOException if we cannot read the file
+     */
+    static OsmBinFormat readFormat(final File aDirectory) throws IOException {
+        File propFile = new File(aDirectory, "osmbin.properties");
+        if (!propFile.exists()) {
+            return OsmBinFormat.V1_1;
+        }
+        Properties properties = new Properties();
+        InputStreamReader read = new InputStreamReader(new FileInputStream(propFile), "UTF8");
+        try {
+            properties.load(read);
+        } finally {
+            read.close();
+        }
+        String version = properties.getProperty("osmbin.version", OsmBinFormat.V1_1.getName());
+        OsmBinFormat format = OsmBinFormat.forName(version);
+        if (format == null) {
+            throw new IllegalArgumentException("Unsupported version of the OsmBin file-format '"
+                    + version + "'");
+        }
+        return format;
+    }
+
+    /**
+     * @param aName "nodes", "ways" or "relations"
+     * @return the temporary file to build the index in
+     */
+    private File getTempIndexFile(final String aName) {
+        if (myDenseIndex) {
+            return new File(myDirectory, aName + ".tempreindexing.didx");
+        }
+        return new File(myDirectory, aName + ".tempreindexing.idx");
+    }
+
+    /**
+     * Create an empty, temporary index.
+     * @param aName "nodes", "ways" or "relations"
+     * @return the temporary index to fill
+     * @throws IOException if we cannot create the file
+     */
+    private IIDIndexFile createTempIndex(final String aName) throws IOException {
+        File tempFile = getTempIndexFile(aName);
+        if (tempFile.exists()) {
+            tempFile.delete();
+        }
+        if (myDenseIndex) {
+            return new DenseIDIndexFile(tempFile);
+        }
+        return new IDIndexFile(tempFile);
+    }
+
+    /**
+     * Close the temporary index and rename it into the final file.
+     * An index of the other format is deleted.
+     * @param aName "nodes", "ways" or "relations"
+     * @param anOutputFile the temporary index
+     * @throws IOException if we cannot close the index
+     */
+    private void replaceIndex(final String aName, final IIDIndexFile anOutputFile) throws IOException {
+        anOutputFile.close();
+        File dense = new File(myDirectory, aName + ".didx");
+        File tree = new File(myDirectory, aName + ".idx");
+        dense.delete();
+        tree.delete();
+        if (myDenseIndex) {
+            getTempIndexFile(aName).renameTo(dense);
+        } else {
+            getTempIndexFile(aName).renameTo(tree);
+        }
+    }
+
+    /**
+     * Reindex a single .obm -file. (Only the default 1D-index. Not the 2D-index of nodes.)<br/>
+     * The file is read sequentially and, as IDs are mostly ascending in it,
+     * a {@link DenseIDIndexFile} is also written sequentially.
      * @param anOBmFile the .obm -file to scan
      * @param aRecordSize the size of the record
-     * @param anOutputFile the temporary file to build the index in
-     * @param aFinalOutputFile the index-file after re-creation
+     * @param aName "nodes", "ways" or "relations"
      * @throws IOException if anything fails
-     * @see {@link NodesFile#getNodeRecordLength()}
-     * @see {@link WaysFile#getWayRecordLength()}
-     * @see {@link RelationsFile#getRelationRecordLength()}
+     * @see {@link NodesFile#getNodeRecordLength(OsmBinFormat)}
+     * @see {@link WaysFile#getWayRecordLength(OsmBinFormat)}
+     * @see {@link RelationsFile#getRelationRecordLength(OsmBinFormat)}
      */
-    protected void reindex(final File anOBmFile, final int aRecordSize, final IDIndexFile anOutputFile, final File aFinalOutputFile) throws IOException {
+    protected void reindex(final File anOBmFile, final int aRecordSize, final String aName) throws IOException {
+        if (!anOBmFile.exists()) {
+            // nothing of this type has ever been stored
+            return;
+        }
         InputStream read = new BufferedInputStream(new FileInputStream(anOBmFile));
+        IIDIndexFile anOutputFile = createTempIndex(aName);
         byte[] record = new byte[aRecordSize];
         ByteBuffer recordBuffer = ByteBuffer.wrap(record);
-        int lastID = Integer.MIN_VALUE;
+        long lastID = OsmBinFormat.EMPTYID;
 
         // scan the file. All records starts with the id of the element.
-        // the id Integer.MIN_VALUE denotes an empty record.
+        // the id OsmBinFormat.EMPTYID denotes an empty record.
         for (long recordNr = 0; true; recordNr++) {
             int reat = read.read(record);
             if (reat < aRecordSize) {
                 break;
             }
             recordBuffer.rewind();
-            int id = recordBuffer.getInt();
+            long id = myFormat.readID(recordBuffer);
             if (id != lastID) {
                 lastID = id;
-                if (id != Integer.MIN_VALUE) {
+                if (id != OsmBinFormat.EMPTYID) {
                     anOutputFile.put(id, recordNr);
                 }
             }
         }
+        read.close();
 
         // rename the temporary file into the final file
-        anOutputFile.close();
-        aFinalOutputFile.delete();
-        anOutputFile.getFileName().renameTo(aFinalOutputFile);
+        replaceIndex(aName, anOutputFile);
     }
     /**
-     * Reindex a single .obm -file. (Only the default 1D-index. Not the 2D-index of nodes.)
+     * Reindex nodes.obm. (The default 1D-index and the 2D-index of nodes.)
      * @param anOBmFile the .obm -file to scan
      * @param aRecordSize the size of the record
-     * @param anOutputFile the temporary file to build the index in
-     * @param aGeoIndexFile 
-     * @param aFinalOutputFile the index-file after re-creation
-     * @param aFile 
+     * @param aName "nodes"
      * @throws IOException if anything fails
-     * @see {@link NodesFile#getNodeRecordLength()}
-     * @see {@link WaysFile#getWayRecordLength()}
-     * @see {@link RelationsFile#getRelationRecordLength()}
+     * @see {@link NodesFile#getNodeRecordLength(OsmBinFormat)}
      */
     protected void reindexNodes(final File anOBmFile,
             final int aRecordSize,
-            final IDIndexFile anOutputFile,
-            final GeoIndexFile aGeoIndexFile,
-            final File aFinalOutputFile,
-            final File aFinalGeoOutputFile) throws IOException {
+            final String aName) throws IOException {
+        if (!anOBmFile.exists()) {
+            // nothing of this type has ever been stored
+            return;
+        }
         InputStream read = new BufferedInputStream(new FileInputStream(anOBmFile));
+        IIDIndexFile anOutputFile = createTempIndex(aName);
+        File finalTreeFile = new File(myDirectory, aName + ".id2");
+        File finalPackedFile = new File(myDirectory, aName + ".pid2");
+        GeoIndexFile geoIndexFile = null;
+        PackedGeoIndexFile.Builder packedBuilder = null;
+        File tempGeoFile;
+        if (myPackedGeoIndex) {
+            tempGeoFile = new File(myDirectory, aName + ".tempreindexing.pid2");
+            packedBuilder = new PackedGeoIndexFile.Builder(tempGeoFile, myDirectory, GEOINDEXTUPLESINMEMORY);
+        } else {
+            tempGeoFile = new File(myDirectory, aName + ".tempreindexing.id2");
+            if (tempGeoFile.exists()) {
+                tempGeoFile.delete();
+            }
+            geoIndexFile = new GeoIndexFile(tempGeoFile);
+        }
         byte[] record = new byte[aRecordSize];
         ByteBuffer recordBuffer = ByteBuffer.wrap(record);
-        int lastID = Integer.MIN_VALUE;
+        long lastID = OsmBinFormat.EMPTYID;
 
         // scan the file. All records starts with the id of the element.
-        // the id Integer.MIN_VALUE denotes an empty record.
+        // the id OsmBinFormat.EMPTYID denotes an empty record.
         for (long recordNr = 0; true; recordNr++) {
             int reat = read.read(record);
             if (reat < aRecordSize) {
                 break;
             }
             recordBuffer.rewind();
-            int id = recordBuffer.getInt();
+            long id = myFormat.readID(recordBuffer);
             if (id != lastID) {
                 lastID = id;
-                if (id != Integer.MIN_VALUE) {
-                    int version = recordBuffer.getInt();
+                if (id != OsmBinFormat.EMPTYID) {
+                    recordBuffer.getInt(); // version
                     int latI = recordBuffer.getInt();
-                    double lat = FixedPrecisionCoordinateConvertor.convertToDouble(latI);
                     int lonI = recordBuffer.getInt();
-                    double lon = FixedPrecisionCoordinateConvertor.convertToDouble(lonI);
 
                     anOutputFile.put(id, recordNr);
-                    aGeoIndexFile.put(recordNr, latI, lonI);
+                    if (packedBuilder != null) {
+                        packedBuilder.add(recordNr, latI, lonI);
+                    } else {
+                        geoIndexFile.put(recordNr, latI, lonI);
+                    }
                 }
             }
         }
+        read.close();
 
         // rename the temporary file into the final file
-        anOutputFile.close();
-        aFinalOutputFile.delete();
-        anOutputFile.getFileName().renameTo(aFinalOutputFile);
-        aGeoIndexFile.close();
-        aFinalGeoOutputFile.delete();
-        aGeoIndexFile.getFileName().renameTo(aFinalGeoOutputFile);
+        replaceIndex(aName, anOutputFile);
+        if (packedBuilder != null) {
+            packedBuilder.build().close();
+        } else {
+            geoIndexFile.close();
+        }
+        finalTreeFile.delete();
+        finalPackedFile.delete();
+        if (myPackedGeoIndex) {
+            tempGeoFile.renameTo(finalPackedFile);
+        } else {
+            tempGeoFile.renameTo(finalTreeFile);
+        }
+    }
+
+    /**
+     * Reindex ways.obm. (The default 1D-index and the index of the bounding-boxes of ways.)
+     * @param anOBmFile the .obm -file to scan
+     * @param aRecordSize the size of the record
+     * @param aName "ways"
+     * @throws IOException if anything fails
+     * @see {@link WaysFile#getWayRecordLength(OsmBinFormat)}
+     */
+    protected void reindexWays(final File anOBmFile,
+            final int aRecordSize,
+            final String aName) throws IOException {
+        if (!anOBmFile.exists()) {
+            // nothing of this type has ever been stored
+            return;
+        }
+        InputStream read = new BufferedInputStream(new FileInputStream(anOBmFile));
+        IIDIndexFile anOutputFile = createTempIndex(aName);
+        File finalBoundsFile = new File(myDirectory, aName + ".pid2");
+        File tempBoundsFile = new File(myDirectory, aName + ".tempreindexing.pid2");
+        PackedGeoIndexFile.Builder boundsBuilder = new PackedGeoIndexFile.Builder(tempBoundsFile, myDirectory, GEOINDEXTUPLESINMEMORY);
+        byte[] record = new byte[aRecordSize];
+        ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+        long lastID = OsmBinFormat.EMPTYID;
+
+        // scan the file. All records starts with the id of the element.
+        // the id OsmBinFormat.EMPTYID denotes an empty record.
+        for (long recordNr = 0; true; recordNr++) {
+            int reat = read.read(record);
+            if (reat < aRecordSize) {
+                break;
+            }
+            recordBuffer.rewind();
+            long id = myFormat.readID(recordBuffer);
+            if (id != lastID) {
+                lastID = id;
+                if (id != OsmBinFormat.EMPTYID) {
+                    recordBuffer.getInt(); // version
+                    int minLatI = recordBuffer.getInt();
+                    int maxLatI = recordBuffer.getInt();
+                    int minLonI = recordBuffer.getInt();
+                    int maxLonI = recordBuffer.getInt();
+
+                    anOutputFile.put(id, recordNr);
+                    // ways without any known node have no bounding-box
+                    if (minLatI <= maxLatI && minLonI <= maxLonI) {
+                        boundsBuilder.add(id, minLatI, minLonI, maxLatI, maxLonI);
+                    }
+                }
+            }
+        }
+        read.close();
+
+        // rename the temporary files into the final files
+        replaceIndex(aName, anOutputFile);
+        boundsBuilder.build().close();
+        finalBoundsFile.delete();
+        tempBoundsFile.renameTo(finalBoundsFile);
+    }
+
+    /**
+     * Rebuild nodes.tix and ways.tix. Unlike the other indice they
+     * need the decoded tags, so we read nodes and ways via a
+     * read-only {@link OsmBinDataSetV10} after their 1D-indice
+     * have been rebuilt.
+     * @throws IOException if anything fails
+     */
+    protected void reindexTags() throws IOException {
+        File nodesTagIndex = new File(myDirectory, "nodes.tix");
+        File waysTagIndex = new File(myDirectory, "ways.tix");
+        // the old indice are not up to date and must not be opened below
+        TagIndexFile.delete(nodesTagIndex);
+        TagIndexFile.delete(waysTagIndex);
+        if (!myTagIndex) {
+            return;
+        }
+        OsmBinDataSetV10 data = new OsmBinDataSetV10(myDirectory, myFormat, true);
+        try {
+            buildTagIndex(data.getNodesFile().getallNodes(), data.getAttrNamesFile(), nodesTagIndex);
+            buildTagIndex(data.getWaysFile().getallWays(), data.getAttrNamesFile(), waysTagIndex);
+        } finally {
+            data.shutdown();
+        }
+    }
+
+    /**
+     * Build a single tag-index.
+     * @param anEntities all nodes or all ways
+     * @param anAttrNames the keys of the tags
+     * @param aFileName the tag-index to create
+     * @throws IOException if anything fails
+     */
+    private void buildTagIndex(final Iterator<? extends Entity> anEntities,
+                               final AttrNames anAttrNames,
+                               final File aFileName) throws IOException {
+        File tempFile = new File(myDirectory, aFileName.getName().replace(".tix", ".tempreindexing.tix"));
+        TagIndexFile.Builder builder = new TagIndexFile.Builder(tempFile, myDirectory, TAGINDEXTUPLESINMEMORY);
+        try {
+            while (anEntities.hasNext()) {
+                Entity entity = anEntities.next();
+                for (Tag tag : entity.getTags()) {
+                    short key = anAttrNames.getKey(tag.getKey());
+                    if (key != Short.MIN_VALUE) {
+                        builder.add(entity.getId(), key, tag.getValue());
+                    }
+                }
+            }
+            builder.build().close();
+        } finally {
+            builder.close();
+        }
+        if (!TagIndexFile.rename(tempFile, aFileName)) {
+            throw new IOException("Cannot rename " + tempFile.getAbsolutePath()
+                    + " to " + aFileName.getName());
+        }
     }
 
 }
@@ -0,0 +1,264 @@
+package org.openstreetmap.osm.data.osmbin.v1_0;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.osmbin.LongTupleSorter;
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
+import org.openstreetmap.osm.data.osmbin.PackedGeoIndexFile;
+import org.openstreetmap.osmosis.core.task.common.RunnableTask;
+
+/**
+ * Project: libosm<br/>
+ * OsmBinV10Reorderer.java<br/>
+ * created: 17.10.2026<br/>
+ *<br/><br/>
+ * <b>This is an Osmosis-task to store the nodes and ways of a map in OsmBin-format
+ * in the order of a Hilbert-curve.</b><br/>
+ * Entities are stored in the first free records, that is mostly in the order they
+ * were imported in. So a bounding-box-query or a routing-expansion touches pages
+ * all over the file. This task rewrites nodes.obm sorted by the location of every node
+ * and ways.obm sorted by the center of the bounding-box of every way.
+ * Free records are dropped. Afterwards all indice are rebuilt by the
+ * {@link OsmBinV10Reindexer}.<br/>
+ * Like the reindexer this must not run while the map is in use.
+ */
+public class OsmBinV10Reorderer implements RunnableTask {
+
+    /**
+     * Automatically created logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(OsmBinV10Reorderer.class
+            .getName());
+
+    /**
+     * The number of entities to sort in memory.
+     */
+    private static final int TUPLESINMEMORY = 1 << 21;
+
+    /**
+     * The number of longs in a tuple sorted.
+     * (hilbert-value, first record, number of records)
+     */
+    private static final int TUPLESIZE = 3;
+
+    /**
+     * The index of the first record in a tuple.
+     * @see #TUPLESIZE
+     */
+    private static final int TUPLERECORD = 1;
+
+    /**
+     * The index of the number of records in a tuple.
+     * @see #TUPLESIZE
+     */
+    private static final int TUPLECOUNT = 2;
+
+    /**
+     * Size of the buffers used to read and write the files.
+     */
+    private static final int IOBUFFERSIZE = 256 * 1024;
+
+    /**
+     * The directory containing the OsmBin-data.
+     */
+    private final File myDirectory;
+
+    /**
+     * The record-layout of the *.obm -files as given in osmbin.properties.
+     */
+    private OsmBinFormat myFormat = OsmBinFormat.V1_1;
+
+    /**
+     * @param aDir the directory with the osmbin-database
+     */
+    public OsmBinV10Reorderer(final File aDir) {
+        if (!aDir.exists()) {
+            throw new IllegalArgumentException("Directory "
+                    + aDir.getAbsolutePath() + " does not exist. ");
+        }
+
+        if (!aDir.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory "
+                    + aDir.getAbsolutePath());
+        }
+        this.myDirectory = aDir;
+    }
+
+    /**
+     *
+     * @param args only 1 argument allowed. The directory with the osmbin-data
+     */
+    public static void main(final String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: OsmBinV10Reorderer <directory with osmbin-data>");
+            return;
+        }
+        OsmBinV10Reorderer worker = new OsmBinV10Reorderer(new File(args[0]));
+        worker.run();
+    }
+
+    /**
+     * Rewrite nodes.obm and ways.obm in {@link #myDirectory}
+     * in hilbert-order and rebuild all indice.
+     */
+    @Override
+    public void run() {
+        try {
+            myFormat = OsmBinV10Reindexer.readFormat(myDirectory);
+            reorder(new File(myDirectory, "nodes.obm"),
+                    NodesFile.getNodeRecordLength(myFormat),
+                    "nodes", false);
+            reorder(new File(myDirectory, "ways.obm"),
+                    WaysFile.getWayRecordLength(myFormat),
+                    "ways", true);
+            new OsmBinV10Reindexer(myDirectory).run();
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Cannot reorder the map in " + myDirectory.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Rewrite a single .obm -file in hilbert-order.<br/>
+     * The file is read sequentially to sort all entities by their location.
+     * The new file is written sequentially while the records of the entities
+     * are read from the old file in that order.
+     * @param anOBmFile the .obm -file to reorder
+     * @param aRecordSize the size of the record
+     * @param aName "nodes" or "ways"
+     * @param aHasBoundingBox true if the records contain a bounding-box (ways)
+     *        instead of a location (nodes)
+     * @throws IOException if anything fails
+     * @see {@link NodesFile#getNodeRecordLength(OsmBinFormat)}
+     * @see {@link WaysFile#getWayRecordLength(OsmBinFormat)}
+     */
+    protected void reorder(final File anOBmFile, final int aRecordSize,
+                           final String aName, final boolean aHasBoundingBox) throws IOException {
+        if (!anOBmFile.exists()) {
+            return;
+        }
+        LongTupleSorter sorter = new LongTupleSorter(myDirectory, aName + ".tempreorder", TUPLESIZE, TUPLESINMEMORY);
+        File tempFile = new File(myDirectory, aName + ".tempreorder.obm");
+        try {
+            long oldRecordCount = sortByLocation(anOBmFile, aRecordSize, aHasBoundingBox, sorter);
+            long newRecordCount = 0;
+            long entityCount = 0;
+            LongTupleSorter.Reader sorted = sorter.sort();
+            FileChannel in = new RandomAccessFile(anOBmFile, "r").getChannel();
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile), IOBUFFERSIZE);
+            try {
+                long[] tuple = new long[TUPLESIZE];
+                ByteBuffer records = ByteBuffer.allocate(aRecordSize);
+                while (sorted.next(tuple)) {
+                    int length = (int) tuple[TUPLECOUNT] * aRecordSize;
+                    if (records.capacity() < length) {
+                        records = ByteBuffer.allocate(length);
+                    }
+                    records.clear();
+                    records.limit(length);
+                    long position = tuple[TUPLERECORD] * aRecordSize;
+                    while (records.hasRemaining()) {
+                        int reat = in.read(records, position + records.position());
+                        if (reat < 0) {
+                            throw new IOException("unexpected end of " + anOBmFile.getName());
+                        }
+                    }
+                    out.write(records.array(), 0, length);
+                    newRecordCount += tuple[TUPLECOUNT];
+                    entityCount++;
+                }
+            } finally {
+                sorted.close();
+                in.close();
+                out.close();
+            }
+            if (!anOBmFile.delete() || !tempFile.renameTo(anOBmFile)) {
+                throw new IOException("Cannot replace " + anOBmFile.getAbsolutePath()
+                        + " by " + tempFile.getAbsolutePath());
+            }
+            LOG.info("Reordered " + entityCount + " " + aName + " from "
+                    + oldRecordCount + " into " + newRecordCount + " records");
+        } finally {
+            sorter.close();
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Scan an .obm -file and add the hilbert-value, first record and number
+     * of records of every entity to the given sorter.
+     * @param anOBmFile the .obm -file to scan
+     * @param aRecordSize the size of the record
+     * @param aHasBoundingBox true if the records contain a bounding-box (ways)
+     *        instead of a location (nodes)
+     * @param aSorter where to add the entities
+     * @return the number of records in the file
+     * @throws IOException if we cannot read
+     */
+    private long sortByLocation(final File anOBmFile, final int aRecordSize,
+                                final boolean aHasBoundingBox, final LongTupleSorter aSorter) throws IOException {
+        InputStream read = new BufferedInputStream(new FileInputStream(anOBmFile), IOBUFFERSIZE);
+        byte[] record = new byte[aRecordSize];
+        ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+        long[] tuple = new long[TUPLESIZE];
+        long lastID = OsmBinFormat.EMPTYID;
+        long recordNr = 0;
+        try {
+            // scan the file. All records starts with the id of the element.
+            // the id OsmBinFormat.EMPTYID denotes an empty record.
+            // Consecutive records with the same id belong to the same element.
+            for (; true; recordNr++) {
+                int reat = read.read(record);
+                if (reat < aRecordSize) {
+                    break;
+                }
+                recordBuffer.rewind();
+                long id = myFormat.readID(recordBuffer);
+                if (id != OsmBinFormat.EMPTYID && id == lastID) {
+                    tuple[TUPLECOUNT]++;
+                    continue;
+                }
+                if (lastID != OsmBinFormat.EMPTYID) {
+                    aSorter.add(tuple);
+                }
+                lastID = id;
+                if (id != OsmBinFormat.EMPTYID) {
+                    recordBuffer.getInt(); // version
+                    long lat;
+                    long lon;
+                    if (aHasBoundingBox) {
+                        long minLat = recordBuffer.getInt();
+                        long maxLat = recordBuffer.getInt();
+                        long minLon = recordBuffer.getInt();
+                        long maxLon = recordBuffer.getInt();
+                        lat = (minLat + maxLat) / 2;
+                        lon = (minLon + maxLon) / 2;
+                    } else {
+                        lat = recordBuffer.getInt();
+                        lon = recordBuffer.getInt();
+                    }
+                    tuple[0] = PackedGeoIndexFile.getHilbertValue(lat, lon);
+                    tuple[TUPLERECORD] = recordNr;
+                    tuple[TUPLECOUNT] = 1;
+                }
+            }
+            if (lastID != OsmBinFormat.EMPTYID) {
+                aSorter.add(tuple);
+            }
+        } finally {
+            read.close();
+        }
+        return recordNr;
+    }
+}
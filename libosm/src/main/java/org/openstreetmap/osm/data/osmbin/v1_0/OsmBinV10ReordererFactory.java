@@ -0,0 +1,53 @@
+package org.openstreetmap.osm.data.osmbin.v1_0;
+
+import java.io.File;
+
+import org.openstreetmap.osmosis.core.pipeline.common.RunnableTaskManager;
+import org.openstreetmap.osmosis.core.pipeline.common.TaskConfiguration;
+import org.openstreetmap.osmosis.core.pipeline.common.TaskManager;
+import org.openstreetmap.osmosis.core.pipeline.common.TaskManagerFactory;
+
+/**
+ * Project: libosm<br/>
+ * OsmBinV10ReordererFactory.java<br/>
+ * created: 17.10.2026<br/>
+ *<br/><br/>
+ * <b>This is the factory for {@link OsmBinV10Reorderer}. An Osmosis-task to
+ * store the nodes and ways of a map in OsmBin-format in hilbert-order.</b><br/>
+ */
+public class OsmBinV10ReordererFactory extends TaskManagerFactory  {
+
+    /**
+     * Argument for the directory with the map.
+     */
+    private static final String ARG_DIR_NAME = "dir";
+
+    /**
+     * Default for {@link #ARG_DIR_NAME}.
+     */
+    private static final String DEFAULT_DIR_NAME = "osmbin";
+
+    /**
+     * {@inheritDoc}
+     */
+    protected TaskManager createTaskManagerImpl(final TaskConfiguration taskConfig) {
+        String fileName;
+        File dir;
+        OsmBinV10Reorderer task;
+
+        // Get the task arguments.
+        fileName = getStringArgument(
+            taskConfig,
+            ARG_DIR_NAME,
+            getDefaultStringArgument(taskConfig, DEFAULT_DIR_NAME)
+        );
+
+        // Create a file object from the file name provided.
+        dir = new File(fileName);
+
+        // Build the task object.
+        task = new OsmBinV10Reorderer(dir);
+
+        return new RunnableTaskManager(taskConfig.getId(), task, taskConfig.getPipeArgs());
+    }
+}
@@ -54,7 +54,8 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 
 import org.openstreetmap.osm.data.osmbin.AttrNames;
-import org.openstreetmap.osm.data.osmbin.IDIndexFile;
+import org.openstreetmap.osm.data.osmbin.IIDIndexFile;
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
 
 import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
 import org.openstreetmap.osmosis.core.domain.v0_6.OsmUser;
@@ -122,8 +123,24 @@ public class RelationsFile extends AbstractEntityFile {
      */
     public RelationsFile(final File aFileName,
             final AttrNames anAttrNamesFile,
-            final IDIndexFile anIndex) throws IOException {
-        super(aFileName, anIndex, anAttrNamesFile);
+            final IIDIndexFile anIndex) throws IOException {
+        this(aFileName, OsmBinFormat.V1_1, false, anAttrNamesFile, anIndex);
+    }
+
+    /**
+     * @param aFileName the filename of the relations.obm -file.
+     * @param aFormat the record-layout of the file
+     * @param aReadOnly open the file read-only
+     * @param anAttrNamesFile The file attribute-names are stored in.
+     * @param anIndex The file containing an index by relation-ID.
+     * @throws IOException if we cannot open or create the file.
+     */
+    public RelationsFile(final File aFileName,
+            final OsmBinFormat aFormat,
+            final boolean aReadOnly,
+            final AttrNames anAttrNamesFile,
+            final IIDIndexFile anIndex) throws IOException {
+        super(aFileName, aFormat, aReadOnly, anIndex, anAttrNamesFile);
         super.myGrowExcessRecordsCount = GROWEXCESSRECORDS;
     }
 
@@ -149,21 +166,23 @@ public class RelationsFile extends AbstractEntityFile {
      */
     @Override
     public int getRecordLength() {
-        return getRelationRecordLength();
+        return getRelationRecordLength(getFormat());
     }
 
     /**
+     * @param aFormat the record-layout of the file
      * @return the length of a record in bytes.
      * @see FixedRecordFile
      */
-    protected static int getRelationRecordLength() {
+    protected static int getRelationRecordLength(final OsmBinFormat aFormat) {
         final int bytesPerShort = 2;
         final int bytesPerInt = 4;
         final int bytesPerChar = 2;
-        return bytesPerInt //  ID
+        final int bytesPerID = aFormat.getIDLength();
+        return bytesPerID //  ID
         + bytesPerInt // verson
         + ATTRCOUNTPERRECORD * (bytesPerShort + bytesPerChar * NUMTAGVALCHARS)
-        + (REFCOUNTPERRECORD * bytesPerInt * (1 + 1 + 1));
+        + (REFCOUNTPERRECORD * (bytesPerID + bytesPerInt + bytesPerInt));
     }
 
 
@@ -172,7 +191,7 @@ public class RelationsFile extends AbstractEntityFile {
      * @return true if the currently selected record is free for reuse.
      */
     public boolean isRecordUnused(final ByteBuffer record) {
-        return record.getInt() == Integer.MIN_VALUE;
+        return readID(record) == OsmBinFormat.EMPTYID;
     }
 
     /**
@@ -321,14 +340,11 @@ node
 //        if (recordNumber == 2000) {
 //            LOG.log(Level.SEVERE, "Breakpoint - please analyse buffer-position for potential OverflowExceptin");
 //        }
-        if (aRelation.getId() > Integer.MAX_VALUE) {
-            throw new IllegalStateException("relationID too large to be represented as an integer");
-        }
         ByteBuffer mem = getRecordForReading(recordNumber);
         int start = mem.position();
-        int safetyTest = mem.getInt();
+        long safetyTest = readID(mem);
         mem.position(start);
-        if (safetyTest != Integer.MIN_VALUE && safetyTest != aRelation.getId()) {
+        if (safetyTest != OsmBinFormat.EMPTYID && safetyTest != aRelation.getId()) {
             releaseRecord(mem);
             mem = null;
             throw new RecordInUseException(recordNumber, "Major internal error! "
@@ -337,7 +353,23 @@ node
                     + safetyTest + " with record " + counter + " of relation "
                     + aRelation.getId());
         }
-        mem.putInt((int) aRelation.getId());
+        encodeRelationRecord(mem, aRelation, counter, aPreparedTagList);
+        mem.position(start);
+        writeRecord(mem, recordNumber);
+    }
+
+    /**
+     * Write a single record of the given relation into a buffer.
+     * @param mem the buffer to write to. Positioned at the start of the record
+     *        and afterwards at the end of it.
+     * @param aRelation the relation to write
+     * @param counter this many records have been written already
+     * @param aPreparedTagList the tags of the relation
+     * @throws IOException  if an attribute-key cannot be created
+     */
+    private void encodeRelationRecord(final ByteBuffer mem, final Relation aRelation, final int counter,
+            final List<Object> aPreparedTagList) throws IOException  {
+        writeID(mem, aRelation.getId());
         mem.putInt(aRelation.getVersion());
 
         // write ATTRCOUNTPERRECORD Attributes
@@ -351,27 +383,46 @@ node
         }
         // write NODEREFCOUNTPERRECORD nodes
         for (int w = 0; w < REFCOUNTPERRECORD; w++) {
-            int objectID = Integer.MIN_VALUE;
+            long objectID = OsmBinFormat.EMPTYID;
             int objectType = 0;
             int roleID = Integer.MIN_VALUE;
             int indexIntoObjectlist = w + (REFCOUNTPERRECORD * counter);
             if (aRelation.getMembers().size() > indexIntoObjectlist) {
                 RelationMember object = aRelation.getMembers().get(indexIntoObjectlist);
-                long objectIdLong = object.getMemberId();
-                if (objectIdLong > Integer.MAX_VALUE) {
-                    throw new IllegalStateException("nodeID too large to be represented as an integer");
-                }
-                objectID = (int) objectIdLong;
+                objectID = object.getMemberId();
                 objectType = object.getMemberType().ordinal();
                 roleID = getAttrNamesFile().getOrCreateKey(object.getMemberRole());
                 //newlines,.. may change assert getAttrNamesFile().getAttributeName((short) roleID).equalsIgnoreCase(object.getMemberRole());
             }
-            mem.putInt(objectID);
+            writeID(mem, objectID);
             mem.putInt(objectType);
             mem.putInt(roleID);
         }
-        mem.position(start);
-        writeRecord(mem, recordNumber);
+    }
+
+    /**
+     * Append the given relation at the end of the file
+     * without looking for free records or an older
+     * version of the relation.<br/>
+     * This is meant for bulk-loading a new file.
+     * The index is NOT updated. It is to be rebuilt
+     * afterwards by the {@link OsmBinV10Reindexer}.
+     * @param aRelation the relation to store
+     * @return the first of the records this relation is stored in
+     * @throws IOException if we cannot write
+     * @see #flushAppendedRecords()
+     */
+    public long appendRelation(final Relation aRelation) throws IOException {
+        List<Object> preparedTagList = super.prepareTagList(aRelation.getTags(), NUMTAGVALCHARS);
+        int required = Math.max(getRequiredRecordCount(aRelation), preparedTagList.size() / ATTRCOUNTPERRECORD);
+        ByteBuffer records = ByteBuffer.allocate(required * getRecordLength());
+        for (int i = 0; i < required; i++) {
+            encodeRelationRecord(records, aRelation, i, preparedTagList);
+        }
+        records.flip();
+        long recordNr = appendRecords(records);
+        myLastRecordWritten = Math.max(myLastRecordWritten, recordNr + required - 1);
+        return recordNr;
     }
 
     /**
@@ -397,13 +448,15 @@ node
             return null;
         }
         ByteBuffer mem = getRecordForReading(recordNr);
-        long id = mem.getInt();
+        long id = readID(mem);
         if (id != aRelationID && aRelationID != Integer.MIN_VALUE) {
-            if (id == Integer.MIN_VALUE) {
+            if (id == OsmBinFormat.EMPTYID) {
                 LOG.log(Level.SEVERE, "broken relations.idx -file."
                         + " Record " + recordNr + " for relation "
                         + aRelationID + " is marked as free.");
-                myUsedRecordIndex.clear((int) recordNr);
+                if (!isReadOnly()) {
+                    myUsedRecordIndex.clear((int) recordNr);
+                }
             } else {
                 LOG.log(Level.SEVERE, "record for relation "
                     + aRelationID + " stores relation "
@@ -415,11 +468,11 @@ node
                 if (recordNr < 0) {
                     LOG.log(Level.SEVERE, "given relation "
                             + aRelationID + " does not exist in this file.");
-                    getIndex().remove(aRelationID);
+                    repairIndex(aRelationID, -1);
                     return null;
                 }
                 mem = getRecordForReading(recordNr);
-                id = mem.getInt();
+                id = readID(mem);
                 if (id != aRelationID) {
                     releaseRecord(mem);
                     throw new IllegalStateException("Internal error!"
@@ -427,7 +480,7 @@ node
                             + recordNr + " that does NOT contain the relation "
                             + aRelationID + " that it scanned for.");
                 }
-                getIndex().put(aRelationID, recordNr);
+                repairIndex(aRelationID, recordNr);
             }
         }
         int version = mem.getInt();
@@ -446,10 +499,10 @@ node
 
             // read node-IDs
             for (int a = 0; a < REFCOUNTPERRECORD; a++) {
-                int objectID   = mem.getInt();
+                long objectID  = readID(mem);
                 int objectType = mem.getInt();
                 int roleID     = mem.getInt();
-                if (objectID != Integer.MIN_VALUE) {
+                if (objectID != OsmBinFormat.EMPTYID) {
                     members.add(new RelationMember(objectID,  EntityType.values()[objectType], getAttrNamesFile().getAttributeName((short) roleID)));
                 }
             }
@@ -461,11 +514,10 @@ node
             releaseRecord(mem);
             recordCount++;
             mem = getRecordForReading(recordNr);
-            int temp = mem.getInt();
-            if (temp != aRelationID) {
+            if (readID(mem) != aRelationID) {
                 break;
             }
-            temp = mem.getInt(); // skip version
+            int temp = mem.getInt(); // skip version
             if (temp != version) {
                 break;
             }
@@ -0,0 +1,163 @@
+/**
+ * WayRecordView.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin.v1_0;
+
+import java.io.IOException;
+
+import org.openstreetmap.osmosis.core.util.FixedPrecisionCoordinateConvertor;
+
+/**
+ * Project: libosm<br/>
+ * WayRecordView.java<br/>
+ *<br/><br/>
+ * <b>Read-only view of a way in the ways.obm -file.</b><br/>
+ * Meant for code that only needs the node-IDs, the bounding-box or
+ * a few tags of many ways and would otherwise create
+ * a complete {@link ExtendedWay} for each of them.
+ * @see WaysFile#readWay(long, long)
+ */
+public class WayRecordView extends AbstractRecordView {
+
+    /**
+     * The byte-index (after the ID) of the minimum latitude in a record.
+     */
+    private static final int MINLATOFFSET = 4;
+
+    /**
+     * The byte-index (after the ID) of the maximum latitude in a record.
+     */
+    private static final int MAXLATOFFSET = 8;
+
+    /**
+     * The byte-index (after the ID) of the minimum longitude in a record.
+     */
+    private static final int MINLONOFFSET = 12;
+
+    /**
+     * The byte-index (after the ID) of the maximum longitude in a record.
+     */
+    private static final int MAXLONOFFSET = 16;
+
+    /**
+     * The byte-index (after the ID) of the attribute-slots in a record.
+     */
+    private static final int ATTROFFSET = 20;
+
+    /**
+     * The byte-index (after the ID) of the node-IDs in a record.
+     */
+    private final int myNodesOffset;
+
+    /**
+     * The byte-index (after the ID) of the relation-IDs in a record.
+     */
+    private final int myRelationsOffset;
+
+    /**
+     * @param aFile the file to read
+     */
+    public WayRecordView(final WaysFile aFile) {
+        super(aFile, ATTROFFSET, WaysFile.ATTRCOUNTPERRECORD, WaysFile.NUMTAGVALCHARS);
+        final int bytesPerAttr = 2 + 2 * WaysFile.NUMTAGVALCHARS;
+        this.myNodesOffset = ATTROFFSET + WaysFile.ATTRCOUNTPERRECORD * bytesPerAttr;
+        this.myRelationsOffset = myNodesOffset + WaysFile.NODEREFCOUNTPERRECORD * getIDLength();
+    }
+
+    /**
+     * @return the minimum latitude of the bounding-box encoded as an integer
+     * @throws IOException if we cannot read the record
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public int getMinLatitudeFixed() throws IOException {
+        return getInt(0, getIDLength() + MINLATOFFSET);
+    }
+
+    /**
+     * @return the maximum latitude of the bounding-box encoded as an integer
+     * @throws IOException if we cannot read the record
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public int getMaxLatitudeFixed() throws IOException {
+        return getInt(0, getIDLength() + MAXLATOFFSET);
+    }
+
+    /**
+     * @return the minimum longitude of the bounding-box encoded as an integer
+     * @throws IOException if we cannot read the record
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public int getMinLongitudeFixed() throws IOException {
+        return getInt(0, getIDLength() + MINLONOFFSET);
+    }
+
+    /**
+     * @return the maximum longitude of the bounding-box encoded as an integer
+     * @throws IOException if we cannot read the record
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    public int getMaxLongitudeFixed() throws IOException {
+        return getInt(0, getIDLength() + MAXLONOFFSET);
+    }
+
+    /**
+     * @return the number of nodes of this way
+     * @throws IOException if we cannot read the record
+     */
+    public int getWayNodeCount() throws IOException {
+        return countIDs(myNodesOffset, WaysFile.NODEREFCOUNTPERRECORD);
+    }
+
+    /**
+     * @param anIndex 0..{@link #getWayNodeCount()}-1
+     * @return the ID of the node at this index of the way
+     * @throws IOException if we cannot read the record
+     */
+    public long getWayNodeID(final int anIndex) throws IOException {
+        return getID(anIndex, myNodesOffset, WaysFile.NODEREFCOUNTPERRECORD);
+    }
+
+    /**
+     * @return the number of relations this way is a member of
+     * @throws IOException if we cannot read the record
+     */
+    public int getRelationCount() throws IOException {
+        return countIDs(myRelationsOffset, WaysFile.RELATIONREFCOUNTPERRECORD);
+    }
+
+    /**
+     * @param anIndex 0..{@link #getRelationCount()}-1
+     * @return the ID of a relation this way is a member of
+     * @throws IOException if we cannot read the record
+     */
+    public long getRelationID(final int anIndex) throws IOException {
+        return getID(anIndex, myRelationsOffset, WaysFile.RELATIONREFCOUNTPERRECORD);
+    }
+}
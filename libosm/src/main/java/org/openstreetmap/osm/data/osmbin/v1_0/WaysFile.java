@@ -48,7 +48,8 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 
 import org.openstreetmap.osm.data.osmbin.AttrNames;
-import org.openstreetmap.osm.data.osmbin.IDIndexFile;
+import org.openstreetmap.osm.data.osmbin.IIDIndexFile;
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
 
 import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
 import org.openstreetmap.osmosis.core.domain.v0_6.Way;
@@ -74,7 +75,7 @@ public class WaysFile extends AbstractEntityFile {
      * written directly into a record. Longer values
      * are stored externally.
      */
-    private static final int NUMTAGVALCHARS = 16;
+    static final int NUMTAGVALCHARS = 16;
 
     /**
      * This many slots to store a single
@@ -82,7 +83,7 @@ public class WaysFile extends AbstractEntityFile {
      * If more are required, additional records
      * are used to store the way.
      */
-    private static final int ATTRCOUNTPERRECORD = 1;
+    static final int ATTRCOUNTPERRECORD = 1;
 
     /**
      * This many slots to store a single
@@ -90,14 +91,14 @@ public class WaysFile extends AbstractEntityFile {
      * If more are required, additional records
      * are used to store the way.
      */
-    private static final int NODEREFCOUNTPERRECORD = 14;
+    static final int NODEREFCOUNTPERRECORD = 14;
     /**
      * This many slots to store a single
      * relation-reference in a single record.
      * If more are required, additional records
      * are used to store the way.
      */
-    private static final int RELATIONREFCOUNTPERRECORD = 1;
+    static final int RELATIONREFCOUNTPERRECORD = 1;
 
     /**
      * If we need to grow the file,
@@ -113,8 +114,24 @@ public class WaysFile extends AbstractEntityFile {
      */
     public WaysFile(final File aFileName,
             final AttrNames anAttrNamesFile,
-            final IDIndexFile anIndex) throws IOException {
-        super(aFileName, anIndex, anAttrNamesFile);
+            final IIDIndexFile anIndex) throws IOException {
+        this(aFileName, OsmBinFormat.V1_1, false, anAttrNamesFile, anIndex);
+    }
+
+    /**
+     * @param aFileName the filename of the ways.obm -file.
+     * @param aFormat the record-layout of the file
+     * @param aReadOnly open the file read-only
+     * @param anAttrNamesFile The file attribute-names are stored in.
+     * @param anIndex The file containing an index by node-ID.
+     * @throws IOException if we cannot open or create the file.
+     */
+    public WaysFile(final File aFileName,
+            final OsmBinFormat aFormat,
+            final boolean aReadOnly,
+            final AttrNames anAttrNamesFile,
+            final IIDIndexFile anIndex) throws IOException {
+        super(aFileName, aFormat, aReadOnly, anIndex, anAttrNamesFile);
         super.myGrowExcessRecordsCount = GROWEXCESSRECORDS;
     }
 
@@ -133,7 +150,7 @@ public class WaysFile extends AbstractEntityFile {
         try {
             File dir = new  File("e:\\osmbin.data"); //DEBUG args[0]);
             File file = new File(dir, "ways.obm");
-            WaysFile subject = new WaysFile(file, new AttrNames(new File(dir, "attrnames.txt")), new IDIndexFile(new File(dir, "ways.idx")));
+            WaysFile subject = new WaysFile(file, new AttrNames(new File(dir, "attrnames.txt")), OsmBinDataSetV10.openIDIndex(dir, "ways"));
             System.out.println("Number of records in obm-file: " + subject.getRecordCount() + " = " + (subject.getRecordCount() * subject.getRecordLength()) + " bytes");
             System.out.println("Lengt of each record in obm-file: " + subject.getRecordLength());
             int unusedRecordCount = 0;
@@ -347,24 +364,26 @@ public class WaysFile extends AbstractEntityFile {
      */
     @Override
     public int getRecordLength() {
-        return getWayRecordLength();
+        return getWayRecordLength(getFormat());
     }
 
     /**
+     * @param aFormat the record-layout of the file
      * @return the length of a record in bytes.
      * @see FixedRecordFile
      */
-    protected static int getWayRecordLength() {
+    protected static int getWayRecordLength(final OsmBinFormat aFormat) {
         final int bytesPerShort = 2;
         final int bytesPerInt = 4;
         final int bytesPerChar = 2;
-        return bytesPerInt //  ID
+        final int bytesPerID = aFormat.getIDLength();
+        return bytesPerID //  ID
         + bytesPerInt // version
         + bytesPerInt + bytesPerInt // lat min/max
         + bytesPerInt + bytesPerInt // lon min/max
         + ATTRCOUNTPERRECORD * (bytesPerShort + bytesPerChar * NUMTAGVALCHARS)
-        + (NODEREFCOUNTPERRECORD * bytesPerInt)
-        + (RELATIONREFCOUNTPERRECORD * bytesPerInt);
+        + (NODEREFCOUNTPERRECORD * bytesPerID)
+        + (RELATIONREFCOUNTPERRECORD * bytesPerID);
     }
 
 
@@ -373,7 +392,7 @@ public class WaysFile extends AbstractEntityFile {
      * @return true if the currently selected record is free for reuse.
      */
     public boolean isRecordUnused(final ByteBuffer record) {
-        return record.getInt() == Integer.MIN_VALUE;
+        return readID(record) == OsmBinFormat.EMPTYID;
     }
 
 //    public int getWayID() {
@@ -411,7 +430,7 @@ public class WaysFile extends AbstractEntityFile {
 
                 public Way next() {
                     try {
-                        myLastWay = readWay(Integer.MIN_VALUE, myWayIDs.next());
+                        myLastWay = readWay(Long.MIN_VALUE, myWayIDs.next());
                         return myLastWay;
                     } catch (UnsupportedEncodingException e) {
                         throw new IllegalStateException("UnsupportedEncodingException while fetchine next way", e);
@@ -543,17 +562,14 @@ public class WaysFile extends AbstractEntityFile {
             final long aRecordNumber,
             final List<Long> relations,
             final List<Object> aPreparedTagList) throws IOException  {
-        if (aWay.getId() > Integer.MAX_VALUE) {
-            throw new IllegalStateException("wayID too large to be represented as an integer");
-        }
         ByteBuffer mem = getRecordForReading(aRecordNumber);
         if (mem != null) {
             int start = mem.position();
             // assertions are enabled, do safety-checks to not overwrite
             // a record already used by another node
-            int safetyTest = mem.getInt();
+            long safetyTest = readID(mem);
             mem.position(start);
-            if (safetyTest != Integer.MIN_VALUE && safetyTest != aWay.getId()) {
+            if (safetyTest != OsmBinFormat.EMPTYID && safetyTest != aWay.getId()) {
                 releaseRecord(mem);
                 mem = null;
                 throw new RecordInUseException(aRecordNumber, "Major internal error! "
@@ -572,7 +588,27 @@ public class WaysFile extends AbstractEntityFile {
                     + " mem = " + mem.getClass().getName());
         }
         //LOG.finest(getFileName() + " - way " + aWay.getId() + " - part " + counter + " writing into record " + aRecordNumber + " (mem.positiion()=" + mem.position() + ")");
-        mem.putInt((int) aWay.getId());
+        encodeWayRecord(mem, aWay, counter, relations, aPreparedTagList);
+        mem.position(start);
+        writeRecord(mem, aRecordNumber);
+    }
+
+    /**
+     * Write a single record of the given way into a buffer.
+     * @param mem the buffer to write to. Positioned at the start of the record
+     *        and afterwards at the end of it.
+     * @param aWay the way to write
+     * @param counter this many records have been written already
+     * @param relations the back-references to the relations containing this way
+     * @param aPreparedTagList the key=value -pairs to attach
+     * @throws IOException  if an attribute-key cannot be created
+     */
+    private void encodeWayRecord(final ByteBuffer mem,
+            final ExtendedWay aWay,
+            final int counter,
+            final List<Long> relations,
+            final List<Object> aPreparedTagList) throws IOException  {
+        writeID(mem, aWay.getId());
         mem.putInt(aWay.getVersion());
         mem.putInt(FixedPrecisionCoordinateConvertor.convertToFixed(aWay.getMinLatitude()));
         mem.putInt(FixedPrecisionCoordinateConvertor.convertToFixed(aWay.getMaxLatitude()));
@@ -590,32 +626,48 @@ public class WaysFile extends AbstractEntityFile {
         }
         // write 4 ways
         for (int w = 0; w < NODEREFCOUNTPERRECORD; w++) {
-            int nodeID = Integer.MIN_VALUE;
+            long nodeID = OsmBinFormat.EMPTYID;
             int indexIntoWaylist = w + (NODEREFCOUNTPERRECORD * counter);
             if (aWay.getWayNodes().size() > indexIntoWaylist) {
-                long nodeIdLong = aWay.getWayNodes().get(indexIntoWaylist).getNodeId();
-                if (nodeIdLong > Integer.MAX_VALUE) {
-                    throw new IllegalStateException("nodeID too large to be represented as an integer");
-                }
-                nodeID = (int) nodeIdLong;
+                nodeID = aWay.getWayNodes().get(indexIntoWaylist).getNodeId();
             }
-            mem.putInt(nodeID);
+            writeID(mem, nodeID);
         }
      // write 1 relations
         for (int r = 0; r < RELATIONREFCOUNTPERRECORD; r++) {
-            int relID = Integer.MIN_VALUE;
+            long relID = OsmBinFormat.EMPTYID;
             int indexIntoRellist = r + (RELATIONREFCOUNTPERRECORD * counter);
             if (relations.size() > indexIntoRellist) {
-                long relIdLong = relations.get(indexIntoRellist);
-                if (relIdLong > Integer.MAX_VALUE) {
-                    throw new IllegalStateException("relationID too large to be represented as an integer");
-                }
-                relID = (int) relIdLong;
+                relID = relations.get(indexIntoRellist);
             }
-            mem.putInt(relID);
+            writeID(mem, relID);
         }
-        mem.position(start);
-        writeRecord(mem, aRecordNumber);
+    }
+
+    /**
+     * Append the given way at the end of the file
+     * without looking for free records or an older
+     * version of the way.<br/>
+     * This is meant for bulk-loading a new file.
+     * The index is NOT updated. It is to be rebuilt
+     * afterwards by the {@link OsmBinV10Reindexer}.
+     * @param aWay the way to store
+     * @return the first of the records this way is stored in
+     * @throws IOException if we cannot write
+     * @see #flushAppendedRecords()
+     */
+    public long appendWay(final ExtendedWay aWay) throws IOException {
+        List<Object> preparedTagList = super.prepareTagList(aWay.getTags(), NUMTAGVALCHARS);
+        int required = Math.max(getRequiredRecordCount(aWay), preparedTagList.size() / ATTRCOUNTPERRECORD);
+        List<Long> relations = new ArrayList<Long>(aWay.getReferencedRelationIDs());
+        ByteBuffer records = ByteBuffer.allocate(required * getRecordLength());
+        for (int i = 0; i < required; i++) {
+            encodeWayRecord(records, aWay, i, relations, preparedTagList);
+        }
+        records.flip();
+        long recordNr = appendRecords(records);
+        myLastRecordWritten = Math.max(myLastRecordWritten, recordNr + required - 1);
+        return recordNr;
     }
 
     /**
@@ -632,7 +684,7 @@ public class WaysFile extends AbstractEntityFile {
     /**
      * Read the way with the given id from storage.
      * @param aRecordNr the record -number of the first record storing this way
-     * @param aWayID the way to read
+     * @param aWayID the way to read (ignored if Long.MIN_VALUE)
      * @return null if it is not present.
      * @throws IOException if we cannot read an external attribute
      */
@@ -642,13 +694,13 @@ public class WaysFile extends AbstractEntityFile {
             return null;
         }
         ByteBuffer mem = getRecordForReading(recordNr);
-        int id = mem.getInt();
-        if (id != aWayID) {
+        long id = readID(mem);
+        if (aWayID != Long.MIN_VALUE && id != aWayID) {
             releaseRecord(mem);
             long origRecord = recordNr;
             recordNr = findRecordForElementFallback(aWayID);
             if (recordNr < 0) {
-                getIndex().remove(aWayID);
+                repairIndex(aWayID, -1);
                 LOG.severe("record "
                         +  origRecord + " for way "
                         + aWayID + " stores way "
@@ -657,7 +709,7 @@ public class WaysFile extends AbstractEntityFile {
                 return null;
             }
             mem = getRecordForReading(recordNr);
-            id = mem.getInt();
+            id = readID(mem);
             if (id != aWayID) {
                 throw new IllegalStateException("record "
                         +  recordNr + " for way "
@@ -670,77 +722,40 @@ public class WaysFile extends AbstractEntityFile {
                         + aWayID + " stores way "
                         + id + " instead. It should have been record "
                         + recordNr + " instead");
-                getIndex().put(aWayID, recordNr);
+                repairIndex(aWayID, recordNr);
             }
         }
-        //LOG.finest(getFileName() + " - way " + aWayID + " - reading from record " + recordNr + " (mem.positiion()=" + mem.position() + ")");
-        int version = mem.getInt();
-        double minLat = FixedPrecisionCoordinateConvertor.convertToDouble(mem.getInt());
-        double maxLat = FixedPrecisionCoordinateConvertor.convertToDouble(mem.getInt());
-        double minLon = FixedPrecisionCoordinateConvertor.convertToDouble(mem.getInt());
-        double maxLon = FixedPrecisionCoordinateConvertor.convertToDouble(mem.getInt());
-        // read attributes
-        int recordCount = 0;
-        List<Integer> referencedRelations = new LinkedList<Integer>();
-        List<Tag> tagList = new LinkedList<Tag>();
-        List<WayNode> wayNodes = new LinkedList<WayNode>();
-        while (true) {
-            // read attributes of current record
-            for (int a = 0; a < ATTRCOUNTPERRECORD; a++) {
-                Tag tag = null;
-                tag = readAttribute(mem, NUMTAGVALCHARS, tagList);
-                if (tag != null) {
-                    tagList.add(tag);
-                }
-            }
-
-            // read node-IDs
-            for (int a = 0; a < NODEREFCOUNTPERRECORD; a++) {
-                int nodeID = mem.getInt();
-                if (nodeID != Integer.MIN_VALUE) {
-                    wayNodes.add(new WayNode(nodeID));
-                }
-            }
-         // read relation-IDs
-            for (int a = 0; a < RELATIONREFCOUNTPERRECORD; a++) {
-                int relID = mem.getInt();
-                if (relID != Integer.MIN_VALUE) {
-                    referencedRelations.add(relID);
-                }
-            }
+        releaseRecord(mem);
+        WayRecordView view = new WayRecordView(this);
+        if (!view.moveTo(recordNr)) {
+            return null;
+        }
+        return readWay(view);
+    }
 
-            // check if the next record is for the same node
-            recordNr++;
-            if (recordNr >= getRecordCount()) {
-                break;
-            }
-            releaseRecord(mem);
-            recordCount++;
-            mem = getRecordForReading(recordNr);
-            int temp = mem.getInt();
-            if (temp != aWayID) {
-                break;
-            }
-            temp = mem.getInt(); // skip version
-            if (temp != version) {
-                break;
-            }
-            //LOG.finest(getFileName() + " - way " + aWayID + " - part " + recordCount + " reading from record " + recordNr + " (mem.positiion()=" + mem.position() + ")");
-            temp = mem.getInt(); // skip lat(min)
-            temp = mem.getInt(); // skip lat(max)
-            temp = mem.getInt(); // skip lon(min)
-            temp = mem.getInt(); // skip lon(max)
+    /**
+     * Create a way from the records a view is at.
+     * @param aView the view moved to the way
+     * @return the way
+     * @throws IOException if we cannot read the records
+     */
+    private ExtendedWay readWay(final WayRecordView aView) throws IOException {
+        List<Tag> tagList = new LinkedList<Tag>();
+        aView.readTags(tagList);
+        int wayNodeCount = aView.getWayNodeCount();
+        List<WayNode> wayNodes = new ArrayList<WayNode>(wayNodeCount);
+        for (int i = 0; i < wayNodeCount; i++) {
+            wayNodes.add(new WayNode(aView.getWayNodeID(i)));
         }
-        ExtendedWay retval = new ExtendedWay(id, version, tagList, wayNodes);
-        retval.setMinLatitude(minLat);
-        retval.setMaxLatitude(maxLat);
-        retval.setMinLongitude(minLon);
-        retval.setMaxLongitude(maxLon);
-        for (Integer relID : referencedRelations) {
-            retval.addReferencedRelation(relID);
+        ExtendedWay retval = new ExtendedWay(aView.getID(), aView.getVersion(), tagList, wayNodes);
+        retval.setMinLatitude(FixedPrecisionCoordinateConvertor.convertToDouble(aView.getMinLatitudeFixed()));
+        retval.setMaxLatitude(FixedPrecisionCoordinateConvertor.convertToDouble(aView.getMaxLatitudeFixed()));
+        retval.setMinLongitude(FixedPrecisionCoordinateConvertor.convertToDouble(aView.getMinLongitudeFixed()));
+        retval.setMaxLongitude(FixedPrecisionCoordinateConvertor.convertToDouble(aView.getMaxLongitudeFixed()));
+        int relationCount = aView.getRelationCount();
+        for (int i = 0; i < relationCount; i++) {
+            retval.addReferencedRelation(aView.getRelationID(i));
         }
-        releaseRecord(mem);
-        assert retval.getWayNodes() != null;
         return retval;
     }
 
@@ -0,0 +1,350 @@
+/**
+ * CompactMemoryDataSetTest.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osm.Tags;
+import org.openstreetmap.osm.data.coordinates.Bounds;
+import org.openstreetmap.osm.data.coordinates.LatLon;
+import org.openstreetmap.osm.data.osmbin.v1_0.ExtendedWay;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.osmosis.core.util.FixedPrecisionCoordinateConvertor;
+
+/**
+ * Project: libosm<br/>
+ * CompactMemoryDataSetTest.java<br/>
+ *<br/><br/>
+ * <b>Fill a {@link CompactMemoryDataSet} and a {@link MemoryDataSet}
+ * with the same map and compare the results of their queries.</b>
+ */
+public class CompactMemoryDataSetTest {
+
+    /**
+     * The number of nodes to add.
+     * More than the initial capacity, so the tables have to grow.
+     */
+    private static final int NODECOUNT = 3000;
+
+    /**
+     * The nodes are in 0..AREA degrees of latitude and longitude.
+     */
+    private static final double AREA = 0.5d;
+
+    /**
+     * The class we are testing.
+     */
+    private CompactMemoryDataSet mySubject;
+
+    /**
+     * The data set we compare with.
+     */
+    private MemoryDataSet myExpected;
+
+    /**
+     * Random numbers for the locations and queries.
+     */
+    private Random myRandom;
+
+    /**
+     * Add random nodes, move some of them, remove some and
+     * add ways over 3 nodes each. Every 7th way is closed
+     * and some ways are replaced or removed.
+     */
+    @Before
+    public void setUp() {
+        this.mySubject = new CompactMemoryDataSet();
+        this.myExpected = new MemoryDataSet();
+        this.myRandom = new Random(1);
+        for (int i = 0; i < NODECOUNT; i++) {
+            Node node = createNode(i);
+            if (i % 100 == 0) {
+                node.getTags().add(new Tag(Tags.TAG_NAME, "Node " + (i / 1000)));
+            }
+            add(node);
+        }
+        for (int i = 0; i < NODECOUNT; i += 10) {
+            add(createNode(i));
+        }
+        for (int i = 5; i < NODECOUNT; i += 10) {
+            Node node = myExpected.getNodeByID(i);
+            myExpected.removeNode(node);
+            mySubject.removeNode(node);
+        }
+        for (int i = 0; i + 2 < NODECOUNT; i += 3) {
+            Way way = new Way(i, 0, new Date(), null, 0);
+            for (int n = i; n < i + 3; n++) {
+                way.getWayNodes().add(new WayNode(n));
+            }
+            if (i % 7 == 0) {
+                way.getWayNodes().add(new WayNode(i));
+            }
+            way.getTags().add(new Tag(Tags.TAG_HIGHWAY, "residential"));
+            if (i % 2 == 0) {
+                way.getTags().add(new Tag(Tags.TAG_REF, "A" + (i % 5)));
+            }
+            myExpected.addWay(way);
+            mySubject.addWay(way);
+        }
+        for (int i = 0; i + 2 < NODECOUNT; i += 30) {
+            Way way = new Way(i, 1, new Date(), null, 0);
+            way.getWayNodes().add(new WayNode(i + 1));
+            way.getWayNodes().add(new WayNode(i + 2));
+            way.getTags().add(new Tag(Tags.TAG_HIGHWAY, "primary"));
+            myExpected.addWay(way);
+            mySubject.addWay(way);
+        }
+        for (int i = 15; i + 2 < NODECOUNT; i += 30) {
+            Way way = myExpected.getWaysByID(i);
+            myExpected.removeWay(way);
+            mySubject.removeWay(way);
+        }
+    }
+
+    /**
+     * @param aNode the node to add to both data sets
+     */
+    private void add(final Node aNode) {
+        myExpected.addNode(aNode);
+        mySubject.addNode(aNode);
+    }
+
+    /**
+     * @param anID the ID of the node
+     * @return a new node at a random location that can be stored without rounding
+     */
+    private Node createNode(final long anID) {
+        return new Node(anID, 0, new Date(), null, 0, round(myRandom.nextDouble() * AREA), round(myRandom.nextDouble() * AREA));
+    }
+
+    /**
+     * @param aDegrees a coordinate
+     * @return the coordinate in the precision of {@link FixedPrecisionCoordinateConvertor}
+     */
+    private static double round(final double aDegrees) {
+        return FixedPrecisionCoordinateConvertor.convertToDouble(FixedPrecisionCoordinateConvertor.convertToFixed(aDegrees));
+    }
+
+    /**
+     * @return random bounds within the area of the nodes
+     */
+    private Bounds createBounds() {
+        double minLat = round(myRandom.nextDouble() * AREA);
+        double minLon = round(myRandom.nextDouble() * AREA);
+        return new Bounds(minLat, minLon,
+                round(minLat + myRandom.nextDouble() * AREA / 4), round(minLon + myRandom.nextDouble() * AREA / 4));
+    }
+
+    /**
+     * @param anIterator the nodes or ways
+     * @return the IDs
+     */
+    private static Set<Long> getIDs(final Iterator<? extends Object> anIterator) {
+        Set<Long> retval = new HashSet<Long>();
+        while (anIterator.hasNext()) {
+            Object next = anIterator.next();
+            if (next instanceof Node) {
+                assertTrue(retval.add(((Node) next).getId()));
+            } else {
+                assertTrue(retval.add(((Way) next).getId()));
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Test {@link CompactMemoryDataSet#getNodeByID(long)}
+     * and {@link CompactMemoryDataSet#getWaysByID(long)}.
+     */
+    @Test
+    public void testGetByID() {
+        assertEquals(myExpected.getNodesCount(), mySubject.getNodesCount());
+        assertEquals(myExpected.getWaysCount(), mySubject.getWaysCount());
+        for (int i = 0; i < NODECOUNT; i++) {
+            Node expected = myExpected.getNodeByID(i);
+            Node node = mySubject.getNodeByID(i);
+            if (expected == null) {
+                assertNull(node);
+                continue;
+            }
+            assertEquals(expected.getLatitude(), node.getLatitude(), 0);
+            assertEquals(expected.getLongitude(), node.getLongitude(), 0);
+            assertEquals(new HashSet<Tag>(expected.getTags()).toString(), new HashSet<Tag>(node.getTags()).toString());
+        }
+        for (int i = 0; i < NODECOUNT; i++) {
+            Way expected = myExpected.getWaysByID(i);
+            Way way = mySubject.getWaysByID(i);
+            if (expected == null) {
+                assertNull(way);
+                continue;
+            }
+            assertTrue(way instanceof ExtendedWay);
+            assertEquals(expected.getVersion(), way.getVersion());
+            assertEquals(expected.getWayNodes().size(), way.getWayNodes().size());
+            for (int n = 0; n < way.getWayNodes().size(); n++) {
+                assertEquals(expected.getWayNodes().get(n).getNodeId(), way.getWayNodes().get(n).getNodeId());
+            }
+            assertEquals(expected.getTags().size(), way.getTags().size());
+        }
+        assertFalse(mySubject.containsNode(new Node(5, 0, new Date(), null, 0, 0, 0)));
+        assertFalse(mySubject.containsWay(new Way(15, 0, new Date(), null, 0)));
+    }
+
+    /**
+     * Test {@link CompactMemoryDataSet#getNodes(Bounds)}
+     * and {@link CompactMemoryDataSet#getWays(Bounds)}.
+     */
+    @Test
+    public void testGetInBounds() {
+        for (int q = 0; q < 50; q++) {
+            Bounds bounds = createBounds();
+            assertEquals(getIDs(myExpected.getNodes(bounds)), getIDs(mySubject.getNodes(bounds)));
+            assertEquals(getIDs(myExpected.getWays(bounds)), getIDs(mySubject.getWays(bounds)));
+        }
+        assertEquals(getIDs(myExpected.getNodes(Bounds.WORLD)), getIDs(mySubject.getNodes(Bounds.WORLD)));
+        assertEquals(getIDs(myExpected.getWays(null)), getIDs(mySubject.getWays(null)));
+    }
+
+    /**
+     * Test {@link CompactMemoryDataSet#getWaysForNode(long)}.
+     */
+    @Test
+    public void testGetWaysForNode() {
+        for (int i = 0; i < NODECOUNT; i++) {
+            // MemoryDataSet lists a closed way twice for its first node
+            Set<Long> expected = new HashSet<Long>();
+            for (Iterator<Way> ways = myExpected.getWaysForNode(i); ways.hasNext();) {
+                expected.add(ways.next().getId());
+            }
+            assertEquals(expected, getIDs(mySubject.getWaysForNode(i)));
+        }
+
+        // the reverse-index has to follow changes
+        Way way = new Way(NODECOUNT, 0, new Date(), null, 0);
+        way.getWayNodes().add(new WayNode(1));
+        mySubject.addWay(way);
+        assertTrue(getIDs(mySubject.getWaysForNode(1)).contains((long) NODECOUNT));
+        mySubject.removeWay(way);
+        assertFalse(getIDs(mySubject.getWaysForNode(1)).contains((long) NODECOUNT));
+    }
+
+    /**
+     * Interleave many changes of ways with lookups, so the
+     * ways added since the reverse-index was built exceed
+     * the overlay and the tables have to grow.
+     */
+    @Test
+    public void testInterleavedWayChanges() {
+        final int changes = 2500;
+        for (int c = 0; c < changes; c++) {
+            int first = myRandom.nextInt(NODECOUNT - 1);
+            Way way;
+            if (c % 3 == 0) {
+                // replace an existing way
+                way = new Way(3 * (c % (NODECOUNT / 3)), c + 2, new Date(), null, 0);
+            } else {
+                way = new Way(NODECOUNT + c, 0, new Date(), null, 0);
+            }
+            way.getWayNodes().add(new WayNode(first));
+            way.getWayNodes().add(new WayNode(first + 1));
+            way.getWayNodes().add(new WayNode(first));
+            myExpected.addWay(way);
+            mySubject.addWay(way);
+            if (c % 5 == 0) {
+                Way removed = myExpected.getWaysByID(NODECOUNT + c - 1);
+                if (removed != null) {
+                    myExpected.removeWay(removed);
+                    mySubject.removeWay(removed);
+                }
+            }
+            for (int n = first - 1; n <= first + 2; n++) {
+                Set<Long> expected = new HashSet<Long>();
+                for (Iterator<Way> ways = myExpected.getWaysForNode(n); ways.hasNext();) {
+                    expected.add(ways.next().getId());
+                }
+                assertEquals(expected, getIDs(mySubject.getWaysForNode(n)));
+            }
+            if (c % 100 == 0) {
+                Bounds bounds = createBounds();
+                assertEquals(getIDs(myExpected.getWays(bounds)), getIDs(mySubject.getWays(bounds)));
+            }
+        }
+        assertEquals(myExpected.getWaysCount(), mySubject.getWaysCount());
+    }
+
+    /**
+     * Test the lookups by tag and by name.
+     */
+    @Test
+    public void testGetByTag() {
+        assertEquals(getIDs(myExpected.getWaysByTag(Tags.TAG_HIGHWAY, null)),
+                getIDs(mySubject.getWaysByTag(Tags.TAG_HIGHWAY, null)));
+        assertEquals(getIDs(myExpected.getWaysByTag(Tags.TAG_HIGHWAY, "primary")),
+                getIDs(mySubject.getWaysByTag(Tags.TAG_HIGHWAY, "primary")));
+        assertFalse(mySubject.getWaysByTag(Tags.TAG_HIGHWAY, "unknown").hasNext());
+        assertFalse(mySubject.getWaysByTag("unknown", null).hasNext());
+        assertEquals(getIDs(myExpected.getNodesByTag(Tags.TAG_NAME, "Node 1")),
+                getIDs(mySubject.getNodesByTag(Tags.TAG_NAME, "Node 1")));
+        assertEquals(getIDs(myExpected.getNodesByName("node 2")), getIDs(mySubject.getNodesByName("node 2")));
+        assertEquals(getIDs(myExpected.getWaysByName("a3", null)), getIDs(mySubject.getWaysByName("a3", null)));
+        Bounds bounds = createBounds();
+        assertEquals(getIDs(myExpected.getWaysByName("A3", bounds)), getIDs(mySubject.getWaysByName("A3", bounds)));
+    }
+
+    /**
+     * Test {@link CompactMemoryDataSet#getNearestNode(LatLon, Selector)}.
+     */
+    @Test
+    public void testGetNearestNode() {
+        for (int q = 0; q < 20; q++) {
+            LatLon pos = new LatLon(myRandom.nextDouble() * AREA, myRandom.nextDouble() * AREA);
+            assertEquals(myExpected.getNearestNode(pos, null).getId(), mySubject.getNearestNode(pos, null).getId());
+        }
+        mySubject.shutdown();
+        assertNull(mySubject.getNearestNode(new LatLon(0, 0), null));
+        assertEquals(0, mySubject.getNodesCount());
+    }
+}
@@ -35,15 +35,25 @@ import static org.junit.Assert.*;
 
 
 //automatically created logger for debug and error -output
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 //automatically created propertyChangeListener-Support
 import java.io.File;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -421,6 +431,216 @@ public class H2DataSetTest {
         Node readedNodeFromBounds = readedNodesInBound.next();
         assertEquals(readedNode.getTags().size(), readedNodeFromBounds.getTags().size());
     }
+
+    /**
+     * Test {@link H2DataSet#hintImportStarting()}, adding in batches
+     * and {@link H2DataSet#hintImportEnded()}.
+     */
+    @Test
+    public void testImport() {
+        final long testnodeID = 30;
+        final int nodeCount = 3;
+        mySubject.hintImportStarting();
+        for (int i = 0; i < nodeCount; i++) {
+            mySubject.addNode(new Node(testnodeID + i, 0, new Date(), null, 0, 0.1d * (i + 1), 0.1d));
+        }
+        Way testWay = new Way(testnodeID, 0, new Date(), null, 0);
+        testWay.getWayNodes().add(new WayNode(testnodeID));
+        testWay.getWayNodes().add(new WayNode(testnodeID + 1));
+        testWay.getWayNodes().add(new WayNode(testnodeID + 2));
+        mySubject.addWay(testWay);
+        // a second version in the same batch replaces the first one
+        Way testWay2 = new Way(testnodeID, 1, new Date(), null, 0);
+        testWay2.getWayNodes().add(new WayNode(testnodeID + 1));
+        testWay2.getWayNodes().add(new WayNode(testnodeID + 2));
+        mySubject.addWay(testWay2);
+        mySubject.hintImportEnded();
+
+        assertFalse(mySubject.isImporting());
+        Way rereatWay = mySubject.getWaysByID(testnodeID);
+        assertNotNull(rereatWay);
+        assertEquals(testWay2.getWayNodes().size(), rereatWay.getWayNodes().size());
+        assertFalse(mySubject.getWaysForNode(testnodeID).hasNext());
+        assertTrue(mySubject.getWaysForNode(testnodeID + 1).hasNext());
+        Iterator<Node> nodes2D = mySubject.getNodes(new Bounds(0.05d, 0.05d, 0.15d, 0.15d));
+        assertTrue(nodes2D.hasNext());
+        assertEquals(testnodeID, nodes2D.next().getId());
+        assertFalse(nodes2D.hasNext());
+    }
+
+    /**
+     * Test {@link H2DataSet#getNodesByTag(String, String)}
+     * and {@link H2DataSet#getWaysByTag(String, String)}.
+     */
+    @Test
+    public void testGetByTag() {
+        final long testnodeID = 40;
+        Node testNode = new Node(testnodeID, 0, new Date(), null, 0, 0.1d, 0.1d);
+        testNode.getTags().add(new Tag("highway", "bus_stop"));
+        testNode.getTags().add(new Tag("name", "Stra\u00dfe"));
+        mySubject.addNode(testNode);
+        mySubject.addNode(new Node(testnodeID + 1, 0, new Date(), null, 0, 0.2d, 0.2d));
+        Way testWay = new Way(testnodeID, 0, new Date(), null, 0);
+        testWay.getTags().add(new Tag("highway", "primary"));
+        testWay.getWayNodes().add(new WayNode(testnodeID));
+        testWay.getWayNodes().add(new WayNode(testnodeID + 1));
+        mySubject.addWay(testWay);
+
+        Iterator<Node> nodes = mySubject.getNodesByTag("name", "Stra\u00dfe");
+        assertTrue(nodes.hasNext());
+        assertEquals(testNode.getTags().size(), nodes.next().getTags().size());
+        assertFalse(nodes.hasNext());
+        assertTrue(mySubject.getNodesByTag("highway", null).hasNext());
+        assertFalse(mySubject.getNodesByTag("highway", "primary").hasNext());
+        assertFalse(mySubject.getNodesByTag("unknownkey", null).hasNext());
+        Iterator<Way> ways = mySubject.getWaysByTag("highway", null);
+        assertTrue(ways.hasNext());
+        assertEquals(testWay.getId(), ways.next().getId());
+        assertFalse(ways.hasNext());
+
+        // a new version replaces the tags
+        testWay.getTags().clear();
+        testWay.getTags().add(new Tag("highway", "secondary"));
+        mySubject.addWay(testWay);
+        assertFalse(mySubject.getWaysByTag("highway", "primary").hasNext());
+        Iterator<Way> secondary = mySubject.getWaysByTag("highway", "secondary");
+        assertTrue(secondary.hasNext());
+        assertEquals("secondary", secondary.next().getTags().iterator().next().getValue());
+
+        mySubject.removeNode(testNode);
+        assertFalse(mySubject.getNodesByTag("name", "Stra\u00dfe").hasNext());
+    }
+
+    /**
+     * Two {@link H2DataSet}s on the same database (like 2 processes
+     * using AUTO_SERVER) each add tag-keys the other one does not know yet.
+     */
+    @Test
+    public void testSharedTagKeys() {
+        final long testnodeID = 45;
+        H2DataSet other = new H2DataSet(this.myTempDirectory);
+        try {
+            Node testNode = new Node(testnodeID, 0, new Date(), null, 0, 0.1d, 0.1d);
+            testNode.getTags().add(new Tag("amenity", "cafe"));
+            mySubject.addNode(testNode);
+            Node otherNode = new Node(testnodeID + 1, 0, new Date(), null, 0, 0.2d, 0.2d);
+            otherNode.getTags().add(new Tag("shop", "bakery"));
+            otherNode.getTags().add(new Tag("amenity", "post_box"));
+            other.addNode(otherNode);
+
+            Node reread = mySubject.getNodeByID(testnodeID + 1);
+            assertNotNull(reread);
+            assertEquals(2, reread.getTags().size());
+            for (Tag tag : reread.getTags()) {
+                assertNotNull(tag.getKey());
+            }
+            assertTrue(mySubject.getNodesByTag("shop", "bakery").hasNext());
+            assertEquals(1, other.getNodeByID(testnodeID).getTags().size());
+            assertEquals("amenity", other.getNodeByID(testnodeID).getTags().iterator().next().getKey());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    /**
+     * Test that {@link H2DataSet} converts the tags-column of
+     * schema-version 1 to the binary tags and the tag-index.
+     * @throws Exception if the old schema cannot be created
+     */
+    @Test
+    public void testMigrateSchemaV1() throws Exception {
+        final long testnodeID = 50;
+        Class.forName("org.h2.Driver");
+        Connection connection = DriverManager.getConnection(mySubject.getDatabaseURL(),
+                mySubject.getDatabaseUser(), mySubject.getDatabasePassword());
+        try {
+            Statement stmt = connection.createStatement();
+            stmt.executeUpdate("CREATE CACHED TABLE nodes (nodeid BIGINT PRIMARY KEY, version INT, lat INT, lon INT,"
+                    + " location BIGINT, tags LONGVARCHAR(32767))");
+            stmt.executeUpdate("CREATE CACHED TABLE ways (wayid BIGINT PRIMARY KEY, version INT, tags LONGVARCHAR(32767))");
+            stmt.executeUpdate("CREATE CACHED TABLE relations (relid BIGINT PRIMARY KEY, version INT, tags LONGVARCHAR(32767))");
+            stmt.executeUpdate("INSERT INTO nodes VALUES (" + testnodeID + ", 1, 0, 0, 0, 'highway==bus_stop##name==Main Street##')");
+            stmt.executeUpdate("INSERT INTO ways VALUES (" + testnodeID + ", 1, 'highway==primary##')");
+            stmt.close();
+        } finally {
+            connection.close();
+        }
+
+        Node node = mySubject.getNodeByID(testnodeID);
+        assertNotNull(node);
+        assertEquals(2, node.getTags().size());
+        Iterator<Node> nodes = mySubject.getNodesByTag("name", "Main Street");
+        assertTrue(nodes.hasNext());
+        assertEquals(testnodeID, nodes.next().getId());
+        Way way = mySubject.getWaysByID(testnodeID);
+        assertNotNull(way);
+        assertEquals("primary", way.getTags().iterator().next().getValue());
+        assertTrue(mySubject.getWaysByTag("highway", "primary").hasNext());
+    }
+
+    /**
+     * Benchmark {@link H2DataSet#getNodeByID(long)}, {@link H2DataSet#getWaysForNode(long)}
+     * and {@link H2DataSet#getNodes(Bounds)} from 1 and from many threads
+     * (like the router and the painter do) and check the results.
+     * @throws Exception if a reading thread fails
+     */
+    @Test
+    public void testParallelReads() throws Exception {
+        final int gridSize = 40;
+        final double gridStep = 0.001d;
+        final int threadCount = 8;
+        final int readsPerThread = 500;
+        mySubject.hintImportStarting();
+        for (int y = 0; y < gridSize; y++) {
+            Way row = new Way(y, 0, new Date(), null, 0);
+            for (int x = 0; x < gridSize; x++) {
+                long nodeID = y * gridSize + x;
+                mySubject.addNode(new Node(nodeID, 0, new Date(), null, 0, y * gridStep, x * gridStep));
+                row.getWayNodes().add(new WayNode(nodeID));
+            }
+            mySubject.addWay(row);
+        }
+        mySubject.hintImportEnded();
+
+        for (int threads = 1; threads <= threadCount; threads *= 2) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+                long start = System.currentTimeMillis();
+                for (int t = 0; t < threadCount; t++) {
+                    final Random random = new Random(t);
+                    results.add(executor.submit(new Callable<Integer>() {
+                        public Integer call() {
+                            for (int i = 0; i < readsPerThread; i++) {
+                                long nodeID = random.nextInt(gridSize * gridSize);
+                                Node node = mySubject.getNodeByID(nodeID);
+                                assertNotNull(node);
+                                assertEquals(nodeID, node.getId());
+                                Iterator<Way> ways = mySubject.getWaysForNode(nodeID);
+                                assertTrue(ways.hasNext());
+                                assertEquals(nodeID / gridSize, ways.next().getId());
+                                assertFalse(ways.hasNext());
+                                Iterator<Node> nodes = mySubject.getNodes(new Bounds(new LatLon(node.getLatitude(), node.getLongitude()), gridStep / 2));
+                                assertTrue(nodes.hasNext());
+                                assertEquals(nodeID, nodes.next().getId());
+                                assertFalse(nodes.hasNext());
+                            }
+                            return readsPerThread;
+                        }
+                    }));
+                }
+                int reads = 0;
+                for (Future<Integer> result : results) {
+                    reads += result.get();
+                }
+                long duration = Math.max(1, System.currentTimeMillis() - start);
+                LOG.info("H2DataSet: " + threads + " threads did " + reads + " reads in " + duration + "ms = "
+                        + (reads * 1000L / duration) + " reads/s");
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
 }
 
 
@@ -0,0 +1,247 @@
+/**
+ * MemoryDataSetTest.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osm.data.coordinates.Bounds;
+import org.openstreetmap.osm.data.coordinates.LatLon;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Relation;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+/**
+ * Project: libosm<br/>
+ * MemoryDataSetTest.java<br/>
+ *<br/><br/>
+ * <b>Compare the bounding-box and nearest-node queries of a
+ * {@link MemoryDataSet} with a linear search.</b>
+ */
+public class MemoryDataSetTest {
+
+    /**
+     * The number of nodes to add.
+     */
+    private static final int NODECOUNT = 3000;
+
+    /**
+     * The nodes are in 0..AREA degrees of latitude and longitude.
+     */
+    private static final double AREA = 0.5d;
+
+    /**
+     * The class we are testing.
+     */
+    private MemoryDataSet mySubject;
+
+    /**
+     * Random numbers for the locations and queries.
+     */
+    private Random myRandom;
+
+    /**
+     * Add random nodes, move some of them, remove some and
+     * add ways over 3 nodes each.
+     */
+    @Before
+    public void setUp() {
+        this.mySubject = new MemoryDataSet();
+        this.myRandom = new Random(1);
+        for (int i = 0; i < NODECOUNT; i++) {
+            mySubject.addNode(createNode(i, myRandom.nextDouble() * AREA, myRandom.nextDouble() * AREA));
+        }
+        for (int i = 0; i < NODECOUNT; i += 10) {
+            mySubject.addNode(createNode(i, myRandom.nextDouble() * AREA, myRandom.nextDouble() * AREA));
+        }
+        for (int i = 5; i < NODECOUNT; i += 10) {
+            mySubject.removeNode(mySubject.getNodeByID(i));
+        }
+        for (int i = 0; i + 2 < NODECOUNT; i += 3) {
+            Way way = new Way(i, 0, new Date(), null, 0);
+            for (int n = i; n < i + 3; n++) {
+                way.getWayNodes().add(new WayNode(n));
+            }
+            mySubject.addWay(way);
+        }
+    }
+
+    /**
+     * @param anID the ID of the node
+     * @param aLatitude the location of the node
+     * @param aLongitude the location of the node
+     * @return the new node
+     */
+    private static Node createNode(final long anID, final double aLatitude, final double aLongitude) {
+        return new Node(anID, 0, new Date(), null, 0, aLatitude, aLongitude);
+    }
+
+    /**
+     * @return random bounds within the area of the nodes
+     */
+    private Bounds createBounds() {
+        double minLat = myRandom.nextDouble() * AREA;
+        double minLon = myRandom.nextDouble() * AREA;
+        return new Bounds(minLat, minLon,
+                minLat + myRandom.nextDouble() * AREA / 4, minLon + myRandom.nextDouble() * AREA / 4);
+    }
+
+    /**
+     * @param anIterator the nodes or ways
+     * @return the IDs
+     */
+    private static Set<Long> getIDs(final Iterator<? extends Object> anIterator) {
+        Set<Long> retval = new HashSet<Long>();
+        while (anIterator.hasNext()) {
+            Object next = anIterator.next();
+            if (next instanceof Node) {
+                assertTrue(retval.add(((Node) next).getId()));
+            } else {
+                assertTrue(retval.add(((Way) next).getId()));
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Test {@link MemoryDataSet#getNodes(Bounds)}.
+     */
+    @Test
+    public void testGetNodesInBounds() {
+        for (int q = 0; q < 50; q++) {
+            Bounds bounds = createBounds();
+            Set<Long> expected = new HashSet<Long>();
+            for (Iterator<Node> nodes = mySubject.getNodes(Bounds.WORLD); nodes.hasNext();) {
+                Node node = nodes.next();
+                if (bounds.contains(node.getLatitude(), node.getLongitude())) {
+                    expected.add(node.getId());
+                }
+            }
+            assertEquals(expected, getIDs(mySubject.getNodes(bounds)));
+        }
+        assertEquals(NODECOUNT - NODECOUNT / 10, getIDs(mySubject.getNodes(new Bounds(-1, -1, 1, 1))).size());
+    }
+
+    /**
+     * Test {@link MemoryDataSet#getWays(Bounds)}.
+     */
+    @Test
+    public void testGetWaysInBounds() {
+        for (int q = 0; q < 50; q++) {
+            Bounds bounds = createBounds();
+            Set<Long> expected = new HashSet<Long>();
+            for (int i = 0; i + 2 < NODECOUNT; i += 3) {
+                Way way = mySubject.getWaysByID(i);
+                for (WayNode wayNode : way.getWayNodes()) {
+                    Node node = mySubject.getNodeByID(wayNode.getNodeId());
+                    if (node != null && bounds.contains(node.getLatitude(), node.getLongitude())) {
+                        expected.add(way.getId());
+                    }
+                }
+            }
+            assertEquals(expected, getIDs(mySubject.getWays(bounds)));
+        }
+    }
+
+    /**
+     * Test {@link MemoryDataSet#getNearestNode(LatLon, Selector)}
+     * and {@link MemoryDataSet#getNearestNodes(LatLon, int, Selector)}.
+     */
+    @Test
+    public void testGetNearestNode() {
+        Selector evenIDs = new Selector() {
+            public boolean isAllowed(final IDataSet aMap, final Node aNode) {
+                return aNode.getId() % 2 == 0;
+            }
+            public boolean isAllowed(final IDataSet aMap, final Way aWay) {
+                return true;
+            }
+            public boolean isAllowed(final IDataSet aMap, final Relation aRelation) {
+                return true;
+            }
+        };
+        for (int q = 0; q < 50; q++) {
+            // some locations far away from all nodes
+            double scale = AREA;
+            if (q % 10 == 0) {
+                scale = 2 * (AREA + 1);
+            }
+            LatLon pos = new LatLon(myRandom.nextDouble() * scale - 1, myRandom.nextDouble() * scale - 1);
+            assertEquals(findNearest(pos, null), mySubject.getNearestNode(pos, null));
+            assertEquals(findNearest(pos, evenIDs), mySubject.getNearestNode(pos, evenIDs));
+        }
+        LatLon pos = new LatLon(AREA / 2, AREA / 2);
+        List<Node> nearest = mySubject.getNearestNodes(pos, 10, null);
+        assertEquals(10, nearest.size());
+        assertEquals(findNearest(pos, null), nearest.get(0));
+        for (int i = 1; i < nearest.size(); i++) {
+            assertTrue(pos.distance(new LatLon(nearest.get(i - 1).getLatitude(), nearest.get(i - 1).getLongitude()))
+                    <= pos.distance(new LatLon(nearest.get(i).getLatitude(), nearest.get(i).getLongitude())));
+        }
+
+        mySubject.shutdown();
+        assertNull(mySubject.getNearestNode(pos, null));
+    }
+
+    /**
+     * @param aPos the location to look for
+     * @param aSelector may be null
+     * @return the nearest node found by a linear search
+     */
+    private Node findNearest(final LatLon aPos, final Selector aSelector) {
+        double minDist = Double.MAX_VALUE;
+        Node minDistNode = null;
+        for (Iterator<Node> nodes = mySubject.getNodes(Bounds.WORLD); nodes.hasNext();) {
+            Node node = nodes.next();
+            if (aSelector != null && !aSelector.isAllowed(mySubject, node)) {
+                continue;
+            }
+            double dist = aPos.distance(new LatLon(node.getLatitude(), node.getLongitude()));
+            if (dist < minDist) {
+                minDist = dist;
+                minDistNode = node;
+            }
+        }
+        return minDistNode;
+    }
+}
@@ -35,10 +35,15 @@ import static org.junit.Assert.*;
 
 
 //automatically created logger for debug and error -output
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
 //automatically created propertyChangeListener-Support
@@ -49,8 +54,11 @@ import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.Test;
+import org.openstreetmap.osm.Settings;
 import org.openstreetmap.osm.data.coordinates.Bounds;
 import org.openstreetmap.osm.data.coordinates.LatLon;
+import org.openstreetmap.osm.data.osmbin.PackedGeoIndexFile;
+import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinDataSetV10;
 
 import org.openstreetmap.osmosis.core.domain.v0_6.Node;
 import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
@@ -419,6 +427,289 @@ public class OsmBinDataSetTest {
         Node readedNodeFromBounds = readedNodesInBound.next();
         assertEquals(readedNode.getTags().size(), readedNodeFromBounds.getTags().size());
     }
-}
 
+    /**
+     * getWays(Bounds) finds ways by the index of their bounding-boxes,
+     * even if none of their nodes is inside the bounds.
+     */
+    @Test
+    public void testGetWaysInBounds() {
+        this.mySubject.addNode(new Node(1, 0, new Date(), null, 0, 0.0d, 0.0d));
+        this.mySubject.addNode(new Node(2, 0, new Date(), null, 0, 1.0d, 1.0d));
+        this.mySubject.addNode(new Node(2 + 1, 0, new Date(), null, 0, 2.0d, 2.0d));
+        Way crossingWay = new Way(1, 0, new Date(), null, 0);
+        crossingWay.getWayNodes().add(new WayNode(1));
+        crossingWay.getWayNodes().add(new WayNode(2));
+        Way otherWay = new Way(2, 0, new Date(), null, 0);
+        otherWay.getWayNodes().add(new WayNode(2));
+        otherWay.getWayNodes().add(new WayNode(2 + 1));
+        this.mySubject.addWay(crossingWay);
+        this.mySubject.addWay(otherWay);
+
+        Bounds between = new Bounds(new LatLon(0.5d, 0.5d), 0.1d);
+        Iterator<Way> ways = mySubject.getWays(between);
+        assertTrue(ways.hasNext());
+        assertEquals(crossingWay.getId(), ways.next().getId());
+        assertFalse(ways.hasNext());
+
+        this.mySubject.removeWay(crossingWay);
+        assertFalse(mySubject.getWays(between).hasNext());
+        assertTrue(mySubject.getWays(new Bounds(new LatLon(1.5d, 1.5d), 0.1d)).hasNext());
+    }
+
+    /**
+     * Moving a node updates the bounding-boxes of its ways.
+     */
+    @Test
+    public void testGetWaysInBoundsAfterNodeMoved() {
+        this.mySubject.addNode(new Node(1, 0, new Date(), null, 0, 0.0d, 0.0d));
+        this.mySubject.addNode(new Node(2, 0, new Date(), null, 0, 1.0d, 1.0d));
+        Way way = new Way(1, 0, new Date(), null, 0);
+        way.getWayNodes().add(new WayNode(1));
+        way.getWayNodes().add(new WayNode(2));
+        this.mySubject.addWay(way);
+        Bounds beyond = new Bounds(new LatLon(2.5d, 2.5d), 0.1d);
+        assertFalse(mySubject.getWays(beyond).hasNext());
+
+        this.mySubject.addNode(new Node(2, 1, new Date(), null, 0, 3.0d, 3.0d));
+        Iterator<Way> ways = mySubject.getWays(beyond);
+        assertTrue(ways.hasNext());
+        assertEquals(way.getId(), ways.next().getId());
+    }
+
+    /**
+     * getWays(Bounds) continues if adding ways packs the index
+     * of their bounding-boxes while it is iterated.
+     */
+    @Test
+    public void testGetWaysInBoundsWhilePacking() {
+        final int count = 10;
+        this.mySubject.addNode(new Node(1, 0, new Date(), null, 0, 0.0d, 0.0d));
+        this.mySubject.addNode(new Node(2, 0, new Date(), null, 0, 1.0d, 1.0d));
+        for (int i = 1; i <= count; i++) {
+            Way way = new Way(i, 0, new Date(), null, 0);
+            way.getWayNodes().add(new WayNode(1));
+            way.getWayNodes().add(new WayNode(2));
+            this.mySubject.addWay(way);
+        }
+        Bounds between = new Bounds(new LatLon(0.5d, 0.5d), 0.1d);
+        Iterator<Way> ways = mySubject.getWays(between);
+        Set<Long> found = new HashSet<Long>();
+        assertTrue(found.add(ways.next().getId()));
+
+        // more ways outside of the bounds then fit into the overflow-area
+        this.mySubject.addNode(new Node(2 + 1, 0, new Date(), null, 0, 2.0d, 2.0d));
+        for (int i = count + 1; i <= count + PackedGeoIndexFile.FANOUT * PackedGeoIndexFile.FANOUT + 1; i++) {
+            Way way = new Way(i, 0, new Date(), null, 0);
+            way.getWayNodes().add(new WayNode(2 + 1));
+            this.mySubject.addWay(way);
+        }
+        while (ways.hasNext()) {
+            assertTrue(found.add(ways.next().getId()));
+        }
+        assertEquals(count, found.size());
+    }
+
+    /**
+     * getNodesByTag, getWaysByTag and getWaysByName use the tag-index
+     * and only return entities that still have the tag.
+     */
+    @Test
+    public void testGetByTag() {
+        for (int i = 1; i <= 2 + 2; i++) {
+            Node node = new Node(i, 0, new Date(), null, 0, i * OFFSET, i * OFFSET);
+            node.getTags().add(new Tag("amenity", "pub " + (i % 2)));
+            this.mySubject.addNode(node);
+        }
+        assertTrue(new File(this.myTempDirectory, "nodes.tix").exists());
+        Way way = new Way(1, 0, new Date(), null, 0);
+        way.getWayNodes().add(new WayNode(1));
+        way.getWayNodes().add(new WayNode(2));
+        way.getTags().add(new Tag("name", "Main Road"));
+        this.mySubject.addWay(way);
+
+        assertEquals(2, count(mySubject.getNodesByTag("amenity", "pub 1")));
+        assertEquals(2 + 2, count(mySubject.getNodesByTag("amenity", null)));
+        assertEquals(0, count(mySubject.getNodesByTag("shop", null)));
+
+        // change a tag and remove a node
+        Node changed = new Node(1, 1, new Date(), null, 0, OFFSET, OFFSET);
+        changed.getTags().add(new Tag("amenity", "pub 0"));
+        this.mySubject.addNode(changed);
+        this.mySubject.removeNode(mySubject.getNodeByID(2 + 1));
+        assertEquals(0, count(mySubject.getNodesByTag("amenity", "pub 1")));
+        assertEquals(2 + 1, count(mySubject.getNodesByTag("amenity", null)));
+
+        assertEquals(1, count(mySubject.getWaysByTag("name", "Main Road")));
+        assertEquals(0, count(mySubject.getWaysByTag("name", "Main Street")));
+        assertEquals(1, count(mySubject.getWaysByName("main rd", null)));
+    }
+
+    /**
+     * @param anIterator any iterator
+     * @return the number of elements it returns
+     */
+    private static int count(final Iterator<?> anIterator) {
+        int count = 0;
+        while (anIterator.hasNext()) {
+            anIterator.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * New directories use osmbin v1.2 that stores IDs
+     * that do not fit into an integer.
+     */
+    @Test
+    public void testLargeIDs() {
+        final long testnodeID = 5000000000L;
+        Node testNode = new Node(testnodeID, 0, new Date(), null, 0, 0.1d, 0.2d);
+        Node testNode2 = new Node(testnodeID + 1, 0, new Date(), null, 0, 0.3d, 0.4d);
+        Way testWay = new Way(testnodeID + 2, 0, new Date(), null, 0);
+        testWay.getWayNodes().add(new WayNode(testnodeID));
+        testWay.getWayNodes().add(new WayNode(testnodeID + 1));
+        testWay.getTags().add(new Tag("highway", "primary"));
+
+        this.mySubject.addNode(testNode);
+        this.mySubject.addNode(testNode2);
+        this.mySubject.addWay(testWay);
+
+        assertEquals(testnodeID, mySubject.getNodeByID(testnodeID).getId());
+        assertEquals(testNode2.getLatitude(), mySubject.getNodeByID(testnodeID + 1).getLatitude(), ALLOWEDCOORDINATEDELTA);
+        assertNull(mySubject.getNodeByID(testnodeID + 2));
+        Way rereat = mySubject.getWaysByID(testWay.getId());
+        assertNotNull(rereat);
+        assertEquals(2, rereat.getWayNodes().size());
+        assertEquals(testnodeID + 1, rereat.getWayNodes().get(1).getNodeId());
+        Iterator<Way> waysForNode = mySubject.getWaysForNode(testnodeID);
+        assertTrue(waysForNode.hasNext());
+        assertEquals(testWay.getId(), waysForNode.next().getId());
+        assertFalse(waysForNode.hasNext());
+    }
+
+    /**
+     * osmbin v1.2 uses the dense index by ID even if
+     * {@link OsmBinDataSetV10#SETTINGS_DENSEIDINDEX} is false,
+     * as the tree-index cannot store these IDs.
+     */
+    @Test
+    public void testLargeIDsWithoutDenseIDIndexSetting() {
+        Settings.getInstance().override(OsmBinDataSetV10.SETTINGS_DENSEIDINDEX, "false");
+        try {
+            testLargeIDs();
+        } finally {
+            Settings.getInstance().override(OsmBinDataSetV10.SETTINGS_DENSEIDINDEX, null);
+        }
+    }
 
+    /**
+     * After switching to another directory, no index of
+     * the previous directory is used.
+     */
+    @Test
+    public void testSetDataDirectory() {
+        File first = new File(this.myTempDirectory, "first");
+        File second = new File(this.myTempDirectory, "second");
+        OsmBinDataSetV10 dataSet = new OsmBinDataSetV10(first);
+        try {
+            dataSet.addNode(new Node(1, 0, new Date(), null, 0, 0.0d, 0.0d));
+            dataSet.addNode(new Node(2, 0, new Date(), null, 0, 1.0d, 1.0d));
+            Way way = new Way(1, 0, new Date(), null, 0);
+            way.getWayNodes().add(new WayNode(1));
+            way.getWayNodes().add(new WayNode(2));
+            way.getTags().add(new Tag("name", "Main Road"));
+            dataSet.addWay(way);
+            Bounds between = new Bounds(new LatLon(0.5d, 0.5d), 0.1d);
+            assertTrue(dataSet.getWays(between).hasNext());
+            assertEquals(1, count(dataSet.getWaysByTag("name", null)));
+
+            dataSet.setDataDirectory(second);
+            assertFalse(dataSet.getWays(between).hasNext());
+            assertEquals(0, count(dataSet.getWaysByTag("name", null)));
+            dataSet.addNode(new Node(1, 0, new Date(), null, 0, 0.0d, 0.0d));
+            dataSet.addNode(new Node(2, 0, new Date(), null, 0, 1.0d, 1.0d));
+            dataSet.addWay(way);
+            assertTrue(dataSet.getWays(between).hasNext());
+            assertTrue(new File(second, "ways.pid2").exists());
+            assertEquals(1, count(dataSet.getWaysByTag("name", null)));
+            assertTrue(new File(second, "ways.tix").exists());
+        } finally {
+            dataSet.shutdown();
+            for (File directory : new File[] {first, second}) {
+                File[] list = directory.listFiles();
+                if (list != null) {
+                    for (File file : list) {
+                        file.delete();
+                    }
+                }
+                directory.delete();
+            }
+        }
+    }
+
+    /**
+     * Several threads read from a read-only OsmBinDataSet
+     * at the same time. Writing must be rejected.
+     * @throws InterruptedException if we are interrupted while waiting for the readers
+     */
+    @Test
+    public void testReadOnly() throws InterruptedException {
+        final int nodeCount = 500;
+        final int threadCount = 4;
+        final Way testWay = new Way(1, 0, new Date(), null, 0);
+        for (int i = 1; i <= nodeCount; i++) {
+            Node node = new Node(i, 0, new Date(), null, 0, i * OFFSET, -i * OFFSET);
+            node.getTags().add(new Tag("name", "node " + i));
+            this.mySubject.addNode(node);
+            testWay.getWayNodes().add(new WayNode(i));
+        }
+        testWay.getTags().add(new Tag("highway", "primary"));
+        this.mySubject.addWay(testWay);
+        this.mySubject.shutdown();
+
+        this.mySubject = new OsmBinDataSet(this.myTempDirectory, true);
+        assertTrue(this.mySubject.isReadOnly());
+        final List<Throwable> failures = Collections.synchronizedList(new LinkedList<Throwable>());
+        Thread[] readers = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int start = t;
+            readers[t] = new Thread("OsmBinDataSetTest-reader-" + t) {
+                public void run() {
+                    try {
+                        for (int i = 0; i < nodeCount; i++) {
+                            long id = 1 + (start + i) % nodeCount;
+                            Node node = mySubject.getNodeByID(id);
+                            assertNotNull(node);
+                            assertEquals(id, node.getId());
+                            assertEquals(id * OFFSET, node.getLatitude(), ALLOWEDCOORDINATEDELTA);
+                            assertEquals("node " + id, node.getTags().iterator().next().getValue());
+                            Way way = mySubject.getWaysByID(testWay.getId());
+                            assertNotNull(way);
+                            assertEquals(nodeCount, way.getWayNodes().size());
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.get(0));
+        }
+        assertNull(this.mySubject.getNodeByID(nodeCount + 1));
+
+        try {
+            this.mySubject.addNode(new Node(nodeCount + 1, 0, new Date(), null, 0, 0.1d, 0.1d));
+            fail("a read-only OsmBinDataSet accepted a new node");
+        } catch (IllegalStateException e) {
+            LOG.fine("writing was rejected as expected");
+        }
+        assertNull(this.mySubject.getNodeByID(nodeCount + 1));
+    }
+}
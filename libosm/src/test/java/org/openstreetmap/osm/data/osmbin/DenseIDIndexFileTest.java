@@ -0,0 +1,154 @@
+/**
+ * DenseIDIndexFileTest.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Project: libosm<br/>
+ * DenseIDIndexFileTest.java<br/>
+ *<br/><br/>
+ * <b>Write some IDs into a {@link DenseIDIndexFile} and retrieve them.</b>
+ */
+public class DenseIDIndexFileTest {
+
+    /**
+     * The class we are testing.
+     */
+    private DenseIDIndexFile mySubject;
+
+    /**
+     * A temporary file for our subject to use.
+     */
+    private File myTempFile;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.myTempFile = File.createTempFile("DenseIDIndexFileTest", ".didx");
+        this.myTempFile.deleteOnExit();
+        this.mySubject = new DenseIDIndexFile(this.myTempFile);
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.mySubject.close();
+        this.myTempFile.delete();
+    }
+
+    /**
+     * Replace and remove values.
+     * @throws IOException may happen
+     */
+    @Test
+    public void testReplacing() throws IOException {
+        final long value1 = 100;
+        final long value2 = 200;
+        final long value3 = 0;
+        final long key1 = 1;
+        final long key2 = 2;
+        final long key3 = 3;
+        this.mySubject.put(key1, value1);
+        this.mySubject.put(key2, value2);
+        this.mySubject.put(key3, value3);
+
+        assertEquals(value1, this.mySubject.get(key1));
+        assertEquals(value2, this.mySubject.get(key2));
+        assertEquals(value3, this.mySubject.get(key3));
+        assertEquals(-1, this.mySubject.get(key3 + 1));
+
+        this.mySubject.put(key2, value2 + 1);
+        assertEquals(value2 + 1, this.mySubject.get(key2));
+
+        this.mySubject.remove(key2);
+        assertEquals(value1, this.mySubject.get(key1));
+        assertEquals(-1, this.mySubject.get(key2));
+        assertEquals(value3, this.mySubject.get(key3));
+    }
+
+    /**
+     * IDs far apart and beyond the end of the file.
+     * Only the segments holding IDs are stored.
+     * @throws IOException may happen
+     */
+    @Test
+    public void testSparse() throws IOException {
+        final long bigKey = 3000000000L;
+        final long value = 42;
+        assertEquals(-1, this.mySubject.get(bigKey));
+        this.mySubject.put(bigKey, value);
+        assertEquals(value, this.mySubject.get(bigKey));
+        assertEquals(-1, this.mySubject.get(bigKey - 1));
+        assertEquals(-1, this.mySubject.get(1));
+        assertEquals(-1, this.mySubject.get(bigKey * 2));
+        assertEquals(-1, this.mySubject.get(-1));
+
+        this.mySubject.put(1, value);
+        final long maxLength = 2 * ((4L << 20) + 8);
+        assertTrue(this.myTempFile.length() <= maxLength);
+        this.mySubject.close();
+        this.mySubject = new DenseIDIndexFile(this.myTempFile, true);
+        assertEquals(value, this.mySubject.get(bigKey));
+        assertEquals(value, this.mySubject.get(1));
+        assertEquals(-1, this.mySubject.get(2));
+    }
+
+    /**
+     * The index must survive closing and opening it again.
+     * @throws IOException may happen
+     */
+    @Test
+    public void testReopen() throws IOException {
+        final int count = 10000;
+        for (int i = 0; i < count; i++) {
+            this.mySubject.put(i * 3, i);
+        }
+        this.mySubject.close();
+        this.mySubject = new DenseIDIndexFile(this.myTempFile);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, this.mySubject.get(i * 3));
+            assertEquals(-1, this.mySubject.get(i * 3 + 1));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * FixedRecordFileTest.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Project: libosm<br/>
+ * FixedRecordFileTest.java<br/>
+ *<br/><br/>
+ * <b>Write records across multiple memory-mapped segments
+ * of a {@link FixedRecordFile} and retrieve them.</b>
+ */
+public class FixedRecordFileTest {
+
+    /**
+     * Records per segment of our subject.
+     */
+    private static final int RECORDSPERSEGMENT = 10;
+
+    /**
+     * Record-length of our subject.
+     */
+    private static final int RECORDLENGTH = 12;
+
+    /**
+     * A {@link FixedRecordFile} with tiny segments.
+     */
+    private static class Subject extends FixedRecordFile {
+
+        /**
+         * @param aFileName the file to use
+         * @throws IOException if we cannot map the file
+         */
+        public Subject(final File aFileName) throws IOException {
+            super(aFileName);
+        }
+
+        @Override
+        public int getRecordLength() {
+            return RECORDLENGTH;
+        }
+
+        @Override
+        protected int getRecordsPerSegment() {
+            return RECORDSPERSEGMENT;
+        }
+    }
+
+    /**
+     * The class we are testing.
+     */
+    private FixedRecordFile mySubject;
+
+    /**
+     * A temporary file for our subject to use.
+     */
+    private File myTempFile;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.myTempFile = File.createTempFile("FixedRecordFileTest", ".obm");
+        this.myTempFile.deleteOnExit();
+        this.mySubject = new Subject(this.myTempFile);
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.mySubject.close();
+        this.myTempFile.delete();
+    }
+
+    /**
+     * Grow the file in several steps, write every record and read
+     * them back before and after reopening the file.
+     * @throws IOException if we cannot write
+     */
+    @Test
+    public void testSegments() throws IOException {
+        final int count = RECORDSPERSEGMENT * 3 + 5;
+        while (mySubject.getRecordCount() < count) {
+            mySubject.growFile(7, 1);
+        }
+        for (long i = 0; i < count; i++) {
+            ByteBuffer mem = mySubject.getRecordForWriting(i);
+            int start = mem.position();
+            mem.putLong(i * i);
+            mem.putInt((int) -i);
+            mem.position(start);
+            mySubject.writeRecord(mem, i);
+        }
+        checkRecords(count);
+
+        mySubject.close();
+        mySubject = new Subject(myTempFile);
+        assertEquals(count, mySubject.getRecordCount());
+        checkRecords(count);
+    }
+
+    /**
+     * Append records after some written ones, one at a time and
+     * in a block, and read all of them back after flushing.
+     * @throws IOException if we cannot write
+     */
+    @Test
+    public void testAppend() throws IOException {
+        final int written = RECORDSPERSEGMENT + 3;
+        final int count = RECORDSPERSEGMENT * 3 + 5;
+        mySubject.growFile(written, written);
+        for (long i = 0; i < written; i++) {
+            ByteBuffer mem = mySubject.getRecordForWriting(i);
+            int start = mem.position();
+            mem.putLong(i * i);
+            mem.putInt((int) -i);
+            mem.position(start);
+            mySubject.writeRecord(mem, i);
+        }
+        ByteBuffer block = ByteBuffer.allocate((count - written - 1) * RECORDLENGTH);
+        for (long i = written + 1; i < count; i++) {
+            block.putLong(i * i);
+            block.putInt((int) -i);
+        }
+        block.flip();
+        ByteBuffer single = ByteBuffer.allocate(RECORDLENGTH);
+        single.putLong(written * written);
+        single.putInt(-written);
+        single.flip();
+        assertEquals(written, mySubject.appendRecords(single));
+        assertEquals(written + 1, mySubject.appendRecords(block));
+        mySubject.flushAppendedRecords();
+        assertEquals(count, mySubject.getRecordCount());
+        checkRecords(count);
+
+        mySubject.close();
+        mySubject = new Subject(myTempFile);
+        assertEquals(count, mySubject.getRecordCount());
+        checkRecords(count);
+    }
+
+    /**
+     * @param aCount the number of records to check
+     * @throws IOException if we cannot read
+     */
+    private void checkRecords(final int aCount) throws IOException {
+        for (long i = 0; i < aCount; i++) {
+            ByteBuffer mem = mySubject.getRecordForReading(i);
+            assertEquals("record " + i, i * i, mem.getLong());
+            assertEquals("record " + i, (int) -i, mem.getInt());
+            mySubject.releaseRecord(mem);
+        }
+    }
+}
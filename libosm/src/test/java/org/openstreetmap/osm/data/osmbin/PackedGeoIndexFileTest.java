@@ -0,0 +1,318 @@
+/**
+ * PackedGeoIndexFileTest.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Project: libosm<br/>
+ * PackedGeoIndexFileTest.java<br/>
+ *<br/><br/>
+ * <b>Bulk-build a {@link PackedGeoIndexFile} and compare bounding-box-queries
+ * with a linear search.</b>
+ */
+public class PackedGeoIndexFileTest {
+
+    /**
+     * The number of nodes to index.
+     */
+    private static final int NODECOUNT = 5000;
+
+    /**
+     * Nodes are placed in a square of this size (as fixed precision integers).
+     */
+    private static final int AREA = 1000000;
+
+    /**
+     * The class we are testing.
+     */
+    private PackedGeoIndexFile mySubject;
+
+    /**
+     * A temporary directory for our subject to use.
+     */
+    private File myTempDir;
+
+    /**
+     * Latitude of the node with the given record-number.
+     */
+    private final long[] myLats = new long[NODECOUNT];
+
+    /**
+     * Longitude of the node with the given record-number.
+     */
+    private final long[] myLons = new long[NODECOUNT];
+
+    /**
+     * Record-numbers removed from the index.
+     */
+    private final Set<Long> myRemoved = new HashSet<Long>();
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.myTempDir = File.createTempFile("PackedGeoIndexFileTest", "");
+        this.myTempDir.delete();
+        this.myTempDir.mkdirs();
+        Random random = new Random(1);
+        // tiny in-memory buffer to test the external sort too
+        PackedGeoIndexFile.Builder builder = new PackedGeoIndexFile.Builder(
+                new File(myTempDir, "nodes.pid2"), myTempDir, 333);
+        for (int i = 0; i < NODECOUNT; i++) {
+            myLats[i] = random.nextInt(AREA) - AREA / 2;
+            myLons[i] = random.nextInt(AREA) - AREA / 2;
+            builder.add(i, myLats[i], myLons[i]);
+        }
+        this.mySubject = builder.build();
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.mySubject.close();
+        for (File file : myTempDir.listFiles()) {
+            file.delete();
+        }
+        myTempDir.delete();
+    }
+
+    /**
+     * Compare random bounding-boxes with a linear search.
+     * @throws IOException if the index cannot be read
+     */
+    private void checkQueries() throws IOException {
+        checkQueries(myLats, myLons, NODECOUNT);
+    }
+
+    /**
+     * Compare random bounding-boxes with a linear search.
+     * @param aLats latitude of the node with the given record-number
+     * @param aLons longitude of the node with the given record-number
+     * @param aCount the number of nodes added
+     * @throws IOException if the index cannot be read
+     */
+    private void checkQueries(final long[] aLats, final long[] aLons, final int aCount) throws IOException {
+        Random random = new Random(2);
+        for (int q = 0; q < 50; q++) {
+            long minLat = random.nextInt(AREA) - AREA / 2;
+            long minLon = random.nextInt(AREA) - AREA / 2;
+            long maxLat = minLat + random.nextInt(AREA / 4);
+            long maxLon = minLon + random.nextInt(AREA / 4);
+            Set<Long> expected = new HashSet<Long>();
+            for (int i = 0; i < aCount; i++) {
+                if (!myRemoved.contains((long) i)
+                    && aLats[i] >= minLat && aLats[i] <= maxLat
+                    && aLons[i] >= minLon && aLons[i] <= maxLon) {
+                    expected.add((long) i);
+                }
+            }
+            assertEquals(expected, mySubject.get(minLat, minLon, maxLat, maxLon));
+        }
+    }
+
+    /**
+     * Query the freshly built tree.
+     * @throws IOException if the index cannot be read
+     */
+    @Test
+    public void testBuild() throws IOException {
+        assertEquals(NODECOUNT, mySubject.getLeafCount());
+        assertEquals(0, mySubject.getOverflowCount());
+        checkQueries();
+        // a point-query
+        assertTrue(mySubject.get(myLats[42], myLons[42], myLats[42], myLons[42]).contains(42L));
+    }
+
+    /**
+     * Remove nodes from the tree and put them at a new location.
+     * @throws IOException if the index cannot be written
+     */
+    @Test
+    public void testPutAndRemove() throws IOException {
+        for (int i = 0; i < NODECOUNT; i += 7) {
+            mySubject.remove(i, myLats[i], myLons[i]);
+            myRemoved.add((long) i);
+        }
+        checkQueries();
+        for (int i = 0; i < NODECOUNT; i += 14) {
+            myLats[i] = myLats[i] / 2;
+            myLons[i] = -myLons[i];
+            mySubject.put(i, myLats[i], myLons[i]);
+            myRemoved.remove((long) i);
+        }
+        assertTrue(mySubject.getOverflowCount() > 0);
+        checkQueries();
+
+        // reopen read-only
+        File file = mySubject.getFileName();
+        mySubject.close();
+        mySubject = new PackedGeoIndexFile(file, true);
+        assertEquals(NODECOUNT, mySubject.getLeafCount());
+        checkQueries();
+    }
+
+    /**
+     * Many nodes put after building the tree are packed into the secondary
+     * tree and then into the tree again, so the overflow-area
+     * stays small and removed nodes are dropped.
+     * @throws IOException if the index cannot be written
+     */
+    @Test
+    public void testPackOverflow() throws IOException {
+        final int builtCount = 40000;
+        final int putCount = 13000;
+        final int count = builtCount + putCount + (int) mySubject.getOverflowLimit();
+        long[] lats = new long[count];
+        long[] lons = new long[count];
+        Random random = new Random(3);
+        PackedGeoIndexFile.Builder builder = new PackedGeoIndexFile.Builder(
+                new File(myTempDir, "big.pid2"), myTempDir, builtCount);
+        for (int i = 0; i < builtCount; i++) {
+            lats[i] = random.nextInt(AREA) - AREA / 2;
+            lons[i] = random.nextInt(AREA) - AREA / 2;
+            builder.add(i, lats[i], lons[i]);
+        }
+        mySubject.close();
+        mySubject = builder.build();
+
+        boolean checkedSecondary = false;
+        for (int i = builtCount; i < builtCount + putCount; i++) {
+            lats[i] = random.nextInt(AREA) - AREA / 2;
+            lons[i] = random.nextInt(AREA) - AREA / 2;
+            mySubject.put(i, lats[i], lons[i]);
+            assertTrue(mySubject.getOverflowCount() <= mySubject.getOverflowLimit());
+            if (!checkedSecondary && mySubject.getSecondaryLeafCount() > 0) {
+                assertEquals(builtCount, mySubject.getLeafCount());
+                checkQueries(lats, lons, i + 1);
+                checkedSecondary = true;
+            }
+        }
+        assertTrue(checkedSecondary);
+        // the secondary tree has been packed into the tree
+        assertEquals(0, mySubject.getSecondaryLeafCount());
+        assertTrue(mySubject.getLeafCount() > builtCount);
+        checkQueries(lats, lons, builtCount + putCount);
+
+        // removed nodes are dropped the next time the index is packed
+        for (int i = 0; i < builtCount; i += 2) {
+            mySubject.remove(i, lats[i], lons[i]);
+            myRemoved.add((long) i);
+        }
+        for (int i = builtCount + putCount; i < count; i++) {
+            lats[i] = random.nextInt(AREA) - AREA / 2;
+            lons[i] = random.nextInt(AREA) - AREA / 2;
+            mySubject.put(i, lats[i], lons[i]);
+        }
+        assertTrue(mySubject.getLeafCount() < count - builtCount / 2);
+        checkQueries(lats, lons, count);
+
+        // reopen read-only
+        File file = mySubject.getFileName();
+        mySubject.close();
+        mySubject = new PackedGeoIndexFile(file, true);
+        checkQueries(lats, lons, count);
+    }
+
+    /**
+     * Bounding-boxes are found by every query they intersect
+     * and the stale-flag survives reopening.
+     * @throws IOException if the index cannot be written
+     */
+    @Test
+    public void testBoxes() throws IOException {
+        final long boxValue = NODECOUNT + 1;
+        final long extent = 10;
+        mySubject.put(boxValue, -AREA, -AREA, -AREA + extent, -AREA + extent);
+        assertTrue(mySubject.get(-AREA - extent, -AREA - extent, -AREA + 1, -AREA + 1).contains(boxValue));
+        assertTrue(mySubject.get(-AREA + 2, -AREA + 2, -AREA + 2 + 1, -AREA + 2 + 1).contains(boxValue));
+        assertFalse(mySubject.get(-AREA + extent + 1, -AREA, 0, 0).contains(boxValue));
+        mySubject.remove(boxValue, -AREA, -AREA, -AREA + extent, -AREA + extent);
+        assertFalse(mySubject.get(-AREA - extent, -AREA - extent, -AREA + 1, -AREA + 1).contains(boxValue));
+
+        assertFalse(mySubject.isStale());
+        mySubject.setStale();
+        File file = mySubject.getFileName();
+        mySubject.close();
+        mySubject = new PackedGeoIndexFile(file, true);
+        assertTrue(mySubject.isStale());
+    }
+
+    /**
+     * The visitor can stop the lookup early.
+     * @throws IOException if the index cannot be read
+     */
+    @Test
+    public void testStopVisiting() throws IOException {
+        final int[] count = new int[1];
+        mySubject.visit(Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, new IRecordNumberVisitor() {
+            public boolean visit(final long aRecordNumber) {
+                count[0]++;
+                return count[0] < 10;
+            }
+        });
+        assertEquals(10, count[0]);
+    }
+
+    /**
+     * Walk the tree and the overflow-area with a cursor.
+     * @throws IOException if the index cannot be read
+     */
+    @Test
+    public void testCursor() throws IOException {
+        final long overflowValue = NODECOUNT + 1;
+        mySubject.put(overflowValue, 0, 0);
+        final long half = AREA / 4;
+        Set<Long> found = new HashSet<Long>();
+        PackedGeoIndexFile.Cursor cursor = mySubject.query(-half, -half, half, half);
+        for (long value = cursor.next(); value != Long.MIN_VALUE; value = cursor.next()) {
+            assertTrue("value " + value + " returned twice", found.add(value));
+        }
+        assertEquals(Long.MIN_VALUE, cursor.next());
+        assertTrue(found.contains(overflowValue));
+        assertEquals(mySubject.get(-half, -half, half, half), found);
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * TagIndexFileTest.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Project: libosm<br/>
+ * TagIndexFileTest.java<br/>
+ *<br/><br/>
+ * <b>Bulk-build a {@link TagIndexFile}, add postings and compare
+ * the IDs found with the tags added.</b>
+ */
+public class TagIndexFileTest {
+
+    /**
+     * The number of entities to index.
+     */
+    private static final int ENTITYCOUNT = 3000;
+
+    /**
+     * The keys of the tags are 0..KEYCOUNT-1.
+     */
+    private static final int KEYCOUNT = 5;
+
+    /**
+     * The values of the tags are 0..VALUECOUNT-1.
+     */
+    private static final int VALUECOUNT = 700;
+
+    /**
+     * The class we are testing.
+     */
+    private TagIndexFile mySubject;
+
+    /**
+     * A temporary directory for our subject to use.
+     */
+    private File myTempDir;
+
+    /**
+     * The IDs expected for each term.
+     */
+    private final Map<Long, Set<Long>> myExpected = new HashMap<Long, Set<Long>>();
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.myTempDir = File.createTempFile("TagIndexFileTest", "");
+        this.myTempDir.delete();
+        this.myTempDir.mkdirs();
+        Random random = new Random(1);
+        // tiny in-memory buffer to test the external sort too
+        TagIndexFile.Builder builder = new TagIndexFile.Builder(
+                new File(myTempDir, "nodes.tix"), myTempDir, 333);
+        for (int id = 1; id <= ENTITYCOUNT; id++) {
+            short key = (short) random.nextInt(KEYCOUNT);
+            String value = "value " + random.nextInt(VALUECOUNT);
+            builder.add(id, key, value);
+            expect(TagIndexFile.getTerm(key, value), id);
+            expect(TagIndexFile.getTerm(key, null), id);
+        }
+        this.mySubject = builder.build();
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.mySubject.close();
+        for (File file : myTempDir.listFiles()) {
+            file.delete();
+        }
+        myTempDir.delete();
+    }
+
+    /**
+     * @param aTerm a term we added
+     * @param anID the ID added for it
+     */
+    private void expect(final long aTerm, final long anID) {
+        Set<Long> ids = myExpected.get(aTerm);
+        if (ids == null) {
+            ids = new HashSet<Long>();
+            myExpected.put(aTerm, ids);
+        }
+        ids.add(anID);
+    }
+
+    /**
+     * Compare the postings of all terms with the IDs added.
+     * @throws IOException if the index cannot be read
+     */
+    private void checkTerms() throws IOException {
+        assertEquals(myExpected.size(), mySubject.getTermCount());
+        for (Map.Entry<Long, Set<Long>> entry : myExpected.entrySet()) {
+            final Set<Long> found = new HashSet<Long>();
+            mySubject.visit(entry.getKey(), new IRecordNumberVisitor() {
+                public boolean visit(final long anID) {
+                    found.add(anID);
+                    return true;
+                }
+            });
+            assertEquals(entry.getValue(), found);
+        }
+    }
+
+    /**
+     * Query the freshly built index.
+     * @throws IOException if the index cannot be read
+     */
+    @Test
+    public void testBuild() throws IOException {
+        checkTerms();
+        final Set<Long> found = new HashSet<Long>();
+        mySubject.visit(TagIndexFile.getTerm((short) 0, "no such value"), new IRecordNumberVisitor() {
+            public boolean visit(final long anID) {
+                found.add(anID);
+                return true;
+            }
+        });
+        assertTrue(found.isEmpty());
+    }
+
+    /**
+     * Add postings to existing and new terms, so the
+     * hash-table of terms has to grow, and reopen the index.
+     * @throws IOException if the index cannot be written
+     */
+    @Test
+    public void testPut() throws IOException {
+        Random random = new Random(2);
+        for (int id = ENTITYCOUNT + 1; id <= 2 * ENTITYCOUNT; id++) {
+            short key = (short) (-1 - random.nextInt(KEYCOUNT));
+            String value = "new value " + random.nextInt(VALUECOUNT);
+            mySubject.put(TagIndexFile.getTerm(key, value), id);
+            expect(TagIndexFile.getTerm(key, value), id);
+            mySubject.put(TagIndexFile.getTerm((short) 0, null), id);
+            expect(TagIndexFile.getTerm((short) 0, null), id);
+        }
+        checkTerms();
+
+        // reopen read-only
+        File file = mySubject.getFileName();
+        mySubject.close();
+        mySubject = new TagIndexFile(file, true);
+        checkTerms();
+    }
+}
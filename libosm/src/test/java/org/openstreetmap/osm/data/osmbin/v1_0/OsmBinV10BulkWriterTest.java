@@ -0,0 +1,217 @@
+/**
+ * OsmBinV10BulkWriterTest.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin.v1_0;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osm.data.OsmBinDataSet;
+import org.openstreetmap.osm.data.coordinates.Bounds;
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
+
+import org.openstreetmap.osmosis.core.container.v0_6.NodeContainer;
+import org.openstreetmap.osmosis.core.container.v0_6.RelationContainer;
+import org.openstreetmap.osmosis.core.container.v0_6.WayContainer;
+import org.openstreetmap.osmosis.core.domain.v0_6.EntityType;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Relation;
+import org.openstreetmap.osmosis.core.domain.v0_6.RelationMember;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+/**
+ * Project: libosm<br/>
+ * OsmBinV10BulkWriterTest.java<br/>
+ *<br/><br/>
+ * <b>Bulk-load a small map and read it back using an {@link OsmBinDataSet}.</b>
+ */
+public class OsmBinV10BulkWriterTest {
+
+    /**
+     * Number of nodes to import.
+     */
+    private static final int NODECOUNT = 300;
+
+    /**
+     * Distance of the nodes in degrees.
+     */
+    private static final double OFFSET = 0.001d;
+
+    /**
+     * coordinates are allowed to change this much
+     * during saving.
+     */
+    private static final double ALLOWEDCOORDINATEDELTA = 0.0001;
+
+    /**
+     * A temporary directory to import into.
+     */
+    private File myTempDirectory;
+
+    /**
+     * @throws java.lang.Exception if we cannot create the directory
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.myTempDirectory = File.createTempFile("OsmBinV10BulkWriterTest", null);
+        this.myTempDirectory.delete();
+        this.myTempDirectory.mkdirs();
+    }
+
+    /**
+     * Delete the temporary directory.
+     */
+    @After
+    public void tearDown() {
+        File[] list = this.myTempDirectory.listFiles();
+        if (list != null) {
+            for (File file : list) {
+                file.delete();
+            }
+        }
+        this.myTempDirectory.delete();
+    }
+
+    /**
+     * Import nodes, ways and relations with only a few back-references
+     * sorted in memory, so that the temporary runs are merged.
+     */
+    @Test
+    public void testBulkLoad() {
+        final int tuplesInMemory = 16;
+        final long missingNodeID = NODECOUNT + 1;
+        OsmBinV10BulkWriter subject = new OsmBinV10BulkWriter(myTempDirectory, tuplesInMemory);
+        for (int i = 1; i <= NODECOUNT; i++) {
+            Node node = new Node(i, 1, new Date(), null, 0, i * OFFSET, -i * OFFSET);
+            node.getTags().add(new Tag("name", "a node with a long name number " + i));
+            subject.process(new NodeContainer(node));
+        }
+        // way i contains the nodes i..i+2, the last way also a node we do not have
+        for (int i = 1; i <= NODECOUNT - 2; i++) {
+            Way way = new Way(i, 1, new Date(), null, 0);
+            way.getTags().add(new Tag("highway", "residential"));
+            for (int n = i; n < i + 3; n++) {
+                way.getWayNodes().add(new WayNode(n));
+            }
+            if (i == NODECOUNT - 2) {
+                way.getWayNodes().add(new WayNode(missingNodeID));
+            }
+            subject.process(new WayContainer(way));
+        }
+        Relation relation = new Relation(1, 1, new Date(), null, 0);
+        relation.getTags().add(new Tag("type", "route"));
+        relation.getMembers().add(new RelationMember(2, EntityType.Node, "stop"));
+        relation.getMembers().add(new RelationMember(1, EntityType.Way, ""));
+        relation.getMembers().add(new RelationMember(2, EntityType.Way, ""));
+        subject.process(new RelationContainer(relation));
+        subject.complete();
+        subject.release();
+
+        OsmBinDataSetV10 dataSet = new OsmBinDataSetV10(myTempDirectory, OsmBinFormat.V1_2);
+        try {
+            for (int i = 1; i <= NODECOUNT; i++) {
+                Node node = dataSet.getNodeByID(i);
+                assertNotNull("node " + i, node);
+                assertEquals(i * OFFSET, node.getLatitude(), ALLOWEDCOORDINATEDELTA);
+                assertEquals("a node with a long name number " + i, node.getTags().iterator().next().getValue());
+            }
+            assertNull(dataSet.getNodeByID(missingNodeID));
+
+            // node 3 is part of the ways 1, 2 and 3
+            Set<Long> wayIDs = new HashSet<Long>();
+            for (Iterator<Way> ways = dataSet.getWaysForNode(3); ways.hasNext();) {
+                wayIDs.add(ways.next().getId());
+            }
+            assertEquals(3, wayIDs.size());
+            assertTrue(wayIDs.contains(1L) && wayIDs.contains(2L) && wayIDs.contains(3L));
+
+            ExtendedWay way = (ExtendedWay) dataSet.getWaysByID(NODECOUNT - 2);
+            assertEquals(4, way.getWayNodes().size());
+            assertEquals(missingNodeID, way.getWayNodes().get(3).getNodeId());
+            assertEquals((NODECOUNT - 2) * OFFSET, way.getMinLatitude(), ALLOWEDCOORDINATEDELTA);
+            assertEquals(NODECOUNT * OFFSET, way.getMaxLatitude(), ALLOWEDCOORDINATEDELTA);
+            assertEquals(-NODECOUNT * OFFSET, way.getMinLongitude(), ALLOWEDCOORDINATEDELTA);
+            assertEquals(-(NODECOUNT - 2) * OFFSET, way.getMaxLongitude(), ALLOWEDCOORDINATEDELTA);
+
+            assertTrue(((ExtendedWay) dataSet.getWaysByID(2)).getReferencedRelationIDs().contains(1L));
+            assertFalse(((ExtendedWay) dataSet.getWaysByID(3)).getReferencedRelationIDs().contains(1L));
+            Relation reat = dataSet.getRelationByID(1);
+            assertNotNull(reat);
+            assertEquals(3, reat.getMembers().size());
+            assertEquals("stop", reat.getMembers().get(0).getMemberRole());
+
+            // the geo-index was built too
+            Iterator<Node> inBounds = dataSet.getNodes(new Bounds(9.5 * OFFSET, -10.5 * OFFSET, 10.5 * OFFSET, -9.5 * OFFSET));
+            assertTrue(inBounds.hasNext());
+            assertEquals(10, inBounds.next().getId());
+            assertFalse(inBounds.hasNext());
+
+            // and the tag-indice
+            Iterator<Node> byTag = dataSet.getNodesByTag("name", "a node with a long name number 7");
+            assertTrue(byTag.hasNext());
+            assertEquals(7, byTag.next().getId());
+            assertFalse(byTag.hasNext());
+            int residential = 0;
+            for (Iterator<Way> ways = dataSet.getWaysByTag("highway", "residential"); ways.hasNext(); ways.next()) {
+                residential++;
+            }
+            assertEquals(NODECOUNT - 2, residential);
+        } finally {
+            dataSet.shutdown();
+        }
+    }
+
+    /**
+     * The input has to be sorted by type and ID.
+     */
+    @Test
+    public void testUnsortedInput() {
+        OsmBinV10BulkWriter subject = new OsmBinV10BulkWriter(myTempDirectory);
+        try {
+            subject.process(new NodeContainer(new Node(2, 1, new Date(), null, 0, 0.1d, 0.1d)));
+            subject.process(new NodeContainer(new Node(1, 1, new Date(), null, 0, 0.1d, 0.1d)));
+            fail("unsorted nodes have been accepted");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("sorted"));
+        } finally {
+            subject.release();
+        }
+    }
+}
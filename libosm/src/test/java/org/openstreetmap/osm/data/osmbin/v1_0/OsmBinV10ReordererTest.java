@@ -0,0 +1,230 @@
+/**
+ * OsmBinV10ReordererTest.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin.v1_0;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osm.data.OsmBinDataSet;
+import org.openstreetmap.osm.data.coordinates.Bounds;
+import org.openstreetmap.osm.data.osmbin.OsmBinFormat;
+import org.openstreetmap.osm.data.osmbin.PackedGeoIndexFile;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+/**
+ * Project: libosm<br/>
+ * OsmBinV10ReordererTest.java<br/>
+ *<br/><br/>
+ * <b>Reorder a small map and read it back using an {@link OsmBinDataSet}.</b>
+ */
+public class OsmBinV10ReordererTest {
+
+    /**
+     * Number of nodes to add.
+     */
+    private static final int NODECOUNT = 400;
+
+    /**
+     * coordinates are allowed to change this much
+     * during saving.
+     */
+    private static final double ALLOWEDCOORDINATEDELTA = 0.0001;
+
+    /**
+     * A temporary directory for the map.
+     */
+    private File myTempDirectory;
+
+    /**
+     * @throws java.lang.Exception if we cannot create the directory
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.myTempDirectory = File.createTempFile("OsmBinV10ReordererTest", null);
+        this.myTempDirectory.delete();
+        this.myTempDirectory.mkdirs();
+    }
+
+    /**
+     * Delete the temporary directory.
+     */
+    @After
+    public void tearDown() {
+        File[] list = this.myTempDirectory.listFiles();
+        if (list != null) {
+            for (File file : list) {
+                file.delete();
+            }
+        }
+        this.myTempDirectory.delete();
+    }
+
+    /**
+     * @param anID the id of a node
+     * @return the latitude of that node. Scattered over a small area.
+     */
+    private static double getLatitude(final long anID) {
+        final double scale = 0.001d;
+        return ((anID * 7919) % NODECOUNT) * scale;
+    }
+
+    /**
+     * @param anID the id of a node
+     * @return the longitude of that node. Scattered over a small area.
+     */
+    private static double getLongitude(final long anID) {
+        final double scale = 0.001d;
+        return ((anID * 104729) % NODECOUNT) * scale;
+    }
+
+    /**
+     * Write nodes with scattered locations and ways, remove some nodes,
+     * reorder the map and check that everything can still be found.
+     * @throws IOException if nodes.obm cannot be read
+     */
+    @Test
+    public void testReorder() throws IOException {
+        OsmBinDataSet dataSet = new OsmBinDataSet(myTempDirectory);
+        Random random = new Random(1);
+        for (int i = 1; i <= NODECOUNT; i++) {
+            Node node = new Node(i, 1, new Date(), null, 0, getLatitude(i), getLongitude(i));
+            if (i % 10 == 0) {
+                // a node with several records
+                for (int t = 0; t < 5; t++) {
+                    node.getTags().add(new Tag("key" + t, "a value number " + t + " of node " + i));
+                }
+            }
+            dataSet.addNode(node);
+        }
+        for (int i = 1; i <= NODECOUNT / 10; i++) {
+            Way way = new Way(i, 1, new Date(), null, 0);
+            way.getTags().add(new Tag("highway", "residential"));
+            for (int n = 0; n < 3; n++) {
+                way.getWayNodes().add(new WayNode(1 + random.nextInt(NODECOUNT)));
+            }
+            dataSet.addWay(way);
+        }
+        for (int i = 3; i <= NODECOUNT; i += 3) {
+            dataSet.removeNode(dataSet.getNodeByID(i));
+        }
+        dataSet.shutdown();
+        long oldLength = new File(myTempDirectory, "nodes.obm").length();
+
+        new OsmBinV10Reorderer(myTempDirectory).run();
+
+        // free records are gone and the nodes are stored in hilbert-order
+        assertTrue(new File(myTempDirectory, "nodes.obm").length() < oldLength);
+        assertTrue(new File(myTempDirectory, "nodes.pid2").exists());
+        assertHilbertOrder(new File(myTempDirectory, "nodes.obm"));
+
+        dataSet = new OsmBinDataSet(myTempDirectory);
+        try {
+            for (int i = 1; i <= NODECOUNT; i++) {
+                Node node = dataSet.getNodeByID(i);
+                if (i % 3 == 0) {
+                    assertNull("node " + i, node);
+                    continue;
+                }
+                assertNotNull("node " + i, node);
+                assertEquals(getLatitude(i), node.getLatitude(), ALLOWEDCOORDINATEDELTA);
+                assertEquals(getLongitude(i), node.getLongitude(), ALLOWEDCOORDINATEDELTA);
+                if (i % 10 == 0) {
+                    assertEquals(5, node.getTags().size());
+                }
+                // the 2D-index points to the new records
+                Iterator<Node> inBounds = dataSet.getNodes(new Bounds(getLatitude(i) - ALLOWEDCOORDINATEDELTA,
+                        getLongitude(i) - ALLOWEDCOORDINATEDELTA,
+                        getLatitude(i) + ALLOWEDCOORDINATEDELTA,
+                        getLongitude(i) + ALLOWEDCOORDINATEDELTA));
+                boolean found = false;
+                while (inBounds.hasNext()) {
+                    found |= inBounds.next().getId() == i;
+                }
+                assertTrue("node " + i + " in bounds", found);
+            }
+            for (int i = 1; i <= NODECOUNT / 10; i++) {
+                Way way = dataSet.getWaysByID(i);
+                assertNotNull("way " + i, way);
+                assertEquals(3, way.getWayNodes().size());
+            }
+        } finally {
+            dataSet.shutdown();
+        }
+    }
+
+    /**
+     * @param aNodesFile nodes.obm
+     * @throws IOException if we cannot read
+     */
+    private void assertHilbertOrder(final File aNodesFile) throws IOException {
+        OsmBinFormat format = OsmBinV10Reindexer.readFormat(myTempDirectory);
+        int recordSize = NodesFile.getNodeRecordLength(format);
+        InputStream read = new BufferedInputStream(new FileInputStream(aNodesFile));
+        try {
+            byte[] record = new byte[recordSize];
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            long lastHilbert = -1;
+            long lastID = OsmBinFormat.EMPTYID;
+            while (read.read(record) == recordSize) {
+                buffer.rewind();
+                long id = format.readID(buffer);
+                assertTrue(id != OsmBinFormat.EMPTYID);
+                if (id == lastID) {
+                    // another record of the same node
+                    continue;
+                }
+                lastID = id;
+                buffer.getInt(); // version
+                long hilbert = PackedGeoIndexFile.getHilbertValue(buffer.getInt(), buffer.getInt());
+                assertTrue(hilbert >= lastHilbert);
+                lastHilbert = hilbert;
+            }
+        } finally {
+            read.close();
+        }
+    }
+}
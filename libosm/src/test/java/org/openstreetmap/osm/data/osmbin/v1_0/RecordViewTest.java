@@ -0,0 +1,194 @@
+/**
+ * RecordViewTest.java
+ * created: 17.10.2026
+ * (c) 2008 by <a href="http://Wolschon.biz">Wolschon Softwaredesign und Beratung</a>
+ * This file is part of libosm by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  libosm is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  libosm is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with libosm.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.osm.data.osmbin.v1_0;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstreetmap.osm.data.osmbin.AttrNames;
+import org.openstreetmap.osm.data.osmbin.IDIndexFile;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.osmosis.core.util.FixedPrecisionCoordinateConvertor;
+
+/**
+ * Project: libosm<br/>
+ * RecordViewTest.java<br/>
+ *<br/><br/>
+ * <b>Write nodes and ways spanning several records and read them
+ * via {@link NodeRecordView} and {@link WayRecordView}.</b>
+ */
+public class RecordViewTest {
+
+    /**
+     * A temporary directory for the files.
+     */
+    private File myTempDir;
+
+    /**
+     * The attribute-names of the files.
+     */
+    private AttrNames myAttrNames;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.myTempDir = File.createTempFile("RecordViewTest", "");
+        this.myTempDir.delete();
+        this.myTempDir.mkdirs();
+        this.myAttrNames = new AttrNames(new File(myTempDir, "attrnames.txt"));
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        this.myAttrNames.close();
+        for (File file : myTempDir.listFiles()) {
+            file.delete();
+        }
+        myTempDir.delete();
+    }
+
+    /**
+     * Read a node with more ways and tags than fit into one record.
+     * @throws IOException if the files cannot be written
+     */
+    @Test
+    public void testNodeView() throws IOException {
+        NodesFile nodes = new NodesFile(new File(myTempDir, "nodes.obm"), myAttrNames,
+                new IDIndexFile(new File(myTempDir, "nodes.idx")), null);
+        List<Tag> tags = new ArrayList<Tag>();
+        tags.add(new Tag("name", "a name longer than one attribute-slot"));
+        tags.add(new Tag("highway", "bus_stop"));
+        ExtendedNode node = new ExtendedNode(1, 2, 0, 48.5d, 9.25d, tags);
+        for (long wayID = 10; wayID < 15; wayID++) {
+            node.addReferencedWay(wayID);
+        }
+        node.addReferencedRelation(100);
+        nodes.appendNode(new ExtendedNode(2, 1, 0, 1.0d, 1.0d));
+        long record = nodes.appendNode(node);
+        nodes.appendNode(new ExtendedNode(3, 1, 0, 1.0d, 1.0d));
+        nodes.flushAppendedRecords();
+
+        NodeRecordView view = new NodeRecordView(nodes);
+        assertTrue(view.moveTo(record));
+        assertEquals(1, view.getID());
+        assertEquals(2, view.getVersion());
+        assertTrue(view.getRecordCount() > 1);
+        assertEquals(FixedPrecisionCoordinateConvertor.convertToFixed(48.5d), view.getLatitudeFixed());
+        assertEquals(FixedPrecisionCoordinateConvertor.convertToFixed(9.25d), view.getLongitudeFixed());
+        assertEquals(5, view.getWayCount());
+        for (int i = 0; i < view.getWayCount(); i++) {
+            assertTrue(node.getReferencedWayIDs().contains(view.getWayID(i)));
+        }
+        assertEquals(1, view.getRelationCount());
+        assertEquals(100, view.getRelationID(0));
+
+        short nameKey = myAttrNames.getKey("name");
+        short highwayKey = myAttrNames.getKey("highway");
+        assertTrue(view.hasTag(nameKey));
+        assertEquals("a name longer than one attribute-slot", view.getTag(nameKey));
+        assertTrue(view.isTag(nameKey, "a name longer than one attribute-slot"));
+        assertFalse(view.isTag(nameKey, "a name longer than one attribute"));
+        assertTrue(view.isTag(highwayKey, "bus_stop"));
+        assertFalse(view.isTag(highwayKey, "bus_stop2"));
+
+        ExtendedNode reat = nodes.readNode(Long.MIN_VALUE, record);
+        assertEquals(node.getId(), reat.getId());
+        assertEquals(node.getTags().size(), reat.getTags().size());
+        assertEquals(node.getReferencedWayIDs(), reat.getReferencedWayIDs());
+        assertEquals(node.getReferencedRelationIDs(), reat.getReferencedRelationIDs());
+
+        assertTrue(view.moveTo(record + view.getRecordCount()));
+        assertEquals(3, view.getID());
+        assertNull(view.getTag(nameKey));
+        assertEquals(0, view.getWayCount());
+        nodes.close();
+    }
+
+    /**
+     * Read a way with more nodes than fit into one record.
+     * @throws IOException if the files cannot be written
+     */
+    @Test
+    public void testWayView() throws IOException {
+        WaysFile ways = new WaysFile(new File(myTempDir, "ways.obm"), myAttrNames,
+                new IDIndexFile(new File(myTempDir, "ways.idx")));
+        final int nodeCount = 30;
+        List<WayNode> wayNodes = new ArrayList<WayNode>();
+        for (long nodeID = 0; nodeID < nodeCount; nodeID++) {
+            wayNodes.add(new WayNode(nodeID * 2));
+        }
+        List<Tag> tags = new ArrayList<Tag>();
+        tags.add(new Tag("highway", "residential"));
+        ExtendedWay way = new ExtendedWay(7, 3, tags, wayNodes);
+        way.setMinLatitude(1.0d);
+        way.setMaxLatitude(2.0d);
+        way.setMinLongitude(3.0d);
+        way.setMaxLongitude(4.0d);
+        long record = ways.appendWay(way);
+        ways.flushAppendedRecords();
+
+        WayRecordView view = new WayRecordView(ways);
+        assertTrue(view.moveTo(record));
+        assertEquals(7, view.getID());
+        assertEquals(nodeCount, view.getWayNodeCount());
+        for (int i = 0; i < nodeCount; i++) {
+            assertEquals(i * 2, view.getWayNodeID(i));
+        }
+        assertEquals(FixedPrecisionCoordinateConvertor.convertToFixed(1.0d), view.getMinLatitudeFixed());
+        assertEquals(FixedPrecisionCoordinateConvertor.convertToFixed(2.0d), view.getMaxLatitudeFixed());
+        assertEquals(FixedPrecisionCoordinateConvertor.convertToFixed(3.0d), view.getMinLongitudeFixed());
+        assertEquals(FixedPrecisionCoordinateConvertor.convertToFixed(4.0d), view.getMaxLongitudeFixed());
+        assertEquals("residential", view.getTag(myAttrNames.getKey("highway")));
+
+        ExtendedWay reat = ways.readWay(Long.MIN_VALUE, record);
+        assertEquals(nodeCount, reat.getWayNodes().size());
+        assertEquals(way.getTags().size(), reat.getTags().size());
+        assertFalse(view.moveTo(record + view.getRecordCount()));
+        ways.close();
+    }
+}
@@ -30,19 +30,27 @@
 package org.openstreetmap.travelingsalesman.navigation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,14 +62,25 @@ import org.openstreetmap.osm.data.searching.IWayPlace;
 import org.openstreetmap.osm.data.searching.NodePlace;
 import org.openstreetmap.osm.data.searching.Place;
 import org.openstreetmap.travelingsalesman.gps.IGPSProvider.IGPSListener;
+import org.openstreetmap.travelingsalesman.routing.DistanceMatrix;
+import org.openstreetmap.travelingsalesman.routing.IInstrumentedRouter;
+import org.openstreetmap.travelingsalesman.routing.IMatrixRouter;
 import org.openstreetmap.travelingsalesman.routing.IProgressListener;
 import org.openstreetmap.travelingsalesman.routing.IRouteChangedListener;
 import org.openstreetmap.travelingsalesman.routing.IRouter;
+import org.openstreetmap.travelingsalesman.routing.IRoutingGraphRouter;
 import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraph;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraphBuilder;
+import org.openstreetmap.travelingsalesman.routing.RoutingStatistics;
+import org.openstreetmap.travelingsalesman.routing.TourOptimizer;
 import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.PreprocessingCache;
 import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
 import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
 import org.openstreetmap.travelingsalesman.routing.metrics.StaticFastestRouteMetric;
+import org.openstreetmap.travelingsalesman.routing.routers.ContractionHierarchyRouter;
+import org.openstreetmap.travelingsalesman.routing.routers.LiveEdgeCosts;
 import org.openstreetmap.travelingsalesman.routing.routers.MultiTargetDijkstraRouter;
 import org.openstreetmap.travelingsalesman.routing.routers.TurnRestrictedAStar;
 import org.openstreetmap.travelingsalesman.trafficblocks.tmc.RDSTMCParser;
@@ -88,6 +107,36 @@ public class NavigationManager implements  IGPSListener {
      */
     private static final double DEFAULTMAXDISTFROMROUTE = 0.15;
 
+    /**
+     * Name of the boolean setting to visit the destinations
+     * in the cheapest order instead of the order given.
+     */
+    public static final String SETTINGS_OPTIMIZEDESTINATIONORDER = "routing.optimizeDestinationOrder";
+
+    /**
+     * Name of the boolean setting to let all legs of a route share one
+     * {@link RoutingGraph} of the map instead of each loading the nodes
+     * and ways it needs.
+     */
+    public static final String SETTINGS_SHAREDROUTINGGRAPH = "routing.sharedRoutingGraph";
+
+    /**
+     * The most tasks that may wait in the queue of {@link #getExecutorService()}.
+     */
+    private static final int MAXQUEUEDTASKS = 1024;
+
+    /**
+     * Seconds an idle thread of {@link #getExecutorService()} is kept.
+     */
+    private static final long THREADKEEPALIVESECONDS = 60;
+
+    /**
+     * Name of the boolean setting to re-route by only searching from the
+     * current position back to the current route instead of calculating
+     * a new route to all destinations.
+     */
+    public static final String SETTINGS_INCREMENTALREROUTE = "routing.reroute.incremental";
+
     /**
      * my logger for debug and error-output.
      */
@@ -140,6 +189,12 @@ public class NavigationManager implements  IGPSListener {
      */
     private Route myRoute = null;
 
+    /**
+     * May be null.
+     * The segments of {@link #myRoute} for matching GPS-positions to it.
+     */
+    private volatile RouteSegmentIndex myRouteIndex = null;
+
     /**
      * Optional selector to determine what
      * ways we are allowed to travel on.
@@ -168,6 +223,12 @@ public class NavigationManager implements  IGPSListener {
      */
     private long timingStart;
 
+    /**
+     * The summed statistics of all legs of the last route
+     * calculated (null if the router does not provide them).
+     */
+    private volatile RoutingStatistics myLastRoutingStatistics = null;
+
     /**
      * Add a listener to inform about changes to the route..
      * @param listener the new listener
@@ -189,6 +250,11 @@ public class NavigationManager implements  IGPSListener {
      * @param newRoute the new route to follow.
      */
     protected void setRoute(final Route newRoute) {
+        if (newRoute == null) {
+            this.myRouteIndex = null;
+        } else {
+            this.myRouteIndex = new RouteSegmentIndex(newRoute);
+        }
         this.myRoute = newRoute;
         for (IRouteChangedListener istener : myRouteChangedListeners) {
             istener.routeChanged(newRoute);
@@ -303,6 +369,15 @@ public class NavigationManager implements  IGPSListener {
         this.myRoutingStepListeners.remove(listener);
     }
 
+    /**
+     * The statistics of the last route calculated, summed over all legs.
+     * Only available if the configured router is an {@link IInstrumentedRouter}.
+     * @return the statistics or null
+     */
+    public RoutingStatistics getLastRoutingStatistics() {
+        return myLastRoutingStatistics;
+    }
+
     /**
      * Never null. Read only!
      * Contains only the unreached destinations!
@@ -312,26 +387,62 @@ public class NavigationManager implements  IGPSListener {
         return Collections.unmodifiableList(myDestinations);
     }
 
+    /**
+     * Cancel all currently running calculations
+     * including an optimization of the order of the destinations.
+     */
+    private void cancelCalculations() {
+        synchronized (myDestinationsLock) {
+            myCalculationsGeneration++;
+            if (myOrderOptimization != null) {
+                myOrderOptimization.cancel(true);
+                myOrderOptimization = null;
+            }
+        }
+        if (myCurrentCalculations != null) {
+            for (Future<Route> future : myCurrentCalculations.keySet()) {
+                // the thread executing this task should be interrupted
+                future.cancel(true);
+            }
+            myCurrentCalculations.clear();
+            // do not let the cancelled legs occupy the queue
+            if (getExecutorService() instanceof ThreadPoolExecutor) {
+                ((ThreadPoolExecutor) getExecutorService()).purge();
+            }
+        }
+    }
+
     /**
      * Set the destinations (not null but empty is allowed).
      * This starts the asyncronous route-calculation resulting
      * in our {@link IRouteChangedListener}}s to be informed
      * when done.
+     * If the setting {@link #SETTINGS_OPTIMIZEDESTINATIONORDER} is set
+     * the destinations are visited in the cheapest order we can find
+     * instead of the order given.
      * @param aDestinations the destinations to set
      * @param startAtGPS start at the gps-position (navigation) or at the first destination (route-planing)
      */
     public void setDestinations(final List<Place> aDestinations, final boolean startAtGPS) {
+        setDestinations(aDestinations, startAtGPS,
+                Settings.getInstance().getBoolean(SETTINGS_OPTIMIZEDESTINATIONORDER, false));
+    }
+
+    /**
+     * Set the destinations as in {@link #setDestinations(List, boolean)}.
+     * The order of the destinations is optimized in the background
+     * by the {@link #getExecutorService()} before the legs are calculated.
+     * @param aDestinations the destinations to set
+     * @param startAtGPS start at the gps-position (navigation) or at the first destination (route-planing)
+     * @param anOptimizeOrder optimize the order of the destinations.
+     *        False when rerouting, so the stops are not reshuffled during a trip.
+     */
+    private void setDestinations(final List<Place> aDestinations, final boolean startAtGPS,
+                                 final boolean anOptimizeOrder) {
         if (aDestinations == null)
             throw new IllegalArgumentException("null destinations given!");
 
-        // cancel all currently running calculations.
-        if (myCurrentCalculations != null) {
-            for (Future<Route> future : myCurrentCalculations.keySet()) {
-                // the thread executing this task should be interrupted
-                future.cancel(true);
-            }
-            myCurrentCalculations.clear();
-        }
+        cancelCalculations();
 
         if (aDestinations != null && aDestinations.size() > 1 && !startAtGPS) {
             // remove the first "destination" if we are routing from
@@ -355,12 +466,49 @@ public class NavigationManager implements  IGPSListener {
         maxProgress = 0.0;
         currentProgress = 0.0;
 
-        List<RouteCalculator> routeCalculators = new LinkedList<RouteCalculator>();
         Place lastPlace = aDestinations.get(0);
         if (startAtGPS) {
             lastPlace = getPlaceAtGPS();
         }
 
+        if (myDestinations.size() > 1 && anOptimizeOrder) {
+            final Place startPlace = lastPlace;
+            final List<Place> unordered = myDestinations;
+            synchronized (myDestinationsLock) {
+                final long generation = myCalculationsGeneration;
+                try {
+                    myOrderOptimization = getExecutorService().submit(new Runnable() {
+                        public void run() {
+                            List<Place> ordered = optimizeDestinationOrder(startPlace, unordered);
+                            synchronized (myDestinationsLock) {
+                                if (generation != myCalculationsGeneration) {
+                                    // the destinations were changed meanwhile
+                                    return;
+                                }
+                                myOrderOptimization = null;
+                                myDestinations = ordered;
+                                calculateLegs(startPlace);
+                            }
+                        }
+                    });
+                    return;
+                } catch (RejectedExecutionException e) {
+                    LOG.log(Level.WARNING, "Too many route-calculations waiting, "
+                            + "keeping the given order of the destinations.", e);
+                }
+            }
+        }
+        calculateLegs(lastPlace);
+    }
+
+    /**
+     * Start the calculation of a route from the given place
+     * through all {@link #getDestinations()}.
+     * @param aStartPlace where we start
+     */
+    private void calculateLegs(final Place aStartPlace) {
+        List<RouteCalculator> routeCalculators = new LinkedList<RouteCalculator>();
+        Place lastPlace = aStartPlace;
         List<Place> destinations = getDestinations();
         for (Iterator<Place> iter = destinations.iterator(); iter.hasNext();) {
             Place nextPlace = iter.next();
@@ -374,32 +522,52 @@ public class NavigationManager implements  IGPSListener {
         this.timingStart = System.currentTimeMillis();
 
         // start the routing
-        ExecutorService executor = getExecutorService();
-        Map<Future<Route>, RouteCalculator> calculations = new HashMap<Future<Route>, RouteCalculator>(routeCalculators.size());
-        for (RouteCalculator calculator : routeCalculators) {
-            calculations.put(executor.submit(calculator), calculator);
+        final CompletionService<Route> completion = new ExecutorCompletionService<Route>(getExecutorService());
+        final Map<Future<Route>, RouteCalculator> calculations = new LinkedHashMap<Future<Route>, RouteCalculator>();
+        final Map<Future<Route>, Integer> legIndices = new HashMap<Future<Route>, Integer>();
+        try {
+            for (RouteCalculator calculator : routeCalculators) {
+                Future<Route> future = completion.submit(calculator);
+                legIndices.put(future, calculations.size());
+                calculations.put(future, calculator);
+            }
+        } catch (RejectedExecutionException e) {
+            LOG.log(Level.WARNING, "Too many route-calculations waiting, cannot calculate a route with "
+                    + routeCalculators.size() + " legs now.", e);
+            for (Future<Route> future : calculations.keySet()) {
+                future.cancel(true);
+            }
+            noRouteFound();
+            return;
         }
         myCurrentCalculations = calculations;
 
         //TODO: do not start a new thread for this.
         Thread t = new Thread() {
             public void run() {
-                List<Route> routes = new LinkedList<Route>();
-                boolean cancelRemainingRoutes = false;
-                for (Future<Route> future : myCurrentCalculations.keySet()) {
-
-                    if (cancelRemainingRoutes) {
-                        future.cancel(true);
-                        continue;
-                    }
-
+                // the legs finish in any order, collect them in the order they are driven
+                Route[] routes = new Route[calculations.size()];
+                RoutingStatistics statistics = null;
+                for (int finished = 0; finished < routes.length; finished++) {
                     try {
+                        Future<Route> future = completion.take();
                         Route route = future.get();
                         if (route == null) {
                             LOG.log(Level.INFO, "no route found!!");
-                            cancelRemainingRoutes = true;
+                            for (Future<Route> remaining : calculations.keySet()) {
+                                remaining.cancel(true);
+                            }
+                            noRouteFound();
+                            return;
+                        }
+                        routes[legIndices.get(future)] = route;
+                        RoutingStatistics legStatistics = calculations.get(future).getStatistics();
+                        if (legStatistics != null) {
+                            if (statistics == null) {
+                                statistics = new RoutingStatistics(legStatistics.getRouterName());
+                            }
+                            statistics.add(legStatistics);
                         }
-                        routes.add(route);
                     } catch (InterruptedException e) {
                         LOG.log(Level.INFO, "InterruptedException while calculating a route! Aborting!", e);
                         return;
@@ -411,16 +579,16 @@ public class NavigationManager implements  IGPSListener {
                         return;
                     }
                 }
-                if (!cancelRemainingRoutes) {
-                    // we found a route!
-                    Route combinedRoute = Route.combine(routes);
-                    LOG.log(Level.INFO, "route with " + combinedRoute.getRoutingSteps().size() + " steps found!!");
-                    long timingRoute = System.currentTimeMillis() - timingStart;
-                    LOG.log(Level.FINE, "Timing: routing took " + timingRoute + "ms\n");
-                    setRoute(combinedRoute);
-                } else {
-                    noRouteFound();
+                // we found a route!
+                Route combinedRoute = Route.combine(Arrays.asList(routes));
+                LOG.log(Level.INFO, "route with " + combinedRoute.getRoutingSteps().size() + " steps found!!");
+                long timingRoute = System.currentTimeMillis() - timingStart;
+                LOG.log(Level.FINE, "Timing: routing took " + timingRoute + "ms\n");
+                myLastRoutingStatistics = statistics;
+                if (statistics != null) {
+                    LOG.log(Level.INFO, "Routing statistics: " + statistics);
                 }
+                setRoute(combinedRoute);
             }
         };
         t.setName("NavigationManager - finish");
@@ -442,6 +610,142 @@ public class NavigationManager implements  IGPSListener {
         return new NodePlace(nearestNode, getMap());
     }
 
+    /**
+     * Resolve a place to a node we may route from or to.
+     * @param aPlace the place
+     * @return the node or null if the place cannot be resolved
+     */
+    private Node getRoutableNode(final Place aPlace) {
+        Node node = aPlace.getResult();
+        if (node == null)
+            return null;
+
+        // replace the node with the nearest node on a way the selector accepts
+        if (mySelector != null && !mySelector.isAllowed(getMap(), node)) {
+            node = getMap().getNearestNode(new LatLon(node.getLatitude(), node.getLongitude()), mySelector);
+        }
+        return node;
+    }
+
+    /**
+     * @return the router to calculate distance-matrices with
+     *         if the configured router is no {@link IMatrixRouter}
+     */
+    private synchronized ContractionHierarchyRouter getMatrixRouter() {
+        if (myMatrixRouter == null) {
+            myMatrixRouter = new ContractionHierarchyRouter();
+        }
+        return myMatrixRouter;
+    }
+
+    /**
+     * Reorder the destinations so that visiting all of them is as cheap as possible.
+     * The costs between all destinations are calculated at once by an {@link IMatrixRouter}.
+     * If the configured router is none, the {@link #getMatrixRouter()} is used
+     * for this.
+     * @param aStartPlace where we start
+     * @param aDestinations the places to visit
+     * @return the same places in a better order (aDestinations if they cannot be reordered)
+     */
+    private List<Place> optimizeDestinationOrder(final Place aStartPlace, final List<Place> aDestinations) {
+        long start = System.currentTimeMillis();
+        try {
+            List<Node> stops = new ArrayList<Node>(aDestinations.size() + 1);
+            stops.add(getRoutableNode(aStartPlace));
+            for (Place place : aDestinations) {
+                stops.add(getRoutableNode(place));
+            }
+            if (stops.contains(null)) {
+                LOG.log(Level.WARNING, "cannot optimize the order of the destinations, "
+                        + "one of them cannot be resolved");
+                return aDestinations;
+            }
+
+            IRouter configured = Settings.getInstance().getPlugin(IRouter.class, MultiTargetDijkstraRouter.class.getName());
+            IMatrixRouter router;
+            if (configured instanceof IMatrixRouter) {
+                router = (IMatrixRouter) configured;
+            } else {
+                router = getMatrixRouter();
+            }
+            IRoutingMetric metric = Settings.getInstance().getPlugin(IRoutingMetric.class, StaticFastestRouteMetric.class.getName());
+            metric.setMap(getMapForRouters());
+            DistanceMatrix matrix;
+            synchronized (router) {
+                router.setMetric(metric);
+                matrix = router.getDistanceMatrix(getMapForRouters(), stops, stops, getSelector());
+            }
+
+            int[] order = new TourOptimizer(matrix).optimize();
+            List<Place> retval = new ArrayList<Place>(aDestinations.size());
+            for (int i = 1; i < order.length; i++) {
+                retval.add(aDestinations.get(order[i] - 1));
+            }
+            LOG.log(Level.INFO, "optimized the order of " + aDestinations.size() + " destinations in "
+                    + (System.currentTimeMillis() - start) + "ms");
+            return retval;
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "cannot optimize the order of the destinations, keeping the given order", e);
+            return aDestinations;
+        }
+    }
+
+    /**
+     * Used if the configured router is no {@link IMatrixRouter}.
+     * @see #getMatrixRouter()
+     */
+    private ContractionHierarchyRouter myMatrixRouter;
+
+    /**
+     * Guards {@link #myOrderOptimization} and {@link #myCalculationsGeneration}.
+     */
+    private final Object myDestinationsLock = new Object();
+
+    /**
+     * The running optimization of the order of the destinations or null.
+     */
+    private Future<?> myOrderOptimization;
+
+    /**
+     * Incremented by {@link #cancelCalculations()}, so an optimization of
+     * the order of the destinations that finishes later is discarded.
+     */
+    private long myCalculationsGeneration;
+
+    /**
+     * The snapshots of the maps shared by all {@link RouteCalculator}s
+     * if {@link #SETTINGS_SHAREDROUTINGGRAPH} is set.
+     * Key is the vehicle and metric.
+     */
+    private static final PreprocessingCache<RoutingGraph> SHAREDROUTINGGRAPHS = new PreprocessingCache<RoutingGraph>();
+
+    /**
+     * Get the snapshot of the map all legs route on, building it if
+     * the map, vehicle or metric changed. The first leg to ask builds it,
+     * all others wait for it.<br/>
+     * It is built with the base-cost of the roads, the routers
+     * apply the current traffic-messages per edge (see {@link LiveEdgeCosts}).
+     * @param aMetric the metric of the router
+     * @return the snapshot
+     */
+    private RoutingGraph getSharedRoutingGraph(final IRoutingMetric aMetric) {
+        IDataSet map = getMapForRouters();
+        String key = getSelector().getClass().getName() + "." + aMetric.getClass().getName();
+        long stamp = PreprocessingCache.getModificationStamp(map);
+        RoutingGraph graph = SHAREDROUTINGGRAPHS.get(map, key, stamp);
+        if (graph != null) {
+            return graph;
+        }
+        synchronized (SHAREDROUTINGGRAPHS.getLock(map, key)) {
+            graph = SHAREDROUTINGGRAPHS.get(map, key, stamp);
+            if (graph == null) {
+                graph = new RoutingGraphBuilder(map, getSelector(), LiveEdgeCosts.getBaseMetric(aMetric)).build();
+                SHAREDROUTINGGRAPHS.put(map, key, stamp, graph);
+            }
+            return graph;
+        }
+    }
+
     /**
      * The ExecutorService to use.
      */
@@ -503,6 +807,19 @@ public class NavigationManager implements  IGPSListener {
          */
         private double myTotal = 0.0;
 
+        /**
+         * The statistics of the router after {@link #call()}
+         * (null if the router does not provide them).
+         */
+        private volatile RoutingStatistics myStatistics = null;
+
+        /**
+         * @return the statistics of the router after {@link #call()} or null
+         */
+        public RoutingStatistics getStatistics() {
+            return myStatistics;
+        }
+
         /**
          * @param aStartPlace where to start
          * @param aTargetPlace where to route to
@@ -518,24 +835,16 @@ public class NavigationManager implements  IGPSListener {
             myStartPlace = aStartPlace;
             myTargetPlace = aTargetPlace;
             
-            myStartNode = myStartPlace.getResult();
+            myStartNode = getRoutableNode(myStartPlace);
             if (myStartNode == null)
                 throw new IllegalArgumentException("startPlace cannot be resolved");
             
-            myTargetNode = myTargetPlace.getResult();
+            myTargetNode = getRoutableNode(myTargetPlace);
             if (myTargetNode == null)
                 throw new IllegalArgumentException("targetPlace cannot be resolved");
 
             if (myStartNode.getId() == myTargetNode.getId())
                 LOG.log(Level.WARNING, "startNode = targetNode!!");
-
-            // replace start+end -node with the nearest node on a way the selector accepts
-            if (mySelector != null && !mySelector.isAllowed(getMap(), myStartNode)) {
-                myStartNode = getMap().getNearestNode(new LatLon(myStartNode.getLatitude(), myStartNode.getLongitude()), mySelector);
-            }
-            if (mySelector != null && !mySelector.isAllowed(getMap(), myTargetNode)) {
-                myTargetNode = getMap().getNearestNode(new LatLon(myTargetNode.getLatitude(), myTargetNode.getLongitude()), mySelector);
-            }
         }
 
         /**
@@ -600,6 +909,10 @@ public class NavigationManager implements  IGPSListener {
                 IRoutingMetric metric = Settings.getInstance().getPlugin(IRoutingMetric.class, StaticFastestRouteMetric.class.getName());
                 metric.setMap(getMapForRouters());
                 router.setMetric(metric);
+                if (router instanceof IRoutingGraphRouter && getSelector() != null
+                    && Settings.getInstance().getBoolean(SETTINGS_SHAREDROUTINGGRAPH, false)) {
+                    ((IRoutingGraphRouter) router).setRoutingGraph(getSharedRoutingGraph(metric));
+                }
 
                 Route theRoute = null;
                 if (myIsRoutingToWay && getTargetPlace() instanceof IWayPlace) {
@@ -608,6 +921,9 @@ public class NavigationManager implements  IGPSListener {
                 } else {
                     theRoute = router.route(getMapForRouters(), getTargetNode(), getStartNode(), getSelector());
                 }
+                if (router instanceof IInstrumentedRouter) {
+                    myStatistics = ((IInstrumentedRouter) router).getLastStatistics();
+                }
                 return theRoute;
             } finally {
                 thr.setName(oldThreadName);
@@ -619,9 +935,16 @@ public class NavigationManager implements  IGPSListener {
     /**
      * @return the executorService to use for asynchronous calculations.
      */
-    public static java.util.concurrent.ExecutorService getExecutorService() {
-        if (myExecutorService == null)
-            myExecutorService = new java.util.concurrent.ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors() * 2);
+    public static synchronized java.util.concurrent.ExecutorService getExecutorService() {
+        if (myExecutorService == null) {
+            // a bounded queue so frequent recalculations cannot pile up
+            int threads = Runtime.getRuntime().availableProcessors() * 2;
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                    THREADKEEPALIVESECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(MAXQUEUEDTASKS));
+            executor.allowCoreThreadTimeOut(true);
+            myExecutorService = executor;
+        }
         return myExecutorService;
     }
 
@@ -632,7 +955,9 @@ public class NavigationManager implements  IGPSListener {
         //TODO: provide a central ExecutorService
         if (anExecutorService == null)
             throw new IllegalArgumentException("null ExecutorService given!");
-        myExecutorService = anExecutorService;
+        synchronized (NavigationManager.class) {
+            myExecutorService = anExecutorService;
+        }
     }
 
     /**
@@ -659,30 +984,21 @@ public class NavigationManager implements  IGPSListener {
 
         //TODO: update currently running route-calculations.
 
-        if (this.myRoute == null)
+        Route route = this.myRoute;
+        RouteSegmentIndex index = this.myRouteIndex;
+        if (route == null || index == null)
             return;
 
-        // find the nearest node on the current route.
+        // find the nearest segment on the current route.
         Node nearestNodeOnRoute = null;
         double minDist = Double.MAX_VALUE;
         RoutingStep minDistStep = null;
 
-        for (RoutingStep step : this.myRoute.getRoutingSteps()) {
-            List<WayNode> nodes = step.getNodes();
-            for (WayNode node : nodes) {
-                Node n = getMap().getNodeByID(node.getNodeId());
-                if (n == null) {
-                    LOG.log(Level.WARNING, "Node " + node.getNodeId() + " of our route cannot be found in he map!");
-                } else {
-                    LatLon pos = new LatLon(n.getLatitude(), n.getLongitude());
-                    double dist = pos.distance(myLastGPSPos);
-                    if (dist <= minDist) { // must be <= instead of <
-                        minDist = dist;
-                        nearestNodeOnRoute = n;
-                        minDistStep = step;
-                    }
-                }
-            }
+        RouteSegmentIndex.Match match = index.match(myLastGPSPos.lat(), myLastGPSPos.lon());
+        if (match != null) {
+            minDist = match.getDistance();
+            nearestNodeOnRoute = match.getNode();
+            minDistStep = match.getStep();
         }
         // check destinations in the calculation of
         // mindist too, so we  dont restart route-calculation
@@ -704,7 +1020,11 @@ public class NavigationManager implements  IGPSListener {
         double thresh = Settings.getInstance().getDouble("routing.reroute.treshold.distFromRouteInKm", DEFAULTMAXDISTFROMROUTE);
         if (minDistInKm > thresh) {
             LOG.log(Level.INFO, "We are " + minDistInKm + "Km away from our route and will now recalculate.");
-            setDestinations(getDestinations(), true);
+            if (match != null && Settings.getInstance().getBoolean(SETTINGS_INCREMENTALREROUTE, false)) {
+                rerouteIncrementally(route, match);
+            } else {
+                setDestinations(getDestinations(), true, false);
+            }
         } else {
             LOG.log(Level.FINEST, "We are only " + minDistInKm + " < "
                     + thresh + "Km away from our route and will NOT recalculate.");
@@ -724,6 +1044,102 @@ public class NavigationManager implements  IGPSListener {
         }
     }
 
+    /**
+     * Re-route by searching from the current position only until we rejoin
+     * the given route at the first node ahead of our position along it.
+     * The rest of the route is reused.
+     * (Routing to all remaining nodes as a way would rejoin at the first
+     * reachable node in the order of the route, which may be behind us.)
+     * If we cannot rejoin the route, a new route to all destinations is calculated.
+     * @param aRoute the route we left
+     * @param aMatch our position matched to aRoute
+     */
+    private void rerouteIncrementally(final Route aRoute, final RouteSegmentIndex.Match aMatch) {
+        final List<RoutingStep> oldSteps = aRoute.getRoutingSteps();
+        final int firstStep = Math.max(0, oldSteps.indexOf(aMatch.getStep()));
+        Node rejoin = aMatch.getNextNode();
+
+        cancelCalculations();
+        final Future<Route> future;
+        try {
+            RouteCalculator calculator = new RouteCalculator(getPlaceAtGPS(), new NodePlace(rejoin, getMap()), false);
+            future = getExecutorService().submit(calculator);
+            Map<Future<Route>, RouteCalculator> calculations = new LinkedHashMap<Future<Route>, RouteCalculator>();
+            calculations.put(future, calculator);
+            myCurrentCalculations = calculations;
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Cannot re-route incrementally, calculating a new route.", e);
+            setDestinations(getDestinations(), true, false);
+            return;
+        }
+
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    Route detour = future.get();
+                    Route route = null;
+                    if (detour != null) {
+                        route = spliceRoute(detour, oldSteps, firstStep);
+                    }
+                    if (route == null) {
+                        LOG.log(Level.INFO, "Cannot rejoin our route, calculating a new route.");
+                        setDestinations(getDestinations(), true, false);
+                        return;
+                    }
+                    LOG.log(Level.INFO, "rejoined our route after " + detour.getRoutingSteps().size() + " steps");
+                    setRoute(route);
+                } catch (InterruptedException e) {
+                    LOG.log(Level.INFO, "InterruptedException while re-routing! Aborting!", e);
+                } catch (ExecutionException e) {
+                    LOG.log(Level.SEVERE, "ExecutionException while re-routing! Aborting!", e);
+                } catch (CancellationException e) {
+                    LOG.log(Level.INFO, "CancellationException while re-routing! Aborting!", e);
+                }
+            }
+        };
+        t.setName("NavigationManager - reroute");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Join a detour and the rest of the route it rejoins.
+     * @param aDetour the route from our position to a node of the old route
+     * @param aOldSteps the steps of the old route
+     * @param aFirstStep the first step of aOldSteps the detour may rejoin
+     * @return the combined route or null if the detour does not end on the old route
+     */
+    private Route spliceRoute(final Route aDetour, final List<RoutingStep> aOldSteps, final int aFirstStep) {
+        List<RoutingStep> detourSteps = aDetour.getRoutingSteps();
+        Node rejoinNode = aDetour.getStartNode();
+        if (detourSteps.size() > 0) {
+            rejoinNode = detourSteps.get(detourSteps.size() - 1).getEndNode();
+        }
+        List<RoutingStep> steps = new ArrayList<RoutingStep>(detourSteps);
+        boolean rejoined = false;
+        for (RoutingStep step : aOldSteps.subList(aFirstStep, aOldSteps.size())) {
+            if (rejoined || step.getStartNode().getId() == rejoinNode.getId()) {
+                rejoined = true;
+                steps.add(step);
+            } else if (step.getEndNode().getId() == rejoinNode.getId()) {
+                rejoined = true;
+            } else {
+                for (WayNode wayNode : step.getNodes()) {
+                    if (wayNode.getNodeId() == rejoinNode.getId()) {
+                        // we rejoin in the middle of this step
+                        rejoined = true;
+                        steps.add(new RoutingStep(step.getMap(), rejoinNode, step.getEndNode(), step.getWay()));
+                        break;
+                    }
+                }
+            }
+        }
+        if (!rejoined) {
+            return null;
+        }
+        return new Route(aDetour.getMap(), steps, aDetour.getStartNode());
+    }
+
     /**
      * We have lost the gps-signal.
      */
@@ -55,6 +55,8 @@ import org.openstreetmap.travelingsalesman.routing.describers.SimpleRouteDescrib
 import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
 import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
 import org.openstreetmap.travelingsalesman.routing.metrics.StaticFastestRouteMetric;
+import org.openstreetmap.travelingsalesman.routing.routers.ALTRouter;
+import org.openstreetmap.travelingsalesman.routing.routers.ContractionHierarchyRouter;
 import org.openstreetmap.travelingsalesman.routing.routers.DepthFirstRouter;
 import org.openstreetmap.travelingsalesman.routing.routers.DijkstraRouter;
 //import org.openstreetmap.travelingsalesman.routing.routers.DijkstraRouter;
@@ -145,6 +147,18 @@ public class OsmNavigationConfigSection extends ConfigurationSection {
                       RESOURCE.getString("libosm.configsection.recalculateDistance.title"),
                       TYPES.DOUBLE, RESOURCE.getString("libosm.configsection.recalculateDistance.category"),
                       RESOURCE.getString("libosm.configsection.recalculateDistance.desc")));
+        addSetting(new ConfigurationSetting(NavigationManager.SETTINGS_INCREMENTALREROUTE,
+                      RESOURCE.getString("libosm.configsection.incrementalReroute.title"),
+                      TYPES.BOOLEAN, RESOURCE.getString("libosm.configsection.incrementalReroute.category"),
+                      RESOURCE.getString("libosm.configsection.incrementalReroute.desc")));
+        addSetting(new ConfigurationSetting(NavigationManager.SETTINGS_OPTIMIZEDESTINATIONORDER,
+                      RESOURCE.getString("libosm.configsection.optimizeDestinationOrder.title"),
+                      TYPES.BOOLEAN, RESOURCE.getString("libosm.configsection.optimizeDestinationOrder.category"),
+                      RESOURCE.getString("libosm.configsection.optimizeDestinationOrder.desc")));
+        addSetting(new ConfigurationSetting(NavigationManager.SETTINGS_SHAREDROUTINGGRAPH,
+                      RESOURCE.getString("libosm.configsection.sharedRoutingGraph.title"),
+                      TYPES.BOOLEAN, RESOURCE.getString("libosm.configsection.sharedRoutingGraph.category"),
+                      RESOURCE.getString("libosm.configsection.sharedRoutingGraph.desc")));
         addSetting(new ConfigurationSetting("Painter.AntiAliasing",
                 RESOURCE.getString("libosm.configsection.AntiAliasing.title"),
                 TYPES.BOOLEAN, RESOURCE.getString("libosm.configsection.AntiAliasing.category"),
@@ -178,6 +192,8 @@ public class OsmNavigationConfigSection extends ConfigurationSection {
         Settings.registerPlugin(IRouter.class, DijkstraRouter.class.getName());
         Settings.registerPlugin(IRouter.class, MultiTargetDijkstraRouter.class.getName());
         Settings.registerPlugin(IRouter.class, TurnRestrictedAStar.class.getName());
+        Settings.registerPlugin(IRouter.class, ContractionHierarchyRouter.class.getName());
+        Settings.registerPlugin(IRouter.class, ALTRouter.class.getName());
 
         Settings.registerPlugin(IVehicle.class, Motorcar.class.getName());
 
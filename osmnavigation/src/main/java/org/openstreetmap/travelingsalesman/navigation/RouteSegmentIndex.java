@@ -0,0 +1,412 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.navigation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+/**
+ * A grid over the segments of a {@link Route} to quickly find the part
+ * of the route nearest to a GPS-position.<br/>
+ * All nodes of the route are loaded once when the index is built,
+ * matching a position does not access the map. The segment matched last
+ * is remembered as a first guess for the next position as we usually
+ * move along the route.<br/>
+ * Distances are squared distances of latitude and longitude
+ * as returned by {@link org.openstreetmap.osm.data.coordinates.LatLon#distance(org.openstreetmap.osm.data.coordinates.Coordinate)}.
+ */
+public final class RouteSegmentIndex {
+
+    /**
+     * my logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(RouteSegmentIndex.class.getName());
+
+    /**
+     * The smallest size of a grid-cell in degrees.
+     */
+    private static final double MINCELLSIZE = 0.0005;
+
+    /**
+     * Nodes of the route (in the order they are passed).
+     */
+    private final Node[] myNodes;
+
+    /**
+     * Per segment the index of its first node in {@link #myNodes}.
+     */
+    private final int[] mySegmentStarts;
+
+    /**
+     * Per segment the index of its second node in {@link #myNodes}.
+     */
+    private final int[] mySegmentEnds;
+
+    /**
+     * Per segment the index of its step in {@link #mySteps}.
+     */
+    private final int[] mySegmentSteps;
+
+    /**
+     * The steps of the route.
+     */
+    private final List<RoutingStep> mySteps;
+
+    /**
+     * Minimum latitude of the grid.
+     */
+    private final double myMinLat;
+
+    /**
+     * Minimum longitude of the grid.
+     */
+    private final double myMinLon;
+
+    /**
+     * Size of a grid-cell in degrees.
+     */
+    private final double myCellSize;
+
+    /**
+     * Number of cells in latitude-direction.
+     */
+    private final int myRows;
+
+    /**
+     * Number of cells in longitude-direction.
+     */
+    private final int myColumns;
+
+    /**
+     * The segments in cell i are myCellSegments[myCellStarts[i]]...myCellSegments[myCellStarts[i+1]-1].
+     */
+    private final int[] myCellStarts;
+
+    /**
+     * See {@link #myCellStarts}.
+     */
+    private final int[] myCellSegments;
+
+    /**
+     * The segment matched last.
+     */
+    private volatile int myCursor = 0;
+
+    /**
+     * The result of {@link RouteSegmentIndex#match(double, double)}.
+     */
+    public static final class Match {
+
+        /**
+         * The step the nearest segment is part of.
+         */
+        private final RoutingStep myStep;
+
+        /**
+         * The node of the nearest segment nearest to the position.
+         */
+        private final Node myNode;
+
+        /**
+         * The last node of the nearest segment.
+         */
+        private final Node myNextNode;
+
+        /**
+         * The squared distance to the nearest segment.
+         */
+        private final double myDistance;
+
+        /**
+         * @param aStep the step the nearest segment is part of
+         * @param aNode the node of the nearest segment nearest to the position
+         * @param aNextNode the last node of the nearest segment
+         * @param aDistance the squared distance to the nearest segment
+         */
+        private Match(final RoutingStep aStep, final Node aNode, final Node aNextNode, final double aDistance) {
+            this.myStep = aStep;
+            this.myNode = aNode;
+            this.myNextNode = aNextNode;
+            this.myDistance = aDistance;
+        }
+
+        /**
+         * @return the step the nearest segment is part of
+         */
+        public RoutingStep getStep() {
+            return myStep;
+        }
+
+        /**
+         * @return the node of the nearest segment nearest to the position
+         */
+        public Node getNode() {
+            return myNode;
+        }
+
+        /**
+         * @return the first node of the route that is ahead of the position
+         *         (the last node of the nearest segment, part of {@link #getStep()})
+         */
+        public Node getNextNode() {
+            return myNextNode;
+        }
+
+        /**
+         * @return the squared distance to the nearest segment
+         */
+        public double getDistance() {
+            return myDistance;
+        }
+    }
+
+    /**
+     * Load all nodes of the route and build the grid.
+     * @param aRoute the route to index
+     */
+    public RouteSegmentIndex(final Route aRoute) {
+        IDataSet map = aRoute.getMap();
+        mySteps = new ArrayList<RoutingStep>(aRoute.getRoutingSteps());
+        List<Node> nodes = new ArrayList<Node>();
+        int[] segmentStarts = new int[16];
+        int[] segmentEnds = new int[16];
+        int[] segmentSteps = new int[16];
+        int segmentCount = 0;
+        for (int step = 0; step < mySteps.size(); step++) {
+            int firstNode = nodes.size();
+            for (WayNode wayNode : mySteps.get(step).getNodes()) {
+                Node node = map.getNodeByID(wayNode.getNodeId());
+                if (node == null) {
+                    LOG.log(Level.WARNING, "Node " + wayNode.getNodeId() + " of our route cannot be found in the map!");
+                } else {
+                    nodes.add(node);
+                }
+            }
+            // a step with a single node gets a segment of length 0
+            int lastNode = Math.max(firstNode + 1, nodes.size() - 1);
+            for (int i = firstNode; i < lastNode && i < nodes.size(); i++) {
+                if (segmentCount == segmentStarts.length) {
+                    segmentStarts = Arrays.copyOf(segmentStarts, segmentCount * 2);
+                    segmentEnds = Arrays.copyOf(segmentEnds, segmentCount * 2);
+                    segmentSteps = Arrays.copyOf(segmentSteps, segmentCount * 2);
+                }
+                segmentStarts[segmentCount] = i;
+                segmentEnds[segmentCount] = Math.min(i + 1, nodes.size() - 1);
+                segmentSteps[segmentCount] = step;
+                segmentCount++;
+            }
+        }
+        myNodes = nodes.toArray(new Node[nodes.size()]);
+        mySegmentStarts = Arrays.copyOf(segmentStarts, segmentCount);
+        mySegmentEnds = Arrays.copyOf(segmentEnds, segmentCount);
+        mySegmentSteps = Arrays.copyOf(segmentSteps, segmentCount);
+
+        // size the grid to have about one segment per cell
+        double minLat = Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE;
+        for (Node node : myNodes) {
+            minLat = Math.min(minLat, node.getLatitude());
+            minLon = Math.min(minLon, node.getLongitude());
+            maxLat = Math.max(maxLat, node.getLatitude());
+            maxLon = Math.max(maxLon, node.getLongitude());
+        }
+        if (myNodes.length == 0) {
+            minLat = 0;
+            minLon = 0;
+            maxLat = 0;
+            maxLon = 0;
+        }
+        myMinLat = minLat;
+        myMinLon = minLon;
+        double extent = Math.max(maxLat - minLat, maxLon - minLon);
+        myCellSize = Math.max(MINCELLSIZE, extent / Math.max(1, Math.sqrt(segmentCount)));
+        myRows = 1 + (int) ((maxLat - minLat) / myCellSize);
+        myColumns = 1 + (int) ((maxLon - minLon) / myCellSize);
+
+        // count the segments per cell, then fill them in
+        myCellStarts = new int[myRows * myColumns + 1];
+        for (int segment = 0; segment < segmentCount; segment++) {
+            int[] cells = getCells(segment);
+            for (int row = cells[0]; row <= cells[1]; row++) {
+                for (int col = cells[2]; col <= cells[3]; col++) {
+                    myCellStarts[row * myColumns + col + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < myRows * myColumns; i++) {
+            myCellStarts[i + 1] += myCellStarts[i];
+        }
+        myCellSegments = new int[myCellStarts[myRows * myColumns]];
+        int[] fill = Arrays.copyOf(myCellStarts, myRows * myColumns);
+        for (int segment = 0; segment < segmentCount; segment++) {
+            int[] cells = getCells(segment);
+            for (int row = cells[0]; row <= cells[1]; row++) {
+                for (int col = cells[2]; col <= cells[3]; col++) {
+                    myCellSegments[fill[row * myColumns + col]++] = segment;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param aSegment a segment
+     * @return first row, last row, first column and last column of the cells the segment's bounding-box overlaps
+     */
+    private int[] getCells(final int aSegment) {
+        Node a = myNodes[mySegmentStarts[aSegment]];
+        Node b = myNodes[mySegmentEnds[aSegment]];
+        return new int[] {
+                getRow(Math.min(a.getLatitude(), b.getLatitude())),
+                getRow(Math.max(a.getLatitude(), b.getLatitude())),
+                getColumn(Math.min(a.getLongitude(), b.getLongitude())),
+                getColumn(Math.max(a.getLongitude(), b.getLongitude()))
+        };
+    }
+
+    /**
+     * @param aLat a latitude
+     * @return the row of the cell (clamped to the grid)
+     */
+    private int getRow(final double aLat) {
+        return Math.max(0, Math.min(myRows - 1, (int) Math.floor((aLat - myMinLat) / myCellSize)));
+    }
+
+    /**
+     * @param aLon a longitude
+     * @return the column of the cell (clamped to the grid)
+     */
+    private int getColumn(final double aLon) {
+        return Math.max(0, Math.min(myColumns - 1, (int) Math.floor((aLon - myMinLon) / myCellSize)));
+    }
+
+    /**
+     * @return the number of segments indexed
+     */
+    public int getSegmentCount() {
+        return mySegmentStarts.length;
+    }
+
+    /**
+     * @param aSegment a segment
+     * @param aLat latitude of the position
+     * @param aLon longitude of the position
+     * @return the squared distance of the position to the segment
+     */
+    private double getDistance(final int aSegment, final double aLat, final double aLon) {
+        Node a = myNodes[mySegmentStarts[aSegment]];
+        Node b = myNodes[mySegmentEnds[aSegment]];
+        double dLat = b.getLatitude() - a.getLatitude();
+        double dLon = b.getLongitude() - a.getLongitude();
+        double length = dLat * dLat + dLon * dLon;
+        double t = 0;
+        if (length > 0) {
+            t = ((aLat - a.getLatitude()) * dLat + (aLon - a.getLongitude()) * dLon) / length;
+            t = Math.max(0, Math.min(1, t));
+        }
+        double lat = a.getLatitude() + t * dLat - aLat;
+        double lon = a.getLongitude() + t * dLon - aLon;
+        return lat * lat + lon * lon;
+    }
+
+    /**
+     * Find the segment of the route nearest to a position.
+     * @param aLat latitude of the position
+     * @param aLon longitude of the position
+     * @return the match or null if the route has no nodes
+     */
+    public Match match(final double aLat, final double aLon) {
+        if (mySegmentStarts.length == 0) {
+            return null;
+        }
+        int best = Math.min(myCursor, mySegmentStarts.length - 1);
+        double bestDistance = getDistance(best, aLat, aLon);
+        int row = getRow(aLat);
+        int col = getColumn(aLon);
+        int maxRing = Math.max(myRows, myColumns);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // all cells of this ring are at least this far away
+            double ringDistance = Math.max(0, ring - 1) * myCellSize;
+            if (ringDistance * ringDistance > bestDistance) {
+                break;
+            }
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= myRows) {
+                    continue;
+                }
+                boolean edgeRow = r == row - ring || r == row + ring;
+                for (int c = col - ring; c <= col + ring; c += edgeRow ? 1 : 2 * ring) {
+                    if (c >= 0 && c < myColumns) {
+                        int cell = r * myColumns + c;
+                        for (int i = myCellStarts[cell]; i < myCellStarts[cell + 1]; i++) {
+                            int segment = myCellSegments[i];
+                            double distance = getDistance(segment, aLat, aLon);
+                            if (distance < bestDistance) {
+                                bestDistance = distance;
+                                best = segment;
+                            }
+                        }
+                    }
+                    if (ring == 0) {
+                        break;
+                    }
+                }
+            }
+        }
+        myCursor = best;
+
+        Node a = myNodes[mySegmentStarts[best]];
+        Node b = myNodes[mySegmentEnds[best]];
+        Node nearest = b;
+        double dA = square(a.getLatitude() - aLat) + square(a.getLongitude() - aLon);
+        double dB = square(b.getLatitude() - aLat) + square(b.getLongitude() - aLon);
+        if (dA < dB) {
+            nearest = a;
+        }
+        return new Match(mySteps.get(mySegmentSteps[best]), nearest, b, bestDistance);
+    }
+
+    /**
+     * @param aValue a number
+     * @return aValue * aValue
+     */
+    private static double square(final double aValue) {
+        return aValue * aValue;
+    }
+}
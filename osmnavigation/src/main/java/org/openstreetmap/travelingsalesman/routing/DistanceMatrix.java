@@ -0,0 +1,107 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+
+/**
+ * The costs between a number of sources and targets
+ * as calculated by an {@link IMatrixRouter}.
+ */
+public final class DistanceMatrix {
+
+    /**
+     * The nodes we start at.
+     */
+    private final List<Node> mySources;
+
+    /**
+     * The nodes we go to.
+     */
+    private final List<Node> myTargets;
+
+    /**
+     * [source][target] the cost or infinite if unreachable.
+     */
+    private final double[][] myCosts;
+
+    /**
+     * @param aSources the nodes we start at
+     * @param aTargets the nodes we go to
+     * @param aCosts [source][target] the cost or infinite if unreachable
+     */
+    public DistanceMatrix(final List<Node> aSources, final List<Node> aTargets, final double[][] aCosts) {
+        if (aCosts.length != aSources.size()) {
+            throw new IllegalArgumentException("need one row per source");
+        }
+        for (double[] row : aCosts) {
+            if (row.length != aTargets.size()) {
+                throw new IllegalArgumentException("need one column per target");
+            }
+        }
+        this.mySources = Collections.unmodifiableList(new ArrayList<Node>(aSources));
+        this.myTargets = Collections.unmodifiableList(new ArrayList<Node>(aTargets));
+        this.myCosts = aCosts;
+    }
+
+    /**
+     * @return the nodes we start at
+     */
+    public List<Node> getSources() {
+        return mySources;
+    }
+
+    /**
+     * @return the nodes we go to
+     */
+    public List<Node> getTargets() {
+        return myTargets;
+    }
+
+    /**
+     * @param aSource index in {@link #getSources()}
+     * @param aTarget index in {@link #getTargets()}
+     * @return the cost or {@link Double#POSITIVE_INFINITY} if unreachable
+     */
+    public double getCost(final int aSource, final int aTarget) {
+        return myCosts[aSource][aTarget];
+    }
+
+    /**
+     * @param aSource index in {@link #getSources()}
+     * @param aTarget index in {@link #getTargets()}
+     * @return true if there is a route
+     */
+    public boolean isReachable(final int aSource, final int aTarget) {
+        return myCosts[aSource][aTarget] != Double.POSITIVE_INFINITY;
+    }
+}
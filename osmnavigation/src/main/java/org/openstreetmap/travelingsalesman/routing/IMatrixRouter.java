@@ -0,0 +1,52 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing;
+
+import java.util.List;
+
+import org.openstreetmap.osm.data.IDataSet;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+
+/**
+ * This is an interface for routers that can calculate
+ * the costs between many nodes at once (e.g. to plan a tour).
+ */
+public interface IMatrixRouter extends IRouter {
+
+    /**
+     * Calculate the costs from every source to every target
+     * using the metric set via {@link #setMetric(org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric)}.
+     * @param aMap the map to route on
+     * @param aSources the nodes to start at
+     * @param aTargets the nodes to reach
+     * @param aSelector the vehicle giving us the roads that are allowed.
+     * @return the costs, never null
+     */
+    DistanceMatrix getDistanceMatrix(IDataSet aMap, List<Node> aSources, List<Node> aTargets, IVehicle aSelector);
+}
@@ -0,0 +1,50 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing;
+
+/**
+ * This is an interface for routers that can route on a
+ * {@link RoutingGraph} instead of loading nodes and ways from the map.
+ * As a RoutingGraph is immutable, one snapshot can be shared by
+ * routers running in parallel. A shared snapshot is built without
+ * traffic-messages, the routers apply the current ones per edge
+ * at query time.
+ */
+public interface IRoutingGraphRouter extends IRouter {
+
+    /**
+     * @return the snapshot we route on instead of the map (may be null)
+     */
+    RoutingGraph getRoutingGraph();
+
+    /**
+     * @param aGraph a snapshot of the map to route on instead of the map itself (may be null).
+     *               It is only used if it was built for the class of the metric of this router.
+     */
+    void setRoutingGraph(RoutingGraph aGraph);
+}
@@ -0,0 +1,168 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osm.data.IStampedDataSet;
+
+/**
+ * Data derived from a map (e.g. a {@link RoutingGraph}) that is shared
+ * by all routers of the same kind.<br/>
+ * Routers are created for every route-calculation, so they cannot keep
+ * it themselves. The values are kept per map and per key (e.g. the
+ * vehicle and metric they were built for) together with the
+ * modification-stamp of the map they were built at. A value is only
+ * returned while the map still has this stamp.
+ * Maps that are not {@link IStampedDataSet}s are assumed to never change.<br/>
+ * The maps are weakly referenced, so a value must not keep
+ * a strong reference to its map.
+ * @param <V> the type of the values
+ */
+public class PreprocessingCache<V> {
+
+    /**
+     * A value and the stamp of the map it was built at.
+     * @param <V> the type of the value
+     */
+    private static final class Entry<V> {
+
+        /**
+         * Held while the value is built, so it is built only once.
+         */
+        private final Object myLock = new Object();
+
+        /**
+         * The modification-stamp of the map {@link #myValue} was built at.
+         */
+        private long myStamp;
+
+        /**
+         * The value or null.
+         */
+        private V myValue;
+    }
+
+    /**
+     * map -&gt; key -&gt; entry.
+     */
+    private final Map<IDataSet, Map<String, Entry<V>>> myEntries = new WeakHashMap<IDataSet, Map<String, Entry<V>>>();
+
+    /**
+     * @param aMap a map
+     * @return the modification-stamp of the map or 0 if it cannot tell
+     */
+    public static long getModificationStamp(final IDataSet aMap) {
+        if (aMap instanceof IStampedDataSet) {
+            return ((IStampedDataSet) aMap).getModificationStamp();
+        }
+        return 0;
+    }
+
+    /**
+     * @param aMap the map
+     * @param aKey the key
+     * @return the entry, created if needed
+     */
+    private Entry<V> getEntry(final IDataSet aMap, final String aKey) {
+        Map<String, Entry<V>> entries = myEntries.get(aMap);
+        if (entries == null) {
+            entries = new HashMap<String, Entry<V>>();
+            myEntries.put(aMap, entries);
+        }
+        Entry<V> entry = entries.get(aKey);
+        if (entry == null) {
+            entry = new Entry<V>();
+            entries.put(aKey, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Synchronize on the returned lock while building a value,
+     * then ask {@link #get(IDataSet, String, long)} again
+     * as another thread may have built it meanwhile.
+     * @param aMap the map
+     * @param aKey the key
+     * @return the lock for building the value of the map and key
+     */
+    public synchronized Object getLock(final IDataSet aMap, final String aKey) {
+        return getEntry(aMap, aKey).myLock;
+    }
+
+    /**
+     * @param aMap the map
+     * @param aKey the key
+     * @param aStamp the current modification-stamp of the map
+     * @return the value or null if there is none for this stamp
+     */
+    public synchronized V get(final IDataSet aMap, final String aKey, final long aStamp) {
+        Map<String, Entry<V>> entries = myEntries.get(aMap);
+        if (entries == null) {
+            return null;
+        }
+        Entry<V> entry = entries.get(aKey);
+        if (entry == null || entry.myStamp != aStamp) {
+            return null;
+        }
+        return entry.myValue;
+    }
+
+    /**
+     * @param aMap the map
+     * @param aKey the key
+     * @param aStamp the modification-stamp of the map taken before building the value
+     * @param aValue the value
+     */
+    public synchronized void put(final IDataSet aMap, final String aKey, final long aStamp, final V aValue) {
+        Entry<V> entry = getEntry(aMap, aKey);
+        entry.myStamp = aStamp;
+        entry.myValue = aValue;
+    }
+
+    /**
+     * Forget a value, so it is built again.
+     * Does nothing if another value was put meanwhile.
+     * @param aMap the map
+     * @param aKey the key
+     * @param aValue the outdated value
+     */
+    public synchronized void remove(final IDataSet aMap, final String aKey, final V aValue) {
+        Map<String, Entry<V>> entries = myEntries.get(aMap);
+        if (entries == null) {
+            return;
+        }
+        Entry<V> entry = entries.get(aKey);
+        if (entry != null && entry.myValue == aValue) {
+            entry.myValue = null;
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osm.data.coordinates.LatLon;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.osmosis.core.util.FixedPrecisionCoordinateConvertor;
+
+/**
+ * A compact, read-only snapshot of the road-network of an {@link IDataSet}
+ * for one {@link IVehicle} and one metric.<br/>
+ * Nodes are numbered 0...n-1 in the order of their OSM-IDs and all edges
+ * are kept in primitive arrays in compressed-sparse-row form
+ * (the edges leaving node i are getFirstEdge(i)...getFirstEdge(i+1)-1).
+ * An edge always connects 2 adjacent nodes of a way.
+ * Routers can expand a node without loading anything from the map
+ * and without evaluating any tags.<br/>
+ * Instances are immutable and can be shared by multiple threads.
+ * They only keep a weak reference to the map, so they can be
+ * cached per map (see {@link PreprocessingCache}).
+ * Use {@link RoutingGraphBuilder} to create one.
+ */
+public final class RoutingGraph {
+
+    /**
+     * my logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(RoutingGraph.class.getName());
+
+    /**
+     * Flag in the packed way-value of an edge:
+     * The edge goes in the direction of the way.
+     */
+    public static final int FLAG_FORWARD = 1;
+
+    /**
+     * Flag in the packed way-value of an edge:
+     * The way may only be traveled in one direction.
+     */
+    public static final int FLAG_ONEWAY = 2;
+
+    /**
+     * Number of bits used by the flags in the packed way-value of an edge.
+     */
+    static final int FLAGBITS = 2;
+
+    /**
+     * The map this is a snapshot of.
+     */
+    private final WeakReference<IDataSet> myMap;
+
+    /**
+     * The vehicle that decided what roads are part of the graph.
+     */
+    private final IVehicle myVehicle;
+
+    /**
+     * The class of the metric the costs of the edges were calculated with.
+     * (Not the metric itself, it references the map.)
+     */
+    private final Class<? extends IRoutingMetric> myMetricClass;
+
+    /**
+     * Node-index to OSM-node-ID (sorted ascending).
+     */
+    private final long[] myNodeIDs;
+
+    /**
+     * Latitude of each node in fixed precision.
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    private final int[] myLatitudes;
+
+    /**
+     * Longitude of each node in fixed precision.
+     * @see FixedPrecisionCoordinateConvertor
+     */
+    private final int[] myLongitudes;
+
+    /**
+     * The edges leaving node i are myFirstEdge[i]...myFirstEdge[i+1]-1 .
+     */
+    private final int[] myFirstEdge;
+
+    /**
+     * The node each edge leaves.
+     */
+    private final int[] myEdgeSources;
+
+    /**
+     * The node each edge arrives at.
+     */
+    private final int[] myEdgeTargets;
+
+    /**
+     * The cost of each edge.
+     */
+    private final float[] myEdgeCosts;
+
+    /**
+     * Index into {@link #myWayIDs} shifted left by {@link #FLAGBITS}
+     * and combined with {@link #FLAG_FORWARD} and {@link #FLAG_ONEWAY}.
+     */
+    private final int[] myEdgeWays;
+
+    /**
+     * Way-index to OSM-way-ID.
+     */
+    private final long[] myWayIDs;
+
+    /**
+     * The edges arriving at node i are
+     * myIncomingEdges[myFirstIncoming[i]...myFirstIncoming[i+1]-1] .
+     */
+    private final int[] myFirstIncoming;
+
+    /**
+     * Edge-indices sorted by target-node.
+     */
+    private final int[] myIncomingEdges;
+
+    /**
+     * Called by {@link RoutingGraphBuilder}. The edges
+     * must already be sorted by source-node.
+     * @param aMap the map this is a snapshot of
+     * @param aVehicle the vehicle that decided what roads are part of the graph
+     * @param aMetric the metric the costs of the edges were calculated with
+     * @param aNodeIDs sorted OSM-node-IDs
+     * @param aLatitudes latitude of each node in fixed precision
+     * @param aLongitudes longitude of each node in fixed precision
+     * @param aFirstEdge index of the first edge of each node (plus one element for the end)
+     * @param aEdgeSources the node each edge leaves
+     * @param aEdgeTargets the node each edge arrives at
+     * @param aEdgeCosts the cost of each edge
+     * @param aEdgeWays the packed way-value of each edge
+     * @param aWayIDs way-index to OSM-way-ID
+     */
+    RoutingGraph(final IDataSet aMap, final IVehicle aVehicle, final IRoutingMetric aMetric,
+                 final long[] aNodeIDs, final int[] aLatitudes, final int[] aLongitudes,
+                 final int[] aFirstEdge, final int[] aEdgeSources, final int[] aEdgeTargets,
+                 final float[] aEdgeCosts, final int[] aEdgeWays, final long[] aWayIDs) {
+        this.myMap = new WeakReference<IDataSet>(aMap);
+        this.myVehicle = aVehicle;
+        this.myMetricClass = aMetric.getClass();
+        this.myNodeIDs = aNodeIDs;
+        this.myLatitudes = aLatitudes;
+        this.myLongitudes = aLongitudes;
+        this.myFirstEdge = aFirstEdge;
+        this.myEdgeSources = aEdgeSources;
+        this.myEdgeTargets = aEdgeTargets;
+        this.myEdgeCosts = aEdgeCosts;
+        this.myEdgeWays = aEdgeWays;
+        this.myWayIDs = aWayIDs;
+
+        // counting-sort the edges by target
+        int nodeCount = aNodeIDs.length;
+        this.myFirstIncoming = new int[nodeCount + 1];
+        for (int edge = 0; edge < aEdgeTargets.length; edge++) {
+            myFirstIncoming[aEdgeTargets[edge] + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            myFirstIncoming[i + 1] += myFirstIncoming[i];
+        }
+        this.myIncomingEdges = new int[aEdgeTargets.length];
+        int[] fill = Arrays.copyOf(myFirstIncoming, nodeCount);
+        for (int edge = 0; edge < aEdgeTargets.length; edge++) {
+            myIncomingEdges[fill[aEdgeTargets[edge]]++] = edge;
+        }
+    }
+
+    /**
+     * @return the map this is a snapshot of or null if it was garbage-collected
+     */
+    public IDataSet getMap() {
+        return myMap.get();
+    }
+
+    /**
+     * @return the vehicle that decided what roads are part of the graph
+     */
+    public IVehicle getVehicle() {
+        return myVehicle;
+    }
+
+    /**
+     * @return the class of the metric the costs of the edges were calculated with
+     */
+    public Class<? extends IRoutingMetric> getMetricClass() {
+        return myMetricClass;
+    }
+
+    /**
+     * @param aMap a map
+     * @param aVehicle a vehicle
+     * @param aMetric a metric
+     * @return true if this graph was built from the given map for this kind of vehicle
+     *         with this kind of metric
+     */
+    public boolean isFor(final IDataSet aMap, final IVehicle aVehicle, final IRoutingMetric aMetric) {
+        return aMap != null && getMap() == aMap
+            && (aVehicle == null || aVehicle.getClass().equals(myVehicle.getClass()))
+            && aMetric != null && aMetric.getClass().equals(myMetricClass);
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int getNodeCount() {
+        return myNodeIDs.length;
+    }
+
+    /**
+     * @return the number of edges
+     */
+    public int getEdgeCount() {
+        return myEdgeTargets.length;
+    }
+
+    /**
+     * @param aNodeID an OSM-node-ID
+     * @return the node-index or -1 if the node is not part of the road-network
+     */
+    public int getNodeIndex(final long aNodeID) {
+        int index = Arrays.binarySearch(myNodeIDs, aNodeID);
+        if (index < 0) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * @param aNode a node-index
+     * @return the OSM-node-ID
+     */
+    public long getNodeID(final int aNode) {
+        return myNodeIDs[aNode];
+    }
+
+    /**
+     * @param aNode a node-index
+     * @return the latitude of the node
+     */
+    public double getLatitude(final int aNode) {
+        return FixedPrecisionCoordinateConvertor.convertToDouble(myLatitudes[aNode]);
+    }
+
+    /**
+     * @param aNode a node-index
+     * @return the longitude of the node
+     */
+    public double getLongitude(final int aNode) {
+        return FixedPrecisionCoordinateConvertor.convertToDouble(myLongitudes[aNode]);
+    }
+
+    /**
+     * @param aNodeA a node-index
+     * @param aNodeB a node-index
+     * @return the great-circle-distance between both nodes in meters
+     */
+    public double distanceInMeters(final int aNodeA, final int aNodeB) {
+        return LatLon.distanceInMeters(getLatitude(aNodeA), getLongitude(aNodeA),
+                                       getLatitude(aNodeB), getLongitude(aNodeB));
+    }
+
+    /**
+     * @param aNode a node-index (may be getNodeCount() to get the end of the last node)
+     * @return the first edge leaving the node
+     */
+    public int getFirstEdge(final int aNode) {
+        return myFirstEdge[aNode];
+    }
+
+    /**
+     * @param aNode a node-index (may be getNodeCount() to get the end of the last node)
+     * @return the first position in {@link #getIncomingEdge(int)} for the node
+     */
+    public int getFirstIncoming(final int aNode) {
+        return myFirstIncoming[aNode];
+    }
+
+    /**
+     * @param aPosition a position between getFirstIncoming(i) and getFirstIncoming(i+1)-1
+     * @return an edge arriving at node i
+     */
+    public int getIncomingEdge(final int aPosition) {
+        return myIncomingEdges[aPosition];
+    }
+
+    /**
+     * @param aEdge an edge-index
+     * @return the node the edge leaves
+     */
+    public int getEdgeSource(final int aEdge) {
+        return myEdgeSources[aEdge];
+    }
+
+    /**
+     * @param aEdge an edge-index
+     * @return the node the edge arrives at
+     */
+    public int getEdgeTarget(final int aEdge) {
+        return myEdgeTargets[aEdge];
+    }
+
+    /**
+     * @param aEdge an edge-index
+     * @return the cost of traveling the edge
+     */
+    public float getEdgeCost(final int aEdge) {
+        return myEdgeCosts[aEdge];
+    }
+
+    /**
+     * @param aEdge an edge-index
+     * @return the OSM-way-ID of the way the edge is part of
+     */
+    public long getEdgeWayID(final int aEdge) {
+        return myWayIDs[myEdgeWays[aEdge] >>> FLAGBITS];
+    }
+
+    /**
+     * @param aEdge an edge-index
+     * @return true if the edge goes in the direction of its way
+     */
+    public boolean isForward(final int aEdge) {
+        return (myEdgeWays[aEdge] & FLAG_FORWARD) != 0;
+    }
+
+    /**
+     * @param aEdge an edge-index
+     * @return true if the way of the edge may only be traveled in one direction
+     */
+    public boolean isOneway(final int aEdge) {
+        return (myEdgeWays[aEdge] & FLAG_ONEWAY) != 0;
+    }
+
+    /**
+     * @param aFrom a node-index
+     * @param aTo a node-index
+     * @return the cheapest edge from aFrom to aTo or -1
+     */
+    public int findEdge(final int aFrom, final int aTo) {
+        int retval = -1;
+        for (int edge = myFirstEdge[aFrom]; edge < myFirstEdge[aFrom + 1]; edge++) {
+            if (myEdgeTargets[edge] == aTo && (retval < 0 || myEdgeCosts[edge] < myEdgeCosts[retval])) {
+                retval = edge;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Convert a sequence of edges into a {@link Route}.
+     * @param aEdges the edges in the order they are traveled
+     * @param aStartNode the node the first edge leaves
+     * @return the route or null if the map no longer contains the nodes and ways
+     */
+    public Route toRoute(final int[] aEdges, final Node aStartNode) {
+        long[] nodeIDs = new long[aEdges.length + 1];
+        long[] wayIDs = new long[aEdges.length];
+        nodeIDs[0] = aStartNode.getId();
+        for (int i = 0; i < aEdges.length; i++) {
+            nodeIDs[i + 1] = getNodeID(myEdgeTargets[aEdges[i]]);
+            wayIDs[i] = getEdgeWayID(aEdges[i]);
+        }
+        IDataSet map = getMap();
+        if (map == null) {
+            return null;
+        }
+        return toRoute(map, nodeIDs, wayIDs, aStartNode);
+    }
+
+    /**
+     * Convert a sequence of nodes into a {@link Route},
+     * joining steps that simply follow the same road.
+     * @param aMap the map we routed on
+     * @param aNodeIDs the nodes we pass including start and target
+     * @param aWayIDs the way used from aNodeIDs[i] to aNodeIDs[i + 1]
+     * @param aStartNode the node with the ID aNodeIDs[0]
+     * @return the route or null if the map no longer contains the nodes and ways
+     */
+    public static Route toRoute(final IDataSet aMap, final long[] aNodeIDs, final long[] aWayIDs, final Node aStartNode) {
+        List<RoutingStep> steps = new LinkedList<RoutingStep>();
+        RoutingStep lastStep = null;
+        Node lastNode = aStartNode;
+        for (int i = 0; i < aWayIDs.length; i++) {
+            Node node = aMap.getNodeByID(aNodeIDs[i + 1]);
+            if (node == null) {
+                LOG.log(Level.SEVERE, "could not load node with ID=" + aNodeIDs[i + 1]
+                        + ", the routing-graph is outdated");
+                return null;
+            }
+            if (lastStep != null && lastStep.getWay().getId() == aWayIDs[i]
+                    && lastStep.getStartNode().getId() != node.getId()
+                    && !isClosed(lastStep.getWay())) {
+                lastStep.setEndNode(node);
+            } else {
+                Way way = aMap.getWaysByID(aWayIDs[i]);
+                if (way == null) {
+                    LOG.log(Level.SEVERE, "could not load way with ID=" + aWayIDs[i]
+                            + ", the routing-graph is outdated");
+                    return null;
+                }
+                lastStep = new RoutingStep(aMap, lastNode, node, way);
+                steps.add(lastStep);
+            }
+            lastNode = node;
+        }
+        return new Route(aMap, steps, aStartNode);
+    }
+
+    /**
+     * @param aWay a way
+     * @return true if the way ends where it starts (e.g. a roundabout)
+     */
+    private static boolean isClosed(final Way aWay) {
+        List<WayNode> wayNodes = aWay.getWayNodes();
+        return wayNodes.size() > 2 && wayNodes.get(0).getNodeId() == wayNodes.get(wayNodes.size() - 1).getNodeId();
+    }
+}
@@ -0,0 +1,385 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osm.data.coordinates.Bounds;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+import org.openstreetmap.osmosis.core.util.FixedPrecisionCoordinateConvertor;
+
+/**
+ * Walks all ways of an {@link IDataSet} once and creates a {@link RoutingGraph}
+ * of everything the given {@link IVehicle} may use, costed by the given
+ * {@link IRoutingMetric}.<br/>
+ * Crossing-costs of the metric are not part of the graph.
+ */
+public class RoutingGraphBuilder {
+
+    /**
+     * my logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(RoutingGraphBuilder.class.getName());
+
+    /**
+     * Initial size of our arrays.
+     */
+    private static final int INITIALCAPACITY = 1024;
+
+    /**
+     * The map to take the roads from.
+     */
+    private final IDataSet myMap;
+
+    /**
+     * The vehicle giving us the ways and nodes that are allowed.
+     */
+    private final IVehicle myVehicle;
+
+    /**
+     * The metric giving us the cost of each edge.
+     */
+    private final IRoutingMetric myMetric;
+
+    /**
+     * Only ways in this area are added.
+     */
+    private Bounds myBounds = Bounds.WORLD;
+
+    /**
+     * OSM-node-ID to temporary node-index.
+     */
+    private Map<Long, Integer> myNodeIndices;
+
+    /**
+     * Allowed-state of every node we loaded.
+     */
+    private Map<Long, Boolean> myAllowedNodes;
+
+    /**
+     * Temporary node-index to OSM-node-ID.
+     */
+    private long[] myNodeIDs;
+
+    /**
+     * Latitude of each node in fixed precision.
+     */
+    private int[] myLatitudes;
+
+    /**
+     * Longitude of each node in fixed precision.
+     */
+    private int[] myLongitudes;
+
+    /**
+     * Number of nodes added.
+     */
+    private int myNodeCount;
+
+    /**
+     * Start-node (temporary index) of each edge.
+     */
+    private int[] myEdgeSources;
+
+    /**
+     * End-node (temporary index) of each edge.
+     */
+    private int[] myEdgeTargets;
+
+    /**
+     * Cost of each edge.
+     */
+    private float[] myEdgeCosts;
+
+    /**
+     * Packed way-value of each edge.
+     * @see RoutingGraph#getEdgeWayID(int)
+     */
+    private int[] myEdgeWays;
+
+    /**
+     * Number of edges added.
+     */
+    private int myEdgeCount;
+
+    /**
+     * Way-index to OSM-way-ID.
+     */
+    private long[] myWayIDs;
+
+    /**
+     * Number of ways added.
+     */
+    private int myWayCount;
+
+    /**
+     * @param aMap the map to take the roads from
+     * @param aVehicle the vehicle giving us the ways and nodes that are allowed
+     * @param aMetric the metric giving us the cost of each edge
+     */
+    public RoutingGraphBuilder(final IDataSet aMap, final IVehicle aVehicle, final IRoutingMetric aMetric) {
+        if (aMap == null) {
+            throw new IllegalArgumentException("null map given");
+        }
+        if (aVehicle == null) {
+            throw new IllegalArgumentException("null vehicle given");
+        }
+        if (aMetric == null) {
+            throw new IllegalArgumentException("null metric given");
+        }
+        this.myMap = aMap;
+        this.myVehicle = aVehicle;
+        this.myMetric = aMetric;
+    }
+
+    /**
+     * @param aBounds only ways in this area are added (default is the whole world).
+     */
+    public void setBounds(final Bounds aBounds) {
+        if (aBounds == null) {
+            throw new IllegalArgumentException("null bounds given");
+        }
+        this.myBounds = aBounds;
+    }
+
+    /**
+     * Walk the map and create the graph.
+     * @return the new graph
+     */
+    public RoutingGraph build() {
+        long start = System.currentTimeMillis();
+        myNodeIndices = new HashMap<Long, Integer>();
+        myAllowedNodes = new HashMap<Long, Boolean>();
+        myNodeIDs = new long[INITIALCAPACITY];
+        myLatitudes = new int[INITIALCAPACITY];
+        myLongitudes = new int[INITIALCAPACITY];
+        myNodeCount = 0;
+        myEdgeSources = new int[INITIALCAPACITY];
+        myEdgeTargets = new int[INITIALCAPACITY];
+        myEdgeCosts = new float[INITIALCAPACITY];
+        myEdgeWays = new int[INITIALCAPACITY];
+        myEdgeCount = 0;
+        myWayIDs = new long[INITIALCAPACITY];
+        myWayCount = 0;
+        myMetric.setMap(myMap);
+
+        Iterator<Way> ways = myMap.getWays(myBounds);
+        while (ways != null && ways.hasNext()) {
+            Way way = ways.next();
+            if (way == null) {
+                continue;
+            }
+            try {
+                addWay(way);
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "Exception while adding way #" + way.getId()
+                        + " to the routing-graph. Ignoring this way.", e);
+            }
+        }
+
+        RoutingGraph retval = createGraph();
+        LOG.log(Level.INFO, "built routing-graph with " + retval.getNodeCount() + " nodes and "
+                + retval.getEdgeCount() + " edges in " + (System.currentTimeMillis() - start) + "ms");
+        myNodeIndices = null;
+        myAllowedNodes = null;
+        return retval;
+    }
+
+    /**
+     * Add the edges of one way.
+     * @param aWay the way
+     */
+    private void addWay(final Way aWay) {
+        if (!myVehicle.isAllowed(myMap, aWay)) {
+            return;
+        }
+        boolean oneway = myVehicle.isOneway(myMap, aWay);
+        boolean reverseOneway = myVehicle.isReverseOneway(myMap, aWay);
+        if (oneway && reverseOneway) {
+            return;
+        }
+        int wayValue = -1;
+        Node last = null;
+        int lastIndex = -1;
+        for (WayNode wayNode : aWay.getWayNodes()) {
+            Node node = getAllowedNode(wayNode.getNodeId());
+            int index = -1;
+            if (node != null) {
+                index = getNodeIndex(node);
+            }
+            if (last != null && node != null && lastIndex != index) {
+                if (wayValue < 0) {
+                    wayValue = addWayID(aWay.getId());
+                    if (oneway || reverseOneway) {
+                        wayValue |= RoutingGraph.FLAG_ONEWAY;
+                    }
+                }
+                // the vehicle tells us about "oneway" and "reverse oneway"
+                // from the point of view of the direction we travel
+                if (!reverseOneway) {
+                    addEdge(lastIndex, index, myMetric.getCost(new RoutingStep(myMap, last, node, aWay)),
+                            wayValue | RoutingGraph.FLAG_FORWARD);
+                }
+                if (!oneway) {
+                    addEdge(index, lastIndex, myMetric.getCost(new RoutingStep(myMap, node, last, aWay)),
+                            wayValue);
+                }
+            }
+            last = node;
+            lastIndex = index;
+        }
+    }
+
+    /**
+     * @param aNodeID the node to load
+     * @return the node or null if it does not exist or is not allowed
+     */
+    private Node getAllowedNode(final long aNodeID) {
+        Boolean allowed = myAllowedNodes.get(aNodeID);
+        if (allowed != null && !allowed.booleanValue()) {
+            return null;
+        }
+        Node node = myMap.getNodeByID(aNodeID);
+        if (allowed == null) {
+            allowed = node != null && myVehicle.isAllowed(myMap, node);
+            myAllowedNodes.put(aNodeID, allowed);
+        }
+        if (!allowed.booleanValue()) {
+            return null;
+        }
+        return node;
+    }
+
+    /**
+     * @param aNode a node
+     * @return the temporary index of the node. It is added if needed.
+     */
+    private int getNodeIndex(final Node aNode) {
+        Integer index = myNodeIndices.get(aNode.getId());
+        if (index != null) {
+            return index.intValue();
+        }
+        if (myNodeCount == myNodeIDs.length) {
+            int capacity = myNodeCount * 2;
+            myNodeIDs = Arrays.copyOf(myNodeIDs, capacity);
+            myLatitudes = Arrays.copyOf(myLatitudes, capacity);
+            myLongitudes = Arrays.copyOf(myLongitudes, capacity);
+        }
+        myNodeIDs[myNodeCount] = aNode.getId();
+        myLatitudes[myNodeCount] = FixedPrecisionCoordinateConvertor.convertToFixed(aNode.getLatitude());
+        myLongitudes[myNodeCount] = FixedPrecisionCoordinateConvertor.convertToFixed(aNode.getLongitude());
+        myNodeIndices.put(aNode.getId(), myNodeCount);
+        return myNodeCount++;
+    }
+
+    /**
+     * @param aWayID an OSM-way-ID
+     * @return the way-index shifted for use as a packed way-value
+     */
+    private int addWayID(final long aWayID) {
+        if (myWayCount == myWayIDs.length) {
+            myWayIDs = Arrays.copyOf(myWayIDs, myWayCount * 2);
+        }
+        myWayIDs[myWayCount] = aWayID;
+        return (myWayCount++) << RoutingGraph.FLAGBITS;
+    }
+
+    /**
+     * @param aFrom temporary index of the start-node
+     * @param aTo temporary index of the end-node
+     * @param aCost the cost
+     * @param aWayValue the packed way-value
+     */
+    private void addEdge(final int aFrom, final int aTo, final double aCost, final int aWayValue) {
+        if (myEdgeCount == myEdgeSources.length) {
+            int capacity = myEdgeCount * 2;
+            myEdgeSources = Arrays.copyOf(myEdgeSources, capacity);
+            myEdgeTargets = Arrays.copyOf(myEdgeTargets, capacity);
+            myEdgeCosts = Arrays.copyOf(myEdgeCosts, capacity);
+            myEdgeWays = Arrays.copyOf(myEdgeWays, capacity);
+        }
+        myEdgeSources[myEdgeCount] = aFrom;
+        myEdgeTargets[myEdgeCount] = aTo;
+        myEdgeCosts[myEdgeCount] = (float) aCost;
+        myEdgeWays[myEdgeCount] = aWayValue;
+        myEdgeCount++;
+    }
+
+    /**
+     * Renumber the nodes in the order of their IDs
+     * and sort the edges by their start-node.
+     * @return the graph
+     */
+    private RoutingGraph createGraph() {
+        long[] nodeIDs = Arrays.copyOf(myNodeIDs, myNodeCount);
+        Arrays.sort(nodeIDs);
+        int[] newIndex = new int[myNodeCount];
+        int[] latitudes = new int[myNodeCount];
+        int[] longitudes = new int[myNodeCount];
+        for (int i = 0; i < myNodeCount; i++) {
+            int index = Arrays.binarySearch(nodeIDs, myNodeIDs[i]);
+            newIndex[i] = index;
+            latitudes[index] = myLatitudes[i];
+            longitudes[index] = myLongitudes[i];
+        }
+
+        int[] firstEdge = new int[myNodeCount + 1];
+        for (int edge = 0; edge < myEdgeCount; edge++) {
+            firstEdge[newIndex[myEdgeSources[edge]] + 1]++;
+        }
+        for (int i = 0; i < myNodeCount; i++) {
+            firstEdge[i + 1] += firstEdge[i];
+        }
+        int[] fill = Arrays.copyOf(firstEdge, myNodeCount);
+        int[] sources = new int[myEdgeCount];
+        int[] targets = new int[myEdgeCount];
+        float[] costs = new float[myEdgeCount];
+        int[] ways = new int[myEdgeCount];
+        for (int edge = 0; edge < myEdgeCount; edge++) {
+            int source = newIndex[myEdgeSources[edge]];
+            int position = fill[source]++;
+            sources[position] = source;
+            targets[position] = newIndex[myEdgeTargets[edge]];
+            costs[position] = myEdgeCosts[edge];
+            ways[position] = myEdgeWays[edge];
+        }
+        return new RoutingGraph(myMap, myVehicle, myMetric, nodeIDs, latitudes, longitudes, firstEdge, sources, targets,
+                costs, ways, Arrays.copyOf(myWayIDs, myWayCount));
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters and timings of a single route-calculation.<br/>
+ * Routers implementing {@link IInstrumentedRouter} fill one of these
+ * per call to route(...) instead of logging every step they take,
+ * so the cost of routing can be watched without paying for string-building
+ * in the inner loops. All updates are plain field-increments.<br/>
+ * Not thread-safe, every calculation gets its own instance.
+ */
+public class RoutingStatistics {
+
+    /**
+     * Nanoseconds in a millisecond.
+     */
+    private static final long NANOSPERMILLI = 1000000;
+
+    /**
+     * Name of the router that did the calculation.
+     */
+    private final String myRouterName;
+
+    /**
+     * Number of nodes (or steps) taken from the queue and finalized.
+     */
+    private long myNodesSettled = 0;
+
+    /**
+     * Number of edges (or steps) evaluated.
+     */
+    private long myEdgesRelaxed = 0;
+
+    /**
+     * The largest size the queue had.
+     */
+    private int myQueuePeakSize = 0;
+
+    /**
+     * Number of calls to the map.
+     */
+    private long myDataSetFetches = 0;
+
+    /**
+     * phase-name -> summed wall-time in nanoseconds (in the order the phases started).
+     */
+    private final Map<String, Long> myPhaseTimes = new LinkedHashMap<String, Long>();
+
+    /**
+     * The phase currently running or null.
+     */
+    private String myCurrentPhase = null;
+
+    /**
+     * When {@link #myCurrentPhase} started (System.nanoTime()).
+     */
+    private long myCurrentPhaseStart = 0;
+
+    /**
+     * @param aRouterName name of the router that does the calculation
+     */
+    public RoutingStatistics(final String aRouterName) {
+        myRouterName = aRouterName;
+    }
+
+    /**
+     * @return name of the router that did the calculation
+     */
+    public String getRouterName() {
+        return myRouterName;
+    }
+
+    /**
+     * A node (or step) was taken from the queue and finalized.
+     */
+    public void nodeSettled() {
+        myNodesSettled++;
+    }
+
+    /**
+     * An edge (or step) was evaluated.
+     */
+    public void edgeRelaxed() {
+        myEdgesRelaxed++;
+    }
+
+    /**
+     * Some nodes (or steps) were taken from the queue and finalized.
+     * For searches that count locally in their inner loop.
+     * @param aCount how many
+     */
+    public void nodesSettled(final long aCount) {
+        myNodesSettled += aCount;
+    }
+
+    /**
+     * Some edges (or steps) were evaluated.
+     * For searches that count locally in their inner loop.
+     * @param aCount how many
+     */
+    public void edgesRelaxed(final long aCount) {
+        myEdgesRelaxed += aCount;
+    }
+
+    /**
+     * The map was asked for something.
+     */
+    public void dataSetFetch() {
+        myDataSetFetches++;
+    }
+
+    /**
+     * Record the current size of the queue.
+     * @param aSize the number of elements queued
+     */
+    public void queueSize(final int aSize) {
+        if (aSize > myQueuePeakSize) {
+            myQueuePeakSize = aSize;
+        }
+    }
+
+    /**
+     * End the current phase (if any) and start a new one.
+     * @param aPhase the name of the phase (e.g. "search")
+     */
+    public void startPhase(final String aPhase) {
+        endPhase();
+        myCurrentPhase = aPhase;
+        myCurrentPhaseStart = System.nanoTime();
+    }
+
+    /**
+     * End the current phase (if any).
+     */
+    public void endPhase() {
+        if (myCurrentPhase != null) {
+            addPhaseTime(myCurrentPhase, System.nanoTime() - myCurrentPhaseStart);
+            myCurrentPhase = null;
+        }
+    }
+
+    /**
+     * @param aPhase the name of the phase
+     * @param aNanos the wall-time to add to it
+     */
+    private void addPhaseTime(final String aPhase, final long aNanos) {
+        Long old = myPhaseTimes.get(aPhase);
+        if (old == null) {
+            myPhaseTimes.put(aPhase, aNanos);
+        } else {
+            myPhaseTimes.put(aPhase, old + aNanos);
+        }
+    }
+
+    /**
+     * @return number of nodes (or steps) taken from the queue and finalized
+     */
+    public long getNodesSettled() {
+        return myNodesSettled;
+    }
+
+    /**
+     * @return number of edges (or steps) evaluated
+     */
+    public long getEdgesRelaxed() {
+        return myEdgesRelaxed;
+    }
+
+    /**
+     * @return the largest size the queue had
+     */
+    public int getQueuePeakSize() {
+        return myQueuePeakSize;
+    }
+
+    /**
+     * @return number of calls to the map
+     */
+    public long getDataSetFetches() {
+        return myDataSetFetches;
+    }
+
+    /**
+     * @return phase-name -> wall-time in milliseconds, in the order the phases started
+     */
+    public Map<String, Long> getPhaseTimes() {
+        Map<String, Long> retval = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> entry : myPhaseTimes.entrySet()) {
+            retval.put(entry.getKey(), entry.getValue() / NANOSPERMILLI);
+        }
+        return Collections.unmodifiableMap(retval);
+    }
+
+    /**
+     * @return the summed wall-time of all phases in milliseconds
+     */
+    public long getTotalTime() {
+        long sum = 0;
+        for (Long nanos : myPhaseTimes.values()) {
+            sum += nanos;
+        }
+        return sum / NANOSPERMILLI;
+    }
+
+    /**
+     * Add the counters and times of another calculation
+     * (e.g. the next leg of a route with multiple destinations) to these.
+     * The queue-peak is the maximum of both.
+     * @param aOther the other statistics
+     */
+    public void add(final RoutingStatistics aOther) {
+        myNodesSettled += aOther.myNodesSettled;
+        myEdgesRelaxed += aOther.myEdgesRelaxed;
+        myDataSetFetches += aOther.myDataSetFetches;
+        queueSize(aOther.myQueuePeakSize);
+        for (Map.Entry<String, Long> entry : aOther.myPhaseTimes.entrySet()) {
+            addPhaseTime(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(myRouterName);
+        sb.append(": settled=").append(myNodesSettled)
+          .append(" relaxed=").append(myEdgesRelaxed)
+          .append(" queuePeak=").append(myQueuePeakSize)
+          .append(" fetches=").append(myDataSetFetches);
+        for (Map.Entry<String, Long> entry : getPhaseTimes().entrySet()) {
+            sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue()).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Find a good order to visit a number of stops in.<br/>
+ * Stop 0 is where we start. A first tour is built by always going to the
+ * nearest stop not yet visited. It is then improved by 2-opt (reversing a part
+ * of the tour) and Or-opt (moving 1 to 3 consecutive stops to another place
+ * in the tour) until neither finds an improvement.<br/>
+ * The costs may be asymmetric (e.g. because of oneways).
+ * The result is not guaranteed to be optimal.
+ */
+public class TourOptimizer {
+
+    /**
+     * my logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(TourOptimizer.class.getName());
+
+    /**
+     * Improvements smaller then this are ignored to avoid endless loops
+     * because of rounding-errors.
+     */
+    private static final double EPSILON = 1e-7;
+
+    /**
+     * The longest run of stops moved by Or-opt.
+     */
+    private static final int MAXOROPTLENGTH = 3;
+
+    /**
+     * Position of the end of an open tour.
+     */
+    private static final int END = -1;
+
+    /**
+     * [from][to] the cost with unreachable stops replaced by a high penalty.
+     */
+    private final double[][] myCosts;
+
+    /**
+     * If true we return to stop 0 at the end.
+     */
+    private boolean myReturnToStart = false;
+
+    /**
+     * @param aCosts the costs between all stops (the sources and targets must be the same
+     *               stops in the same order). Stop 0 is where we start.
+     */
+    public TourOptimizer(final DistanceMatrix aCosts) {
+        int count = aCosts.getSources().size();
+        if (aCosts.getTargets().size() != count) {
+            throw new IllegalArgumentException("the sources and targets must be the same stops");
+        }
+        double penalty = 1;
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < count; j++) {
+                if (aCosts.isReachable(i, j)) {
+                    penalty += aCosts.getCost(i, j);
+                }
+            }
+        }
+        myCosts = new double[count][count];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < count; j++) {
+                if (aCosts.isReachable(i, j)) {
+                    myCosts[i][j] = aCosts.getCost(i, j);
+                } else {
+                    myCosts[i][j] = penalty;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if we return to stop 0 at the end
+     */
+    public boolean isReturnToStart() {
+        return myReturnToStart;
+    }
+
+    /**
+     * @param aReturnToStart true if we return to stop 0 at the end
+     */
+    public void setReturnToStart(final boolean aReturnToStart) {
+        myReturnToStart = aReturnToStart;
+    }
+
+    /**
+     * @param aFrom a stop
+     * @param aTo a stop or {@link #END}
+     * @return the cost
+     */
+    private double getCost(final int aFrom, final int aTo) {
+        if (aTo == END) {
+            if (myReturnToStart) {
+                return myCosts[aFrom][0];
+            }
+            return 0;
+        }
+        return myCosts[aFrom][aTo];
+    }
+
+    /**
+     * @param aTour an order of all stops starting with 0
+     * @return the cost of traveling them in this order
+     */
+    public double getCost(final int[] aTour) {
+        double retval = 0;
+        for (int i = 0; i < aTour.length; i++) {
+            retval += getCost(aTour[i], getSuccessor(aTour, i));
+        }
+        return retval;
+    }
+
+    /**
+     * @param aTour an order of all stops
+     * @param aPosition a position in aTour
+     * @return the stop after aPosition or {@link #END}
+     */
+    private static int getSuccessor(final int[] aTour, final int aPosition) {
+        if (aPosition + 1 < aTour.length) {
+            return aTour[aPosition + 1];
+        }
+        return END;
+    }
+
+    /**
+     * @return a good order of all stops, starting with stop 0
+     */
+    public int[] optimize() {
+        long start = System.currentTimeMillis();
+        int[] tour = getNearestNeighborTour();
+        double initialCost = getCost(tour);
+        boolean improved = true;
+        while (improved) {
+            improved = improveBy2Opt(tour);
+            improved |= improveByOrOpt(tour);
+        }
+        LOG.log(Level.FINE, "optimized a tour of " + tour.length + " stops from a cost of "
+                + initialCost + " to " + getCost(tour) + " in " + (System.currentTimeMillis() - start) + "ms");
+        return tour;
+    }
+
+    /**
+     * @return the tour we get by always going to the nearest stop not yet visited
+     */
+    private int[] getNearestNeighborTour() {
+        int count = myCosts.length;
+        int[] retval = new int[count];
+        boolean[] visited = new boolean[count];
+        if (count == 0) {
+            return retval;
+        }
+        visited[0] = true;
+        for (int i = 1; i < count; i++) {
+            int last = retval[i - 1];
+            int nearest = -1;
+            for (int stop = 1; stop < count; stop++) {
+                if (!visited[stop] && (nearest < 0 || myCosts[last][stop] < myCosts[last][nearest])) {
+                    nearest = stop;
+                }
+            }
+            retval[i] = nearest;
+            visited[nearest] = true;
+        }
+        return retval;
+    }
+
+    /**
+     * Reverse parts of the tour as long as that makes it cheaper.
+     * As the costs may be asymmetric the cost of a part traveled
+     * in both directions is kept as prefix-sums.
+     * @param aTour the tour to improve in place
+     * @return true if it was improved
+     */
+    private boolean improveBy2Opt(final int[] aTour) {
+        int count = aTour.length;
+        double[] forward = new double[count];
+        double[] backward = new double[count];
+        boolean retval = false;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int k = 1; k < count; k++) {
+                forward[k] = forward[k - 1] + myCosts[aTour[k - 1]][aTour[k]];
+                backward[k] = backward[k - 1] + myCosts[aTour[k]][aTour[k - 1]];
+            }
+            for (int i = 1; i < count - 1 && !improved; i++) {
+                for (int j = i + 1; j < count && !improved; j++) {
+                    int next = getSuccessor(aTour, j);
+                    double oldCost = myCosts[aTour[i - 1]][aTour[i]] + forward[j] - forward[i]
+                                   + getCost(aTour[j], next);
+                    double newCost = myCosts[aTour[i - 1]][aTour[j]] + backward[j] - backward[i]
+                                   + getCost(aTour[i], next);
+                    if (newCost < oldCost - EPSILON) {
+                        for (int a = i, b = j; a < b; a++, b--) {
+                            int swap = aTour[a];
+                            aTour[a] = aTour[b];
+                            aTour[b] = swap;
+                        }
+                        improved = true;
+                        retval = true;
+                    }
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Move runs of up to {@link #MAXOROPTLENGTH} stops to another
+     * place in the tour as long as that makes it cheaper.
+     * @param aTour the tour to improve in place
+     * @return true if it was improved
+     */
+    private boolean improveByOrOpt(final int[] aTour) {
+        int count = aTour.length;
+        boolean retval = false;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int length = 1; length <= MAXOROPTLENGTH && !improved; length++) {
+                for (int i = 1; i + length <= count && !improved; i++) {
+                    int last = i + length - 1;
+                    int before = aTour[i - 1];
+                    int after = getSuccessor(aTour, last);
+                    double removeGain = myCosts[before][aTour[i]] + getCost(aTour[last], after)
+                                      - getCost(before, after);
+                    for (int p = 0; p < count && !improved; p++) {
+                        if (p >= i - 1 && p <= last) {
+                            continue;
+                        }
+                        int a = aTour[p];
+                        int b = getSuccessor(aTour, p);
+                        double insertCost = myCosts[a][aTour[i]] + getCost(aTour[last], b) - getCost(a, b);
+                        if (insertCost < removeGain - EPSILON) {
+                            move(aTour, i, length, p);
+                            improved = true;
+                            retval = true;
+                        }
+                    }
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Move a run of stops to behind another position.
+     * @param aTour the tour to change in place
+     * @param aStart the first position of the run
+     * @param aLength the length of the run
+     * @param aBehind the position to insert the run after (not inside the run)
+     */
+    private static void move(final int[] aTour, final int aStart, final int aLength, final int aBehind) {
+        int[] run = new int[aLength];
+        System.arraycopy(aTour, aStart, run, 0, aLength);
+        if (aBehind < aStart) {
+            System.arraycopy(aTour, aBehind + 1, aTour, aBehind + 1 + aLength, aStart - aBehind - 1);
+            System.arraycopy(run, 0, aTour, aBehind + 1, aLength);
+        } else {
+            System.arraycopy(aTour, aStart + aLength, aTour, aStart, aBehind - aStart - aLength + 1);
+            System.arraycopy(run, 0, aTour, aBehind - aLength + 1, aLength);
+        }
+    }
+}
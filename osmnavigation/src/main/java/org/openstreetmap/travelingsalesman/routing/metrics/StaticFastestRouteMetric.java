@@ -30,6 +30,7 @@
 package org.openstreetmap.travelingsalesman.routing.metrics;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -65,6 +66,12 @@ public class StaticFastestRouteMetric implements IRoutingMetric, ITimeRoutingMet
      */
     private TrafficMessageStore myTrafficMessages = TrafficMessageStore.getInstance();
 
+    /**
+     * If false the traffic congestions are ignored and
+     * only the base-cost of the roads is returned.
+     */
+    private boolean myUsingTrafficMessages = true;
+
     /**
      * This plugin has no  settings, thus this method returns null
      * as described in {@link IPlugin#getSettings()}.
@@ -78,7 +85,10 @@ public class StaticFastestRouteMetric implements IRoutingMetric, ITimeRoutingMet
      * ${@inheritDoc}.
      */
     public double getCost(final RoutingStep aSegment) {
-        Collection<TrafficMessage> allMessages = myTrafficMessages.getAllMessages(getMap());
+        Collection<TrafficMessage> allMessages = Collections.emptyList();
+        if (myUsingTrafficMessages) {
+            allMessages = myTrafficMessages.getAllMessages(getMap());
+        }
         Set<TrafficMessage> evaluatedMessages = null;
 
         double estimatedSpeed = getEstimatedSpeed(aSegment);
@@ -342,6 +352,22 @@ public class StaticFastestRouteMetric implements IRoutingMetric, ITimeRoutingMet
         myMap = aMap;
     }
 
+    /**
+     * @return false if traffic congestions are ignored
+     */
+    public boolean isUsingTrafficMessages() {
+        return myUsingTrafficMessages;
+    }
+
+    /**
+     * Routers that precompute costs use the base-cost of the roads
+     * and apply the traffic congestions only while searching.
+     * @param aUsingTrafficMessages false to ignore traffic congestions
+     */
+    public void setUsingTrafficMessages(final boolean aUsingTrafficMessages) {
+        myUsingTrafficMessages = aUsingTrafficMessages;
+    }
+
     /**
      * {@inheritDoc}
      * @param aRoutingStep the step to calculate the speed for
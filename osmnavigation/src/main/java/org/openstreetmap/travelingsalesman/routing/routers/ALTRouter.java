@@ -0,0 +1,602 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.ConfigurationSection;
+import org.openstreetmap.osm.Plugins.IPlugin;
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.travelingsalesman.routing.IInstrumentedRouter;
+import org.openstreetmap.travelingsalesman.routing.IProgressListener;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.PreprocessingCache;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraph;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraphBuilder;
+import org.openstreetmap.travelingsalesman.routing.RoutingStatistics;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+import org.openstreetmap.travelingsalesman.trafficblocks.TrafficMessage;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+/**
+ * A bidirectional A*-router that uses {@link Landmarks} as lower bounds
+ * ("ALT" = A*, Landmarks and Triangle-inequality).<br/>
+ * The landmarks are chosen once per map, vehicle and metric. For OsmBin-maps
+ * they are stored next to the map-files and recalculated when the nodes-
+ * or ways-file change. For all other maps they are kept in a
+ * {@link PreprocessingCache} shared by all instances and recalculated
+ * when the modification-stamp of the map changes.<br/>
+ * Unlike the {@link ContractionHierarchyRouter} this router stays
+ * traffic-aware: the graph and landmarks are built with the base-cost
+ * of the roads, ignoring all traffic-messages, and the cost of every road
+ * touched by a current {@link TrafficMessage} is asked from the metric
+ * again for every query (see {@link LiveEdgeCosts}). Traffic-messages only make roads more expensive,
+ * so the landmarks stay valid lower bounds and a road is back at its
+ * base-cost as soon as its traffic-message expired. If a road got cheaper
+ * then when the landmarks were calculated anyway (e.g. the map changed)
+ * they are calculated again.<br/>
+ * We assume:
+ * <ul>
+ *  <li>The metric is never negative</li>
+ *  <li>the metric does only depend on the RoutingStep.
+ *      Crossing-costs and turn-restrictions are ignored,
+ *      use {@link TurnRestrictedAStar} if you need them.</li>
+ * </ul>
+ */
+public class ALTRouter implements IInstrumentedRouter {
+
+    /**
+     * my logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(ALTRouter.class.getName());
+
+    /**
+     * The number of landmarks we use by default.
+     */
+    public static final int DEFAULTLANDMARKCOUNT = 16;
+
+    /**
+     * Landmarks of file-based maps shared by all instances.
+     * Key is the file the landmarks are stored in.
+     */
+    private static final Map<String, Preprocessed> FILECACHE = new HashMap<String, Preprocessed>();
+
+    /**
+     * One lock per file in {@link #FILECACHE}, so a graph is built only once
+     * without blocking routers that use other maps or vehicles.
+     */
+    private static final Map<String, Object> FILELOCKS = new HashMap<String, Object>();
+
+    /**
+     * Graphs and landmarks of all other maps shared by all instances.
+     * Key is the vehicle and metric.
+     */
+    private static final PreprocessingCache<Preprocessed> MEMORYCACHE = new PreprocessingCache<Preprocessed>();
+
+    /**
+     * The metric we are optimizing for.
+     */
+    private IRoutingMetric myMetric = new ShortestRouteMetric();
+
+    /**
+     * my IProgressListenerts.
+     * @see #addProgressListener(IProgressListener)
+     */
+    private Set<IProgressListener> myProgressListeners = new HashSet<IProgressListener>();
+
+    /**
+     * The number of landmarks to choose.
+     */
+    private int myLandmarkCount = DEFAULTLANDMARKCOUNT;
+
+    /**
+     * The statistics of the route-calculation running or last run.
+     */
+    private RoutingStatistics myStatistics;
+
+    /**
+     * This plugin has no  settings, thus this method returns null
+     * as described in {@link IPlugin#getSettings()}.
+     * @return null
+     */
+    public ConfigurationSection getSettings() {
+        return null;
+    }
+
+    /**
+     * Add a listener to be informed about the progress we make.
+     * @param aListener the listener
+     */
+    public void addProgressListener(final IProgressListener aListener) {
+        this.myProgressListeners.add(aListener);
+    }
+
+    /**
+     * @return the metric we are to optimize for
+     */
+    public IRoutingMetric getMetric() {
+        return myMetric;
+    }
+
+    /**
+     * @param aMetric the metric we are to optimize for
+     */
+    public void setMetric(final IRoutingMetric aMetric) {
+        myMetric = aMetric;
+    }
+
+    /**
+     * @return the number of landmarks to choose
+     */
+    public int getLandmarkCount() {
+        return myLandmarkCount;
+    }
+
+    /**
+     * More landmarks give tighter bounds but need more memory.
+     * Changing it only affects landmarks not yet calculated.
+     * @param aLandmarkCount the number of landmarks to choose
+     */
+    public void setLandmarkCount(final int aLandmarkCount) {
+        if (aLandmarkCount < 1) {
+            throw new IllegalArgumentException("at least one landmark is needed");
+        }
+        myLandmarkCount = aLandmarkCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RoutingStatistics getLastStatistics() {
+        return myStatistics;
+    }
+
+    /**
+     * @param aMap the map to route on
+     * @param aTargetWay the {@link Way} we want to reach
+     * @param aStartNode the {@link Node} we are now
+     * @param aSelector the vehicle giving us the roads that are allowed.
+     * @return null or the route to the nearest node of the way
+     */
+    public Route route(final IDataSet aMap, final Way aTargetWay, final Node aStartNode, final IVehicle aSelector) {
+        long[] targetIDs = new long[aTargetWay.getWayNodes().size()];
+        int i = 0;
+        for (WayNode wayNode : aTargetWay.getWayNodes()) {
+            targetIDs[i++] = wayNode.getNodeId();
+        }
+        return route(aMap, targetIDs, aStartNode, aSelector);
+    }
+
+    /**
+     * @param aMap the map to route on
+     * @param aTargetNode the {@link Node} we want to reach
+     * @param aStartNode the {@link Node} we are now
+     * @param aSelector the vehicle giving us the roads that are allowed.
+     * @return null or the route
+     */
+    public Route route(final IDataSet aMap, final Node aTargetNode, final Node aStartNode, final IVehicle aSelector) {
+        return route(aMap, new long[] {aTargetNode.getId()}, aStartNode, aSelector);
+    }
+
+    /**
+     * @param aMap the map to route on
+     * @param aTargetIDs IDs of the nodes any of which we want to reach
+     * @param aStartNode the {@link Node} we are now
+     * @param aSelector the vehicle giving us the roads that are allowed.
+     * @return null or the route
+     */
+    private Route route(final IDataSet aMap, final long[] aTargetIDs, final Node aStartNode, final IVehicle aSelector) {
+        RoutingStatistics statistics = new RoutingStatistics(getClass().getSimpleName());
+        myStatistics = statistics;
+        try {
+            statistics.startPhase("preprocess");
+            Preprocessed preprocessed = getPreprocessed(aMap, aSelector);
+            Search search = new Search(aMap, preprocessed, statistics);
+            Route retval = search.route(aTargetIDs, aStartNode);
+            if (search.isOutdated()) {
+                LOG.log(Level.INFO, "roads got cheaper since the landmarks were calculated, recalculating them");
+                invalidate(aMap, getKey(aSelector), preprocessed);
+                statistics.startPhase("preprocess");
+                search = new Search(aMap, getPreprocessed(aMap, aSelector), statistics);
+                retval = search.route(aTargetIDs, aStartNode);
+            }
+            return retval;
+        } finally {
+            statistics.endPhase();
+        }
+    }
+
+    //--------------------------------------------------------------- query
+
+    /**
+     * The state of one bidirectional search.
+     */
+    private final class Search {
+
+        /**
+         * The map we route on.
+         */
+        private final IDataSet myMap;
+
+        /**
+         * The road-network.
+         */
+        private final RoutingGraph myGraph;
+
+        /**
+         * The lower bounds.
+         */
+        private final Landmarks myLandmarks;
+
+        /**
+         * Where to count what we do.
+         */
+        private final RoutingStatistics mySearchStatistics;
+
+        /**
+         * The current costs of the edges.
+         */
+        private LiveEdgeCosts myCosts;
+
+        /**
+         * Node-indices of all targets.
+         */
+        private int[] myTargets;
+
+        /**
+         * The node-index of the start.
+         */
+        private int myStart;
+
+        /**
+         * @param aMap the map we route on
+         * @param aPreprocessed the graph and landmarks
+         * @param aStatistics where to count what we do
+         */
+        Search(final IDataSet aMap, final Preprocessed aPreprocessed, final RoutingStatistics aStatistics) {
+            this.myMap = aMap;
+            this.myGraph = aPreprocessed.myGraph;
+            this.myLandmarks = aPreprocessed.myLandmarks;
+            this.mySearchStatistics = aStatistics;
+        }
+
+        /**
+         * @return true if an edge got cheaper then the landmarks know,
+         *         thus the route may not be optimal.
+         */
+        boolean isOutdated() {
+            return myCosts != null && myCosts.isOutdated();
+        }
+
+        /**
+         * @param aTargetIDs IDs of the nodes any of which we want to reach
+         * @param aStartNode the {@link Node} we are now
+         * @return null or the route
+         */
+        Route route(final long[] aTargetIDs, final Node aStartNode) {
+            myStart = myGraph.getNodeIndex(aStartNode.getId());
+            if (myStart < 0) {
+                LOG.log(Level.INFO, "start-node " + aStartNode.getId() + " is not on any road we may use");
+                return null;
+            }
+            int[] targets = new int[aTargetIDs.length];
+            int targetCount = 0;
+            for (long targetID : aTargetIDs) {
+                int index = myGraph.getNodeIndex(targetID);
+                if (index >= 0) {
+                    targets[targetCount++] = index;
+                }
+            }
+            if (targetCount == 0) {
+                LOG.log(Level.INFO, "target is not on any road we may use");
+                return null;
+            }
+            myTargets = Arrays.copyOf(targets, targetCount);
+            myCosts = new LiveEdgeCosts(myMap, myGraph, myMetric, mySearchStatistics);
+
+            mySearchStatistics.startPhase("search");
+            int[] edges = search();
+            if (edges == null) {
+                LOG.log(Level.INFO, "ALTRouter found nothing");
+                return null;
+            }
+            mySearchStatistics.startPhase("reconstruct");
+            return myGraph.toRoute(edges, aStartNode);
+        }
+
+        /**
+         * Potential of the forward search. The backward search uses the negation.
+         * Averaging both directions keeps both potentials consistent.
+         * @param aNode a node-index
+         * @return the potential
+         */
+        private double getPotential(final int aNode) {
+            double toTarget = Double.POSITIVE_INFINITY;
+            for (int target : myTargets) {
+                toTarget = Math.min(toTarget, myLandmarks.getLowerBound(aNode, target));
+            }
+            return (toTarget - myLandmarks.getLowerBound(myStart, aNode)) / 2;
+        }
+
+        /**
+         * The bidirectional A*-search itself.
+         * @return the edges of the shortest path or null
+         */
+        private int[] search() {
+            int nodeCount = myGraph.getNodeCount();
+            double[] forwardDistances = new double[nodeCount];
+            double[] backwardDistances = new double[nodeCount];
+            Arrays.fill(forwardDistances, Double.POSITIVE_INFINITY);
+            Arrays.fill(backwardDistances, Double.POSITIVE_INFINITY);
+            int[] forwardEdges = new int[nodeCount];
+            int[] backwardEdges = new int[nodeCount];
+            double[] potentials = new double[nodeCount];
+            Arrays.fill(potentials, Double.NaN);
+            IndexedMinHeap forward = new IndexedMinHeap();
+            IndexedMinHeap backward = new IndexedMinHeap();
+
+            forwardDistances[myStart] = 0;
+            forwardEdges[myStart] = -1;
+            potentials[myStart] = getPotential(myStart);
+            forward.insert(myStart, potentials[myStart]);
+            double best = Double.POSITIVE_INFINITY;
+            int meeting = -1;
+            for (int target : myTargets) {
+                if (backwardDistances[target] == 0) {
+                    continue;
+                }
+                backwardDistances[target] = 0;
+                backwardEdges[target] = -1;
+                potentials[target] = getPotential(target);
+                backward.insert(target, -potentials[target]);
+                if (target == myStart) {
+                    best = 0;
+                    meeting = target;
+                }
+            }
+
+            long settled = 0;
+            long relaxed = 0;
+            int peak = 0;
+            while (!forward.isEmpty() && !backward.isEmpty()
+                    && forward.peekKey() + backward.peekKey() < best) {
+                peak = Math.max(peak, forward.size() + backward.size());
+                boolean isForward = forward.size() <= backward.size();
+                IndexedMinHeap queue = isForward ? forward : backward;
+                double[] distances = isForward ? forwardDistances : backwardDistances;
+                double[] otherDistances = isForward ? backwardDistances : forwardDistances;
+                int[] edges = isForward ? forwardEdges : backwardEdges;
+                int node = queue.poll();
+                settled++;
+                int first = isForward ? myGraph.getFirstEdge(node) : myGraph.getFirstIncoming(node);
+                int last = isForward ? myGraph.getFirstEdge(node + 1) : myGraph.getFirstIncoming(node + 1);
+                for (int i = first; i < last; i++) {
+                    int edge = isForward ? i : myGraph.getIncomingEdge(i);
+                    int next = isForward ? myGraph.getEdgeTarget(edge) : myGraph.getEdgeSource(edge);
+                    relaxed++;
+                    double distance = distances[node] + myCosts.getCost(edge);
+                    if (distance >= distances[next]) {
+                        continue;
+                    }
+                    distances[next] = distance;
+                    edges[next] = edge;
+                    if (Double.isNaN(potentials[next])) {
+                        potentials[next] = getPotential(next);
+                    }
+                    queue.insertOrDecrease(next, isForward ? distance + potentials[next] : distance - potentials[next]);
+                    if (distance + otherDistances[next] < best) {
+                        best = distance + otherDistances[next];
+                        meeting = next;
+                    }
+                }
+            }
+            mySearchStatistics.nodesSettled(settled);
+            mySearchStatistics.edgesRelaxed(relaxed);
+            mySearchStatistics.queueSize(peak);
+            if (meeting < 0) {
+                return null;
+            }
+
+            int length = 0;
+            for (int node = meeting; forwardEdges[node] >= 0; node = myGraph.getEdgeSource(forwardEdges[node])) {
+                length++;
+            }
+            for (int node = meeting; backwardEdges[node] >= 0; node = myGraph.getEdgeTarget(backwardEdges[node])) {
+                length++;
+            }
+            int[] retval = new int[length];
+            int i = 0;
+            for (int node = meeting; forwardEdges[node] >= 0; node = myGraph.getEdgeSource(forwardEdges[node])) {
+                retval[i++] = forwardEdges[node];
+            }
+            for (int j = 0; j < i / 2; j++) {
+                int swap = retval[j];
+                retval[j] = retval[i - 1 - j];
+                retval[i - 1 - j] = swap;
+            }
+            for (int node = meeting; backwardEdges[node] >= 0; node = myGraph.getEdgeTarget(backwardEdges[node])) {
+                retval[i++] = backwardEdges[node];
+            }
+            return retval;
+        }
+    }
+
+    //--------------------------------------------------------------- caching
+
+    /**
+     * A routing-graph, its landmarks and the fingerprint of
+     * the map-files (or the modification-stamp of the map) they were built from.
+     */
+    private static final class Preprocessed {
+
+        /**
+         * The fingerprint.
+         */
+        private final long myFingerprint;
+
+        /**
+         * The road-network.
+         */
+        private final RoutingGraph myGraph;
+
+        /**
+         * The landmarks for {@link #myGraph}.
+         */
+        private final Landmarks myLandmarks;
+
+        /**
+         * @param aFingerprint the fingerprint
+         * @param aGraph the road-network
+         * @param aLandmarks the landmarks for aGraph
+         */
+        public Preprocessed(final long aFingerprint, final RoutingGraph aGraph, final Landmarks aLandmarks) {
+            this.myFingerprint = aFingerprint;
+            this.myGraph = aGraph;
+            this.myLandmarks = aLandmarks;
+        }
+    }
+
+    /**
+     * @param aSelector the vehicle we route for
+     * @return the key of the vehicle and metric
+     */
+    private String getKey(final IVehicle aSelector) {
+        return aSelector.getClass().getName() + "." + myMetric.getClass().getName();
+    }
+
+    /**
+     * Forget the given graph and landmarks so they are built again.
+     * @param aMap the map they were built for
+     * @param aKey the key of the vehicle and metric
+     * @param aPreprocessed the outdated graph and landmarks
+     */
+    private void invalidate(final IDataSet aMap, final String aKey, final Preprocessed aPreprocessed) {
+        MEMORYCACHE.remove(aMap, aKey, aPreprocessed);
+        synchronized (FILECACHE) {
+            for (Map.Entry<String, Preprocessed> entry : FILECACHE.entrySet()) {
+                if (entry.getValue() == aPreprocessed) {
+                    FILECACHE.remove(entry.getKey());
+                    new File(entry.getKey()).delete();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the graph and landmarks from memory or disk or build them.
+     * @param aMap the map to route on
+     * @param aSelector the vehicle we route for
+     * @return the graph and landmarks
+     */
+    private Preprocessed getPreprocessed(final IDataSet aMap, final IVehicle aSelector) {
+        String key = getKey(aSelector);
+        File directory = ContractionHierarchyRouter.getDataDirectory(aMap);
+        if (directory == null) {
+            long stamp = PreprocessingCache.getModificationStamp(aMap);
+            Preprocessed preprocessed = MEMORYCACHE.get(aMap, key, stamp);
+            if (preprocessed != null) {
+                return preprocessed;
+            }
+            synchronized (MEMORYCACHE.getLock(aMap, key)) {
+                preprocessed = MEMORYCACHE.get(aMap, key, stamp);
+                if (preprocessed == null) {
+                    RoutingGraph graph = new RoutingGraphBuilder(aMap, aSelector, LiveEdgeCosts.getBaseMetric(myMetric)).build();
+                    preprocessed = new Preprocessed(stamp, graph, Landmarks.select(graph, myLandmarkCount));
+                    MEMORYCACHE.put(aMap, key, stamp, preprocessed);
+                }
+                return preprocessed;
+            }
+        }
+
+        File file = new File(directory, "landmarks." + key + ".bin");
+        String path = file.getAbsolutePath();
+        long fingerprint = ContractionHierarchyRouter.getFingerprint(directory);
+        Object lock;
+        synchronized (FILECACHE) {
+            Preprocessed cached = FILECACHE.get(path);
+            if (cached != null && cached.myFingerprint == fingerprint) {
+                return cached;
+            }
+            lock = FILELOCKS.get(path);
+            if (lock == null) {
+                lock = new Object();
+                FILELOCKS.put(path, lock);
+            }
+        }
+        synchronized (lock) {
+            synchronized (FILECACHE) {
+                // another thread may have built it while we waited for the lock
+                Preprocessed cached = FILECACHE.get(path);
+                if (cached != null && cached.myFingerprint == fingerprint) {
+                    return cached;
+                }
+            }
+            RoutingGraph graph = new RoutingGraphBuilder(aMap, aSelector, LiveEdgeCosts.getBaseMetric(myMetric)).build();
+            // the landmarks are only valid for the same numbering of the nodes
+            long graphFingerprint = fingerprint;
+            for (int i = 0; i < graph.getNodeCount(); i++) {
+                graphFingerprint = graphFingerprint * 31 + graph.getNodeID(i);
+            }
+            Landmarks landmarks = null;
+            try {
+                landmarks = Landmarks.readFrom(file, graphFingerprint, graph.getNodeCount());
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Cannot read landmarks from "
+                        + file.getAbsolutePath() + ", recalculating them.", e);
+            }
+            if (landmarks == null) {
+                landmarks = Landmarks.select(graph, myLandmarkCount);
+                try {
+                    landmarks.writeTo(file, graphFingerprint);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Cannot store landmarks in "
+                            + file.getAbsolutePath(), e);
+                }
+            }
+            Preprocessed preprocessed = new Preprocessed(fingerprint, graph, landmarks);
+            synchronized (FILECACHE) {
+                FILECACHE.put(path, preprocessed);
+            }
+            return preprocessed;
+        }
+    }
+}
@@ -0,0 +1,1329 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraph;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraphBuilder;
+import org.openstreetmap.travelingsalesman.routing.RoutingStatistics;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+
+/**
+ * A contraction hierarchy of the road-network of an {@link IDataSet}.<br/>
+ * All nodes are ordered by importance and contracted one after another.
+ * Whenever the contraction of a node would remove the only shortest path
+ * between two of its neighbors a shortcut-edge is added instead.
+ * Queries are then answered by two small Dijkstra-searches that only ever
+ * go "upward" in the hierarchy and meet at the most important node
+ * of the shortest path.<br/>
+ * The hierarchy is built once from a {@link RoutingGraph} of an {@link IVehicle}
+ * and an {@link IRoutingMetric} and can be persisted using {@link #writeTo(File, long)}.
+ * It is immutable afterwards and can be queried from multiple threads.<br/>
+ * We assume:
+ * <ul>
+ *  <li>The metric is never negative</li>
+ *  <li>the metric does only depend on the RoutingStep,
+ *       not on the step we took before that. Costs for crossings
+ *       and turn-restrictions are ignored.</li>
+ * </ul>
+ */
+public final class ContractionHierarchy {
+
+    /**
+     * my logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(ContractionHierarchy.class.getName());
+
+    /**
+     * The first 4 bytes of a persisted hierarchy ("OSCH").
+     */
+    private static final int FILEMAGIC = 0x4F534348;
+
+    /**
+     * Version of the file-format written by {@link #writeTo(File, long)}.
+     */
+    private static final int FILEVERSION = 1;
+
+    /**
+     * Number of nodes a witness-search may settle before
+     * we give up and add a shortcut that may not be needed.
+     */
+    private static final int MAXWITNESSSETTLED = 500;
+
+    /**
+     * Returned as "way" for shortcut-edges.
+     */
+    private static final long NOWAY = Long.MIN_VALUE;
+
+    /**
+     * Node-index to OSM-node-ID (sorted ascending as in {@link RoutingGraph}).
+     */
+    private final long[] myNodeIDs;
+
+    /**
+     * The edges going to a more important node,
+     * stored at the less important start-node.
+     */
+    private final EdgeArray myUpwardEdges;
+
+    /**
+     * The edges coming from a more important node,
+     * stored at the less important end-node.
+     * The target of each edge is the more important start-node.
+     */
+    private final EdgeArray myDownwardEdges;
+
+    /**
+     * @param aNodeIDs node-index to OSM-node-ID
+     * @param aUpwardEdges see {@link #myUpwardEdges}
+     * @param aDownwardEdges see {@link #myDownwardEdges}
+     */
+    private ContractionHierarchy(final long[] aNodeIDs, final EdgeArray aUpwardEdges, final EdgeArray aDownwardEdges) {
+        this.myNodeIDs = aNodeIDs;
+        this.myUpwardEdges = aUpwardEdges;
+        this.myDownwardEdges = aDownwardEdges;
+    }
+
+    /**
+     * @return the number of nodes in the road-network.
+     */
+    public int getNodeCount() {
+        return myNodeIDs.length;
+    }
+
+    /**
+     * @return the number of edges including shortcuts.
+     */
+    public int getEdgeCount() {
+        return myUpwardEdges.size() + myDownwardEdges.size();
+    }
+
+    /**
+     * @param aNodeID the OSM-id of a node
+     * @return the index of the node or -1 if it is not part of the road-network
+     */
+    public int getNodeIndex(final long aNodeID) {
+        int index = Arrays.binarySearch(myNodeIDs, aNodeID);
+        if (index < 0) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * @param aNodeIndex the index of a node
+     * @return the OSM-id of the node
+     */
+    public long getNodeID(final int aNodeIndex) {
+        return myNodeIDs[aNodeIndex];
+    }
+
+    //--------------------------------------------------------------- query
+
+    /**
+     * The result of a query.
+     */
+    public static final class ShortestPath {
+
+        /**
+         * The IDs of all nodes we pass, including start and target.
+         */
+        private final long[] myNodeIDs;
+
+        /**
+         * The way we use from myNodeIDs[i] to myNodeIDs[i + 1].
+         */
+        private final long[] myWayIDs;
+
+        /**
+         * The summed cost.
+         */
+        private final double myCost;
+
+        /**
+         * @param aNodeIDs The IDs of all nodes we pass, including start and target.
+         * @param aWayIDs The way we use from aNodeIDs[i] to aNodeIDs[i + 1].
+         * @param aCost The summed cost.
+         */
+        private ShortestPath(final long[] aNodeIDs, final long[] aWayIDs, final double aCost) {
+            this.myNodeIDs = aNodeIDs;
+            this.myWayIDs = aWayIDs;
+            this.myCost = aCost;
+        }
+
+        /**
+         * @return The IDs of all nodes we pass, including start and target.
+         */
+        public long[] getNodeIDs() {
+            return myNodeIDs;
+        }
+
+        /**
+         * @return The way we use from getNodeIDs()[i] to getNodeIDs()[i + 1].
+         */
+        public long[] getWayIDs() {
+            return myWayIDs;
+        }
+
+        /**
+         * @return the cost as given by the metric the hierarchy was built for.
+         */
+        public double getCost() {
+            return myCost;
+        }
+    }
+
+    /**
+     * Find the shortest path from the start to the nearest of the given targets.
+     * @param aStartIndex the node-index to start at
+     * @param aTargetIndices the node-indices to reach one of
+     * @return the path or null if none of the targets can be reached
+     */
+    public ShortestPath query(final int aStartIndex, final int[] aTargetIndices) {
+        return query(aStartIndex, aTargetIndices, null);
+    }
+
+    /**
+     * Find the shortest path from the start to the nearest of the given targets.
+     * @param aStartIndex the node-index to start at
+     * @param aTargetIndices the node-indices to reach one of
+     * @param aStatistics (may be null) where to count what we do
+     * @return the path or null if none of the targets can be reached
+     */
+    public ShortestPath query(final int aStartIndex, final int[] aTargetIndices, final RoutingStatistics aStatistics) {
+        Map<Integer, Double> forwardDist = new HashMap<Integer, Double>();
+        Map<Integer, Integer> forwardEdge = new HashMap<Integer, Integer>();
+        Map<Integer, Double> backwardDist = new HashMap<Integer, Double>();
+        Map<Integer, Integer> backwardEdge = new HashMap<Integer, Integer>();
+        PriorityQueue<QueueEntry> forwardQueue = new PriorityQueue<QueueEntry>();
+        PriorityQueue<QueueEntry> backwardQueue = new PriorityQueue<QueueEntry>();
+
+        forwardDist.put(aStartIndex, 0.0);
+        forwardQueue.add(new QueueEntry(aStartIndex, 0));
+        for (int target : aTargetIndices) {
+            backwardDist.put(target, 0.0);
+            backwardQueue.add(new QueueEntry(target, 0));
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        int meetingNode = -1;
+        long settled = 0;
+        long relaxed = 0;
+        int queuePeak = 0;
+        while (true) {
+            if (!forwardQueue.isEmpty() && forwardQueue.peek().getCost() >= best) {
+                forwardQueue.clear();
+            }
+            if (!backwardQueue.isEmpty() && backwardQueue.peek().getCost() >= best) {
+                backwardQueue.clear();
+            }
+            boolean forward;
+            if (forwardQueue.isEmpty()) {
+                if (backwardQueue.isEmpty()) {
+                    break;
+                }
+                forward = false;
+            } else {
+                forward = backwardQueue.isEmpty() || forwardQueue.peek().getCost() <= backwardQueue.peek().getCost();
+            }
+
+            PriorityQueue<QueueEntry> queue = forward ? forwardQueue : backwardQueue;
+            Map<Integer, Double> dist = forward ? forwardDist : backwardDist;
+            Map<Integer, Double> otherDist = forward ? backwardDist : forwardDist;
+            Map<Integer, Integer> edges = forward ? forwardEdge : backwardEdge;
+            EdgeArray graph = forward ? myUpwardEdges : myDownwardEdges;
+
+            queuePeak = Math.max(queuePeak, forwardQueue.size() + backwardQueue.size());
+            QueueEntry current = queue.poll();
+            int node = current.getNode();
+            if (current.getCost() > dist.get(node)) {
+                continue; // outdated entry
+            }
+            settled++;
+            Double other = otherDist.get(node);
+            if (other != null && current.getCost() + other < best) {
+                best = current.getCost() + other;
+                meetingNode = node;
+            }
+            for (int edge = graph.getFirstEdge(node); edge < graph.getFirstEdge(node + 1); edge++) {
+                relaxed++;
+                int next = graph.getTarget(edge);
+                double cost = current.getCost() + graph.getCost(edge);
+                Double known = dist.get(next);
+                if (known == null || cost < known) {
+                    dist.put(next, cost);
+                    edges.put(next, edge);
+                    queue.add(new QueueEntry(next, cost));
+                }
+            }
+        }
+
+        if (aStatistics != null) {
+            aStatistics.nodesSettled(settled);
+            aStatistics.edgesRelaxed(relaxed);
+            aStatistics.queueSize(queuePeak);
+        }
+        if (meetingNode < 0) {
+            return null;
+        }
+        return reconstructPath(aStartIndex, meetingNode, forwardEdge, backwardEdge, best);
+    }
+
+    /**
+     * Build the node-sequence from the search-trees of both
+     * directions and unpack all shortcuts.
+     * @param aStartIndex where we started
+     * @param aMeetingNode where both searches met
+     * @param aForwardEdges the upward-edge index used to reach each node from the start
+     * @param aBackwardEdges the downward-edge index used to reach each node from the target
+     * @param aCost the cost of the path
+     * @return the path
+     */
+    private ShortestPath reconstructPath(final int aStartIndex, final int aMeetingNode,
+                                         final Map<Integer, Integer> aForwardEdges,
+                                         final Map<Integer, Integer> aBackwardEdges,
+                                         final double aCost) {
+        // collect the upward part from the meeting-node back to the start
+        IntList upward = new IntList();
+        int node = aMeetingNode;
+        while (node != aStartIndex) {
+            int edge = aForwardEdges.get(node);
+            upward.add(edge);
+            node = myUpwardEdges.getSource(edge);
+        }
+
+        PathBuilder path = new PathBuilder(aStartIndex);
+        for (int i = upward.size() - 1; i >= 0; i--) {
+            int edge = upward.get(i);
+            unpack(myUpwardEdges.getSource(edge), myUpwardEdges.getTarget(edge),
+                   myUpwardEdges.getMiddle(edge), myUpwardEdges.getWay(edge), path);
+        }
+
+        // follow the downward part from the meeting-node to the target
+        node = aMeetingNode;
+        Integer edge = aBackwardEdges.get(node);
+        while (edge != null) {
+            int next = myDownwardEdges.getSource(edge);
+            unpack(node, next, myDownwardEdges.getMiddle(edge), myDownwardEdges.getWay(edge), path);
+            node = next;
+            edge = aBackwardEdges.get(node);
+        }
+
+        long[] nodeIDs = new long[path.myNodes.size()];
+        for (int i = 0; i < nodeIDs.length; i++) {
+            nodeIDs[i] = myNodeIDs[path.myNodes.get(i)];
+        }
+        return new ShortestPath(nodeIDs, path.getWays(), aCost);
+    }
+
+    /**
+     * Replace a shortcut by the 2 edges it consists of (recursively).
+     * @param aFrom the start-node of the edge
+     * @param aTo the end-node of the edge
+     * @param aMiddle the node that was contracted to create this shortcut or -1
+     * @param aWay the way if this is no shortcut
+     * @param aPath where to append the unpacked edges
+     */
+    private void unpack(final int aFrom, final int aTo, final int aMiddle, final long aWay, final PathBuilder aPath) {
+        if (aMiddle < 0) {
+            aPath.add(aTo, aWay);
+            return;
+        }
+        // the middle-node is less important then both ends,
+        // thus both halves are stored at the middle-node
+        int first = myDownwardEdges.findCheapestEdge(aMiddle, aFrom);
+        int second = myUpwardEdges.findCheapestEdge(aMiddle, aTo);
+        if (first < 0 || second < 0) {
+            throw new IllegalStateException("contraction hierarchy is corrupt, cannot unpack shortcut "
+                    + myNodeIDs[aFrom] + "->" + myNodeIDs[aTo] + " via " + myNodeIDs[aMiddle]);
+        }
+        unpack(aFrom, aMiddle, myDownwardEdges.getMiddle(first), myDownwardEdges.getWay(first), aPath);
+        unpack(aMiddle, aTo, myUpwardEdges.getMiddle(second), myUpwardEdges.getWay(second), aPath);
+    }
+
+    //--------------------------------------------------------------- many-to-many
+
+    /**
+     * Calculate the costs between all sources and all targets at once.<br/>
+     * Every target does one backward upward-search and leaves its cost in a
+     * bucket at every node it settles. Every source then does one forward
+     * upward-search and scans the buckets of the nodes it settles.
+     * This needs sources + targets small searches instead of
+     * sources * targets queries.
+     * @param aSourceIndices the node-indices to start at
+     * @param aTargetIndices the node-indices to reach
+     * @param aStatistics (may be null) where to count what we do
+     * @return [source][target] the cost or infinite if unreachable
+     */
+    public double[][] getCostMatrix(final int[] aSourceIndices, final int[] aTargetIndices,
+                                    final RoutingStatistics aStatistics) {
+        UpwardSearch search = new UpwardSearch(getNodeCount());
+        // buckets as a linked list per node
+        int[] bucketHeads = new int[getNodeCount()];
+        Arrays.fill(bucketHeads, -1);
+        int[] entryNext = new int[aTargetIndices.length * 2 + 1];
+        int[] entryTargets = new int[entryNext.length];
+        double[] entryCosts = new double[entryNext.length];
+        int entryCount = 0;
+
+        for (int target = 0; target < aTargetIndices.length; target++) {
+            search.run(aTargetIndices[target], myDownwardEdges);
+            for (int i = 0; i < search.mySettledCount; i++) {
+                int node = search.mySettled[i];
+                if (entryCount == entryNext.length) {
+                    int capacity = entryCount * 2;
+                    entryNext = Arrays.copyOf(entryNext, capacity);
+                    entryTargets = Arrays.copyOf(entryTargets, capacity);
+                    entryCosts = Arrays.copyOf(entryCosts, capacity);
+                }
+                entryNext[entryCount] = bucketHeads[node];
+                entryTargets[entryCount] = target;
+                entryCosts[entryCount] = search.myDistances[node];
+                bucketHeads[node] = entryCount++;
+            }
+        }
+
+        double[][] retval = new double[aSourceIndices.length][aTargetIndices.length];
+        for (int source = 0; source < aSourceIndices.length; source++) {
+            double[] row = retval[source];
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+            search.run(aSourceIndices[source], myUpwardEdges);
+            for (int i = 0; i < search.mySettledCount; i++) {
+                int node = search.mySettled[i];
+                double cost = search.myDistances[node];
+                for (int entry = bucketHeads[node]; entry >= 0; entry = entryNext[entry]) {
+                    row[entryTargets[entry]] = Math.min(row[entryTargets[entry]], cost + entryCosts[entry]);
+                }
+            }
+        }
+
+        if (aStatistics != null) {
+            aStatistics.nodesSettled(search.mySettledTotal);
+            aStatistics.edgesRelaxed(search.myRelaxedTotal);
+            aStatistics.queueSize(search.myQueuePeak);
+        }
+        return retval;
+    }
+
+    /**
+     * A complete Dijkstra-search that only goes upward in the hierarchy.
+     * Reused for many searches without clearing all arrays.
+     */
+    private static final class UpwardSearch {
+
+        /**
+         * The cost per node, only valid for the nodes settled in the last run.
+         */
+        private final double[] myDistances;
+
+        /**
+         * The nodes settled in the last run.
+         */
+        private int[] mySettled = new int[16];
+
+        /**
+         * The number of valid entries in {@link #mySettled}.
+         */
+        private int mySettledCount;
+
+        /**
+         * The queue.
+         */
+        private final IndexedMinHeap myQueue;
+
+        /**
+         * Nodes settled in all runs.
+         */
+        private long mySettledTotal;
+
+        /**
+         * Edges relaxed in all runs.
+         */
+        private long myRelaxedTotal;
+
+        /**
+         * The largest the queue has been.
+         */
+        private int myQueuePeak;
+
+        /**
+         * @param aNodeCount the number of nodes in the hierarchy
+         */
+        private UpwardSearch(final int aNodeCount) {
+            this.myDistances = new double[aNodeCount];
+            Arrays.fill(myDistances, Double.POSITIVE_INFINITY);
+            this.myQueue = new IndexedMinHeap(aNodeCount);
+        }
+
+        /**
+         * Search all nodes reachable upward from aStart.
+         * @param aStart where to start
+         * @param aEdges {@link #myUpwardEdges} or {@link #myDownwardEdges}
+         */
+        private void run(final int aStart, final EdgeArray aEdges) {
+            for (int i = 0; i < mySettledCount; i++) {
+                myDistances[mySettled[i]] = Double.POSITIVE_INFINITY;
+            }
+            mySettledCount = 0;
+            myDistances[aStart] = 0;
+            myQueue.insert(aStart, 0);
+            while (!myQueue.isEmpty()) {
+                myQueuePeak = Math.max(myQueuePeak, myQueue.size());
+                double cost = myQueue.peekKey();
+                int node = myQueue.poll();
+                if (mySettledCount == mySettled.length) {
+                    mySettled = Arrays.copyOf(mySettled, mySettledCount * 2);
+                }
+                mySettled[mySettledCount++] = node;
+                for (int edge = aEdges.getFirstEdge(node); edge < aEdges.getFirstEdge(node + 1); edge++) {
+                    myRelaxedTotal++;
+                    int next = aEdges.getTarget(edge);
+                    double nextCost = cost + aEdges.getCost(edge);
+                    if (nextCost < myDistances[next]) {
+                        myDistances[next] = nextCost;
+                        myQueue.insertOrDecrease(next, nextCost);
+                    }
+                }
+            }
+            mySettledTotal += mySettledCount;
+        }
+    }
+
+    //--------------------------------------------------------------- persistence
+
+    /**
+     * Write this hierarchy to a file.
+     * @param aFile the file to write to
+     * @param aFingerprint some value describing the map-data this was calculated from
+     * @throws IOException if we cannot write
+     * @see #readFrom(File, long)
+     */
+    public void writeTo(final File aFile, final long aFingerprint) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(aFile)));
+        try {
+            out.writeInt(FILEMAGIC);
+            out.writeInt(FILEVERSION);
+            out.writeLong(aFingerprint);
+            out.writeInt(myNodeIDs.length);
+            for (long nodeID : myNodeIDs) {
+                out.writeLong(nodeID);
+            }
+            myUpwardEdges.writeTo(out);
+            myDownwardEdges.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read a hierarchy written by {@link #writeTo(File, long)}.
+     * @param aFile the file to read
+     * @param aFingerprint the fingerprint of the current map-data
+     * @return the hierarchy or null if the file does not exist, has an unknown format
+     *         or was calculated for a different fingerprint.
+     * @throws IOException if we cannot read
+     */
+    public static ContractionHierarchy readFrom(final File aFile, final long aFingerprint) throws IOException {
+        if (!aFile.exists()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(aFile)));
+        try {
+            if (in.readInt() != FILEMAGIC || in.readInt() != FILEVERSION) {
+                LOG.log(Level.INFO, "ignoring contraction hierarchy of unknown format in " + aFile.getAbsolutePath());
+                return null;
+            }
+            if (in.readLong() != aFingerprint) {
+                LOG.log(Level.INFO, "ignoring outdated contraction hierarchy in " + aFile.getAbsolutePath());
+                return null;
+            }
+            long[] nodeIDs = new long[in.readInt()];
+            for (int i = 0; i < nodeIDs.length; i++) {
+                nodeIDs[i] = in.readLong();
+            }
+            EdgeArray upward = EdgeArray.readFrom(in, nodeIDs.length);
+            EdgeArray downward = EdgeArray.readFrom(in, nodeIDs.length);
+            return new ContractionHierarchy(nodeIDs, upward, downward);
+        } finally {
+            in.close();
+        }
+    }
+
+    //--------------------------------------------------------------- preprocessing
+
+    /**
+     * Extract the road-network from the map and contract it.
+     * This walks all ways of the map once and may take some minutes
+     * for large maps.
+     * @param aMap the map to route on
+     * @param aVehicle the vehicle giving us the ways and nodes that are allowed
+     * @param aMetric the metric to optimize for
+     * @return the hierarchy
+     */
+    public static ContractionHierarchy build(final IDataSet aMap, final IVehicle aVehicle, final IRoutingMetric aMetric) {
+        return build(new RoutingGraphBuilder(aMap, aVehicle, aMetric).build());
+    }
+
+    /**
+     * Contract the given road-network.
+     * @param aGraph the road-network
+     * @return the hierarchy
+     */
+    public static ContractionHierarchy build(final RoutingGraph aGraph) {
+        long start = System.currentTimeMillis();
+        Contractor contractor = new Contractor(aGraph);
+        ContractionHierarchy retval = contractor.contract();
+        LOG.log(Level.INFO, "contracted hierarchy with " + retval.getEdgeCount() + " edges in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return retval;
+    }
+
+    /**
+     * Mutable graph used during the contraction.
+     */
+    private static final class Contractor {
+
+        /**
+         * The road-network we contract.
+         */
+        private final RoutingGraph myGraph;
+
+        /**
+         * Number of used entries in the edge-arrays.
+         */
+        private int myEdgeCount = 0;
+
+        /**
+         * Start-node of each edge.
+         */
+        private int[] myEdgeFrom = new int[INITIALCAPACITY];
+
+        /**
+         * End-node of each edge.
+         */
+        private int[] myEdgeTo = new int[INITIALCAPACITY];
+
+        /**
+         * The contracted node each shortcut skips or -1.
+         */
+        private int[] myEdgeMiddle = new int[INITIALCAPACITY];
+
+        /**
+         * Cost of each edge.
+         */
+        private float[] myEdgeCost = new float[INITIALCAPACITY];
+
+        /**
+         * The way of each edge that is no shortcut.
+         */
+        private long[] myEdgeWay = new long[INITIALCAPACITY];
+
+        /**
+         * Initial size of the edge-arrays.
+         */
+        private static final int INITIALCAPACITY = 1024;
+
+        /**
+         * The edges leaving each node.
+         */
+        private IntList[] myOutgoing;
+
+        /**
+         * The edges arriving at each node.
+         */
+        private IntList[] myIncoming;
+
+        /**
+         * True for every node that has been contracted.
+         */
+        private boolean[] myContracted;
+
+        /**
+         * Number of contracted neighbors of each node.
+         * Used to contract uniformly across the map.
+         */
+        private int[] myDeletedNeighbors;
+
+        /**
+         * The order of contraction.
+         */
+        private int[] myRanks;
+
+        /**
+         * Tentative distances of the witness-search.
+         */
+        private double[] myWitnessDist;
+
+        /**
+         * All nodes whose {@link #myWitnessDist} needs to be reset.
+         */
+        private final IntList myWitnessTouched = new IntList();
+
+        /**
+         * Copy all edges of the graph.
+         * @param aGraph the road-network to contract
+         */
+        public Contractor(final RoutingGraph aGraph) {
+            this.myGraph = aGraph;
+            for (int edge = 0; edge < aGraph.getEdgeCount(); edge++) {
+                addEdge(aGraph.getEdgeSource(edge), aGraph.getEdgeTarget(edge), aGraph.getEdgeCost(edge),
+                        -1, aGraph.getEdgeWayID(edge));
+            }
+        }
+
+        /**
+         * Add an edge. Adjacency-lists are only updated
+         * after {@link #contract()} started.
+         * @param aFrom start-node
+         * @param aTo end-node
+         * @param aCost the cost
+         * @param aMiddle the skipped node of a shortcut or -1
+         * @param aWay the way of an original edge
+         * @return the index of the edge
+         */
+        public int addEdge(final int aFrom, final int aTo, final double aCost, final int aMiddle, final long aWay) {
+            if (myEdgeCount == myEdgeFrom.length) {
+                int capacity = myEdgeCount * 2;
+                myEdgeFrom = Arrays.copyOf(myEdgeFrom, capacity);
+                myEdgeTo = Arrays.copyOf(myEdgeTo, capacity);
+                myEdgeMiddle = Arrays.copyOf(myEdgeMiddle, capacity);
+                myEdgeCost = Arrays.copyOf(myEdgeCost, capacity);
+                myEdgeWay = Arrays.copyOf(myEdgeWay, capacity);
+            }
+            int edge = myEdgeCount++;
+            myEdgeFrom[edge] = aFrom;
+            myEdgeTo[edge] = aTo;
+            myEdgeMiddle[edge] = aMiddle;
+            myEdgeCost[edge] = (float) aCost;
+            myEdgeWay[edge] = aWay;
+            if (myOutgoing != null) {
+                myOutgoing[aFrom].add(edge);
+                myIncoming[aTo].add(edge);
+            }
+            return edge;
+        }
+
+        /**
+         * Contract all nodes and build the upward- and downward-graphs.
+         * @return the finished hierarchy
+         */
+        public ContractionHierarchy contract() {
+            int nodeCount = myGraph.getNodeCount();
+            myOutgoing = new IntList[nodeCount];
+            myIncoming = new IntList[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                myOutgoing[i] = new IntList();
+                myIncoming[i] = new IntList();
+            }
+            for (int edge = 0; edge < myEdgeCount; edge++) {
+                myOutgoing[myEdgeFrom[edge]].add(edge);
+                myIncoming[myEdgeTo[edge]].add(edge);
+            }
+            myContracted = new boolean[nodeCount];
+            myDeletedNeighbors = new int[nodeCount];
+            myRanks = new int[nodeCount];
+            myWitnessDist = new double[nodeCount];
+            Arrays.fill(myWitnessDist, Double.POSITIVE_INFINITY);
+
+            PriorityQueue<QueueEntry> order = new PriorityQueue<QueueEntry>(Math.max(1, nodeCount));
+            for (int node = 0; node < nodeCount; node++) {
+                order.add(new QueueEntry(node, getPriority(node)));
+            }
+
+            // lazy updates: re-evaluate the priority of the node
+            // we are about to contract and postpone it if it got worse
+            int rank = 0;
+            while (!order.isEmpty()) {
+                int node = order.poll().getNode();
+                int priority = getPriority(node);
+                if (!order.isEmpty() && priority > order.peek().getCost()) {
+                    order.add(new QueueEntry(node, priority));
+                    continue;
+                }
+                contractNode(node);
+                myRanks[node] = rank++;
+            }
+
+            long[] nodeIDs = new long[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                nodeIDs[node] = myGraph.getNodeID(node);
+            }
+            return new ContractionHierarchy(nodeIDs, buildEdgeArray(true), buildEdgeArray(false));
+        }
+
+        /**
+         * The priority of a node is its edge-difference
+         * (shortcuts added minus edges removed) plus the
+         * number of neighbors already contracted.
+         * @param aNode the node to evaluate
+         * @return lower values get contracted first
+         */
+        private int getPriority(final int aNode) {
+            int removed = 0;
+            IntList outgoing = myOutgoing[aNode];
+            for (int i = 0; i < outgoing.size(); i++) {
+                if (!myContracted[myEdgeTo[outgoing.get(i)]]) {
+                    removed++;
+                }
+            }
+            IntList incoming = myIncoming[aNode];
+            for (int i = 0; i < incoming.size(); i++) {
+                if (!myContracted[myEdgeFrom[incoming.get(i)]]) {
+                    removed++;
+                }
+            }
+            return processShortcuts(aNode, false) - removed + myDeletedNeighbors[aNode];
+        }
+
+        /**
+         * Remove the node from the remaining graph and
+         * add the shortcuts needed.
+         * @param aNode the node to contract
+         */
+        private void contractNode(final int aNode) {
+            processShortcuts(aNode, true);
+            myContracted[aNode] = true;
+            IntList outgoing = myOutgoing[aNode];
+            for (int i = 0; i < outgoing.size(); i++) {
+                myDeletedNeighbors[myEdgeTo[outgoing.get(i)]]++;
+            }
+            IntList incoming = myIncoming[aNode];
+            for (int i = 0; i < incoming.size(); i++) {
+                myDeletedNeighbors[myEdgeFrom[incoming.get(i)]]++;
+            }
+        }
+
+        /**
+         * Find all shortcuts that contracting the given node requires.
+         * @param aNode the node to contract
+         * @param aAdd true to add the shortcuts, false to only count them
+         * @return the number of shortcuts
+         */
+        private int processShortcuts(final int aNode, final boolean aAdd) {
+            int count = 0;
+            IntList incoming = myIncoming[aNode];
+            IntList outgoing = myOutgoing[aNode];
+            // copy the size, shortcuts added here are never incident to aNode
+            int incomingCount = incoming.size();
+            int outgoingCount = outgoing.size();
+            for (int i = 0; i < incomingCount; i++) {
+                int inEdge = incoming.get(i);
+                int from = myEdgeFrom[inEdge];
+                if (myContracted[from]) {
+                    continue;
+                }
+                double maxCost = -1;
+                for (int j = 0; j < outgoingCount; j++) {
+                    int outEdge = outgoing.get(j);
+                    int to = myEdgeTo[outEdge];
+                    if (!myContracted[to] && to != from) {
+                        maxCost = Math.max(maxCost, myEdgeCost[inEdge] + myEdgeCost[outEdge]);
+                    }
+                }
+                if (maxCost < 0) {
+                    continue;
+                }
+                witnessSearch(from, aNode, maxCost);
+                for (int j = 0; j < outgoingCount; j++) {
+                    int outEdge = outgoing.get(j);
+                    int to = myEdgeTo[outEdge];
+                    if (myContracted[to] || to == from) {
+                        continue;
+                    }
+                    double viaCost = (double) myEdgeCost[inEdge] + myEdgeCost[outEdge];
+                    if (myWitnessDist[to] <= viaCost) {
+                        continue;
+                    }
+                    count++;
+                    if (aAdd) {
+                        addEdge(from, to, viaCost, aNode, NOWAY);
+                    }
+                    // parallel edges to the same neighbor need only one shortcut
+                    if (myWitnessDist[to] == Double.POSITIVE_INFINITY) {
+                        myWitnessTouched.add(to);
+                    }
+                    myWitnessDist[to] = viaCost;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Limited Dijkstra from aStart that ignores aIgnore and all
+         * contracted nodes. Fills {@link #myWitnessDist}.
+         * @param aStart where to start
+         * @param aIgnore the node that is about to be contracted
+         * @param aMaxCost stop after this cost has been reached
+         */
+        private void witnessSearch(final int aStart, final int aIgnore, final double aMaxCost) {
+            for (int i = 0; i < myWitnessTouched.size(); i++) {
+                myWitnessDist[myWitnessTouched.get(i)] = Double.POSITIVE_INFINITY;
+            }
+            myWitnessTouched.clear();
+
+            PriorityQueue<QueueEntry> queue = new PriorityQueue<QueueEntry>();
+            myWitnessDist[aStart] = 0;
+            myWitnessTouched.add(aStart);
+            queue.add(new QueueEntry(aStart, 0));
+            int settled = 0;
+            while (!queue.isEmpty()) {
+                QueueEntry current = queue.poll();
+                int node = current.getNode();
+                if (current.getCost() > myWitnessDist[node]) {
+                    continue;
+                }
+                if (current.getCost() > aMaxCost || ++settled > MAXWITNESSSETTLED) {
+                    break;
+                }
+                IntList outgoing = myOutgoing[node];
+                for (int i = 0; i < outgoing.size(); i++) {
+                    int edge = outgoing.get(i);
+                    int next = myEdgeTo[edge];
+                    if (next == aIgnore || myContracted[next]) {
+                        continue;
+                    }
+                    double cost = current.getCost() + myEdgeCost[edge];
+                    if (cost < myWitnessDist[next]) {
+                        if (myWitnessDist[next] == Double.POSITIVE_INFINITY) {
+                            myWitnessTouched.add(next);
+                        }
+                        myWitnessDist[next] = cost;
+                        queue.add(new QueueEntry(next, cost));
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param aUpward true for the upward-graph, false for the downward-graph
+         * @return the compact edge-array
+         * @see ContractionHierarchy#myUpwardEdges
+         * @see ContractionHierarchy#myDownwardEdges
+         */
+        private EdgeArray buildEdgeArray(final boolean aUpward) {
+            int nodeCount = myGraph.getNodeCount();
+            int[] first = new int[nodeCount + 1];
+            for (int edge = 0; edge < myEdgeCount; edge++) {
+                int from = myEdgeFrom[edge];
+                int to = myEdgeTo[edge];
+                if (aUpward && myRanks[from] < myRanks[to]) {
+                    first[from + 1]++;
+                } else if (!aUpward && myRanks[from] > myRanks[to]) {
+                    first[to + 1]++;
+                }
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                first[i + 1] += first[i];
+            }
+            EdgeArray retval = new EdgeArray(first);
+            int[] fill = Arrays.copyOf(first, nodeCount);
+            for (int edge = 0; edge < myEdgeCount; edge++) {
+                int from = myEdgeFrom[edge];
+                int to = myEdgeTo[edge];
+                if (aUpward && myRanks[from] < myRanks[to]) {
+                    retval.set(fill[from]++, from, to, myEdgeCost[edge], myEdgeMiddle[edge], myEdgeWay[edge]);
+                } else if (!aUpward && myRanks[from] > myRanks[to]) {
+                    retval.set(fill[to]++, to, from, myEdgeCost[edge], myEdgeMiddle[edge], myEdgeWay[edge]);
+                }
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * Edges grouped by the node they are stored at.
+     */
+    private static final class EdgeArray {
+
+        /**
+         * The edges of node i are first[i]...first[i+1]-1 .
+         */
+        private final int[] myFirst;
+
+        /**
+         * The node the edge is stored at.
+         */
+        private final int[] mySources;
+
+        /**
+         * The other node of the edge.
+         */
+        private final int[] myTargets;
+
+        /**
+         * The cost of the edge.
+         */
+        private final float[] myCosts;
+
+        /**
+         * The node skipped by a shortcut or -1.
+         */
+        private final int[] myMiddles;
+
+        /**
+         * The way of an original edge.
+         */
+        private final long[] myWays;
+
+        /**
+         * @param aFirst the edges of node i are aFirst[i]...aFirst[i+1]-1
+         */
+        private EdgeArray(final int[] aFirst) {
+            int count = aFirst[aFirst.length - 1];
+            this.myFirst = aFirst;
+            this.mySources = new int[count];
+            this.myTargets = new int[count];
+            this.myCosts = new float[count];
+            this.myMiddles = new int[count];
+            this.myWays = new long[count];
+        }
+
+        /**
+         * @param aEdge the edge to set
+         * @param aSource the node the edge is stored at
+         * @param aTarget the other node of the edge
+         * @param aCost the cost
+         * @param aMiddle node skipped by a shortcut or -1
+         * @param aWay the way of an original edge
+         */
+        private void set(final int aEdge, final int aSource, final int aTarget, final float aCost,
+                         final int aMiddle, final long aWay) {
+            mySources[aEdge] = aSource;
+            myTargets[aEdge] = aTarget;
+            myCosts[aEdge] = aCost;
+            myMiddles[aEdge] = aMiddle;
+            myWays[aEdge] = aWay;
+        }
+
+        /**
+         * @return the number of edges
+         */
+        public int size() {
+            return myTargets.length;
+        }
+
+        /**
+         * @param aNode a node (may be the node-count to get the end of the last node)
+         * @return the first edge stored at that node
+         */
+        public int getFirstEdge(final int aNode) {
+            return myFirst[aNode];
+        }
+
+        /**
+         * @param aEdge an edge
+         * @return the node the edge is stored at
+         */
+        public int getSource(final int aEdge) {
+            return mySources[aEdge];
+        }
+
+        /**
+         * @param aEdge an edge
+         * @return the other node of the edge
+         */
+        public int getTarget(final int aEdge) {
+            return myTargets[aEdge];
+        }
+
+        /**
+         * @param aEdge an edge
+         * @return the cost
+         */
+        public float getCost(final int aEdge) {
+            return myCosts[aEdge];
+        }
+
+        /**
+         * @param aEdge an edge
+         * @return the node skipped by a shortcut or -1
+         */
+        public int getMiddle(final int aEdge) {
+            return myMiddles[aEdge];
+        }
+
+        /**
+         * @param aEdge an edge
+         * @return the way of an original edge
+         */
+        public long getWay(final int aEdge) {
+            return myWays[aEdge];
+        }
+
+        /**
+         * @param aNode the node the edge is stored at
+         * @param aTarget the other node
+         * @return the cheapest edge between them or -1
+         */
+        public int findCheapestEdge(final int aNode, final int aTarget) {
+            int retval = -1;
+            for (int edge = myFirst[aNode]; edge < myFirst[aNode + 1]; edge++) {
+                if (myTargets[edge] == aTarget && (retval < 0 || myCosts[edge] < myCosts[retval])) {
+                    retval = edge;
+                }
+            }
+            return retval;
+        }
+
+        /**
+         * @param aOut where to write to
+         * @throws IOException if we cannot write
+         */
+        public void writeTo(final DataOutputStream aOut) throws IOException {
+            aOut.writeInt(size());
+            for (int i = 0; i < myFirst.length; i++) {
+                aOut.writeInt(myFirst[i]);
+            }
+            for (int i = 0; i < size(); i++) {
+                aOut.writeInt(mySources[i]);
+                aOut.writeInt(myTargets[i]);
+                aOut.writeFloat(myCosts[i]);
+                aOut.writeInt(myMiddles[i]);
+                aOut.writeLong(myWays[i]);
+            }
+        }
+
+        /**
+         * @param aIn where to read from
+         * @param aNodeCount the number of nodes
+         * @return the edges
+         * @throws IOException if we cannot read
+         */
+        public static EdgeArray readFrom(final DataInputStream aIn, final int aNodeCount) throws IOException {
+            int count = aIn.readInt();
+            int[] first = new int[aNodeCount + 1];
+            for (int i = 0; i < first.length; i++) {
+                first[i] = aIn.readInt();
+            }
+            if (first[aNodeCount] != count) {
+                throw new IOException("corrupt contraction hierarchy");
+            }
+            EdgeArray retval = new EdgeArray(first);
+            for (int i = 0; i < count; i++) {
+                retval.set(i, aIn.readInt(), aIn.readInt(), aIn.readFloat(), aIn.readInt(), aIn.readLong());
+            }
+            return retval;
+        }
+    }
+
+    //--------------------------------------------------------------- helper-classes
+
+    /**
+     * An entry in one of our priority-queues.
+     */
+    private static final class QueueEntry implements Comparable<QueueEntry> {
+
+        /**
+         * The node.
+         */
+        private final int myNode;
+
+        /**
+         * The cost (or priority).
+         */
+        private final double myCost;
+
+        /**
+         * @param aNode the node
+         * @param aCost the cost (or priority)
+         */
+        public QueueEntry(final int aNode, final double aCost) {
+            this.myNode = aNode;
+            this.myCost = aCost;
+        }
+
+        /**
+         * @return the node
+         */
+        public int getNode() {
+            return myNode;
+        }
+
+        /**
+         * @return the cost (or priority)
+         */
+        public double getCost() {
+            return myCost;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(final QueueEntry aOther) {
+            int retval = Double.compare(myCost, aOther.myCost);
+            if (retval == 0) {
+                retval = myNode - aOther.myNode;
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * Collects the unpacked edges of a path.
+     */
+    private static final class PathBuilder {
+
+        /**
+         * The node-indices.
+         */
+        private final IntList myNodes = new IntList();
+
+        /**
+         * The way-IDs.
+         */
+        private final LongList myWays = new LongList();
+
+        /**
+         * @param aStart the first node
+         */
+        public PathBuilder(final int aStart) {
+            myNodes.add(aStart);
+        }
+
+        /**
+         * @param aNode the node we reach
+         * @param aWay the way we use to reach it
+         */
+        public void add(final int aNode, final long aWay) {
+            myNodes.add(aNode);
+            myWays.add(aWay);
+        }
+
+        /**
+         * @return the way-IDs
+         */
+        public long[] getWays() {
+            return myWays.toArray();
+        }
+    }
+
+    /**
+     * A growable list of ints without boxing.
+     */
+    private static final class IntList {
+
+        /**
+         * The values.
+         */
+        private int[] myValues = new int[2];
+
+        /**
+         * The number of values used.
+         */
+        private int mySize = 0;
+
+        /**
+         * @param aValue the value to append
+         */
+        public void add(final int aValue) {
+            if (mySize == myValues.length) {
+                myValues = Arrays.copyOf(myValues, mySize * 2);
+            }
+            myValues[mySize++] = aValue;
+        }
+
+        /**
+         * @param aIndex the index
+         * @return the value
+         */
+        public int get(final int aIndex) {
+            return myValues[aIndex];
+        }
+
+        /**
+         * @return the number of values
+         */
+        public int size() {
+            return mySize;
+        }
+
+        /**
+         * Remove all values.
+         */
+        public void clear() {
+            mySize = 0;
+        }
+    }
+
+    /**
+     * A growable list of longs without boxing.
+     */
+    private static final class LongList {
+
+        /**
+         * The values.
+         */
+        private long[] myValues = new long[2];
+
+        /**
+         * The number of values used.
+         */
+        private int mySize = 0;
+
+        /**
+         * @param aValue the value to append
+         */
+        public void add(final long aValue) {
+            if (mySize == myValues.length) {
+                myValues = Arrays.copyOf(myValues, mySize * 2);
+            }
+            myValues[mySize++] = aValue;
+        }
+
+        /**
+         * @return the number of values
+         */
+        public int size() {
+            return mySize;
+        }
+
+        /**
+         * @return a copy of the values
+         */
+        public long[] toArray() {
+            return Arrays.copyOf(myValues, mySize);
+        }
+    }
+}
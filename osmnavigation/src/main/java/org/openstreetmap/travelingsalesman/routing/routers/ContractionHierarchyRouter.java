@@ -0,0 +1,442 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.osm.ConfigurationSection;
+import org.openstreetmap.osm.Plugins.IPlugin;
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osm.data.OsmBinDataSet;
+import org.openstreetmap.osm.data.osmbin.v1_0.OsmBinDataSetV10;
+import org.openstreetmap.travelingsalesman.routing.DistanceMatrix;
+import org.openstreetmap.travelingsalesman.routing.IInstrumentedRouter;
+import org.openstreetmap.travelingsalesman.routing.IMatrixRouter;
+import org.openstreetmap.travelingsalesman.routing.IProgressListener;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.PreprocessingCache;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraph;
+import org.openstreetmap.travelingsalesman.routing.RoutingStatistics;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+/**
+ * A router that preprocesses the map into a {@link ContractionHierarchy}
+ * and answers queries with a bidirectional upward search on it.<br/>
+ * The first query for a map, vehicle and metric takes long,
+ * all following queries take milliseconds.<br/>
+ * For OsmBin-maps the hierarchy is stored next to the map-files
+ * and rebuilt when the nodes- or ways-file change. For all other maps
+ * it is kept in a {@link PreprocessingCache} shared by all instances
+ * and rebuilt when the modification-stamp of the map changes.<br/>
+ * We assume:
+ * <ul>
+ *  <li>The metric is never negative</li>
+ *  <li>the metric does only depend on the RoutingStep.
+ *      Crossing-costs and turn-restrictions are ignored,
+ *      use {@link TurnRestrictedAStar} if you need them.</li>
+ *  <li>the metric does not change over time. Traffic-messages that
+ *      arrive after the hierarchy was built are not considered.</li>
+ * </ul>
+ */
+public class ContractionHierarchyRouter implements IInstrumentedRouter, IMatrixRouter {
+
+    /**
+     * my logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(ContractionHierarchyRouter.class.getName());
+
+    /**
+     * The files of an OsmBin-map we take our fingerprint from.
+     */
+    private static final String[] FINGERPRINTFILES = new String[] {"nodes.obm", "ways.obm"};
+
+    /**
+     * Hierarchies of file-based maps shared by all instances.
+     * Key is the file the hierarchy is stored in.
+     */
+    private static final Map<String, CachedHierarchy> FILECACHE = new HashMap<String, CachedHierarchy>();
+
+    /**
+     * Hierarchies of all other maps shared by all instances.
+     * Key is the vehicle and metric.
+     */
+    private static final PreprocessingCache<ContractionHierarchy> MEMORYCACHE
+        = new PreprocessingCache<ContractionHierarchy>();
+
+    /**
+     * The metric we are optimizing for.
+     */
+    private IRoutingMetric myMetric = new ShortestRouteMetric();
+
+    /**
+     * my IProgressListenerts.
+     * @see #addProgressListener(IProgressListener)
+     */
+    private Set<IProgressListener> myProgressListeners = new HashSet<IProgressListener>();
+
+    /**
+     * The statistics of the route-calculation running or last run.
+     */
+    private RoutingStatistics myStatistics;
+
+    /**
+     * This plugin has no  settings, thus this method returns null
+     * as described in {@link IPlugin#getSettings()}.
+     * @return null
+     */
+    public ConfigurationSection getSettings() {
+        return null;
+    }
+
+    /**
+     * Add a listener to be informed about the progress we make.
+     * @param aListener the listener
+     */
+    public void addProgressListener(final IProgressListener aListener) {
+        this.myProgressListeners.add(aListener);
+    }
+
+    /**
+     * @return the metric we are to optimize for
+     */
+    public IRoutingMetric getMetric() {
+        return myMetric;
+    }
+
+    /**
+     * @param aMetric the metric we are to optimize for
+     */
+    public void setMetric(final IRoutingMetric aMetric) {
+        myMetric = aMetric;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RoutingStatistics getLastStatistics() {
+        return myStatistics;
+    }
+
+    /**
+     * Start new statistics for a route-calculation
+     * with the phase of getting the hierarchy.
+     * @return the new statistics
+     */
+    private RoutingStatistics startStatistics() {
+        RoutingStatistics statistics = new RoutingStatistics(getClass().getSimpleName());
+        statistics.startPhase("preprocess");
+        myStatistics = statistics;
+        return statistics;
+    }
+
+    /**
+     * @param aMap the map to route on
+     * @param aTargetWay the {@link Way} we want to reach
+     * @param aStartNode the {@link Node} we are now
+     * @param aSelector the vehicle giving us the roads that are allowed.
+     * @return null or the route to the nearest node of the way
+     */
+    public Route route(final IDataSet aMap, final Way aTargetWay, final Node aStartNode, final IVehicle aSelector) {
+        RoutingStatistics statistics = startStatistics();
+        ContractionHierarchy hierarchy = getHierarchy(aMap, aSelector);
+        Set<Integer> targets = new HashSet<Integer>();
+        for (WayNode wayNode : aTargetWay.getWayNodes()) {
+            int index = hierarchy.getNodeIndex(wayNode.getNodeId());
+            if (index >= 0) {
+                targets.add(index);
+            }
+        }
+        return route(aMap, hierarchy, targets, aStartNode, statistics);
+    }
+
+    /**
+     * @param aMap the map to route on
+     * @param aTargetNode the {@link Node} we want to reach
+     * @param aStartNode the {@link Node} we are now
+     * @param aSelector the vehicle giving us the roads that are allowed.
+     * @return null or the route
+     */
+    public Route route(final IDataSet aMap, final Node aTargetNode, final Node aStartNode, final IVehicle aSelector) {
+        RoutingStatistics statistics = startStatistics();
+        ContractionHierarchy hierarchy = getHierarchy(aMap, aSelector);
+        Set<Integer> targets = new HashSet<Integer>();
+        int index = hierarchy.getNodeIndex(aTargetNode.getId());
+        if (index >= 0) {
+            targets.add(index);
+        }
+        return route(aMap, hierarchy, targets, aStartNode, statistics);
+    }
+
+    /**
+     * @param aMap the map to route on
+     * @param aHierarchy the hierarchy for the map
+     * @param aTargets node-indices of the targets
+     * @param aStartNode the {@link Node} we are now
+     * @param aStatistics where to count what we do
+     * @return null or the route
+     */
+    private Route route(final IDataSet aMap, final ContractionHierarchy aHierarchy,
+                        final Set<Integer> aTargets, final Node aStartNode,
+                        final RoutingStatistics aStatistics) {
+        try {
+            return routeInternal(aMap, aHierarchy, aTargets, aStartNode, aStatistics);
+        } finally {
+            aStatistics.endPhase();
+        }
+    }
+
+    /**
+     * @param aMap the map to route on
+     * @param aHierarchy the hierarchy for the map
+     * @param aTargets node-indices of the targets
+     * @param aStartNode the {@link Node} we are now
+     * @param aStatistics where to count what we do
+     * @return null or the route
+     */
+    private Route routeInternal(final IDataSet aMap, final ContractionHierarchy aHierarchy,
+                        final Set<Integer> aTargets, final Node aStartNode,
+                        final RoutingStatistics aStatistics) {
+        int start = aHierarchy.getNodeIndex(aStartNode.getId());
+        if (start < 0) {
+            LOG.log(Level.INFO, "start-node " + aStartNode.getId() + " is not on any road we may use");
+            return null;
+        }
+        if (aTargets.isEmpty()) {
+            LOG.log(Level.INFO, "target is not on any road we may use");
+            return null;
+        }
+        int[] targets = new int[aTargets.size()];
+        int i = 0;
+        for (Integer target : aTargets) {
+            targets[i++] = target;
+        }
+
+        aStatistics.startPhase("search");
+        ContractionHierarchy.ShortestPath path = aHierarchy.query(start, targets, aStatistics);
+        if (path == null) {
+            LOG.log(Level.INFO, "ContractionHierarchyRouter found nothing");
+            return null;
+        }
+        aStatistics.startPhase("reconstruct");
+        return RoutingGraph.toRoute(aMap, path.getNodeIDs(), path.getWayIDs(), aStartNode);
+    }
+
+    /**
+     * Calculate the costs between many nodes with one small search per node.
+     * Nodes that are not on any road we may use are unreachable.
+     * @param aMap the map to route on
+     * @param aSources the nodes to start at
+     * @param aTargets the nodes to reach
+     * @param aSelector the vehicle giving us the roads that are allowed.
+     * @return the costs
+     */
+    public DistanceMatrix getDistanceMatrix(final IDataSet aMap, final List<Node> aSources,
+                                            final List<Node> aTargets, final IVehicle aSelector) {
+        RoutingStatistics statistics = startStatistics();
+        try {
+            ContractionHierarchy hierarchy = getHierarchy(aMap, aSelector);
+            statistics.startPhase("search");
+            int[] sources = getNodeIndices(hierarchy, aSources);
+            int[] targets = getNodeIndices(hierarchy, aTargets);
+            // unknown nodes must not take part in the searches
+            int[] knownSources = getKnown(sources);
+            int[] knownTargets = getKnown(targets);
+            double[][] known = hierarchy.getCostMatrix(knownSources, knownTargets, statistics);
+            double[][] costs = new double[sources.length][targets.length];
+            int row = 0;
+            for (int i = 0; i < sources.length; i++) {
+                Arrays.fill(costs[i], Double.POSITIVE_INFINITY);
+                if (sources[i] < 0) {
+                    continue;
+                }
+                int column = 0;
+                for (int j = 0; j < targets.length; j++) {
+                    if (targets[j] >= 0) {
+                        costs[i][j] = known[row][column++];
+                    }
+                }
+                row++;
+            }
+            return new DistanceMatrix(aSources, aTargets, costs);
+        } finally {
+            statistics.endPhase();
+        }
+    }
+
+    /**
+     * @param aHierarchy the hierarchy for the map
+     * @param aNodes some nodes
+     * @return the node-index of each node or -1
+     */
+    private static int[] getNodeIndices(final ContractionHierarchy aHierarchy, final List<Node> aNodes) {
+        int[] retval = new int[aNodes.size()];
+        int i = 0;
+        for (Node node : aNodes) {
+            retval[i++] = aHierarchy.getNodeIndex(node.getId());
+        }
+        return retval;
+    }
+
+    /**
+     * @param aNodeIndices node-indices or -1
+     * @return the node-indices without the -1 -entries
+     */
+    private static int[] getKnown(final int[] aNodeIndices) {
+        int[] retval = new int[aNodeIndices.length];
+        int count = 0;
+        for (int index : aNodeIndices) {
+            if (index >= 0) {
+                retval[count++] = index;
+            }
+        }
+        return Arrays.copyOf(retval, count);
+    }
+
+    //--------------------------------------------------------------- caching
+
+    /**
+     * A hierarchy and the fingerprint of the map-files it was built from.
+     */
+    private static final class CachedHierarchy {
+
+        /**
+         * The fingerprint.
+         */
+        private final long myFingerprint;
+
+        /**
+         * The hierarchy.
+         */
+        private final ContractionHierarchy myHierarchy;
+
+        /**
+         * @param aFingerprint the fingerprint
+         * @param aHierarchy the hierarchy
+         */
+        public CachedHierarchy(final long aFingerprint, final ContractionHierarchy aHierarchy) {
+            this.myFingerprint = aFingerprint;
+            this.myHierarchy = aHierarchy;
+        }
+    }
+
+    /**
+     * Get the hierarchy from memory or disk or build it.
+     * @param aMap the map to route on
+     * @param aSelector the vehicle we route for
+     * @return the hierarchy
+     */
+    protected ContractionHierarchy getHierarchy(final IDataSet aMap, final IVehicle aSelector) {
+        String key = aSelector.getClass().getName() + "." + myMetric.getClass().getName();
+        File directory = getDataDirectory(aMap);
+        if (directory == null) {
+            long stamp = PreprocessingCache.getModificationStamp(aMap);
+            ContractionHierarchy hierarchy = MEMORYCACHE.get(aMap, key, stamp);
+            if (hierarchy != null) {
+                return hierarchy;
+            }
+            synchronized (MEMORYCACHE.getLock(aMap, key)) {
+                hierarchy = MEMORYCACHE.get(aMap, key, stamp);
+                if (hierarchy == null) {
+                    hierarchy = ContractionHierarchy.build(aMap, aSelector, myMetric);
+                    MEMORYCACHE.put(aMap, key, stamp, hierarchy);
+                }
+                return hierarchy;
+            }
+        }
+
+        File file = new File(directory, "contractionhierarchy." + key + ".bin");
+        long fingerprint = getFingerprint(directory);
+        synchronized (FILECACHE) {
+            CachedHierarchy cached = FILECACHE.get(file.getAbsolutePath());
+            if (cached != null && cached.myFingerprint == fingerprint) {
+                return cached.myHierarchy;
+            }
+            ContractionHierarchy hierarchy = null;
+            try {
+                hierarchy = ContractionHierarchy.readFrom(file, fingerprint);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Cannot read contraction hierarchy from "
+                        + file.getAbsolutePath() + ", rebuilding it.", e);
+            }
+            if (hierarchy == null) {
+                hierarchy = ContractionHierarchy.build(aMap, aSelector, myMetric);
+                try {
+                    hierarchy.writeTo(file, fingerprint);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Cannot store contraction hierarchy in "
+                            + file.getAbsolutePath(), e);
+                }
+            }
+            FILECACHE.put(file.getAbsolutePath(), new CachedHierarchy(fingerprint, hierarchy));
+            return hierarchy;
+        }
+    }
+
+    /**
+     * @param aMap the map to route on
+     * @return the directory of an OsmBin-map or null
+     */
+    static File getDataDirectory(final IDataSet aMap) {
+        if (aMap instanceof OsmBinDataSetV10) {
+            return ((OsmBinDataSetV10) aMap).getDataDirectory();
+        }
+        if (aMap instanceof OsmBinDataSet) {
+            return ((OsmBinDataSet) aMap).getDataDirectory();
+        }
+        return null;
+    }
+
+    /**
+     * @param aDirectory the directory of an OsmBin-map
+     * @return a value that changes whenever the map is changed
+     */
+    static long getFingerprint(final File aDirectory) {
+        long retval = 0;
+        for (String name : FINGERPRINTFILES) {
+            File file = new File(aDirectory, name);
+            retval = retval * 31 + file.length();
+            retval = retval * 31 + file.lastModified();
+        }
+        return retval;
+    }
+}
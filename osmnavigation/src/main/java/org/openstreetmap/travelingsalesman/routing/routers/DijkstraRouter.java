@@ -35,8 +35,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,9 +43,13 @@ import org.openstreetmap.osm.Plugins.IPlugin;
 import org.openstreetmap.osm.data.IDataSet;
 import org.openstreetmap.osm.data.coordinates.LatLon;
 import org.openstreetmap.travelingsalesman.routing.IProgressListener;
+import org.openstreetmap.travelingsalesman.routing.IInstrumentedRouter;
 import org.openstreetmap.travelingsalesman.routing.IRouter;
+import org.openstreetmap.travelingsalesman.routing.IRoutingGraphRouter;
 import org.openstreetmap.travelingsalesman.routing.Route;
 import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraph;
+import org.openstreetmap.travelingsalesman.routing.RoutingStatistics;
 import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
 import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
 import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
@@ -70,7 +72,7 @@ import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
  * </ul>
  * @author <a href="mailto:Marcus@Wolschon.biz">Marcus Wolschon</a>
  */
-public class DijkstraRouter implements IRouter {
+public class DijkstraRouter implements IInstrumentedRouter, IRoutingGraphRouter {
 
     /**
      * The minimal progress that has to have been made
@@ -202,10 +204,19 @@ public class DijkstraRouter implements IRouter {
      */
     public Route route(final IDataSet aMap, final Node aTargetNode, final Node aStartNode, final IVehicle aSelector) {
 
+        RoutingStatistics statistics = new RoutingStatistics(getClass().getSimpleName());
+        myStatistics = statistics;
+        if (myRoutingGraph != null && myRoutingGraph.isFor(aMap, aSelector, myMetric)) {
+            // the graph may be shared and built without traffic-messages
+            LiveEdgeCosts costs = new LiveEdgeCosts(aMap, myRoutingGraph, myMetric, statistics);
+            return RoutingGraphDijkstra.route(myRoutingGraph, new long[] {aTargetNode.getId()}, aStartNode, costs, statistics);
+        }
+
         LOG.log(Level.INFO,  "DijkstraRouter starting...");
+        statistics.startPhase("search");
 
 
-        SortedSet<Node> nodesToVisit = new TreeSet<Node>(new NodeDistanceComparator(aMap, aTargetNode));
+        NodeQueue nodesToVisit = new NodeQueue(); // ordered by the best metric found so far
         Map<Long, Double> bestDistances = new HashMap<Long, Double>(); // nodeID->best Metric of a route from the startNode to this node so far
         Map<Long, RoutingStep> bestStepsTo = new HashMap<Long, RoutingStep>(); // routing-steps taken to reach whas is in bestDistances
         Set<Long> nodeIDsVisited = new HashSet<Long>();
@@ -216,21 +227,26 @@ public class DijkstraRouter implements IRouter {
         Collection<RoutingStep> nextSteps = getNextNodes(aMap, aTargetNode, aStartNode, nodeIDsVisited, aSelector);
         for (RoutingStep nextStep  : nextSteps) {
             bestStepsTo.put(nextStep.getEndNode().getId(), nextStep);
-            bestDistances.put(nextStep.getEndNode().getId(), calculateDistance(aMap, null, nextStep));
-            nodesToVisit.add(nextStep.getEndNode());
+            double distance = calculateDistance(aMap, null, nextStep);
+            bestDistances.put(nextStep.getEndNode().getId(), distance);
+            nodesToVisit.add(nextStep.getEndNode(), distance);
         }
 
         //------------------------------------------------------------------------
         // try to find better ways to each node in bestDistances
         while (!nodesToVisit.isEmpty()) {
-            Node currentNode = nodesToVisit.first();
-            nodesToVisit.remove(currentNode);
+            statistics.queueSize(nodesToVisit.size());
+            Node currentNode = nodesToVisit.poll();
             nodeIDsVisited.add(currentNode.getId());
+            statistics.nodeSettled();
 
             if (currentNode.getId() == aTargetNode.getId()) {
                 // return with shortest path
                 LOG.log(Level.INFO,  "DijkstraRouter found a shortest path, reconstructing path...");
-                return reconstructShortestPath(aMap, aTargetNode, aStartNode, bestStepsTo, bestDistances);
+                statistics.startPhase("reconstruct");
+                Route route = reconstructShortestPath(aMap, aTargetNode, aStartNode, bestStepsTo, bestDistances);
+                statistics.endPhase();
+                return route;
             }
             nextSteps = getNextNodes(aMap, aTargetNode, currentNode, nodeIDsVisited, aSelector);
             progressMade(currentNode, aTargetNode, aStartNode);
@@ -239,7 +255,7 @@ public class DijkstraRouter implements IRouter {
 
             for (RoutingStep nextStep  : nextSteps) {
                 Node nextNode = nextStep.getEndNode();
-                nodesToVisit.add(nextNode);
+                statistics.edgeRelaxed();
 
 //                assert (nextStep.getStartNode().getId() == currentNode.getId())
 //                    :  "Dijkstra: getNextNodes returned a stap that does not start where it should!!!\n"
@@ -259,6 +275,7 @@ public class DijkstraRouter implements IRouter {
 
                     bestDistances.put(nextNode.getId(), bestDistanceToCurrentNode + calculatedDistance);
                     bestStepsTo.put(nextNode.getId(), nextStep);
+                    nodesToVisit.add(nextNode, bestDistanceToCurrentNode + calculatedDistance);
                 }
 
             }
@@ -266,6 +283,7 @@ public class DijkstraRouter implements IRouter {
         }
 
 
+        statistics.endPhase();
         LOG.log(Level.INFO,  "DijkstraRouter found nothing");
 
         // no path found
@@ -353,6 +371,7 @@ public class DijkstraRouter implements IRouter {
         LinkedList<RoutingStep> retval = new LinkedList<RoutingStep>();
 
         try {
+            countFetch();
             Iterator<Way> waysForNode = aMap.getWaysForNode(aCurrentNode.getId());
             while (waysForNode.hasNext()) {
                 Way way = waysForNode.next();
@@ -365,12 +384,14 @@ public class DijkstraRouter implements IRouter {
                 int index = getNodeIndex(aCurrentNode, wayNodeList);
 
                 if (wayNodeList.size() > index + 1) {
+                    countFetch();
                     Node node = aMap.getNodeByID(wayNodeList.get(index + 1).getNodeId());
                     if (!forbiddenNodeIDs.contains(node.getId()) && aSelector.isAllowed(aMap, node))
                         retval.add(new RoutingStep(aMap, aCurrentNode, node, way));
                 }
 
                 if (index > 0 && !aSelector.isOneway(aMap, way)) {
+                    countFetch();
                     Node node = aMap.getNodeByID(wayNodeList.get(index - 1).getNodeId());
                     if (!forbiddenNodeIDs.contains(node.getId()) && aSelector.isAllowed(aMap, node))
                         retval.add(new RoutingStep(aMap, aCurrentNode, node, way));
@@ -414,4 +435,45 @@ public class DijkstraRouter implements IRouter {
         myMetric = aMetric;
     }
 
+    /**
+     * If set and built from the map we are asked to route on,
+     * we route on this snapshot instead of loading nodes and ways.
+     */
+    private RoutingGraph myRoutingGraph;
+
+    /**
+     * @return the snapshot we route on instead of the map (may be null)
+     */
+    public RoutingGraph getRoutingGraph() {
+        return myRoutingGraph;
+    }
+
+    /**
+     * @param aGraph a snapshot of the map to route on instead of the map itself (may be null).
+     *               It is only used if it was built for the class of the metric of this router.
+     */
+    public void setRoutingGraph(final RoutingGraph aGraph) {
+        myRoutingGraph = aGraph;
+    }
+
+    /**
+     * The statistics of the route-calculation running or last run.
+     */
+    private RoutingStatistics myStatistics;
+
+    /**
+     * {@inheritDoc}
+     */
+    public RoutingStatistics getLastStatistics() {
+        return myStatistics;
+    }
+
+    /**
+     * Count a call to the map in {@link #myStatistics}.
+     */
+    private void countFetch() {
+        if (myStatistics != null) {
+            myStatistics.dataSetFetch();
+        }
+    }
 }
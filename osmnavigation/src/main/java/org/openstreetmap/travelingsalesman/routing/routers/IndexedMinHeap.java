@@ -0,0 +1,301 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary min-heap of int-ids ordered by a double-key
+ * that supports decreasing the key of an id already queued.<br/>
+ * Unlike a TreeMap&lt;Double, ..&gt; ids with equal keys
+ * never collide and neither the ids nor the keys are boxed.<br/>
+ * The ids are expected to be small, dense, non-negative integers
+ * (e.g. node-indices), the internal arrays grow as needed.
+ */
+public final class IndexedMinHeap {
+
+    /**
+     * Value in {@link #myPositions} for ids not in the heap.
+     */
+    private static final int NOTQUEUED = -1;
+
+    /**
+     * Initial capacity if none is given.
+     */
+    private static final int DEFAULTCAPACITY = 16;
+
+    /**
+     * The ids in heap-order.
+     */
+    private int[] myHeap;
+
+    /**
+     * The keys in heap-order (myKeys[i] belongs to myHeap[i]).
+     */
+    private double[] myKeys;
+
+    /**
+     * id -> position in {@link #myHeap} or {@link #NOTQUEUED}.
+     */
+    private int[] myPositions;
+
+    /**
+     * The number of ids in the heap.
+     */
+    private int mySize = 0;
+
+    /**
+     * Create an empty heap.
+     */
+    public IndexedMinHeap() {
+        this(DEFAULTCAPACITY);
+    }
+
+    /**
+     * Create an empty heap.
+     * @param aCapacity the number of ids we expect
+     */
+    public IndexedMinHeap(final int aCapacity) {
+        int capacity = Math.max(1, aCapacity);
+        myHeap = new int[capacity];
+        myKeys = new double[capacity];
+        myPositions = new int[capacity];
+        Arrays.fill(myPositions, NOTQUEUED);
+    }
+
+    /**
+     * @return true if no id is queued
+     */
+    public boolean isEmpty() {
+        return mySize == 0;
+    }
+
+    /**
+     * @return the number of ids queued
+     */
+    public int size() {
+        return mySize;
+    }
+
+    /**
+     * @param aID the id to look for
+     * @return true if the id is queued
+     */
+    public boolean contains(final int aID) {
+        return aID >= 0 && aID < myPositions.length && myPositions[aID] != NOTQUEUED;
+    }
+
+    /**
+     * @param aID an id that is queued
+     * @return the key of the id
+     */
+    public double getKey(final int aID) {
+        if (!contains(aID)) {
+            throw new NoSuchElementException("id " + aID + " is not queued");
+        }
+        return myKeys[myPositions[aID]];
+    }
+
+    /**
+     * Add an id that is not yet queued.
+     * @param aID the id (not negative)
+     * @param aKey the key to order by
+     */
+    public void insert(final int aID, final double aKey) {
+        if (aID < 0) {
+            throw new IllegalArgumentException("negative id " + aID);
+        }
+        if (contains(aID)) {
+            throw new IllegalStateException("id " + aID + " is already queued");
+        }
+        ensureCapacity(aID);
+        myHeap[mySize] = aID;
+        myKeys[mySize] = aKey;
+        myPositions[aID] = mySize;
+        siftUp(mySize++);
+    }
+
+    /**
+     * Lower the key of an id that is queued.
+     * @param aID the id
+     * @param aKey the new key, not larger then the current one
+     */
+    public void decreaseKey(final int aID, final double aKey) {
+        if (!contains(aID)) {
+            throw new NoSuchElementException("id " + aID + " is not queued");
+        }
+        int pos = myPositions[aID];
+        if (aKey > myKeys[pos]) {
+            throw new IllegalArgumentException("key " + aKey + " is larger then the current key " + myKeys[pos]);
+        }
+        myKeys[pos] = aKey;
+        siftUp(pos);
+    }
+
+    /**
+     * Insert the id or lower it's key if it is queued
+     * with a larger key. A larger key is ignored.
+     * @param aID the id
+     * @param aKey the key
+     * @return true if the heap was changed
+     */
+    public boolean insertOrDecrease(final int aID, final double aKey) {
+        if (!contains(aID)) {
+            insert(aID, aKey);
+            return true;
+        }
+        int pos = myPositions[aID];
+        if (aKey < myKeys[pos]) {
+            myKeys[pos] = aKey;
+            siftUp(pos);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the id with the smallest key without removing it
+     */
+    public int peek() {
+        if (mySize == 0) {
+            throw new NoSuchElementException("heap is empty");
+        }
+        return myHeap[0];
+    }
+
+    /**
+     * @return the smallest key
+     */
+    public double peekKey() {
+        if (mySize == 0) {
+            throw new NoSuchElementException("heap is empty");
+        }
+        return myKeys[0];
+    }
+
+    /**
+     * Remove and return the id with the smallest key.
+     * @return the id
+     */
+    public int poll() {
+        int retval = peek();
+        myPositions[retval] = NOTQUEUED;
+        mySize--;
+        if (mySize > 0) {
+            myHeap[0] = myHeap[mySize];
+            myKeys[0] = myKeys[mySize];
+            myPositions[myHeap[0]] = 0;
+            siftDown(0);
+        }
+        return retval;
+    }
+
+    /**
+     * Remove all ids.
+     */
+    public void clear() {
+        for (int i = 0; i < mySize; i++) {
+            myPositions[myHeap[i]] = NOTQUEUED;
+        }
+        mySize = 0;
+    }
+
+    /**
+     * Make sure we can store the given id and one more entry.
+     * @param aID the id to store
+     */
+    private void ensureCapacity(final int aID) {
+        if (aID >= myPositions.length) {
+            int oldLength = myPositions.length;
+            myPositions = Arrays.copyOf(myPositions, Math.max(aID + 1, oldLength * 2));
+            Arrays.fill(myPositions, oldLength, myPositions.length, NOTQUEUED);
+        }
+        if (mySize == myHeap.length) {
+            myHeap = Arrays.copyOf(myHeap, mySize * 2);
+            myKeys = Arrays.copyOf(myKeys, mySize * 2);
+        }
+    }
+
+    /**
+     * Move the entry at the given position up until the heap-property holds.
+     * @param aPosition the position in the heap
+     */
+    private void siftUp(final int aPosition) {
+        int id = myHeap[aPosition];
+        double key = myKeys[aPosition];
+        int pos = aPosition;
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (myKeys[parent] <= key) {
+                break;
+            }
+            moveTo(parent, pos);
+            pos = parent;
+        }
+        myHeap[pos] = id;
+        myKeys[pos] = key;
+        myPositions[id] = pos;
+    }
+
+    /**
+     * Move the entry at the given position down until the heap-property holds.
+     * @param aPosition the position in the heap
+     */
+    private void siftDown(final int aPosition) {
+        int id = myHeap[aPosition];
+        double key = myKeys[aPosition];
+        int pos = aPosition;
+        int half = mySize >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            if (child + 1 < mySize && myKeys[child + 1] < myKeys[child]) {
+                child++;
+            }
+            if (key <= myKeys[child]) {
+                break;
+            }
+            moveTo(child, pos);
+            pos = child;
+        }
+        myHeap[pos] = id;
+        myKeys[pos] = key;
+        myPositions[id] = pos;
+    }
+
+    /**
+     * Copy the entry at one position to another.
+     * @param aFrom the position to copy from
+     * @param aTo the position to copy to
+     */
+    private void moveTo(final int aFrom, final int aTo) {
+        myHeap[aTo] = myHeap[aFrom];
+        myKeys[aTo] = myKeys[aFrom];
+        myPositions[myHeap[aTo]] = aTo;
+    }
+}
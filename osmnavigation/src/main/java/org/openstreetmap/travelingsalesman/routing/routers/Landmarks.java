@@ -0,0 +1,333 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.travelingsalesman.routing.RoutingGraph;
+
+/**
+ * The landmark-table of the {@link ALTRouter}.<br/>
+ * For a few landmark-nodes we know the cost of the cheapest path from
+ * the landmark to every node and from every node to the landmark.
+ * By the triangle-inequality this gives a lower bound of the cost
+ * between any 2 nodes that is much tighter then the straight-line distance
+ * and that is valid for any metric, not only for metrics in meters.<br/>
+ * Landmarks are chosen by farthest-point selection: each new landmark is the
+ * node that is farthest from all landmarks chosen so far.
+ */
+public final class Landmarks {
+
+    /**
+     * my logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(Landmarks.class.getName());
+
+    /**
+     * Magic number at the start of our files ("OSML").
+     */
+    private static final int FILEMAGIC = 0x4F534D4C;
+
+    /**
+     * Version of our file-format.
+     */
+    private static final int FILEVERSION = 1;
+
+    /**
+     * The node-indices of the landmarks in the {@link RoutingGraph}.
+     */
+    private final int[] myLandmarks;
+
+    /**
+     * [landmark][node] cost from the landmark to the node
+     * (infinite if unreachable).
+     */
+    private final float[][] myFromLandmark;
+
+    /**
+     * [landmark][node] cost from the node to the landmark
+     * (infinite if unreachable).
+     */
+    private final float[][] myToLandmark;
+
+    /**
+     * @param aLandmarks the node-indices of the landmarks
+     * @param aFromLandmark [landmark][node] cost from the landmark to the node
+     * @param aToLandmark [landmark][node] cost from the node to the landmark
+     */
+    private Landmarks(final int[] aLandmarks, final float[][] aFromLandmark, final float[][] aToLandmark) {
+        this.myLandmarks = aLandmarks;
+        this.myFromLandmark = aFromLandmark;
+        this.myToLandmark = aToLandmark;
+    }
+
+    /**
+     * @return the number of landmarks
+     */
+    public int getLandmarkCount() {
+        return myLandmarks.length;
+    }
+
+    /**
+     * @param aLandmark 0..{@link #getLandmarkCount()}-1
+     * @return the node-index of the landmark in the graph
+     */
+    public int getLandmark(final int aLandmark) {
+        return myLandmarks[aLandmark];
+    }
+
+    /**
+     * @return the number of nodes the table was calculated for
+     */
+    public int getNodeCount() {
+        if (myLandmarks.length == 0) {
+            return 0;
+        }
+        return myFromLandmark[0].length;
+    }
+
+    /**
+     * A lower bound of the cost of the cheapest path.
+     * @param aFrom node-index to start at
+     * @param aTo node-index to reach
+     * @return the lower bound (0 if nothing is known)
+     */
+    public double getLowerBound(final int aFrom, final int aTo) {
+        double retval = 0;
+        for (int i = 0; i < myLandmarks.length; i++) {
+            // d(L, to) - d(L, from) <= d(from, to)
+            float[] from = myFromLandmark[i];
+            if (from[aTo] != Float.POSITIVE_INFINITY && from[aFrom] != Float.POSITIVE_INFINITY) {
+                retval = Math.max(retval, from[aTo] - from[aFrom]);
+            }
+            // d(from, L) - d(to, L) <= d(from, to)
+            float[] to = myToLandmark[i];
+            if (to[aFrom] != Float.POSITIVE_INFINITY && to[aTo] != Float.POSITIVE_INFINITY) {
+                retval = Math.max(retval, to[aFrom] - to[aTo]);
+            }
+        }
+        return retval;
+    }
+
+    //--------------------------------------------------------------- preprocessing
+
+    /**
+     * Choose landmarks by farthest-point selection and calculate
+     * the cost to and from all of them.
+     * @param aGraph the road-network
+     * @param aCount the number of landmarks to choose
+     * @return the landmarks
+     */
+    public static Landmarks select(final RoutingGraph aGraph, final int aCount) {
+        long startTime = System.currentTimeMillis();
+        int nodeCount = aGraph.getNodeCount();
+        int count = Math.min(aCount, nodeCount);
+        int[] landmarks = new int[count];
+        float[][] fromLandmark = new float[count][];
+        float[][] toLandmark = new float[count][];
+
+        // the minimum cost from any chosen landmark to each node
+        float[] nearest = new float[nodeCount];
+        Arrays.fill(nearest, Float.POSITIVE_INFINITY);
+        // start with the node farthest from an arbitrary node
+        int next = farthest(dijkstra(aGraph, 0, true), null);
+        for (int i = 0; i < count; i++) {
+            landmarks[i] = next;
+            fromLandmark[i] = dijkstra(aGraph, next, true);
+            toLandmark[i] = dijkstra(aGraph, next, false);
+            for (int node = 0; node < nodeCount; node++) {
+                nearest[node] = Math.min(nearest[node], Math.min(fromLandmark[i][node], toLandmark[i][node]));
+            }
+            next = farthest(nearest, landmarks);
+        }
+        LOG.log(Level.INFO, "selected " + count + " landmarks for " + nodeCount + " nodes in "
+                + (System.currentTimeMillis() - startTime) + "ms");
+        return new Landmarks(landmarks, fromLandmark, toLandmark);
+    }
+
+    /**
+     * @param aCosts cost per node
+     * @param aExcluded (may be null) nodes not to return
+     * @return the node with the highest finite cost (or the first
+     *         node not excluded if there is none)
+     */
+    private static int farthest(final float[] aCosts, final int[] aExcluded) {
+        int retval = -1;
+        for (int node = 0; node < aCosts.length; node++) {
+            if (aCosts[node] == Float.POSITIVE_INFINITY && retval >= 0) {
+                continue;
+            }
+            if (aExcluded != null && contains(aExcluded, node)) {
+                continue;
+            }
+            if (retval < 0 || aCosts[retval] == Float.POSITIVE_INFINITY || aCosts[node] > aCosts[retval]) {
+                retval = node;
+            }
+        }
+        return Math.max(retval, 0);
+    }
+
+    /**
+     * @param aValues the values to search
+     * @param aValue the value to look for
+     * @return true if aValue is in aValues
+     */
+    private static boolean contains(final int[] aValues, final int aValue) {
+        for (int value : aValues) {
+            if (value == aValue) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A complete Dijkstra-search.
+     * @param aGraph the road-network
+     * @param aStart the node to start at
+     * @param aForward true to follow outgoing edges (cost from aStart),
+     *                 false to follow incoming edges (cost to aStart)
+     * @return the cost per node (infinite if unreachable)
+     */
+    private static float[] dijkstra(final RoutingGraph aGraph, final int aStart, final boolean aForward) {
+        int nodeCount = aGraph.getNodeCount();
+        double[] dist = new double[nodeCount];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        IndexedMinHeap queue = new IndexedMinHeap(nodeCount);
+        if (nodeCount > 0) {
+            dist[aStart] = 0;
+            queue.insert(aStart, 0);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            int first = aForward ? aGraph.getFirstEdge(node) : aGraph.getFirstIncoming(node);
+            int last = aForward ? aGraph.getFirstEdge(node + 1) : aGraph.getFirstIncoming(node + 1);
+            for (int i = first; i < last; i++) {
+                int edge = aForward ? i : aGraph.getIncomingEdge(i);
+                int next = aForward ? aGraph.getEdgeTarget(edge) : aGraph.getEdgeSource(edge);
+                double cost = dist[node] + aGraph.getEdgeCost(edge);
+                if (cost < dist[next]) {
+                    dist[next] = cost;
+                    queue.insertOrDecrease(next, cost);
+                }
+            }
+        }
+        float[] retval = new float[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            // round down so the bounds stay lower bounds
+            float value = (float) dist[i];
+            if (value > dist[i]) {
+                value = Math.nextAfter(value, Double.NEGATIVE_INFINITY);
+            }
+            retval[i] = value;
+        }
+        return retval;
+    }
+
+    //--------------------------------------------------------------- persistence
+
+    /**
+     * Store the landmarks.
+     * @param aFile the file to write
+     * @param aFingerprint a value identifying the map-data the landmarks were calculated from
+     * @throws IOException if we cannot write
+     */
+    public void writeTo(final File aFile, final long aFingerprint) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(aFile)));
+        try {
+            out.writeInt(FILEMAGIC);
+            out.writeInt(FILEVERSION);
+            out.writeLong(aFingerprint);
+            out.writeInt(getNodeCount());
+            out.writeInt(myLandmarks.length);
+            for (int i = 0; i < myLandmarks.length; i++) {
+                out.writeInt(myLandmarks[i]);
+                for (float cost : myFromLandmark[i]) {
+                    out.writeFloat(cost);
+                }
+                for (float cost : myToLandmark[i]) {
+                    out.writeFloat(cost);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read landmarks written by {@link #writeTo(File, long)}.
+     * @param aFile the file to read
+     * @param aFingerprint the fingerprint of the current map-data
+     * @param aNodeCount the number of nodes in the current graph
+     * @return the landmarks or null if the file does not exist, has an unknown format
+     *         or was calculated for different map-data.
+     * @throws IOException if we cannot read
+     */
+    public static Landmarks readFrom(final File aFile, final long aFingerprint, final int aNodeCount) throws IOException {
+        if (!aFile.exists()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(aFile)));
+        try {
+            if (in.readInt() != FILEMAGIC || in.readInt() != FILEVERSION) {
+                LOG.log(Level.INFO, "ignoring landmarks of unknown format in " + aFile.getAbsolutePath());
+                return null;
+            }
+            if (in.readLong() != aFingerprint || in.readInt() != aNodeCount) {
+                LOG.log(Level.INFO, "ignoring outdated landmarks in " + aFile.getAbsolutePath());
+                return null;
+            }
+            int count = in.readInt();
+            int[] landmarks = new int[count];
+            float[][] fromLandmark = new float[count][aNodeCount];
+            float[][] toLandmark = new float[count][aNodeCount];
+            for (int i = 0; i < count; i++) {
+                landmarks[i] = in.readInt();
+                for (int node = 0; node < aNodeCount; node++) {
+                    fromLandmark[i][node] = in.readFloat();
+                }
+                for (int node = 0; node < aNodeCount; node++) {
+                    toLandmark[i][node] = in.readFloat();
+                }
+            }
+            return new Landmarks(landmarks, fromLandmark, toLandmark);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraph;
+import org.openstreetmap.travelingsalesman.routing.RoutingStatistics;
+import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
+import org.openstreetmap.travelingsalesman.routing.metrics.StaticFastestRouteMetric;
+import org.openstreetmap.travelingsalesman.trafficblocks.TrafficMessage;
+import org.openstreetmap.travelingsalesman.trafficblocks.TrafficMessageStore;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Entity;
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+
+/**
+ * The current costs of the edges of a {@link RoutingGraph} during one query.<br/>
+ * Graphs that are shared or kept for long are built with the base-cost
+ * of the roads (see {@link #getBaseMetric(IRoutingMetric)}), ignoring
+ * all traffic-messages. The cost of every edge touched by a current
+ * {@link TrafficMessage} is asked from the live metric again when the
+ * search first relaxes it, all other edges keep their base-cost.
+ * So a road is back at its base-cost as soon as its
+ * traffic-message expired.<br/>
+ * Instances are not thread-safe, create one per query.
+ */
+public final class LiveEdgeCosts {
+
+    /**
+     * A live cost this much smaller then the base-cost
+     * makes data derived from the base-costs outdated.
+     */
+    private static final double COSTTOLERANCE = 1e-4;
+
+    /**
+     * The map we route on.
+     */
+    private final IDataSet myMap;
+
+    /**
+     * The road-network.
+     */
+    private final RoutingGraph myGraph;
+
+    /**
+     * The live metric.
+     */
+    private final IRoutingMetric myMetric;
+
+    /**
+     * (may be null) where to count what we do.
+     */
+    private final RoutingStatistics myStatistics;
+
+    /**
+     * IDs of all ways touched by traffic-messages.
+     */
+    private final Set<Long> myAffectedWays = new HashSet<Long>();
+
+    /**
+     * IDs of all nodes touched by traffic-messages.
+     */
+    private final Set<Long> myAffectedNodes = new HashSet<Long>();
+
+    /**
+     * The current costs of edges touched by traffic-messages.
+     */
+    private final Map<Integer, Double> myLiveCosts = new HashMap<Integer, Double>();
+
+    /**
+     * Set if an edge got cheaper then its base-cost.
+     */
+    private boolean myOutdated;
+
+    /**
+     * Remember all ways and nodes whose cost may have changed
+     * since the graph was built.
+     * @param aMap the map we route on
+     * @param aGraph the road-network built with the base-costs
+     * @param aMetric the live metric
+     * @param aStatistics (may be null) where to count what we do
+     */
+    public LiveEdgeCosts(final IDataSet aMap, final RoutingGraph aGraph, final IRoutingMetric aMetric,
+                         final RoutingStatistics aStatistics) {
+        this.myMap = aMap;
+        this.myGraph = aGraph;
+        this.myMetric = aMetric;
+        this.myStatistics = aStatistics;
+        if (!(aMetric instanceof StaticFastestRouteMetric)
+                || !((StaticFastestRouteMetric) aMetric).isUsingTrafficMessages()) {
+            return;
+        }
+        Collection<TrafficMessage> messages = TrafficMessageStore.getInstance().getAllMessages(aMap);
+        if (messages == null) {
+            return;
+        }
+        for (TrafficMessage message : messages) {
+            Entity entity = message.getEntity();
+            if (entity instanceof Way) {
+                myAffectedWays.add(entity.getId());
+            } else if (entity instanceof Node) {
+                myAffectedNodes.add(entity.getId());
+            }
+        }
+    }
+
+    /**
+     * @param aMetric the live metric
+     * @return the metric to build a graph with that is shared or kept for long.
+     *         It ignores all traffic-messages.
+     */
+    public static IRoutingMetric getBaseMetric(final IRoutingMetric aMetric) {
+        if (aMetric instanceof StaticFastestRouteMetric) {
+            StaticFastestRouteMetric base = new StaticFastestRouteMetric();
+            base.setUsingTrafficMessages(false);
+            return base;
+        }
+        return aMetric;
+    }
+
+    /**
+     * @return true if an edge got cheaper then its base-cost,
+     *         thus lower bounds derived from the base-costs may be wrong.
+     */
+    public boolean isOutdated() {
+        return myOutdated;
+    }
+
+    /**
+     * @param aEdge an edge-index
+     * @return the current cost of the edge, the base-cost
+     *         unless it is touched by a traffic-message
+     */
+    public double getCost(final int aEdge) {
+        float baseCost = myGraph.getEdgeCost(aEdge);
+        if (myAffectedWays.isEmpty() && myAffectedNodes.isEmpty()) {
+            return baseCost;
+        }
+        long wayID = myGraph.getEdgeWayID(aEdge);
+        long sourceID = myGraph.getNodeID(myGraph.getEdgeSource(aEdge));
+        long targetID = myGraph.getNodeID(myGraph.getEdgeTarget(aEdge));
+        if (!myAffectedWays.contains(wayID)
+                && !myAffectedNodes.contains(sourceID)
+                && !myAffectedNodes.contains(targetID)) {
+            return baseCost;
+        }
+        Double known = myLiveCosts.get(aEdge);
+        if (known != null) {
+            return known.doubleValue();
+        }
+        double cost = baseCost;
+        Way way = myMap.getWaysByID(wayID);
+        Node source = myMap.getNodeByID(sourceID);
+        Node target = myMap.getNodeByID(targetID);
+        if (myStatistics != null) {
+            myStatistics.dataSetFetch();
+            myStatistics.dataSetFetch();
+            myStatistics.dataSetFetch();
+        }
+        if (way != null && source != null && target != null) {
+            myMetric.setMap(myMap);
+            cost = myMetric.getCost(new RoutingStep(myMap, source, target, way));
+            if (cost < baseCost - COSTTOLERANCE * (1 + baseCost)) {
+                myOutdated = true;
+            }
+        }
+        myLiveCosts.put(aEdge, cost);
+        return cost;
+    }
+}
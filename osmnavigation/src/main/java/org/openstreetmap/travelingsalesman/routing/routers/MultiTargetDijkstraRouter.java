@@ -35,8 +35,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,9 +42,13 @@ import org.openstreetmap.osm.ConfigurationSection;
 import org.openstreetmap.osm.data.IDataSet;
 import org.openstreetmap.osm.data.coordinates.LatLon;
 import org.openstreetmap.travelingsalesman.routing.IProgressListener;
+import org.openstreetmap.travelingsalesman.routing.IInstrumentedRouter;
 import org.openstreetmap.travelingsalesman.routing.IRouter;
+import org.openstreetmap.travelingsalesman.routing.IRoutingGraphRouter;
 import org.openstreetmap.travelingsalesman.routing.Route;
 import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraph;
+import org.openstreetmap.travelingsalesman.routing.RoutingStatistics;
 import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
 import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
 import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
@@ -68,7 +70,7 @@ import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
  * </ul>
  * @author <a href="mailto:Marcus@Wolschon.biz">Marcus Wolschon</a>
  */
-public class MultiTargetDijkstraRouter implements IRouter {
+public class MultiTargetDijkstraRouter implements IInstrumentedRouter, IRoutingGraphRouter {
 
     /**
      * The minimal progress that has to have been made
@@ -216,10 +218,24 @@ public class MultiTargetDijkstraRouter implements IRouter {
      */
     public Route route(final IDataSet aMap, final Collection<Node> aTargetNodes, final Node aStartingPoint, final IVehicle aSelector) {
 
+        RoutingStatistics statistics = new RoutingStatistics(getClass().getSimpleName());
+        myStatistics = statistics;
+        if (myRoutingGraph != null && myRoutingGraph.isFor(aMap, aSelector, myMetric)) {
+            long[] targetNodeIDs = new long[aTargetNodes.size()];
+            int i = 0;
+            for (Node node : aTargetNodes) {
+                targetNodeIDs[i++] = node.getId();
+            }
+            // the graph may be shared and built without traffic-messages
+            LiveEdgeCosts costs = new LiveEdgeCosts(aMap, myRoutingGraph, myMetric, statistics);
+            return RoutingGraphDijkstra.route(myRoutingGraph, targetNodeIDs, aStartingPoint, costs, statistics);
+        }
+
         LOG.log(Level.INFO,  "MultiTargetDijkstraRouter starting...");
+        statistics.startPhase("search");
 
 
-        SortedSet<Node> nodesToVisit = new TreeSet<Node>(new NodeDistanceComparator(aMap, /*TODO getMetric(),*/ aStartingPoint));
+        NodeQueue nodesToVisit = new NodeQueue(); // ordered by the best metric found so far
         Map<Long, Double> bestDistancesFrom = new HashMap<Long, Double>(); // nodeID->best Metric of a route to the targetNodes from this node so far
         Map<Long, RoutingStep> bestStepsFrom = new HashMap<Long, RoutingStep>(); // routing-steps taken to reach what is in bestDistances
         Set<Long> nodeIDsVisited = new HashSet<Long>();
@@ -232,23 +248,32 @@ public class MultiTargetDijkstraRouter implements IRouter {
         for (Node target : aTargetNodes) {
             Collection<RoutingStep> nextSteps = getNextNodes(aMap, aStartingPoint, target, nodeIDsVisited, aSelector);
             for (RoutingStep nextStep  : nextSteps) {
+                double distance = calculateDistance(aMap, null, nextStep);
+                Double known = bestDistancesFrom.get(nextStep.getStartNode().getId());
+                if (known != null && known <= distance) {
+                    continue; // reachable cheaper from another target
+                }
                 bestStepsFrom.put(nextStep.getStartNode().getId(), nextStep);
-                bestDistancesFrom.put(nextStep.getStartNode().getId(), calculateDistance(aMap, null, nextStep));
-                nodesToVisit.add(nextStep.getStartNode());
+                bestDistancesFrom.put(nextStep.getStartNode().getId(), distance);
+                nodesToVisit.add(nextStep.getStartNode(), distance);
             }
         }
 
         //------------------------------------------------------------------------
         // try to find better ways to each node in bestDistances
         while (!nodesToVisit.isEmpty()) {
-            Node currentNode = nodesToVisit.first();
-            nodesToVisit.remove(currentNode);
+            statistics.queueSize(nodesToVisit.size());
+            Node currentNode = nodesToVisit.poll();
             nodeIDsVisited.add(currentNode.getId());
+            statistics.nodeSettled();
 
             if (currentNode.getId() == aStartingPoint.getId()) {
                 // return with shortest path
                 LOG.log(Level.INFO,  "MultiTargetDijkstraRouter found a shortest path, reconstructing path...");
-                return reconstructShortestPath(aMap, aTargetNodes, aStartingPoint, bestStepsFrom, bestDistancesFrom);
+                statistics.startPhase("reconstruct");
+                Route route = reconstructShortestPath(aMap, aTargetNodes, aStartingPoint, bestStepsFrom, bestDistancesFrom);
+                statistics.endPhase();
+                return route;
             }
             Collection<RoutingStep> nextSteps = getNextNodes(aMap, aStartingPoint, currentNode, nodeIDsVisited, aSelector);
             progressMade(currentNode, aTargetNodes, aStartingPoint);
@@ -257,7 +282,7 @@ public class MultiTargetDijkstraRouter implements IRouter {
 
             for (RoutingStep nextStep  : nextSteps) {
                 Node nextNode = nextStep.getStartNode();
-                nodesToVisit.add(nextNode);
+                statistics.edgeRelaxed();
 
                 assert (nextStep.getEndNode().getId() == currentNode.getId())
                     :  "Dijkstra: getNextNodes returned a step that does not end where it should!!!\n"
@@ -277,6 +302,7 @@ public class MultiTargetDijkstraRouter implements IRouter {
 
                     bestDistancesFrom.put(nextNode.getId(), bestDistanceFromCurrentNode + calculatedDistance);
                     bestStepsFrom.put(nextNode.getId(), nextStep);
+                    nodesToVisit.add(nextNode, bestDistanceFromCurrentNode + calculatedDistance);
                 }
 
             }
@@ -284,6 +310,7 @@ public class MultiTargetDijkstraRouter implements IRouter {
         }
 
 
+        statistics.endPhase();
         LOG.log(Level.INFO,  "MultiTargetDijkstraRouter found nothing");
 
         // no path found
@@ -377,6 +404,7 @@ public class MultiTargetDijkstraRouter implements IRouter {
         LinkedList<RoutingStep> retval = new LinkedList<RoutingStep>();
 
         try {
+            countFetch();
             Iterator<Way> waysForNode = aMap.getWaysForNode(aCurrentNode.getId());
             while (waysForNode != null && waysForNode.hasNext()) {
                 Way way = waysForNode.next();
@@ -392,6 +420,7 @@ public class MultiTargetDijkstraRouter implements IRouter {
                     // one step ahead in the list of wayNodes
                     if (wayNodeList.size() > index + 1 && !aSelector.isOneway(aMap, way)) {
                         long nodeID = wayNodeList.get(index + 1).getNodeId();
+                        countFetch();
                         Node node = aMap.getNodeByID(nodeID);
                         if (node == null) {
                             LOG.log(Level.SEVERE, "could not load node with ID=" + nodeID);
@@ -405,6 +434,7 @@ public class MultiTargetDijkstraRouter implements IRouter {
                                 && wayNodeList.get(0).getNodeId() == wayNodeList.get(wayNodeList.size() - 1).getNodeId()
                                 && !aSelector.isOneway(aMap, way)) {
                         long nodeID = wayNodeList.get(1).getNodeId();
+                        countFetch();
                         Node node = aMap.getNodeByID(nodeID);
                         if (node == null) {
                             LOG.log(Level.SEVERE, "could not load node with ID=" + nodeID);
@@ -417,6 +447,7 @@ public class MultiTargetDijkstraRouter implements IRouter {
                     index = getLastNodeIndex(aCurrentNode, wayNodeList);
                     if (index > 0 && !aSelector.isReverseOneway(aMap, way)) {
                         long nodeId = wayNodeList.get(index - 1).getNodeId();
+                        countFetch();
                         Node node = aMap.getNodeByID(nodeId);
                         if (node == null) {
                             LOG.log(Level.SEVERE, "Could not load node with ID=" + nodeId
@@ -493,4 +524,45 @@ public class MultiTargetDijkstraRouter implements IRouter {
         myMetric = aMetric;
     }
 
+    /**
+     * If set and built from the map we are asked to route on,
+     * we route on this snapshot instead of loading nodes and ways.
+     */
+    private RoutingGraph myRoutingGraph;
+
+    /**
+     * @return the snapshot we route on instead of the map (may be null)
+     */
+    public RoutingGraph getRoutingGraph() {
+        return myRoutingGraph;
+    }
+
+    /**
+     * @param aGraph a snapshot of the map to route on instead of the map itself (may be null).
+     *               It is only used if it was built for the class of the metric of this router.
+     */
+    public void setRoutingGraph(final RoutingGraph aGraph) {
+        myRoutingGraph = aGraph;
+    }
+
+    /**
+     * The statistics of the route-calculation running or last run.
+     */
+    private RoutingStatistics myStatistics;
+
+    /**
+     * {@inheritDoc}
+     */
+    public RoutingStatistics getLastStatistics() {
+        return myStatistics;
+    }
+
+    /**
+     * Count a call to the map in {@link #myStatistics}.
+     */
+    private void countFetch() {
+        if (myStatistics != null) {
+            myStatistics.dataSetFetch();
+        }
+    }
 }
@@ -0,0 +1,175 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.util.Arrays;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+
+/**
+ * The frontier of the Dijkstra-routers.<br/>
+ * A priority-queue of {@link Node}s ordered by their tentative cost
+ * that supports lowering the cost of a queued node.
+ * Node-IDs are mapped to dense indices via an open-addressing
+ * hash-table so the {@link IndexedMinHeap} works on primitives.
+ */
+final class NodeQueue {
+
+    /**
+     * Value in {@link #myIndexTable} for an empty slot.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * Initial size of the hash-table (a power of 2).
+     */
+    private static final int INITIALTABLESIZE = 256;
+
+    /**
+     * The heap of node-indices.
+     */
+    private final IndexedMinHeap myHeap = new IndexedMinHeap();
+
+    /**
+     * Open-addressing table of node-IDs (parallel to {@link #myIndexTable}).
+     */
+    private long[] myIDTable = new long[INITIALTABLESIZE];
+
+    /**
+     * Open-addressing table of node-indices or {@link #EMPTY}.
+     */
+    private int[] myIndexTable = new int[INITIALTABLESIZE];
+
+    /**
+     * node-index -> node.
+     */
+    private Node[] myNodes = new Node[INITIALTABLESIZE];
+
+    /**
+     * The number of node-indices handed out.
+     */
+    private int myNodeCount = 0;
+
+    /**
+     * Create an empty queue.
+     */
+    NodeQueue() {
+        Arrays.fill(myIndexTable, EMPTY);
+    }
+
+    /**
+     * @return true if no node is queued
+     */
+    public boolean isEmpty() {
+        return myHeap.isEmpty();
+    }
+
+    /**
+     * @return the number of nodes queued
+     */
+    public int size() {
+        return myHeap.size();
+    }
+
+    /**
+     * Queue the node or lower it's cost if it is
+     * already queued with a higher cost.
+     * @param aNode the node
+     * @param aCost the tentative cost to reach it
+     */
+    public void add(final Node aNode, final double aCost) {
+        myHeap.insertOrDecrease(getIndex(aNode), aCost);
+    }
+
+    /**
+     * Remove and return the node with the lowest cost.
+     * @return the node
+     */
+    public Node poll() {
+        return myNodes[myHeap.poll()];
+    }
+
+    /**
+     * @param aNode the node to look for
+     * @return the dense index of the node (assigned on first use)
+     */
+    private int getIndex(final Node aNode) {
+        long id = aNode.getId();
+        int mask = myIndexTable.length - 1;
+        int slot = hash(id) & mask;
+        while (myIndexTable[slot] != EMPTY) {
+            if (myIDTable[slot] == id) {
+                return myIndexTable[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        int index = myNodeCount++;
+        myIDTable[slot] = id;
+        myIndexTable[slot] = index;
+        if (index == myNodes.length) {
+            myNodes = Arrays.copyOf(myNodes, index * 2);
+        }
+        myNodes[index] = aNode;
+        if (myNodeCount * 2 > myIndexTable.length) {
+            rehash();
+        }
+        return index;
+    }
+
+    /**
+     * Double the size of the hash-table.
+     */
+    private void rehash() {
+        long[] oldIDs = myIDTable;
+        int[] oldIndices = myIndexTable;
+        myIDTable = new long[oldIDs.length * 2];
+        myIndexTable = new int[oldIndices.length * 2];
+        Arrays.fill(myIndexTable, EMPTY);
+        int mask = myIndexTable.length - 1;
+        for (int i = 0; i < oldIndices.length; i++) {
+            if (oldIndices[i] == EMPTY) {
+                continue;
+            }
+            int slot = hash(oldIDs[i]) & mask;
+            while (myIndexTable[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            myIDTable[slot] = oldIDs[i];
+            myIndexTable[slot] = oldIndices[i];
+        }
+    }
+
+    /**
+     * @param aID a node-id
+     * @return a well mixed hash of it
+     */
+    private static int hash(final long aID) {
+        long h = aID * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraph;
+import org.openstreetmap.travelingsalesman.routing.RoutingStatistics;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+
+/**
+ * A plain Dijkstra-search on a {@link RoutingGraph}.<br/>
+ * Used by the routers that can run on a routing-graph
+ * instead of the map itself.
+ */
+public final class RoutingGraphDijkstra {
+
+    /**
+     * my logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(RoutingGraphDijkstra.class.getName());
+
+    /**
+     * Utility-class.
+     */
+    private RoutingGraphDijkstra() {
+    }
+
+    /**
+     * Route from the start-node to the nearest of the target-nodes.
+     * @param aGraph the graph to search
+     * @param aTargetNodeIDs the OSM-IDs of the nodes to reach one of
+     * @param aStartNode where we start
+     * @return the route or null if no target can be reached
+     */
+    public static Route route(final RoutingGraph aGraph, final long[] aTargetNodeIDs, final Node aStartNode) {
+        return route(aGraph, aTargetNodeIDs, aStartNode, null);
+    }
+
+    /**
+     * Route from the start-node to the nearest of the target-nodes.
+     * @param aGraph the graph to search
+     * @param aTargetNodeIDs the OSM-IDs of the nodes to reach one of
+     * @param aStartNode where we start
+     * @param aStatistics (may be null) where to count what we do
+     * @return the route or null if no target can be reached
+     */
+    public static Route route(final RoutingGraph aGraph, final long[] aTargetNodeIDs, final Node aStartNode,
+                              final RoutingStatistics aStatistics) {
+        return route(aGraph, aTargetNodeIDs, aStartNode, null, aStatistics);
+    }
+
+    /**
+     * Route from the start-node to the nearest of the target-nodes.
+     * @param aGraph the graph to search
+     * @param aTargetNodeIDs the OSM-IDs of the nodes to reach one of
+     * @param aStartNode where we start
+     * @param aCosts (may be null) the current costs of the edges, null for the costs stored in the graph
+     * @param aStatistics (may be null) where to count what we do
+     * @return the route or null if no target can be reached
+     */
+    public static Route route(final RoutingGraph aGraph, final long[] aTargetNodeIDs, final Node aStartNode,
+                              final LiveEdgeCosts aCosts, final RoutingStatistics aStatistics) {
+        int start = aGraph.getNodeIndex(aStartNode.getId());
+        if (start < 0) {
+            LOG.log(Level.INFO, "start-node " + aStartNode.getId() + " is not on any road we may use");
+            return null;
+        }
+        int[] targets = new int[aTargetNodeIDs.length];
+        int count = 0;
+        for (long targetNodeID : aTargetNodeIDs) {
+            int target = aGraph.getNodeIndex(targetNodeID);
+            if (target >= 0) {
+                targets[count++] = target;
+            }
+        }
+        if (count == 0) {
+            LOG.log(Level.INFO, "target is not on any road we may use");
+            return null;
+        }
+        if (aStatistics != null) {
+            aStatistics.startPhase("search");
+        }
+        int[] path = findPath(aGraph, start, Arrays.copyOf(targets, count), aCosts, aStatistics);
+        if (path == null) {
+            if (aStatistics != null) {
+                aStatistics.endPhase();
+            }
+            return null;
+        }
+        if (aStatistics != null) {
+            aStatistics.startPhase("reconstruct");
+        }
+        Route route = aGraph.toRoute(path, aStartNode);
+        if (aStatistics != null) {
+            aStatistics.endPhase();
+        }
+        return route;
+    }
+
+    /**
+     * Find the cheapest path from the start to the nearest of the targets.
+     * @param aGraph the graph to search
+     * @param aStart the node-index to start at
+     * @param aTargets the node-indices to reach one of
+     * @return the edges of the path in the order they are traveled or null if no target can be reached
+     */
+    public static int[] findPath(final RoutingGraph aGraph, final int aStart, final int[] aTargets) {
+        return findPath(aGraph, aStart, aTargets, null);
+    }
+
+    /**
+     * Find the cheapest path from the start to the nearest of the targets.
+     * @param aGraph the graph to search
+     * @param aStart the node-index to start at
+     * @param aTargets the node-indices to reach one of
+     * @param aStatistics (may be null) where to count what we do
+     * @return the edges of the path in the order they are traveled or null if no target can be reached
+     */
+    public static int[] findPath(final RoutingGraph aGraph, final int aStart, final int[] aTargets,
+                                 final RoutingStatistics aStatistics) {
+        return findPath(aGraph, aStart, aTargets, null, aStatistics);
+    }
+
+    /**
+     * Find the cheapest path from the start to the nearest of the targets.
+     * @param aGraph the graph to search
+     * @param aStart the node-index to start at
+     * @param aTargets the node-indices to reach one of
+     * @param aCosts (may be null) the current costs of the edges, null for the costs stored in the graph
+     * @param aStatistics (may be null) where to count what we do
+     * @return the edges of the path in the order they are traveled or null if no target can be reached
+     */
+    public static int[] findPath(final RoutingGraph aGraph, final int aStart, final int[] aTargets,
+                                 final LiveEdgeCosts aCosts, final RoutingStatistics aStatistics) {
+        int nodeCount = aGraph.getNodeCount();
+        double[] bestDistances = new double[nodeCount];
+        Arrays.fill(bestDistances, Double.POSITIVE_INFINITY);
+        int[] bestEdges = new int[nodeCount];
+        IndexedMinHeap queue = new IndexedMinHeap(nodeCount);
+        int[] targets = Arrays.copyOf(aTargets, aTargets.length);
+        Arrays.sort(targets);
+
+        bestDistances[aStart] = 0;
+        queue.insert(aStart, 0);
+        long settled = 0;
+        long relaxed = 0;
+        int queuePeak = 0;
+        int[] retval = null;
+        while (!queue.isEmpty()) {
+            queuePeak = Math.max(queuePeak, queue.size());
+            int node = queue.poll();
+            settled++;
+            if (Arrays.binarySearch(targets, node) >= 0) {
+                retval = reconstructPath(aGraph, aStart, node, bestEdges);
+                break;
+            }
+            for (int edge = aGraph.getFirstEdge(node); edge < aGraph.getFirstEdge(node + 1); edge++) {
+                relaxed++;
+                int next = aGraph.getEdgeTarget(edge);
+                double cost = bestDistances[node] + (aCosts == null ? aGraph.getEdgeCost(edge) : aCosts.getCost(edge));
+                if (cost < bestDistances[next]) {
+                    bestDistances[next] = cost;
+                    bestEdges[next] = edge;
+                    queue.insertOrDecrease(next, cost);
+                }
+            }
+        }
+        if (aStatistics != null) {
+            aStatistics.nodesSettled(settled);
+            aStatistics.edgesRelaxed(relaxed);
+            aStatistics.queueSize(queuePeak);
+        }
+        return retval;
+    }
+
+    /**
+     * @param aGraph the graph we searched
+     * @param aStart where we started
+     * @param aTarget the target we reached
+     * @param aBestEdges the edge used to reach each node
+     * @return the edges from start to target
+     */
+    private static int[] reconstructPath(final RoutingGraph aGraph, final int aStart, final int aTarget,
+                                         final int[] aBestEdges) {
+        int count = 0;
+        for (int node = aTarget; node != aStart; node = aGraph.getEdgeSource(aBestEdges[node])) {
+            count++;
+        }
+        int[] retval = new int[count];
+        for (int node = aTarget; node != aStart; node = aGraph.getEdgeSource(retval[count])) {
+            retval[--count] = aBestEdges[node];
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+
+/**
+ * The per-step state of {@link TurnRestrictedAStar}.<br/>
+ * Every {@link RoutingStep} is identified by the packed key
+ * (start-node-id, way-id, end-node-id) and mapped to a dense
+ * int-index via an open-addressing hash-table. All state
+ * (best metric, best next step, visited) is kept in arrays
+ * by that index, so a relaxation does not build or hash any
+ * Strings and boxes nothing.
+ */
+final class StepIndex {
+
+    /**
+     * Value in {@link #myTableIndices} for an empty slot
+     * and returned by {@link #findIndex(RoutingStep)} for unknown steps.
+     */
+    public static final int NOTFOUND = -1;
+
+    /**
+     * Initial size of the hash-table (a power of 2).
+     */
+    private static final int INITIALTABLESIZE = 1024;
+
+    /**
+     * Hash-table: start-node-IDs of the keys.
+     */
+    private long[] myTableStarts = new long[INITIALTABLESIZE];
+
+    /**
+     * Hash-table: way-IDs of the keys.
+     */
+    private long[] myTableWays = new long[INITIALTABLESIZE];
+
+    /**
+     * Hash-table: end-node-IDs of the keys.
+     */
+    private long[] myTableEnds = new long[INITIALTABLESIZE];
+
+    /**
+     * Hash-table: step-index or {@link #NOTFOUND}.
+     */
+    private int[] myTableIndices = new int[INITIALTABLESIZE];
+
+    /**
+     * index -> the step.
+     */
+    private RoutingStep[] mySteps = new RoutingStep[INITIALTABLESIZE];
+
+    /**
+     * index -> best metric found so far or NaN.
+     */
+    private double[] myBestDistances = new double[INITIALTABLESIZE];
+
+    /**
+     * index -> the step taken after this one on the best route found so far.
+     */
+    private RoutingStep[] myBestSteps = new RoutingStep[INITIALTABLESIZE];
+
+    /**
+     * All indices of steps that have been visited.
+     */
+    private final BitSet myVisited = new BitSet();
+
+    /**
+     * The number of indices handed out.
+     */
+    private int mySize = 0;
+
+    /**
+     * Create an empty index.
+     */
+    StepIndex() {
+        Arrays.fill(myTableIndices, NOTFOUND);
+    }
+
+    /**
+     * @return the number of steps known
+     */
+    public int size() {
+        return mySize;
+    }
+
+    /**
+     * Get the index of a step, assigning a new one
+     * if the step is not yet known.
+     * @param aStep the step
+     * @return the index
+     */
+    public int getIndex(final RoutingStep aStep) {
+        long start = aStep.getStartNode().getId();
+        long way = aStep.getWay().getId();
+        long end = aStep.getEndNode().getId();
+        int mask = myTableIndices.length - 1;
+        int slot = hash(start, way, end) & mask;
+        while (myTableIndices[slot] != NOTFOUND) {
+            if (myTableStarts[slot] == start && myTableWays[slot] == way && myTableEnds[slot] == end) {
+                return myTableIndices[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        int index = mySize++;
+        myTableStarts[slot] = start;
+        myTableWays[slot] = way;
+        myTableEnds[slot] = end;
+        myTableIndices[slot] = index;
+        if (index == mySteps.length) {
+            int length = index * 2;
+            mySteps = Arrays.copyOf(mySteps, length);
+            myBestSteps = Arrays.copyOf(myBestSteps, length);
+            myBestDistances = Arrays.copyOf(myBestDistances, length);
+        }
+        mySteps[index] = aStep;
+        myBestDistances[index] = Double.NaN;
+        if (mySize * 2 > myTableIndices.length) {
+            rehash();
+        }
+        return index;
+    }
+
+    /**
+     * @param aStep the step
+     * @return the index of the step or {@link #NOTFOUND}
+     */
+    public int findIndex(final RoutingStep aStep) {
+        long start = aStep.getStartNode().getId();
+        long way = aStep.getWay().getId();
+        long end = aStep.getEndNode().getId();
+        int mask = myTableIndices.length - 1;
+        int slot = hash(start, way, end) & mask;
+        while (myTableIndices[slot] != NOTFOUND) {
+            if (myTableStarts[slot] == start && myTableWays[slot] == way && myTableEnds[slot] == end) {
+                return myTableIndices[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NOTFOUND;
+    }
+
+    /**
+     * @param aIndex the index of a step
+     * @return the step
+     */
+    public RoutingStep getStep(final int aIndex) {
+        return mySteps[aIndex];
+    }
+
+    /**
+     * @param aIndex the index of a step
+     * @return true if a best metric has been set
+     */
+    public boolean hasBestDistance(final int aIndex) {
+        return !Double.isNaN(myBestDistances[aIndex]);
+    }
+
+    /**
+     * @param aIndex the index of a step
+     * @return the best metric found so far or NaN
+     */
+    public double getBestDistance(final int aIndex) {
+        return myBestDistances[aIndex];
+    }
+
+    /**
+     * @param aIndex the index of a step
+     * @return the step taken after this one on the best route found so far
+     */
+    public RoutingStep getBestStep(final int aIndex) {
+        return myBestSteps[aIndex];
+    }
+
+    /**
+     * Record a better route for a step.
+     * @param aIndex the index of a step
+     * @param aDistance the best metric found so far
+     * @param aBestStep the step taken after this one on that route
+     */
+    public void setBest(final int aIndex, final double aDistance, final RoutingStep aBestStep) {
+        myBestDistances[aIndex] = aDistance;
+        myBestSteps[aIndex] = aBestStep;
+    }
+
+    /**
+     * @param aIndex the index of a step
+     * @return true if the step has been visited
+     */
+    public boolean isVisited(final int aIndex) {
+        return myVisited.get(aIndex);
+    }
+
+    /**
+     * @param aStep the step
+     * @return true if the step is known and has been visited
+     */
+    public boolean isVisited(final RoutingStep aStep) {
+        int index = findIndex(aStep);
+        return index != NOTFOUND && myVisited.get(index);
+    }
+
+    /**
+     * @param aIndex the index of a step to mark as visited
+     */
+    public void setVisited(final int aIndex) {
+        myVisited.set(aIndex);
+    }
+
+    /**
+     * Double the size of the hash-table.
+     */
+    private void rehash() {
+        long[] oldStarts = myTableStarts;
+        long[] oldWays = myTableWays;
+        long[] oldEnds = myTableEnds;
+        int[] oldIndices = myTableIndices;
+        int length = oldIndices.length * 2;
+        myTableStarts = new long[length];
+        myTableWays = new long[length];
+        myTableEnds = new long[length];
+        myTableIndices = new int[length];
+        Arrays.fill(myTableIndices, NOTFOUND);
+        int mask = length - 1;
+        for (int i = 0; i < oldIndices.length; i++) {
+            if (oldIndices[i] == NOTFOUND) {
+                continue;
+            }
+            int slot = hash(oldStarts[i], oldWays[i], oldEnds[i]) & mask;
+            while (myTableIndices[slot] != NOTFOUND) {
+                slot = (slot + 1) & mask;
+            }
+            myTableStarts[slot] = oldStarts[i];
+            myTableWays[slot] = oldWays[i];
+            myTableEnds[slot] = oldEnds[i];
+            myTableIndices[slot] = oldIndices[i];
+        }
+    }
+
+    /**
+     * @param aStart the start-node-id
+     * @param aWay the way-id
+     * @param aEnd the end-node-id
+     * @return a well mixed hash of the key
+     */
+    private static int hash(final long aStart, final long aWay, final long aEnd) {
+        long h = aStart * 0x9E3779B97F4A7C15L;
+        h = (h ^ aWay) * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ aEnd) * 0x165667B19E3779F9L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
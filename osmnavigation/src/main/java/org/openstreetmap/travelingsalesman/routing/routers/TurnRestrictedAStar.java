@@ -30,16 +30,11 @@ package org.openstreetmap.travelingsalesman.routing.routers;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.NavigableMap;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,9 +44,11 @@ import org.openstreetmap.osm.data.WayHelper;
 import org.openstreetmap.osm.data.coordinates.LatLon;
 import org.openstreetmap.osm.data.osmbin.v1_0.ExtendedWay;
 import org.openstreetmap.travelingsalesman.routing.IProgressListener;
+import org.openstreetmap.travelingsalesman.routing.IInstrumentedRouter;
 import org.openstreetmap.travelingsalesman.routing.IRouter;
 import org.openstreetmap.travelingsalesman.routing.Route;
 import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.RoutingStatistics;
 import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
 import org.openstreetmap.travelingsalesman.routing.metrics.IRoutingMetric;
 import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
@@ -82,7 +79,7 @@ import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
  * </ul>
  * @author <a href="mailto:Marcus@Wolschon.biz">Marcus Wolschon</a>
  */
-public class TurnRestrictedAStar implements IRouter {
+public class TurnRestrictedAStar implements IInstrumentedRouter {
 
     /**
      * Compare 2 routing-steps for sorting.
@@ -101,26 +98,20 @@ public class TurnRestrictedAStar implements IRouter {
          */
         private final Node                myStartingPoint;
         /**
-         * getStepKey(RoutingStep) -> summed cost to get to its endNode.
+         * The steps with the summed cost to get to their endNode.
          */
-        private final Map<String, Double> myBestDistancesFrom;
-        /**
-         * myBestStepsFrom
-         */
-        private final Map<String, RoutingStep> myBestStepsFrom;
+        private final StepIndex mySteps;
         /**
          * @param aTargetNodes The target-nodes where our routing starts.
          * @param aStartingPoint The start-node where our routing ends.
-         * @param aBestDistancesFrom getStepKey(RoutingStep) -> summed cost to get to its endNode
+         * @param aSteps the steps with the summed cost to get to their endNode
          */
         private AStarComparator(final Collection<Node> aTargetNodes,
                 final Node aStartingPoint,
-                final Map<String, Double> aBestDistancesFrom,
-                final Map<String, RoutingStep> aBestStepsFrom) {
+                final StepIndex aSteps) {
             myTargetNodes = aTargetNodes;
             myStartingPoint = aStartingPoint;
-            myBestDistancesFrom = aBestDistancesFrom;
-            myBestStepsFrom = aBestStepsFrom;
+            mySteps = aSteps;
         }
 
         /**
@@ -164,12 +155,11 @@ public class TurnRestrictedAStar implements IRouter {
             if (aStep == null) {
                 return 0;
             }
-            Double double1 = myBestDistancesFrom.get(getStepKey(aStep));
-            if (double1 == null) {
+            int index = mySteps.findIndex(aStep);
+            if (index == StepIndex.NOTFOUND || !mySteps.hasBestDistance(index)) {
                 return 0;
             }
-            double bestDistanceFromCurrentNode = double1;
-            return bestDistanceFromCurrentNode;
+            return mySteps.getBestDistance(index);
         }
 
         /**
@@ -180,7 +170,6 @@ public class TurnRestrictedAStar implements IRouter {
             if (aStep == null) {
                 return Double.MAX_VALUE;
             }
-            if (myBestStepsFrom.get(aStep) != null) LOG.log(Level.INFO,myBestStepsFrom.get(aStep).toString());
             double before = getSummedMetricTo(aStep);
 //            double before = 0;
             double beforeEstimated = getSummedHeuristic(aStep);
@@ -375,74 +364,71 @@ public class TurnRestrictedAStar implements IRouter {
      */
     public Route route(final IDataSet aMap, final Collection<Node> aTargetNodes, final Node aStartingPoint, final IVehicle aSelector) {
 
-        LOG.log(Level.INFO,  "===================================================");
-        LOG.log(Level.INFO,  "===================================================");
         LOG.log(Level.INFO,  "TurnRestrictedMultiTargetDijkstraRouter starting...");
+        RoutingStatistics statistics = new RoutingStatistics(getClass().getSimpleName());
+        myStatistics = statistics;
+        statistics.startPhase("search");
 
-        final Map<String, Double> bestDistancesFrom = new HashMap<String, Double>();       // Step-Key->best Metric of a route to the targetNodes from this node so far
-        Map<String, RoutingStep> bestStepsFrom = new HashMap<String, RoutingStep>(); // last routing-step taken to reach what is in bestDistancesFrom
-        Set<String> stepKeysVisited = new HashSet<String>();
+        // step-index->best Metric of a route to the targetNodes from this step so far,
+        // last routing-step taken to reach that and if the step was visited
+        final StepIndex steps = new StepIndex();
 
-        AStarComparator comparator = new AStarComparator(aTargetNodes, aStartingPoint, bestDistancesFrom, bestStepsFrom);
-        NavigableMap<Double, RoutingStep> stepsToVisit = new TreeMap<Double, RoutingStep>();
-//        ArrayList<RoutingStep> stepsToVisit = new ArrayList<RoutingStep>();
+        AStarComparator comparator = new AStarComparator(aTargetNodes, aStartingPoint, steps);
+        IndexedMinHeap stepsToVisit = new IndexedMinHeap(); // step-index -> getComparedValue(step)
 
         //------------------------------------------------------------------------
         // add all target-nodes reachable from the single dummy target-node (multi-target -routing)
         // to bestDistances using dummy RoutingSteps
         for (Node target : aTargetNodes) {
             Way dummyway = DUMMYWAY;
-            Collection<RoutingStep> nextSteps = getNextNodes(aMap, aStartingPoint, new RoutingStep(aMap, target, DUMMYTARGETNODE, dummyway), stepKeysVisited, aSelector);
+            Collection<RoutingStep> nextSteps = getNextNodes(aMap, aStartingPoint, new RoutingStep(aMap, target, DUMMYTARGETNODE, dummyway), steps, aSelector);
             for (RoutingStep nextStep  : nextSteps) {
-                String stepKey = getStepKey(nextStep);
-                if (stepKeysVisited.contains(stepKey)) {
+                int stepIndex = steps.getIndex(nextStep);
+                if (steps.isVisited(stepIndex)) {
                     throw new IllegalStateException("getNextNodes returned a step we already evaluated");
                 }
-                bestStepsFrom.put(stepKey, nextStep);
-                bestDistancesFrom.put(stepKey, (double) (nextStep.distanceInMeters()));
-//                bestDistancesFrom.put(stepKey, calculateDistance(aMap, null, nextStep));
-                stepsToVisit.put(comparator.getComparedValue(nextStep), nextStep);
+                steps.setBest(stepIndex, nextStep.distanceInMeters(), nextStep);
+//                steps.setBest(stepIndex, calculateDistance(aMap, null, nextStep), nextStep);
+                stepsToVisit.insertOrDecrease(stepIndex, comparator.getComparedValue(nextStep));
             }
         }
 
         //------------------------------------------------------------------------
         // try to find better ways to each RoutingStep in bestDistances from the target
         while (!stepsToVisit.isEmpty()) {
-            final Entry<Double, RoutingStep> currentEntry = stepsToVisit.pollFirstEntry();
-            RoutingStep currentStep = currentEntry.getValue();
-            // see if the SortedSet did indeed return the lowest-cost element
-            currentStep = checkSorting(comparator, stepsToVisit, currentStep);
+            statistics.queueSize(stepsToVisit.size());
+            final int currentIndex = stepsToVisit.poll();
+            RoutingStep currentStep = steps.getStep(currentIndex);
 
             Node currentStepNode = currentStep.getStartNode();
-            assert !stepsToVisit.containsValue(currentStep);
-            if (stepKeysVisited.contains(getStepKey(currentStep))) {
+            assert !stepsToVisit.contains(currentIndex);
+            if (steps.isVisited(currentIndex)) {
                 LOG.warning("Implementation error. stepsToVisit contains an already visited step");
                 continue;
             }
-            stepKeysVisited.add(getStepKey(currentStep));
-            LOG.log(Level.INFO,  "=================================================== We are at: "
-                    + getStepKey(currentStep)
-                    + " (best distance of this step to the start-nodes was "
-                    + currentEntry.getKey() + " )");
-            LOG.info("Forbidding further evaluation of " + getStepKey(currentStep) + " #stepsToVisit=" + stepsToVisit.size() + " =" + stepKeysVisited.hashCode());
+            steps.setVisited(currentIndex);
+            statistics.nodeSettled();
             if (currentStepNode.getId() == aStartingPoint.getId()) {
                 // return with shortest path
                 LOG.log(Level.INFO,  "found a shortest path, reconstructing path...");
-                return reconstructShortestPath(aMap, aTargetNodes, currentStep, bestStepsFrom, bestDistancesFrom);
+                statistics.startPhase("reconstruct");
+                Route route = reconstructShortestPath(aMap, aTargetNodes, currentStep, steps);
+                statistics.endPhase();
+                return route;
             }
-            Collection<RoutingStep> nextSteps = getNextNodes(aMap, aStartingPoint, currentStep, stepKeysVisited, aSelector);
+            Collection<RoutingStep> nextSteps = getNextNodes(aMap, aStartingPoint, currentStep, steps, aSelector);
             progressMade(currentStepNode, aTargetNodes, aStartingPoint);
 
-            double bestDistanceFromCurrentNode = bestDistancesFrom.get(getStepKey(currentStep));
+            double bestDistanceFromCurrentNode = steps.getBestDistance(currentIndex);
 
             for (RoutingStep nextStep  : nextSteps) {
                 Node nextNode = nextStep.getStartNode();
-                if (stepKeysVisited.contains(getStepKey(nextStep))) {
+                int nextIndex = steps.getIndex(nextStep);
+                if (steps.isVisited(nextIndex)) {
                     assert false;
                     continue;
                 }
-
-                LOG.info("Evaluating step from node " + nextNode.getId() + " via way " + nextStep.getWay().getId() + " to node " + nextStep.getEndNode().getId());
+                statistics.edgeRelaxed();
 
                 assert (nextStep.getEndNode().getId() == currentStepNode.getId())
                     :  "Dijkstra: getNextNodes returned a step that does not end where it should!!!\n"
@@ -456,111 +442,36 @@ public class TurnRestrictedAStar implements IRouter {
                             + "does start at: " + nextStep.getStartNode().getId() + "\n";
 
                 double calculatedDistance = calculateDistance(aMap, currentStep, nextStep);
-                boolean alreadyVisited = bestDistancesFrom.containsKey(getStepKey(nextStep));
-                if (!alreadyVisited
-                    || bestDistancesFrom.get(getStepKey(nextStep)) > bestDistanceFromCurrentNode + calculatedDistance) {
-
-                    LOG.info("Best distance from node " + nextNode.getId()
-                            + " is via way " + nextStep.getWay().getId()
-                            + " to node " + currentStepNode.getId());
-                    bestDistancesFrom.put(getStepKey(nextStep), bestDistanceFromCurrentNode + calculatedDistance);
-                    bestStepsFrom.put(getStepKey(nextStep), currentStep);
-
-                    if (alreadyVisited) {
-                        // this happens very seldomly andd taked 8% of the time in a city
-                        LOG.log(Level.FINE, "resorting stepsToVisit, length=" + stepsToVisit.size());
-                        NavigableMap<Double, RoutingStep> temp = new TreeMap<Double, RoutingStep>();
-                        for (RoutingStep next : stepsToVisit.values()) {
-                            temp.put(comparator.getComparedValue(next), next);
-                        }
-                        stepsToVisit = temp;
-                    }
-                }
+                if (!steps.hasBestDistance(nextIndex)
+                    || steps.getBestDistance(nextIndex) > bestDistanceFromCurrentNode + calculatedDistance) {
+                    steps.setBest(nextIndex, bestDistanceFromCurrentNode + calculatedDistance, currentStep);
 
-                // this must happen after bestDistancesFrom is filled
-                stepsToVisit.put(comparator.getComparedValue(nextStep), nextStep);
+                    // this must happen after the best distance is set,
+                    // a step already queued only has it's key lowered
+                    stepsToVisit.insertOrDecrease(nextIndex, comparator.getComparedValue(nextStep));
+                }
             }
 
         }
 
 
+        statistics.endPhase();
         LOG.log(Level.INFO,  "TurnRestrictedMultiTargetDijkstraRouter found nothing");
 
         // no path found
         return null;
     }
 
-    /**
-     * Check that currentStep is indeed the lowest cost element of stepsToVisit.
-     * Unless assertions are enabled or debuging this method does nothing
-     * @param comparator used to evaluate the sorting
-     * @param stepsToVisit all elements
-     * @param currentStep the presumed lowest cost element
-     * @return the lowest cost element
-     */
-    private RoutingStep checkSorting(final AStarComparator comparator,
-                                     final NavigableMap<Double, RoutingStep> stepsToVisit,
-                                     final RoutingStep currentStep) {
-//          check if first is indeed the optimal choice
-//            RoutingStep best = null;
-//            Double      bestKey = null;
-//            double bestMetric = Double.MAX_VALUE;
-//            Iterator<Entry<Double, RoutingStep>> iterator = stepsToVisit.entrySet().iterator();
-//            while (iterator.hasNext()) {
-//                Entry<Double, RoutingStep> entry = iterator.next();
-//                RoutingStep next = entry.getValue();
-//                double metric = comparator.getComparedValue(next);
-//                if (metric != entry.getKey()) {
-//                    LOG.warning("Metric has changed from " + entry.getKey() + " to " + metric);
-//                }
-//                if (metric < bestMetric) {
-//                    best = next;
-//                    bestKey = entry.getKey();
-//                    bestMetric = metric;
-//                }
-//            }
-////                currentStep = best;
-//            double currentMetric = comparator.getComparedValue(currentStep);
-//            if (currentStep != best && currentMetric > bestMetric) {
-//                LOG.warning("Implementation error. next step is not optimal (" + currentMetric + " vs " + bestMetric + ")");
-//                stepsToVisit.put(currentMetric, currentStep);
-//                currentStep = best;
-//                if (stepsToVisit.remove(bestKey) == null) {
-//                    LOG.severe("Implementation error. stepsToVisit.remove failed");
-//                    //our unstable comparator may break remove()
-////                    iterator = stepsToVisit.iterator();
-////                    while (iterator.hasNext()) {
-////                        RoutingStep next = iterator.next();
-////                        if (getStepKey(next).equals(getStepKey(currentStep))) {
-////                            iterator.remove();
-////                        }
-////                    }
-//                }
-//            }
-            return currentStep;
-    }
-
-    /**
-     * @param currentStep the step to get the key for
-     * @return a unique key for this step.
-     */
-    private String getStepKey(final RoutingStep currentStep) {
-        return currentStep.getStartNode().getId()
-             + "-" + currentStep.getWay().getId()
-             + "-" + currentStep.getEndNode().getId();
-    }
-
     /**
      * Construct the route with the best metric given the steps.
      * @param aMap the map (needed for the {@link Route}-class)
      * @param aTargetNodes where we are going (any of these points is fine)
      * @param aStartingStep where we started
-     * @param bestStepsFrom the best last-step indexed by the stepKey of the step we come from
-     * @param aBestDistances - for debugging only
+     * @param aSteps the best last-step of each step we come from
      * @return the route
      */
     private Route reconstructShortestPath(final IDataSet aMap, final Collection<Node> aTargetNodes, final RoutingStep aStartingStep,
-                                          final Map<String, RoutingStep> bestStepsFrom, final Map<String, Double> aBestDistances) {
+                                          final StepIndex aSteps) {
         List<RoutingStep> steps = new LinkedList<RoutingStep>();
         RoutingStep currentStep = aStartingStep;
         RoutingStep lastStep = currentStep;
@@ -571,7 +482,7 @@ public class TurnRestrictedAStar implements IRouter {
         }
 
         while (!targetNodeIDs.contains(currentStep.getEndNode().getId())) {
-            RoutingStep bestStep = bestStepsFrom.get(getStepKey(currentStep));
+            RoutingStep bestStep = aSteps.getBestStep(aSteps.findIndex(currentStep));
 
             if (bestStep.getStartNode().getId() != currentStep.getEndNode().getId()) {
                 throw new  IllegalStateException("I TurnRestrictedMultiPathDijkstra's bestStep we have a step that does not start where it should!!\n"
@@ -592,8 +503,8 @@ public class TurnRestrictedAStar implements IRouter {
                 assert !(lastStep.getStartNode().getId() == bestStep.getEndNode().getId()
                          && lastStep.getEndNode().getId() == bestStep.getStartNode().getId())
                          :   "Found a loop in MultiPathDijkstra!!\n"
-                           + "Node: " + lastStep.getStartNode().getId() + " road-dist-to-target=" + aBestDistances.get(lastStep.getStartNode().getId()) + "\n"
-                           + "Node: " + bestStep.getStartNode().getId() + " road-dist-to-target=" + aBestDistances.get(bestStep.getStartNode().getId()) + "\n"
+                           + "Node: " + lastStep.getStartNode().getId() + " road-dist-to-target=" + aSteps.getBestDistance(aSteps.findIndex(lastStep)) + "\n"
+                           + "Node: " + bestStep.getStartNode().getId() + " road-dist-to-target=" + aSteps.getBestDistance(aSteps.findIndex(bestStep)) + "\n"
                            + "current Step: " + bestStep.getStartNode().getId() + " -> " + bestStep.getEndNode().getId() + " (walking best-steps from target to start)\n"
                            + "last    Step: " + lastStep.getStartNode().getId() + " -> " + lastStep.getEndNode().getId() + " (walking best-steps from target to start)\n";
 //                //DEBUG---------------
@@ -631,17 +542,18 @@ public class TurnRestrictedAStar implements IRouter {
     /**
      * @param aStartingPointToReach the {@link Node} we want to reach
      * @param aCurrentStep where we are (startNode) and have gone to (toNode)
-     * @param forbiddenStepKeys the {@link RoutingStep}s we already stepped on
+     * @param aSteps the {@link RoutingStep}s we already stepped on are marked visited here
      * @param aMap the map to route in
      * @param aSelector the selector giving us the way that are allowed
      * @return an iterator giving all segments of a node (maybe ordered)
      */
     protected Collection<RoutingStep> getNextNodes(final IDataSet aMap, final Node aStartingPointToReach, final RoutingStep aCurrentStep,
-                                                   final Set<String> forbiddenStepKeys, final IVehicle aSelector) {
+                                                   final StepIndex aSteps, final IVehicle aSelector) {
         // we use a map StepKey->Step to be sure we have no step in here 2 times
         Set<RoutingStep> retval = new HashSet<RoutingStep>();
 
         try {
+            countFetch();
             Iterator<Way> waysForNode = aMap.getWaysForNode(aCurrentStep.getStartNode().getId());
             while (waysForNode != null && waysForNode.hasNext()) {
                 Way way = waysForNode.next();
@@ -666,6 +578,7 @@ public class TurnRestrictedAStar implements IRouter {
                     // one step ahead in the list of wayNodes
                     if (wayNodeList.size() > index + 1 && !aSelector.isOneway(aMap, way)) {
                         long nodeID = wayNodeList.get(index + 1).getNodeId();
+                        countFetch();
                         Node node = aMap.getNodeByID(nodeID);
                         if (node == null) {
                             LOG.log(Level.SEVERE, "could not load node with ID=" + nodeID);
@@ -675,8 +588,7 @@ public class TurnRestrictedAStar implements IRouter {
                             continue;
                         }
                         RoutingStep step = new RoutingStep(aMap, node, aCurrentStep.getStartNode(), way);
-                        if ((!forbiddenStepKeys.contains(getStepKey(step))) && aSelector.isAllowed(aMap, node)) {
-                            LOG.info("Scheduling step ahead from node " + node.getId() + " via way " + way.getId() + " to " + aCurrentStep.getStartNode().getId());
+                        if ((!aSteps.isVisited(step)) && aSelector.isAllowed(aMap, node)) {
                             retval.add(step); // we are going FROM node TO aCurrentNode!
                         }
                     } else // turn around a roundabout
@@ -685,20 +597,22 @@ public class TurnRestrictedAStar implements IRouter {
                                 && wayNodeList.get(0).getNodeId() == wayNodeList.get(wayNodeList.size() - 1).getNodeId()
                                 && !aSelector.isOneway(aMap, way)) {
                         long nodeID = wayNodeList.get(1).getNodeId();
+                        countFetch();
                         Node node = aMap.getNodeByID(nodeID);
                         if (node == null) {
                             LOG.log(Level.SEVERE, "could not load node with ID=" + nodeID);
                             continue;
                         }
                         RoutingStep step = new RoutingStep(aMap, node, aCurrentStep.getStartNode(), way);
-                        if ((!forbiddenStepKeys.contains(getStepKey(step))) && aSelector.isAllowed(aMap, node))
-                            LOG.info("Scheduling step around from node " + node.getId() + " via way " + way.getId() + " to " + aCurrentStep.getStartNode().getId());
+                        if ((!aSteps.isVisited(step)) && aSelector.isAllowed(aMap, node)) {
                             retval.add(step); // we are going FROM node TO aCurrentNode!
+                        }
                     }
                     // one step back in the list of wayNodes
                     index = getLastNodeIndex(aCurrentStep.getStartNode(), wayNodeList);
                     if (index > 0 && !aSelector.isReverseOneway(aMap, way)) {
                         long nodeId = wayNodeList.get(index - 1).getNodeId();
+                        countFetch();
                         Node node = aMap.getNodeByID(nodeId);
                         if (node == null) {
                             LOG.log(Level.SEVERE, "Could not load node with ID=" + nodeId
@@ -709,9 +623,7 @@ public class TurnRestrictedAStar implements IRouter {
                             continue;
                         }
                         RoutingStep step = new RoutingStep(aMap, node, aCurrentStep.getStartNode(), way);
-                        if ((!forbiddenStepKeys.contains(getStepKey(step))) && aSelector.isAllowed(aMap, node)) {
-                            LOG.info("Scheduling step back from node " + node.getId() + " via way " + way.getId() + " to " + aCurrentStep.getStartNode().getId()
-                                    + " (stepkey=" + getStepKey(step) + ") forbiddenStepKeys=" + forbiddenStepKeys.hashCode());
+                        if ((!aSteps.isVisited(step)) && aSelector.isAllowed(aMap, node)) {
                             retval.add(step); // we are going FROM node TO aCurrentNode!
                         }
                     }
@@ -749,13 +661,13 @@ public class TurnRestrictedAStar implements IRouter {
             for (Relation relation : aTurnRestrictionsFrom) {
                 String type = WayHelper.getTag(relation.getTags(), "restriction");
                 if (type == null) {
-                    LOG.info("incomplete turn-restriction " + relation.getId() + " as no restriction-attribute");
+                    LOG.fine("incomplete turn-restriction " + relation.getId() + " as no restriction-attribute");
                     continue;
                 }
                 type = type.toLowerCase();
                 boolean only = type.startsWith("only");
                 if (!only && !type.startsWith("no")) {
-                    LOG.info("illegal turn-restriction " + relation.getId() + " has type `"
+                    LOG.fine("illegal turn-restriction " + relation.getId() + " has type `"
                             + type + "` that does not start with only or no");
                     continue;
                 }
@@ -807,6 +719,7 @@ public class TurnRestrictedAStar implements IRouter {
         ExtendedWay way = (ExtendedWay) aFromWay;
         Set<Long> referencedRelationIDs = way.getReferencedRelationIDs();
         for (Long relID : referencedRelationIDs) {
+            countFetch();
             Relation relation = aMap.getRelationByID(relID);
             if (relation == null) {
                 continue;
@@ -908,4 +821,24 @@ public class TurnRestrictedAStar implements IRouter {
         myMetric = aMetric;
     }
 
+    /**
+     * The statistics of the route-calculation running or last run.
+     */
+    private RoutingStatistics myStatistics;
+
+    /**
+     * {@inheritDoc}
+     */
+    public RoutingStatistics getLastStatistics() {
+        return myStatistics;
+    }
+
+    /**
+     * Count a call to the map in {@link #myStatistics}.
+     */
+    private void countFetch() {
+        if (myStatistics != null) {
+            myStatistics.dataSetFetch();
+        }
+    }
 }
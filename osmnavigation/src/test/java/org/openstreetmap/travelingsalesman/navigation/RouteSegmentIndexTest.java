@@ -0,0 +1,182 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.navigation;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.openstreetmap.osm.data.MemoryDataSet;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+/**
+ * Test the {@link RouteSegmentIndex} against checking all segments
+ * of a winding route.
+ */
+public class RouteSegmentIndexTest extends TestCase {
+
+    /**
+     * Number of nodes on the route.
+     */
+    private static final int NODECOUNT = 500;
+
+    /**
+     * Number of nodes of a routing-step.
+     */
+    private static final int STEPLENGTH = 7;
+
+    /**
+     * How many random positions to match.
+     */
+    private static final int POSITIONCOUNT = 1000;
+
+    /**
+     * The nodes of the route in order.
+     */
+    private List<Node> myNodes;
+
+    /**
+     * The route we test with.
+     */
+    private Route myRoute;
+
+    /**
+     * Build a random walk as a route.
+     * @throws Exception may throw anything and fail.
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        MemoryDataSet map = new MemoryDataSet();
+        Random random = new Random(1);
+        myNodes = new ArrayList<Node>();
+        double lat = 0;
+        double lon = 0;
+        Way way = new Way(1, 0, new Date(), null, 0);
+        for (int i = 0; i < NODECOUNT; i++) {
+            Node node = new Node(i + 1, 0, new Date(), null, 0, lat, lon);
+            map.addNode(node);
+            myNodes.add(node);
+            way.getWayNodes().add(new WayNode(node.getId()));
+            lat += (random.nextDouble() - 0.5) * 0.002;
+            lon += (random.nextDouble() - 0.3) * 0.002;
+        }
+        map.addWay(way);
+        List<RoutingStep> steps = new ArrayList<RoutingStep>();
+        for (int i = 0; i < NODECOUNT - 1; i += STEPLENGTH - 1) {
+            int end = Math.min(i + STEPLENGTH - 1, NODECOUNT - 1);
+            steps.add(new RoutingStep(map, myNodes.get(i), myNodes.get(end), way));
+        }
+        myRoute = new Route(map, steps, myNodes.get(0));
+    }
+
+    /**
+     * @param aLat latitude of the position
+     * @param aLon longitude of the position
+     * @return the squared distance to the nearest segment of the route
+     */
+    private double getNearestDistance(final double aLat, final double aLon) {
+        double retval = Double.MAX_VALUE;
+        for (int i = 0; i < myNodes.size() - 1; i++) {
+            Node a = myNodes.get(i);
+            Node b = myNodes.get(i + 1);
+            double dLat = b.getLatitude() - a.getLatitude();
+            double dLon = b.getLongitude() - a.getLongitude();
+            double t = ((aLat - a.getLatitude()) * dLat + (aLon - a.getLongitude()) * dLon)
+                     / (dLat * dLat + dLon * dLon);
+            t = Math.max(0, Math.min(1, t));
+            double lat = a.getLatitude() + t * dLat - aLat;
+            double lon = a.getLongitude() + t * dLon - aLon;
+            retval = Math.min(retval, lat * lat + lon * lon);
+        }
+        return retval;
+    }
+
+    /**
+     * The index must find the same distance as checking all segments.
+     */
+    public void testCompareWithAllSegments() {
+        RouteSegmentIndex subject = new RouteSegmentIndex(myRoute);
+        assertEquals(NODECOUNT - 1, subject.getSegmentCount());
+        Random random = new Random(2);
+        Node first = myNodes.get(0);
+        Node last = myNodes.get(NODECOUNT - 1);
+        for (int i = 0; i < POSITIONCOUNT; i++) {
+            // include some positions outside of the bounding-box of the route
+            double lat = first.getLatitude() + (random.nextDouble() * 1.2 - 0.1) * (last.getLatitude() - first.getLatitude())
+                       + (random.nextDouble() - 0.5) * 0.02;
+            double lon = first.getLongitude() + (random.nextDouble() * 1.2 - 0.1) * (last.getLongitude() - first.getLongitude());
+            RouteSegmentIndex.Match match = subject.match(lat, lon);
+            assertNotNull(match);
+            assertEquals(getNearestDistance(lat, lon), match.getDistance(), 1e-12);
+        }
+    }
+
+    /**
+     * Positions on a node of the route must match that node and its step.
+     */
+    public void testMatchNodes() {
+        RouteSegmentIndex subject = new RouteSegmentIndex(myRoute);
+        for (int i = 1; i < NODECOUNT - 1; i++) {
+            if (i % (STEPLENGTH - 1) == 0) {
+                continue; // between 2 steps
+            }
+            Node node = myNodes.get(i);
+            RouteSegmentIndex.Match match = subject.match(node.getLatitude(), node.getLongitude());
+            assertEquals(0.0, match.getDistance(), 0.0);
+            assertEquals(node.getId(), match.getNode().getId());
+            assertSame(myRoute.getRoutingSteps().get(i / (STEPLENGTH - 1)), match.getStep());
+        }
+    }
+
+    /**
+     * Just after passing a node the next node is the one ahead,
+     * even if the one behind is nearer.
+     */
+    public void testNextNode() {
+        RouteSegmentIndex subject = new RouteSegmentIndex(myRoute);
+        final double fraction = 0.1;
+        for (int i = 0; i < NODECOUNT - 1; i++) {
+            Node a = myNodes.get(i);
+            Node b = myNodes.get(i + 1);
+            double lat = a.getLatitude() + fraction * (b.getLatitude() - a.getLatitude());
+            double lon = a.getLongitude() + fraction * (b.getLongitude() - a.getLongitude());
+            RouteSegmentIndex.Match match = subject.match(lat, lon);
+            assertEquals(a.getId(), match.getNode().getId());
+            assertEquals(b.getId(), match.getNextNode().getId());
+            assertSame(myRoute.getRoutingSteps().get(i / (STEPLENGTH - 1)), match.getStep());
+        }
+    }
+}
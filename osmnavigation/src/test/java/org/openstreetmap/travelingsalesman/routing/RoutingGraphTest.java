@@ -0,0 +1,224 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing;
+
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.openstreetmap.osm.Tags;
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osm.data.MemoryDataSet;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+import org.openstreetmap.travelingsalesman.routing.routers.DijkstraRouter;
+import org.openstreetmap.travelingsalesman.routing.routers.MultiTargetDijkstraRouter;
+import org.openstreetmap.travelingsalesman.routing.selectors.Motorcar;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+/**
+ * Test the {@link RoutingGraphBuilder} and the
+ * routers that can run on a {@link RoutingGraph}.
+ */
+public class RoutingGraphTest extends TestCase {
+
+    /**
+     * Allowed difference for coordinates (fixed precision).
+     */
+    private static final double COORDTOLERANCE = 0.0000001;
+
+    /**
+     * our testdata.
+     */
+    private IDataSet myMap;
+
+    /**
+     * A twoway-road 1-2-3, a oneway 3-4-1
+     * and a footway 2-5.
+     * @throws Exception may throw anything and fail.
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        myMap = new MemoryDataSet();
+        final double[][] coords = new double[][] {{0, 0}, {0, 0.001}, {0.001, 0.001}, {0.001, 0}, {0.002, 0.002}};
+        for (int i = 0; i < coords.length; i++) {
+            myMap.addNode(new Node(i + 1, 0, new Date(), null, 0, coords[i][0], coords[i][1]));
+        }
+        myMap.addWay(createWay(1, "residential", null, 1, 2, 3));
+        myMap.addWay(createWay(2, "residential", "yes", 3, 4, 1));
+        myMap.addWay(createWay(3, "footway", null, 2, 5));
+    }
+
+    /**
+     * @param aWayID the id
+     * @param aHighway the highway-tag
+     * @param aOneway the oneway-tag or null
+     * @param aNodeIDs the nodes
+     * @return the new way
+     */
+    private static Way createWay(final long aWayID, final String aHighway, final String aOneway, final long... aNodeIDs) {
+        Way way = new Way(aWayID, 0, new Date(), null, 0);
+        way.getTags().add(new Tag(Tags.TAG_HIGHWAY, aHighway));
+        if (aOneway != null) {
+            way.getTags().add(new Tag(Tags.TAG_ONEWAY, aOneway));
+        }
+        for (long nodeID : aNodeIDs) {
+            way.getWayNodes().add(new WayNode(nodeID));
+        }
+        return way;
+    }
+
+    /**
+     * @return a graph of the test-map for a motorcar
+     */
+    private RoutingGraph buildGraph() {
+        return new RoutingGraphBuilder(myMap, new Motorcar(), new ShortestRouteMetric()).build();
+    }
+
+    /**
+     * Check the structure of the graph.
+     */
+    public void testBuild() {
+        RoutingGraph graph = buildGraph();
+        // node 5 is only reachable via a footway
+        final int expectedNodes = 4;
+        assertEquals(expectedNodes, graph.getNodeCount());
+        assertEquals(-1, graph.getNodeIndex(5));
+        // 2 segments in both directions and 2 oneway-segments
+        final int expectedEdges = 6;
+        assertEquals(expectedEdges, graph.getEdgeCount());
+
+        int node1 = graph.getNodeIndex(1);
+        int node3 = graph.getNodeIndex(3);
+        int node4 = graph.getNodeIndex(4);
+        assertEquals(1, graph.getNodeID(node1));
+        assertEquals(0.001, graph.getLatitude(node4), COORDTOLERANCE);
+        assertEquals(0, graph.getLongitude(node4), COORDTOLERANCE);
+
+        int edge = graph.findEdge(node3, node4);
+        assertTrue(edge >= 0);
+        assertEquals(2, graph.getEdgeWayID(edge));
+        assertTrue(graph.isForward(edge));
+        assertTrue(graph.isOneway(edge));
+        assertEquals(graph.distanceInMeters(node3, node4), graph.getEdgeCost(edge), 0.01);
+        assertEquals(-1, graph.findEdge(node4, node3));
+
+        // every edge must be found among the incoming edges of its target
+        for (int e = 0; e < graph.getEdgeCount(); e++) {
+            int target = graph.getEdgeTarget(e);
+            boolean found = false;
+            for (int i = graph.getFirstIncoming(target); i < graph.getFirstIncoming(target + 1); i++) {
+                found |= graph.getIncomingEdge(i) == e;
+            }
+            assertTrue(found);
+            assertTrue(e >= graph.getFirstEdge(graph.getEdgeSource(e)));
+            assertTrue(e < graph.getFirstEdge(graph.getEdgeSource(e) + 1));
+        }
+    }
+
+    /**
+     * Routers given a graph must route on it and respect the oneway.
+     */
+    public void testRouteOnGraph() {
+        RoutingGraph graph = buildGraph();
+        Node start = myMap.getNodeByID(1);
+        Node target = myMap.getNodeByID(4);
+
+        MultiTargetDijkstraRouter multiTarget = new MultiTargetDijkstraRouter();
+        multiTarget.setRoutingGraph(graph);
+        checkRoute(multiTarget.route(myMap, target, start, new Motorcar()), 1, 2, 3, 4);
+
+        DijkstraRouter dijkstra = new DijkstraRouter();
+        dijkstra.setRoutingGraph(graph);
+        checkRoute(dijkstra.route(myMap, target, start, new Motorcar()), 1, 2, 3, 4);
+        checkRoute(dijkstra.route(myMap, start, target, new Motorcar()), 4, 1);
+    }
+
+    /**
+     * Test that the routers count what they do,
+     * on the graph and on the map itself.
+     */
+    public void testStatistics() {
+        Node start = myMap.getNodeByID(1);
+        Node target = myMap.getNodeByID(4);
+
+        MultiTargetDijkstraRouter router = new MultiTargetDijkstraRouter();
+        assertNull(router.getLastStatistics());
+        checkRoute(router.route(myMap, target, start, new Motorcar()), 1, 2, 3, 4);
+        RoutingStatistics onMap = router.getLastStatistics();
+        assertNotNull(onMap);
+        assertTrue(onMap.getNodesSettled() > 0);
+        assertTrue(onMap.getEdgesRelaxed() >= onMap.getNodesSettled() - 1);
+        assertTrue(onMap.getQueuePeakSize() > 0);
+        assertTrue(onMap.getDataSetFetches() > 0);
+        assertTrue(onMap.getPhaseTimes().containsKey("search"));
+        assertTrue(onMap.getPhaseTimes().containsKey("reconstruct"));
+
+        router.setRoutingGraph(buildGraph());
+        checkRoute(router.route(myMap, target, start, new Motorcar()), 1, 2, 3, 4);
+        RoutingStatistics onGraph = router.getLastStatistics();
+        assertNotSame(onMap, onGraph);
+        assertTrue(onGraph.getNodesSettled() > 0);
+        assertEquals(0, onGraph.getDataSetFetches());
+
+        RoutingStatistics sum = new RoutingStatistics("sum");
+        sum.add(onMap);
+        sum.add(onGraph);
+        assertEquals(onMap.getNodesSettled() + onGraph.getNodesSettled(), sum.getNodesSettled());
+        assertEquals(Math.max(onMap.getQueuePeakSize(), onGraph.getQueuePeakSize()), sum.getQueuePeakSize());
+
+        // a graph built with another metric is not used
+        router.setMetric(new ShortestRouteMetric() { });
+        checkRoute(router.route(myMap, target, start, new Motorcar()), 1, 2, 3, 4);
+        assertTrue(router.getLastStatistics().getDataSetFetches() > 0);
+    }
+
+    /**
+     * @param aRoute the route to check
+     * @param aNodeIDs the nodes we expect to pass
+     */
+    private void checkRoute(final Route aRoute, final long... aNodeIDs) {
+        assertNotNull(aRoute);
+        List<RoutingStep> steps = aRoute.getRoutingSteps();
+        assertEquals(aNodeIDs[0], steps.get(0).getStartNode().getId());
+        assertEquals(aNodeIDs[aNodeIDs.length - 1], steps.get(steps.size() - 1).getEndNode().getId());
+        int i = 0;
+        for (RoutingStep step : steps) {
+            List<WayNode> nodes = step.getNodes();
+            for (int j = (i == 0) ? 0 : 1; j < nodes.size(); j++) {
+                assertEquals(aNodeIDs[i++], nodes.get(j).getNodeId());
+            }
+        }
+        assertEquals(aNodeIDs.length, i);
+    }
+}
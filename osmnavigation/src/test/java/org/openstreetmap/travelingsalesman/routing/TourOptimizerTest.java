@@ -0,0 +1,167 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+
+/**
+ * Test the {@link TourOptimizer}.
+ */
+public class TourOptimizerTest extends TestCase {
+
+    /**
+     * Number of stops in the random tours.
+     */
+    private static final int STOPCOUNT = 60;
+
+    /**
+     * @param aCosts [from][to] the costs
+     * @return a matrix of the costs between dummy-nodes
+     */
+    private static DistanceMatrix createMatrix(final double[][] aCosts) {
+        List<Node> stops = new ArrayList<Node>(aCosts.length);
+        for (int i = 0; i < aCosts.length; i++) {
+            stops.add(new Node(i + 1, 0, new Date(), null, 0, 0, 0));
+        }
+        return new DistanceMatrix(stops, stops, aCosts);
+    }
+
+    /**
+     * @param aX x-coordinates of the stops
+     * @param aY y-coordinates of the stops
+     * @return the euclidean distances
+     */
+    private static double[][] getDistances(final double[] aX, final double[] aY) {
+        double[][] retval = new double[aX.length][aX.length];
+        for (int i = 0; i < aX.length; i++) {
+            for (int j = 0; j < aX.length; j++) {
+                retval[i][j] = Math.hypot(aX[i] - aX[j], aY[i] - aY[j]);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @param aTour the tour to check
+     * @param aCount the number of stops
+     */
+    private static void assertIsTour(final int[] aTour, final int aCount) {
+        assertEquals(aCount, aTour.length);
+        assertEquals(0, aTour[0]);
+        boolean[] seen = new boolean[aCount];
+        for (int stop : aTour) {
+            assertFalse("stop " + stop + " is visited twice", seen[stop]);
+            seen[stop] = true;
+        }
+    }
+
+    /**
+     * Stops on a straight line starting at stop 0
+     * must be visited from left to right.
+     */
+    public void testLine() {
+        Random random = new Random(1);
+        double[] x = new double[STOPCOUNT];
+        double[] y = new double[STOPCOUNT];
+        for (int i = 1; i < STOPCOUNT; i++) {
+            x[i] = 1 + random.nextDouble() * 100;
+        }
+        TourOptimizer subject = new TourOptimizer(createMatrix(getDistances(x, y)));
+        int[] tour = subject.optimize();
+        assertIsTour(tour, STOPCOUNT);
+        for (int i = 2; i < STOPCOUNT; i++) {
+            assertTrue(x[tour[i - 1]] < x[tour[i]]);
+        }
+    }
+
+    /**
+     * The optimized tour must never be worse then always going to the nearest stop.
+     */
+    public void testRandom() {
+        Random random = new Random(2);
+        double[] x = new double[STOPCOUNT];
+        double[] y = new double[STOPCOUNT];
+        for (int i = 0; i < STOPCOUNT; i++) {
+            x[i] = random.nextDouble() * 100;
+            y[i] = random.nextDouble() * 100;
+        }
+        double[][] costs = getDistances(x, y);
+        // make it asymmetric like with oneways
+        for (int i = 0; i < STOPCOUNT; i++) {
+            for (int j = 0; j < i; j++) {
+                costs[i][j] *= 1 + random.nextDouble();
+            }
+        }
+        TourOptimizer subject = new TourOptimizer(createMatrix(costs));
+        int[] tour = subject.optimize();
+        assertIsTour(tour, STOPCOUNT);
+
+        int[] nearest = new int[STOPCOUNT];
+        boolean[] visited = new boolean[STOPCOUNT];
+        visited[0] = true;
+        for (int i = 1; i < STOPCOUNT; i++) {
+            int best = -1;
+            for (int stop = 0; stop < STOPCOUNT; stop++) {
+                if (!visited[stop] && (best < 0 || costs[nearest[i - 1]][stop] < costs[nearest[i - 1]][best])) {
+                    best = stop;
+                }
+            }
+            nearest[i] = best;
+            visited[best] = true;
+        }
+        assertTrue(subject.getCost(tour) <= subject.getCost(nearest));
+
+        subject.setReturnToStart(true);
+        assertIsTour(subject.optimize(), STOPCOUNT);
+    }
+
+    /**
+     * Small tours must be optimal and unreachable stops must be visited last.
+     */
+    public void testSmall() {
+        final double unreachable = Double.POSITIVE_INFINITY;
+        double[][] costs = new double[][] {
+                {0, 5, 1, unreachable},
+                {5, 0, 1, 1},
+                {1, 1, 0, unreachable},
+                {unreachable, 1, unreachable, 0},
+        };
+        int[] tour = new TourOptimizer(createMatrix(costs)).optimize();
+        assertIsTour(tour, costs.length);
+        assertEquals(2, tour[1]);
+        assertEquals(1, tour[2]);
+        assertEquals(3, tour[3]);
+    }
+}
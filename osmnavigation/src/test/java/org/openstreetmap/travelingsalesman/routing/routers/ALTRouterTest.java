@@ -0,0 +1,282 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.openstreetmap.osm.Tags;
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osm.data.MemoryDataSet;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraph;
+import org.openstreetmap.travelingsalesman.routing.RoutingGraphBuilder;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+import org.openstreetmap.travelingsalesman.routing.selectors.Motorcar;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+/**
+ * Test the {@link Landmarks} and the {@link ALTRouter}
+ * against the {@link RoutingGraphDijkstra} on a grid of streets.
+ */
+public class ALTRouterTest extends TestCase {
+
+    /**
+     * Number of rows and columns of the grid.
+     */
+    private static final int GRIDSIZE = 10;
+
+    /**
+     * Distance between 2 crossings in degrees.
+     */
+    private static final double GRIDSPACING = 0.001;
+
+    /**
+     * How many random routes to compare.
+     */
+    private static final int ROUTECOUNT = 100;
+
+    /**
+     * How many landmarks to use.
+     */
+    private static final int LANDMARKCOUNT = 4;
+
+    /**
+     * Allowed difference between the route-lengths (costs are stored as float).
+     */
+    private static final double TOLERANCE = 0.01;
+
+    /**
+     * our testdata.
+     */
+    private IDataSet myMap;
+
+    /**
+     * The vehicle to route for.
+     */
+    private IVehicle myVehicle = new Motorcar();
+
+    /**
+     * The routing-graph of {@link #myMap}.
+     */
+    private RoutingGraph myGraph;
+
+    /**
+     * Build a grid of streets with some oneways in it.
+     * @throws Exception may throw anything and fail.
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        MemoryDataSet map = new MemoryDataSet();
+        Random random = new Random(1);
+        for (int row = 0; row < GRIDSIZE; row++) {
+            for (int col = 0; col < GRIDSIZE; col++) {
+                map.addNode(new Node(getNodeID(row, col), 0, new Date(), null, 0,
+                        row * GRIDSPACING + random.nextDouble() * GRIDSPACING / 2,
+                        col * GRIDSPACING + random.nextDouble() * GRIDSPACING / 2));
+            }
+        }
+        int wayID = 1;
+        for (int row = 0; row < GRIDSIZE; row++) {
+            Way way = new Way(wayID++, 0, new Date(), null, 0);
+            way.getTags().add(new Tag(Tags.TAG_HIGHWAY, "residential"));
+            if (row % 3 == 1) {
+                way.getTags().add(new Tag(Tags.TAG_ONEWAY, "yes"));
+            }
+            for (int col = 0; col < GRIDSIZE; col++) {
+                way.getWayNodes().add(new WayNode(getNodeID(row, col)));
+            }
+            map.addWay(way);
+        }
+        for (int col = 0; col < GRIDSIZE; col++) {
+            Way way = new Way(wayID++, 0, new Date(), null, 0);
+            way.getTags().add(new Tag(Tags.TAG_HIGHWAY, "primary"));
+            if (col % 3 == 2) {
+                way.getTags().add(new Tag(Tags.TAG_ONEWAY, "-1"));
+            }
+            for (int row = 0; row < GRIDSIZE; row++) {
+                way.getWayNodes().add(new WayNode(getNodeID(row, col)));
+            }
+            map.addWay(way);
+        }
+        myMap = map;
+        myGraph = new RoutingGraphBuilder(myMap, myVehicle, new ShortestRouteMetric()).build();
+    }
+
+    /**
+     * @param aRow row in the grid
+     * @param aCol column in the grid
+     * @return the id of the node there
+     */
+    private static long getNodeID(final int aRow, final int aCol) {
+        return 1 + aRow * GRIDSIZE + aCol;
+    }
+
+    /**
+     * @param aStart node-index to start at
+     * @param aTarget node-index to reach
+     * @return the cost of the shortest path
+     */
+    private double getShortestCost(final int aStart, final int aTarget) {
+        int[] path = RoutingGraphDijkstra.findPath(myGraph, aStart, new int[] {aTarget});
+        assertNotNull(path);
+        double retval = 0;
+        for (int edge : path) {
+            retval += myGraph.getEdgeCost(edge);
+        }
+        return retval;
+    }
+
+    /**
+     * The landmarks must never overestimate the real cost.
+     */
+    public void testLowerBounds() {
+        Landmarks landmarks = Landmarks.select(myGraph, LANDMARKCOUNT);
+        assertEquals(LANDMARKCOUNT, landmarks.getLandmarkCount());
+        Random random = new Random(2);
+        double sumBounds = 0;
+        double sumCosts = 0;
+        for (int i = 0; i < ROUTECOUNT; i++) {
+            int start = random.nextInt(myGraph.getNodeCount());
+            int target = random.nextInt(myGraph.getNodeCount());
+            double cost = getShortestCost(start, target);
+            double bound = landmarks.getLowerBound(start, target);
+            assertTrue(bound + " > " + cost, bound <= cost + TOLERANCE);
+            sumBounds += bound;
+            sumCosts += cost;
+        }
+        // the bounds should be a lot better then nothing
+        assertTrue(sumBounds > sumCosts / 2);
+    }
+
+    /**
+     * The routes found must be as short as the ones of a plain Dijkstra
+     * and must be connected.
+     */
+    public void testCompareWithDijkstra() {
+        ALTRouter subject = new ALTRouter();
+        subject.setLandmarkCount(LANDMARKCOUNT);
+        Random random = new Random(3);
+        for (int i = 0; i < ROUTECOUNT; i++) {
+            Node start = myMap.getNodeByID(1 + random.nextInt(GRIDSIZE * GRIDSIZE));
+            Node target = myMap.getNodeByID(1 + random.nextInt(GRIDSIZE * GRIDSIZE));
+            if (start.getId() == target.getId()) {
+                continue;
+            }
+            Route expected = RoutingGraphDijkstra.route(myGraph, new long[] {target.getId()}, start);
+            Route route = subject.route(myMap, target, start, myVehicle);
+            assertNotNull(route);
+            assertEquals(expected.distanceInMeters(), route.distanceInMeters(), TOLERANCE);
+            List<RoutingStep> steps = route.getRoutingSteps();
+            assertEquals(start.getId(), steps.get(0).getStartNode().getId());
+            assertEquals(target.getId(), steps.get(steps.size() - 1).getEndNode().getId());
+            for (int j = 1; j < steps.size(); j++) {
+                assertEquals(steps.get(j - 1).getEndNode().getId(), steps.get(j).getStartNode().getId());
+            }
+        }
+        assertTrue(subject.getLastStatistics().getNodesSettled() > 0);
+    }
+
+    /**
+     * Routing to a way must reach its nearest node.
+     */
+    public void testRouteToWay() {
+        ALTRouter subject = new ALTRouter();
+        subject.setLandmarkCount(LANDMARKCOUNT);
+        Node start = myMap.getNodeByID(getNodeID(0, 0));
+        // the last row
+        Way way = myMap.getWaysByID(GRIDSIZE);
+        long[] targetIDs = new long[GRIDSIZE];
+        for (int col = 0; col < GRIDSIZE; col++) {
+            targetIDs[col] = getNodeID(GRIDSIZE - 1, col);
+        }
+        Route expected = RoutingGraphDijkstra.route(myGraph, targetIDs, start);
+        Route route = subject.route(myMap, way, start, myVehicle);
+        assertNotNull(route);
+        assertEquals(expected.distanceInMeters(), route.distanceInMeters(), TOLERANCE);
+    }
+
+    /**
+     * The graph of an in-memory map is shared by all routers,
+     * so a road added later must not be missed by a new router.
+     */
+    public void testMapChanged() {
+        ALTRouter first = new ALTRouter();
+        first.setLandmarkCount(LANDMARKCOUNT);
+        Node start = myMap.getNodeByID(getNodeID(0, 0));
+        Node target = myMap.getNodeByID(getNodeID(GRIDSIZE - 1, GRIDSIZE - 1));
+        Route before = first.route(myMap, target, start, myVehicle);
+        assertNotNull(before);
+        assertTrue(before.getRoutingSteps().size() > 1);
+
+        Way shortcut = new Way(GRIDSIZE * 2 + 1, 0, new Date(), null, 0);
+        shortcut.getTags().add(new Tag(Tags.TAG_HIGHWAY, "residential"));
+        shortcut.getWayNodes().add(new WayNode(start.getId()));
+        shortcut.getWayNodes().add(new WayNode(target.getId()));
+        myMap.addWay(shortcut);
+        ALTRouter second = new ALTRouter();
+        second.setLandmarkCount(LANDMARKCOUNT);
+        Route after = second.route(myMap, target, start, myVehicle);
+        assertNotNull(after);
+        assertEquals(1, after.getRoutingSteps().size());
+        assertEquals(shortcut.getId(), after.getRoutingSteps().get(0).getWay().getId());
+    }
+
+    /**
+     * Stored landmarks must give the same bounds
+     * and must be ignored if the fingerprint changed.
+     * @throws Exception may throw anything and fail.
+     */
+    public void testPersistence() throws Exception {
+        Landmarks landmarks = Landmarks.select(myGraph, LANDMARKCOUNT);
+        File file = File.createTempFile("ALTRouterTest", ".bin");
+        file.deleteOnExit();
+        final long fingerprint = 42;
+        landmarks.writeTo(file, fingerprint);
+        assertNull(Landmarks.readFrom(file, fingerprint + 1, myGraph.getNodeCount()));
+        assertNull(Landmarks.readFrom(file, fingerprint, myGraph.getNodeCount() + 1));
+        Landmarks loaded = Landmarks.readFrom(file, fingerprint, myGraph.getNodeCount());
+        assertNotNull(loaded);
+        assertEquals(landmarks.getLandmarkCount(), loaded.getLandmarkCount());
+        for (int i = 0; i < myGraph.getNodeCount(); i++) {
+            assertEquals(landmarks.getLowerBound(0, i), loaded.getLowerBound(0, i), 0);
+            assertEquals(landmarks.getLowerBound(i, 0), loaded.getLowerBound(i, 0), 0);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.io.File;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.openstreetmap.osm.Tags;
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osm.data.MemoryDataSet;
+import org.openstreetmap.travelingsalesman.routing.IRouter;
+import org.openstreetmap.travelingsalesman.routing.IVehicle;
+import org.openstreetmap.travelingsalesman.routing.Route;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+import org.openstreetmap.travelingsalesman.routing.metrics.ShortestRouteMetric;
+import org.openstreetmap.travelingsalesman.routing.selectors.Motorcar;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.Tag;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+import org.openstreetmap.osmosis.core.domain.v0_6.WayNode;
+
+/**
+ * Test the {@link ContractionHierarchy} and the {@link ContractionHierarchyRouter}
+ * against a plain Dijkstra on a grid of streets.
+ */
+public class ContractionHierarchyTest extends TestCase {
+
+    /**
+     * Number of rows and columns of the grid.
+     */
+    private static final int GRIDSIZE = 8;
+
+    /**
+     * Distance between 2 crossings in degrees.
+     */
+    private static final double GRIDSPACING = 0.001;
+
+    /**
+     * How many random routes to compare.
+     */
+    private static final int ROUTECOUNT = 100;
+
+    /**
+     * Allowed difference between the route-lengths (costs are stored as float).
+     */
+    private static final double TOLERANCE = 0.01;
+
+    /**
+     * our testdata.
+     */
+    private IDataSet myMap;
+
+    /**
+     * The vehicle to route for.
+     */
+    private IVehicle myVehicle = new Motorcar();
+
+    /**
+     * Build a grid of streets with some oneways in it.
+     * @throws Exception may throw anything and fail.
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        MemoryDataSet map = new MemoryDataSet();
+        Random random = new Random(1);
+        for (int row = 0; row < GRIDSIZE; row++) {
+            for (int col = 0; col < GRIDSIZE; col++) {
+                map.addNode(new Node(getNodeID(row, col), 0, new Date(), null, 0,
+                        row * GRIDSPACING + random.nextDouble() * GRIDSPACING / 2,
+                        col * GRIDSPACING + random.nextDouble() * GRIDSPACING / 2));
+            }
+        }
+        int wayID = 1;
+        for (int row = 0; row < GRIDSIZE; row++) {
+            Way way = new Way(wayID++, 0, new Date(), null, 0);
+            way.getTags().add(new Tag(Tags.TAG_HIGHWAY, "residential"));
+            if (row % 3 == 1) {
+                way.getTags().add(new Tag(Tags.TAG_ONEWAY, "yes"));
+            }
+            for (int col = 0; col < GRIDSIZE; col++) {
+                way.getWayNodes().add(new WayNode(getNodeID(row, col)));
+            }
+            map.addWay(way);
+        }
+        for (int col = 0; col < GRIDSIZE; col++) {
+            Way way = new Way(wayID++, 0, new Date(), null, 0);
+            way.getTags().add(new Tag(Tags.TAG_HIGHWAY, "primary"));
+            if (col % 3 == 2) {
+                way.getTags().add(new Tag(Tags.TAG_ONEWAY, "-1"));
+            }
+            for (int row = 0; row < GRIDSIZE; row++) {
+                way.getWayNodes().add(new WayNode(getNodeID(row, col)));
+            }
+            map.addWay(way);
+        }
+        myMap = map;
+    }
+
+    /**
+     * @param aRow row in the grid
+     * @param aCol column in the grid
+     * @return the id of the node there
+     */
+    private static long getNodeID(final int aRow, final int aCol) {
+        return 1 + aRow * GRIDSIZE + aCol;
+    }
+
+    /**
+     * The routes found must be as short as the ones of a plain Dijkstra
+     * and must be connected.
+     */
+    public void testCompareWithDijkstra() {
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(myMap, myVehicle, new ShortestRouteMetric());
+        IRouter subject = new ContractionHierarchyRouter();
+        Random random = new Random(2);
+        for (int i = 0; i < ROUTECOUNT; i++) {
+            Node start = myMap.getNodeByID(1 + random.nextInt(GRIDSIZE * GRIDSIZE));
+            Node target = myMap.getNodeByID(1 + random.nextInt(GRIDSIZE * GRIDSIZE));
+            if (start.getId() == target.getId()) {
+                continue;
+            }
+            double expected = dijkstra(start.getId(), target.getId());
+            ContractionHierarchy.ShortestPath path = hierarchy.query(hierarchy.getNodeIndex(start.getId()),
+                    new int[] {hierarchy.getNodeIndex(target.getId())});
+            assertNotNull("no path found from " + start.getId() + " to " + target.getId(), path);
+            assertEquals("path from " + start.getId() + " to " + target.getId(), expected, path.getCost(), TOLERANCE);
+
+            Route route = subject.route(myMap, target, start, myVehicle);
+            assertNotNull(route);
+            assertEquals(expected, route.distanceInMeters(), TOLERANCE);
+            List<RoutingStep> steps = route.getRoutingSteps();
+            assertEquals(start.getId(), steps.get(0).getStartNode().getId());
+            assertEquals(target.getId(), steps.get(steps.size() - 1).getEndNode().getId());
+            for (int j = 1; j < steps.size(); j++) {
+                assertEquals(steps.get(j - 1).getEndNode().getId(), steps.get(j).getStartNode().getId());
+            }
+        }
+    }
+
+    /**
+     * A textbook Dijkstra on the test-map to compare against.
+     * @param aStartID where to start
+     * @param aTargetID where to go
+     * @return the length of the shortest route
+     */
+    private double dijkstra(final long aStartID, final long aTargetID) {
+        ShortestRouteMetric metric = new ShortestRouteMetric();
+        metric.setMap(myMap);
+        Map<Long, Double> dist = new HashMap<Long, Double>();
+        Set<Long> settled = new HashSet<Long>();
+        dist.put(aStartID, 0.0);
+        while (true) {
+            long current = -1;
+            for (Map.Entry<Long, Double> entry : dist.entrySet()) {
+                if (!settled.contains(entry.getKey())
+                        && (current < 0 || entry.getValue() < dist.get(current))) {
+                    current = entry.getKey();
+                }
+            }
+            if (current < 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            if (current == aTargetID) {
+                return dist.get(current);
+            }
+            settled.add(current);
+            for (Iterator<Way> ways = myMap.getWaysForNode(current); ways.hasNext();) {
+                Way way = ways.next();
+                List<WayNode> wayNodes = way.getWayNodes();
+                for (int i = 0; i < wayNodes.size(); i++) {
+                    if (wayNodes.get(i).getNodeId() != current) {
+                        continue;
+                    }
+                    if (i + 1 < wayNodes.size() && !myVehicle.isReverseOneway(myMap, way)) {
+                        relax(metric, dist, current, wayNodes.get(i + 1).getNodeId(), way);
+                    }
+                    if (i > 0 && !myVehicle.isOneway(myMap, way)) {
+                        relax(metric, dist, current, wayNodes.get(i - 1).getNodeId(), way);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param aMetric the metric to use
+     * @param aDist the tentative distances
+     * @param aFrom the settled node
+     * @param aTo its neighbor
+     * @param aWay the way between them
+     */
+    private void relax(final ShortestRouteMetric aMetric, final Map<Long, Double> aDist,
+                       final long aFrom, final long aTo, final Way aWay) {
+        double cost = aDist.get(aFrom) + aMetric.getCost(new RoutingStep(myMap,
+                myMap.getNodeByID(aFrom), myMap.getNodeByID(aTo), aWay));
+        Double known = aDist.get(aTo);
+        if (known == null || cost < known) {
+            aDist.put(aTo, cost);
+        }
+    }
+
+    /**
+     * The many-to-many costs must be the same as the ones of single queries.
+     */
+    public void testCostMatrix() {
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(myMap, myVehicle, new ShortestRouteMetric());
+        int count = GRIDSIZE * GRIDSIZE;
+        int[] sources = new int[count / 2];
+        int[] targets = new int[count / 3];
+        Random random = new Random(3);
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = hierarchy.getNodeIndex(1 + random.nextInt(count));
+        }
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = hierarchy.getNodeIndex(1 + random.nextInt(count));
+        }
+        double[][] matrix = hierarchy.getCostMatrix(sources, targets, null);
+        assertEquals(sources.length, matrix.length);
+        for (int i = 0; i < sources.length; i++) {
+            assertEquals(targets.length, matrix[i].length);
+            for (int j = 0; j < targets.length; j++) {
+                ContractionHierarchy.ShortestPath path = hierarchy.query(sources[i], new int[] {targets[j]});
+                assertNotNull(path);
+                assertEquals(path.getCost(), matrix[i][j], TOLERANCE);
+            }
+        }
+    }
+
+    /**
+     * Oneways must be respected.
+     */
+    public void testOneway() {
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(myMap, myVehicle, new ShortestRouteMetric());
+        // row 1 is a oneway from column 0 to the last column, the way back is longer
+        ContractionHierarchy.ShortestPath forward = hierarchy.query(hierarchy.getNodeIndex(getNodeID(1, 0)),
+                new int[] {hierarchy.getNodeIndex(getNodeID(1, GRIDSIZE - 1))});
+        ContractionHierarchy.ShortestPath backward = hierarchy.query(hierarchy.getNodeIndex(getNodeID(1, GRIDSIZE - 1)),
+                new int[] {hierarchy.getNodeIndex(getNodeID(1, 0))});
+        assertNotNull(forward);
+        assertNotNull(backward);
+        assertEquals(GRIDSIZE, forward.getNodeIDs().length);
+        assertTrue(backward.getCost() > forward.getCost());
+    }
+
+    /**
+     * Routers are created per route, so the hierarchy of an in-memory map
+     * must be shared between them and built again once the map changed.
+     */
+    public void testSharedHierarchy() {
+        ContractionHierarchyRouter first = new ContractionHierarchyRouter();
+        ContractionHierarchyRouter second = new ContractionHierarchyRouter();
+        ContractionHierarchy hierarchy = first.getHierarchy(myMap, myVehicle);
+        assertSame(hierarchy, second.getHierarchy(myMap, myVehicle));
+
+        final long newNodeID = getNodeID(GRIDSIZE, 0);
+        myMap.addNode(new Node(newNodeID, 0, new Date(), null, 0, -GRIDSPACING, 0));
+        Way way = new Way(GRIDSIZE * 2 + 1, 0, new Date(), null, 0);
+        way.getTags().add(new Tag(Tags.TAG_HIGHWAY, "residential"));
+        way.getWayNodes().add(new WayNode(newNodeID));
+        way.getWayNodes().add(new WayNode(getNodeID(0, 0)));
+        myMap.addWay(way);
+        ContractionHierarchy rebuilt = second.getHierarchy(myMap, myVehicle);
+        assertNotSame(hierarchy, rebuilt);
+        assertTrue(rebuilt.getNodeIndex(newNodeID) >= 0);
+        assertSame(rebuilt, first.getHierarchy(myMap, myVehicle));
+    }
+
+    /**
+     * A stored hierarchy must give the same results
+     * and must be ignored if the fingerprint changed.
+     * @throws Exception may throw anything and fail.
+     */
+    public void testPersistence() throws Exception {
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(myMap, myVehicle, new ShortestRouteMetric());
+        File file = File.createTempFile("ContractionHierarchyTest", ".bin");
+        file.deleteOnExit();
+        final long fingerprint = 42;
+        hierarchy.writeTo(file, fingerprint);
+        assertNull(ContractionHierarchy.readFrom(file, fingerprint + 1));
+        ContractionHierarchy loaded = ContractionHierarchy.readFrom(file, fingerprint);
+        assertNotNull(loaded);
+        assertEquals(hierarchy.getNodeCount(), loaded.getNodeCount());
+        assertEquals(hierarchy.getEdgeCount(), loaded.getEdgeCount());
+
+        int start = hierarchy.getNodeIndex(getNodeID(0, 0));
+        int target = hierarchy.getNodeIndex(getNodeID(GRIDSIZE - 1, GRIDSIZE - 1));
+        ContractionHierarchy.ShortestPath expected = hierarchy.query(start, new int[] {target});
+        ContractionHierarchy.ShortestPath path = loaded.query(loaded.getNodeIndex(getNodeID(0, 0)),
+                new int[] {loaded.getNodeIndex(getNodeID(GRIDSIZE - 1, GRIDSIZE - 1))});
+        assertEquals(expected.getCost(), path.getCost(), 0);
+        assertEquals(expected.getNodeIDs().length, path.getNodeIDs().length);
+        file.delete();
+    }
+}
@@ -313,6 +313,10 @@ public class GeneralRouterTest extends TestCase {
         routeToNode(startNode, targetNode, router);
         router = new TurnRestrictedAStar();
         routeToNode(startNode, targetNode, router);
+        router = new ContractionHierarchyRouter();
+        routeToNode(startNode, targetNode, router);
+        router = new ALTRouter();
+        routeToNode(startNode, targetNode, router);
     }
 
 //  test for a possible bug. Test showed the result to be correct
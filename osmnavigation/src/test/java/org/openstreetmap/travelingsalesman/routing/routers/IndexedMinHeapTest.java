@@ -0,0 +1,266 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the {@link IndexedMinHeap} and compare it's speed
+ * with the TreeSet/TreeMap-frontiers the routers used before.
+ */
+public class IndexedMinHeapTest extends TestCase {
+
+    /**
+     * my logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(IndexedMinHeapTest.class.getName());
+
+    /**
+     * {@link #testBenchmark()} only runs if this system-property is "true",
+     * e.g. mvn test -Dtravelingsalesman.benchmark=true .
+     */
+    public static final String BENCHMARKPROPERTY = "travelingsalesman.benchmark";
+
+    /**
+     * Number of ids in the randomized tests.
+     */
+    private static final int IDCOUNT = 1000;
+
+    /**
+     * Number of ids in the benchmark.
+     */
+    private static final int BENCHMARKIDCOUNT = 200000;
+
+    /**
+     * How often the benchmark is repeated to warm up the JIT.
+     */
+    private static final int BENCHMARKROUNDS = 3;
+
+    /**
+     * Ids with equal keys must all be returned.
+     */
+    public void testEqualKeys() {
+        IndexedMinHeap heap = new IndexedMinHeap(2);
+        for (int i = 0; i < IDCOUNT; i++) {
+            heap.insert(i, 1.0);
+        }
+        assertEquals(IDCOUNT, heap.size());
+        boolean[] seen = new boolean[IDCOUNT];
+        while (!heap.isEmpty()) {
+            int id = heap.poll();
+            assertFalse(seen[id]);
+            seen[id] = true;
+        }
+        for (int i = 0; i < IDCOUNT; i++) {
+            assertTrue(seen[i]);
+        }
+    }
+
+    /**
+     * Random inserts and decreases must come out in key-order
+     * with the last key given for each id.
+     */
+    public void testDecreaseKey() {
+        Random random = new Random(1);
+        IndexedMinHeap heap = new IndexedMinHeap();
+        double[] keys = new double[IDCOUNT];
+        for (int i = 0; i < IDCOUNT; i++) {
+            keys[i] = random.nextDouble() * IDCOUNT;
+            heap.insert(i, keys[i]);
+        }
+        for (int i = 0; i < IDCOUNT; i++) {
+            int id = random.nextInt(IDCOUNT);
+            double key = keys[id] * random.nextDouble();
+            heap.decreaseKey(id, key);
+            keys[id] = key;
+            assertEquals(key, heap.getKey(id));
+        }
+        assertFalse(heap.insertOrDecrease(0, keys[0] + 1));
+        assertEquals(keys[0], heap.getKey(0));
+
+        double[] sorted = Arrays.copyOf(keys, keys.length);
+        Arrays.sort(sorted);
+        for (int i = 0; i < IDCOUNT; i++) {
+            assertEquals(sorted[i], heap.peekKey());
+            int id = heap.poll();
+            assertEquals(sorted[i], keys[id]);
+            assertFalse(heap.contains(id));
+        }
+        assertTrue(heap.isEmpty());
+    }
+
+    /**
+     * Misuse must be reported.
+     */
+    public void testErrors() {
+        IndexedMinHeap heap = new IndexedMinHeap();
+        heap.insert(IDCOUNT, 1.0);
+        try {
+            heap.insert(IDCOUNT, 2.0);
+            fail("inserting twice must fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            heap.decreaseKey(IDCOUNT, 2.0);
+            fail("increasing a key must fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        assertFalse(heap.contains(IDCOUNT));
+    }
+
+    /**
+     * Time a Dijkstra-like workload (insert, decrease-key, poll)
+     * on the heap and on the TreeSet and TreeMap it replaced.
+     * This is a coarse timing, not a micro-benchmark, the
+     * numbers are only logged. It is skipped unless the
+     * system-property {@link #BENCHMARKPROPERTY} is set.
+     */
+    public void testBenchmark() {
+        if (!Boolean.getBoolean(BENCHMARKPROPERTY)) {
+            return;
+        }
+        for (int round = 0; round < BENCHMARKROUNDS; round++) {
+            long start = System.nanoTime();
+            int heapCount = runHeap();
+            long heapTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int setCount = runTreeSet();
+            long setTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int mapCount = runTreeMap();
+            long mapTime = System.nanoTime() - start;
+
+            assertEquals(BENCHMARKIDCOUNT, heapCount);
+            assertEquals(BENCHMARKIDCOUNT, setCount);
+            assertTrue("TreeMap keyed by Double must not lose more then it keeps", mapCount <= BENCHMARKIDCOUNT);
+            LOG.info("round " + round + ": IndexedMinHeap " + (heapTime / 1000000) + "ms"
+                    + ", TreeSet " + (setTime / 1000000) + "ms"
+                    + ", TreeMap " + (mapTime / 1000000) + "ms (lost " + (BENCHMARKIDCOUNT - mapCount) + " ids with equal keys)");
+        }
+    }
+
+    /**
+     * @return keys for the benchmark with some duplicates, the same for every run
+     */
+    private static double[] getBenchmarkKeys() {
+        Random random = new Random(BENCHMARKIDCOUNT);
+        double[] keys = new double[BENCHMARKIDCOUNT];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextInt(BENCHMARKIDCOUNT);
+        }
+        return keys;
+    }
+
+    /**
+     * @return the number of ids polled
+     */
+    private static int runHeap() {
+        double[] keys = getBenchmarkKeys();
+        IndexedMinHeap heap = new IndexedMinHeap(BENCHMARKIDCOUNT);
+        for (int i = 0; i < keys.length; i++) {
+            heap.insert(i, keys[i]);
+        }
+        for (int i = 0; i < keys.length; i += 2) {
+            keys[i] = keys[i] / 2;
+            heap.decreaseKey(i, keys[i]);
+        }
+        int count = 0;
+        while (!heap.isEmpty()) {
+            heap.poll();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of ids polled
+     */
+    private static int runTreeSet() {
+        final double[] keys = getBenchmarkKeys();
+        TreeSet<Integer> set = new TreeSet<Integer>(new Comparator<Integer>() {
+            public int compare(final Integer aA, final Integer aB) {
+                int retval = Double.compare(keys[aA], keys[aB]);
+                if (retval == 0) {
+                    return aA.compareTo(aB);
+                }
+                return retval;
+            }
+        });
+        for (int i = 0; i < keys.length; i++) {
+            set.add(i);
+        }
+        for (int i = 0; i < keys.length; i += 2) {
+            // a TreeSet needs remove+add to change a key
+            set.remove(i);
+            keys[i] = keys[i] / 2;
+            set.add(i);
+        }
+        int count = 0;
+        while (!set.isEmpty()) {
+            set.pollFirst();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of ids polled
+     */
+    private static int runTreeMap() {
+        double[] keys = getBenchmarkKeys();
+        NavigableMap<Double, Integer> map = new TreeMap<Double, Integer>();
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        for (int i = 0; i < keys.length; i += 2) {
+            map.remove(keys[i]);
+            keys[i] = keys[i] / 2;
+            map.put(keys[i], i);
+        }
+        int count = 0;
+        while (!map.isEmpty()) {
+            map.pollFirstEntry();
+            count++;
+        }
+        return count;
+    }
+}
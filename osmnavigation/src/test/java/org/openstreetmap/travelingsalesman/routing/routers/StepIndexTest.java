@@ -0,0 +1,206 @@
+/**
+ * This file is part of OSMNavigation by Marcus Wolschon <a href="mailto:Marcus@Wolscon.biz">Marcus@Wolscon.biz</a>.
+ * You can purchase support for a sensible hourly rate or
+ * a commercial license of this file (unless modified by others) by contacting him directly.
+ *
+ *  OSMNavigation is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  OSMNavigation is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with OSMNavigation.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ ***********************************
+ * Editing this file:
+ *  -For consistent code-quality this file should be checked with the
+ *   checkstyle-ruleset enclosed in this project.
+ *  -After the design of this file has settled it should get it's own
+ *   JUnit-Test that shall be executed regularly. It is best to write
+ *   the test-case BEFORE writing this class and to run it on every build
+ *   as a regression-test.
+ */
+package org.openstreetmap.travelingsalesman.routing.routers;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.openstreetmap.osm.data.IDataSet;
+import org.openstreetmap.osm.data.MemoryDataSet;
+import org.openstreetmap.travelingsalesman.routing.Route.RoutingStep;
+
+import org.openstreetmap.osmosis.core.domain.v0_6.Node;
+import org.openstreetmap.osmosis.core.domain.v0_6.OsmUser;
+import org.openstreetmap.osmosis.core.domain.v0_6.Way;
+
+/**
+ * Test the {@link StepIndex} of the {@link TurnRestrictedAStar}
+ * and compare it's speed with the String-keys used before.
+ */
+public class StepIndexTest extends TestCase {
+
+    /**
+     * my logger for debug and error-output.
+     */
+    private static final Logger LOG = Logger.getLogger(StepIndexTest.class.getName());
+
+    /**
+     * Number of rows and columns of the grid of steps.
+     */
+    private static final int GRIDSIZE = 200;
+
+    /**
+     * How often the benchmark is repeated to warm up the JIT.
+     */
+    private static final int BENCHMARKROUNDS = 3;
+
+    /**
+     * All steps in both directions along the rows and columns of a grid.
+     */
+    private RoutingStep[] mySteps;
+
+    /**
+     * Build the grid of steps.
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        IDataSet map = new MemoryDataSet();
+        Node[][] nodes = new Node[GRIDSIZE][GRIDSIZE];
+        for (int row = 0; row < GRIDSIZE; row++) {
+            for (int col = 0; col < GRIDSIZE; col++) {
+                nodes[row][col] = new Node(row * GRIDSIZE + col + 1, 0, new Date(), OsmUser.NONE, 0, row, col);
+            }
+        }
+        mySteps = new RoutingStep[4 * GRIDSIZE * (GRIDSIZE - 1)];
+        int i = 0;
+        for (int row = 0; row < GRIDSIZE; row++) {
+            Way rowWay = new Way(row + 1, 0, new Date(), OsmUser.NONE, 0);
+            Way colWay = new Way(GRIDSIZE + row + 1, 0, new Date(), OsmUser.NONE, 0);
+            for (int col = 1; col < GRIDSIZE; col++) {
+                mySteps[i++] = new RoutingStep(map, nodes[row][col - 1], nodes[row][col], rowWay);
+                mySteps[i++] = new RoutingStep(map, nodes[row][col], nodes[row][col - 1], rowWay);
+                mySteps[i++] = new RoutingStep(map, nodes[col - 1][row], nodes[col][row], colWay);
+                mySteps[i++] = new RoutingStep(map, nodes[col][row], nodes[col - 1][row], colWay);
+            }
+        }
+    }
+
+    /**
+     * Every step must get it's own index and keep it's state.
+     */
+    public void testIndex() {
+        StepIndex index = new StepIndex();
+        for (int i = 0; i < mySteps.length; i++) {
+            assertEquals(StepIndex.NOTFOUND, index.findIndex(mySteps[i]));
+            assertEquals(i, index.getIndex(mySteps[i]));
+            assertFalse(index.hasBestDistance(i));
+            index.setBest(i, i, mySteps[i]);
+            if (i % 2 == 0) {
+                index.setVisited(i);
+            }
+        }
+        assertEquals(mySteps.length, index.size());
+        for (int i = 0; i < mySteps.length; i++) {
+            assertEquals(i, index.getIndex(mySteps[i]));
+            assertEquals(i, index.findIndex(mySteps[i]));
+            assertSame(mySteps[i], index.getStep(i));
+            assertSame(mySteps[i], index.getBestStep(i));
+            assertEquals((double) i, index.getBestDistance(i));
+            assertEquals(i % 2 == 0, index.isVisited(mySteps[i]));
+        }
+        assertEquals(mySteps.length, index.size());
+    }
+
+    /**
+     * Time the lookups of a relaxation with String-keys
+     * as TurnRestrictedAStar used to do and with the {@link StepIndex}.
+     * This is a coarse timing, the numbers are only logged.
+     * It is skipped unless the system-property
+     * {@link IndexedMinHeapTest#BENCHMARKPROPERTY} is set.
+     */
+    public void testBenchmark() {
+        if (!Boolean.getBoolean(IndexedMinHeapTest.BENCHMARKPROPERTY)) {
+            return;
+        }
+        for (int round = 0; round < BENCHMARKROUNDS; round++) {
+            long start = System.nanoTime();
+            double stringSum = runStringKeys();
+            long stringTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            double indexSum = runStepIndex();
+            long indexTime = System.nanoTime() - start;
+
+            assertEquals(stringSum, indexSum);
+            LOG.info("round " + round + " (" + mySteps.length + " steps): String-keys " + (stringTime / 1000000) + "ms"
+                    + ", StepIndex " + (indexTime / 1000000) + "ms");
+        }
+    }
+
+    /**
+     * @return a checksum
+     */
+    private double runStringKeys() {
+        Map<String, Double> bestDistances = new HashMap<String, Double>();
+        Map<String, RoutingStep> bestSteps = new HashMap<String, RoutingStep>();
+        Set<String> visited = new HashSet<String>();
+        double sum = 0;
+        for (int i = 0; i < mySteps.length; i++) {
+            RoutingStep step = mySteps[i];
+            if (visited.contains(getStepKey(step))) {
+                continue;
+            }
+            if (!bestDistances.containsKey(getStepKey(step)) || bestDistances.get(getStepKey(step)) > i) {
+                bestDistances.put(getStepKey(step), (double) i);
+                bestSteps.put(getStepKey(step), step);
+            }
+            visited.add(getStepKey(step));
+            sum += bestDistances.get(getStepKey(step));
+        }
+        return sum;
+    }
+
+    /**
+     * @return a checksum
+     */
+    private double runStepIndex() {
+        StepIndex steps = new StepIndex();
+        double sum = 0;
+        for (int i = 0; i < mySteps.length; i++) {
+            RoutingStep step = mySteps[i];
+            if (steps.isVisited(step)) {
+                continue;
+            }
+            int index = steps.getIndex(step);
+            if (!steps.hasBestDistance(index) || steps.getBestDistance(index) > i) {
+                steps.setBest(index, i, step);
+            }
+            steps.setVisited(index);
+            sum += steps.getBestDistance(index);
+        }
+        return sum;
+    }
+
+    /**
+     * @param aStep the step
+     * @return the String-key TurnRestrictedAStar used before
+     */
+    private static String getStepKey(final RoutingStep aStep) {
+        return aStep.getStartNode().getId()
+             + "-" + aStep.getWay().getId()
+             + "-" + aStep.getEndNode().getId();
+    }
+}